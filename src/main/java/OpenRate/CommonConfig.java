@@ -41,6 +41,21 @@ public class CommonConfig {
    */
   public static final String DEFAULT_BUFFER_TYPE = "OpenRate.buffer.ArrayListQueueBuffer";
 
+  /**
+   * The key to use in the pipeline configuration for setting the number of
+   * records that a bounded FIFO buffer (for example the
+   * OpenRate.buffer.RingQueueBuffer) can hold. This is ignored by the unbounded
+   * buffer types.
+   */
+  public static final String BUFFER_CAPACITY = "BufferCapacity";
+
+  /**
+   * The default capacity of bounded FIFO buffers. This should be comfortably
+   * larger than the batch size, so that a full batch can be pushed without the
+   * supplier having to wait.
+   */
+  public static final String DEFAULT_BUFFER_CAPACITY = "16384";
+
   /**
    * Output adapter performance setting. This specifies the configuration
    * property name for setting the number of threads to allocate for output
@@ -113,6 +128,20 @@ public class CommonConfig {
    */
   public static final String NUM_PROCESSING_THREADS_DEFAULT = "1";
 
+  /**
+   * Defines the properties key for the number of times a processing plugin
+   * thread checks its input buffer for new records before it parks itself to
+   * wait for a notification. Spinning lowers the wake up latency for real time
+   * and small batch pipelines, at the cost of CPU while idle.
+   */
+  public static final String SPIN_COUNT = "SpinCount";
+
+  /**
+   * Defines the default value for the spin count. By default plugin threads
+   * park straight away when there is no work.
+   */
+  public static final String DEFAULT_SPIN_COUNT = "0";
+
   /**
    * Defines the response string for the ECI when a non-dynamic parameter is
    * changed
@@ -4,7 +4,9 @@ package OpenRate;
 import OpenRate.adapter.IInputAdapter;
 import OpenRate.adapter.IOutputAdapter;
 import OpenRate.adapter.realTime.IRTAdapter;
+import OpenRate.buffer.IBoundedBuffer;
 import OpenRate.buffer.IBuffer;
+import OpenRate.buffer.IConsumer;
 import OpenRate.configurationmanager.ClientManager;
 import OpenRate.configurationmanager.IEventInterface;
 import OpenRate.exception.ExceptionHandler;
@@ -13,6 +15,8 @@ import OpenRate.exception.ProcessingException;
 import OpenRate.logging.ILogger;
 import OpenRate.logging.LogUtil;
 import OpenRate.process.IPlugIn;
+import OpenRate.process.IPooledPlugIn;
+import OpenRate.process.ProcessingPool;
 import OpenRate.transaction.ISyncPoint;
 import OpenRate.transaction.TransactionManager;
 import OpenRate.transaction.TransactionManagerFactory;
@@ -116,7 +120,9 @@ public class Pipeline
   private final String SERVICE_RUNCOUNT = "RunCount";
   private final String SERVICE_HALT_ON_EXCP = "HaltOnException";
   private final String SERVICE_BUFFER_STATUS = "BufferStatus";
+  private final String SERVICE_BUFFER_WATERMARKS = "BufferWatermarks";
   private final String SERVICE_PIPELINE_TYPE = "PipelineType";
+  private final String SERVICE_EXECUTION_MODE = "ExecutionMode";
 
   // If we encounter an unhadled processing exception, this says if we stop
   private boolean haltOnException = true;
@@ -137,9 +143,16 @@ public class Pipeline
   // Used to map the buffers in order that we can interrogate them
   ArrayList<IBuffer> bufferList = new ArrayList<>();
 
+  // The capacity we set on bounded buffers
+  private int bufferCapacity;
+
   // this tells us if this is a batch pipe - used for management
   private boolean batchPipeline;
 
+  // this tells us if the plug ins run as tasks on the shared processing pool
+  // instead of on their own threads
+  private boolean pooledExecution;
+
   // Used to simplify logging and exception handling
   private String message;
 
@@ -213,6 +226,7 @@ public class Pipeline
     // used in setting up the pipe
     String strActiveState;
     String strHaltOnExcp;
+    String executionMode;
 
     // Initialise the default polling sleep time
     sleepTime = 5000;
@@ -233,6 +247,10 @@ public class Pipeline
       strHaltOnExcp = PropertyUtils.getPropertyUtils().getPropertyValueDef("PipelineList." + symbolicName + "." + SERVICE_HALT_ON_EXCP,
               "True");
 
+      // get the way we run the plug ins
+      executionMode = PropertyUtils.getPropertyUtils().getPropertyValueDef("PipelineList." + symbolicName + "." + SERVICE_EXECUTION_MODE,
+              "Threads");
+
       // Get the transaction controller configuration
       // Validate what we got for the pipe type
       if (pipelineType.equalsIgnoreCase("Batch")) {
@@ -246,6 +264,16 @@ public class Pipeline
         throw new InitializationException(message, getSymbolicName());
       }
 
+      // Validate what we got for the execution mode
+      if (executionMode.equalsIgnoreCase("Threads")) {
+        pooledExecution = false;
+      } else if (executionMode.equalsIgnoreCase("Pooled")) {
+        pooledExecution = true;
+      } else {
+        message = "Execution Mode must be either Threads or Pooled, but we got <" + executionMode + "> in pipeline <" + symbolicName + ">. Aborting.";
+        throw new InitializationException(message, getSymbolicName());
+      }
+
       OpenRate.getOpenRateFrameworkLog().info("*** Constructing " + pipelineType + " pipeline <" + symbolicName + "> ***");
 
       // Set the pipeline state with the value we have found from the
@@ -272,6 +300,9 @@ public class Pipeline
         // create the batch output adapter list
         batchOutputAdapterList = getBatchOutputAdapterList(pipeExceptionHandler);
 
+        // Get the capacity for bounded buffers
+        bufferCapacity = getBufferCapacity();
+
         // Hookup the buffers through the chain
         hookupBuffers(getBufferClass());
       } else // Construct the pipeline according to the real time model
@@ -325,6 +356,47 @@ public class Pipeline
     return BufferClass;
   }
 
+  /**
+   * Get the capacity to use for bounded FIFO buffers in batch pipelines
+   *
+   * @return The buffer capacity
+   * @throws InitializationException
+   */
+  private int getBufferCapacity() throws InitializationException {
+    String capacity;
+
+    capacity = PropertyUtils.getPropertyUtils().getPipelinePropertyValueDef(symbolicName,
+            "Configuration",
+            CommonConfig.BUFFER_CAPACITY,
+            CommonConfig.DEFAULT_BUFFER_CAPACITY);
+
+    try {
+      return Integer.parseInt(capacity);
+    } catch (NumberFormatException ex) {
+      message = "BufferCapacity must be a numeric value, but we got <" + capacity + "> in pipeline <" + symbolicName + ">. Aborting.";
+      throw new InitializationException(message, getSymbolicName());
+    }
+  }
+
+  /**
+   * Create a FIFO buffer of the configured class. Bounded buffers are sized
+   * with the configured buffer capacity.
+   *
+   * @param BufferClass The FIFO buffer class we are using for batch pipes
+   * @return The new buffer
+   * @throws InstantiationException
+   * @throws IllegalAccessException
+   */
+  private IBuffer createBuffer(Class<?> BufferClass) throws InstantiationException, IllegalAccessException {
+    IBuffer newBuffer = (IBuffer) BufferClass.newInstance();
+
+    if (newBuffer instanceof IBoundedBuffer) {
+      ((IBoundedBuffer) newBuffer).setCapacity(bufferCapacity);
+    }
+
+    return newBuffer;
+  }
+
   /**
    * Get and initialise the batch input adapter for this pipeline
    *
@@ -624,7 +696,7 @@ public class Pipeline
       // Hookup the input buffers - there can only be one input adapter of each
       // type (realtime / batch) at the moment, so we can create these
       // statically
-      tmpBuffer = (IBuffer) BufferClass.newInstance();
+      tmpBuffer = createBuffer(BufferClass);
       bufferList.add(tmpBuffer);
 
       batchInputAdapter.setBatchOutboundValidBuffer(tmpBuffer);
@@ -646,7 +718,7 @@ public class Pipeline
 
         for (Index = 1; Index < plugInList.size(); Index++) {
           // create a new buffer
-          tmpBuffer = (IBuffer) BufferClass.newInstance();
+          tmpBuffer = createBuffer(BufferClass);
           bufferList.add(tmpBuffer);
 
           // hook the buffer up to the next processing module for batch
@@ -659,11 +731,8 @@ public class Pipeline
         }
 
         // Last processing module, hook it up to the first output adapter
-        tmpBuffer = (IBuffer) BufferClass.newInstance();
+        tmpBuffer = createBuffer(BufferClass);
         bufferList.add(tmpBuffer);
-
-        // Last processing module, hook it up to the first output adapter
-        tmpBuffer = (IBuffer) BufferClass.newInstance();
         tmpPlugIn = plugInList.get(plugInList.size() - 1);
         tmpPlugIn.setOutbound(tmpBuffer);
         tmpBuffer.setSupplier(tmpPlugIn.getSymbolicName());
@@ -692,7 +761,7 @@ public class Pipeline
       // do the rest of the chain.
       for (Index = 1; Index < batchOutputAdapterList.size(); Index++) {
         // create a new buffer for the valid and error records
-        tmpBuffer = (IBuffer) BufferClass.newInstance();
+        tmpBuffer = createBuffer(BufferClass);
         bufferList.add(tmpBuffer);
 
         // hook the valid and error buffers up to the next processing module
@@ -747,17 +816,28 @@ public class Pipeline
     // The number of records in the pipe
     long recordsInPipe;
 
+    // If the input was held back at the high water mark of its buffer
+    boolean inputHeldBack;
+
     try {
       startPipeline();
 
       // **** Manage the main processing loop ****
       while (!stop) {
         // perform the pipeline processing if the pipe is active
+        inputHeldBack = false;
         if (active) {
           // retrieve input records, if there are any that need doing. We only
           // do this if there is a batch input adapter that is set
           if (batchInputAdapter != null) {
-            recordsReceived = batchInputAdapter.push(batchInputAdapter.getBatchOutboundValidBuffer());
+            // In pooled execution the plug ins are nudged by this loop, so we
+            // must not wait in the input adapter for them to drain its buffer
+            if (pooledExecution && isInputHeldBack()) {
+              inputHeldBack = true;
+              recordsReceived = 0;
+            } else {
+              recordsReceived = batchInputAdapter.push(batchInputAdapter.getBatchOutboundValidBuffer());
+            }
           }
         }
 
@@ -766,7 +846,7 @@ public class Pipeline
         recordsInPipe = checkPipeline();
 
         // See if there are still records in the pipe
-        if (getTransactionOpen((recordsReceived + recordsInPipe) > 0) | (localSyncStatus > 0)) {
+        if (getTransactionOpen((recordsReceived + recordsInPipe) > 0) | (localSyncStatus > 0) | inputHeldBack) {
           // This is the number of cycles we continue to use the fast scheduling
           // for, after there is no more real work to do.
           setSchedulerHigh();
@@ -842,7 +922,7 @@ public class Pipeline
         // Certain number of runs
         if (runCount > 0) {
           // If we are idle, decrement the runcount
-          if (recordsReceived == 0) {
+          if ((recordsReceived == 0) && !inputHeldBack) {
             runCount--;
           }
 
@@ -940,6 +1020,7 @@ public class Pipeline
     IPlugIn tmpPlugIn;
     ThreadGroup tmpGrpPlugIn;
     IOutputAdapter tmpOutputAdapter;
+    IPooledPlugIn supplierPlugIn = null;
 
     OpenRate.getOpenRateFrameworkLog().debug("Pipeline <" + getSymbolicName() + "> starting...");
 
@@ -969,6 +1050,18 @@ public class Pipeline
         tmpGrpPlugIn = new ThreadGroup(pluginRoot, tmpPlugIn.getSymbolicName());
         thGrpsPlugIn.add(tmpGrpPlugIn);
 
+        // In pooled execution, the plug in schedules its batches on the shared
+        // pool, and the thread group stays empty
+        if (pooledExecution && (tmpPlugIn instanceof IPooledPlugIn)) {
+          ((IPooledPlugIn) tmpPlugIn).setSupplierPlugIn(supplierPlugIn);
+          ((IPooledPlugIn) tmpPlugIn).startPooled(ProcessingPool.getProcessingPool());
+          supplierPlugIn = (IPooledPlugIn) tmpPlugIn;
+          continue;
+        }
+
+        // a plug in on its own threads does not need to be nudged
+        supplierPlugIn = null;
+
         int thread_count = (tmpPlugIn.numThreads() > 0)
                 ? tmpPlugIn.numThreads() : 1;
 
@@ -1045,6 +1138,18 @@ public class Pipeline
     stopOutputAdapters();
   }
 
+  /**
+   * Check, without waiting, if the input adapter buffer is above its high water
+   * mark and the first module has not yet drained it to the low water mark.
+   *
+   * @return true if the input adapter should not load any more for now
+   */
+  private boolean isInputHeldBack() {
+    IConsumer inputBuffer = batchInputAdapter.getBatchOutboundValidBuffer();
+
+    return (inputBuffer instanceof IBuffer) && ((IBuffer) inputBuffer).isHeldBack();
+  }
+
   /**
    * Perform regular maintenance on the pipeline elements. Also checks the pipe
    * for exceptions, and in the case one is found, report it and shut down the
@@ -1065,6 +1170,12 @@ public class Pipeline
     while (pluginIterator.hasNext() && threadGroupIterator.hasNext()) {
       tmpPlugIn = pluginIterator.next();
       RecordsInPipe += tmpPlugIn.getOutboundRecordCount();
+
+      // Pooled plug ins that stopped because their output was full are not
+      // told when it drains, so give them a nudge
+      if (pooledExecution && (tmpPlugIn instanceof IPooledPlugIn)) {
+        ((IPooledPlugIn) tmpPlugIn).schedule();
+      }
     }
 
     for (int i = 0; i < batchOutputAdapterList.size(); ++i) {
@@ -1188,6 +1299,24 @@ public class Pipeline
       tmpPlugIn.markForShutdown();
       tmpGrpPlugIn = threadGroupIterator.next();
 
+      // wait for all the tasks of a pooled plug in to finish
+      if (pooledExecution && (tmpPlugIn instanceof IPooledPlugIn)) {
+        while (((IPooledPlugIn) tmpPlugIn).isIdle() == false) {
+          OpenRate.getOpenRateFrameworkLog().debug(
+                  "Waiting for pooled plugin <" + tmpPlugIn.getSymbolicName()
+                  + "> to finish.");
+
+          // make sure that the remaining work is scheduled
+          ((IPooledPlugIn) tmpPlugIn).schedule();
+
+          try {
+            Thread.sleep(100);
+          } catch (InterruptedException ie) {
+            OpenRate.getOpenRateFrameworkLog().debug("Interrupted!");
+          }
+        }
+      }
+
       // wait for all Threads in this group to shutdown.
       while (tmpGrpPlugIn.activeCount() > 0) //&& (Handler.hasError() == false))
       {
@@ -1420,6 +1549,24 @@ public class Pipeline
       }
     }
 
+    if (Command.equalsIgnoreCase(SERVICE_BUFFER_WATERMARKS)) {
+      Iterator<IBuffer> bufferIter = bufferList.iterator();
+      String responseString = "";
+      IBuffer tmpBuffer;
+
+      if (Parameter.equals("")) {
+        // consumer=high:low:times held back:times released
+        while (bufferIter.hasNext()) {
+          tmpBuffer = bufferIter.next();
+          responseString = responseString + tmpBuffer.getConsumer() + "="
+                  + tmpBuffer.getHighWatermark() + ":" + tmpBuffer.getLowWatermark() + ":"
+                  + tmpBuffer.getHighWatermarkCount() + ":" + tmpBuffer.getLowWatermarkCount() + ", ";
+        }
+
+        return responseString;
+      }
+    }
+
     logStr = "Command " + Command + " handled by OpenRateApplication";
     OpenRate.getOpenRateFrameworkLog().debug(logStr);
 
@@ -1452,6 +1599,7 @@ public class Pipeline
     ClientManager.getClientManager().registerClientService(getSymbolicName(), SERVICE_RUNCOUNT, ClientManager.PARAM_DYNAMIC);
     ClientManager.getClientManager().registerClientService(getSymbolicName(), SERVICE_HALT_ON_EXCP, ClientManager.PARAM_DYNAMIC);
     ClientManager.getClientManager().registerClientService(getSymbolicName(), SERVICE_BUFFER_STATUS, ClientManager.PARAM_DYNAMIC);
+    ClientManager.getClientManager().registerClientService(getSymbolicName(), SERVICE_BUFFER_WATERMARKS, ClientManager.PARAM_DYNAMIC);
   }
 
   // -----------------------------------------------------------------------------
@@ -3,6 +3,8 @@ package OpenRate.adapter;
 import OpenRate.CommonConfig;
 import OpenRate.IPipeline;
 import OpenRate.OpenRate;
+import OpenRate.buffer.IBoundedBuffer;
+import OpenRate.buffer.IBuffer;
 import OpenRate.buffer.IConsumer;
 import OpenRate.configurationmanager.ClientManager;
 import OpenRate.configurationmanager.IEventInterface;
@@ -126,6 +128,15 @@ public abstract class AbstractInputAdapter
     Collection<IRecord> validRecords;
     Collection<IRecord> all;
 
+    // Don't load any more records while the first module is catching up. We
+    // are released when it has drained the buffer to the low water mark. In
+    // pooled execution the pipeline checks the buffer before calling us, so
+    // that we never wait here
+    if ((validBuffer instanceof IBuffer) && ((IBuffer) validBuffer).awaitLowWatermark()) {
+      bufferHits++;
+      OpenRate.getOpenRateStatsLog().debug("Input  <" + getSymbolicName() + "> held back at buffer high water mark <" + bufferSize + ">");
+    }
+
     // load records
     startTime = System.currentTimeMillis();
 
@@ -151,19 +162,6 @@ public abstract class AbstractInputAdapter
       processingTime += BatchTime;
       recordsProcessed += size;
       outBufferCapacity = validBuffer.getEventCount();
-
-      while (outBufferCapacity > bufferSize) {
-        bufferHits++;
-        OpenRate.getOpenRateStatsLog().debug("Input  <" + getSymbolicName() + "> buffer high water mark! Buffer max = <" + bufferSize + "> current count = <" + outBufferCapacity + ">");
-        try {
-          Thread.sleep(100);
-        } catch (InterruptedException ex) {
-          //
-        }
-
-        // refresh
-        outBufferCapacity = validBuffer.getEventCount();
-      }
     } catch (ProcessingException pe) {
       getPipeLog().error("Processing exception caught in Input Adapter <"
               + getSymbolicName() + ">", pe);
@@ -203,6 +201,18 @@ public abstract class AbstractInputAdapter
   @Override
   public void setBatchOutboundValidBuffer(IConsumer ch) {
     this.consumer = ch;
+
+    applyWatermarks();
+  }
+
+  /**
+   * Set the water marks of the outbound buffer from the buffer size, releasing
+   * at half of the buffer size. Bounded buffers do their own flow control.
+   */
+  private void applyWatermarks() {
+    if ((consumer instanceof IBuffer) && !(consumer instanceof IBoundedBuffer)) {
+      ((IBuffer) consumer).setWatermarks(bufferSize, bufferSize / 2);
+    }
   }
 
   /**
@@ -353,6 +363,7 @@ public abstract class AbstractInputAdapter
       } else {
         try {
           bufferSize = Integer.parseInt(Parameter);
+          applyWatermarks();
         } catch (NumberFormatException nfe) {
           getPipeLog().error(
                   "Invalid number for buffer size. Passed value = <"
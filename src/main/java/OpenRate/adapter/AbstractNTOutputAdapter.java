@@ -3,6 +3,8 @@ package OpenRate.adapter;
 import OpenRate.CommonConfig;
 import OpenRate.IPipeline;
 import OpenRate.OpenRate;
+import OpenRate.buffer.IBoundedBuffer;
+import OpenRate.buffer.IBuffer;
 import OpenRate.buffer.IConsumer;
 import OpenRate.buffer.IEvent;
 import OpenRate.buffer.IMonitor;
@@ -265,16 +267,13 @@ public abstract class AbstractNTOutputAdapter
               // push the remaining records to the next adapter
               getBatchOutboundValidBuffer().push(out);
 
-              while (outBufferCapacity > bufferSize) {
+              // wait for the next adapter to drain its buffer if we filled it
+              IConsumer outbound = getBatchOutboundValidBuffer();
+              if ((outbound instanceof IBuffer) && ((IBuffer) outbound).awaitLowWatermark()) {
                 bufferHits++;
-                OpenRate.getOpenRateStatsLog().debug("Output <" + getSymbolicName() + "> buffer high water mark! Buffer max = <" + bufferSize + "> current count = <" + outBufferCapacity + ">");
-                try {
-                  Thread.sleep(sleepTime);
-                } catch (InterruptedException ex) {
-                  //
-                }
-                outBufferCapacity = getBatchOutboundValidBuffer().getEventCount();
+                OpenRate.getOpenRateStatsLog().debug("Output <" + getSymbolicName() + "> held back at buffer high water mark <" + bufferSize + ">");
               }
+              outBufferCapacity = outbound.getEventCount();
             }
           }
 
@@ -382,6 +381,18 @@ public abstract class AbstractNTOutputAdapter
   @Override
   public void setBatchOutboundValidBuffer(IConsumer ch) {
     this.outputValidBuffer = ch;
+
+    applyWatermarks();
+  }
+
+  /**
+   * Set the water marks of the buffer to the next output adapter from the
+   * buffer size. Bounded buffers do their own flow control.
+   */
+  private void applyWatermarks() {
+    if ((outputValidBuffer instanceof IBuffer) && !(outputValidBuffer instanceof IBoundedBuffer)) {
+      ((IBuffer) outputValidBuffer).setWatermarks(bufferSize, bufferSize / 2);
+    }
   }
 
   /**
@@ -583,6 +594,7 @@ public abstract class AbstractNTOutputAdapter
       } else {
         try {
           bufferSize = Integer.parseInt(Parameter);
+          applyWatermarks();
         } catch (NumberFormatException nfe) {
           getPipeLog().error(
                   "Invalid number for batch size. Passed value = <"
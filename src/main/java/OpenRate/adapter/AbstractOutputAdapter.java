@@ -3,6 +3,8 @@ package OpenRate.adapter;
 import OpenRate.CommonConfig;
 import OpenRate.IPipeline;
 import OpenRate.OpenRate;
+import OpenRate.buffer.IBoundedBuffer;
+import OpenRate.buffer.IBuffer;
 import OpenRate.buffer.IConsumer;
 import OpenRate.buffer.IEvent;
 import OpenRate.buffer.IMonitor;
@@ -34,6 +36,8 @@ public abstract class AbstractOutputAdapter
 
   private String symbolicName;
 
+  // No longer used for the flow control, which waits on the buffer water
+  // marks, but still accepted so that existing configurations load
   private int sleepTime = 100;
   private ISupplier inputValidBuffer = null;
   private IConsumer outputValidBuffer = null;
@@ -320,16 +324,8 @@ public abstract class AbstractOutputAdapter
 
             outBufferCapacity = getBatchOutboundValidBuffer().getEventCount();
 
-            while (outBufferCapacity > bufferSize) {
-              bufferHits++;
-              OpenRate.getOpenRateStatsLog().debug("Output <" + getSymbolicName() + "> buffer high water mark! Buffer max = <" + bufferSize + "> current count = <" + outBufferCapacity + ">");
-              try {
-                Thread.sleep(sleepTime);
-              } catch (InterruptedException ex) {
-                //
-              }
-              outBufferCapacity = getBatchOutboundValidBuffer().getEventCount();
-            }
+            // wait for the next adapter if we have filled its buffer
+            holdBack();
           }
         } else {
           // even if there are no valid records, we have to push the header/trailer
@@ -362,10 +358,14 @@ public abstract class AbstractOutputAdapter
         }
 
         // If not marked for shutdown, wait for notification from the
-        // supplier that new records are available for processing.
+        // supplier that new records are available for processing. Check
+        // again under the lock, as the supplier may have pushed and notified
+        // since our pull.
         try {
           synchronized (this) {
-            wait();
+            if (!shutdownFlag && (getBatchInboundValidBuffer().getEventCount() == 0)) {
+              wait();
+            }
           }
         } catch (InterruptedException e) {
           // ignore
@@ -374,6 +374,19 @@ public abstract class AbstractOutputAdapter
     } // while loop
   }
 
+  /**
+   * Wait while the buffer to the next output adapter is above its high water
+   * mark, until it has been drained to the low water mark.
+   */
+  private void holdBack() {
+    IConsumer outbound = getBatchOutboundValidBuffer();
+
+    if ((outbound instanceof IBuffer) && ((IBuffer) outbound).awaitLowWatermark()) {
+      bufferHits++;
+      OpenRate.getOpenRateStatsLog().debug("Output <" + getSymbolicName() + "> held back at buffer high water mark <" + bufferSize + ">");
+    }
+  }
+
   /**
    * This is used in the case that we want to skip to the end of the stream
    * discarding records as we go. This is primarily used in the abort
@@ -607,6 +620,7 @@ public abstract class AbstractOutputAdapter
       } else {
         try {
           bufferSize = Integer.parseInt(parameter);
+          applyWatermarks();
         } catch (NumberFormatException nfe) {
           getPipeLog().error(
                   "Invalid number for batch size. Passed value = <"
@@ -805,6 +819,18 @@ public abstract class AbstractOutputAdapter
   @Override
   public void setBatchOutboundValidBuffer(IConsumer ch) {
     this.outputValidBuffer = ch;
+
+    applyWatermarks();
+  }
+
+  /**
+   * Set the water marks of the buffer to the next output adapter from the
+   * buffer size. Bounded buffers do their own flow control.
+   */
+  private void applyWatermarks() {
+    if ((outputValidBuffer instanceof IBuffer) && !(outputValidBuffer instanceof IBoundedBuffer)) {
+      ((IBuffer) outputValidBuffer).setWatermarks(bufferSize, bufferSize / 2);
+    }
   }
 
   /**
@@ -14,6 +14,7 @@ import OpenRate.record.IRecord;
 import OpenRate.utils.PropertyUtils;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class implements the real time (RT) adapter for the OpenRate framework.
@@ -44,10 +45,9 @@ public abstract class AbstractRTAdapter implements IRTAdapter
   // used to create the output batches
   int outputCounter = 0;
 
-  /**
-   * used to number records that we process
-   */
-  protected int currRecordNumber;
+  // used to number records that we process. Records arrive on many
+  // connections at once, so this has to be atomic
+  private final AtomicInteger currRecordNumber = new AtomicInteger();
 
   // The list of plugins that have been configured in the pipeline
   private ArrayList<IPlugIn> PlugInList;
@@ -57,6 +57,17 @@ public abstract class AbstractRTAdapter implements IRTAdapter
    */
   protected boolean debugging = false;
 
+ /**
+  * Get the next record number. This may be called concurrently by all of the
+  * connections.
+  *
+  * @return The record number
+  */
+  protected int getNextRecordNumber()
+  {
+    return currRecordNumber.getAndIncrement();
+  }
+
  /**
   * Get the ID of the thread that is currently being used in this context.
   *
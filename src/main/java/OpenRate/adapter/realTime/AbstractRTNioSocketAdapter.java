@@ -0,0 +1,210 @@
+package OpenRate.adapter.realTime;
+
+import OpenRate.exception.InitializationException;
+import OpenRate.exception.ProcessingException;
+import OpenRate.threads.ThreadPool;
+import OpenRate.utils.PropertyUtils;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * This class implements a non-blocking socket listener for the real time (RT)
+ * adapter. It takes the same requests and the same mapping as the
+ * AbstractRTSocketAdapter, but instead of a thread for each connection, a few
+ * event loop threads serve all of the connections, and the records are
+ * processed by a pool of worker threads. Clients may send further requests
+ * before they have received the responses to the earlier ones: the responses
+ * come back in the order of the requests.
+ *
+ * As well as the properties of the AbstractRTSocketAdapter, this adapter
+ * takes:
+ *  - EventLoopThreads: the number of event loop threads (default 1)
+ *  - WorkerThreads: the number of worker threads (default the number of
+ *    processors). With ThreadMode "Virtual", each request batch of a
+ *    connection gets a virtual thread instead, and this is ignored.
+ *  - WorkerQueueSize: the number of request batches that can wait for a
+ *    worker (default 1024)
+ *  - WorkerRejectionPolicy: what happens when the worker queue is full,
+ *    "Block" (default) or "CallerRuns", see ThreadPool
+ *  - BufferSize: the size of the network buffers in bytes (default 8192)
+ *  - MaxRequestLength: the longest request line in bytes (default 65536).
+ *    Longer requests close the connection.
+ *  - MaxPendingRequests: the number of requests a connection may have waiting
+ *    for processing before we stop reading from it (default 64)
+ *
+ * The mapping is called from the worker threads, under the same
+ * thread-confinement contract as the AbstractRTSocketAdapter. The worker pool
+ * is registered in the ECI as "<ModuleName>Workers", and reports its queue
+ * depth, activity and latency there.
+ */
+public abstract class AbstractRTNioSocketAdapter extends AbstractRTSocketAdapter
+{
+  // the number of event loop threads
+  private int eventLoopThreads;
+
+  // the number of worker threads
+  private int workerThreads;
+
+  // the number of request batches that can wait for a worker
+  private int workerQueueSize;
+
+  // what happens when the worker queue is full
+  private String workerRejectionPolicy;
+
+  // the network buffer size
+  private int bufferSize;
+
+  // the longest request line
+  private int maxRequestLength;
+
+  // the number of requests a connection may have waiting
+  private int maxPendingRequests;
+
+  // the non-blocking socket server
+  private NioSocketServer nioServer;
+
+  // the worker pool, if we use one
+  private ThreadPool workerPool;
+
+ /**
+  * Initialise the module. Called during pipeline creation.
+  *
+  * @param PipelineName The name of the pipeline this module is in
+  * @param ModuleName The module symbolic name of this module
+  * @throws OpenRate.exception.InitializationException
+  */
+  @Override
+  public void init(String PipelineName, String ModuleName) throws InitializationException
+  {
+    // Perform parent processing first
+    super.init(PipelineName, ModuleName);
+
+    eventLoopThreads = getIntegerProperty(PipelineName, ModuleName, "EventLoopThreads", "1");
+    workerThreads = getIntegerProperty(PipelineName, ModuleName, "WorkerThreads", Integer.toString(Runtime.getRuntime().availableProcessors()));
+    bufferSize = getIntegerProperty(PipelineName, ModuleName, "BufferSize", "8192");
+    maxRequestLength = getIntegerProperty(PipelineName, ModuleName, "MaxRequestLength", "65536");
+    maxPendingRequests = getIntegerProperty(PipelineName, ModuleName, "MaxPendingRequests", "64");
+    workerQueueSize = getIntegerProperty(PipelineName, ModuleName, "WorkerQueueSize", "1024");
+    workerRejectionPolicy = PropertyUtils.getPropertyUtils().getRTAdapterPropertyValueDef(PipelineName, ModuleName, "WorkerRejectionPolicy", ThreadPool.POLICY_BLOCK);
+
+    // virtual threads are not pooled
+    if (!isUseVirtualThreads())
+    {
+      try
+      {
+        workerPool = new ThreadPool(ModuleName + "Workers", workerThreads, workerQueueSize, workerRejectionPolicy);
+      }
+      catch (IllegalArgumentException iae)
+      {
+        throw new InitializationException(iae.getMessage(), getSymbolicName());
+      }
+
+      workerPool.setPipeName(PipelineName);
+      workerPool.registerClientManager();
+    }
+  }
+
+ /**
+  * Start the non-blocking socket server and the worker pool.
+  */
+  @Override
+  public void initialiseInputListener()
+  {
+    nioServer = new NioSocketServer();
+    nioServer.setParentAdapter(this);
+    nioServer.setPipelineLog(getPipeLog());
+    nioServer.setPipelineName(getPipeName());
+    nioServer.setPort(getListenerPort());
+    nioServer.setMaxConnections(getMaxConnections());
+    nioServer.setEventLoopCount(eventLoopThreads);
+    nioServer.setBufferSize(bufferSize);
+    nioServer.setMaxRequestLength(maxRequestLength);
+    nioServer.setMaxPendingRequests(maxPendingRequests);
+    nioServer.setExceptionHandler(getExceptionHandler());
+    nioServer.setWorkers(createWorkers());
+
+    try
+    {
+      nioServer.start();
+    }
+    catch (IOException e)
+    {
+      getPipeLog().error("RT NIO listener: Could not listen on port <" + getListenerPort() + ">: " + e.getMessage());
+      getExceptionHandler().reportException(new ProcessingException(e, getSymbolicName()));
+    }
+  }
+
+ /**
+  * Stop the socket server and the worker pool.
+  */
+  @Override
+  public void shutdownInputListener()
+  {
+    if (nioServer != null)
+    {
+      nioServer.shutdown();
+    }
+
+    if (workerPool != null)
+    {
+      workerPool.close();
+    }
+  }
+
+ /**
+  * Create the executor that processes the requests.
+  *
+  * @return The executor
+  */
+  private Executor createWorkers()
+  {
+    if (isUseVirtualThreads())
+    {
+      final ThreadFactory virtualFactory = new ListenerThreadFactory(true);
+
+      return new Executor()
+      {
+        @Override
+        public void execute(Runnable command)
+        {
+          virtualFactory.newThread(command).start();
+        }
+      };
+    }
+
+    return workerPool;
+  }
+
+ /**
+  * Read a positive integer property
+  *
+  * @param PipelineName The name of the pipeline this module is in
+  * @param ModuleName The module symbolic name of this module
+  * @param propertyName The property to read
+  * @param defaultValue The value to use if the property is not set
+  * @return The value
+  * @throws InitializationException
+  */
+  private int getIntegerProperty(String PipelineName, String ModuleName, String propertyName, String defaultValue) throws InitializationException
+  {
+    String ConfigHelper = PropertyUtils.getPropertyUtils().getRTAdapterPropertyValueDef(PipelineName, ModuleName, propertyName, defaultValue);
+    int value;
+
+    try
+    {
+      value = Integer.parseInt(ConfigHelper);
+    }
+    catch (NumberFormatException nfe)
+    {
+      throw new InitializationException ("Could not parse the " + propertyName + " value <" + ConfigHelper + ">",getSymbolicName());
+    }
+
+    if (value < 1)
+    {
+      throw new InitializationException (propertyName + " must be at least 1, but got <" + ConfigHelper + ">",getSymbolicName());
+    }
+
+    return value;
+  }
+}
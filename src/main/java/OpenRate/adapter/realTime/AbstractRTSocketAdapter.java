@@ -1,6 +1,7 @@
 
 package OpenRate.adapter.realTime;
 
+import OpenRate.OpenRate;
 import OpenRate.exception.InitializationException;
 import OpenRate.exception.ProcessingException;
 import OpenRate.record.FlatRecord;
@@ -16,12 +17,30 @@ import java.util.Iterator;
  *
  * The task of this layer is to create the listening and marshalling
  * infrastructure.
+ *
+ * Each connection is served by its own thread. With the "ThreadMode" property
+ * set to "Virtual", these are virtual threads, which allows a very large
+ * number of concurrent connections (set with "MaxConnections"). Virtual threads
+ * need Java 21 or later: on older JVMs we fall back to platform threads.
+ *
+ * The input and output mapping is called from all of the connection threads
+ * at the same time, without any lock, so that the connections do not queue up
+ * behind each other. Implementation classes must therefore keep their mapping
+ * state in local variables or in the record being mapped, which confines it to
+ * the thread of the connection. Any state shared between connections must be
+ * thread safe.
  */
 public abstract class AbstractRTSocketAdapter extends AbstractRTAdapter
 {
   // the port number to listen on
   int listenerPort;
 
+  // the maximum number of concurrent connections
+  private int maxConnections;
+
+  // whether each connection is served by a virtual thread
+  private boolean useVirtualThreads;
+
   // This is the listener socket server thread, which creates and spawns the
   // individual listener threads as connections are opened
   private SocketServerThread RTSocketServer;
@@ -70,6 +89,72 @@ public abstract class AbstractRTSocketAdapter extends AbstractRTAdapter
       // Could not use the value we got
       throw new InitializationException ("Could not parse the ListenerPort value <" + ConfigHelper + ">",getSymbolicName());
     }
+
+    // Get the maximum number of connections
+    ConfigHelper = PropertyUtils.getPropertyUtils().getRTAdapterPropertyValueDef(PipelineName, ModuleName, "MaxConnections", "10");
+
+    try
+    {
+      maxConnections = Integer.parseInt(ConfigHelper);
+    }
+    catch (NumberFormatException nfe)
+    {
+      throw new InitializationException ("Could not parse the MaxConnections value <" + ConfigHelper + ">",getSymbolicName());
+    }
+
+    // Get the thread mode
+    ConfigHelper = PropertyUtils.getPropertyUtils().getRTAdapterPropertyValueDef(PipelineName, ModuleName, "ThreadMode", ListenerThreadFactory.MODE_PLATFORM);
+
+    if (ConfigHelper.equalsIgnoreCase(ListenerThreadFactory.MODE_VIRTUAL))
+    {
+      if (ListenerThreadFactory.isVirtualThreadSupported())
+      {
+        useVirtualThreads = true;
+      }
+      else
+      {
+        OpenRate.getOpenRateFrameworkLog().warning("Virtual threads are not available in this JVM (Java 21 or later is needed). Using platform threads in RT adapter <" + getSymbolicName() + ">");
+        useVirtualThreads = false;
+      }
+    }
+    else if (ConfigHelper.equalsIgnoreCase(ListenerThreadFactory.MODE_PLATFORM))
+    {
+      useVirtualThreads = false;
+    }
+    else
+    {
+      throw new InitializationException ("ThreadMode must be <" + ListenerThreadFactory.MODE_PLATFORM + "> or <" + ListenerThreadFactory.MODE_VIRTUAL + ">, but got <" + ConfigHelper + ">",getSymbolicName());
+    }
+  }
+
+ /**
+  * Get the port number to listen on
+  *
+  * @return The listener port
+  */
+  protected int getListenerPort()
+  {
+    return listenerPort;
+  }
+
+ /**
+  * Get the maximum number of concurrent connections
+  *
+  * @return The maximum number of connections
+  */
+  protected int getMaxConnections()
+  {
+    return maxConnections;
+  }
+
+ /**
+  * Return whether the connections are served by virtual threads
+  *
+  * @return true if virtual threads are used
+  */
+  protected boolean isUseVirtualThreads()
+  {
+    return useVirtualThreads;
   }
 
  /**
@@ -86,6 +171,8 @@ public abstract class AbstractRTSocketAdapter extends AbstractRTAdapter
     RTSocketServer.setParentAdapter(this);
     RTSocketServer.setPipelineLog(getPipeLog());
     RTSocketServer.setPort(listenerPort);
+    RTSocketServer.setMaxConnections(maxConnections);
+    RTSocketServer.setThreadFactory(new ListenerThreadFactory(useVirtualThreads));
     RTSocketServer.setPipelineName(getPipeName());
     RTSocketServer.setThreadId("RTSocketServer");
 
@@ -121,7 +208,7 @@ public abstract class AbstractRTSocketAdapter extends AbstractRTAdapter
   * @throws ProcessingException
   */
   @Override
-  public synchronized IRecord performInputMapping(FlatRecord RTRecordToProcess) throws ProcessingException
+  public IRecord performInputMapping(FlatRecord RTRecordToProcess) throws ProcessingException
   {
     IRecord tmpRecord;
 
@@ -131,8 +218,7 @@ public abstract class AbstractRTSocketAdapter extends AbstractRTAdapter
     if (tmpRecord != null)
     {
       tmpRecord.setRealtime(true);
-      tmpRecord.setRecordID(currRecordNumber);
-      currRecordNumber++;
+      tmpRecord.setRecordID(getNextRecordNumber());
     }
 
     return tmpRecord;
@@ -146,7 +232,7 @@ public abstract class AbstractRTSocketAdapter extends AbstractRTAdapter
   * @return The processed real time record
   */
   @Override
-  public synchronized FlatRecord performValidOutputMapping(IRecord RTRecordToProcess)
+  public FlatRecord performValidOutputMapping(IRecord RTRecordToProcess)
   {
     IRecord tmpRecord;
 
@@ -167,7 +253,7 @@ public abstract class AbstractRTSocketAdapter extends AbstractRTAdapter
   * @return The processed real time record
   */
   @Override
-  public synchronized FlatRecord performErrorOutputMapping(IRecord RTRecordToProcess)
+  public FlatRecord performErrorOutputMapping(IRecord RTRecordToProcess)
   {
     IRecord tmpRecord;
 
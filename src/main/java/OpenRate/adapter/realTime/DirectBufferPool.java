@@ -0,0 +1,109 @@
+package OpenRate.adapter.realTime;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of direct byte buffers of a fixed size, used by the non-blocking RT
+ * socket server for reading requests and writing responses. Direct buffers
+ * are expensive to allocate and are only freed by the garbage collector, so
+ * we keep them for re-use rather than allocating one for each request.
+ *
+ * Buffers can be acquired and released from any thread.
+ */
+public class DirectBufferPool
+{
+  // the size of each buffer
+  private final int bufferSize;
+
+  // the maximum number of idle buffers we keep
+  private final int maxPooled;
+
+  // the idle buffers
+  private final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+
+  // the number of idle buffers. ConcurrentLinkedQueue.size() is not constant
+  // time, so we count them ourselves
+  private final AtomicInteger pooledCount = new AtomicInteger();
+
+ /**
+  * Constructor
+  *
+  * @param bufferSize The size in bytes of each buffer
+  * @param maxPooled The maximum number of idle buffers to keep
+  */
+  public DirectBufferPool(int bufferSize, int maxPooled)
+  {
+    if (bufferSize < 1)
+    {
+      throw new IllegalArgumentException("Buffer size must be positive, but got <" + bufferSize + ">");
+    }
+
+    this.bufferSize = bufferSize;
+    this.maxPooled = maxPooled;
+  }
+
+ /**
+  * Get a cleared buffer from the pool, allocating a new one if the pool is
+  * empty.
+  *
+  * @return The buffer
+  */
+  public ByteBuffer acquire()
+  {
+    ByteBuffer buffer = pool.poll();
+
+    if (buffer == null)
+    {
+      return ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    pooledCount.decrementAndGet();
+
+    return buffer;
+  }
+
+ /**
+  * Give a buffer back to the pool. Buffers that did not come from the pool
+  * are ignored, as are buffers beyond the maximum pool size.
+  *
+  * @param buffer The buffer to release
+  */
+  public void release(ByteBuffer buffer)
+  {
+    if ((buffer == null) || !buffer.isDirect() || (buffer.capacity() != bufferSize))
+    {
+      return;
+    }
+
+    if (pooledCount.incrementAndGet() > maxPooled)
+    {
+      pooledCount.decrementAndGet();
+      return;
+    }
+
+    buffer.clear();
+    pool.offer(buffer);
+  }
+
+ /**
+  * Get the size of the buffers in the pool
+  *
+  * @return The buffer size in bytes
+  */
+  public int getBufferSize()
+  {
+    return bufferSize;
+  }
+
+ /**
+  * Get the number of idle buffers in the pool
+  *
+  * @return The number of idle buffers
+  */
+  public int getPooledCount()
+  {
+    return pooledCount.get();
+  }
+}
@@ -0,0 +1,107 @@
+package OpenRate.adapter.realTime;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the threads that serve the real time connections. Depending on the
+ * thread mode, each connection gets either a platform thread, which is the
+ * traditional model, or a virtual thread. Virtual threads are cheap to create
+ * and park while they block on socket reads, so a large number of concurrent
+ * connections can be served without a platform thread for each of them.
+ *
+ * Virtual threads are only available on Java 21 and later. Because the
+ * framework still runs on older JVMs, we look them up by reflection, and fall
+ * back to platform threads where they are not available.
+ */
+public class ListenerThreadFactory implements ThreadFactory
+{
+ /**
+  * Thread mode: one platform thread per connection
+  */
+  public static final String MODE_PLATFORM = "Platform";
+
+ /**
+  * Thread mode: one virtual thread per connection
+  */
+  public static final String MODE_VIRTUAL = "Virtual";
+
+  // The virtual thread factory of the JVM, or null if the JVM does not have
+  // virtual threads. Looked up once.
+  private static final ThreadFactory VIRTUAL_FACTORY = lookupVirtualThreadFactory();
+
+  // whether this factory creates virtual threads
+  private final boolean virtual;
+
+ /**
+  * Constructor
+  *
+  * @param useVirtualThreads true to create virtual threads, if the JVM has them
+  */
+  public ListenerThreadFactory(boolean useVirtualThreads)
+  {
+    virtual = useVirtualThreads && isVirtualThreadSupported();
+  }
+
+ /**
+  * Return whether the running JVM supports virtual threads.
+  *
+  * @return true if virtual threads can be created
+  */
+  public static boolean isVirtualThreadSupported()
+  {
+    return VIRTUAL_FACTORY != null;
+  }
+
+ /**
+  * Return whether this factory creates virtual threads.
+  *
+  * @return true if the threads are virtual
+  */
+  public boolean isVirtual()
+  {
+    return virtual;
+  }
+
+ /**
+  * Create a new, unstarted, thread to run the given listener.
+  *
+  * @param r The listener to run
+  * @return The new thread
+  */
+  @Override
+  public Thread newThread(Runnable r)
+  {
+    if (virtual)
+    {
+      return VIRTUAL_FACTORY.newThread(r);
+    }
+    else
+    {
+      return new Thread(r);
+    }
+  }
+
+ /**
+  * Look up the virtual thread factory, Thread.ofVirtual().factory(), which
+  * exists from Java 21.
+  *
+  * @return The factory, or null if the JVM does not have virtual threads
+  */
+  private static ThreadFactory lookupVirtualThreadFactory()
+  {
+    try
+    {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+
+      // call through the public interface, the builder class itself is not
+      // accessible
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+
+      return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    }
+    catch (ReflectiveOperationException | ClassCastException ex)
+    {
+      return null;
+    }
+  }
+}
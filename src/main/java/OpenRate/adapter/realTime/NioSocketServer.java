@@ -0,0 +1,1014 @@
+package OpenRate.adapter.realTime;
+
+import OpenRate.configurationmanager.SocketConstants;
+import OpenRate.exception.ExceptionHandler;
+import OpenRate.exception.ProcessingException;
+import OpenRate.logging.ILogger;
+import OpenRate.record.FlatRecord;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This module implements a non-blocking socket server for the real time
+ * adapter. Instead of a thread for each connection, a small number of event
+ * loop threads multiplex all of the connections, each loop using its own
+ * Selector. The first loop also accepts the new connections, and hands them
+ * out to the loops in turn.
+ *
+ * Requests are lines of text, as with the RTSocketListener. The loops read the
+ * bytes into pooled direct buffers, split them into lines, and queue the lines
+ * on the connection. The records are then processed by the worker executor, so
+ * that a slow pipeline does not hold up the loops. A client may send several
+ * requests without waiting for the responses (pipelining): each connection has
+ * at most one worker task at a time, which works through the queued requests
+ * in order, so the responses come back in the order of the requests. This also
+ * means that the executor never has more tasks queued than there are
+ * connections.
+ *
+ * The responses are encoded into pooled direct buffers and written back by the
+ * event loop of the connection, without blocking the worker.
+ *
+ * A connection stops being read while it has more than the maximum number of
+ * requests waiting to be processed, and is read again once the worker has
+ * worked through half of them, so a client that pipelines faster than the
+ * pipeline can process cannot make the queue grow without bound. Requests
+ * longer than the maximum request length close the connection.
+ *
+ * Errors are reported to the pipeline exception handler, as they are by the
+ * RTSocketListener. A connection reset by the client is not an error.
+ */
+public class NioSocketServer
+{
+  // the longest request line we accept, to protect against a client that
+  // never sends a line end
+  private int maxRequestLength = 65536;
+
+  // the number of requests a connection may have waiting before we stop
+  // reading it
+  private int maxPendingRequests = 64;
+
+  // listener TCP port, 0 to use any free port
+  private int port = 0;
+
+  // maximum number of concurrent connections
+  private int maxConnections = 10;
+
+  // the number of event loop threads
+  private int eventLoopCount = 1;
+
+  // the size of the pooled network buffers
+  private int bufferSize = 8192;
+
+  // This is the reference to the RT adapter that will handle requests
+  private IRTAdapter parentRTAdapter;
+
+  // the executor that processes the requests
+  private Executor workers;
+
+  // the name of the pipeline, used for naming the threads
+  private String pipeName = "RT";
+
+  // the pipeline log
+  private ILogger pipeLog;
+
+  // used for reporting exceptions to the pipe handler
+  private ExceptionHandler handler;
+
+  // the character set of the requests and responses
+  private final Charset charset = Charset.defaultCharset();
+
+  // the number of open connections
+  private final AtomicInteger connectionCount = new AtomicInteger();
+
+  // the identifiers of the connections, handed out as record IDs
+  private final AtomicInteger connectionNumber = new AtomicInteger();
+
+  // the pooled network buffers
+  private DirectBufferPool bufferPool;
+
+  // the listening channel
+  private ServerSocketChannel serverChannel;
+
+  // the event loops
+  private EventLoop[] loops;
+
+  // the loop that gets the next accepted connection
+  private int nextLoop = 0;
+
+  // set when we are shutting down
+  private volatile boolean running;
+
+ /**
+  * Set the port number that we are listening on.
+  *
+  * @param newPort The port number to listen on, 0 for any free port
+  */
+  public void setPort(int newPort)
+  {
+    this.port = newPort;
+  }
+
+ /**
+  * Get the port that we are listening on. When the port was set to 0, this is
+  * the port that was chosen when the server started.
+  *
+  * @return The port number
+  */
+  public int getPort()
+  {
+    return port;
+  }
+
+ /**
+  * Set the maximum number of simultaneous connections we want to handle
+  *
+  * @param newMaxConnections The maximum number of connections to allow
+  */
+  public void setMaxConnections(int newMaxConnections)
+  {
+    this.maxConnections = newMaxConnections;
+  }
+
+ /**
+  * Set the number of event loop threads
+  *
+  * @param newEventLoopCount The number of event loops
+  */
+  public void setEventLoopCount(int newEventLoopCount)
+  {
+    this.eventLoopCount = newEventLoopCount;
+  }
+
+ /**
+  * Set the size of the network buffers
+  *
+  * @param newBufferSize The buffer size in bytes
+  */
+  public void setBufferSize(int newBufferSize)
+  {
+    this.bufferSize = newBufferSize;
+  }
+
+ /**
+  * Set the longest request line that we accept
+  *
+  * @param newMaxRequestLength The maximum request length in bytes
+  */
+  public void setMaxRequestLength(int newMaxRequestLength)
+  {
+    this.maxRequestLength = newMaxRequestLength;
+  }
+
+ /**
+  * Set the number of requests a connection may have waiting for processing
+  * before we stop reading from it
+  *
+  * @param newMaxPendingRequests The maximum number of waiting requests
+  */
+  public void setMaxPendingRequests(int newMaxPendingRequests)
+  {
+    this.maxPendingRequests = newMaxPendingRequests;
+  }
+
+ /**
+  * Set the adapter that processes the records
+  *
+  * @param newParentAdapter The RT adapter
+  */
+  public void setParentAdapter(IRTAdapter newParentAdapter)
+  {
+    this.parentRTAdapter = newParentAdapter;
+  }
+
+ /**
+  * Set the executor that runs the processing of the records
+  *
+  * @param newWorkers The worker executor
+  */
+  public void setWorkers(Executor newWorkers)
+  {
+    this.workers = newWorkers;
+  }
+
+ /**
+  * Set the name of the pipe we are listening for
+  *
+  * @param newPipelineName The pipeline name
+  */
+  public void setPipelineName(String newPipelineName)
+  {
+    this.pipeName = newPipelineName;
+  }
+
+ /**
+  * Set the log location for this server
+  *
+  * @param newPipeLog The pipeline log
+  */
+  public void setPipelineLog(ILogger newPipeLog)
+  {
+    this.pipeLog = newPipeLog;
+  }
+
+ /**
+  * Set the parent exception handler
+  *
+  * @param newHandler The handler to report the exceptions to
+  */
+  public void setExceptionHandler(ExceptionHandler newHandler)
+  {
+    this.handler = newHandler;
+  }
+
+ /**
+  * Get the number of open connections
+  *
+  * @return The number of connections
+  */
+  public int getConnectionCount()
+  {
+    return connectionCount.get();
+  }
+
+ /**
+  * Get the pool of network buffers
+  *
+  * @return The buffer pool
+  */
+  public DirectBufferPool getBufferPool()
+  {
+    return bufferPool;
+  }
+
+ /**
+  * Bind to the port and start the event loops.
+  *
+  * @throws IOException if we could not bind to the port
+  */
+  public void start() throws IOException
+  {
+    // keep enough idle buffers for a read buffer and a few responses on each
+    // connection
+    bufferPool = new DirectBufferPool(bufferSize, maxConnections * 4);
+
+    serverChannel = ServerSocketChannel.open();
+    serverChannel.socket().setReuseAddress(true);
+    serverChannel.socket().bind(new InetSocketAddress(port));
+    serverChannel.configureBlocking(false);
+    port = serverChannel.socket().getLocalPort();
+
+    running = true;
+    loops = new EventLoop[Math.max(1, eventLoopCount)];
+
+    for (int i = 0; i < loops.length; i++)
+    {
+      loops[i] = new EventLoop();
+    }
+
+    // the first loop accepts the connections
+    serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+
+    for (int i = 0; i < loops.length; i++)
+    {
+      Thread loopThread = new Thread(loops[i], pipeName + "-RTNioLoop-" + i);
+      loopThread.setDaemon(true);
+      loopThread.start();
+    }
+
+    System.out.println("Real Time NIO processing listener on port <" + port + "> is running...");
+  }
+
+ /**
+  * Stop accepting connections, and close all of the open connections.
+  */
+  public void shutdown()
+  {
+    running = false;
+
+    if (loops != null)
+    {
+      for (EventLoop loop : loops)
+      {
+        loop.selector.wakeup();
+      }
+    }
+  }
+
+ /**
+  * Accept all of the pending connections, and hand them out to the loops.
+  */
+  private void acceptConnections()
+  {
+    SocketChannel channel;
+
+    try
+    {
+      while ((channel = serverChannel.accept()) != null)
+      {
+        if (connectionCount.incrementAndGet() > maxConnections)
+        {
+          connectionCount.decrementAndGet();
+          blockConnection(channel);
+        }
+        else
+        {
+          channel.configureBlocking(false);
+          channel.socket().setTcpNoDelay(true);
+
+          loops[nextLoop].register(channel);
+          nextLoop = (nextLoop + 1) % loops.length;
+        }
+      }
+    }
+    catch (IOException e)
+    {
+      reportException("RT NIO listener: Accept failed on port <" + port + ">", e);
+    }
+  }
+
+ /**
+  * Tell the client that the maximum number of connections has been reached,
+  * and close the connection. The accepted channel is still in blocking mode,
+  * and the message is short, so this does not hold the loop up.
+  *
+  * @param channel The connection to refuse
+  */
+  private void blockConnection(SocketChannel channel)
+  {
+    try
+    {
+      ByteBuffer message = charset.encode(SocketConstants.CONNECTIONMAXMESSAGE + System.lineSeparator());
+      while (message.hasRemaining())
+      {
+        channel.write(message);
+      }
+    }
+    catch (IOException e)
+    {
+      reportIOException("RT NIO listener: Error refusing connection", e);
+    }
+    finally
+    {
+      closeQuietly(channel);
+    }
+  }
+
+ /**
+  * Report an error to the pipeline exception handler. Without a handler, we
+  * can only log it.
+  *
+  * @param message The description of the error
+  * @param cause The exception that caused it, or null
+  */
+  private void reportException(String message, Throwable cause)
+  {
+    pipeLog.error(message + ((cause == null) ? "" : ": " + cause.getMessage()));
+
+    if (handler != null)
+    {
+      if (cause == null)
+      {
+        handler.reportException(new ProcessingException(message, pipeName));
+      }
+      else if (cause instanceof ProcessingException)
+      {
+        handler.reportException((ProcessingException) cause);
+      }
+      else
+      {
+        handler.reportException(new ProcessingException(message, cause, pipeName));
+      }
+    }
+  }
+
+ /**
+  * Report an I/O error, unless it is only the client resetting the
+  * connection.
+  *
+  * @param message The description of the error
+  * @param e The I/O exception
+  */
+  private void reportIOException(String message, IOException e)
+  {
+    if ((e.getMessage() == null) || !e.getMessage().contains("Connection reset"))
+    {
+      reportException(message, e);
+    }
+  }
+
+ /**
+  * Close a channel or selector, ignoring errors
+  *
+  * @param channel The channel to close
+  */
+  private void closeQuietly(Closeable channel)
+  {
+    try
+    {
+      channel.close();
+    }
+    catch (IOException e)
+    {
+      // nothing we can do
+    }
+  }
+
+ /**
+  * An event loop, which serves its share of the connections with its own
+  * Selector. Everything that touches the selection keys runs on the loop
+  * thread: other threads hand work over through the task queue.
+  */
+  private class EventLoop implements Runnable
+  {
+    // the selector of this loop
+    private final Selector selector;
+
+    // work handed over from other threads
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    EventLoop() throws IOException
+    {
+      selector = Selector.open();
+    }
+
+   /**
+    * Run a task on the loop thread
+    *
+    * @param task The task to run
+    */
+    void execute(Runnable task)
+    {
+      tasks.offer(task);
+      selector.wakeup();
+    }
+
+   /**
+    * Take over a newly accepted connection
+    *
+    * @param channel The connection
+    */
+    void register(final SocketChannel channel)
+    {
+      execute(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          try
+          {
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Connection(EventLoop.this, channel, key));
+          }
+          catch (ClosedChannelException e)
+          {
+            connectionCount.decrementAndGet();
+          }
+        }
+      });
+    }
+
+    @Override
+    public void run()
+    {
+      while (running)
+      {
+        try
+        {
+          selector.select();
+        }
+        catch (IOException e)
+        {
+          reportException("RT NIO listener: Select failed", e);
+          break;
+        }
+
+        runTasks();
+
+        Iterator<SelectionKey> keyIter = selector.selectedKeys().iterator();
+        while (keyIter.hasNext())
+        {
+          SelectionKey key = keyIter.next();
+          keyIter.remove();
+
+          if (!key.isValid())
+          {
+            continue;
+          }
+
+          if (key.isAcceptable())
+          {
+            acceptConnections();
+            continue;
+          }
+
+          Connection connection = (Connection) key.attachment();
+
+          if (key.isReadable())
+          {
+            connection.read();
+          }
+
+          if (key.isValid() && key.isWritable())
+          {
+            connection.write();
+          }
+        }
+      }
+
+      // shut down: close everything that this loop serves
+      for (SelectionKey key : selector.keys())
+      {
+        if (key.attachment() instanceof Connection)
+        {
+          ((Connection) key.attachment()).close();
+        }
+        else
+        {
+          closeQuietly(key.channel());
+        }
+      }
+
+      closeQuietly(selector);
+    }
+
+   /**
+    * Run the tasks handed over from other threads
+    */
+    private void runTasks()
+    {
+      Runnable task;
+
+      while ((task = tasks.poll()) != null)
+      {
+        task.run();
+      }
+    }
+  }
+
+ /**
+  * A connection. Reading, writing and closing are done by the event loop,
+  * the processing of the requests by the workers.
+  */
+  private class Connection implements Runnable
+  {
+    private final EventLoop loop;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+
+    // the record ID for the records of this connection
+    private final int connectionId;
+
+    // the network read buffer
+    private final ByteBuffer readBuffer;
+
+    // the part of the current request line read so far
+    private byte[] line = new byte[256];
+    private int lineLength = 0;
+
+    // the previous request, which we hand out again if the client repeats it
+    private byte[] lastLine = new byte[256];
+    private int lastLineLength = -1;
+    private String lastRequest;
+
+    // the requests waiting to be processed
+    private final ConcurrentLinkedQueue<String> requests = new ConcurrentLinkedQueue<>();
+
+    // the number of requests waiting to be processed.
+    // ConcurrentLinkedQueue.size() is not constant time, so we count them
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    // set while we have stopped reading because too many requests are waiting
+    private final AtomicBoolean readPaused = new AtomicBoolean();
+
+    // set while the socket is full and we are waiting to write, only used by
+    // the loop
+    private boolean writePending = false;
+
+    // set while a worker task is processing the requests
+    private final AtomicBoolean processing = new AtomicBoolean();
+
+    // encodes the responses, only used by the worker task
+    private final CharsetEncoder encoder;
+
+    // holds the response characters for the encoder, only used by the worker
+    // task
+    private CharBuffer responseChars = CharBuffer.allocate(256);
+
+    // the responses waiting to be written
+    private final ConcurrentLinkedQueue<ByteBuffer> responses = new ConcurrentLinkedQueue<>();
+
+    // set while a write is scheduled on the loop
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+
+    // the response being written, only used by the loop
+    private ByteBuffer currentWrite;
+
+    private volatile boolean closed = false;
+
+    // writes the queued responses, run on the loop
+    private final Runnable writeTask = new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        write();
+      }
+    };
+
+    // closes the connection, run on the loop
+    private final Runnable closeTask = new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        close();
+      }
+    };
+
+    // starts reading again, run on the loop
+    private final Runnable resumeReadTask = new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        updateInterest();
+      }
+    };
+
+    Connection(EventLoop loop, SocketChannel channel, SelectionKey key)
+    {
+      this.loop = loop;
+      this.channel = channel;
+      this.key = key;
+      this.connectionId = connectionNumber.incrementAndGet();
+      this.readBuffer = bufferPool.acquire();
+      this.encoder = charset.newEncoder()
+                            .onMalformedInput(CodingErrorAction.REPLACE)
+                            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+   /**
+    * Read what is available, and queue the complete request lines. Runs on
+    * the loop.
+    */
+    void read()
+    {
+      int bytesRead;
+      boolean gotRequest = false;
+
+      try
+      {
+        bytesRead = channel.read(readBuffer);
+      }
+      catch (IOException e)
+      {
+        // treat as closed
+        reportIOException("RT NIO listener: Read failed on connection <" + connectionId + ">", e);
+        bytesRead = -1;
+      }
+
+      if (bytesRead < 0)
+      {
+        close();
+        return;
+      }
+
+      readBuffer.flip();
+
+      while (readBuffer.hasRemaining())
+      {
+        byte b = readBuffer.get();
+
+        if (b == '\n')
+        {
+          // strip the carriage return of a CRLF line end
+          int length = lineLength;
+          if ((length > 0) && (line[length - 1] == '\r'))
+          {
+            length--;
+          }
+
+          requests.offer(toRequest(length));
+          pendingCount.incrementAndGet();
+          lineLength = 0;
+          gotRequest = true;
+        }
+        else
+        {
+          if (lineLength >= maxRequestLength)
+          {
+            reportException("RT NIO listener: Request on connection <" + connectionId + "> longer than <" + maxRequestLength + "> bytes, closing", null);
+            close();
+            return;
+          }
+
+          if (lineLength == line.length)
+          {
+            line = Arrays.copyOf(line, Math.min(lineLength * 2, maxRequestLength));
+          }
+
+          line[lineLength++] = b;
+        }
+      }
+
+      readBuffer.clear();
+
+      if (gotRequest)
+      {
+        // stop reading while the worker catches up
+        if ((pendingCount.get() >= maxPendingRequests) && readPaused.compareAndSet(false, true))
+        {
+          updateInterest();
+        }
+
+        scheduleProcessing();
+      }
+    }
+
+   /**
+    * Get the request string for the current line. A client that repeats its
+    * previous request gets the same string again, which saves decoding it.
+    * Runs on the loop.
+    *
+    * @param length The length of the line, without the line end
+    * @return The request
+    */
+    private String toRequest(int length)
+    {
+      if ((length == lastLineLength) && sameLine(length))
+      {
+        return lastRequest;
+      }
+
+      if (lastLine.length < length)
+      {
+        lastLine = new byte[line.length];
+      }
+
+      System.arraycopy(line, 0, lastLine, 0, length);
+      lastLineLength = length;
+      lastRequest = new String(line, 0, length, charset);
+
+      return lastRequest;
+    }
+
+   /**
+    * Check if the current line is the same as the previous one.
+    *
+    * @param length The length of both lines
+    * @return true if they are the same
+    */
+    private boolean sameLine(int length)
+    {
+      for (int i = 0; i < length; i++)
+      {
+        if (line[i] != lastLine[i])
+        {
+          return false;
+        }
+      }
+
+      return true;
+    }
+
+   /**
+    * Set the interest of the connection from the reading and writing state.
+    * Runs on the loop.
+    */
+    void updateInterest()
+    {
+      if (closed || !key.isValid())
+      {
+        return;
+      }
+
+      int ops = writePending ? SelectionKey.OP_WRITE : 0;
+
+      if (!readPaused.get())
+      {
+        ops |= SelectionKey.OP_READ;
+      }
+
+      key.interestOps(ops);
+    }
+
+   /**
+    * Start a worker task for the queued requests, unless one is already
+    * running.
+    */
+    void scheduleProcessing()
+    {
+      if (!requests.isEmpty() && processing.compareAndSet(false, true))
+      {
+        workers.execute(this);
+      }
+    }
+
+   /**
+    * Process the queued requests in order. Runs on a worker.
+    */
+    @Override
+    public void run()
+    {
+      try
+      {
+        String request;
+
+        while (!closed && ((request = requests.poll()) != null))
+        {
+          process(request);
+
+          // start reading again when the queue has drained to half
+          if ((pendingCount.decrementAndGet() <= maxPendingRequests / 2) && readPaused.compareAndSet(true, false))
+          {
+            loop.execute(resumeReadTask);
+          }
+        }
+      }
+      finally
+      {
+        processing.set(false);
+      }
+
+      // a request may have been queued after we last looked
+      if (!closed)
+      {
+        scheduleProcessing();
+      }
+    }
+
+   /**
+    * Process a single request, and queue the response
+    *
+    * @param request The request line
+    */
+    private void process(String request)
+    {
+      FlatRecord requestRecord = new FlatRecord();
+      requestRecord.setData(request);
+      requestRecord.setRecordID(connectionId);
+
+      try
+      {
+        FlatRecord response = parentRTAdapter.processRTRecord(requestRecord);
+
+        if (response != null)
+        {
+          respond(response.getData());
+        }
+      }
+      catch (ProcessingException pe)
+      {
+        // just pass it up
+        reportException("RT NIO listener: Error processing request on connection <" + connectionId + ">, closing", pe);
+        loop.execute(closeTask);
+      }
+      catch (RuntimeException e)
+      {
+        reportException("RT NIO listener: Error processing request on connection <" + connectionId + ">, closing", e);
+        loop.execute(closeTask);
+      }
+    }
+
+   /**
+    * Encode the response into pooled buffers, and hand it to the loop for
+    * writing. Long responses take several buffers.
+    *
+    * @param response The response to send
+    */
+    private void respond(String response)
+    {
+      // copy into our own character buffer rather than wrapping each response
+      if (responseChars.capacity() < response.length())
+      {
+        responseChars = CharBuffer.allocate(Math.max(response.length(), responseChars.capacity() * 2));
+      }
+
+      CharBuffer chars = responseChars;
+      chars.clear();
+      chars.put(response);
+      chars.flip();
+
+      ByteBuffer out = bufferPool.acquire();
+
+      encoder.reset();
+
+      while (true)
+      {
+        CoderResult result = encoder.encode(chars, out, true);
+
+        if (result.isOverflow())
+        {
+          out.flip();
+          responses.offer(out);
+          out = bufferPool.acquire();
+        }
+        else
+        {
+          break;
+        }
+      }
+
+      while (encoder.flush(out).isOverflow())
+      {
+        out.flip();
+        responses.offer(out);
+        out = bufferPool.acquire();
+      }
+
+      out.flip();
+      responses.offer(out);
+
+      if (writeScheduled.compareAndSet(false, true))
+      {
+        loop.execute(writeTask);
+      }
+    }
+
+   /**
+    * Write as much of the queued responses as the socket takes. If the socket
+    * is full, we wait for it to become writable again. Runs on the loop.
+    */
+    void write()
+    {
+      // clear first, so that a response queued from now on schedules a write
+      writeScheduled.set(false);
+
+      if (closed)
+      {
+        return;
+      }
+
+      try
+      {
+        while ((currentWrite != null) || ((currentWrite = responses.poll()) != null))
+        {
+          channel.write(currentWrite);
+
+          if (currentWrite.hasRemaining())
+          {
+            writePending = true;
+            updateInterest();
+            return;
+          }
+
+          bufferPool.release(currentWrite);
+          currentWrite = null;
+        }
+
+        writePending = false;
+        updateInterest();
+      }
+      catch (IOException e)
+      {
+        reportIOException("RT NIO listener: Write failed on connection <" + connectionId + ">", e);
+        close();
+      }
+    }
+
+   /**
+    * Close the connection, and give the buffers back. Runs on the loop.
+    */
+    void close()
+    {
+      if (closed)
+      {
+        return;
+      }
+
+      closed = true;
+      key.cancel();
+      closeQuietly(channel);
+
+      bufferPool.release(readBuffer);
+      bufferPool.release(currentWrite);
+      currentWrite = null;
+
+      ByteBuffer pending;
+      while ((pending = responses.poll()) != null)
+      {
+        bufferPool.release(pending);
+      }
+
+      connectionCount.decrementAndGet();
+    }
+  }
+}
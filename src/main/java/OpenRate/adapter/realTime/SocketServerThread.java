@@ -10,12 +10,14 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * This module implements a socket server that listens on a TCP port for
  * incoming connections and instantiates a listener thread for each of the
  * connections requested. A maximum number of connections is defined. Any
- * connection that exceeds the maximum number will be refused.
+ * connection that exceeds the maximum number will be refused. The listener
+ * threads are created by the thread factory, which may create virtual threads.
  *
  * @author ian
  */
@@ -46,6 +48,9 @@ public class SocketServerThread implements Runnable
   // The name of this thread
   private String threadName;
 
+  // Creates the listener threads
+  private ThreadFactory listenerThreadFactory = new ListenerThreadFactory(false);
+
  /**
   * Constructor
   */
@@ -73,6 +78,16 @@ public class SocketServerThread implements Runnable
     this.maxConnections = newMaxConnections;
   }
 
+ /**
+  * Set the factory that creates the listener threads
+  *
+  * @param newThreadFactory The listener thread factory
+  */
+  public void setThreadFactory(ThreadFactory newThreadFactory)
+  {
+    this.listenerThreadFactory = newThreadFactory;
+  }
+
  /**
   * This thread serves as a socket spawner for the real time adapter.
   */
@@ -105,7 +120,8 @@ public class SocketServerThread implements Runnable
           socLis.setThreadId("RTListener-" + socData.getConnectionNumber());
 
           //start thread
-          Thread t = new Thread(socLis, pipeName + "-" + threadName + "-" + Integer.toString(socData.getConnectionNumber()));
+          Thread t = listenerThreadFactory.newThread(socLis);
+          t.setName(pipeName + "-" + threadName + "-" + Integer.toString(socData.getConnectionNumber()));
           t.start();
         }
         else
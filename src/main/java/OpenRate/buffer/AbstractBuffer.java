@@ -2,8 +2,9 @@
 
 package OpenRate.buffer;
 
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -19,18 +20,45 @@ import java.util.Iterator;
  *
  * This abstract class must be extended with a storage class, which is able to
  * contain records, as this abstract class only deals with the monitor
- * management.
+ * management and the flow control. The storage class must call
+ * checkLowWatermark() after each pull, so that held back suppliers are released.
  */
 public abstract class AbstractBuffer
   implements IBuffer
 {
-  // this hash set contains all of the monitors to this buffer. These will
-  // be notified when new records are ready.
-  private final HashSet<IMonitor> monitors = new HashSet<>();
+  // this list contains all of the monitors to this buffer. These will be
+  // notified when new records are ready. Monitors are registered only during
+  // start up, but notified on every push, so we use a copy on write list to
+  // avoid taking a lock in the notification.
+  private final CopyOnWriteArrayList<IMonitor> monitors = new CopyOnWriteArrayList<>();
+
+  // the suppliers that are notified when the buffer drains to the low water
+  // mark, instead of waiting for it
+  private final CopyOnWriteArrayList<IMonitor> supplierMonitors = new CopyOnWriteArrayList<>();
 
   private String Supplier;
   private String Consumer;
 
+  // The flow control water marks. A high water mark of 0 means that there is
+  // no flow control.
+  private volatile int highWatermark = 0;
+  private volatile int lowWatermark = 0;
+
+  // true while the suppliers are being held back
+  private volatile boolean heldBack = false;
+
+  // held back suppliers wait on this
+  private final Object watermarkLock = new Object();
+
+  // The longest a held back supplier waits before looking at the buffer again.
+  // The consumer releases the suppliers as soon as it reaches the low water
+  // mark, so this is only a safety net.
+  private static final long MAX_HOLD_BACK_MILLIS = 100;
+
+  // The number of water mark transitions
+  private final AtomicLong highWatermarkCount = new AtomicLong();
+  private final AtomicLong lowWatermarkCount = new AtomicLong();
+
  /**
   * Constructor for AbstractBuffer
   */
@@ -44,15 +72,12 @@ public abstract class AbstractBuffer
   */
   protected void notifyMonitors()
   {
-    synchronized (monitors)
-    {
-      Iterator<IMonitor> iter = monitors.iterator();
+    Iterator<IMonitor> iter = monitors.iterator();
 
-      while (iter.hasNext())
-      {
-        IMonitor m = iter.next();
-        m.notify(BufferEvent.NEW_RECORDS);
-      }
+    while (iter.hasNext())
+    {
+      IMonitor m = iter.next();
+      m.notify(BufferEvent.NEW_RECORDS);
     }
   }
 
@@ -65,10 +90,21 @@ public abstract class AbstractBuffer
   @Override
   public void registerMonitor(IMonitor m)
   {
-    synchronized (monitors)
-    {
-      monitors.add(m);
-    }
+    // each thread of a multi-threaded module registers, but we only want
+    // to notify the module once
+    monitors.addIfAbsent(m);
+  }
+
+ /**
+  * registerSupplierMonitor adds a new monitor to the internal list of monitors
+  * that are notified when the buffer drains to the low water mark.
+  *
+  * @param m The monitor object to be added
+  */
+  @Override
+  public void registerSupplierMonitor(IMonitor m)
+  {
+    supplierMonitors.addIfAbsent(m);
   }
 
  /**
@@ -114,4 +150,195 @@ public abstract class AbstractBuffer
   {
     Consumer = newComsumer;
   }
+
+ /**
+  * Set the flow control water marks of the buffer. A high water mark of 0
+  * switches flow control off.
+  *
+  * @param newHighWatermark The record count at which suppliers are held back
+  * @param newLowWatermark The record count at which suppliers are released
+  */
+  @Override
+  public void setWatermarks(int newHighWatermark, int newLowWatermark)
+  {
+    if (newHighWatermark < 0 || newLowWatermark < 0 || newLowWatermark > newHighWatermark)
+    {
+      throw new IllegalArgumentException("Water marks must satisfy 0 <= low <= high, but got high <" + newHighWatermark + "> and low <" + newLowWatermark + ">");
+    }
+
+    lowWatermark = newLowWatermark;
+    highWatermark = newHighWatermark;
+
+    // the suppliers might be waiting for the old low water mark
+    checkLowWatermark();
+  }
+
+ /**
+  * Get the high water mark of the buffer
+  *
+  * @return The high water mark, 0 if flow control is off
+  */
+  @Override
+  public int getHighWatermark()
+  {
+    return highWatermark;
+  }
+
+ /**
+  * Get the low water mark of the buffer
+  *
+  * @return The low water mark
+  */
+  @Override
+  public int getLowWatermark()
+  {
+    return lowWatermark;
+  }
+
+ /**
+  * Hold the calling supplier back if the buffer is above the high water mark,
+  * until the consumer has drained it to the low water mark.
+  *
+  * @return true if the supplier had to wait
+  */
+  @Override
+  public boolean awaitLowWatermark()
+  {
+    int high = highWatermark;
+
+    if ((high == 0) || (getEventCount() <= high))
+    {
+      return false;
+    }
+
+    synchronized (watermarkLock)
+    {
+      if (!heldBack)
+      {
+        heldBack = true;
+        highWatermarkCount.incrementAndGet();
+      }
+
+      while (heldBack && (getEventCount() > lowWatermark))
+      {
+        try
+        {
+          watermarkLock.wait(MAX_HOLD_BACK_MILLIS);
+        }
+        catch (InterruptedException ex)
+        {
+          // Nothing
+        }
+      }
+
+      // the consumer may have drained the buffer before it saw that we were
+      // waiting
+      releaseSuppliers();
+    }
+
+    return true;
+  }
+
+ /**
+  * Check, without waiting, if a supplier should hold back, until the consumer
+  * has drained the buffer to the low water mark.
+  *
+  * @return true if the supplier should not push any more for now
+  */
+  @Override
+  public boolean isHeldBack()
+  {
+    int high = highWatermark;
+
+    if ((high == 0) || (!heldBack && (getEventCount() <= high)))
+    {
+      return false;
+    }
+
+    synchronized (watermarkLock)
+    {
+      if (!heldBack)
+      {
+        heldBack = true;
+        highWatermarkCount.incrementAndGet();
+      }
+
+      // the consumer may have drained the buffer before it saw the hold back
+      if (getEventCount() <= lowWatermark)
+      {
+        releaseSuppliers();
+      }
+
+      return heldBack;
+    }
+  }
+
+ /**
+  * Get the number of times the buffer has crossed the high water mark
+  *
+  * @return The number of high water mark transitions
+  */
+  @Override
+  public long getHighWatermarkCount()
+  {
+    return highWatermarkCount.get();
+  }
+
+ /**
+  * Get the number of times the buffer has drained to the low water mark
+  *
+  * @return The number of low water mark transitions
+  */
+  @Override
+  public long getLowWatermarkCount()
+  {
+    return lowWatermarkCount.get();
+  }
+
+ /**
+  * Release the held back suppliers if the buffer has drained to the low water
+  * mark. Called by the storage class after each pull. This costs only a
+  * volatile read when no supplier is being held back.
+  */
+  protected void checkLowWatermark()
+  {
+    if (heldBack && (getEventCount() <= lowWatermark))
+    {
+      boolean released;
+
+      synchronized (watermarkLock)
+      {
+        released = releaseSuppliers();
+      }
+
+      // tell the suppliers that do not wait on the lock, outside of it
+      if (released)
+      {
+        Iterator<IMonitor> iter = supplierMonitors.iterator();
+
+        while (iter.hasNext())
+        {
+          iter.next().notify(BufferEvent.LOW_WATERMARK);
+        }
+      }
+    }
+  }
+
+ /**
+  * Release the held back suppliers. Must be called holding the water mark lock.
+  *
+  * @return true if the suppliers were being held back
+  */
+  private boolean releaseSuppliers()
+  {
+    if (heldBack)
+    {
+      heldBack = false;
+      lowWatermarkCount.incrementAndGet();
+      watermarkLock.notifyAll();
+      return true;
+    }
+
+    return false;
+  }
 }
@@ -93,6 +93,9 @@ public class ArrayListQueueBuffer
       }
     }
 
+    // release the suppliers if we have drained the buffer far enough
+    checkLowWatermark();
+
     return list;
   }
 
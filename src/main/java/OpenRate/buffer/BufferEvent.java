@@ -4,8 +4,9 @@ package OpenRate.buffer;
 
 /**
  * BufferEvent is the class that is used to notify monitors that something
- * has happened that they should be aware of. At the moment, the only event
- * that they should be aware of is the arrival of new records to be processed.
+ * has happened that they should be aware of. Consumers are told about the
+ * arrival of new records to be processed, and suppliers that registered for it
+ * are told when a held back buffer has drained to its low water mark.
  */
 public class BufferEvent
   implements IEvent
@@ -18,6 +19,11 @@ public class BufferEvent
   */
   public static BufferEvent NEW_RECORDS = new BufferEvent("NEW_RECORDS");
 
+ /**
+  * Event corresponding to the buffer draining to the low water mark.
+  */
+  public static BufferEvent LOW_WATERMARK = new BufferEvent("LOW_WATERMARK");
+
  /**
   * Default Constructor for BufferEvent
   */
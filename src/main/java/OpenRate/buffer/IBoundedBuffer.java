@@ -0,0 +1,28 @@
+package OpenRate.buffer;
+
+/**
+ * A bounded buffer is a buffer with a fixed maximum number of records that it
+ * can hold. Unlike the unbounded list based buffers, a bounded buffer enforces
+ * its own back pressure: a push into a full buffer will block the supplier
+ * until the consumer has made space. Plug ins that push into a bounded buffer
+ * therefore do not need to poll the buffer fill level themselves.
+ */
+public interface IBoundedBuffer
+  extends IBuffer
+{
+ /**
+  * Get the maximum number of records the buffer can hold.
+  *
+  * @return The buffer capacity
+  */
+  public int getCapacity();
+
+ /**
+  * Set the maximum number of records the buffer can hold. This re-allocates
+  * the storage of the buffer, and so may only be called during pipeline
+  * construction, before any records have been pushed.
+  *
+  * @param newCapacity The new buffer capacity
+  */
+  public void setCapacity(int newCapacity);
+}
@@ -43,4 +43,73 @@ public interface IBuffer
   * @param newComsumer name of the assigned buffer consumer
   */
   public void setConsumer(String newComsumer);
+
+ /**
+  * Set the flow control water marks of the buffer. When a supplier finds the
+  * buffer holding more than the high water mark, it is held back until the
+  * consumer has drained the buffer down to the low water mark. A high water
+  * mark of 0 switches flow control off.
+  *
+  * @param highWatermark The record count at which suppliers are held back
+  * @param lowWatermark The record count at which suppliers are released
+  */
+  public void setWatermarks(int highWatermark, int lowWatermark);
+
+ /**
+  * Get the high water mark of the buffer
+  *
+  * @return The high water mark, 0 if flow control is off
+  */
+  public int getHighWatermark();
+
+ /**
+  * Get the low water mark of the buffer
+  *
+  * @return The low water mark
+  */
+  public int getLowWatermark();
+
+ /**
+  * Hold the calling supplier back if the buffer is above the high water mark,
+  * until the consumer has drained it to the low water mark. Returns straight
+  * away if the buffer is below the high water mark.
+  *
+  * @return true if the supplier had to wait
+  */
+  public boolean awaitLowWatermark();
+
+ /**
+  * Check, without waiting, if a supplier should hold back. The buffer is held
+  * back when it goes above the high water mark, and stays held back until the
+  * consumer has drained it to the low water mark. For suppliers that must not
+  * block the thread they run on.
+  *
+  * @return true if the supplier should not push any more for now
+  */
+  public boolean isHeldBack();
+
+ /**
+  * Register a supplier monitor, which is notified when the consumer has
+  * drained the held back buffer to the low water mark. For suppliers that
+  * check isHeldBack() instead of waiting, so that they know when to carry on.
+  *
+  * @param m The monitor object to be added
+  */
+  public void registerSupplierMonitor(IMonitor m);
+
+ /**
+  * Get the number of times the buffer has crossed the high water mark, and
+  * held its suppliers back.
+  *
+  * @return The number of high water mark transitions
+  */
+  public long getHighWatermarkCount();
+
+ /**
+  * Get the number of times the buffer has drained to the low water mark, and
+  * released its suppliers.
+  *
+  * @return The number of low water mark transitions
+  */
+  public long getLowWatermarkCount();
 }
@@ -75,6 +75,9 @@ public class LinkedListQueueBuffer
       }
     }
 
+    // release the suppliers if we have drained the buffer far enough
+    checkLowWatermark();
+
     return list;
   }
 
@@ -0,0 +1,331 @@
+package OpenRate.buffer;
+
+import OpenRate.record.IRecord;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded buffer implementation using a pre-sized ring array as the buffering
+ * element. Unlike the list based buffers, no lock is taken on push or pull:
+ * each slot in the ring carries a sequence number, and suppliers and consumers
+ * claim slots by advancing the tail and head counters with compare-and-set.
+ * This means that any number of supplier threads and consumer threads can work
+ * on the buffer at the same time (as happens when a plug in is configured with
+ * more than one thread), and record ordering is preserved for each supplier.
+ *
+ * Because the ring has a fixed size, the buffer enforces its own back pressure:
+ * when the ring is full, the supplier is parked until a consumer has pulled
+ * records out, rather than the supplier polling the buffer size and sleeping.
+ *
+ * To use this buffer, set the pipeline "BufferClassName" configuration to
+ * "OpenRate.buffer.RingQueueBuffer". The size of the ring is set with the
+ * pipeline "BufferCapacity" configuration, and is rounded up to the next power
+ * of two.
+ */
+public class RingQueueBuffer
+  extends AbstractBuffer
+  implements IBoundedBuffer
+{
+ /**
+  * The default number of records the ring can hold.
+  */
+  public static final int DEFAULT_CAPACITY = 16384;
+
+  // The longest we park a blocked supplier for before looking at the ring
+  // again. Consumers unpark suppliers as soon as they make space, so this is
+  // only a safety net.
+  private static final long MAX_PARK_NANOS = 1000000L;
+
+  // The record storage of the ring
+  private AtomicReferenceArray<IRecord> slots;
+
+  // The sequence number of each slot. A slot is free for the supplier at
+  // position p when its sequence is p, and ready for the consumer at position
+  // p when its sequence is p + 1.
+  private AtomicLongArray sequences;
+
+  // used to map a position to a slot index
+  private int mask;
+
+  // The next position to write to and the next position to read from
+  private final AtomicLong tail = new AtomicLong();
+  private final AtomicLong head = new AtomicLong();
+
+  // The suppliers that are currently parked, waiting for space
+  private final ConcurrentLinkedQueue<Thread> parkedSuppliers = new ConcurrentLinkedQueue<>();
+
+  // The number of times that a supplier had to wait for space
+  private final AtomicLong fullCount = new AtomicLong();
+
+ /**
+  * Default constructor, creates a buffer with the default capacity.
+  */
+  public RingQueueBuffer()
+  {
+    this(DEFAULT_CAPACITY);
+  }
+
+ /**
+  * Constructor with a given capacity.
+  *
+  * @param capacity The number of records the buffer can hold
+  */
+  public RingQueueBuffer(int capacity)
+  {
+    super();
+
+    setCapacity(capacity);
+  }
+
+ /**
+  * Push an entire collection of batch records into the buffer. If the buffer
+  * fills up during the push, the calling thread is parked until there is space
+  * for the remaining records.
+  *
+  * @param collection The collection of records to push
+  */
+  @Override
+  public void push(Collection<IRecord> collection)
+  {
+    Iterator<IRecord> iter = collection.iterator();
+
+    while (iter.hasNext())
+    {
+      IRecord record = iter.next();
+
+      if (!offer(record))
+      {
+        waitForSpace(record);
+      }
+    }
+
+    // tell the downstream modules that there is stuff to do
+    notifyMonitors();
+  }
+
+ /**
+  * Retrieve a number of batch records from the buffer. The number of records
+  * that is returned is either all of the records available in the case that
+  * the number of records is less than the specified maximum, or the specified
+  * maximum. Records are returned in the order they were pushed.
+  *
+  * @param max The maximum number of records to pull
+  * @return The records pulled
+  */
+  @Override
+  public Collection<IRecord> pull(int max)
+  {
+    ArrayList<IRecord> list = new ArrayList<>(Math.min(max, getEventCount()));
+
+    for (int i = 0; i < max; i++)
+    {
+      IRecord record = poll();
+
+      if (record == null)
+      {
+        break;
+      }
+
+      list.add(record);
+    }
+
+    // let any parked suppliers know that there is space again. We wait until
+    // the ring is half empty, so that a woken supplier can push a good block of
+    // records instead of being parked again straight away
+    if (!parkedSuppliers.isEmpty() && getEventCount() <= (mask + 1) >> 1)
+    {
+      wakeSuppliers();
+    }
+
+    // release the suppliers held back by the water marks
+    checkLowWatermark();
+
+    return list;
+  }
+
+ /**
+  * Return the number of events in the buffer
+  *
+  * @return The number of events in the buffer
+  */
+  @Override
+  public int getEventCount()
+  {
+    // read the head first, so that a concurrent pull cannot make the count
+    // negative
+    long currentHead = head.get();
+    long currentTail = tail.get();
+
+    return (int) Math.max(0, Math.min(currentTail - currentHead, mask + 1));
+  }
+
+ /**
+  * Get the maximum number of records the buffer can hold.
+  *
+  * @return The buffer capacity
+  */
+  @Override
+  public int getCapacity()
+  {
+    return mask + 1;
+  }
+
+ /**
+  * Set the maximum number of records the buffer can hold. The capacity is
+  * rounded up to the next power of two. This re-allocates the ring, and so may
+  * only be called before any records have been pushed.
+  *
+  * @param newCapacity The new buffer capacity
+  */
+  @Override
+  public final void setCapacity(int newCapacity)
+  {
+    if (newCapacity < 1 || newCapacity > (1 << 30))
+    {
+      throw new IllegalArgumentException("Buffer capacity must be between 1 and 2^30, but got <" + newCapacity + ">");
+    }
+
+    int size = Integer.highestOneBit(newCapacity);
+    if (size < newCapacity)
+    {
+      size <<= 1;
+    }
+
+    slots = new AtomicReferenceArray<>(size);
+    sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++)
+    {
+      sequences.set(i, i);
+    }
+    mask = size - 1;
+    head.set(0);
+    tail.set(0);
+  }
+
+ /**
+  * Get the number of times that a supplier has had to wait for space in the
+  * buffer.
+  *
+  * @return The number of supplier waits
+  */
+  public long getFullCount()
+  {
+    return fullCount.get();
+  }
+
+ /**
+  * Try to place a record in the ring.
+  *
+  * @param record The record to place
+  * @return true if the record was placed, false if the ring is full
+  */
+  private boolean offer(IRecord record)
+  {
+    while (true)
+    {
+      long pos = tail.get();
+      int index = (int) pos & mask;
+      long diff = sequences.get(index) - pos;
+
+      if (diff == 0)
+      {
+        if (tail.compareAndSet(pos, pos + 1))
+        {
+          slots.lazySet(index, record);
+          sequences.lazySet(index, pos + 1);
+          return true;
+        }
+      }
+      else if (diff < 0)
+      {
+        // the slot has not been consumed yet: full
+        return false;
+      }
+
+      // otherwise another supplier claimed the slot first, try again
+    }
+  }
+
+ /**
+  * Try to take a record from the ring.
+  *
+  * @return The record, or null if the ring is empty
+  */
+  private IRecord poll()
+  {
+    while (true)
+    {
+      long pos = head.get();
+      int index = (int) pos & mask;
+      long diff = sequences.get(index) - (pos + 1);
+
+      if (diff == 0)
+      {
+        if (head.compareAndSet(pos, pos + 1))
+        {
+          IRecord record = slots.get(index);
+          slots.lazySet(index, null);
+
+          // full write, so that a supplier registering to park cannot miss it
+          sequences.set(index, pos + mask + 1);
+          return record;
+        }
+      }
+      else if (diff < 0)
+      {
+        // the slot has not been filled yet: empty
+        return null;
+      }
+
+      // otherwise another consumer claimed the slot first, try again
+    }
+  }
+
+ /**
+  * Park the calling supplier until the record can be placed.
+  *
+  * @param record The record to place
+  */
+  private void waitForSpace(IRecord record)
+  {
+    Thread current = Thread.currentThread();
+
+    fullCount.incrementAndGet();
+
+    // make sure the consumers are awake to drain the records we already have
+    notifyMonitors();
+
+    parkedSuppliers.add(current);
+    try
+    {
+      // re-check after registering, so that we cannot miss a wake up
+      while (!offer(record))
+      {
+        LockSupport.parkNanos(this, MAX_PARK_NANOS);
+      }
+    }
+    finally
+    {
+      parkedSuppliers.remove(current);
+    }
+  }
+
+ /**
+  * Unpark all of the suppliers waiting for space.
+  */
+  private void wakeSuppliers()
+  {
+    Iterator<Thread> iter = parkedSuppliers.iterator();
+
+    while (iter.hasNext())
+    {
+      LockSupport.unpark(iter.next());
+    }
+  }
+}
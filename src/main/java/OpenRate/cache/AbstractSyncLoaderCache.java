@@ -17,6 +17,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * This class implements an abstract cache loader class that implements sync
@@ -26,6 +27,14 @@ import java.util.List;
  * transactionally safe reloading is required. This means that the processing
  * must be completely stopped before the loading can begin.
  *
+ * Alternatively, with the "ReloadMode" property set to "Snapshot", a reload
+ * does not stop the processing. A fresh instance of the cache is loaded in the
+ * background, in the same way as at start up, and its data is then published
+ * into this cache with publishSnapshot(), which replaces the data structures by
+ * assigning the references. The lookups go on using the old data until then,
+ * without blocking, and never see a partly loaded cache. If the loading fails,
+ * the old data is kept.
+ *
  * @author i.sparkes
  * @author AminS auto reloadable caches
  */
@@ -91,6 +100,17 @@ public abstract class AbstractSyncLoaderCache
   private final static String SERVICE_DATE_FORMAT   = "DateFormat";
   private final static String SERVICE_LOAD_LOG_STEP = "LoadLogStep";
   private final static String SERVICE_NO_AUTORELOAD = "ExcludeFromAutoReload";
+  private final static String SERVICE_RELOAD_MODE   = "ReloadMode";
+
+ /**
+  * Reload mode: clear the cache and reload it at a sync point
+  */
+  public final static String RELOAD_MODE_IN_PLACE = "InPlace";
+
+ /**
+  * Reload mode: load a snapshot in the background and swap it in
+  */
+  public final static String RELOAD_MODE_SNAPSHOT = "Snapshot";
 
   // Variables for managing the sync points
   private int syncStatus = 0;
@@ -112,6 +132,15 @@ public abstract class AbstractSyncLoaderCache
   // if we are to be excluded from auto-reload
   private boolean excludeFromAutoReload;
 
+  // if we reload by loading a snapshot and swapping it in
+  private boolean snapshotReload = false;
+
+  // set while a snapshot is being loaded
+  private final AtomicBoolean snapshotLoading = new AtomicBoolean(false);
+
+  // The resource we were loaded for, used to load the snapshots
+  private String resourceName;
+
  /**
   * the frequency with which we update the log progress messages on loading
   */
@@ -156,6 +185,7 @@ public abstract class AbstractSyncLoaderCache
 
     // Get the module symbolic name
     setSymbolicName(CacheName);
+    resourceName = ResourceName;
 
     // Find the location of the configuration data
     OpenRate.getOpenRateFrameworkLog().info("Starting cache loading for <" + getSymbolicName() + ">");
@@ -271,6 +301,9 @@ public abstract class AbstractSyncLoaderCache
 
     // Get the auto reload exclusion
     excludeFromAutoReload = initGetExcludeFromReload(ResourceName, CacheName);
+
+    // Get the reload mode
+    snapshotReload = initGetSnapshotReload(ResourceName, CacheName);
   }
 
  /**
@@ -364,7 +397,14 @@ public abstract class AbstractSyncLoaderCache
   public void ReloadData() throws InitializationException
   {
     // See if we are excluded from reloading
-    if (getExcludeFromAutoReload() == false)
+    if (getExcludeFromAutoReload() == false && snapshotReload)
+    {
+      reloadSnapshot();
+
+      // inform the user
+      System.out.println("    Reload Cacheable Class <" + getSymbolicName() + "> from snapshot");
+    }
+    else if (getExcludeFromAutoReload() == false)
     {
       // Clear down the old information
       clearCacheObjects();
@@ -397,6 +437,108 @@ public abstract class AbstractSyncLoaderCache
     }
   }
 
+ /**
+  * Load a fresh instance of this cache, and publish its data into this one.
+  * The lookups carry on with the old data while the snapshot is loading.
+  *
+  * @throws InitializationException
+  */
+  protected void reloadSnapshot() throws InitializationException
+  {
+    AbstractSyncLoaderCache snapshot = createSnapshotCache();
+
+    // load the snapshot in the same way as we were loaded at start up
+    snapshot.loadCache(resourceName, getSymbolicName());
+
+    publishSnapshot(snapshot);
+  }
+
+ /**
+  * Start loading a snapshot in the background, unless one is already loading.
+  * The processing is not stopped.
+  *
+  * @return true if the loading was started
+  */
+  protected boolean startSnapshotReload()
+  {
+    if (!snapshotLoading.compareAndSet(false, true))
+    {
+      return false;
+    }
+
+    Thread loader = new Thread(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        try
+        {
+          ReloadData();
+        }
+        catch (InitializationException | RuntimeException ex)
+        {
+          message = "Snapshot reload of cache <" + getSymbolicName() + "> failed, keeping the current data";
+          OpenRate.getOpenRateFrameworkLog().fatal(message,ex);
+        }
+        finally
+        {
+          snapshotLoading.set(false);
+        }
+      }
+    }, "SnapshotLoader-" + getSymbolicName());
+
+    loader.setDaemon(true);
+    loader.start();
+
+    return true;
+  }
+
+ /**
+  * Return whether a snapshot is being loaded in the background
+  *
+  * @return true if a snapshot is loading
+  */
+  public boolean isSnapshotLoading()
+  {
+    return snapshotLoading.get();
+  }
+
+ /**
+  * Create an empty instance of this cache to load a snapshot into. By default
+  * we use the constructor without arguments, as the cache factory does.
+  *
+  * @return The empty cache
+  * @throws InitializationException
+  */
+  protected AbstractSyncLoaderCache createSnapshotCache() throws InitializationException
+  {
+    try
+    {
+      return getClass().newInstance();
+    }
+    catch (ReflectiveOperationException ex)
+    {
+      message = "Could not create snapshot instance of cache <" + getSymbolicName() + ">";
+      throw new InitializationException(message,ex,getSymbolicName());
+    }
+  }
+
+ /**
+  * Publish the data of a loaded snapshot into this cache. Implementation
+  * classes take over the data structures of the snapshot by assigning the
+  * references, so that the lookups switch over from the old data to the new
+  * in one step. The fields must therefore be volatile, and where one structure
+  * refers into another, the one referred to must be assigned first.
+  *
+  * @param snapshot The loaded snapshot, an instance of the same class
+  * @throws InitializationException if the cache does not support snapshots
+  */
+  protected void publishSnapshot(AbstractSyncLoaderCache snapshot) throws InitializationException
+  {
+    message = "Cache <" + getSymbolicName() + "> does not support ReloadMode <" + RELOAD_MODE_SNAPSHOT + ">";
+    throw new InitializationException(message,getSymbolicName());
+  }
+
  /**
   * Get the data from the data layer method
   *
@@ -503,7 +645,12 @@ public abstract class AbstractSyncLoaderCache
   @Override
   public void setSyncStatus(int newStatus)
   {
-    if (newStatus == ISyncPoint.SYNC_STATUS_SYNC_FLAGGED)
+    if (newStatus == ISyncPoint.SYNC_STATUS_SYNC_FLAGGED && snapshotReload)
+    {
+      // reload in the background, no need to stop the processing
+      startSnapshotReload();
+    }
+    else if (newStatus == ISyncPoint.SYNC_STATUS_SYNC_FLAGGED)
     {
       // we are being forced to reload by the cache manager
       // Add the command to the pending list
@@ -602,6 +749,7 @@ public abstract class AbstractSyncLoaderCache
     ClientManager.getClientManager().registerClientService(getSymbolicName(), SERVICE_DATE_FORMAT, ClientManager.PARAM_SYNC);
     ClientManager.getClientManager().registerClientService(getSymbolicName(), SERVICE_LOAD_LOG_STEP, ClientManager.PARAM_NONE);
     ClientManager.getClientManager().registerClientService(getSymbolicName(), SERVICE_NO_AUTORELOAD, ClientManager.PARAM_NONE);
+    ClientManager.getClientManager().registerClientService(getSymbolicName(), SERVICE_RELOAD_MODE, ClientManager.PARAM_NONE);
   }
 
  /**
@@ -622,7 +770,19 @@ public abstract class AbstractSyncLoaderCache
 
     if (Command.equalsIgnoreCase(SERVICE_RELOAD))
     {
-      if (Parameter.equalsIgnoreCase("true"))
+      if (Parameter.equalsIgnoreCase("true") && snapshotReload)
+      {
+        // reload in the background, no need to stop the processing
+        if (startSnapshotReload())
+        {
+          return "Snapshot reload started";
+        }
+        else
+        {
+          return "Snapshot reload already running";
+        }
+      }
+      else if (Parameter.equalsIgnoreCase("true"))
       {
         // Add the command to the pending list
         pendingCommands.add(SERVICE_RELOAD);
@@ -641,7 +801,7 @@ public abstract class AbstractSyncLoaderCache
       else if (Parameter.equals(""))
       {
         // return the current state
-        if (syncStatus == 0)
+        if (syncStatus == 0 && !isSnapshotLoading())
         {
           return "false";
         }
@@ -668,6 +828,12 @@ public abstract class AbstractSyncLoaderCache
       }
     }
 
+    // Get the reload mode
+    if (Command.equalsIgnoreCase(SERVICE_RELOAD_MODE) && Parameter.equals(""))
+    {
+      return snapshotReload ? RELOAD_MODE_SNAPSHOT : RELOAD_MODE_IN_PLACE;
+    }
+
     // Get/Set the auto reload period
     if (Command.equalsIgnoreCase(SERVICE_AUTO_RELOAD))
     {
@@ -888,4 +1054,67 @@ public abstract class AbstractSyncLoaderCache
       throw new InitializationException(message,getSymbolicName());
     }
   }
+
+ /**
+  * Get the reload mode, and check that the cache supports it
+  *
+  * @param ResourceName The name of the resource to load for
+  * @param CacheName The name of the cache to load for
+  * @return true if we reload from snapshots, otherwise false
+  * @throws InitializationException
+  */
+  private boolean initGetSnapshotReload(String ResourceName, String CacheName) throws InitializationException
+  {
+    String tmpValue;
+
+    tmpValue = PropertyUtils.getPropertyUtils().getDataCachePropertyValueDef(ResourceName,
+                                                       CacheName,
+                                                       SERVICE_RELOAD_MODE,
+                                                       RELOAD_MODE_IN_PLACE);
+
+    if (tmpValue.equalsIgnoreCase(RELOAD_MODE_IN_PLACE))
+    {
+      return false;
+    }
+    else if (tmpValue.equalsIgnoreCase(RELOAD_MODE_SNAPSHOT))
+    {
+      if (!overridesPublishSnapshot())
+      {
+        message = "Cache <" + getSymbolicName() + "> does not support ReloadMode <" + RELOAD_MODE_SNAPSHOT + ">";
+        throw new InitializationException(message,getSymbolicName());
+      }
+
+      return true;
+    }
+    else
+    {
+      message = "Value provided for property <" + SERVICE_RELOAD_MODE +
+                "> must be <" + RELOAD_MODE_IN_PLACE + "> or <" + RELOAD_MODE_SNAPSHOT +
+                ">. Received value <" + tmpValue + ">.";
+      throw new InitializationException(message,getSymbolicName());
+    }
+  }
+
+ /**
+  * See if the implementation class publishes snapshots
+  *
+  * @return true if publishSnapshot() is implemented
+  */
+  private boolean overridesPublishSnapshot()
+  {
+    for (Class<?> tmpClass = getClass(); tmpClass != AbstractSyncLoaderCache.class; tmpClass = tmpClass.getSuperclass())
+    {
+      try
+      {
+        tmpClass.getDeclaredMethod("publishSnapshot", AbstractSyncLoaderCache.class);
+        return true;
+      }
+      catch (NoSuchMethodException ex)
+      {
+        // try the parent
+      }
+    }
+
+    return false;
+  }
 }
@@ -8,6 +8,7 @@ import OpenRate.configurationmanager.IEventInterface;
 import OpenRate.db.DBUtil;
 import OpenRate.exception.InitializationException;
 import OpenRate.lang.BalanceGroup;
+import OpenRate.lang.ConcurrentLongMap;
 import OpenRate.lang.Counter;
 import OpenRate.lang.CounterGroup;
 import OpenRate.logging.LogUtil;
@@ -19,11 +20,13 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Date;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * All balances start with a value of zero. CDRs increment the balances
@@ -34,6 +37,30 @@ import java.util.concurrent.ConcurrentHashMap;
  * manage transactions. That means if a transaction fails (very unusual)
  * either the balances will have to be cleaned up, or reloaded from the table.
  *
+ * The balance groups are held in a map keyed by the primitive balance group
+ * id, which is split into stripes so that adding groups in one stripe does
+ * not hold up the others, and looking groups up takes no lock at all. Within
+ * a group, counters are created under the lock of the group, and balances are
+ * impacted with compare and set on the counter, so that authorisations
+ * against a popular shared balance group do not queue up behind each other.
+ *
+ * If the "JournalDirectory" property is set, every counter creation and
+ * balance change is also logged to a write ahead journal (see
+ * BalanceJournal), which is forced to disk every "JournalFlushInterval"
+ * milliseconds and at each transaction commit. Every "SnapshotInterval"
+ * seconds, and at shutdown, a binary snapshot of all the counters is written
+ * and the journal before it is dropped. On start, the snapshot and journal
+ * are used in place of the data file or table when they are present, so to
+ * force a reload from there, delete the contents of the directory.
+ *
+ * In DB mode, if the "UpdateStatement" property is set, balance groups that
+ * have changed are written back to the database in batches every
+ * "WriteBackInterval" seconds and at shutdown. The update statement takes the
+ * balance, balance group id, counter id and record id, in that order. New
+ * counters that the update does not find are inserted with the
+ * "InsertStatement", which takes the same fields as the select statement
+ * returns, in the same order and date format.
+ *
  * The data should be presented in the form:
  *   BalanceGroupId - the identifier of the balance group (integer)
  *   CounterId      - the counter identifier (integer)
@@ -78,7 +105,13 @@ public class BalanceCache extends AbstractCache
   protected static PreparedStatement stmtCacheDataSelectQuery;
 
    /**
-    * The internal cache is very simply a huge array. No black magic here
+    * The balance groups, keyed by the primitive balance group id
+    */
+   protected final ConcurrentLongMap<BalanceGroup> balanceGroups;
+
+   /**
+    * The balance groups as a Map, for implementation classes written against
+    * it. This is a view of balanceGroups, and must not be replaced.
     */
    protected Map<Long, BalanceGroup> balanceCache;
 
@@ -88,6 +121,37 @@ public class BalanceCache extends AbstractCache
    // if we have to save a snapshot even when in DB mode
    private boolean saveSnapshot = false;
 
+  // the journal of the balance changes, or null if we are not journaling
+  private BalanceJournal journal = null;
+
+  // impacts take this shared, a checkpoint takes it exclusively so that the
+  // snapshot matches the cut in the journal
+  private final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+
+  // the intervals of the background writer in ms
+  private long journalFlushInterval;
+  private long snapshotInterval;
+  private long writeBackInterval;
+
+  // the statements for writing changed balances back, or null if we don't
+  private String writeBackUpdateQuery = null;
+  private String writeBackInsertQuery = null;
+
+  // the background writer of the journal, snapshots and write back
+  private Thread writerThread = null;
+  private volatile boolean writerRunning = false;
+
+  // the number of rows we write back in one batch
+  private final static int WRITE_BACK_BATCH_SIZE = 1000;
+
+  // the properties of the journal and write back
+  private final static String SERVICE_JOURNAL_DIR = "JournalDirectory";
+  private final static String SERVICE_JOURNAL_FLUSH = "JournalFlushInterval";
+  private final static String SERVICE_SNAPSHOT_INTERVAL = "SnapshotInterval";
+  private final static String SERVICE_UPDATE_STATEMENT = "UpdateStatement";
+  private final static String SERVICE_INSERT_STATEMENT = "InsertStatement";
+  private final static String SERVICE_WRITE_BACK_INTERVAL = "WriteBackInterval";
+
   // List of Services that this Client supports
   private final static String SERVICE_DUMP_BALGROUP = "DumpBalGroup";
 
@@ -97,7 +161,8 @@ public class BalanceCache extends AbstractCache
   public BalanceCache()
   {
     // Initialise the cache hash 
-    balanceCache = new ConcurrentHashMap<>(1000);
+    balanceGroups = new ConcurrentLongMap<>(1000);
+    balanceCache = balanceGroups.asMap();
 
     // Initialise variables that we will be using regularly - this is the
     // default that can be overwritten using "setDateFormat"
@@ -119,21 +184,7 @@ public class BalanceCache extends AbstractCache
   */
   protected void addCounterAutoRecId(long BalanceGroupId, int CounterId, int RecId, long ValidFrom, long ValidTo, double CurrentBal)
   {
-    BalanceGroup tmpBalGrp;
-
-    if (balanceCache.containsKey(BalanceGroupId))
-    {
-      // Add the balance to the existing group
-      tmpBalGrp = balanceCache.get(BalanceGroupId);
-      tmpBalGrp.addCounter(CounterId,RecId,ValidFrom,ValidTo,CurrentBal);
-    }
-    else
-    {
-      // Create a new group
-      tmpBalGrp = new BalanceGroup();
-      balanceCache.put(BalanceGroupId,tmpBalGrp);
-      tmpBalGrp.addCounter(CounterId,RecId,ValidFrom,ValidTo,CurrentBal);
-    }
+    getOrAddBalanceGroup(BalanceGroupId).addCounter(CounterId,RecId,ValidFrom,ValidTo,CurrentBal);
   }
 
  /**
@@ -150,21 +201,199 @@ public class BalanceCache extends AbstractCache
   */
   public Counter addCounter(long BalanceGroupId, int CounterId, long ValidFrom, long ValidTo, double CurrentBal)
   {
-    BalanceGroup tmpBalGrp;
+    lockImpact();
 
-    if (balanceCache.containsKey(BalanceGroupId))
+    try
     {
-      // Add the balance to the existing group
-      tmpBalGrp = balanceCache.get(BalanceGroupId);
-      return tmpBalGrp.addCounter(CounterId,ValidFrom,ValidTo,CurrentBal);
+      BalanceGroup tmpBalGrp = getOrAddBalanceGroup(BalanceGroupId);
+      Counter tmpCounter = tmpBalGrp.addCounter(CounterId,ValidFrom,ValidTo,CurrentBal);
+      recordCreate(BalanceGroupId,tmpBalGrp,CounterId,tmpCounter,CurrentBal);
+
+      return tmpCounter;
     }
-    else
+    finally
     {
-      // Create a new group
-      tmpBalGrp = new BalanceGroup();
-      balanceCache.put(BalanceGroupId,tmpBalGrp);
-      return tmpBalGrp.addCounter(CounterId,ValidFrom,ValidTo,CurrentBal);
+      unlockImpact();
+    }
+  }
+
+ /**
+  * Add a value into the BalanceCache, unless there is already a counter valid
+  * at the event date. The check and the add are atomic, so that threads
+  * rating against the same balance group create the counter only once.
+  *
+  * @param BalanceGroupId The balance group identifier
+  * @param CounterId The ID of the counter in the balance group
+  * @param UTCEventDate The date the counter must be valid at
+  * @param ValidFrom The start of the validity period for the counter period
+  * @param ValidTo The end of the validity period for the counter period
+  * @param CurrentBal The current bal to assign to the counter period
+  * @return The new counter, or null if there was already one
+  */
+  public Counter addCounterIfAbsent(long BalanceGroupId, int CounterId, long UTCEventDate, long ValidFrom, long ValidTo, double CurrentBal)
+  {
+    lockImpact();
+
+    try
+    {
+      BalanceGroup tmpBalGrp = getOrAddBalanceGroup(BalanceGroupId);
+      Counter tmpCounter = tmpBalGrp.addCounterIfAbsent(CounterId,UTCEventDate,ValidFrom,ValidTo,CurrentBal);
+
+      if (tmpCounter != null)
+      {
+        recordCreate(BalanceGroupId,tmpBalGrp,CounterId,tmpCounter,CurrentBal);
+      }
+
+      return tmpCounter;
+    }
+    finally
+    {
+      unlockImpact();
+    }
+  }
+
+ /**
+  * Consume a value from a counter, down to at most 0, and journal the change.
+  *
+  * @param BalanceGroupId The balance group of the counter
+  * @param CounterId The ID of the counter in the balance group
+  * @param counter The counter
+  * @param value The value to consume
+  * @return The balance before the value was consumed
+  */
+  public double consumeBalance(long BalanceGroupId, int CounterId, Counter counter, double value)
+  {
+    lockImpact();
+
+    try
+    {
+      double oldBal = counter.consumeBalance(value);
+      recordChange(BalanceGroupId,CounterId,counter,(value > oldBal) ? -oldBal : -value);
+
+      return oldBal;
+    }
+    finally
+    {
+      unlockImpact();
+    }
+  }
+
+ /**
+  * Give a value back to a counter, up to at most the limit, and journal the
+  * change.
+  *
+  * @param BalanceGroupId The balance group of the counter
+  * @param CounterId The ID of the counter in the balance group
+  * @param counter The counter
+  * @param value The value to give back
+  * @param limit The highest the balance may go
+  * @return The balance before the value was given back
+  */
+  public double refundBalance(long BalanceGroupId, int CounterId, Counter counter, double value, double limit)
+  {
+    lockImpact();
+
+    try
+    {
+      double oldBal = counter.refundBalance(value, limit);
+      recordChange(BalanceGroupId,CounterId,counter,((oldBal + value) > limit) ? limit - oldBal : value);
+
+      return oldBal;
+    }
+    finally
+    {
+      unlockImpact();
+    }
+  }
+
+ /**
+  * Add a value to a counter, and journal the change.
+  *
+  * @param BalanceGroupId The balance group of the counter
+  * @param CounterId The ID of the counter in the balance group
+  * @param counter The counter
+  * @param value The value to add
+  * @return The balance before the value was added
+  */
+  public double addBalance(long BalanceGroupId, int CounterId, Counter counter, double value)
+  {
+    lockImpact();
+
+    try
+    {
+      double oldBal = counter.addBalance(value);
+      recordChange(BalanceGroupId,CounterId,counter,value);
+
+      return oldBal;
+    }
+    finally
+    {
+      unlockImpact();
+    }
+  }
+
+ /**
+  * Wait until all the balance changes so far are on disk in the journal. As
+  * the journal is forced in groups, pipelines committing at the same time
+  * share the cost. Does nothing if we are not journaling.
+  */
+  public void syncJournal()
+  {
+    if (journal != null)
+    {
+      try
+      {
+        journal.sync();
+      }
+      catch (IOException ex)
+      {
+        OpenRate.getOpenRateFrameworkLog().error("Error writing balance journal in cache <" + getSymbolicName() + ">. message <" + ex.getMessage() + ">");
+      }
+    }
+  }
+
+ /**
+  * Cut the journal and write a snapshot of all the counters as they are at
+  * the cut. Impacts wait while the counters are copied, but not while the
+  * snapshot is written.
+  *
+  * @throws IOException
+  */
+  public void checkpoint() throws IOException
+  {
+    BalanceJournal.Records snapshot = new BalanceJournal.Records();
+    long snapshotGeneration;
+
+    checkpointLock.writeLock().lock();
+
+    try
+    {
+      snapshotGeneration = journal.startGeneration();
+
+      for (long balanceGroupId : balanceGroups.keys())
+      {
+        BalanceGroup tmpBalGrp = balanceGroups.get(balanceGroupId);
+        Iterator<Integer> counterIter = tmpBalGrp.getCounterIterator();
+
+        while (counterIter.hasNext())
+        {
+          int counterId = counterIter.next();
+
+          for (Counter tmpCounter : tmpBalGrp.getCounterGroup(counterId).getCounters())
+          {
+            snapshot.addCreate(balanceGroupId,counterId,tmpCounter.RecId,tmpCounter.validFrom,tmpCounter.validTo,tmpCounter.getCurrentBalance());
+          }
+        }
+      }
     }
+    finally
+    {
+      checkpointLock.writeLock().unlock();
+    }
+
+    journal.writeSnapshot(snapshotGeneration, snapshot);
+
+    OpenRate.getOpenRateFrameworkLog().info("Balance cache <" + getSymbolicName() + "> wrote snapshot of <" + snapshot.size() + "> counters");
   }
 
  /**
@@ -222,11 +451,15 @@ public class BalanceCache extends AbstractCache
   {
     BalanceGroup tmpBalGrp = null;
 
-    if (!balanceCache.containsKey(BalanceGroupId))
+    if (!balanceGroups.containsKey(BalanceGroupId))
     {
-      // Create a new group
+      // Create a new group, unless another thread just did
       tmpBalGrp = new BalanceGroup();
-      balanceCache.put(BalanceGroupId,tmpBalGrp);
+
+      if (balanceGroups.putIfAbsent(BalanceGroupId,tmpBalGrp) != null)
+      {
+        tmpBalGrp = null;
+      }
     }
 
     return tmpBalGrp;
@@ -285,17 +518,7 @@ public class BalanceCache extends AbstractCache
   */
   public BalanceGroup getBalanceGroup(long balanceGroupId)
   {
-    BalanceGroup tmpBalGrp;
-
-    if (!balanceCache.containsKey(balanceGroupId))
-    {
-      // create the default balance group
-      // throw a wobbly?
-    }
-
-    // Return the value
-    tmpBalGrp = balanceCache.get(balanceGroupId);
-    return tmpBalGrp;
+    return balanceGroups.get(balanceGroupId);
   }
 
  /**
@@ -354,6 +577,16 @@ public class BalanceCache extends AbstractCache
       conv.setInputDateFormat(tmpDateFormat);
     }
 
+    // Open the journal if we are journaling, and recover from it if we can
+    boolean recovered = false;
+    initJournal(ResourceName, CacheName);
+
+    if ((journal != null) && journal.hasData())
+    {
+      recoverFromJournal();
+      recovered = true;
+    }
+
     // Get the configuration we are working on
     if (cacheDataSourceType.equalsIgnoreCase("File"))
     {
@@ -373,7 +606,10 @@ public class BalanceCache extends AbstractCache
         OpenRate.getOpenRateFrameworkLog().debug("Found Cache Data File <" + cacheDataSourceName + "> for cache <" + getSymbolicName() + ">");
       }
 
-      loadDataFromFile();
+      if (!recovered)
+      {
+        loadDataFromFile();
+      }
     }
 
     if (cacheDataSourceType.equalsIgnoreCase("DB"))
@@ -430,9 +666,17 @@ public class BalanceCache extends AbstractCache
               "SaveSnapshotToFile",
               "false"));
 
-      loadDataFromDB();
+      // See if we write changed balances back
+      initWriteBack(ResourceName, CacheName);
+
+      if (!recovered)
+      {
+        loadDataFromDB();
+      }
     }
-    
+
+    // Start the journal from what we have loaded, and the background writer
+    startBackgroundWriter();
   }
 
  /**
@@ -745,7 +989,7 @@ public class BalanceCache extends AbstractCache
           }
 
           // try to get the balance group
-          if (balanceCache.containsKey(tmpBalGroup) == false)
+          if (balanceGroups.containsKey(tmpBalGroup) == false)
           {
             return "Could not locate balance group <" + tmpBalGroup + ">";
           }
@@ -809,11 +1053,30 @@ public class BalanceCache extends AbstractCache
   @Override
   public void saveCache()
   {
+    // Stop the background writer, and do what it would have done
+    stopBackgroundWriter();
+
+    if (journal != null)
+    {
+      try
+      {
+        checkpoint();
+        journal.close();
+      }
+      catch (IOException ex)
+      {
+        OpenRate.getOpenRateFrameworkLog().error("Error writing balance snapshot in cache <" + getSymbolicName() + ">. message <" + ex.getMessage() + ">");
+      }
+    }
+
+    if (writeBackUpdateQuery != null)
+    {
+      writeBackDirtyGroups();
+    }
+
     BufferedWriter     outFile;
-    Long               tmpBalGrpKey;
     Integer            tmpCounterId;
     BalanceGroup       tmpBalGrp;
-    Iterator<Long>     balGrpIter;
     Iterator<Integer>  counterIter;
     String             stringToWrite;
     CounterGroup       tmpCounterGroup;
@@ -845,12 +1108,9 @@ public class BalanceCache extends AbstractCache
         outFile.newLine();
 
         // get a list of all the balance groups
-        balGrpIter = balanceCache.keySet().iterator();
-
-        while (balGrpIter.hasNext())
+        for (long tmpBalGrpKey : balanceGroups.keys())
         {
-          tmpBalGrpKey = balGrpIter.next();
-          tmpBalGrp = balanceCache.get(tmpBalGrpKey);
+          tmpBalGrp = balanceGroups.get(tmpBalGrpKey);
 
           // Get a list of all the counter groups in the balance group
           counterIter = tmpBalGrp.getCounterIterator();
@@ -870,7 +1130,7 @@ public class BalanceCache extends AbstractCache
                               tmpCounter.RecId + ";" + 
                               tmpCounter.validFrom +  ";" +
                               tmpCounter.validTo + ";" + 
-                              tmpCounter.CurrentBalance;
+                              tmpCounter.getCurrentBalance();
               outFile.write(stringToWrite);
               outFile.newLine();
             }
@@ -891,10 +1151,554 @@ public class BalanceCache extends AbstractCache
     }
   }
 
+// -----------------------------------------------------------------------------
+// ------------------ Start of journal and write back functions ----------------
+// -----------------------------------------------------------------------------
+
+ /**
+  * Write the balance groups that have changed since the last write back to
+  * the database, in batches. A group is marked clean before its counters are
+  * read, so a change made while we write marks it for the next write back.
+  * If writing fails, the groups in the failed batch are marked again.
+  */
+  public void writeBackDirtyGroups()
+  {
+    Connection                   writeBackCon = null;
+    PreparedStatement            stmtUpdate = null;
+    PreparedStatement            stmtInsert = null;
+    ArrayList<WriteBackRow>      rows = new ArrayList<>();
+    long                         rowsWritten = 0;
+
+    try
+    {
+      writeBackCon = DBUtil.getConnection(cacheDataSourceName);
+      stmtUpdate = writeBackCon.prepareStatement(writeBackUpdateQuery);
+
+      if (writeBackInsertQuery != null)
+      {
+        stmtInsert = writeBackCon.prepareStatement(writeBackInsertQuery);
+      }
+
+      for (long balanceGroupId : balanceGroups.keys())
+      {
+        BalanceGroup tmpBalGrp = balanceGroups.get(balanceGroupId);
+
+        if (tmpBalGrp.isBalanceDirty())
+        {
+          tmpBalGrp.setBalanceDirty(false);
+          Iterator<Integer> counterIter = tmpBalGrp.getCounterIterator();
+
+          while (counterIter.hasNext())
+          {
+            int counterId = counterIter.next();
+
+            for (Counter tmpCounter : tmpBalGrp.getCounterGroup(counterId).getCounters())
+            {
+              rows.add(new WriteBackRow(balanceGroupId, tmpBalGrp, counterId, tmpCounter));
+            }
+          }
+
+          if (rows.size() >= WRITE_BACK_BATCH_SIZE)
+          {
+            rowsWritten += executeWriteBack(writeBackCon, stmtUpdate, stmtInsert, rows);
+            rows.clear();
+          }
+        }
+      }
+
+      rowsWritten += executeWriteBack(writeBackCon, stmtUpdate, stmtInsert, rows);
+      rows.clear();
+    }
+    catch (InitializationException | SQLException ex)
+    {
+      OpenRate.getOpenRateFrameworkLog().error("Error writing back balances in cache <" + getSymbolicName() + ">. message <" + ex.getMessage() + ">");
+
+      // try again next time
+      for (WriteBackRow row : rows)
+      {
+        row.balanceGroup.markDirty();
+      }
+    }
+    finally
+    {
+      DBUtil.close(stmtUpdate);
+      DBUtil.close(stmtInsert);
+      DBUtil.close(writeBackCon);
+    }
+
+    if (rowsWritten > 0)
+    {
+      OpenRate.getOpenRateFrameworkLog().info("Balance cache <" + getSymbolicName() + "> wrote back <" + rowsWritten + "> counters");
+    }
+  }
+
+ /**
+  * A counter waiting to be written back
+  */
+  private static class WriteBackRow
+  {
+    final long         balanceGroupId;
+    final BalanceGroup balanceGroup;
+    final int          counterId;
+    final Counter      counter;
+
+    WriteBackRow(long balanceGroupId, BalanceGroup balanceGroup, int counterId, Counter counter)
+    {
+      this.balanceGroupId = balanceGroupId;
+      this.balanceGroup = balanceGroup;
+      this.counterId = counterId;
+      this.counter = counter;
+    }
+  }
+
+ /**
+  * Write a batch of counters back, updating the rows that exist and inserting
+  * the ones that don't.
+  *
+  * @return The number of counters written
+  */
+  private int executeWriteBack(Connection writeBackCon, PreparedStatement stmtUpdate, PreparedStatement stmtInsert, ArrayList<WriteBackRow> rows) throws SQLException
+  {
+    if (rows.isEmpty())
+    {
+      return 0;
+    }
+
+    for (WriteBackRow row : rows)
+    {
+      stmtUpdate.setDouble(1, row.counter.getCurrentBalance());
+      stmtUpdate.setLong(2, row.balanceGroupId);
+      stmtUpdate.setInt(3, row.counterId);
+      stmtUpdate.setLong(4, row.counter.RecId);
+      stmtUpdate.addBatch();
+    }
+
+    int[] updateCounts = stmtUpdate.executeBatch();
+
+    if (stmtInsert != null)
+    {
+      int inserts = 0;
+
+      for (int i = 0 ; i < updateCounts.length ; i++)
+      {
+        if (updateCounts[i] == 0)
+        {
+          WriteBackRow row = rows.get(i);
+          stmtInsert.setLong(1, row.balanceGroupId);
+          stmtInsert.setInt(2, row.counterId);
+          stmtInsert.setLong(3, row.counter.RecId);
+          stmtInsert.setString(4, formatWriteBackDate(row.counter.validFrom));
+          stmtInsert.setString(5, formatWriteBackDate(row.counter.validTo));
+          stmtInsert.setDouble(6, row.counter.getCurrentBalance());
+          stmtInsert.addBatch();
+          inserts++;
+        }
+      }
+
+      if (inserts > 0)
+      {
+        stmtInsert.executeBatch();
+      }
+    }
+
+    if (!writeBackCon.getAutoCommit())
+    {
+      writeBackCon.commit();
+    }
+
+    return rows.size();
+  }
+
+ /**
+  * Format a date for the insert statement, in the format we load dates in
+  */
+  private String formatWriteBackDate(long UTCDate)
+  {
+    String dateFormat = conv.getInputDateFormat();
+
+    if (dateFormat.equalsIgnoreCase("integer"))
+    {
+      return Long.toString(UTCDate);
+    }
+    else if (dateFormat.equalsIgnoreCase("long"))
+    {
+      return Long.toString(UTCDate * 1000);
+    }
+    else
+    {
+      return new SimpleDateFormat(dateFormat).format(new Date(UTCDate * 1000));
+    }
+  }
+
+ /**
+  * Load the counters from the latest snapshot and the journal after it.
+  *
+  * @throws InitializationException
+  */
+  private void recoverFromJournal() throws InitializationException
+  {
+    long replayed;
+
+    OpenRate.getOpenRateFrameworkLog().info("Starting Balance Cache recovery from journal for <" + getSymbolicName() + ">");
+
+    try
+    {
+      replayed = journal.recover(new BalanceJournal.Listener()
+      {
+        @Override
+        public void counterCreated(long balanceGroupId, int counterId, long recId, long validFrom, long validTo, double balance)
+        {
+          BalanceGroup tmpBalGrp = getOrAddBalanceGroup(balanceGroupId);
+
+          if (findCounter(tmpBalGrp, counterId, recId) == null)
+          {
+            tmpBalGrp.addCounter(counterId, recId, validFrom, validTo, balance);
+          }
+        }
+
+        @Override
+        public void balanceChanged(long balanceGroupId, int counterId, long recId, double delta)
+        {
+          Counter tmpCounter = findCounter(balanceGroups.get(balanceGroupId), counterId, recId);
+
+          if (tmpCounter != null)
+          {
+            tmpCounter.addBalance(delta);
+          }
+        }
+      });
+    }
+    catch (IOException ex)
+    {
+      message = "Error recovering balances from journal in cache <" + getSymbolicName() + ">. message <" + ex.getMessage() + ">";
+      OpenRate.getOpenRateFrameworkLog().fatal(message);
+      throw new InitializationException(message,ex,getSymbolicName());
+    }
+
+    OpenRate.getOpenRateFrameworkLog().info("Balance Cache recovery completed. <" + replayed + "> journal records replayed for <" + getSymbolicName() + ">");
+  }
+
+ /**
+  * Find a counter by its record id
+  */
+  private static Counter findCounter(BalanceGroup tmpBalGrp, int counterId, long recId)
+  {
+    if (tmpBalGrp != null)
+    {
+      CounterGroup tmpCounterGroup = tmpBalGrp.getCounterGroup(counterId);
+
+      if (tmpCounterGroup != null)
+      {
+        for (Counter tmpCounter : tmpCounterGroup.getCounters())
+        {
+          if (tmpCounter.RecId == recId)
+          {
+            return tmpCounter;
+          }
+        }
+      }
+    }
+
+    return null;
+  }
+
+ /**
+  * Take the checkpoint lock for an impact, if we are journaling
+  */
+  private void lockImpact()
+  {
+    if (journal != null)
+    {
+      checkpointLock.readLock().lock();
+    }
+  }
+
+ /**
+  * Release the checkpoint lock after an impact, if we are journaling
+  */
+  private void unlockImpact()
+  {
+    if (journal != null)
+    {
+      checkpointLock.readLock().unlock();
+    }
+  }
+
+ /**
+  * Journal the creation of a counter and mark its group as changed
+  */
+  private void recordCreate(long balanceGroupId, BalanceGroup tmpBalGrp, int counterId, Counter tmpCounter, double initialBal)
+  {
+    if (journal != null)
+    {
+      journal.logCreate(balanceGroupId, counterId, tmpCounter.RecId, tmpCounter.validFrom, tmpCounter.validTo, initialBal);
+    }
+
+    if (!tmpBalGrp.isBalanceDirty())
+    {
+      tmpBalGrp.markDirty();
+    }
+  }
+
+ /**
+  * Journal a change to a balance and mark its group as changed
+  */
+  private void recordChange(long balanceGroupId, int counterId, Counter tmpCounter, double delta)
+  {
+    if (journal != null)
+    {
+      journal.logChange(balanceGroupId, counterId, tmpCounter.RecId, delta);
+    }
+
+    BalanceGroup tmpBalGrp = balanceGroups.get(balanceGroupId);
+
+    if ((tmpBalGrp != null) && !tmpBalGrp.isBalanceDirty())
+    {
+      tmpBalGrp.markDirty();
+    }
+  }
+
+ /**
+  * Write the first snapshot and start the background writer, if we are
+  * journaling or writing back.
+  *
+  * @throws InitializationException
+  */
+  private void startBackgroundWriter() throws InitializationException
+  {
+    if (journal != null)
+    {
+      try
+      {
+        checkpoint();
+      }
+      catch (IOException ex)
+      {
+        message = "Error writing balance snapshot in cache <" + getSymbolicName() + ">. message <" + ex.getMessage() + ">";
+        OpenRate.getOpenRateFrameworkLog().fatal(message);
+        throw new InitializationException(message,ex,getSymbolicName());
+      }
+    }
+
+    if ((journal != null) || (writeBackUpdateQuery != null))
+    {
+      writerRunning = true;
+      writerThread = new Thread(new BalanceWriter(), "BalanceWriter-" + getSymbolicName());
+      writerThread.setDaemon(true);
+      writerThread.start();
+    }
+  }
+
+ /**
+  * Stop the background writer and wait for it to finish what it is doing
+  */
+  private void stopBackgroundWriter()
+  {
+    if (writerThread != null)
+    {
+      writerRunning = false;
+      writerThread.interrupt();
+
+      try
+      {
+        writerThread.join();
+      }
+      catch (InterruptedException ex)
+      {
+        Thread.currentThread().interrupt();
+      }
+
+      writerThread = null;
+    }
+  }
+
+ /**
+  * The background writer. It forces the journal to disk, writes the snapshots
+  * and writes the changed balances back, each at its own interval.
+  */
+  private class BalanceWriter implements Runnable
+  {
+    @Override
+    public void run()
+    {
+      long lastSnapshot = System.currentTimeMillis();
+      long lastWriteBack = lastSnapshot;
+      long sleepTime = (journal != null) ? journalFlushInterval : Math.min(writeBackInterval, 1000);
+
+      while (writerRunning)
+      {
+        try
+        {
+          Thread.sleep(sleepTime);
+        }
+        catch (InterruptedException ex)
+        {
+          // we are being stopped
+          break;
+        }
+
+        long now = System.currentTimeMillis();
+
+        if (journal != null)
+        {
+          syncJournal();
+
+          if ((now - lastSnapshot) >= snapshotInterval)
+          {
+            try
+            {
+              checkpoint();
+            }
+            catch (IOException ex)
+            {
+              OpenRate.getOpenRateFrameworkLog().error("Error writing balance snapshot in cache <" + getSymbolicName() + ">. message <" + ex.getMessage() + ">");
+            }
+
+            lastSnapshot = now;
+          }
+        }
+
+        if ((writeBackUpdateQuery != null) && ((now - lastWriteBack) >= writeBackInterval))
+        {
+          writeBackDirtyGroups();
+          lastWriteBack = now;
+        }
+      }
+    }
+  }
+
+ /**
+  * Open the journal and read its intervals, if a directory for it is defined.
+  *
+  * @throws InitializationException
+  */
+  private void initJournal(String ResourceName, String CacheName) throws InitializationException
+  {
+    String tmpValue;
+
+    tmpValue = PropertyUtils.getPropertyUtils().getDataCachePropertyValueDef(ResourceName,
+                                                       CacheName,
+                                                       SERVICE_JOURNAL_DIR,
+                                                       "None");
+
+    if (tmpValue.equals("None"))
+    {
+      return;
+    }
+
+    journalFlushInterval = initGetInterval(ResourceName, CacheName, SERVICE_JOURNAL_FLUSH, 100);
+    snapshotInterval = initGetInterval(ResourceName, CacheName, SERVICE_SNAPSHOT_INTERVAL, 600) * 1000;
+
+    try
+    {
+      journal = new BalanceJournal(new File(tmpValue), CacheName);
+    }
+    catch (IOException ex)
+    {
+      message = "Could not open the journal directory <" + tmpValue + "> in cache <" + getSymbolicName() + ">. message <" + ex.getMessage() + ">";
+      OpenRate.getOpenRateFrameworkLog().error(message);
+      throw new InitializationException(message,ex,getSymbolicName());
+    }
+  }
+
+ /**
+  * Read the write back statements and interval, if write back is defined.
+  *
+  * @throws InitializationException
+  */
+  private void initWriteBack(String ResourceName, String CacheName) throws InitializationException
+  {
+    String tmpValue;
+
+    tmpValue = PropertyUtils.getPropertyUtils().getDataCachePropertyValueDef(ResourceName,
+                                                       CacheName,
+                                                       SERVICE_UPDATE_STATEMENT,
+                                                       "None");
+
+    if (tmpValue.equals("None"))
+    {
+      return;
+    }
+
+    writeBackUpdateQuery = tmpValue;
+
+    tmpValue = PropertyUtils.getPropertyUtils().getDataCachePropertyValueDef(ResourceName,
+                                                       CacheName,
+                                                       SERVICE_INSERT_STATEMENT,
+                                                       "None");
+
+    if (tmpValue.equals("None") == false)
+    {
+      writeBackInsertQuery = tmpValue;
+    }
+
+    writeBackInterval = initGetInterval(ResourceName, CacheName, SERVICE_WRITE_BACK_INTERVAL, 60) * 1000;
+  }
+
+ /**
+  * Read a numeric interval property
+  *
+  * @throws InitializationException
+  */
+  private long initGetInterval(String ResourceName, String CacheName, String propertyName, long defaultValue) throws InitializationException
+  {
+    String tmpValue;
+
+    tmpValue = PropertyUtils.getPropertyUtils().getDataCachePropertyValueDef(ResourceName,
+                                                       CacheName,
+                                                       propertyName,
+                                                       Long.toString(defaultValue));
+
+    // try to convert it
+    try
+    {
+      long interval = Long.parseLong(tmpValue);
+
+      if (interval > 0)
+      {
+        return interval;
+      }
+    }
+    catch (NumberFormatException ex)
+    {
+      // reported below
+    }
+
+    message = "Value provided for property <" + propertyName +
+              "> was not a positive number. Received value <" + tmpValue + ">.";
+    OpenRate.getOpenRateFrameworkLog().error(message);
+    throw new InitializationException(message,getSymbolicName());
+  }
+
 // -----------------------------------------------------------------------------
 // -------------------- Start of local utility functions -----------------------
 // -----------------------------------------------------------------------------
 
+ /**
+  * Gets a balance group, creating it if it does not exist yet.
+  *
+  * @param balanceGroupId The ID of the balance group
+  * @return The balance group
+  */
+  private BalanceGroup getOrAddBalanceGroup(long balanceGroupId)
+  {
+    BalanceGroup tmpBalGrp = balanceGroups.get(balanceGroupId);
+
+    if (tmpBalGrp == null)
+    {
+      // Create a new group, or take the one another thread just created
+      tmpBalGrp = new BalanceGroup();
+      BalanceGroup existingBalGrp = balanceGroups.putIfAbsent(balanceGroupId,tmpBalGrp);
+
+      if (existingBalGrp != null)
+      {
+        tmpBalGrp = existingBalGrp;
+      }
+    }
+
+    return tmpBalGrp;
+  }
+
  /**
   * Dumps a balance group to file.
   *
@@ -911,7 +1715,7 @@ public class BalanceCache extends AbstractCache
       {
         outFile.write("# Balance data dump file\n");
 
-        BalanceGroup balanceGroup = balanceCache.get(tmpBalGroup);
+        BalanceGroup balanceGroup = balanceGroups.get(tmpBalGroup);
 
         Iterator<Integer> counterGrpIter = balanceGroup.getCounterIterator();
         while (counterGrpIter.hasNext())
@@ -929,7 +1733,7 @@ public class BalanceCache extends AbstractCache
                           ", CounterID: " + counterId +
                           ", Rec id: " + tmpCounter.RecId +
                           ", valid: " + tmpCounter.validFrom + "-" + tmpCounter.validTo +
-                          ", currentBal: " + tmpCounter.CurrentBalance +
+                          ", currentBal: " + tmpCounter.getCurrentBalance() +
                           "\n");
           }
         }
@@ -960,12 +1764,9 @@ public class BalanceCache extends AbstractCache
       try (BufferedWriter outFile = new BufferedWriter(new FileWriter(filename))) {
         outFile.write("# Balance data dump file\n");
 
-        Iterator<Long> balIter = balanceCache.keySet().iterator();
-
-        while (balIter.hasNext())
+        for (long balanceGroupId : balanceGroups.keys())
         {
-          long balanceGroupId = balIter.next();
-          BalanceGroup balanceGroup = balanceCache.get(balanceGroupId);
+          BalanceGroup balanceGroup = balanceGroups.get(balanceGroupId);
 
           Iterator<Integer> counterGrpIter = balanceGroup.getCounterIterator();
           while (counterGrpIter.hasNext())
@@ -983,7 +1784,7 @@ public class BalanceCache extends AbstractCache
                             ", CounterID: " + counterId +
                             ", Rec id: " + tmpCounter.RecId +
                             ", valid: " + tmpCounter.validFrom + "-" + tmpCounter.validTo +
-                            ", currentBal: " + tmpCounter.CurrentBalance +
+                            ", currentBal: " + tmpCounter.getCurrentBalance() +
                             "\n");
             }
           }
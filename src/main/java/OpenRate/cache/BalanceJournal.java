@@ -0,0 +1,479 @@
+package OpenRate.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The write ahead journal of the balance cache. Every counter that is created
+ * and every change to a balance is logged to the journal before it is
+ * reported, and the journal is forced to disk in groups: all the changes
+ * logged by all the threads since the last force go down in one write and one
+ * force, so the cost of the force is shared between them.
+ *
+ * The journal is cut into generations. A checkpoint starts a new generation
+ * and writes a snapshot of all the counters as they were at the cut, after
+ * which the older generations are deleted. Recovery loads the latest snapshot
+ * and replays the generations from there on. Changes are logged as deltas,
+ * which can be replayed in any order, so the only requirement is that the
+ * counters are created before their changes are applied.
+ *
+ * Each record is 45 bytes: the type, the balance group, counter and record
+ * ids, the validity and the balance or delta. A snapshot is a journal that
+ * only holds creations, with the balances as of the cut. A record torn by a
+ * crash during a write is ignored on recovery.
+ */
+public class BalanceJournal
+{
+  // the size of a record
+  private static final int RECORD_SIZE = 45;
+
+  // the record types
+  private static final byte TYPE_CREATE = 1;
+  private static final byte TYPE_CHANGE = 2;
+
+  // the file names are <name>-journal-<gen>.bin and <name>-snapshot-<gen>.bin
+  private static final String JOURNAL_PART = "-journal-";
+  private static final String SNAPSHOT_PART = "-snapshot-";
+  private static final String SUFFIX = ".bin";
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  // where the files are
+  private final File directory;
+  private final String name;
+
+  // the records logged and not yet written, and the count ever logged
+  private Records pending = new Records();
+  private long    loggedCount = 0;
+
+  // the journal being written, guarded by the flush lock
+  private final Object flushLock = new Object();
+  private Records      spare = new Records();
+  private FileChannel  journal;
+  private long         generation;
+  private long         durableCount = 0;
+
+ /**
+  * Receives the records on recovery
+  */
+  public interface Listener
+  {
+   /**
+    * A counter was created, or was in the snapshot
+    *
+    * @param balanceGroupId The balance group
+    * @param counterId The counter
+    * @param recId The record id of the counter
+    * @param validFrom The start of the validity of the counter
+    * @param validTo The end of the validity of the counter
+    * @param balance The balance of the counter
+    */
+    public void counterCreated(long balanceGroupId, int counterId, long recId, long validFrom, long validTo, double balance);
+
+   /**
+    * A balance was changed
+    *
+    * @param balanceGroupId The balance group
+    * @param counterId The counter
+    * @param recId The record id of the counter
+    * @param delta The change to the balance
+    */
+    public void balanceChanged(long balanceGroupId, int counterId, long recId, double delta);
+  }
+
+ /**
+  * A list of records, used for the pending writes and for snapshots
+  */
+  public static class Records
+  {
+    private ByteBuffer records = ByteBuffer.allocate(RECORD_SIZE * 1024);
+
+   /**
+    * Add the creation of a counter, or a counter to a snapshot
+    *
+    * @param balanceGroupId The balance group
+    * @param counterId The counter
+    * @param recId The record id of the counter
+    * @param validFrom The start of the validity of the counter
+    * @param validTo The end of the validity of the counter
+    * @param balance The balance of the counter
+    */
+    public void addCreate(long balanceGroupId, int counterId, long recId, long validFrom, long validTo, double balance)
+    {
+      add(TYPE_CREATE, balanceGroupId, counterId, recId, validFrom, validTo, balance);
+    }
+
+   /**
+    * Add a change to a balance
+    *
+    * @param balanceGroupId The balance group
+    * @param counterId The counter
+    * @param recId The record id of the counter
+    * @param delta The change to the balance
+    */
+    public void addChange(long balanceGroupId, int counterId, long recId, double delta)
+    {
+      add(TYPE_CHANGE, balanceGroupId, counterId, recId, 0, 0, delta);
+    }
+
+   /**
+    * Get the number of records
+    *
+    * @return The number of records
+    */
+    public int size()
+    {
+      return records.position() / RECORD_SIZE;
+    }
+
+    private void add(byte type, long balanceGroupId, int counterId, long recId, long validFrom, long validTo, double value)
+    {
+      if (records.remaining() < RECORD_SIZE)
+      {
+        ByteBuffer larger = ByteBuffer.allocate(records.capacity() * 2);
+        records.flip();
+        larger.put(records);
+        records = larger;
+      }
+
+      records.put(type);
+      records.putLong(balanceGroupId);
+      records.putInt(counterId);
+      records.putLong(recId);
+      records.putLong(validFrom);
+      records.putLong(validTo);
+      records.putDouble(value);
+    }
+  }
+
+ /**
+  * Open the journal in a directory, creating it if needed. Nothing is
+  * written until the first checkpoint starts a new generation.
+  *
+  * @param directory The directory of the files
+  * @param name The name of the journal, used to name the files
+  * @throws IOException
+  */
+  public BalanceJournal(File directory, String name) throws IOException
+  {
+    this.directory = directory;
+    this.name = name;
+
+    if (!directory.isDirectory() && !directory.mkdirs())
+    {
+      throw new IOException("Could not create journal directory <" + directory + ">");
+    }
+
+    // carry on after anything already there
+    for (long number : listFiles(JOURNAL_PART).keySet())
+    {
+      generation = Math.max(generation, number);
+    }
+
+    for (long number : listFiles(SNAPSHOT_PART).keySet())
+    {
+      generation = Math.max(generation, number);
+    }
+  }
+
+ /**
+  * See if there is anything to recover. Journals without a snapshot are left
+  * from a first start that did not get as far as its first checkpoint, and
+  * do not count.
+  *
+  * @return true if there is a snapshot
+  */
+  public boolean hasData()
+  {
+    return !listFiles(SNAPSHOT_PART).isEmpty();
+  }
+
+ /**
+  * Replay the latest snapshot and the journals written since.
+  *
+  * @param listener Receives the records
+  * @return The number of records replayed
+  * @throws IOException
+  */
+  public long recover(Listener listener) throws IOException
+  {
+    long replayed = 0;
+    TreeMap<Long, File> snapshots = listFiles(SNAPSHOT_PART);
+
+    if (snapshots.isEmpty())
+    {
+      return 0;
+    }
+
+    replayed += replay(snapshots.lastEntry().getValue(), listener, TYPE_CREATE);
+
+    Map<Long, File> journals = listFiles(JOURNAL_PART).tailMap(snapshots.lastKey());
+
+    // all of the creations first, then the changes, which may come earlier
+    // in the journal than the creation of their counter
+    for (File journalFile : journals.values())
+    {
+      replayed += replay(journalFile, listener, TYPE_CREATE);
+    }
+
+    for (File journalFile : journals.values())
+    {
+      replayed += replay(journalFile, listener, TYPE_CHANGE);
+    }
+
+    return replayed;
+  }
+
+ /**
+  * Log the creation of a counter
+  *
+  * @param balanceGroupId The balance group
+  * @param counterId The counter
+  * @param recId The record id of the counter
+  * @param validFrom The start of the validity of the counter
+  * @param validTo The end of the validity of the counter
+  * @param balance The initial balance of the counter
+  */
+  public synchronized void logCreate(long balanceGroupId, int counterId, long recId, long validFrom, long validTo, double balance)
+  {
+    pending.addCreate(balanceGroupId, counterId, recId, validFrom, validTo, balance);
+    loggedCount++;
+  }
+
+ /**
+  * Log a change to a balance
+  *
+  * @param balanceGroupId The balance group
+  * @param counterId The counter
+  * @param recId The record id of the counter
+  * @param delta The change to the balance
+  */
+  public synchronized void logChange(long balanceGroupId, int counterId, long recId, double delta)
+  {
+    pending.addChange(balanceGroupId, counterId, recId, delta);
+    loggedCount++;
+  }
+
+ /**
+  * Wait until everything logged so far is on disk. If another thread is
+  * already writing, this waits for it, and then finds that its records have
+  * usually gone down with the others.
+  *
+  * @throws IOException
+  */
+  public void sync() throws IOException
+  {
+    long target;
+
+    synchronized (this)
+    {
+      target = loggedCount;
+    }
+
+    synchronized (flushLock)
+    {
+      if (durableCount >= target || journal == null)
+      {
+        return;
+      }
+
+      Records toWrite;
+      long    toWriteCount;
+
+      synchronized (this)
+      {
+        toWrite = pending;
+        toWriteCount = loggedCount;
+        pending = spare;
+      }
+
+      ByteBuffer records = toWrite.records;
+      records.flip();
+
+      while (records.hasRemaining())
+      {
+        journal.write(records);
+      }
+
+      journal.force(false);
+
+      records.clear();
+      spare = toWrite;
+      durableCount = toWriteCount;
+    }
+  }
+
+ /**
+  * Start a new generation of the journal. Nothing may be logged while this
+  * runs, so that the generation boundary is also the point of the snapshot.
+  *
+  * @return The new generation, to write the snapshot for
+  * @throws IOException
+  */
+  public long startGeneration() throws IOException
+  {
+    synchronized (flushLock)
+    {
+      if (journal != null)
+      {
+        sync();
+        journal.close();
+      }
+
+      generation++;
+      journal = FileChannel.open(file(JOURNAL_PART, generation).toPath(), StandardOpenOption.CREATE,
+                                 StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+      return generation;
+    }
+  }
+
+ /**
+  * Write the snapshot of a generation, and delete the files it replaces. The
+  * snapshot is written to a temporary file and renamed when complete, so a
+  * crash while writing leaves the previous snapshot in use.
+  *
+  * @param snapshotGeneration The generation the snapshot was taken at
+  * @param snapshot The counters as they were at the start of the generation
+  * @throws IOException
+  */
+  public void writeSnapshot(long snapshotGeneration, Records snapshot) throws IOException
+  {
+    File snapshotFile = file(SNAPSHOT_PART, snapshotGeneration);
+    File tempFile = new File(directory, snapshotFile.getName() + TEMP_SUFFIX);
+    ByteBuffer records = snapshot.records.duplicate();
+    records.flip();
+
+    try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE,
+                                                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+    {
+      while (records.hasRemaining())
+      {
+        channel.write(records);
+      }
+
+      channel.force(false);
+    }
+
+    Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+    // the snapshot replaces everything before it
+    for (File oldFile : listFiles(SNAPSHOT_PART).headMap(snapshotGeneration).values())
+    {
+      oldFile.delete();
+    }
+
+    for (File oldFile : listFiles(JOURNAL_PART).headMap(snapshotGeneration).values())
+    {
+      oldFile.delete();
+    }
+  }
+
+ /**
+  * Write out what is pending and close the journal
+  *
+  * @throws IOException
+  */
+  public void close() throws IOException
+  {
+    synchronized (flushLock)
+    {
+      if (journal != null)
+      {
+        sync();
+        journal.close();
+        journal = null;
+      }
+    }
+  }
+
+ /**
+  * Replay the records of one type from a file
+  */
+  private static long replay(File journalFile, Listener listener, byte type) throws IOException
+  {
+    long replayed = 0;
+    MappedByteBuffer records;
+
+    try (FileChannel channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.READ))
+    {
+      records = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    while (records.remaining() >= RECORD_SIZE)
+    {
+      byte   recordType = records.get();
+      long   balanceGroupId = records.getLong();
+      int    counterId = records.getInt();
+      long   recId = records.getLong();
+      long   validFrom = records.getLong();
+      long   validTo = records.getLong();
+      double value = records.getDouble();
+
+      if (recordType != type)
+      {
+        continue;
+      }
+
+      if (type == TYPE_CREATE)
+      {
+        listener.counterCreated(balanceGroupId, counterId, recId, validFrom, validTo, value);
+      }
+      else
+      {
+        listener.balanceChanged(balanceGroupId, counterId, recId, value);
+      }
+
+      replayed++;
+    }
+
+    return replayed;
+  }
+
+ /**
+  * Get the file of a journal or snapshot
+  */
+  private File file(String part, long number)
+  {
+    return new File(directory, name + part + number + SUFFIX);
+  }
+
+ /**
+  * List the journals or snapshots, by their generation
+  */
+  private TreeMap<Long, File> listFiles(String part)
+  {
+    TreeMap<Long, File> files = new TreeMap<>();
+    String prefix = name + part;
+    File[] candidates = directory.listFiles();
+
+    if (candidates != null)
+    {
+      for (File candidate : candidates)
+      {
+        String fileName = candidate.getName();
+
+        if (fileName.startsWith(prefix) && fileName.endsWith(SUFFIX))
+        {
+          try
+          {
+            files.put(Long.parseLong(fileName.substring(prefix.length(), fileName.length() - SUFFIX.length())), candidate);
+          }
+          catch (NumberFormatException ex)
+          {
+            // not one of ours
+          }
+        }
+      }
+    }
+
+    return files;
+  }
+}
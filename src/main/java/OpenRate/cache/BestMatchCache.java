@@ -17,10 +17,13 @@ import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.lang.reflect.Constructor;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 /**
  * Please <a target='new' href='http://www.open-rate.com/wiki/index.php?title=Best_Match_Cache'>click here</a> to go to wiki page.
@@ -54,9 +57,14 @@ public class BestMatchCache extends AbstractSyncLoaderCache {
   * This stores all the cacheable data. The DigitTree class is
   * a way of storing numeric values for a best match search.
   * The cost of a search is linear with the number of digits
-  * stored in the search tree
+  * stored in the search tree. A snapshot reload replaces the whole map, so
+  * the lookups read the reference once.
   */
-  protected IMap<String, DigitTree> groupCache;
+  protected volatile Map<String, DigitTree> groupCache;
+
+  // The map we were given, which may be shared with other nodes. It is kept
+  // up to date when a snapshot replaces the map the lookups read.
+  private final Map<String, DigitTree> givenGroupCache;
 
   // List of Services that this Client supports
   private final static String SERVICE_OBJECT_COUNT = "ObjectCount";
@@ -73,11 +81,23 @@ public class BestMatchCache extends AbstractSyncLoaderCache {
   * match for that group.
   */
   public BestMatchCache(IMap<String, DigitTree> cache)
+  {
+    this((Map<String, DigitTree>) cache);
+  }
+
+ /**
+  * Creates a new instance of the Group Cache, holding the digit trees in a
+  * local map. Used for loading snapshots.
+  *
+  * @param cache The map to hold the digit trees
+  */
+  protected BestMatchCache(Map<String, DigitTree> cache)
   {
     super();
 
     // Initialise the group cache
     groupCache = cache;
+    givenGroupCache = cache;
 
     // create the null result
     noResult.add(DigitTree.NO_DIGIT_TREE_MATCH);
@@ -520,6 +540,89 @@ public class BestMatchCache extends AbstractSyncLoaderCache {
     groupCache.clear();
   }
 
+ /**
+  * Create the instance to load a snapshot into, of the class of this cache so
+  * that the overrides of a subclass load the snapshot. The class is created
+  * with its map constructor if it has one, otherwise with its shared map
+  * constructor or as the cache factory creates it, and the snapshot is then
+  * given a local map. Either way loading does not write each prefix through
+  * to a shared map.
+  *
+  * @return The empty cache
+  * @throws InitializationException
+  */
+  @Override
+  protected AbstractSyncLoaderCache createSnapshotCache() throws InitializationException
+  {
+    BestMatchCache snapshot = null;
+
+    try
+    {
+      for (Class<?> parameterType : new Class<?>[] {Map.class, IMap.class})
+      {
+        try
+        {
+          Constructor<? extends BestMatchCache> constructor = getClass().getDeclaredConstructor(parameterType);
+          constructor.setAccessible(true);
+          snapshot = constructor.newInstance((Object) null);
+          break;
+        }
+        catch (NoSuchMethodException ex)
+        {
+          // try the next constructor
+        }
+      }
+    }
+    catch (ReflectiveOperationException ex)
+    {
+      message = "Could not create snapshot instance of cache <" + getSymbolicName() + ">";
+      throw new InitializationException(message,ex,getSymbolicName());
+    }
+
+    if (snapshot == null)
+    {
+      snapshot = (BestMatchCache) super.createSnapshotCache();
+    }
+
+    snapshot.groupCache = new HashMap<>();
+
+    return snapshot;
+  }
+
+ /**
+  * Take over the data of a snapshot loaded in the background. The lookups
+  * switch to the group map of the snapshot in one step, by swapping the
+  * reference. The map we were given may be shared with other nodes, so it is
+  * brought up to date afterwards, with each group's digit tree replaced in
+  * one put and the groups that are no longer loaded removed. The lookups of
+  * this cache no longer read it.
+  *
+  * @param snapshot The loaded snapshot
+  */
+  @Override
+  protected void publishSnapshot(AbstractSyncLoaderCache snapshot)
+  {
+    Map<String, DigitTree> loaded = ((BestMatchCache) snapshot).groupCache;
+    ArrayList<String> removedGroups = new ArrayList<>();
+
+    groupCache = loaded;
+
+    givenGroupCache.putAll(loaded);
+
+    for (String mapGroup : givenGroupCache.keySet())
+    {
+      if (!loaded.containsKey(mapGroup))
+      {
+        removedGroups.add(mapGroup);
+      }
+    }
+
+    for (String mapGroup : removedGroups)
+    {
+      givenGroupCache.remove(mapGroup);
+    }
+  }
+
  /**
   * Dumps the entire contents of the cache to the Log.
   */
@@ -527,12 +630,13 @@ public class BestMatchCache extends AbstractSyncLoaderCache {
   {
     String      Helper;
     Iterator<String>    GroupIter;
+    Map<String, DigitTree> tmpGroupCache = groupCache;
 
     logger.info("Dumping Map Data for BestMatchCache <" + getSymbolicName() + ">");
     logger.info("Groups:");
 
     // Iterate thorough the entries in the group
-    GroupIter = groupCache.keySet().iterator();
+    GroupIter = tmpGroupCache.keySet().iterator();
     while (GroupIter.hasNext())
     {
       Helper = GroupIter.next();
@@ -540,7 +644,7 @@ public class BestMatchCache extends AbstractSyncLoaderCache {
     }
 
     // Now dump the data
-    GroupIter = groupCache.keySet().iterator();
+    GroupIter = tmpGroupCache.keySet().iterator();
     while (GroupIter.hasNext())
     {
       Helper = GroupIter.next();
@@ -595,22 +699,23 @@ public class BestMatchCache extends AbstractSyncLoaderCache {
     String      tmpGroupName;
     int         Objects = 0;
     int         ResultCode = -1;
+    Map<String, DigitTree> tmpGroupCache = groupCache;
 
     // Return the number of objects in the cache
     if (Command.equalsIgnoreCase(SERVICE_GROUP_COUNT))
     {
-      return Integer.toString(groupCache.size());
+      return Integer.toString(tmpGroupCache.size());
     }
 
     if (Command.equalsIgnoreCase(SERVICE_OBJECT_COUNT))
     {
-      tmpGroups = groupCache.keySet();
+      tmpGroups = tmpGroupCache.keySet();
       GroupIter = tmpGroups.iterator();
 
       while (GroupIter.hasNext())
       {
         tmpGroupName = GroupIter.next();
-        tmpPrefixCache = groupCache.get(tmpGroupName);
+        tmpPrefixCache = tmpGroupCache.get(tmpGroupName);
         Objects += tmpPrefixCache.size();
       }
 
@@ -48,7 +48,7 @@ public class BestMatchFixedLineCache
   * The cost of a search is linear with the number of digits
   * stored in the search tree
   */
-  protected HashMap<String, DigitTreeFixedLine> GroupCache;
+  protected volatile HashMap<String, DigitTreeFixedLine> GroupCache;
   private DigitTreeFixedLine prefixCache;
 
   // List of Services that this Client supports
@@ -484,6 +484,17 @@ public class BestMatchFixedLineCache
     GroupCache.clear();
   }
 
+ /**
+  * Take over the data of a snapshot loaded in the background
+  *
+  * @param snapshot The loaded snapshot
+  */
+  @Override
+  protected void publishSnapshot(AbstractSyncLoaderCache snapshot)
+  {
+    GroupCache = ((BestMatchFixedLineCache) snapshot).GroupCache;
+  }
+
   // -----------------------------------------------------------------------------
   // ------------- Start of inherited IEventInterface functions ------------------
   // -----------------------------------------------------------------------------
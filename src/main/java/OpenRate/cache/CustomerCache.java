@@ -3,20 +3,28 @@
 package OpenRate.cache;
 
 import OpenRate.OpenRate;
+import OpenRate.configurationmanager.ClientManager;
 import OpenRate.db.DBUtil;
 import OpenRate.exception.InitializationException;
+import OpenRate.lang.BoundedCache;
 import OpenRate.lang.ProductList;
 import OpenRate.utils.PropertyUtils;
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -120,16 +128,37 @@ import java.util.concurrent.ConcurrentHashMap;
  * 2) ERA_NAME
  * 3) ERA_VALUE
  *
+ * --------------------------- On Demand Loading -------------------------------
+ *
+ * When the customer base is too big to hold in memory, the DB loading can be
+ * switched to on demand with "LoadMode" set to "OnDemand". Nothing is loaded
+ * at start up. A customer is read from the DB the first time one of its
+ * aliases is looked up, and the least recently used customers are evicted
+ * once "MaxCustomers" (default 100000) are held. Aliases that are not found
+ * are remembered too, so that unknown aliases do not go to the DB each time.
+ *
+ * In this mode the select queries are replaced by lookup queries, which return
+ * the same columns as above, but only for the key given as their single
+ * parameter:
+ *
+ * AliasLookupStatement: the customer of the alias given
+ * CustomerLookupStatement: the customer account of the identifier given
+ * ProductLookupStatement: the products of the customer identifier given
+ * ERALookupStatement: the ERAs of the customer identifier given
+ *
+ * The aliases of a whole batch can be loaded together with prefetchAliases(),
+ * which the customer lookup plug in does before it processes a batch. The hit
+ * rate of the lookups is available through the "CacheStatistics" command.
+ *
  * @author i.sparkes
  */
 public class CustomerCache
     extends AbstractSyncLoaderCache
 {
-  // Used to allow alias maps - takes a alias and maps to a poid.
-  private ConcurrentHashMap<String, String> aliasCache;
-
-  // The CustIDCache holds the aliases for the account
-  private ConcurrentHashMap<String, CustInfo> CustIDCache;
+  // The maps of the cache. A snapshot reload replaces all of them with one
+  // write, and each lookup reads this once, so that an alias and its customer
+  // always come from the same load.
+  private volatile CacheState state;
 
   /**
    * The alias data select query is used to recover alias information from the
@@ -183,33 +212,96 @@ public class CustomerCache
   */
   protected String internalDateFormat = "yyyyMMddHHmmss";
 
+  // The load modes
+  private final static String LOAD_MODE_FULL      = "Full";
+  private final static String LOAD_MODE_ON_DEMAND = "OnDemand";
+
+  // The default number of customers held in on demand mode
+  private final static int DEFAULT_MAX_CUSTOMERS = 100000;
+
+  // Report the lookup hit rate
+  private final static String SERVICE_STATISTICS = "CacheStatistics";
+
+  // true if the customers are loaded on demand instead of at start up
+  private boolean onDemand = false;
+
   /**
-   * The CustInfo structure holds the information about the customer account,
-   * including the validity dates, the product list and the balance group
-   * reference. Note that we are using the dates as long integers to reduce
-   * the total amount of storage that is required.
+   * The maps of the cache as they were loaded together. The customers and
+   * aliases held in on demand mode are here too, and an alias that is not
+   * known is held in them with an empty customer identifier.
    */
-  private class CustInfo
+  private static final class CacheState
   {
-    private     long UTCValidFrom;
-    private     long UTCValidTo;
-    private     ArrayList<CustProductInfo> CPI = null;
-    private     int ProductCount = 0;
-    private     int BalanceGroup = 0;
-    private     ConcurrentHashMap<String, String> ERAList = null;
+    // Used to allow alias maps - takes a alias and maps to a poid.
+    final ConcurrentHashMap<String, String> aliasCache = new ConcurrentHashMap<>(5000);
+
+    // The CustIDCache holds the aliases for the account
+    final ConcurrentHashMap<String, CustInfo> CustIDCache = new ConcurrentHashMap<>(5000);
+
+    // The customers and aliases held in on demand mode, null otherwise
+    final BoundedCache<String, String> aliasLru;
+    final BoundedCache<String, CustInfo> custLru;
+
+    CacheState(boolean onDemand, int maxCustomers)
+    {
+      aliasLru = onDemand ? new BoundedCache<String, String>(maxCustomers) : null;
+      custLru = onDemand ? new BoundedCache<String, CustInfo>(maxCustomers) : null;
+    }
   }
 
+ /**
+  * The lookup queries of the on demand mode, each taking the alias or the
+  * customer identifier as its parameter
+  */
+  protected String aliasLookupQuery;
+
+ /**
+  * The customer lookup query of the on demand mode
+  */
+  protected String customerLookupQuery;
+
+ /**
+  * The product lookup query of the on demand mode
+  */
+  protected String productLookupQuery;
+
+ /**
+  * The ERA lookup query of the on demand mode
+  */
+  protected String eraLookupQuery;
+
+  // The empty columns of a customer without products or ERAs
+  private final static String[] NO_STRINGS = new String[0];
+  private final static long[]   NO_DATES = new long[0];
+
   /**
-   * The CustProductInfo structure holds the information about the products the,
-   * customer has, including the validity dates. Note that we are using long integers
-   * for the dates to reduce storage requirements.
+   * The CustInfo structure holds the information about the customer account,
+   * including the validity dates, the products and the balance group
+   * reference. The products are held in columns, with the service and product
+   * IDs interned and the dates as long integers, and the ERAs as name/value
+   * pairs in a single array. A customer is therefore a handful of arrays
+   * instead of an object per product and a map per account, and looking up
+   * the products creates no objects.
+   *
+   * The columns are grown by doubling, so they can be longer than the number
+   * of products, which is ProductCount. A customer can be given products and
+   * ERAs while it is already in the cache and being looked up. The columns
+   * are therefore filled in before the volatile ProductCount is raised, and
+   * the lookups read the count first and only that many entries, so that
+   * they never see a product that is not complete. The ERAs are replaced as
+   * a whole array.
    */
-  private class CustProductInfo
+  private static class CustInfo
   {
-    private String ProductID=null;
-    private String Service=null;
-    private   long UTCValidFrom;
-    private   long UTCValidTo;
+    private     long UTCValidFrom;
+    private     long UTCValidTo;
+    private     int BalanceGroup = 0;
+    private volatile int ProductCount = 0;
+    private     String[] ProductService = NO_STRINGS;
+    private     String[] ProductID = NO_STRINGS;
+    private     long[] ProductValidFrom = NO_DATES;
+    private     long[] ProductValidTo = NO_DATES;
+    private volatile String[] ERAs = NO_STRINGS;
   }
 
    /** Constructor
@@ -220,8 +312,7 @@ public class CustomerCache
   {
     super();
 
-    CustIDCache = new ConcurrentHashMap<>(5000);
-    aliasCache = new ConcurrentHashMap<>(5000);
+    state = new CacheState(false, 0);
   }
 
  /**
@@ -233,6 +324,8 @@ public class CustomerCache
   */
   public void addAlias(String alias, String CustId)
   {
+    ConcurrentHashMap<String, String> aliasCache = state.aliasCache;
+
     // Update the alias list
     if (!aliasCache.containsKey(alias))
     {
@@ -256,26 +349,18 @@ public class CustomerCache
   public void addCustId(String CustId,long ValidFrom,long ValidTo,int BalanceGroup)
   {
     CustInfo tmpCustInfo;
+    ConcurrentHashMap<String, CustInfo> CustIDCache = state.CustIDCache;
 
     // See if we already have ID for this customer
     if (!CustIDCache.containsKey(CustId))
     {
-      // Check validity dates
-      if (ValidTo <= ValidFrom)
+      // Create the new entry for the customer ID
+      tmpCustInfo = createCustInfo(CustId,ValidFrom,ValidTo,BalanceGroup);
+
+      if (tmpCustInfo != null)
       {
-        // Otherwise write an error and ignore it
-        OpenRate.getOpenRateFrameworkLog().error("Customer ID <" + CustId + "> valid from <" + ValidFrom + "> is after valid to <" + ValidTo + ">. Add failed.");
-        return;
+        CustIDCache.put(CustId,tmpCustInfo);
       }
-
-      // Create the new entry for the customer ID
-      tmpCustInfo = new CustInfo();
-      tmpCustInfo.CPI = new ArrayList<>();
-      tmpCustInfo.ERAList = new ConcurrentHashMap<>(10);
-      tmpCustInfo.UTCValidFrom = ValidFrom;
-      tmpCustInfo.UTCValidTo   = ValidTo;
-      tmpCustInfo.BalanceGroup = BalanceGroup;
-      CustIDCache.put(CustId,tmpCustInfo);
     }
     else
     {
@@ -306,28 +391,13 @@ public class CustomerCache
   public void addCPI(String CustId, String Service, String ProdID, long ValidFrom, long ValidTo)
   {
     CustInfo tmpCustInfo;
-    CustProductInfo tmpCPI;
 
     // See if we already have ID for this customer
-    if (CustIDCache.containsKey(CustId))
-    {
-      // Check validity dates
-      if (ValidTo <= ValidFrom)
-      {
-        // Otherwise write an error and ignore it
-        OpenRate.getOpenRateFrameworkLog().error("Customer ID <" + CustId + "> product <" + ProdID + "> valid from <" + ValidFrom + "> is after valid to <" + ValidTo + ">. Add failed.");
-        return;
-      }
+    tmpCustInfo = state.CustIDCache.get(CustId);
 
-      // Create the new entry for the customer ID
-      tmpCustInfo = CustIDCache.get(CustId);
-      tmpCPI = new CustProductInfo();
-      tmpCPI.Service = Service;
-      tmpCPI.ProductID = ProdID;
-      tmpCPI.UTCValidFrom = ValidFrom;
-      tmpCPI.UTCValidTo = ValidTo;
-      tmpCustInfo.CPI.add(tmpCustInfo.ProductCount,tmpCPI);
-      tmpCustInfo.ProductCount++;
+    if (tmpCustInfo != null)
+    {
+      addCPI(tmpCustInfo,CustId,Service,ProdID,ValidFrom,ValidTo);
     }
     else
     {
@@ -336,6 +406,109 @@ public class CustomerCache
     }
   }
 
+ /**
+  * Create the entry for a customer, checking the validity dates
+  *
+  * @param CustId The customer identifier
+  * @param ValidFrom Valid from date of the customer relationship
+  * @param ValidTo Valid to date of the customer relationship
+  * @param BalanceGroup The ID of the counter balance group
+  * @return The entry, or null if the dates are not valid
+  */
+  private CustInfo createCustInfo(String CustId,long ValidFrom,long ValidTo,int BalanceGroup)
+  {
+    CustInfo tmpCustInfo;
+
+    // Check validity dates
+    if (ValidTo <= ValidFrom)
+    {
+      // Otherwise write an error and ignore it
+      OpenRate.getOpenRateFrameworkLog().error("Customer ID <" + CustId + "> valid from <" + ValidFrom + "> is after valid to <" + ValidTo + ">. Add failed.");
+      return null;
+    }
+
+    tmpCustInfo = new CustInfo();
+    tmpCustInfo.UTCValidFrom = ValidFrom;
+    tmpCustInfo.UTCValidTo   = ValidTo;
+    tmpCustInfo.BalanceGroup = BalanceGroup;
+
+    return tmpCustInfo;
+  }
+
+ /**
+  * Add a CPI (CustomerProductInstance) value to a customer entry, checking the
+  * validity dates
+  *
+  * @param tmpCustInfo The customer entry to add the product to
+  * @param CustId The customer ID, for the error messages
+  * @param Service The service of the product
+  * @param ProdID The product identifier
+  * @param ValidFrom The start of the product validity
+  * @param ValidTo The end of the product validity
+  */
+  private void addCPI(CustInfo tmpCustInfo, String CustId, String Service, String ProdID, long ValidFrom, long ValidTo)
+  {
+    int index = tmpCustInfo.ProductCount;
+
+    // Check validity dates
+    if (ValidTo <= ValidFrom)
+    {
+      // Otherwise write an error and ignore it
+      OpenRate.getOpenRateFrameworkLog().error("Customer ID <" + CustId + "> product <" + ProdID + "> valid from <" + ValidFrom + "> is after valid to <" + ValidTo + ">. Add failed.");
+      return;
+    }
+
+    // Double the columns when they are full, so that a customer with many
+    // products is not copied once per product
+    if (index == tmpCustInfo.ProductID.length)
+    {
+      int capacity = (index == 0) ? 1 : index * 2;
+
+      tmpCustInfo.ProductService = Arrays.copyOf(tmpCustInfo.ProductService, capacity);
+      tmpCustInfo.ProductID = Arrays.copyOf(tmpCustInfo.ProductID, capacity);
+      tmpCustInfo.ProductValidFrom = Arrays.copyOf(tmpCustInfo.ProductValidFrom, capacity);
+      tmpCustInfo.ProductValidTo = Arrays.copyOf(tmpCustInfo.ProductValidTo, capacity);
+    }
+
+    // The same services and products are shared by many customers
+    tmpCustInfo.ProductService[index] = Service.intern();
+    tmpCustInfo.ProductID[index] = ProdID.intern();
+    tmpCustInfo.ProductValidFrom[index] = ValidFrom;
+    tmpCustInfo.ProductValidTo[index] = ValidTo;
+
+    // Publish the product last, the lookups read the count first
+    tmpCustInfo.ProductCount = index + 1;
+  }
+
+ /**
+  * Add or modify an ERA of a customer entry
+  *
+  * @param tmpCustInfo The customer entry
+  * @param ERA_ID The key of the ERA
+  * @param Value The value of the ERA
+  */
+  private void putERA(CustInfo tmpCustInfo, String ERA_ID, String Value)
+  {
+    String[] eras = tmpCustInfo.ERAs;
+
+    // The array is copied, not changed, as it may be being read
+    for (int i = 0 ; i < eras.length ; i += 2)
+    {
+      if (eras[i].equals(ERA_ID))
+      {
+        eras = Arrays.copyOf(eras, eras.length);
+        eras[i + 1] = Value;
+        tmpCustInfo.ERAs = eras;
+        return;
+      }
+    }
+
+    eras = Arrays.copyOf(eras, eras.length + 2);
+    eras[eras.length - 2] = ERA_ID.intern();
+    eras[eras.length - 1] = Value;
+    tmpCustInfo.ERAs = eras;
+  }
+
  /**
   * Add an ERA (Extended Rating Attribute) object to the account. ERAs are
   * used to control rating, for example Closed User Groups are modelled using
@@ -348,13 +521,14 @@ public class CustomerCache
   public void addERA(String CustId, String ERA_ID, String Value)
   {
     CustInfo tmpCustInfo;
+    ConcurrentHashMap<String, CustInfo> CustIDCache = state.CustIDCache;
 
     // See if we already have ID for this customer
     if (CustIDCache.containsKey(CustId))
     {
       // Create the new entry for the customer ID
       tmpCustInfo = CustIDCache.get(CustId);
-      tmpCustInfo.ERAList.put(ERA_ID,Value);
+      putERA(tmpCustInfo,ERA_ID,Value);
     }
     else
     {
@@ -371,19 +545,9 @@ public class CustomerCache
   */
   public String getCustId(String alias)
   {
-    String CustPoid;
-
-    // See if we already have ID for this customer
-    if (aliasCache.containsKey(alias))
-    {
-      // Get the poid from the alias
-      CustPoid = aliasCache.get(alias);
-      return CustPoid;
-    }
-    else
-    {
-      return null;
-    }
+    // Get the poid from the alias, null if we don't know it. Only look once,
+    // as the cache may be swapped by a snapshot reload between two looks.
+    return lookupCustId(state, alias);
   }
 
  /**
@@ -398,57 +562,72 @@ public class CustomerCache
   public ProductList getProducts(String alias, String Service, long CDRDate)
   {
     ProductList tmpProductList;
-    String CustPoid;
-    CustInfo tmpCustInfo;
-    CustProductInfo tmpCPI;
-    boolean FirstProduct = true;
 
     // Prepare the result
     tmpProductList = new ProductList();
 
-    // See if we already have ID for this customer
-    if (aliasCache.containsKey(alias))
+    if (getProducts(alias, Service, CDRDate, tmpProductList))
     {
-      // Get the poid from the alias
-      CustPoid = aliasCache.get(alias);
+      return tmpProductList;
+    }
+
+    return null;
+  }
+
+ /**
+  * Get the products that are attached to the customer account, using the
+  * alias to locate the account, into a product list supplied by the caller.
+  * The list is cleared first, and can be reused from one record to the next,
+  * so that the lookup creates no objects.
+  *
+  * @param alias The alias to the customer account
+  * @param Service The service
+  * @param CDRDate The date to retrieve the products for
+  * @param result The product list to fill
+  * @return true if the account was found and is valid at the date
+  */
+  public boolean getProducts(String alias, String Service, long CDRDate, ProductList result)
+  {
+    CacheState tmpState = state;
+    String CustPoid;
+    CustInfo tmpCustInfo;
+
+    result.clear();
+
+    // Get the poid from the alias
+    CustPoid = lookupCustId(tmpState, alias);
 
-      // Get the product information
-      tmpCustInfo = CustIDCache.get(CustPoid);
+    // Get the product information
+    tmpCustInfo = (CustPoid == null) ? null : lookupCustInfo(tmpState, CustPoid);
 
-      // See if the CDR is within the period of validitysetRawProductList
-      if ( tmpCustInfo.UTCValidFrom <= CDRDate )
+    // See if we already have ID for this customer
+    if (tmpCustInfo != null)
+    {
+      // See if the CDR is within the period of validity
+      if ((tmpCustInfo.UTCValidFrom <= CDRDate) && (tmpCustInfo.UTCValidTo > CDRDate))
       {
-        if (tmpCustInfo.UTCValidTo > CDRDate)
+        // Take the volatile count before the columns, which are only ever
+        // longer and are filled in before the count is raised
+        int      productCount = tmpCustInfo.ProductCount;
+        String[] services = tmpCustInfo.ProductService;
+        String[] productIDs = tmpCustInfo.ProductID;
+        long[]   validFrom = tmpCustInfo.ProductValidFrom;
+        long[]   validTo = tmpCustInfo.ProductValidTo;
+
+        // We have validity, get back the product list
+        for ( int i = 0 ; i < productCount ; i ++ )
         {
-          // We have validity, get back the product list
-          for ( int i = 0 ; i < tmpCustInfo.ProductCount ; i ++ )
+          if (services[i].equals(Service) && (validFrom[i] <= CDRDate) && (validTo[i] > CDRDate))
           {
-            tmpCPI = tmpCustInfo.CPI.get(i);
-            if (tmpCPI.Service.equals(Service))
-            {
-              if ( tmpCPI.UTCValidFrom <= CDRDate )
-              {
-                if ( tmpCPI.UTCValidTo > CDRDate )
-                {
-                  if (FirstProduct)
-                  {
-                    tmpProductList.addProduct(0,tmpCPI.ProductID,null,tmpCPI.Service,tmpCPI.UTCValidFrom,tmpCPI.UTCValidTo,1);
-                    FirstProduct = false;
-                  }
-                  else
-                  {
-                    tmpProductList.addProduct(0,tmpCPI.ProductID,null,tmpCPI.Service,tmpCPI.UTCValidFrom,tmpCPI.UTCValidTo,1);
-                  }
-                }
-              }
-            }
+            result.addCachedProduct(productIDs[i],null,services[i],validFrom[i],validTo[i],1);
           }
-          tmpProductList.setBalanceGroup(tmpCustInfo.BalanceGroup);
-          return tmpProductList;
         }
+
+        result.setBalanceGroup(tmpCustInfo.BalanceGroup);
+        return true;
       }
 
-      return null;
+      return false;
     }
     else
     {
@@ -456,7 +635,7 @@ public class CustomerCache
       OpenRate.getOpenRateFrameworkLog().error("Alias <" + alias + "> not found. Lookup failed.");
     }
 
-    return null;
+    return false;
   }
 
  /**
@@ -471,12 +650,12 @@ public class CustomerCache
   {
     CustInfo tmpCustInfo;
 
+    // Get the product information
+    tmpCustInfo = lookupCustInfo(state, CustId);
+
     // See if we already have ID for this customer
-    if (CustIDCache.containsKey(CustId))
+    if (tmpCustInfo != null)
     {
-      // Get the product information
-      tmpCustInfo = CustIDCache.get(CustId);
-
       return tmpCustInfo.BalanceGroup;
     }
     else
@@ -499,12 +678,22 @@ public class CustomerCache
   {
     CustInfo tmpCustInfo;
 
+    tmpCustInfo = lookupCustInfo(state, CustId);
+
     // See if we already have ID for this customer
-    if (CustIDCache.containsKey(CustId))
+    if (tmpCustInfo != null)
     {
-      // Create the new entry for the customer ID
-      tmpCustInfo = CustIDCache.get(CustId);
-      return tmpCustInfo.ERAList.get(ERA_ID);
+      String[] eras = tmpCustInfo.ERAs;
+
+      for (int i = 0 ; i < eras.length ; i += 2)
+      {
+        if (eras[i].equals(ERA_ID))
+        {
+          return eras[i + 1];
+        }
+      }
+
+      return null;
     }
     else
     {
@@ -524,12 +713,17 @@ public class CustomerCache
     CustInfo tmpCustInfo;
     ArrayList<String> keyList = new ArrayList<>();
 
+    tmpCustInfo = lookupCustInfo(state, CustId);
+
     // See if we already have ID for this customer
-    if (CustIDCache.containsKey(CustId))
+    if (tmpCustInfo != null)
     {
-      // Create the new entry for the customer ID
-      tmpCustInfo = CustIDCache.get(CustId);
-      keyList.addAll(tmpCustInfo.ERAList.keySet());
+      String[] eras = tmpCustInfo.ERAs;
+
+      for (int i = 0 ; i < eras.length ; i += 2)
+      {
+        keyList.add(eras[i]);
+      }
 
       return keyList;
     }
@@ -540,6 +734,355 @@ public class CustomerCache
     }
   }
 
+ /**
+  * See if the customers are loaded on demand
+  *
+  * @return true if the customers are loaded on demand, false if they are all
+  * loaded at start up
+  */
+  public boolean isOnDemand()
+  {
+    return onDemand;
+  }
+
+ /**
+  * Load the customers of a batch of aliases in one go, so that the lookups of
+  * the batch find them in the cache instead of going to the DB one by one.
+  * Aliases that are already cached are skipped. Does nothing unless the
+  * customers are loaded on demand.
+  *
+  * @param aliases The aliases that are about to be looked up
+  */
+  public void prefetchAliases(Collection<String> aliases)
+  {
+    if (!onDemand)
+    {
+      return;
+    }
+
+    CacheState tmpState = state;
+    LinkedHashSet<String> missing = new LinkedHashSet<>();
+
+    for (String alias : aliases)
+    {
+      if (alias != null && !tmpState.aliasLru.containsKey(alias))
+      {
+        missing.add(alias);
+      }
+    }
+
+    if (missing.size() > 0)
+    {
+      loadAliasesOnDemand(tmpState, missing);
+    }
+  }
+
+ /**
+  * Get the statistics of the on demand lookups
+  *
+  * @return The statistics, or a note that the customers are not loaded on
+  * demand
+  */
+  public String getStatistics()
+  {
+    CacheState tmpState = state;
+
+    if (!onDemand)
+    {
+      return "All customers loaded: " + tmpState.CustIDCache.size() + " customers, " + tmpState.aliasCache.size() + " aliases";
+    }
+
+    BoundedCache<String, String> tmpAliasLru = tmpState.aliasLru;
+    BoundedCache<String, CustInfo> tmpCustLru = tmpState.custLru;
+
+    return "Aliases: " + tmpAliasLru.size() + "/" + tmpAliasLru.getMaxSize() +
+           " hits: " + tmpAliasLru.getHits() +
+           " misses: " + tmpAliasLru.getMisses() +
+           " hit rate: " + String.format("%.3f", tmpAliasLru.getHitRate()) +
+           " evictions: " + tmpAliasLru.getEvictions() +
+           ", Customers: " + tmpCustLru.size() + "/" + tmpCustLru.getMaxSize() +
+           " hits: " + tmpCustLru.getHits() +
+           " misses: " + tmpCustLru.getMisses() +
+           " hit rate: " + String.format("%.3f", tmpCustLru.getHitRate()) +
+           " evictions: " + tmpCustLru.getEvictions();
+  }
+
+ /**
+  * Get the customer of an alias, loading it if the customers are loaded on
+  * demand and it is not cached
+  *
+  * @param tmpState The maps to look in
+  * @param alias The alias
+  * @return The customer identifier, or null if the alias is not known
+  */
+  private String lookupCustId(CacheState tmpState, String alias)
+  {
+    if (!onDemand)
+    {
+      return tmpState.aliasCache.get(alias);
+    }
+
+    String custId = tmpState.aliasLru.get(alias);
+
+    if (custId == null)
+    {
+      custId = loadAliasesOnDemand(tmpState, Collections.singleton(alias)).get(alias);
+    }
+
+    // an empty identifier marks an alias that is not known
+    return (custId == null || custId.isEmpty()) ? null : custId;
+  }
+
+ /**
+  * Get the entry of a customer, loading it if the customers are loaded on
+  * demand and it is not cached
+  *
+  * @param tmpState The maps to look in
+  * @param CustId The customer identifier
+  * @return The customer entry, or null if the customer is not known
+  */
+  private CustInfo lookupCustInfo(CacheState tmpState, String CustId)
+  {
+    if (!onDemand)
+    {
+      return tmpState.CustIDCache.get(CustId);
+    }
+
+    CustInfo tmpCustInfo = tmpState.custLru.get(CustId);
+
+    if (tmpCustInfo == null)
+    {
+      OnDemandLoader loader = null;
+
+      try
+      {
+        loader = new OnDemandLoader(tmpState);
+        tmpCustInfo = loader.loadCustomer(CustId);
+      }
+      catch (InitializationException | SQLException ex)
+      {
+        OpenRate.getOpenRateFrameworkLog().error("Error loading customer <" + CustId + "> on demand from <" + cacheDataSourceName + ">. message: <" + ex.getMessage() + ">");
+      }
+      finally
+      {
+        if (loader != null)
+        {
+          loader.close();
+        }
+      }
+    }
+
+    return tmpCustInfo;
+  }
+
+ /**
+  * Load the customers of a list of aliases on one connection, caching the
+  * aliases and customers found, and the aliases not found. If the DB fails,
+  * nothing more is cached, so that the aliases are tried again next time.
+  *
+  * @param tmpState The maps to cache them in
+  * @param aliases The aliases to load
+  * @return The customer identifiers of the aliases loaded, empty for the
+  * aliases not known
+  */
+  private HashMap<String, String> loadAliasesOnDemand(CacheState tmpState, Collection<String> aliases)
+  {
+    HashMap<String, String> loaded = new HashMap<>();
+    OnDemandLoader loader = null;
+
+    try
+    {
+      loader = new OnDemandLoader(tmpState);
+
+      for (String alias : aliases)
+      {
+        loaded.put(alias, loader.loadAlias(alias));
+      }
+    }
+    catch (InitializationException | SQLException ex)
+    {
+      OpenRate.getOpenRateFrameworkLog().error("Error loading aliases on demand from <" + cacheDataSourceName + ">. message: <" + ex.getMessage() + ">");
+    }
+    finally
+    {
+      if (loader != null)
+      {
+        loader.close();
+      }
+    }
+
+    return loaded;
+  }
+
+ /**
+  * Loads customers on demand on a connection of its own, which it holds until
+  * it is closed. The caches it fills are the ones of the state the lookup
+  * read, so that a snapshot reload does not receive customers of the old data.
+  */
+  private class OnDemandLoader
+  {
+    private final BoundedCache<String, String> tmpAliasLru;
+    private final BoundedCache<String, CustInfo> tmpCustLru;
+    private final SimpleDateFormat sdfInput = new SimpleDateFormat(internalDateFormat);
+
+    private Connection        con;
+    private PreparedStatement stmtAlias;
+    private PreparedStatement stmtCustomer;
+    private PreparedStatement stmtProduct;
+    private PreparedStatement stmtERA;
+
+    OnDemandLoader(CacheState tmpState) throws InitializationException, SQLException
+    {
+      tmpAliasLru = tmpState.aliasLru;
+      tmpCustLru = tmpState.custLru;
+      con = DBUtil.getConnection(cacheDataSourceName);
+
+      try
+      {
+        stmtAlias = con.prepareStatement(aliasLookupQuery);
+        stmtCustomer = con.prepareStatement(customerLookupQuery);
+        stmtProduct = con.prepareStatement(productLookupQuery);
+        stmtERA = con.prepareStatement(eraLookupQuery);
+      }
+      catch (SQLException ex)
+      {
+        close();
+        throw ex;
+      }
+    }
+
+   /**
+    * Load an alias and its customer into the caches
+    *
+    * @param alias The alias
+    * @return The customer identifier, empty if the alias is not known
+    */
+    String loadAlias(String alias) throws SQLException
+    {
+      String    custId = "";
+      ResultSet rs = null;
+
+      try
+      {
+        stmtAlias.setString(1, alias);
+        rs = stmtAlias.executeQuery();
+
+        if (rs.next())
+        {
+          custId = rs.getString(2);
+        }
+      }
+      finally
+      {
+        DBUtil.close(rs);
+      }
+
+      // an alias of a customer we cannot load is not known either
+      if (custId != null && custId.length() > 0 && !tmpCustLru.containsKey(custId))
+      {
+        if (loadCustomer(custId) == null)
+        {
+          custId = "";
+        }
+      }
+
+      if (custId == null)
+      {
+        custId = "";
+      }
+
+      tmpAliasLru.put(alias, custId);
+
+      return custId;
+    }
+
+   /**
+    * Load a customer with its products and ERAs into the cache
+    *
+    * @param CustId The customer identifier
+    * @return The customer entry, or null if the customer is not known or its
+    * data is not valid
+    */
+    CustInfo loadCustomer(String CustId) throws SQLException
+    {
+      CustInfo  tmpCustInfo = null;
+      ResultSet rs = null;
+
+      try
+      {
+        stmtCustomer.setString(1, CustId);
+        rs = stmtCustomer.executeQuery();
+
+        if (rs.next())
+        {
+          tmpCustInfo = createCustInfo(CustId,
+                                       parseDate(rs.getString(2)),
+                                       parseDate(rs.getString(3)),
+                                       Integer.parseInt(rs.getString(4)));
+        }
+
+        rs.close();
+
+        if (tmpCustInfo == null)
+        {
+          return null;
+        }
+
+        stmtProduct.setString(1, CustId);
+        rs = stmtProduct.executeQuery();
+
+        while (rs.next())
+        {
+          addCPI(tmpCustInfo, CustId, rs.getString(2), rs.getString(3),
+                 parseDate(rs.getString(4)), parseDate(rs.getString(5)));
+        }
+
+        rs.close();
+
+        stmtERA.setString(1, CustId);
+        rs = stmtERA.executeQuery();
+
+        while (rs.next())
+        {
+          putERA(tmpCustInfo, rs.getString(2), rs.getString(3));
+        }
+      }
+      catch (ParseException | NumberFormatException ex)
+      {
+        OpenRate.getOpenRateFrameworkLog().error("Data for customer <" + CustId + "> is not correct. Customer not loaded. message: <" + ex.getMessage() + ">");
+        return null;
+      }
+      finally
+      {
+        DBUtil.close(rs);
+      }
+
+      tmpCustLru.put(CustId, tmpCustInfo);
+
+      return tmpCustInfo;
+    }
+
+   /**
+    * Parse a date of the lookup queries into UTC seconds
+    */
+    private long parseDate(String date) throws ParseException
+    {
+      return sdfInput.parse(date).getTime()/1000;
+    }
+
+   /**
+    * Close the statements and give the connection back
+    */
+    void close()
+    {
+      DBUtil.close(stmtAlias);
+      DBUtil.close(stmtCustomer);
+      DBUtil.close(stmtProduct);
+      DBUtil.close(stmtERA);
+      DBUtil.close(con);
+    }
+  }
+
  /**
   * load the data from a file
   *
@@ -733,6 +1276,14 @@ public class CustomerCache
       throw new InitializationException(message,getSymbolicName());
     }
 
+    // In on demand mode the customers are loaded as they are looked up
+    if (onDemand)
+    {
+      OpenRate.getOpenRateFrameworkLog().info("Customer Cache <" + getSymbolicName() + "> loads on demand from <" +
+            cacheDataSourceName + ">, holding up to <" + state.custLru.getMaxSize() + "> customers");
+      return;
+    }
+
     // Try to open the DS
     JDBCcon = DBUtil.getConnection(cacheDataSourceName);
 
@@ -988,8 +1539,72 @@ public class CustomerCache
   @Override
   public void clearCacheObjects()
   {
-    CustIDCache.clear();
-    aliasCache.clear();
+    CacheState tmpState = state;
+
+    tmpState.CustIDCache.clear();
+    tmpState.aliasCache.clear();
+
+    if (onDemand)
+    {
+      tmpState.custLru.clear();
+      tmpState.aliasLru.clear();
+    }
+  }
+
+ /**
+  * Take over the data of a snapshot loaded in the background. The maps are
+  * taken over together in one write, so that a lookup sees either all of the
+  * old maps or all of the new ones.
+  *
+  * @param snapshot The loaded snapshot
+  */
+  @Override
+  protected void publishSnapshot(AbstractSyncLoaderCache snapshot)
+  {
+    CustomerCache loaded = (CustomerCache) snapshot;
+
+    state = loaded.state;
+  }
+
+  // -----------------------------------------------------------------------------
+  // ------------- Start of inherited IEventInterface functions ------------------
+  // -----------------------------------------------------------------------------
+
+ /**
+  * registerClientManager registers this class as a client of the ECI listener
+  * and publishes the commands that the cache understands, adding the lookup
+  * statistics to the commands of the loader.
+  *
+  * @throws OpenRate.exception.InitializationException
+  */
+  @Override
+  public void registerClientManager() throws InitializationException
+  {
+    super.registerClientManager();
+
+    ClientManager.getClientManager().registerClientService(getSymbolicName(), SERVICE_STATISTICS, ClientManager.PARAM_DYNAMIC);
+  }
+
+ /**
+  * processControlEvent is the method that will be called when an event
+  * is received for a module that has registered itself as a client of the
+  * External Control Interface
+  *
+  * @param Command - command that is understand by the client module
+  * @param Init - we are performing initial configuration if true
+  * @param Parameter - parameter for the command
+  * @return The result string of the operation
+  */
+  @Override
+  public String processControlEvent(String Command, boolean Init,
+                                    String Parameter)
+  {
+    if (Command.equalsIgnoreCase(SERVICE_STATISTICS))
+    {
+      return getStatistics();
+    }
+
+    return super.processControlEvent(Command, Init, Parameter);
   }
 
   // -----------------------------------------------------------------------------
@@ -1009,6 +1624,25 @@ public class CustomerCache
   @Override
   protected boolean getDataStatements(String ResourceName, String CacheName) throws InitializationException
   {
+    String tmpLoadMode;
+
+    // See if we are loading on demand
+    tmpLoadMode = PropertyUtils.getPropertyUtils().getDataCachePropertyValueDef(ResourceName,
+                                                                CacheName,
+                                                                "LoadMode",
+                                                                LOAD_MODE_FULL);
+
+    if (tmpLoadMode.equalsIgnoreCase(LOAD_MODE_ON_DEMAND))
+    {
+      return getLookupStatements(ResourceName, CacheName);
+    }
+    else if (!tmpLoadMode.equalsIgnoreCase(LOAD_MODE_FULL))
+    {
+      message = "LoadMode for <" + getSymbolicName() + "> must be <" + LOAD_MODE_FULL +
+                "> or <" + LOAD_MODE_ON_DEMAND + ">, found <" + tmpLoadMode + ">";
+      throw new InitializationException(message,getSymbolicName());
+    }
+
     // Get the Select statement
     aliasSelectQuery = PropertyUtils.getPropertyUtils().getDataCachePropertyValueDef(ResourceName,
                                                                      CacheName,
@@ -1069,6 +1703,78 @@ public class CustomerCache
     }
   }
 
+ /**
+  * Get the lookup statements and the size of the on demand mode, and create
+  * the caches the customers are loaded into
+  *
+  * @param ResourceName The name of the resource to load for
+  * @param CacheName The name of the cache to load for
+  * @return True if the statements were found
+  * @throws InitializationException
+  */
+  protected boolean getLookupStatements(String ResourceName, String CacheName) throws InitializationException
+  {
+    String tmpMaxCustomers;
+    int    maxCustomers;
+
+    aliasLookupQuery = getLookupStatement(ResourceName, CacheName, "AliasLookupStatement");
+    customerLookupQuery = getLookupStatement(ResourceName, CacheName, "CustomerLookupStatement");
+    productLookupQuery = getLookupStatement(ResourceName, CacheName, "ProductLookupStatement");
+    eraLookupQuery = getLookupStatement(ResourceName, CacheName, "ERALookupStatement");
+
+    tmpMaxCustomers = PropertyUtils.getPropertyUtils().getDataCachePropertyValueDef(ResourceName,
+                                                                    CacheName,
+                                                                    "MaxCustomers",
+                                                                    Integer.toString(DEFAULT_MAX_CUSTOMERS));
+
+    try
+    {
+      maxCustomers = Integer.parseInt(tmpMaxCustomers);
+    }
+    catch (NumberFormatException ex)
+    {
+      message = "MaxCustomers for <" + getSymbolicName() + "> must be a number, found <" + tmpMaxCustomers + ">";
+      throw new InitializationException(message,getSymbolicName());
+    }
+
+    if (maxCustomers < 1)
+    {
+      message = "MaxCustomers for <" + getSymbolicName() + "> must be at least 1, found <" + tmpMaxCustomers + ">";
+      throw new InitializationException(message,getSymbolicName());
+    }
+
+    // Each customer has at least one alias
+    state = new CacheState(true, maxCustomers);
+    onDemand = true;
+
+    return true;
+  }
+
+ /**
+  * Get a lookup statement of the on demand mode, which must be defined
+  *
+  * @param ResourceName The name of the resource to load for
+  * @param CacheName The name of the cache to load for
+  * @param PropertyName The name of the statement
+  * @return The statement
+  * @throws InitializationException
+  */
+  private String getLookupStatement(String ResourceName, String CacheName, String PropertyName) throws InitializationException
+  {
+    String query = PropertyUtils.getPropertyUtils().getDataCachePropertyValueDef(ResourceName,
+                                                                 CacheName,
+                                                                 PropertyName,
+                                                                 "None");
+
+    if (query.equalsIgnoreCase("None"))
+    {
+      message = "<" + PropertyName + "> for <" + getSymbolicName() + "> missing.";
+      throw new InitializationException(message,getSymbolicName());
+    }
+
+    return query;
+  }
+
   /**
   * PrepareStatements creates the statements from the SQL expressions
   * so that they can be run as needed.
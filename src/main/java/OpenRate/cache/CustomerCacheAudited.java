@@ -9,6 +9,7 @@ import OpenRate.db.DBUtil;
 import OpenRate.exception.InitializationException;
 import OpenRate.exception.ProcessingException;
 import OpenRate.lang.AuditSegment;
+import OpenRate.lang.BoundedCache;
 import OpenRate.lang.CustInfo;
 import OpenRate.lang.CustProductInfo;
 import OpenRate.lang.ProductList;
@@ -16,13 +17,19 @@ import OpenRate.logging.ILogger;
 import OpenRate.logging.LogUtil;
 import OpenRate.utils.PropertyUtils;
 import java.io.*;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -122,6 +129,30 @@ import java.util.concurrent.ConcurrentHashMap;
  * Generally we know to update by the fact that we have a new ModT for an
  * existing AuditSegID.
  *
+ * --------------------------- On Demand Loading -------------------------------
+ *
+ * When the customer base is too big to hold in memory, the DB loading can be
+ * switched to on demand with "LoadMode" set to "OnDemand". Nothing is loaded
+ * at start up. A customer is read from the DB the first time one of its
+ * aliases is looked up, and the least recently used customers are evicted
+ * once "MaxCustomers" (default 100000) are held. Aliases that are not found
+ * are remembered too, so that unknown aliases do not go to the DB each time.
+ *
+ * In this mode the select queries are replaced by lookup queries, which return
+ * the same columns as above, but only for the key given as their single
+ * parameter:
+ *
+ * AliasLookupStatement: all the validity periods of the alias given
+ * AuditSegmentLookupStatement: the audit segments of the customer given
+ * ProductLookupStatement: the products of the customer given
+ * ERALookupStatement: the ERAs of the customer given
+ *
+ * Instead of the incremental update, the customers held are dropped each
+ * update period, so that they are read again with their changes. The aliases
+ * of a whole batch can be loaded together with prefetchAliases(), which the
+ * customer lookup plug in does before it processes a batch. The hit rate of
+ * the lookups is available through the "CacheStatistics" command.
+ *
  * @author i.sparkes
  */
 public class CustomerCacheAudited
@@ -147,22 +178,11 @@ public class CustomerCacheAudited
   protected PreparedStatement stmtERASelectQuery;
 
  /**
-  * Used to allow alias maps - go in with the alias, and it will return the
-  * unique customer AuditSegID for you
-  */
-  protected ConcurrentHashMap<String,ValidityNode> aliasCache;
-
- /**
-  * This stores the history segments of the product information. Go in with the
-  * customer AuditSegID and it returns all the versions of the information for that cust.
-  */
-  protected ConcurrentHashMap<Integer, CustInfo> custCache;
-
- /**
-  * This stores the customer history segment to the products. Go in with the history
-  * segment and it returns the product list for that segment.
+  * The maps of the cache. A snapshot reload replaces all of them with one
+  * write, and each lookup reads this once, so that an alias and its customer
+  * always come from the same load.
   */
-  protected ConcurrentHashMap<Long, AuditSegment> auditSegmentCache;
+  private volatile CacheState state;
 
  /**
   * The internal date format is the format that by default will be used when
@@ -188,6 +208,40 @@ public class CustomerCacheAudited
   protected long lastERAModT = 0;
   protected long lastProductModT = 0;
 
+  // The load modes
+  private final static String LOAD_MODE_FULL      = "Full";
+  private final static String LOAD_MODE_ON_DEMAND = "OnDemand";
+
+  // The default number of customers held in on demand mode
+  private final static int DEFAULT_MAX_CUSTOMERS = 100000;
+
+  // Report the lookup hit rate
+  protected final static String SERVICE_STATISTICS = "CacheStatistics";
+
+  // true if the customers are loaded on demand instead of at start up
+  private boolean onDemand = false;
+
+ /**
+  * The lookup queries of the on demand mode, each taking the alias or the
+  * customer identifier as its parameter
+  */
+  protected String aliasLookupQuery;
+
+ /**
+  * The audit segment lookup query of the on demand mode
+  */
+  protected String auditLookupQuery;
+
+ /**
+  * The product lookup query of the on demand mode
+  */
+  protected String productLookupQuery;
+
+ /**
+  * The ERA lookup query of the on demand mode
+  */
+  protected String eraLookupQuery;
+
   /**
    * A validityNode is a segment of validity of a resource. These are chained
    * together in a sorted linked list. The sorting is done at insertion time
@@ -203,6 +257,40 @@ public class CustomerCacheAudited
     ValidityNode child = null;
   }
 
+ /**
+  * The maps of the cache as they were loaded together. The customers and
+  * aliases held in on demand mode are here too, and an alias that is not
+  * known is held in them with an empty validity period.
+  */
+  private final class CacheState
+  {
+    // Used to allow alias maps - go in with the alias, and it will return the
+    // unique customer AuditSegID for you
+    final ConcurrentHashMap<String,ValidityNode> aliasCache;
+
+    // This stores the history segments of the product information. Go in with
+    // the customer AuditSegID and it returns all the versions of the
+    // information for that cust.
+    final ConcurrentHashMap<Integer, CustInfo> custCache;
+
+    // This stores the customer history segment to the products. Go in with the
+    // history segment and it returns the product list for that segment.
+    final ConcurrentHashMap<Long, AuditSegment> auditSegmentCache;
+
+    // The customers and aliases held in on demand mode, null otherwise
+    final BoundedCache<String, ValidityNode> aliasLru;
+    final BoundedCache<Integer, CustInfo> custLru;
+
+    CacheState(boolean onDemand, int maxCustomers)
+    {
+      aliasCache        = new ConcurrentHashMap<>(5000);
+      custCache         = new ConcurrentHashMap<>(5000);
+      auditSegmentCache = new ConcurrentHashMap<>(5000);
+      aliasLru          = onDemand ? new BoundedCache<String, ValidityNode>(maxCustomers) : null;
+      custLru           = onDemand ? new BoundedCache<Integer, CustInfo>(maxCustomers) : null;
+    }
+  }
+
  /**
   * Constructor
   * Creates a new instance of the Customer Cache. The Cache
@@ -212,9 +300,7 @@ public class CustomerCacheAudited
   {
     super();
 
-    aliasCache        = new ConcurrentHashMap<>(5000);
-    custCache         = new ConcurrentHashMap<>(5000);
-    auditSegmentCache = new ConcurrentHashMap<>(5000);
+    state = new CacheState(false, 0);
   }
 
   // -----------------------------------------------------------------------------
@@ -232,6 +318,15 @@ public class CustomerCacheAudited
   * @param validTo The end of the validity for this alias
   */
   public void addAlias(long ID, String alias, Integer custId, String subID, long validFrom, long validTo)
+  {
+    addAlias(state.aliasCache, ID, alias, custId, subID, validFrom, validTo);
+  }
+
+ /**
+  * Add a alias into the given alias map, which is the cache itself or the
+  * aliases of a customer loaded on demand.
+  */
+  private void addAlias(Map<String,ValidityNode> tmpAliasCache, long ID, String alias, Integer custId, String subID, long validFrom, long validTo)
   {
     ValidityNode newNode;
     ValidityNode tmpValidityNode;
@@ -249,7 +344,7 @@ public class CustomerCacheAudited
     }
 
     // Now add the validity segment into the list
-    if (!aliasCache.containsKey(alias))
+    if (!tmpAliasCache.containsKey(alias))
     {
       // We do not know this alias - Create the new list
       tmpValidityNode = new ValidityNode();
@@ -261,7 +356,7 @@ public class CustomerCacheAudited
       tmpValidityNode.child = null;
 
       // Add in the new node
-      aliasCache.put(alias, tmpValidityNode);
+      tmpAliasCache.put(alias, tmpValidityNode);
 
       // Done
       return;
@@ -269,7 +364,7 @@ public class CustomerCacheAudited
     else
     {
       // Recover the validity map that there is
-      tmpValidityNode = aliasCache.get(alias);
+      tmpValidityNode = tmpAliasCache.get(alias);
 
       // preset our valid to date
       lastValidTo = CommonConfig.LOW_DATE;
@@ -388,23 +483,41 @@ public class CustomerCacheAudited
                               long    audSegValidFrom,
                               long    custValidFrom,
                               long    custValidTo) throws InitializationException
+  {
+    CacheState tmpState = state;
+
+    addAuditSegment(tmpState.custCache, tmpState.auditSegmentCache, auditSegId, custId, ExtCustID, balanceGroup, audSegValidFrom, custValidFrom, custValidTo);
+  }
+
+ /**
+  * Add an audit segment into the given customer and audit segment maps.
+  */
+  private void addAuditSegment(Map<Integer, CustInfo> tmpCustCache,
+                               Map<Long, AuditSegment> tmpAuditSegmentCache,
+                               long    auditSegId,
+                               Integer custId,
+                               String  ExtCustID,
+                               long    balanceGroup,
+                               long    audSegValidFrom,
+                               long    custValidFrom,
+                               long    custValidTo)
   {
     CustInfo tmpCustInfo;
     AuditSegment tmpAuditSegment;
 
     // See if we already have AuditSegID for this customer
-    if (!custCache.containsKey(custId))
+    if (!tmpCustCache.containsKey(custId))
     {
       // If not, create the new entry for the customer AuditSegID
       tmpCustInfo = new CustInfo();
       tmpCustInfo.ExternalCustId = ExtCustID;
       tmpCustInfo.balanceGroup = balanceGroup;
-      custCache.put(custId,tmpCustInfo);
+      tmpCustCache.put(custId,tmpCustInfo);
     }
     else
     {
       // Otherwise just recover it
-      tmpCustInfo = custCache.get(custId);
+      tmpCustInfo = tmpCustCache.get(custId);
     }
 
     // See if we are dealing with an update - we do this by searching for the AuditSegID
@@ -439,7 +552,7 @@ public class CustomerCacheAudited
       tmpAuditSegment.setUTCAccountValidTo(custValidTo);
 
       // put the information into the contruction cache
-      auditSegmentCache.put(auditSegId,tmpAuditSegment);
+      tmpAuditSegmentCache.put(auditSegId,tmpAuditSegment);
     }
   }
 
@@ -458,11 +571,19 @@ public class CustomerCacheAudited
   * @throws InitializationException
   */
   public void addAuditedCPI(long auditSegId, long productRefId, String prodID, String subId, String service,long prodValidFrom, long prodValidTo) throws InitializationException
+  {
+    addAuditedCPI(state.auditSegmentCache, auditSegId, productRefId, prodID, subId, service, prodValidFrom, prodValidTo);
+  }
+
+ /**
+  * Add a CPI value to an audit segment of the given audit segment map.
+  */
+  private void addAuditedCPI(Map<Long, AuditSegment> tmpAuditSegmentCache, long auditSegId, long productRefId, String prodID, String subId, String service,long prodValidFrom, long prodValidTo)
   {
     AuditSegment tmpAuditSegment;
 
     // Recover the audit segment
-    tmpAuditSegment = auditSegmentCache.get(auditSegId);
+    tmpAuditSegment = tmpAuditSegmentCache.get(auditSegId);
 
     if (tmpAuditSegment == null)
     {
@@ -492,11 +613,19 @@ public class CustomerCacheAudited
   */
   public void addAuditedERA(long AuditSegId, String ERAKey, String ERAValue)
           throws InitializationException
+  {
+    addAuditedERA(state.auditSegmentCache, AuditSegId, ERAKey, ERAValue);
+  }
+
+ /**
+  * Add an ERA value to an audit segment of the given audit segment map.
+  */
+  private void addAuditedERA(Map<Long, AuditSegment> tmpAuditSegmentCache, long AuditSegId, String ERAKey, String ERAValue)
   {
     AuditSegment tmpAuditSegment;
 
     // Recover the audit segment
-    tmpAuditSegment = auditSegmentCache.get(AuditSegId);
+    tmpAuditSegment = tmpAuditSegmentCache.get(AuditSegId);
 
     if (tmpAuditSegment == null)
     {
@@ -527,49 +656,78 @@ public class CustomerCacheAudited
   */
   public ProductList getProducts(String alias, long cdrDate) throws ProcessingException
   {
-    Integer custId = null;
+    CacheState tmpState = state;
     ValidityNode tmpValidityNode;
-    String subId = null;
 
-    // See if we already have AuditSegID for this customer
-    if (aliasCache.containsKey(alias))
-    {
-      // get the start of the search tree
-      tmpValidityNode = aliasCache.get(alias);
+    tmpValidityNode = getValidAlias(tmpState, alias, cdrDate);
 
-      // Now that we have the Validity Map, get the entry
-      while (tmpValidityNode != null)
-      {
-        if ((tmpValidityNode.validFrom <= cdrDate) &
-            (tmpValidityNode.validTo > cdrDate))
-        {
-          custId = tmpValidityNode.custId;
-          subId = tmpValidityNode.subId;
-          break;
-        }
+    // recover the products with the Cust ID
+    return getProducts(tmpState, tmpValidityNode.custId,tmpValidityNode.subId,cdrDate);
+  }
 
-        // Move down the map
-        tmpValidityNode = tmpValidityNode.child;
-      }
+ /**
+  * Get the products that are available at the time of the CDR for a given
+  * Alias into a product list supplied by the caller, in the same way as
+  * getProducts(alias, cdrDate). The list is cleared first, and can be reused
+  * from one record to the next, so that the lookup creates no objects.
+  *
+  * @param alias The alias to recover the product list for
+  * @param cdrDate The date to recover the product list for
+  * @param result The product list to fill
+  * @return true if an audit segment was found for the date
+  * @throws ProcessingException
+  */
+  public boolean getProducts(String alias, long cdrDate, ProductList result) throws ProcessingException
+  {
+    CacheState tmpState = state;
+    ValidityNode tmpValidityNode;
 
-      if (custId == null)
-      {
-        // Otherwise write an error and ignore it
-        message = "Alias <" + alias + "> not found for time <" + cdrDate + ">. Lookup failed.";
-        throw new ProcessingException(message,getSymbolicName());
-      }
-      else
-      {
-        // recover the products with the Cust ID
-        return getProducts(custId,subId,cdrDate);
-      }
-    }
-    else
+    tmpValidityNode = getValidAlias(tmpState, alias, cdrDate);
+
+    // recover the products with the Cust ID
+    return getProducts(tmpState, tmpValidityNode.custId,tmpValidityNode.subId,cdrDate,result);
+  }
+
+ /**
+  * Get the validity node of an alias that is valid at the time of the CDR
+  *
+  * @param tmpState The maps to look in
+  * @param alias The alias to look up
+  * @param cdrDate The date of the CDR
+  * @return The validity node giving the customer and subscription
+  * @throws ProcessingException if the alias is not known at the date
+  */
+  private ValidityNode getValidAlias(CacheState tmpState, String alias, long cdrDate) throws ProcessingException
+  {
+    ValidityNode tmpValidityNode;
+
+    // get the start of the search tree
+    tmpValidityNode = lookupAlias(tmpState, alias);
+
+    // See if we already have AuditSegID for this customer
+    if (tmpValidityNode == null)
     {
       // Otherwise write an error and ignore it
       message = "Alias <" + alias + "> not found. Lookup failed.";
       throw new ProcessingException(message,getSymbolicName());
     }
+
+    // Now that we have the Validity Map, get the entry
+    while (tmpValidityNode != null)
+    {
+      if ((tmpValidityNode.validFrom <= cdrDate) &
+          (tmpValidityNode.validTo > cdrDate))
+      {
+        return tmpValidityNode;
+      }
+
+      // Move down the map
+      tmpValidityNode = tmpValidityNode.child;
+    }
+
+    // Otherwise write an error and ignore it
+    message = "Alias <" + alias + "> not found for time <" + cdrDate + ">. Lookup failed.";
+    throw new ProcessingException(message,getSymbolicName());
   }
 
  /**
@@ -585,16 +743,20 @@ public class CustomerCacheAudited
   * @throws ProcessingException
   */
   public ProductList getProducts(Integer CustId, String SubscriptionID, long CDRDate) throws ProcessingException
+  {
+    return getProducts(state, CustId, SubscriptionID, CDRDate);
+  }
+
+ /**
+  * Get the products of a customer at the time of the CDR from the given maps.
+  */
+  private ProductList getProducts(CacheState tmpState, Integer CustId, String SubscriptionID, long CDRDate) throws ProcessingException
   {
     CustInfo tmpCustInfo;
-    ProductList resultProductList;
     AuditSegment tmpAuditSegment;
 
-    // Prepare the result
-    resultProductList = new ProductList();
-
     // get the customer for the alias
-    tmpCustInfo = custCache.get(CustId);
+    tmpCustInfo = lookupCustInfo(tmpState, CustId);
 
     //get the correct audit segment
     tmpAuditSegment = tmpCustInfo.getBestAuditSegmentMatch(CDRDate);
@@ -617,7 +779,64 @@ public class CustomerCacheAudited
       }
     }
 
-    return resultProductList;
+    // No segment, no products
+    return new ProductList();
+  }
+
+ /**
+  * Get the products that are available at the time of the CDR for a customer
+  * into a product list supplied by the caller, in the same way as
+  * getProducts(CustId, SubscriptionID, CDRDate). The list is cleared first,
+  * and is filled with references to the products of the audit segment.
+  *
+  * @param CustId The customer ID o recover the products for
+  * @param SubscriptionID The subscription ID to recover for (null = all)
+  * @param CDRDate The date to recover the product list for
+  * @param result The product list to fill
+  * @return true if an audit segment was found for the date
+  * @throws ProcessingException
+  */
+  public boolean getProducts(Integer CustId, String SubscriptionID, long CDRDate, ProductList result) throws ProcessingException
+  {
+    return getProducts(state, CustId, SubscriptionID, CDRDate, result);
+  }
+
+ /**
+  * Get the products of a customer at the time of the CDR from the given maps
+  * into a product list supplied by the caller.
+  */
+  private boolean getProducts(CacheState tmpState, Integer CustId, String SubscriptionID, long CDRDate, ProductList result) throws ProcessingException
+  {
+    CustInfo tmpCustInfo;
+    AuditSegment tmpAuditSegment;
+
+    result.clear();
+
+    // get the customer for the alias
+    tmpCustInfo = lookupCustInfo(tmpState, CustId);
+
+    //get the correct audit segment
+    tmpAuditSegment = tmpCustInfo.getBestAuditSegmentMatch(CDRDate);
+
+    if (tmpAuditSegment == null)
+    {
+      return false;
+    }
+
+    // Check the validity of the customer account
+    if ((tmpAuditSegment.getUTCAccountValidFrom() <= CDRDate) && (tmpAuditSegment.getUTCAccountValidTo() > CDRDate))
+    {
+      // the account is valid - fill the list
+      getProducts(tmpAuditSegment, SubscriptionID, result);
+
+      return true;
+    }
+    else
+    {
+      // The account is not valid at this time
+      message = "Account id <" + CustId + "> not valid at time <" + CDRDate + "> in audit segment <" + tmpAuditSegment.getAuditSegmentID() + ">";
+      throw new ProcessingException(message,getSymbolicName());
+    }
   }
 
  /**
@@ -661,6 +880,39 @@ public class CustomerCacheAudited
     return resultProductList;
   }
 
+ /**
+  * Get the products from an audit segment matching the subId into a product
+  * list supplied by the caller. The list is cleared first, and is filled with
+  * references to the products of the audit segment, which are shared and
+  * must not be changed.
+  *
+  * @param tmpAuditSegment The audit setment to recover the products from
+  * @param subId The subscription AuditSegID to recover the products for, or
+  * null for all of them
+  * @param result The product list to fill
+  */
+  public void getProducts(AuditSegment tmpAuditSegment, String subId, ProductList result)
+  {
+    ProductList tmpProductList;
+    CustProductInfo tmpCPI;
+
+    result.clear();
+
+    // Get the product list
+    tmpProductList = tmpAuditSegment.getProductList();
+    result.setBalanceGroup(tmpProductList.getBalanceGroup());
+
+    for (int i = 0 ; i < tmpProductList.getProductCount() ; i++ )
+    {
+      tmpCPI = tmpProductList.getProduct(i);
+
+      if (subId == null || tmpCPI.getSubID().equals(subId))
+      {
+        result.addProduct(tmpCPI);
+      }
+    }
+  }
+
  /**
   * Gets an internal custID for a given alias and date
   *
@@ -674,7 +926,7 @@ public class CustomerCacheAudited
     if (alias!= null)
     {
       // get the start of the search tree
-      ValidityNode tmpValidityNode = aliasCache.get(alias);
+      ValidityNode tmpValidityNode = lookupAlias(state, alias);
 
       // Now that we have the Validity Map, get the entry
       while (tmpValidityNode != null)
@@ -711,7 +963,7 @@ public class CustomerCacheAudited
     if (alias!= null)
     {
       // get the start of the search tree
-      ValidityNode tmpValidityNode = aliasCache.get(alias);
+      ValidityNode tmpValidityNode = lookupAlias(state, alias);
 
       // Now that we have the Validity Map, get the entry
       while (tmpValidityNode != null)
@@ -743,10 +995,11 @@ public class CustomerCacheAudited
     ArrayList<Integer> tmpResult = new ArrayList<>();
 
     // See if we already have AuditSegID for this customer
-    if (aliasCache.containsKey(alias))
+    // get the start of the search tree
+    tmpValidityNode = lookupAlias(state, alias);
+
+    if (tmpValidityNode != null)
     {
-      // get the start of the search tree
-      tmpValidityNode = aliasCache.get(alias);
 
       // Now that we have the Validity Map, get the entry
       while (tmpValidityNode != null)
@@ -775,7 +1028,7 @@ public class CustomerCacheAudited
     if (alias != null)
     {
       // get the start of the search tree
-      ValidityNode tmpValidityNode = aliasCache.get(alias);
+      ValidityNode tmpValidityNode = lookupAlias(state, alias);
 
       // Now that we have the Validity Map, get the entry
       while (tmpValidityNode != null)
@@ -803,7 +1056,7 @@ public class CustomerCacheAudited
   public AuditSegment getAuditSegment(int custId, long CDRDate)
   {
     // get the customer for the alias
-    CustInfo tmpCustInfo = custCache.get(custId);
+    CustInfo tmpCustInfo = lookupCustInfo(state, custId);
 
     //get the correct audit segment
     return tmpCustInfo.getBestAuditSegmentMatch(CDRDate);
@@ -822,7 +1075,7 @@ public class CustomerCacheAudited
     CustInfo tmpCustInfo;
 
     // Get the product information
-    tmpCustInfo = custCache.get(custID);
+    tmpCustInfo = lookupCustInfo(state, custID);
 
     return tmpCustInfo.balanceGroup;
   }
@@ -838,7 +1091,7 @@ public class CustomerCacheAudited
     CustInfo tmpCustInfo;
 
     // Get the product information
-    tmpCustInfo = custCache.get(custID);
+    tmpCustInfo = lookupCustInfo(state, custID);
 
     return tmpCustInfo.ExternalCustId;
   }
@@ -854,16 +1107,18 @@ public class CustomerCacheAudited
   */
   public String getERA(String alias, String eraKey, long cdrDate) throws ProcessingException
   {
+    CacheState tmpState = state;
     Integer custId = null;
     CustInfo tmpCustInfo;
     AuditSegment tmpAuditSegment;
     ValidityNode tmpValidityNode;
 
     // See if we already have AuditSegID for this customer
-    if (aliasCache.containsKey(alias))
+    // get the start of the search tree
+    tmpValidityNode = lookupAlias(tmpState, alias);
+
+    if (tmpValidityNode != null)
     {
-      // get the start of the search tree
-      tmpValidityNode = aliasCache.get(alias);
 
       // Now that we have the Validity Map, get the entry
       while (tmpValidityNode != null)
@@ -888,7 +1143,7 @@ public class CustomerCacheAudited
       else
       {
         // get the customer for the alias
-        tmpCustInfo = custCache.get(custId);
+        tmpCustInfo = lookupCustInfo(tmpState, custId);
 
         //get the correct audit segment
         tmpAuditSegment = tmpCustInfo.getBestAuditSegmentMatch(cdrDate);
@@ -917,6 +1172,379 @@ public class CustomerCacheAudited
     return tmpAuditSegment.getERA(eraKey);
   }
 
+ /**
+  * See if the customers are loaded on demand
+  *
+  * @return true if the customers are loaded on demand, false if they are all
+  * loaded at start up
+  */
+  public boolean isOnDemand()
+  {
+    return onDemand;
+  }
+
+ /**
+  * Load the customers of a batch of aliases in one go, so that the lookups of
+  * the batch find them in the cache instead of going to the DB one by one.
+  * Aliases that are already cached are skipped. Does nothing unless the
+  * customers are loaded on demand.
+  *
+  * @param aliases The aliases that are about to be looked up
+  */
+  public void prefetchAliases(Collection<String> aliases)
+  {
+    if (!onDemand)
+    {
+      return;
+    }
+
+    CacheState tmpState = state;
+    LinkedHashSet<String> missing = new LinkedHashSet<>();
+
+    for (String alias : aliases)
+    {
+      if (alias != null && !tmpState.aliasLru.containsKey(alias))
+      {
+        missing.add(alias);
+      }
+    }
+
+    if (missing.size() > 0)
+    {
+      loadAliasesOnDemand(tmpState, missing);
+    }
+  }
+
+ /**
+  * Get the statistics of the on demand lookups
+  *
+  * @return The statistics, or a note that the customers are not loaded on
+  * demand
+  */
+  public String getStatistics()
+  {
+    CacheState tmpState = state;
+
+    if (!onDemand)
+    {
+      return "All customers loaded: " + tmpState.custCache.size() + " customers, " + tmpState.aliasCache.size() + " aliases";
+    }
+
+    BoundedCache<String, ValidityNode> tmpAliasLru = tmpState.aliasLru;
+    BoundedCache<Integer, CustInfo> tmpCustLru = tmpState.custLru;
+
+    return "Aliases: " + tmpAliasLru.size() + "/" + tmpAliasLru.getMaxSize() +
+           " hits: " + tmpAliasLru.getHits() +
+           " misses: " + tmpAliasLru.getMisses() +
+           " hit rate: " + String.format("%.3f", tmpAliasLru.getHitRate()) +
+           " evictions: " + tmpAliasLru.getEvictions() +
+           ", Customers: " + tmpCustLru.size() + "/" + tmpCustLru.getMaxSize() +
+           " hits: " + tmpCustLru.getHits() +
+           " misses: " + tmpCustLru.getMisses() +
+           " hit rate: " + String.format("%.3f", tmpCustLru.getHitRate()) +
+           " evictions: " + tmpCustLru.getEvictions();
+  }
+
+ /**
+  * Get the start of the validity list of an alias, loading it if the
+  * customers are loaded on demand and it is not cached
+  *
+  * @param tmpState The maps to look in
+  * @param alias The alias
+  * @return The first validity node, or null if the alias is not known
+  */
+  private ValidityNode lookupAlias(CacheState tmpState, String alias)
+  {
+    if (!onDemand)
+    {
+      return tmpState.aliasCache.get(alias);
+    }
+
+    if (alias == null)
+    {
+      return null;
+    }
+
+    ValidityNode tmpValidityNode = tmpState.aliasLru.get(alias);
+
+    if (tmpValidityNode == null)
+    {
+      tmpValidityNode = loadAliasesOnDemand(tmpState, Collections.singleton(alias)).get(alias);
+    }
+
+    // an empty validity period marks an alias that is not known
+    return (tmpValidityNode == null || isUnknownAlias(tmpValidityNode)) ? null : tmpValidityNode;
+  }
+
+ /**
+  * Get the entry of a customer, loading it if the customers are loaded on
+  * demand and it is not cached
+  *
+  * @param tmpState The maps to look in
+  * @param custId The customer identifier
+  * @return The customer entry, or null if the customer is not known
+  */
+  private CustInfo lookupCustInfo(CacheState tmpState, Integer custId)
+  {
+    if (!onDemand)
+    {
+      return tmpState.custCache.get(custId);
+    }
+
+    CustInfo tmpCustInfo = tmpState.custLru.get(custId);
+
+    if (tmpCustInfo == null)
+    {
+      OnDemandLoader loader = null;
+
+      try
+      {
+        loader = new OnDemandLoader(tmpState);
+        tmpCustInfo = loader.loadCustomer(custId);
+      }
+      catch (InitializationException | SQLException ex)
+      {
+        OpenRate.getOpenRateFrameworkLog().error("Error loading customer <" + custId + "> on demand from <" + cacheDataSourceName + ">. message: <" + ex.getMessage() + ">");
+      }
+      finally
+      {
+        if (loader != null)
+        {
+          loader.close();
+        }
+      }
+    }
+
+    return tmpCustInfo;
+  }
+
+ /**
+  * Load the customers of a list of aliases on one connection, caching the
+  * aliases and customers found, and the aliases not found. If the DB fails,
+  * nothing more is cached, so that the aliases are tried again next time.
+  *
+  * @param tmpState The maps to cache them in
+  * @param aliases The aliases to load
+  * @return The validity lists of the aliases loaded
+  */
+  private HashMap<String, ValidityNode> loadAliasesOnDemand(CacheState tmpState, Collection<String> aliases)
+  {
+    HashMap<String, ValidityNode> loaded = new HashMap<>();
+    OnDemandLoader loader = null;
+
+    try
+    {
+      loader = new OnDemandLoader(tmpState);
+
+      for (String alias : aliases)
+      {
+        loaded.put(alias, loader.loadAlias(alias));
+      }
+    }
+    catch (InitializationException | SQLException ex)
+    {
+      OpenRate.getOpenRateFrameworkLog().error("Error loading aliases on demand from <" + cacheDataSourceName + ">. message: <" + ex.getMessage() + ">");
+    }
+    finally
+    {
+      if (loader != null)
+      {
+        loader.close();
+      }
+    }
+
+    return loaded;
+  }
+
+ /**
+  * See if a validity node marks an alias that is not known. addAlias() never
+  * stores a period that ends before it starts, so such a node is not an alias.
+  *
+  * @param tmpValidityNode The node to check
+  * @return true if the node marks an unknown alias
+  */
+  private boolean isUnknownAlias(ValidityNode tmpValidityNode)
+  {
+    return tmpValidityNode.validFrom > tmpValidityNode.validTo;
+  }
+
+ /**
+  * Loads customers on demand on a connection of its own, which it holds until
+  * it is closed. The caches it fills are the ones of the state the lookup
+  * read, so that a snapshot reload does not receive customers of the old data.
+  * Each customer is built completely before it is put into the cache.
+  */
+  private class OnDemandLoader
+  {
+    private final BoundedCache<String, ValidityNode> tmpAliasLru;
+    private final BoundedCache<Integer, CustInfo> tmpCustLru;
+
+    private Connection        con;
+    private PreparedStatement stmtAlias;
+    private PreparedStatement stmtAudit;
+    private PreparedStatement stmtProduct;
+    private PreparedStatement stmtERA;
+
+    OnDemandLoader(CacheState tmpState) throws InitializationException, SQLException
+    {
+      tmpAliasLru = tmpState.aliasLru;
+      tmpCustLru = tmpState.custLru;
+      con = DBUtil.getConnection(cacheDataSourceName);
+
+      try
+      {
+        stmtAlias = con.prepareStatement(aliasLookupQuery);
+        stmtAudit = con.prepareStatement(auditLookupQuery);
+        stmtProduct = con.prepareStatement(productLookupQuery);
+        stmtERA = con.prepareStatement(eraLookupQuery);
+      }
+      catch (SQLException ex)
+      {
+        close();
+        throw ex;
+      }
+    }
+
+   /**
+    * Load the validity periods of an alias and the customers they refer to
+    * into the caches
+    *
+    * @param alias The alias
+    * @return The first validity node of the alias, or the unknown alias
+    * marker if it has none
+    */
+    ValidityNode loadAlias(String alias) throws SQLException
+    {
+      HashMap<String, ValidityNode> tmpAliasCache = new HashMap<>(2);
+      ValidityNode tmpValidityNode;
+      ResultSet    rs = null;
+
+      try
+      {
+        stmtAlias.setString(1, alias);
+        rs = stmtAlias.executeQuery();
+
+        while (rs.next())
+        {
+          addAlias(tmpAliasCache, rs.getLong(1), alias, Integer.parseInt(rs.getString(3)),
+                   rs.getString(4), rs.getLong(5), rs.getLong(6));
+        }
+      }
+      catch (NumberFormatException ex)
+      {
+        OpenRate.getOpenRateFrameworkLog().error("Data for alias <" + alias + "> is not correct. Alias not loaded. message: <" + ex.getMessage() + ">");
+        tmpAliasCache.clear();
+      }
+      finally
+      {
+        DBUtil.close(rs);
+      }
+
+      tmpValidityNode = tmpAliasCache.get(alias);
+
+      // Load the customers of the alias, so that the lookups find them
+      for (ValidityNode node = tmpValidityNode ; node != null ; node = node.child)
+      {
+        if (!tmpCustLru.containsKey(node.custId))
+        {
+          loadCustomer(node.custId);
+        }
+      }
+
+      if (tmpValidityNode == null)
+      {
+        tmpValidityNode = new ValidityNode();
+        tmpValidityNode.validFrom = CommonConfig.HIGH_DATE;
+        tmpValidityNode.validTo = CommonConfig.LOW_DATE;
+      }
+
+      tmpAliasLru.put(alias, tmpValidityNode);
+
+      return tmpValidityNode;
+    }
+
+   /**
+    * Load a customer with its audit segments, products and ERAs into the cache
+    *
+    * @param custId The customer identifier
+    * @return The customer entry, or null if the customer is not known or its
+    * data is not valid
+    */
+    CustInfo loadCustomer(Integer custId) throws SQLException
+    {
+      HashMap<Integer, CustInfo> tmpCustCache = new HashMap<>(2);
+      HashMap<Long, AuditSegment> tmpAuditSegmentCache = new HashMap<>();
+      CustInfo  tmpCustInfo;
+      ResultSet rs = null;
+
+      try
+      {
+        stmtAudit.setInt(1, custId);
+        rs = stmtAudit.executeQuery();
+
+        while (rs.next())
+        {
+          addAuditSegment(tmpCustCache, tmpAuditSegmentCache, rs.getLong(1), custId,
+                          rs.getString(3), Long.parseLong(rs.getString(2)),
+                          rs.getLong(4), rs.getLong(5), rs.getLong(6));
+        }
+
+        rs.close();
+
+        tmpCustInfo = tmpCustCache.get(custId);
+
+        if (tmpCustInfo == null)
+        {
+          return null;
+        }
+
+        stmtProduct.setInt(1, custId);
+        rs = stmtProduct.executeQuery();
+
+        while (rs.next())
+        {
+          addAuditedCPI(tmpAuditSegmentCache, rs.getLong(1), rs.getLong(2), rs.getString(3),
+                        rs.getString(4), rs.getString(5), rs.getLong(6), rs.getLong(7));
+        }
+
+        rs.close();
+
+        stmtERA.setInt(1, custId);
+        rs = stmtERA.executeQuery();
+
+        while (rs.next())
+        {
+          addAuditedERA(tmpAuditSegmentCache, rs.getLong(1), rs.getString(2), rs.getString(3));
+        }
+      }
+      catch (NumberFormatException ex)
+      {
+        OpenRate.getOpenRateFrameworkLog().error("Data for customer <" + custId + "> is not correct. Customer not loaded. message: <" + ex.getMessage() + ">");
+        return null;
+      }
+      finally
+      {
+        DBUtil.close(rs);
+      }
+
+      tmpCustLru.put(custId, tmpCustInfo);
+
+      return tmpCustInfo;
+    }
+
+   /**
+    * Close the statements and give the connection back
+    */
+    void close()
+    {
+      DBUtil.close(stmtAlias);
+      DBUtil.close(stmtAudit);
+      DBUtil.close(stmtProduct);
+      DBUtil.close(stmtERA);
+      DBUtil.close(con);
+    }
+  }
+
   // -----------------------------------------------------------------------------
   // -------------------- Start of data loading functions ------------------------
   // -----------------------------------------------------------------------------
@@ -1217,6 +1845,14 @@ public class CustomerCacheAudited
     String         tmpERAKey;
     String         tmpERAValue;
 
+    // In on demand mode the customers are loaded as they are looked up
+    if (onDemand)
+    {
+      OpenRate.getOpenRateFrameworkLog().info("Customer Cache <" + getSymbolicName() + "> loads on demand from <" +
+            cacheDataSourceName + ">, holding up to <" + state.custLru.getMaxSize() + "> customers");
+      return;
+    }
+
     // Find the location of the  zone configuration file
     OpenRate.getOpenRateFrameworkLog().info("Starting Customer Cache Loading from DB");
 
@@ -1575,10 +2211,18 @@ public class CustomerCacheAudited
   @Override
   public void clearCacheObjects()
   {
+    CacheState tmpState = state;
+
     // clear the cache
-    aliasCache.clear();
-    custCache.clear();
-    auditSegmentCache.clear();
+    tmpState.aliasCache.clear();
+    tmpState.custCache.clear();
+    tmpState.auditSegmentCache.clear();
+
+    if (onDemand)
+    {
+      tmpState.custLru.clear();
+      tmpState.aliasLru.clear();
+    }
 
     // reset the incremental counters
     lastAccountVerModT = 0;
@@ -1587,14 +2231,50 @@ public class CustomerCacheAudited
     lastProductModT = 0;
   }
 
+ /**
+  * Take over the data of a snapshot loaded in the background. The maps are
+  * taken over together in one write, so that a lookup sees either all of the
+  * old maps or all of the new ones. We take the incremental
+  * update counters of the snapshot too, so that the next incremental update
+  * carries on from where the snapshot loading finished. This is synchronised
+  * with the incremental update, so that it is not lost in the swap.
+  *
+  * @param snapshot The loaded snapshot
+  */
+  @Override
+  protected synchronized void publishSnapshot(AbstractSyncLoaderCache snapshot)
+  {
+    CustomerCacheAudited loaded = (CustomerCacheAudited) snapshot;
+
+    state = loaded.state;
+
+    lastAccountVerModT = loaded.lastAccountVerModT;
+    lastAliasModT = loaded.lastAliasModT;
+    lastERAModT = loaded.lastERAModT;
+    lastProductModT = loaded.lastProductModT;
+    lastUpdate = loaded.lastUpdate;
+  }
+
  /**
   * This function sees if it is yet time to perform an update from the
-  * customer database, and if so, performs the update
+  * customer database, and if so, performs the update. In on demand mode the
+  * customers held are dropped instead, so that they are read again with their
+  * changes.
   */
   public void checkUpdate()
   {
     if (System.currentTimeMillis() > (lastUpdate + updateFrequency * 1000))
     {
+      if (onDemand)
+      {
+        CacheState tmpState = state;
+
+        tmpState.custLru.clear();
+        tmpState.aliasLru.clear();
+        lastUpdate = System.currentTimeMillis();
+        return;
+      }
+
       // perform the reload
       if (CacheDataSourceType.equalsIgnoreCase("DB"))
       {
@@ -1669,7 +2349,7 @@ public class CustomerCacheAudited
         OpenRate.getOpenRateFrameworkLog().error("Error writing dump file", ioe);
       }
 
-      aliasIter = aliasCache.keySet().iterator();
+      aliasIter = state.aliasCache.keySet().iterator();
       while (aliasIter.hasNext())
       {
         aliasId = aliasIter.next();
@@ -1688,7 +2368,7 @@ public class CustomerCacheAudited
       {
         OpenRate.getOpenRateFrameworkLog().error("Error writing dump file", ioe);
       }
-      IDIter = custCache.keySet().iterator();
+      IDIter = state.custCache.keySet().iterator();
 
       while (IDIter.hasNext())
       {
@@ -1781,7 +2461,7 @@ public class CustomerCacheAudited
       dumpWriter.write(DumpString);
       dumpWriter.newLine();
 
-      tmpCustInfo = custCache.get(custId);
+      tmpCustInfo = state.custCache.get(custId);
 
       FromDate = fieldInterpreter.formatLongDate(tmpCustInfo.custValidFrom);
       ToDate = fieldInterpreter.formatLongDate(tmpCustInfo.custValidTo);
@@ -1872,7 +2552,7 @@ public class CustomerCacheAudited
       dumpWriter.newLine();
 
       // Write the information for the alias history
-      tmpValidityNode = aliasCache.get(aliasId);
+      tmpValidityNode = state.aliasCache.get(aliasId);
       while (tmpValidityNode != null)
       {
         String FromDate = fieldInterpreter.formatLongDate(tmpValidityNode.validFrom);
@@ -1913,6 +2593,25 @@ public class CustomerCacheAudited
   protected boolean getDataStatements(String ResourceName, String CacheName)
     throws InitializationException
   {
+    String tmpLoadMode;
+
+    // See if we are loading on demand
+    tmpLoadMode = PropertyUtils.getPropertyUtils().getDataCachePropertyValueDef(ResourceName,
+                                                                CacheName,
+                                                                "LoadMode",
+                                                                LOAD_MODE_FULL);
+
+    if (tmpLoadMode.equalsIgnoreCase(LOAD_MODE_ON_DEMAND))
+    {
+      return getLookupStatements(ResourceName, CacheName);
+    }
+    else if (!tmpLoadMode.equalsIgnoreCase(LOAD_MODE_FULL))
+    {
+      message = "LoadMode for <" + getSymbolicName() + "> must be <" + LOAD_MODE_FULL +
+                "> or <" + LOAD_MODE_ON_DEMAND + ">, found <" + tmpLoadMode + ">";
+      throw new InitializationException(message,getSymbolicName());
+    }
+
     // Get the Select statement
     aliasSelectQuery = PropertyUtils.getPropertyUtils().getDataCachePropertyValueDef(ResourceName,
                                                                      CacheName,
@@ -1971,6 +2670,78 @@ public class CustomerCacheAudited
     }
   }
 
+ /**
+  * Get the lookup statements and the size of the on demand mode, and create
+  * the caches the customers are loaded into
+  *
+  * @param ResourceName The name of the resource to load for
+  * @param CacheName The name of the cache to load for
+  * @return True if the statements were found
+  * @throws InitializationException
+  */
+  protected boolean getLookupStatements(String ResourceName, String CacheName) throws InitializationException
+  {
+    String tmpMaxCustomers;
+    int    maxCustomers;
+
+    aliasLookupQuery = getLookupStatement(ResourceName, CacheName, "AliasLookupStatement");
+    auditLookupQuery = getLookupStatement(ResourceName, CacheName, "AuditSegmentLookupStatement");
+    productLookupQuery = getLookupStatement(ResourceName, CacheName, "ProductLookupStatement");
+    eraLookupQuery = getLookupStatement(ResourceName, CacheName, "ERALookupStatement");
+
+    tmpMaxCustomers = PropertyUtils.getPropertyUtils().getDataCachePropertyValueDef(ResourceName,
+                                                                    CacheName,
+                                                                    "MaxCustomers",
+                                                                    Integer.toString(DEFAULT_MAX_CUSTOMERS));
+
+    try
+    {
+      maxCustomers = Integer.parseInt(tmpMaxCustomers);
+    }
+    catch (NumberFormatException ex)
+    {
+      message = "MaxCustomers for <" + getSymbolicName() + "> must be a number, found <" + tmpMaxCustomers + ">";
+      throw new InitializationException(message,getSymbolicName());
+    }
+
+    if (maxCustomers < 1)
+    {
+      message = "MaxCustomers for <" + getSymbolicName() + "> must be at least 1, found <" + tmpMaxCustomers + ">";
+      throw new InitializationException(message,getSymbolicName());
+    }
+
+    // Each customer has at least one alias
+    state = new CacheState(true, maxCustomers);
+    onDemand = true;
+
+    return true;
+  }
+
+ /**
+  * Get a lookup statement of the on demand mode, which must be defined
+  *
+  * @param ResourceName The name of the resource to load for
+  * @param CacheName The name of the cache to load for
+  * @param PropertyName The name of the statement
+  * @return The statement
+  * @throws InitializationException
+  */
+  private String getLookupStatement(String ResourceName, String CacheName, String PropertyName) throws InitializationException
+  {
+    String query = PropertyUtils.getPropertyUtils().getDataCachePropertyValueDef(ResourceName,
+                                                                 CacheName,
+                                                                 PropertyName,
+                                                                 "None");
+
+    if (query.equalsIgnoreCase("None"))
+    {
+      message = "<" + PropertyName + "> for <" + getSymbolicName() + "> missing.";
+      throw new InitializationException(message,getSymbolicName());
+    }
+
+    return query;
+  }
+
  /**
   * PrepareStatements creates the statements from the SQL expressions
   * so that they can be run as needed.
@@ -2069,6 +2840,7 @@ public class CustomerCacheAudited
     //Register services for this Client
     ClientManager.getClientManager().registerClientService(getSymbolicName(), SERVICE_UPDATE_FREQUENCY, ClientManager.PARAM_DYNAMIC_SYNC);
     ClientManager.getClientManager().registerClientService(getSymbolicName(), SERVICE_DUMP_INFO, ClientManager.PARAM_DYNAMIC);
+    ClientManager.getClientManager().registerClientService(getSymbolicName(), SERVICE_STATISTICS, ClientManager.PARAM_DYNAMIC);
   }
 
  /**
@@ -2111,6 +2883,11 @@ public class CustomerCacheAudited
       }
     }
 
+    if (Command.equalsIgnoreCase(SERVICE_STATISTICS))
+    {
+      return getStatistics();
+    }
+
     if (Command.equalsIgnoreCase(SERVICE_DUMP_INFO))
     {
       if (Parameter.equalsIgnoreCase("All"))
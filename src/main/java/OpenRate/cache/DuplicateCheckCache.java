@@ -3,20 +3,23 @@
 package OpenRate.cache;
 
 import OpenRate.CommonConfig;
+import OpenRate.cache.DuplicateKeyStore.Fingerprint;
 import OpenRate.OpenRate;
 import OpenRate.configurationmanager.ClientManager;
 import OpenRate.configurationmanager.IEventInterface;
 import OpenRate.db.DBUtil;
 import OpenRate.exception.InitializationException;
 import OpenRate.exception.ProcessingException;
+import OpenRate.lang.BloomFilter;
 import OpenRate.logging.LogUtil;
 import OpenRate.utils.PropertyUtils;
 
+import java.io.File;
+import java.io.IOException;
 import java.sql.*;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
@@ -26,10 +29,28 @@ import java.util.regex.Pattern;
  *
  * The duplicate check itself is very simple: We check to see if a record with
  * the identifier already exists. If not, we add it, if so, we mark it as a duplicate
+ *
+ * The keys inside the buffer limit are held off the heap as fingerprints (see
+ * DuplicateKeyStore). A Bloom filter holding the same keys sits in front of
+ * the store, so that a new key, which is by far the most common case, is
+ * usually cleared without looking in the store at all. Keys older than the
+ * buffer limit are not in the store or the filter. They are inserted into the
+ * database at once, one by one, and the unique constraint of the database
+ * tells us if they were there already. The other keys are written with the
+ * rest of the transaction in batches on commit. The filter is sized with the
+ * "BloomFilterKeys" property, which should be the number of keys expected
+ * inside the buffer limit.
+ *
+ * If the "SegmentDirectory" property is set, every key written to the database
+ * is also kept in local segment files (see DuplicateSegmentStore), and a
+ * restart loads the keys from there instead of from the database. The
+ * segments are marked complete after a load from the database, and a failed
+ * write removes the mark, so that the next start loads from the database.
  */
 public class DuplicateCheckCache
      extends AbstractCache
   implements ICacheLoader,
+             ICacheSaver,
              IEventInterface
 {
 	
@@ -44,8 +65,15 @@ public class DuplicateCheckCache
 
  /**
   * This stores all the Record IDs for CDRs which have been processed so far
+  * inside the buffer limit
+  */
+  protected DuplicateKeyStore recordList;
+
+ /**
+  * This holds all the Record IDs for CDRs which have been processed so far
+  * inside the buffer limit, in front of the record list
   */
-  protected ConcurrentHashMap<String, Long> recordList;
+  protected BloomFilter keyFilter;
 
   /**
    * This stores all the Record IDs for CDRs which have been processed so far in
@@ -58,6 +86,17 @@ public class DuplicateCheckCache
   */
   protected ConcurrentHashMap<Integer, Connection> insertConnection;
 
+ /**
+  * This keeps the keys on local disk for restarts, or is null if we always
+  * load from the database
+  */
+  protected DuplicateSegmentStore segmentStore;
+
+ /**
+  * This stores the DB insert statement per transaction for speculative inserts
+  */
+  protected ConcurrentHashMap<Integer, PreparedStatement> insertStatement;
+
   // Purge the internal memory
   private final static String SERVICE_PURGE   = "Purge";
 
@@ -73,6 +112,12 @@ public class DuplicateCheckCache
   // Log every n records loaded
   private final static String SERVICE_LOAD_LOG_STEP = "LoadLogStep";
 
+  // The number of keys the Bloom filter is sized for
+  private final static String SERVICE_BLOOM_KEYS = "BloomFilterKeys";
+
+  // The directory of the local segment files
+  private final static String SERVICE_SEGMENT_DIR = "SegmentDirectory";
+
   // Active service 
   private final static String SERVICE_ACTIVE  = CommonConfig.ACTIVE;
   
@@ -80,6 +125,13 @@ public class DuplicateCheckCache
   private static final int    DEFAULT_BUFFER_LIMIT_DAYS = 90;
   private static final int    DEFAULT_STORE_LIMIT_DAYS = 180;
 
+  // default size of the Bloom filter, and its false positive rate at that size
+  private static final long   DEFAULT_BLOOM_KEYS = 10000000;
+  private static final double BLOOM_FALSE_POSITIVE_RATE = 0.01;
+
+  // the number of inserts we send to the database at a time on commit
+  private static final int    INSERT_BATCH_SIZE = 1000;
+
   // this is used to age old duplicate data in memory
   private long bufferLimit;
   private long storeLimit;
@@ -139,13 +191,14 @@ public class DuplicateCheckCache
   public DuplicateCheckCache()
   {
     // This is the in-memory duplicate table
-    recordList = new ConcurrentHashMap<>(50000);
+    recordList = new DuplicateKeyStore();
 
     // This is the in-memory duplicate table for the current transaction
     TransRecordList = new ConcurrentHashMap<>(100);
 
     // initialise the inser connection array
     insertConnection = new ConcurrentHashMap<>(10);
+    insertStatement = new ConcurrentHashMap<>(10);
   }
 // -----------------------------------------------------------------------------
 // ------------------ Start of inherited Plug In functions ---------------------
@@ -347,6 +400,9 @@ public class DuplicateCheckCache
     // Get the loading step, if one is defined
     loadingLogNotificationStep = initGetLoadingStep(ResourceName, CacheName);
 
+    // Size the filter for the keys we expect to see inside the buffer limit
+    keyFilter = new BloomFilter(initGetBloomFilterKeys(ResourceName, CacheName), BLOOM_FALSE_POSITIVE_RATE);
+
     // The data source property was added to allow database to database
     // JDBC adapters to work properly using 1 configuration file.
     if(DBUtil.initDataSource(cacheDataSourceName) == null)
@@ -356,8 +412,39 @@ public class DuplicateCheckCache
       throw new InitializationException(message,getSymbolicName());
     }
 
-    // load in the old data from the database
-    retrieveDupChkDataFromDB();
+    // Open the local segments, if we are using them
+    segmentStore = initGetSegmentStore(ResourceName, CacheName);
+
+    if ((segmentStore != null) && segmentStore.hasData())
+    {
+      // load in the old data from the segments
+      retrieveDupChkDataFromSegments();
+    }
+    else
+    {
+      // load in the old data from the database
+      retrieveDupChkDataFromDB();
+    }
+
+    // compact the closed logs in the background from now on
+    if (segmentStore != null)
+    {
+      segmentStore.startCompaction();
+    }
+  }
+
+ /**
+  * Stop the background compaction of the local segments on framework
+  * shutdown. The keys themselves are already on disk, in the database and in
+  * the segments.
+  */
+  @Override
+  public void saveCache()
+  {
+    if (segmentStore != null)
+    {
+      segmentStore.close();
+    }
   }
 
   // -----------------------------------------------------------------------------
@@ -367,7 +454,10 @@ public class DuplicateCheckCache
  /**
   * Check for a duplicate, and if not found add to the transaction object cache.
   * The check is done first in the main cache, and then in the transaction
-  * cache.
+  * cache. The key filter only saves the lookup in the main cache. Records
+  * older than the buffer limit are always inserted into the database at once,
+  * and the unique constraint tells us if they were there already. These
+  * inserts are not undone by a rollback.
   *
   * @param RecordKey
   * @param TimeStamp
@@ -377,85 +467,94 @@ public class DuplicateCheckCache
   */
   public boolean DuplicateCheck(String RecordKey, long TimeStamp, int TransactionNumber) throws ProcessingException
   {
-    Connection tmpInsertConnection;
-    PreparedStatement tmpInsertStatement = null;
+    Fingerprint key;
+    PreparedStatement tmpInsertStatement;
 
     if (Active)
     {
-	    if (TimeStamp > bufferLimit)
-	    {
-	      // look only in the HashMap
-	      if (recordList.containsKey(RecordKey))
-	      {
-	        // found in the main cache
-	        return true;
-	      }
-	      else
-	      {
-	        // Check in the current transaction cache
-	        if  (TransRecordList.get(TransactionNumber).containsKey(RecordKey))
-	        {
-	          // found in the transaction cache
-	          return true;
-	        }
-	        else
-	        {
-	          // Add the record to the transaction list
-	          TransRecordList.get(TransactionNumber).put(RecordKey, TimeStamp);
-	          return false;
-	        }
-	      }
-	    }
-	    else if (TimeStamp > storeLimit)
-	    {
-	      // the key won't be in the HashMap, we need to check directly in the database
-	
-	      try
-	      {
-	        // Get the connection
-	        tmpInsertConnection = getTransactionInsertConnection(TransactionNumber);
-	        tmpInsertStatement = getInsertStatement(tmpInsertConnection);
-	
-	        // We should not normally have to use the in-transaction insert, so we
-	        // will spend the time to open the connection and close it afterwards
-	        // which makes the connection management and transaction management much easier
-	        try
-	        {
-	          tmpInsertStatement.setString(1, RecordKey);
-	          Timestamp date = new Timestamp(TimeStamp*1000);
-	          tmpInsertStatement.setTimestamp(2, date);
-	          tmpInsertStatement.execute();
-	        }
-	        catch (SQLException ex)
-	        {
-	          // check which type of exception we got
-	          message=ex.getMessage();
-	          if (duplicateCheckPattern.matcher(message).matches())
-	          {
-	            // the unique constraint of the DB has been violated, that means the key is already there
-	            return true;
-	          }
-	          else
-	          {
-	            // other SQL exception
-	            message = "Error inserting into <" + cacheDataSourceName + "> for the duplicate "
-	                + "check data on direct DB insert. message=<" + ex.getMessage()+">";
-	            OpenRate.getOpenRateFrameworkLog().error(message);
-	            throw new ProcessingException(message,ex,getSymbolicName());
-	          }
-	        }
-	      }
-	      finally
-	      {
-	        DBUtil.close(tmpInsertStatement);
-	      }
-	    }
+      if (TimeStamp > bufferLimit)
+      {
+        key = DuplicateKeyStore.fingerprint(RecordKey);
+
+        // look only in the memory store, if the key might be there
+        if (keyFilter.mightContain(key.high, key.low) && recordList.contains(key))
+        {
+          // found in the main cache
+          return true;
+        }
+
+        return checkTransaction(RecordKey, TimeStamp, TransactionNumber);
+      }
+      else if (TimeStamp > storeLimit)
+      {
+        key = DuplicateKeyStore.fingerprint(RecordKey);
+
+        // the key won't be in the memory store, we need to check directly in the database
+        tmpInsertStatement = getTransactionInsertStatement(TransactionNumber);
+
+        try
+        {
+          tmpInsertStatement.setString(1, RecordKey);
+          Timestamp date = new Timestamp(TimeStamp*1000);
+          tmpInsertStatement.setTimestamp(2, date);
+          tmpInsertStatement.execute();
+
+          // the key is in the database now, and a rollback does not remove it
+          DuplicateSegmentStore.Batch segmentBatch = new DuplicateSegmentStore.Batch();
+          segmentBatch.add(key, TimeStamp);
+          appendToSegments(segmentBatch);
+        }
+        catch (SQLException ex)
+        {
+          // check which type of exception we got
+          message=ex.getMessage();
+          if (duplicateCheckPattern.matcher(message).matches())
+          {
+            // the unique constraint of the DB has been violated, that means the key is already there
+            return true;
+          }
+          else
+          {
+            // other SQL exception
+            message = "Error inserting into <" + cacheDataSourceName + "> for the duplicate "
+                + "check data on direct DB insert. message=<" + ex.getMessage()+">";
+            OpenRate.getOpenRateFrameworkLog().error(message);
+            throw new ProcessingException(message,ex,getSymbolicName());
+          }
+        }
+      }
     }
 
     // CDR is older than the storeLimit, don't even bother to check and treat it as non-duplicate
     return false;
   }
 
+ /**
+  * Check for a duplicate in the current transaction, and if not found add it.
+  *
+  * @param RecordKey
+  * @param TimeStamp
+  * @param TransactionNumber
+  * @return True if the record is a duplicate, otherwise false
+  */
+  private boolean checkTransaction(String RecordKey, long TimeStamp, int TransactionNumber)
+  {
+    HashMap<String, Long> ThisTrxRecordList = TransRecordList.get(TransactionNumber);
+
+    // Check in the current transaction cache
+    if (ThisTrxRecordList.containsKey(RecordKey))
+    {
+      // found in the transaction cache
+      return true;
+    }
+    else
+    {
+      // Add the record to the transaction list
+      ThisTrxRecordList.put(RecordKey, TimeStamp);
+      return false;
+    }
+  }
+
   // -----------------------------------------------------------------------------
   // ------------------ Start of transaction layer functions ---------------------
   // -----------------------------------------------------------------------------
@@ -474,100 +573,215 @@ public class DuplicateCheckCache
 
  /**
   * Moves the transaction cache contents over to the main cache and
-  * deletes the transaction object. We also update the DB at this point.
+  * deletes the transaction object. We also update the DB at this point, in
+  * batches of inserts.
   *
   * @param TransactionNumber
   */
   public void CommitTransaction(int TransactionNumber)
   {
-	if (Active)  
-	{ 
-	    // insert into the DB the items in TransRecordList as well
-	    HashMap<String, Long> ThisTrxRecordList = TransRecordList.get(TransactionNumber);
-	
-	    if (ThisTrxRecordList == null)
-	    {
-	      // Something wrong, we don't expect this
-	      message = "No record elements found for transaction <" + TransactionNumber + "> in module <" + getSymbolicName() + ">";
-	      OpenRate.getOpenRateFrameworkLog().error(message);
-	    }
-	    else
-	    {
-	      int recordCount = ThisTrxRecordList.size();
-	      int recordsInserted = 0;
-	
-	      message = "Inserting <" + recordCount + "> records into duplicate check table" +
-	                        " in module <" + getSymbolicName() + "> for transaction <" + TransactionNumber + ">";
-	      
-	      if (recordCount > 0)
-	      {
-	        // we are going to insert something, get the connection and statement
-	        Connection tmpInsertConnection = getTransactionInsertConnection(TransactionNumber);
-	        PreparedStatement tmpInsertStatement = getInsertStatement(tmpInsertConnection);
-	
-	        try
-	        {
-	          // Get the keys to insert
-	          Set<String> keys = ThisTrxRecordList.keySet();
-	          for (String key : keys)
-	          {
-	            try
-	            {
-	              tmpInsertStatement.setString(1, key);
-	              Timestamp date = new Timestamp(ThisTrxRecordList.get(key)*1000);
-	              tmpInsertStatement.setTimestamp(2, date);
-	              tmpInsertStatement.execute();
-	              
-	              // Update the count of what we have inserted
-	              recordsInserted++;
-	            }
-	            catch (SQLException ex)
-	            {
-	              message=ex.getMessage();
-	              if (duplicateCheckPattern.matcher(message).matches())
-	              {
-	                // other SQL exception
-	                message = "Duplicate Error inserting into <" + cacheDataSourceName + "> for the duplicate "
-	                    + "check data on transaction commit for key <" + key+"> in transaction <" + TransactionNumber + ">";
-	                OpenRate.getOpenRateFrameworkLog().warning(message);
-	              }
-	              else
-	              {
-	                // other SQL exception
-	                message = "Error inserting into <" + cacheDataSourceName + "> for the duplicate "
-	                    + "check data on transaction commit. message=<" + ex.getMessage()+"> in transaction <" + TransactionNumber + ">";
-	                OpenRate.getOpenRateFrameworkLog().error(message);
-	              }
-	            }
-	          }
-	        }
-	        finally
-	        {
-	          // Close the statement
-	          DBUtil.close(tmpInsertStatement);
-	        }
-	
-	        recordList.putAll(TransRecordList.get(TransactionNumber));
-	      }
-	
-	
-	      // and close the connection now that we have finished with it
-	      closeTransactionInsertConnection(TransactionNumber);
-	
-	      // remove the transaction
-	      TransRecordList.remove(TransactionNumber);
-	
-	      // Log what we did
-	      message = "Inserted <" + recordsInserted + "> records into duplicate check table" +
-	                        " in module <" + getSymbolicName() + "> for transaction <" + TransactionNumber + ">";
-	      OpenRate.getOpenRateFrameworkLog().info(message);
-	    }
-	} else
+    if (Active)
+    {
+      // insert into the DB the items in TransRecordList as well
+      HashMap<String, Long> ThisTrxRecordList = TransRecordList.get(TransactionNumber);
+
+      if (ThisTrxRecordList == null)
+      {
+        // Something wrong, we don't expect this
+        message = "No record elements found for transaction <" + TransactionNumber + "> in module <" + getSymbolicName() + ">";
+        OpenRate.getOpenRateFrameworkLog().error(message);
+      }
+      else
+      {
+        int recordCount = ThisTrxRecordList.size();
+        int recordsInserted = 0;
+
+        if (recordCount > 0)
+        {
+          // we are going to insert something, get the connection and statement
+          Connection tmpInsertConnection = getTransactionInsertConnection(TransactionNumber);
+          PreparedStatement tmpInsertStatement = getInsertStatement(tmpInsertConnection);
+          String[] batchKeys = new String[INSERT_BATCH_SIZE];
+          int batchCount = 0;
+
+          try
+          {
+            // Get the keys to insert
+            for (String key : ThisTrxRecordList.keySet())
+            {
+              try
+              {
+                tmpInsertStatement.setString(1, key);
+                Timestamp date = new Timestamp(ThisTrxRecordList.get(key)*1000);
+                tmpInsertStatement.setTimestamp(2, date);
+                tmpInsertStatement.addBatch();
+                batchKeys[batchCount++] = key;
+              }
+              catch (SQLException ex)
+              {
+                logInsertError(ex, key, TransactionNumber);
+              }
+
+              if (batchCount == INSERT_BATCH_SIZE)
+              {
+                recordsInserted += executeInsertBatch(tmpInsertStatement, batchKeys, batchCount, ThisTrxRecordList, TransactionNumber);
+                batchCount = 0;
+              }
+            }
+
+            if (batchCount > 0)
+            {
+              recordsInserted += executeInsertBatch(tmpInsertStatement, batchKeys, batchCount, ThisTrxRecordList, TransactionNumber);
+            }
+          }
+          finally
+          {
+            // Close the statement
+            DBUtil.close(tmpInsertStatement);
+          }
+
+          DuplicateSegmentStore.Batch segmentBatch = new DuplicateSegmentStore.Batch();
+
+          for (String key : ThisTrxRecordList.keySet())
+          {
+            Fingerprint fingerprint = DuplicateKeyStore.fingerprint(key);
+            long timeStamp = ThisTrxRecordList.get(key);
+            segmentBatch.add(fingerprint, timeStamp);
+
+            // the filter and the store only hold the keys in the buffer
+            if (timeStamp > bufferLimit)
+            {
+              keyFilter.add(fingerprint.high, fingerprint.low);
+              recordList.put(fingerprint, timeStamp);
+            }
+          }
+
+          appendToSegments(segmentBatch);
+        }
+
+        // and close the connection now that we have finished with it
+        closeTransactionInsertConnection(TransactionNumber);
+
+        // remove the transaction
+        TransRecordList.remove(TransactionNumber);
+
+        // Log what we did
+        message = "Inserted <" + recordsInserted + "> records into duplicate check table" +
+                          " in module <" + getSymbolicName() + "> for transaction <" + TransactionNumber + ">";
+        OpenRate.getOpenRateFrameworkLog().info(message);
+      }
+    }
+    else
     {
-	   message = "Duplicate check is disabled. No records were put into duplicate check table" + 
-       " in module <" + getSymbolicName() + "> for transaction <" + TransactionNumber + ">";
-	   OpenRate.getOpenRateFrameworkLog().info(message);
-	}
+      message = "Duplicate check is disabled. No records were put into duplicate check table" +
+      " in module <" + getSymbolicName() + "> for transaction <" + TransactionNumber + ">";
+      OpenRate.getOpenRateFrameworkLog().info(message);
+    }
+  }
+
+ /**
+  * Send a batch of inserts to the database. If the batch fails, the rows the
+  * database did not get to are inserted one by one, so that a duplicate only
+  * costs its own row.
+  *
+  * @param InsertStatement The statement holding the batch
+  * @param BatchKeys The keys in the batch
+  * @param BatchCount The number of keys in the batch
+  * @param TrxRecordList The transaction keys and time stamps
+  * @param TransactionNumber The transaction number
+  * @return The number of rows inserted
+  */
+  private int executeInsertBatch(PreparedStatement InsertStatement, String[] BatchKeys, int BatchCount,
+                                 HashMap<String, Long> TrxRecordList, int TransactionNumber)
+  {
+    int[] updateCounts;
+    int   recordsInserted = 0;
+
+    try
+    {
+      updateCounts = InsertStatement.executeBatch();
+      return updateCounts.length;
+    }
+    catch (BatchUpdateException ex)
+    {
+      updateCounts = ex.getUpdateCounts();
+
+      for (int i = 0; i < updateCounts.length; i++)
+      {
+        if (updateCounts[i] == Statement.EXECUTE_FAILED)
+        {
+          logInsertError(ex, BatchKeys[i], TransactionNumber);
+        }
+        else
+        {
+          recordsInserted++;
+        }
+      }
+
+      // the driver stopped at the failed row, do the rest one by one
+      if (updateCounts.length < BatchCount)
+      {
+        logInsertError(ex, BatchKeys[updateCounts.length], TransactionNumber);
+
+        for (int i = updateCounts.length + 1; i < BatchCount; i++)
+        {
+          try
+          {
+            InsertStatement.setString(1, BatchKeys[i]);
+            InsertStatement.setTimestamp(2, new Timestamp(TrxRecordList.get(BatchKeys[i])*1000));
+            InsertStatement.execute();
+            recordsInserted++;
+          }
+          catch (SQLException ex2)
+          {
+            logInsertError(ex2, BatchKeys[i], TransactionNumber);
+          }
+        }
+      }
+    }
+    catch (SQLException ex)
+    {
+      message = "Error inserting into <" + cacheDataSourceName + "> for the duplicate "
+          + "check data on transaction commit. message=<" + ex.getMessage()+"> in transaction <" + TransactionNumber + ">";
+      OpenRate.getOpenRateFrameworkLog().error(message);
+    }
+
+    try
+    {
+      InsertStatement.clearBatch();
+    }
+    catch (SQLException ex)
+    {
+      // nothing left to clear
+    }
+
+    return recordsInserted;
+  }
+
+ /**
+  * Log a failed insert on commit
+  *
+  * @param ex The exception the insert failed with
+  * @param key The key that was not inserted
+  * @param TransactionNumber The transaction number
+  */
+  private void logInsertError(SQLException ex, String key, int TransactionNumber)
+  {
+    message = String.valueOf(ex.getMessage());
+    if (duplicateCheckPattern.matcher(message).matches())
+    {
+      // the key is already there
+      message = "Duplicate Error inserting into <" + cacheDataSourceName + "> for the duplicate "
+          + "check data on transaction commit for key <" + key+"> in transaction <" + TransactionNumber + ">";
+      OpenRate.getOpenRateFrameworkLog().warning(message);
+    }
+    else
+    {
+      // other SQL exception
+      message = "Error inserting into <" + cacheDataSourceName + "> for the duplicate "
+          + "check data on transaction commit. message=<" + ex.getMessage()+"> in transaction <" + TransactionNumber + ">";
+      OpenRate.getOpenRateFrameworkLog().error(message);
+    }
   }
 
  /**
@@ -579,6 +793,9 @@ public class DuplicateCheckCache
   {
     // We just discard the keys from the transaction
     TransRecordList.remove(TransactionNumber);
+
+    // and release the connection if we made any direct inserts
+    closeTransactionInsertConnection(TransactionNumber);
   }
 
   // -----------------------------------------------------------------------------
@@ -637,7 +854,7 @@ public class DuplicateCheckCache
     else if (Command.equalsIgnoreCase(SERVICE_OBJECT_COUNT))
     {
       // Return the number of objects in the duplicate cache
-      return Integer.toString(recordList.size());
+      return Long.toString(recordList.size());
     }
     else if (Command.equalsIgnoreCase(SERVICE_BUFFER))
     {
@@ -709,10 +926,26 @@ public class DuplicateCheckCache
     ResultSet         mrs;
     long              CDRDate;
     String            CDRKey;
+    DuplicateSegmentStore.Batch segmentBatch = new DuplicateSegmentStore.Batch();
 
     // Find the location of the  zone configuration file
     OpenRate.getOpenRateFrameworkLog().info("Starting Duplicate Check Cache Loading from DB for <" + getSymbolicName() + ">");
 
+    // the segments are filled again from the database
+    if (segmentStore != null)
+    {
+      try
+      {
+        segmentStore.clear();
+      }
+      catch (IOException ex)
+      {
+        message = "Error clearing Duplicate Check data segments in module <"+getSymbolicName()+">. message <" + ex.getMessage() + ">";
+        OpenRate.getOpenRateFrameworkLog().fatal(message);
+        throw new InitializationException(message,ex,getSymbolicName());
+      }
+    }
+
     // Try to open the DS for lookup
     JDBCcon = DBUtil.getConnection(cacheDataSourceName);
 
@@ -761,9 +994,14 @@ public class DuplicateCheckCache
         // Overall counter for logging
         RecordsProcessed++;
 
+        // the segments hold all of the keys, the filter and store the recent ones
+        Fingerprint key = DuplicateKeyStore.fingerprint(CDRKey);
+        segmentBatch.add(key, CDRDate);
+
         if (CDRDate > bufferLimit)
         {
-          recordList.put(CDRKey, CDRDate);
+          keyFilter.add(key.high, key.low);
+          recordList.put(key, CDRDate);
           recordsLoaded++;
         }
         else
@@ -774,6 +1012,10 @@ public class DuplicateCheckCache
         // Update to the log file
         if ((RecordsProcessed % loadingLogNotificationStep) == 0)
         {
+          // and write what we have so far to the segments
+          appendToSegments(segmentBatch);
+          segmentBatch = new DuplicateSegmentStore.Batch();
+
           message = "Duplicate Check Data Loading: <" + recordsLoaded +
                 "> records buffered and <" + recordsDiscarded + "> records in duplicate data table for <" +
                 getSymbolicName() + ">";
@@ -793,6 +1035,23 @@ public class DuplicateCheckCache
     DBUtil.close(StmtSelectQuery);
     DBUtil.close(JDBCcon);
 
+    appendToSegments(segmentBatch);
+
+    // the segments hold all of the keys now, so the next start can use them
+    if (segmentStore != null)
+    {
+      try
+      {
+        segmentStore.markComplete();
+      }
+      catch (IOException ex)
+      {
+        message = "Could not mark the Duplicate Check data segments complete in module <"+getSymbolicName()+">, " +
+                  "the next start loads from the database. message <" + ex.getMessage() + ">";
+        OpenRate.getOpenRateFrameworkLog().error(message);
+      }
+    }
+
     message = "Duplicate Check Data Loading completed. <" + recordsLoaded +
           "> records buffered and <" + recordsDiscarded +
           "> records in duplicate data table for <" + getSymbolicName() + ">";
@@ -800,6 +1059,75 @@ public class DuplicateCheckCache
 
   }
 
+ /**
+  * Recover the duplicate check data from the local segments. This will skip
+  * the segments that are older than the store limit, and only buffer the
+  * records newer than the buffer date. This is run on framework startup in
+  * place of the database load, when the segments are in use and not empty.
+  *
+  * @throws InitializationException
+  */
+  public void retrieveDupChkDataFromSegments() throws InitializationException
+  {
+    long recordsLoaded;
+    int  segmentsDropped;
+
+    OpenRate.getOpenRateFrameworkLog().info("Starting Duplicate Check Cache Loading from segments for <" + getSymbolicName() + ">");
+
+    segmentsDropped = segmentStore.dropOlderThan(storeLimit);
+
+    try
+    {
+      recordsLoaded = segmentStore.load(recordList, keyFilter, bufferLimit);
+    }
+    catch (IOException ex)
+    {
+      message = "Error loading Duplicate Check data segments in module <"+getSymbolicName()+">. message <" + ex.getMessage() + ">";
+      OpenRate.getOpenRateFrameworkLog().fatal(message);
+      throw new InitializationException(message,ex,getSymbolicName());
+    }
+
+    message = "Duplicate Check Data Loading completed. <" + recordsLoaded +
+          "> records buffered from segments, <" + segmentsDropped +
+          "> expired segments dropped for <" + getSymbolicName() + ">";
+    OpenRate.getOpenRateFrameworkLog().info(message);
+  }
+
+ /**
+  * Write a batch of keys to the local segments, if we are using them. A
+  * failure invalidates the segments, so that the next start loads the keys
+  * from the database, which still holds them. It does not stop the processing.
+  *
+  * @param segmentBatch The keys to write
+  */
+  private void appendToSegments(DuplicateSegmentStore.Batch segmentBatch)
+  {
+    if ((segmentStore != null) && (segmentBatch.size() > 0))
+    {
+      try
+      {
+        segmentStore.append(segmentBatch);
+      }
+      catch (IOException ex)
+      {
+        message = "Error writing Duplicate Check data segments in module <"+getSymbolicName()+">, " +
+                  "the next start loads from the database. message <" + ex.getMessage() + ">";
+        OpenRate.getOpenRateFrameworkLog().error(message);
+
+        try
+        {
+          segmentStore.invalidate();
+        }
+        catch (IOException ex2)
+        {
+          message = "Could not invalidate the Duplicate Check data segments in module <"+getSymbolicName()+">, " +
+                    "they must be deleted before the next start. message <" + ex2.getMessage() + ">";
+          OpenRate.getOpenRateFrameworkLog().fatal(message);
+        }
+      }
+    }
+  }
+
  /**
   * Purge the duplicate check data removing records that are older than the
   * cutoff date. After the cache has been running for some time, it will
@@ -816,8 +1144,7 @@ public class DuplicateCheckCache
   */
   public void purgeDupChkData()
   {
-    Long recordDate;
-    int recordsPurgedMemory = 0;
+    long recordsPurgedMemory = 0;
     int recordsPurgedDatabase = 0;
 
     // log the cutoff date
@@ -832,31 +1159,26 @@ public class DuplicateCheckCache
     try
     {
       // **** Clean up the memory ****
-      // Create a new HashMap that will replace the current one. We cannot simply
-      // remove the items from the current one due to the ConcurrentModificationException
-      ConcurrentHashMap<String, Long> NewRecordList = new ConcurrentHashMap<>(50000);
-
-      // Dump the contents of the current hashmap
-      Set<String> keySet = recordList.keySet();
+      // The key filter keeps the purged keys until the next restart, which
+      // only means that they are looked for in the store
+      recordsPurgedMemory = recordList.purgeOlderThan(bufferLimit);
 
-      // loop through the keys and add to the new hashmap only the ones newer than cutoff
-      for (String dupKey : keySet)
+      // **** Clean up the segments ****
+      // Expired days are dropped as whole files
+      if (segmentStore != null)
       {
-        recordDate = recordList.get(dupKey);
-
-        if (recordDate < bufferLimit)
+        try
         {
-          // this will not be stored in the new hashmap
-          recordsPurgedMemory++;
+          segmentStore.compact();
         }
-        else
+        catch (IOException ex)
         {
-          NewRecordList.put(dupKey,recordDate);
+          message = "Error compacting the duplicate check segments. message: <" + ex.getMessage() + ">";
+          OpenRate.getOpenRateFrameworkLog().error(message);
         }
-      }
 
-      // Swap the existing and new record list over
-      recordList = NewRecordList;
+        OpenRate.getOpenRateFrameworkLog().info("Duplicate check purged <" + segmentStore.dropOlderThan(storeLimit) + "> segments.");
+      }
 
       // log that we have moved onto the DB part
       OpenRate.getOpenRateFrameworkLog().info("Duplicate check DB purge started.");
@@ -1002,6 +1324,59 @@ public class DuplicateCheckCache
     return tmpLoadStep;
   }
 
+  /**
+  * Open the local segment store, if a directory for it is defined.
+  */
+  private DuplicateSegmentStore initGetSegmentStore(String ResourceName, String CacheName) throws InitializationException
+  {
+    String tmpValue;
+
+    tmpValue = PropertyUtils.getPropertyUtils().getDataCachePropertyValueDef(ResourceName,
+                                                       CacheName,
+                                                       SERVICE_SEGMENT_DIR,
+                                                       "None");
+
+    if (tmpValue.equals("None"))
+    {
+      return null;
+    }
+
+    try
+    {
+      return new DuplicateSegmentStore(new File(tmpValue), CacheName);
+    }
+    catch (IOException ex)
+    {
+      message = "Could not open the segment directory <" + tmpValue + "> in module <" + getSymbolicName() + ">. message <" + ex.getMessage() + ">";
+      throw new InitializationException(message,ex,getSymbolicName());
+    }
+  }
+
+  /**
+  * Get the number of keys that the Bloom filter is to be sized for.
+  */
+  private long initGetBloomFilterKeys(String ResourceName, String CacheName) throws InitializationException
+  {
+    String tmpValue;
+
+    tmpValue = PropertyUtils.getPropertyUtils().getDataCachePropertyValueDef(ResourceName,
+                                                       CacheName,
+                                                       SERVICE_BLOOM_KEYS,
+                                                       Long.toString(DEFAULT_BLOOM_KEYS));
+
+    // try to convert it
+    try
+    {
+      return Long.parseLong(tmpValue);
+    }
+    catch (NumberFormatException ex)
+    {
+      message = "Value provided for property <" + SERVICE_BLOOM_KEYS +
+                "> was not numeric. Received value <" + tmpValue + ">.";
+      throw new InitializationException(message,ex,getSymbolicName());
+    }
+  }
+
  /**
   * Gets a connection for use in the insert processing module. If the connection
   * is not available, we create it.
@@ -1036,6 +1411,27 @@ public class DuplicateCheckCache
     }
   }
 
+ /**
+  * Gets the statement for speculative inserts in the insert processing module.
+  * The statement is prepared on the first use in the transaction, and closed
+  * with the connection.
+  *
+  * @param TransactionNumber The transaction number we are creating for
+  * @return The prepared insert statement
+  */
+  public PreparedStatement getTransactionInsertStatement(int TransactionNumber)
+  {
+    PreparedStatement tmpStatement = insertStatement.get(TransactionNumber);
+
+    if (tmpStatement == null)
+    {
+      tmpStatement = getInsertStatement(getTransactionInsertConnection(TransactionNumber));
+      insertStatement.put(TransactionNumber, tmpStatement);
+    }
+
+    return tmpStatement;
+  }
+
  /**
   * Closes the connection for use in the insert processing module. If the connection
   * is not available, we create it.
@@ -1044,6 +1440,11 @@ public class DuplicateCheckCache
   */
   public void closeTransactionInsertConnection(int TransactionNumber)
   {
+    if (insertStatement.containsKey(TransactionNumber))
+    {
+      DBUtil.close(insertStatement.remove(TransactionNumber));
+    }
+
     if (insertConnection.containsKey(TransactionNumber))
     {
       // Close the connection
@@ -0,0 +1,373 @@
+package OpenRate.cache;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The key store of the duplicate check cache. Rather than holding each
+ * record key as a String, the store holds a 128 bit fingerprint of the key
+ * and the time stamp of the record, in open addressing hash tables held off
+ * the heap in direct buffers. This keeps the footprint of a large dedup window
+ * at 24 bytes per key, and out of the way of the garbage collector.
+ *
+ * The store is split into segments by the top bits of the fingerprint, each
+ * with its own lock and table, so that commits and checks in different
+ * pipelines rarely wait for each other, and no single table outgrows the
+ * size of a buffer.
+ *
+ * Two keys with the same fingerprint are taken to be the same key. With 128
+ * bits, this is not expected to happen over the life of a system.
+ */
+public class DuplicateKeyStore
+{
+  // the number of segments, selected by the top bits of the fingerprint
+  private static final int SEGMENT_BITS = 8;
+  private static final int SEGMENT_COUNT = 1 << SEGMENT_BITS;
+
+  // each slot holds the high and low fingerprint and the time stamp
+  private static final int SLOT_SIZE = 24;
+  private static final int TIME_OFFSET = 16;
+
+  // the first table size, and the largest that fits in a buffer
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final int MAX_CAPACITY = Integer.highestOneBit(Integer.MAX_VALUE / SLOT_SIZE);
+
+  // MurmurHash3 x64 128 constants
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
+
+  private final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+ /**
+  * The fingerprint of a record key
+  */
+  public static final class Fingerprint
+  {
+   /**
+    * The high 64 bits
+    */
+    public final long high;
+
+   /**
+    * The low 64 bits
+    */
+    public final long low;
+
+    Fingerprint(long high, long low)
+    {
+      // all zero marks an empty slot
+      this.high = high;
+      this.low = ((high | low) == 0) ? 1 : low;
+    }
+  }
+
+ /**
+  * A segment of the store, an open addressing table with linear probing
+  */
+  private static final class Segment
+  {
+    ByteBuffer table;
+    int        mask;
+    int        count;
+
+    Segment(int capacity)
+    {
+      table = ByteBuffer.allocateDirect(capacity * SLOT_SIZE).order(ByteOrder.nativeOrder());
+      mask = capacity - 1;
+    }
+  }
+
+ /**
+  * Create an empty store
+  */
+  public DuplicateKeyStore()
+  {
+    for (int i = 0; i < SEGMENT_COUNT; i++)
+    {
+      segments[i] = new Segment(INITIAL_CAPACITY);
+    }
+  }
+
+ /**
+  * Get the fingerprint of a record key. This is the MurmurHash3 x64 128 bit
+  * hash of the characters of the key, and is stable between runs.
+  *
+  * @param key The record key
+  * @return The fingerprint
+  */
+  public static Fingerprint fingerprint(String key)
+  {
+    int  length = key.length();
+    int  blocks = length / 8;
+    long h1 = 0;
+    long h2 = 0;
+    long k1;
+    long k2;
+
+    for (int i = 0; i < blocks; i++)
+    {
+      k1 = chars(key, i * 8, 4);
+      k2 = chars(key, i * 8 + 4, 4);
+
+      k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+      h1 = Long.rotateLeft(h1, 27); h1 += h2; h1 = h1 * 5 + 0x52dce729;
+
+      k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+      h2 = Long.rotateLeft(h2, 31); h2 += h1; h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    int tail = length - blocks * 8;
+
+    if (tail > 4)
+    {
+      k2 = chars(key, blocks * 8 + 4, tail - 4);
+      k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+    }
+
+    if (tail > 0)
+    {
+      k1 = chars(key, blocks * 8, Math.min(tail, 4));
+      k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+    }
+
+    h1 ^= length * 2L;
+    h2 ^= length * 2L;
+    h1 += h2;
+    h2 += h1;
+    h1 = fmix(h1);
+    h2 = fmix(h2);
+    h1 += h2;
+    h2 += h1;
+
+    return new Fingerprint(h1, h2);
+  }
+
+ /**
+  * See if the store holds a key
+  *
+  * @param key The fingerprint of the key
+  * @return true if the key is held
+  */
+  public boolean contains(Fingerprint key)
+  {
+    Segment segment = segmentFor(key);
+
+    synchronized (segment)
+    {
+      return findSlot(segment, key) >= 0;
+    }
+  }
+
+ /**
+  * Add a key to the store, or update its time stamp if it is already held
+  *
+  * @param key The fingerprint of the key
+  * @param timeStamp The time stamp of the record
+  * @return true if the key was added, false if it was already held
+  */
+  public boolean put(Fingerprint key, long timeStamp)
+  {
+    Segment segment = segmentFor(key);
+
+    synchronized (segment)
+    {
+      int slot = findSlot(segment, key);
+
+      if (slot >= 0)
+      {
+        segment.table.putLong(slot * SLOT_SIZE + TIME_OFFSET, timeStamp);
+        return false;
+      }
+
+      if ((segment.count + 1) > ((segment.mask + 1) / 4) * 3)
+      {
+        resize(segment, (segment.mask + 1) * 2);
+      }
+
+      insert(segment, key.high, key.low, timeStamp);
+      return true;
+    }
+  }
+
+ /**
+  * Remove the keys older than the given time
+  *
+  * @param timeLimit The oldest time stamp to keep
+  * @return The number of keys removed
+  */
+  public long purgeOlderThan(long timeLimit)
+  {
+    long purged = 0;
+
+    for (Segment segment : segments)
+    {
+      synchronized (segment)
+      {
+        ByteBuffer oldTable = segment.table;
+        int        oldCapacity = segment.mask + 1;
+        int        oldCount = segment.count;
+        int        newCapacity = INITIAL_CAPACITY;
+
+        // size the new table for the keys that we might keep
+        while (((newCapacity / 4) * 3) < oldCount && newCapacity < oldCapacity)
+        {
+          newCapacity *= 2;
+        }
+
+        segment.table = ByteBuffer.allocateDirect(newCapacity * SLOT_SIZE).order(ByteOrder.nativeOrder());
+        segment.mask = newCapacity - 1;
+        segment.count = 0;
+
+        for (int slot = 0; slot < oldCapacity; slot++)
+        {
+          long high = oldTable.getLong(slot * SLOT_SIZE);
+          long low = oldTable.getLong(slot * SLOT_SIZE + 8);
+          long timeStamp = oldTable.getLong(slot * SLOT_SIZE + TIME_OFFSET);
+
+          if ((high | low) != 0 && timeStamp >= timeLimit)
+          {
+            insert(segment, high, low, timeStamp);
+          }
+        }
+
+        purged += oldCount - segment.count;
+      }
+    }
+
+    return purged;
+  }
+
+ /**
+  * Get the number of keys in the store
+  *
+  * @return The number of keys
+  */
+  public long size()
+  {
+    long size = 0;
+
+    for (Segment segment : segments)
+    {
+      synchronized (segment)
+      {
+        size += segment.count;
+      }
+    }
+
+    return size;
+  }
+
+ /**
+  * Get the segment for a key
+  */
+  private Segment segmentFor(Fingerprint key)
+  {
+    return segments[(int) (key.high >>> (64 - SEGMENT_BITS))];
+  }
+
+ /**
+  * Find the slot of a key in a segment
+  *
+  * @return The slot, or -1 if the key is not held
+  */
+  private static int findSlot(Segment segment, Fingerprint key)
+  {
+    ByteBuffer table = segment.table;
+    int slot = (int) key.low & segment.mask;
+
+    while (true)
+    {
+      long high = table.getLong(slot * SLOT_SIZE);
+      long low = table.getLong(slot * SLOT_SIZE + 8);
+
+      if (high == key.high && low == key.low)
+      {
+        return slot;
+      }
+
+      if ((high | low) == 0)
+      {
+        return -1;
+      }
+
+      slot = (slot + 1) & segment.mask;
+    }
+  }
+
+ /**
+  * Insert a key that is not held into the first free slot for it
+  */
+  private static void insert(Segment segment, long high, long low, long timeStamp)
+  {
+    ByteBuffer table = segment.table;
+    int slot = (int) low & segment.mask;
+
+    while ((table.getLong(slot * SLOT_SIZE) | table.getLong(slot * SLOT_SIZE + 8)) != 0)
+    {
+      slot = (slot + 1) & segment.mask;
+    }
+
+    table.putLong(slot * SLOT_SIZE, high);
+    table.putLong(slot * SLOT_SIZE + 8, low);
+    table.putLong(slot * SLOT_SIZE + TIME_OFFSET, timeStamp);
+    segment.count++;
+  }
+
+ /**
+  * Move the keys of a segment into a larger table
+  */
+  private static void resize(Segment segment, int newCapacity)
+  {
+    if (newCapacity > MAX_CAPACITY)
+    {
+      throw new IllegalStateException("Duplicate key store segment is full at <" + segment.count + "> keys");
+    }
+
+    ByteBuffer oldTable = segment.table;
+    int        oldCapacity = segment.mask + 1;
+
+    segment.table = ByteBuffer.allocateDirect(newCapacity * SLOT_SIZE).order(ByteOrder.nativeOrder());
+    segment.mask = newCapacity - 1;
+    segment.count = 0;
+
+    for (int slot = 0; slot < oldCapacity; slot++)
+    {
+      long high = oldTable.getLong(slot * SLOT_SIZE);
+      long low = oldTable.getLong(slot * SLOT_SIZE + 8);
+
+      if ((high | low) != 0)
+      {
+        insert(segment, high, low, oldTable.getLong(slot * SLOT_SIZE + TIME_OFFSET));
+      }
+    }
+  }
+
+ /**
+  * Get up to 4 characters of the key as a little endian long
+  */
+  private static long chars(String key, int start, int count)
+  {
+    long value = 0;
+
+    for (int i = 0; i < count; i++)
+    {
+      value |= ((long) key.charAt(start + i)) << (16 * i);
+    }
+
+    return value;
+  }
+
+ /**
+  * The final mix of MurmurHash3
+  */
+  private static long fmix(long k)
+  {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+
+    return k;
+  }
+}
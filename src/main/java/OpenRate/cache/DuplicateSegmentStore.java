@@ -0,0 +1,766 @@
+package OpenRate.cache;
+
+import OpenRate.OpenRate;
+import OpenRate.cache.DuplicateKeyStore.Fingerprint;
+import OpenRate.lang.BloomFilter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps the keys of the duplicate check cache in local segment files, so that
+ * a restart can load them from disk instead of scanning the database.
+ *
+ * Each committed transaction is appended to a log file. When the log grows
+ * past its limit a new one is started. A background thread compacts the
+ * closed logs, when a log is closed and at a fixed interval, so that the
+ * committing threads never wait for it. Each closed log is split into one new
+ * part file for each day it holds keys for, by the time stamp of the records,
+ * and the parts already written are never touched again. Keys that have
+ * expired are then dropped by deleting all of the parts of a day, without
+ * touching the other days. The database stays the system of record: the
+ * segments are only used to warm up the cache.
+ *
+ * Each record is the 128 bit fingerprint of the key, its time stamp and a
+ * check sum, 32 bytes. The logs are only ever appended to, so a crash can only
+ * tear the last record of a log. A part is named after the log it came from,
+ * and is written to a temporary file and renamed into place, so a compaction
+ * that is cut short is simply done again. The files are read in chunks of a
+ * fixed size, whatever their size. A record that fails its check sum is
+ * ignored on loading, and a record that was written twice is only loaded once.
+ *
+ * The segments are only trusted while they are complete: the loader marks
+ * them complete once they hold all of the keys of the database, and a failed
+ * write removes the mark and stops the appending. A restart then loads the
+ * keys from the database again.
+ */
+public class DuplicateSegmentStore
+{
+  // the size of a record
+  private static final int RECORD_SIZE = 32;
+
+  // the size of the chunks the files are read in
+  private static final int READ_SIZE = RECORD_SIZE * 32768;
+
+  // mixed into the check sum, so that a record of zeroes does not pass
+  private static final long CHECK_SEED = 0x9E3779B97F4A7C15L;
+
+  // the size at which we start a new log
+  private static final long LOG_ROLL_SIZE = 64 * 1024 * 1024;
+
+  // the time between two compactions if no log is closed, in milliseconds
+  private static final long COMPACT_INTERVAL = 60000;
+
+  // the length of the day of a segment
+  private static final long SECONDS_PER_DAY = 86400;
+
+  // the file names are <name>-log-<number>.seg and <name>-day-<day>-<log>.seg
+  private static final String LOG_PART = "-log-";
+  private static final String DAY_PART = "-day-";
+  private static final String SUFFIX = ".seg";
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  // the file that marks the segments as complete
+  private static final String COMPLETE_PART = "-complete";
+
+  // where the files are
+  private final File directory;
+  private final String name;
+
+  // the size at which we start a new log
+  private final long logRollSize;
+
+  // the number of the log we are appending to
+  private long logNumber;
+
+  // false once a write has failed, after which nothing more is appended
+  private boolean valid = true;
+
+  // held while the closed logs are moved into the parts, and by everything
+  // that must not see a log half moved
+  private final Object compactLock = new Object();
+
+  // the background compaction
+  private final Object compactSignal = new Object();
+  private Thread compactThread = null;
+  private volatile boolean compactRunning = false;
+  private boolean compactRequested = false;
+
+ /**
+  * A batch of records to append, usually one committed transaction
+  */
+  public static class Batch
+  {
+    private ByteBuffer records = ByteBuffer.allocate(RECORD_SIZE * 64);
+
+   /**
+    * Add a key to the batch
+    *
+    * @param key The fingerprint of the key
+    * @param timeStamp The time stamp of the record
+    */
+    public void add(Fingerprint key, long timeStamp)
+    {
+      if (records.remaining() < RECORD_SIZE)
+      {
+        ByteBuffer larger = ByteBuffer.allocate(records.capacity() * 2);
+        records.flip();
+        larger.put(records);
+        records = larger;
+      }
+
+      records.putLong(key.high);
+      records.putLong(key.low);
+      records.putLong(timeStamp);
+      records.putLong(checkSum(key.high, key.low, timeStamp));
+    }
+
+   /**
+    * Get the number of records in the batch
+    *
+    * @return The number of records
+    */
+    public int size()
+    {
+      return records.position() / RECORD_SIZE;
+    }
+  }
+
+ /**
+  * Open the segment store in a directory, creating it if needed. Logs left
+  * from the last run are compacted first.
+  *
+  * @param directory The directory of the files
+  * @param name The name of the store, used to name the files
+  * @throws IOException
+  */
+  public DuplicateSegmentStore(File directory, String name) throws IOException
+  {
+    this(directory, name, LOG_ROLL_SIZE);
+  }
+
+ /**
+  * Open the segment store with the size at which a new log is started
+  */
+  DuplicateSegmentStore(File directory, String name, long logRollSize) throws IOException
+  {
+    this.directory = directory;
+    this.name = name;
+    this.logRollSize = logRollSize;
+
+    if (!directory.isDirectory() && !directory.mkdirs())
+    {
+      throw new IOException("Could not create segment directory <" + directory + ">");
+    }
+
+    // drop the temporary files of a compaction that did not finish
+    File[] candidates = directory.listFiles();
+
+    if (candidates != null)
+    {
+      for (File candidate : candidates)
+      {
+        if (candidate.getName().startsWith(name) && candidate.getName().endsWith(TEMP_SUFFIX))
+        {
+          Files.delete(candidate.toPath());
+        }
+      }
+    }
+
+    // start after the last log, and take everything into the segments
+    for (long number : listFiles(LOG_PART).keySet())
+    {
+      logNumber = Math.max(logNumber, number + 1);
+    }
+
+    compact();
+  }
+
+ /**
+  * See if there are complete keys on disk to load
+  *
+  * @return true if there are segments or logs, and they are marked complete
+  */
+  public synchronized boolean hasData()
+  {
+    return completeFile().exists() && (!listDays().isEmpty() || !listFiles(LOG_PART).isEmpty());
+  }
+
+ /**
+  * Delete all of the segments and logs, and the complete mark, before the
+  * keys are loaded from the database again. Appending is possible again
+  * afterwards.
+  *
+  * @throws IOException
+  */
+  public void clear() throws IOException
+  {
+    synchronized (compactLock)
+    {
+      synchronized (this)
+      {
+        Files.deleteIfExists(completeFile().toPath());
+
+        for (ArrayList<File> parts : listDays().values())
+        {
+          for (File part : parts)
+          {
+            Files.delete(part.toPath());
+          }
+        }
+
+        for (File log : listFiles(LOG_PART).values())
+        {
+          Files.delete(log.toPath());
+        }
+
+        valid = true;
+      }
+    }
+  }
+
+ /**
+  * Mark the segments as complete, once they hold all of the keys of the
+  * database
+  *
+  * @throws IOException
+  */
+  public synchronized void markComplete() throws IOException
+  {
+    if (!valid)
+    {
+      throw new IOException("Segments <" + name + "> cannot be marked complete after a failed write");
+    }
+
+    try (FileChannel channel = FileChannel.open(completeFile().toPath(), StandardOpenOption.CREATE,
+                                                StandardOpenOption.WRITE))
+    {
+      channel.force(true);
+    }
+  }
+
+ /**
+  * Stop appending to the segments and remove the complete mark, so that the
+  * next start loads the keys from the database.
+  *
+  * @throws IOException if the mark could not be removed
+  */
+  public synchronized void invalidate() throws IOException
+  {
+    valid = false;
+    Files.deleteIfExists(completeFile().toPath());
+  }
+
+ /**
+  * See if the segments are still being appended to
+  *
+  * @return false if a write has failed
+  */
+  public synchronized boolean isValid()
+  {
+    return valid;
+  }
+
+ /**
+  * Append a batch to the log and force it to disk. If the log has grown past
+  * its limit, a new one is started, and the background compaction is woken
+  * up for the closed one. If the write fails, the segments are invalidated,
+  * and later batches are not written.
+  *
+  * @param batch The records to append
+  * @throws IOException
+  */
+  public synchronized void append(Batch batch) throws IOException
+  {
+    if (!valid)
+    {
+      return;
+    }
+
+    File logFile = file(LOG_PART, logNumber);
+    ByteBuffer records = batch.records.duplicate();
+    records.flip();
+
+    try
+    {
+      try (FileChannel channel = FileChannel.open(logFile.toPath(), StandardOpenOption.CREATE,
+                                                  StandardOpenOption.WRITE, StandardOpenOption.APPEND))
+      {
+        while (records.hasRemaining())
+        {
+          channel.write(records);
+        }
+
+        channel.force(false);
+      }
+
+      if (logFile.length() >= logRollSize)
+      {
+        logNumber++;
+
+        synchronized (compactSignal)
+        {
+          compactRequested = true;
+          compactSignal.notifyAll();
+        }
+      }
+    }
+    catch (IOException ex)
+    {
+      invalidate();
+      throw ex;
+    }
+  }
+
+ /**
+  * Start compacting the closed logs in the background, when a log is closed
+  * and at a fixed interval
+  */
+  public synchronized void startCompaction()
+  {
+    if (compactThread == null)
+    {
+      compactRunning = true;
+      compactThread = new Thread(new Compactor(), "DuplicateSegmentCompactor-" + name);
+      compactThread.setDaemon(true);
+      compactThread.start();
+    }
+  }
+
+ /**
+  * Stop the background compaction and wait for it to finish what it is doing.
+  * The logs it has not got to are compacted when the store is opened again.
+  */
+  public void close()
+  {
+    Thread tmpCompactThread;
+
+    synchronized (this)
+    {
+      tmpCompactThread = compactThread;
+      compactThread = null;
+    }
+
+    if (tmpCompactThread != null)
+    {
+      compactRunning = false;
+      tmpCompactThread.interrupt();
+
+      try
+      {
+        tmpCompactThread.join();
+      }
+      catch (InterruptedException ex)
+      {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+ /**
+  * The background compaction. It waits for a log to be closed, or for the
+  * interval to pass, and then compacts the closed logs.
+  */
+  private class Compactor implements Runnable
+  {
+    @Override
+    public void run()
+    {
+      while (compactRunning)
+      {
+        try
+        {
+          synchronized (compactSignal)
+          {
+            if (!compactRequested)
+            {
+              compactSignal.wait(COMPACT_INTERVAL);
+            }
+
+            compactRequested = false;
+          }
+        }
+        catch (InterruptedException ex)
+        {
+          // we are being stopped
+          break;
+        }
+
+        try
+        {
+          compact();
+        }
+        catch (IOException ex)
+        {
+          // the logs are kept, and tried again next time
+          OpenRate.getOpenRateFrameworkLog().error("Error compacting the duplicate check segments <" + name + ">. message <" + ex.getMessage() + ">");
+        }
+      }
+    }
+  }
+
+ /**
+  * Move the records of the closed logs into new day parts, and delete the
+  * logs. The log being appended to is not touched, so this does not hold up
+  * the appending.
+  *
+  * @throws IOException
+  */
+  public void compact() throws IOException
+  {
+    synchronized (compactLock)
+    {
+      long openLog;
+
+      synchronized (this)
+      {
+        openLog = logNumber;
+      }
+
+      for (Map.Entry<Long, File> log : listFiles(LOG_PART).entrySet())
+      {
+        if (log.getKey() >= openLog)
+        {
+          // still open
+          continue;
+        }
+
+        compactLog(log.getKey(), log.getValue());
+      }
+    }
+  }
+
+ /**
+  * Split a closed log into one new part for each day it holds records for,
+  * and delete it.
+  */
+  private void compactLog(long number, File log) throws IOException
+  {
+    HashMap<Long, Batch> days = new HashMap<>();
+
+    try (RecordReader records = new RecordReader(log))
+    {
+      while (records.next())
+      {
+        long day = (records.timeStamp >= 0) ? records.timeStamp / SECONDS_PER_DAY : (records.timeStamp + 1) / SECONDS_PER_DAY - 1;
+
+        Batch dayBatch = days.get(day);
+        if (dayBatch == null)
+        {
+          dayBatch = new Batch();
+          days.put(day, dayBatch);
+        }
+
+        dayBatch.add(new Fingerprint(records.high, records.low), records.timeStamp);
+      }
+    }
+
+    for (Map.Entry<Long, Batch> day : days.entrySet())
+    {
+      writePart(day.getKey(), number, day.getValue());
+    }
+
+    // the records are safe in the parts now
+    if (!log.delete())
+    {
+      throw new IOException("Could not delete compacted log <" + log + ">");
+    }
+  }
+
+ /**
+  * Write the records of a day from one log into a new part, through a
+  * temporary file. A part left by an earlier try for the same log is
+  * replaced.
+  */
+  private void writePart(long day, long number, Batch batch) throws IOException
+  {
+    File part = new File(directory, name + DAY_PART + day + "-" + number + SUFFIX);
+    File temp = new File(directory, part.getName() + TEMP_SUFFIX);
+    ByteBuffer records = batch.records.duplicate();
+    records.flip();
+
+    try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                                                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+    {
+      while (records.hasRemaining())
+      {
+        channel.write(records);
+      }
+
+      channel.force(false);
+    }
+
+    Files.move(temp.toPath(), part.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+ /**
+  * Delete the parts of the days that only hold records older than the limit
+  *
+  * @param timeLimit The oldest time stamp to keep
+  * @return The number of days deleted
+  */
+  public int dropOlderThan(long timeLimit)
+  {
+    int dropped = 0;
+
+    synchronized (compactLock)
+    {
+      for (Map.Entry<Long, ArrayList<File>> day : listDays().entrySet())
+      {
+        if ((day.getKey() + 1) * SECONDS_PER_DAY > timeLimit)
+        {
+          // the rest are newer
+          break;
+        }
+
+        boolean deleted = true;
+
+        for (File part : day.getValue())
+        {
+          deleted &= part.delete();
+        }
+
+        if (deleted)
+        {
+          dropped++;
+        }
+      }
+    }
+
+    return dropped;
+  }
+
+ /**
+  * Load the keys inside the buffer limit from the segments and logs into the
+  * key store and the filter in front of it.
+  *
+  * @param keyStore The key store to load
+  * @param keyFilter The filter to load
+  * @param bufferLimit The oldest time stamp to hold in the key store
+  * @return The number of records loaded into the key store
+  * @throws IOException
+  */
+  public long load(DuplicateKeyStore keyStore, BloomFilter keyFilter, long bufferLimit) throws IOException
+  {
+    long loaded = 0;
+
+    synchronized (compactLock)
+    {
+      ArrayList<File> files = new ArrayList<>();
+
+      for (ArrayList<File> parts : listDays().values())
+      {
+        files.addAll(parts);
+      }
+
+      files.addAll(listFiles(LOG_PART).values());
+
+      for (File segment : files)
+      {
+        try (RecordReader records = new RecordReader(segment))
+        {
+          while (records.next())
+          {
+            if (records.timeStamp > bufferLimit)
+            {
+              keyFilter.add(records.high, records.low);
+
+              if (keyStore.put(new Fingerprint(records.high, records.low), records.timeStamp))
+              {
+                loaded++;
+              }
+            }
+          }
+        }
+      }
+    }
+
+    return loaded;
+  }
+
+ /**
+  * Get the check sum of a record
+  */
+  private static long checkSum(long high, long low, long timeStamp)
+  {
+    long check = CHECK_SEED ^ high;
+
+    check = (check ^ (check >>> 33)) * 0xFF51AFD7ED558CCDL + low;
+    check = (check ^ (check >>> 33)) * 0xC4CEB9FE1A85EC53L + timeStamp;
+
+    return check ^ (check >>> 33);
+  }
+
+ /**
+  * Reads the records of a file a chunk at a time, skipping the records that
+  * are torn or damaged
+  */
+  private static class RecordReader implements Closeable
+  {
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(READ_SIZE);
+
+    // the record read last
+    long high;
+    long low;
+    long timeStamp;
+
+    RecordReader(File file) throws IOException
+    {
+      channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      buffer.flip();
+    }
+
+   /**
+    * Read the next good record
+    *
+    * @return false at the end of the file
+    */
+    boolean next() throws IOException
+    {
+      while (true)
+      {
+        if (buffer.remaining() < RECORD_SIZE)
+        {
+          // keep the part of a record we have, and fill up behind it
+          buffer.compact();
+
+          while (buffer.hasRemaining() && channel.read(buffer) > 0)
+          {
+            // keep reading until the buffer is full or the file ends
+          }
+
+          buffer.flip();
+
+          if (buffer.remaining() < RECORD_SIZE)
+          {
+            return false;
+          }
+        }
+
+        high = buffer.getLong();
+        low = buffer.getLong();
+        timeStamp = buffer.getLong();
+
+        if (buffer.getLong() == checkSum(high, low, timeStamp))
+        {
+          return true;
+        }
+      }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+      channel.close();
+    }
+  }
+
+ /**
+  * Get the file of a log
+  */
+  private File file(String part, long number)
+  {
+    return new File(directory, name + part + number + SUFFIX);
+  }
+
+ /**
+  * Get the file that marks the segments as complete
+  */
+  private File completeFile()
+  {
+    return new File(directory, name + COMPLETE_PART);
+  }
+
+ /**
+  * List the parts of each day, by the day
+  */
+  private TreeMap<Long, ArrayList<File>> listDays()
+  {
+    TreeMap<Long, ArrayList<File>> days = new TreeMap<>();
+
+    for (Map.Entry<String, File> part : listNames(DAY_PART).entrySet())
+    {
+      // the day and the log it came from, the day may be negative
+      String number = part.getKey();
+      int split = number.lastIndexOf('-');
+
+      try
+      {
+        long day = Long.parseLong(number.substring(0, split));
+        Long.parseLong(number.substring(split + 1));
+
+        ArrayList<File> parts = days.get(day);
+        if (parts == null)
+        {
+          parts = new ArrayList<>();
+          days.put(day, parts);
+        }
+
+        parts.add(part.getValue());
+      }
+      catch (NumberFormatException | StringIndexOutOfBoundsException ex)
+      {
+        // not one of ours
+      }
+    }
+
+    return days;
+  }
+
+ /**
+  * List the logs, by their number
+  */
+  private TreeMap<Long, File> listFiles(String part)
+  {
+    TreeMap<Long, File> files = new TreeMap<>();
+
+    for (Map.Entry<String, File> log : listNames(part).entrySet())
+    {
+      try
+      {
+        files.put(Long.parseLong(log.getKey()), log.getValue());
+      }
+      catch (NumberFormatException ex)
+      {
+        // not one of ours
+      }
+    }
+
+    return files;
+  }
+
+ /**
+  * List the files of a kind, by the part of the name after the kind
+  */
+  private HashMap<String, File> listNames(String part)
+  {
+    HashMap<String, File> files = new HashMap<>();
+    String prefix = name + part;
+    File[] candidates = directory.listFiles();
+
+    if (candidates != null)
+    {
+      for (File candidate : candidates)
+      {
+        String fileName = candidate.getName();
+
+        if (fileName.startsWith(prefix) && fileName.endsWith(SUFFIX))
+        {
+          files.put(fileName.substring(prefix.length(), fileName.length() - SUFFIX.length()), candidate);
+        }
+      }
+    }
+
+    return files;
+  }
+}
@@ -74,7 +74,7 @@ public class IndexedLookupCache
   /**
    * This stores the index to all the groups.
    */
-  protected HashMap<String, String[]> ObjectCache;
+  protected volatile HashMap<String, String[]> ObjectCache;
 
   /**
    * Object ID generator
@@ -82,9 +82,10 @@ public class IndexedLookupCache
   protected int ObjectID = 0;
 
   /**
-   * These are the hashes that form the indexes
+   * These are the hashes that form the indexes. They hold the objects
+   * themselves, so that a lookup only needs the index.
    */
-  protected ArrayList<HashMap<String, String>> IndexList;
+  protected volatile ArrayList<HashMap<String, String[]>> IndexList;
 
   /**
    * This is the form factor of the key table
@@ -278,7 +279,7 @@ public class IndexedLookupCache
           KeyFieldList.add(tmpIndexField);
 
           // Add in the index object
-          IndexList.add(new HashMap<String, String>(5000));
+          IndexList.add(new HashMap<String, String[]>(5000));
         }
         catch(NumberFormatException nfe)
         {
@@ -303,7 +304,7 @@ public class IndexedLookupCache
   public void addEntry(String[] inputKeys, String[] inputResult)
     throws InitializationException
   {
-    HashMap<String, String> tmpIndex;
+    HashMap<String, String[]> tmpIndex;
     int     Index;
     String  tmpObjectID;
     boolean AddedOK = true;
@@ -324,7 +325,7 @@ public class IndexedLookupCache
 
       if (!tmpIndex.containsKey(Keys[Index]))
       {
-        tmpIndex.put(Keys[Index], tmpObjectID);
+        tmpIndex.put(Keys[Index], Result);
       }
       else
       {
@@ -353,9 +354,7 @@ public class IndexedLookupCache
   public String[] getEntry(int Index, String Key)
                   throws ProcessingException
   {
-    String[] tmpResult = null;
-    HashMap<String, String>  tmpIndex;
-    String   tmpObjectID;
+    HashMap<String, String[]> tmpIndex;
 
     if (Index > KeyFormFactor)
     {
@@ -367,13 +366,7 @@ public class IndexedLookupCache
     // Get the Index
     tmpIndex = IndexList.get(Index);
 
-    if (tmpIndex.containsKey(Key))
-    {
-      tmpObjectID = tmpIndex.get(Key);
-      tmpResult = ObjectCache.get(tmpObjectID);
-    }
-
-    return tmpResult;
+    return tmpIndex.get(Key);
   }
 
  /**
@@ -645,8 +638,8 @@ public class IndexedLookupCache
   @Override
   public void clearCacheObjects()
   {
-    Iterator<HashMap<String, String>> indexIter;
-    HashMap<String, String> tmpIndex;
+    Iterator<HashMap<String, String[]>> indexIter;
+    HashMap<String, String[]> tmpIndex;
 
     // Clear out the object cache
     ObjectCache.clear();
@@ -661,4 +654,20 @@ public class IndexedLookupCache
       tmpIndex.clear();
     }
   }
+
+ /**
+  * Take over the data of a snapshot loaded in the background. The lookups
+  * only use the indexes, so they switch over in one step.
+  *
+  * @param snapshot The loaded snapshot
+  */
+  @Override
+  protected void publishSnapshot(AbstractSyncLoaderCache snapshot)
+  {
+    IndexedLookupCache loaded = (IndexedLookupCache) snapshot;
+
+    ObjectCache = loaded.ObjectCache;
+    ObjectID = loaded.ObjectID;
+    IndexList = loaded.IndexList;
+  }
 }
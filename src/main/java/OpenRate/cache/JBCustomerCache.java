@@ -6,15 +6,22 @@ import OpenRate.OpenRate;
 import OpenRate.configurationmanager.ClientManager;
 import OpenRate.db.DBUtil;
 import OpenRate.exception.InitializationException;
+import OpenRate.lang.BoundedCache;
 import OpenRate.lang.ProductList;
 import OpenRate.logging.LogUtil;
 import OpenRate.utils.ConversionUtils;
 import OpenRate.utils.PropertyUtils;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -34,15 +41,31 @@ import java.util.concurrent.ConcurrentHashMap;
  * The "invalidate on duplicate" configuration will remove a whole alias key
  * from the cache in the case that a duplicate is found. This will mean that all
  * rating for the alias key will be rejected until the contention is removed.
+ *
+ * When the customer base is too big to hold in memory, the loading can be
+ * switched to on demand with "LoadMode" set to "OnDemand". Nothing is loaded
+ * at start up. A customer is read from the DB the first time one of its
+ * aliases is looked up, and the least recently used customers are evicted
+ * once "MaxCustomers" (default 100000) are held. Aliases that are not found
+ * are remembered too, so that unknown aliases do not go to the DB each time.
+ * In this mode two lookup queries are used instead of the select query:
+ *
+ * AliasLookupStatement: the CustIds of the alias given
+ * CustomerLookupStatement: the order lines of the CustId given, with the same
+ *   columns as above
+ *
+ * The aliases of a whole batch can be loaded together with prefetchAliases(),
+ * which the customer lookup plug in does before it processes a batch. The hit
+ * rate of the lookups is available through the "CacheStatistics" command.
  */
 public abstract class JBCustomerCache
     extends AbstractSyncLoaderCache
 {
   // Used to allow alias maps - takes an alias and maps to a poid.
-  private ConcurrentHashMap<String, validityNode> aliasCache;
+  private volatile ConcurrentHashMap<String, validityNode> aliasCache;
 
   // The CustIDCache holds the aliases for the account
-  private ConcurrentHashMap<Integer, CustInfo> custIDCache;
+  private volatile ConcurrentHashMap<Integer, CustInfo> custIDCache;
 
   // Conversion cache
   private ConversionUtils conv = new ConversionUtils();
@@ -69,6 +92,33 @@ public abstract class JBCustomerCache
   // List of Services that this Client supports
   private final static String SERVICE_INVALIDATE_DUPLICATE = "InvalidateDuplicates";
   private final static String SERVICE_DATE_FORMAT = "DateFormat";
+  private final static String SERVICE_STATISTICS = "CacheStatistics";
+
+  // The load modes
+  private final static String LOAD_MODE_FULL      = "Full";
+  private final static String LOAD_MODE_ON_DEMAND = "OnDemand";
+
+  // The default number of customers held in on demand mode
+  private final static int DEFAULT_MAX_CUSTOMERS = 100000;
+
+  // true if the customers are loaded on demand instead of at start up
+  private boolean onDemand = false;
+
+  // The customers and aliases held in on demand mode. An alias that is not
+  // known is held with an empty validity period.
+  private volatile BoundedCache<String, validityNode> aliasLru;
+  private volatile BoundedCache<Integer, CustInfo> custLru;
+
+ /**
+  * The lookup queries of the on demand mode, taking the alias or the customer
+  * ID as their parameter
+  */
+  protected String aliasLookupQuery;
+
+ /**
+  * The customer lookup query of the on demand mode
+  */
+  protected String customerLookupQuery;
 
  /**
   * The CustInfo structure holds the information about the customer account,
@@ -107,7 +157,7 @@ public abstract class JBCustomerCache
    * together in a sorted linked list. The sorting is done at insertion time
    * into the list, meaning that lookups at run time can be optimised.
    */
-  private class validityNode
+  private static class validityNode
   {
     long         ID;         // Required for managing updates
     long         TimeFrom;
@@ -117,6 +167,9 @@ public abstract class JBCustomerCache
     validityNode child = null;
   }
 
+  // Marks an alias that is not known in on demand mode
+  private static final validityNode UNKNOWN_ALIAS = new validityNode();
+
  /** Constructor
   * Creates a new instance of the Customer Cache. The Cache
   * contains all of the Customer IDs that have been cached.
@@ -141,7 +194,7 @@ public abstract class JBCustomerCache
   */
   public boolean getCustIdExists(int custID)
   {
-    return custIDCache.containsKey(custID);
+    return lookupCustInfo(custID) != null;
   }
 
  /**
@@ -156,12 +209,12 @@ public abstract class JBCustomerCache
     Integer custID = null;
     validityNode tmpValidityNode;
 
+    // get the start of the search tree
+    tmpValidityNode = lookupAlias(alias);
+
     // See if we already have AuditSegID for this customer
-    if (aliasCache.containsKey(alias))
+    if (tmpValidityNode != null)
     {
-      // get the start of the search tree
-      tmpValidityNode = aliasCache.get(alias);
-
       // Now that we have the Validity Map, get the entry
       while (tmpValidityNode != null)
       {
@@ -196,7 +249,7 @@ public abstract class JBCustomerCache
     int custID;
 
     // See if we already have ID for this customer
-    if (aliasCache.containsKey(alias))
+    if (lookupAlias(alias) != null)
     {
       // Get the poid from the Alias
       custID = getCustId(alias, CDRDate);
@@ -235,7 +288,7 @@ public abstract class JBCustomerCache
     tmpProductList = new ProductList();
 
     // Get the product information
-    tmpCustInfo = custIDCache.get(custID);
+    tmpCustInfo = lookupCustInfo(custID);
 
     // See if the CDR is within the period of validity
     if (tmpCustInfo != null)
@@ -289,12 +342,12 @@ public abstract class JBCustomerCache
   {
     CustInfo tmpCustInfo;
 
+    // Get the product information
+    tmpCustInfo = lookupCustInfo(CustId);
+
     // See if we already have ID for this customer
-    if (custIDCache.containsKey(CustId))
+    if (tmpCustInfo != null)
     {
-      // Get the product information
-      tmpCustInfo = custIDCache.get(CustId);
-
       return tmpCustInfo.balanceGroup;
     }
     else
@@ -306,6 +359,314 @@ public abstract class JBCustomerCache
     return 0;
   }
 
+ /**
+  * See if the customers are loaded on demand
+  *
+  * @return true if the customers are loaded on demand, false if they are all
+  * loaded at start up
+  */
+  public boolean isOnDemand()
+  {
+    return onDemand;
+  }
+
+ /**
+  * Load the customers of a batch of aliases in one go, so that the lookups of
+  * the batch find them in the cache instead of going to the DB one by one.
+  * Aliases that are already cached are skipped. Does nothing unless the
+  * customers are loaded on demand.
+  *
+  * @param aliases The aliases that are about to be looked up
+  */
+  public void prefetchAliases(Collection<String> aliases)
+  {
+    if (!onDemand)
+    {
+      return;
+    }
+
+    BoundedCache<String, validityNode> tmpAliasLru = aliasLru;
+    LinkedHashSet<String> missing = new LinkedHashSet<>();
+
+    for (String alias : aliases)
+    {
+      if (alias != null && !tmpAliasLru.containsKey(alias))
+      {
+        missing.add(alias);
+      }
+    }
+
+    if (missing.size() > 0)
+    {
+      loadAliasesOnDemand(missing);
+    }
+  }
+
+ /**
+  * Get the statistics of the on demand lookups
+  *
+  * @return The statistics, or a note that the customers are not loaded on
+  * demand
+  */
+  public String getStatistics()
+  {
+    if (!onDemand)
+    {
+      return "All customers loaded: " + custIDCache.size() + " customers, " + aliasCache.size() + " aliases";
+    }
+
+    BoundedCache<String, validityNode> tmpAliasLru = aliasLru;
+    BoundedCache<Integer, CustInfo> tmpCustLru = custLru;
+
+    return "Aliases: " + tmpAliasLru.size() + "/" + tmpAliasLru.getMaxSize() +
+           " hits: " + tmpAliasLru.getHits() +
+           " misses: " + tmpAliasLru.getMisses() +
+           " hit rate: " + String.format("%.3f", tmpAliasLru.getHitRate()) +
+           " evictions: " + tmpAliasLru.getEvictions() +
+           ", Customers: " + tmpCustLru.size() + "/" + tmpCustLru.getMaxSize() +
+           " hits: " + tmpCustLru.getHits() +
+           " misses: " + tmpCustLru.getMisses() +
+           " hit rate: " + String.format("%.3f", tmpCustLru.getHitRate()) +
+           " evictions: " + tmpCustLru.getEvictions();
+  }
+
+ /**
+  * Get the start of the validity list of an alias, loading it if the
+  * customers are loaded on demand and it is not cached
+  *
+  * @param alias The alias
+  * @return The first validity node, or null if the alias is not known
+  */
+  private validityNode lookupAlias(String alias)
+  {
+    if (!onDemand)
+    {
+      return aliasCache.get(alias);
+    }
+
+    validityNode tmpValidityNode = aliasLru.get(alias);
+
+    if (tmpValidityNode == null)
+    {
+      tmpValidityNode = loadAliasesOnDemand(Collections.singleton(alias)).get(alias);
+    }
+
+    return (tmpValidityNode == UNKNOWN_ALIAS) ? null : tmpValidityNode;
+  }
+
+ /**
+  * Get the entry of a customer, loading it if the customers are loaded on
+  * demand and it is not cached
+  *
+  * @param custId The customer ID
+  * @return The customer entry, or null if the customer is not known
+  */
+  private CustInfo lookupCustInfo(int custId)
+  {
+    if (!onDemand)
+    {
+      return custIDCache.get(custId);
+    }
+
+    CustInfo tmpCustInfo = custLru.get(custId);
+
+    if (tmpCustInfo == null)
+    {
+      OnDemandLoader loader = null;
+
+      try
+      {
+        loader = new OnDemandLoader();
+        tmpCustInfo = loader.loadCustomers(Collections.singleton(custId), new HashMap<String, validityNode>()).get(custId);
+      }
+      catch (InitializationException | SQLException ex)
+      {
+        OpenRate.getOpenRateFrameworkLog().error("Error loading customer <" + custId + "> on demand from <" + cacheDataSourceName + ">. message: <" + ex.getMessage() + ">");
+      }
+      finally
+      {
+        if (loader != null)
+        {
+          loader.close();
+        }
+      }
+    }
+
+    return tmpCustInfo;
+  }
+
+ /**
+  * Load the customers of a list of aliases on one connection, caching the
+  * aliases and customers found, and the aliases not found. If the DB fails,
+  * nothing more is cached, so that the aliases are tried again next time.
+  *
+  * @param aliases The aliases to load
+  * @return The validity lists of the aliases loaded
+  */
+  private HashMap<String, validityNode> loadAliasesOnDemand(Collection<String> aliases)
+  {
+    HashMap<String, validityNode> loaded = new HashMap<>();
+    OnDemandLoader loader = null;
+
+    try
+    {
+      loader = new OnDemandLoader();
+
+      for (String alias : aliases)
+      {
+        loaded.put(alias, loader.loadAlias(alias));
+      }
+    }
+    catch (InitializationException | SQLException ex)
+    {
+      OpenRate.getOpenRateFrameworkLog().error("Error loading aliases on demand from <" + cacheDataSourceName + ">. message: <" + ex.getMessage() + ">");
+    }
+    finally
+    {
+      if (loader != null)
+      {
+        loader.close();
+      }
+    }
+
+    return loaded;
+  }
+
+ /**
+  * Loads customers on demand on a connection of its own, which it holds until
+  * it is closed. The caches it fills are the ones current when it was opened,
+  * so that a snapshot reload does not receive customers of the old data. The
+  * customers are built completely before they are put into the cache.
+  */
+  private class OnDemandLoader
+  {
+    private final BoundedCache<String, validityNode> tmpAliasLru = aliasLru;
+    private final BoundedCache<Integer, CustInfo> tmpCustLru = custLru;
+    private final ConversionUtils tmpConv = new ConversionUtils();
+
+    private Connection        con;
+    private PreparedStatement stmtAlias;
+    private PreparedStatement stmtCustomer;
+
+    OnDemandLoader() throws InitializationException, SQLException
+    {
+      tmpConv.setInputDateFormat(conv.getInputDateFormat());
+
+      con = DBUtil.getConnection(cacheDataSourceName);
+
+      try
+      {
+        stmtAlias = con.prepareStatement(aliasLookupQuery);
+        stmtCustomer = con.prepareStatement(customerLookupQuery);
+      }
+      catch (SQLException ex)
+      {
+        close();
+        throw ex;
+      }
+    }
+
+   /**
+    * Load an alias and the customers it belongs to into the caches. All of
+    * the customers are loaded, so that the whole history of the alias is
+    * known.
+    *
+    * @param alias The alias
+    * @return The first validity node of the alias, or UNKNOWN_ALIAS
+    */
+    validityNode loadAlias(String alias) throws SQLException, InitializationException
+    {
+      HashMap<String, validityNode> tmpAliasCache = new HashMap<>();
+      LinkedHashSet<Integer> custIds = new LinkedHashSet<>();
+      validityNode tmpValidityNode;
+      ResultSet rs = null;
+
+      try
+      {
+        stmtAlias.setString(1, alias);
+        rs = stmtAlias.executeQuery();
+
+        while (rs.next())
+        {
+          custIds.add(rs.getInt(1));
+        }
+      }
+      finally
+      {
+        DBUtil.close(rs);
+      }
+
+      loadCustomers(custIds, tmpAliasCache);
+
+      tmpValidityNode = tmpAliasCache.get(alias);
+
+      if (tmpValidityNode == null)
+      {
+        tmpValidityNode = UNKNOWN_ALIAS;
+      }
+
+      tmpAliasLru.put(alias, tmpValidityNode);
+
+      return tmpValidityNode;
+    }
+
+   /**
+    * Load customers with their products into the cache
+    *
+    * @param custIds The customer IDs
+    * @param tmpAliasCache The map to collect the aliases of the customers in
+    * @return The customers loaded
+    */
+    HashMap<Integer, CustInfo> loadCustomers(Collection<Integer> custIds, HashMap<String, validityNode> tmpAliasCache)
+      throws SQLException, InitializationException
+    {
+      HashMap<Integer, CustInfo> tmpCustIDCache = new HashMap<>();
+      int       recordNumber = 0;
+      ResultSet rs = null;
+
+      for (Integer custId : custIds)
+      {
+        try
+        {
+          stmtCustomer.setInt(1, custId);
+          rs = stmtCustomer.executeQuery();
+
+          while (rs.next())
+          {
+            recordNumber++;
+            addOrderLine(rs, recordNumber, tmpConv, tmpAliasCache, tmpCustIDCache);
+          }
+        }
+        catch (NumberFormatException ex)
+        {
+          OpenRate.getOpenRateFrameworkLog().error("Data for customer <" + custId + "> is not correct. Customer not loaded. message: <" + ex.getMessage() + ">");
+          tmpCustIDCache.remove(custId);
+        }
+        finally
+        {
+          DBUtil.close(rs);
+        }
+      }
+
+      for (Map.Entry<Integer, CustInfo> entry : tmpCustIDCache.entrySet())
+      {
+        tmpCustLru.put(entry.getKey(), entry.getValue());
+      }
+
+      return tmpCustIDCache;
+    }
+
+   /**
+    * Close the statements and give the connection back
+    */
+    void close()
+    {
+      DBUtil.close(stmtAlias);
+      DBUtil.close(stmtCustomer);
+      DBUtil.close(con);
+    }
+  }
+
   // -----------------------------------------------------------------------------
   // -------------------- Start of data loading functions ------------------------
   // -----------------------------------------------------------------------------
@@ -366,21 +727,15 @@ public abstract class JBCustomerCache
   public void loadDataFromDB()
                       throws InitializationException
   {
-    int            custId;
-    String         orderId;
-    String         orderLineId;
-    String         alias;
-    String         description;
-    String         prodName;
-    String         service;
-    String         subscription;
     int            custLoaded = 0;
-    String         tmpStartDate;
-    String         tmpEndDate;
-    long           startDate = 0;
-    long           endDate = 0;
-    String         tmpQuantity;
-    int            quantity;
+
+    // In on demand mode the customers are loaded as they are looked up
+    if (onDemand)
+    {
+      OpenRate.getOpenRateFrameworkLog().info("Customer Cache <" + getSymbolicName() + "> loads on demand from <" +
+            cacheDataSourceName + ">, holding up to <" + custLru.getMaxSize() + "> customers");
+      return;
+    }
 
     // Log that we are starting the loading
     OpenRate.getOpenRateFrameworkLog().info("Starting Customer Cache Loading from DB for <" + getSymbolicName() + ">");
@@ -410,85 +765,7 @@ public abstract class JBCustomerCache
       while (mrs.next())
       {
         custLoaded++;
-        orderId = mrs.getString(1);
-        custId = mrs.getInt(2);
-        orderLineId = mrs.getString(3);
-        description = mrs.getString(4);
-        tmpStartDate = mrs.getString(5);
-        tmpEndDate = mrs.getString(6);
-        tmpQuantity = mrs.getString(7);
-
-        // parse the description
-        prodName = getProduct(description);
-        alias = getAlias(description);
-        service = getService(description);
-        subscription = getSubscription(description);
-
-        if (prodName == null)
-        {
-          OpenRate.getOpenRateFrameworkLog().warning("Record <" + description + "> skipped for customer <" + custId + "> order <" + orderId + ">. Product Name missing." );
-          continue;
-        }
-        if (alias == null)
-        {
-          OpenRate.getOpenRateFrameworkLog().warning("Record <" + description + "> skipped for customer <" + custId + "> order <" + orderId + ">. Alias missing." );
-          continue;
-        }
-        if (service == null)
-        {
-          OpenRate.getOpenRateFrameworkLog().warning("Record <" + description + "> skipped for customer <" + custId + "> order <" + orderId + ">. Service Name missing." );
-          continue;
-        }
-        if (subscription == null)
-        {
-          OpenRate.getOpenRateFrameworkLog().warning("Record <" + description + "> skipped for customer <" + custId + "> order <" + orderId + ">. Subscription missing." );
-          continue;
-        }
-
-        // parse the start date
-        try
-        {
-          if (tmpStartDate == null)
-          {
-            startDate = CommonConfig.LOW_DATE;
-          }
-          else
-          {
-            startDate = conv.convertInputDateToUTC(tmpStartDate);
-          }
-        }
-        catch (ParseException ex)
-        {
-          OpenRate.getOpenRateFrameworkLog().error("Start Date format for record <" + custLoaded + "> are not correct. Date <" + tmpStartDate + ">, format <" + conv.getInputDateFormat() + "> order <" + orderId + ">. Data discarded." );
-        }
-
-        // parse the end date
-        try
-        {
-          if (tmpEndDate == null)
-          {
-            endDate = CommonConfig.HIGH_DATE;
-          }
-          else
-          {
-            endDate  = conv.convertInputDateToUTC(tmpEndDate);
-          }
-        }
-        catch (ParseException ex)
-        {
-          OpenRate.getOpenRateFrameworkLog().error("End Date format for record <" + custLoaded + "> are not correct. Date <" + tmpEndDate + ">, format <" + conv.getInputDateFormat() + "> order <" + orderId + ">. Data discarded." );
-        }
-
-        // parse the Quantity
-        quantity = Integer.parseInt(tmpQuantity);
-
-        // print the information to the log
-        OpenRate.getOpenRateFrameworkLog().info("Adding service ID <" + alias + "> to account <" + custId + "> with product <" + prodName + "> validity <" + tmpStartDate + " (" + startDate + ") - " + tmpEndDate + " (" + endDate + ")>, Qty: <" + quantity + "> order <" + orderId + ">.");
-
-        // Add the map
-        addAlias(alias,custId,startDate,endDate);
-        addCustId(custId,CommonConfig.LOW_DATE,CommonConfig.HIGH_DATE,0);
-        addCPI(custId, service, subscription, prodName, startDate, endDate, Integer.parseInt(orderId), Integer.parseInt(orderLineId),quantity);
+        addOrderLine(mrs, custLoaded, conv, aliasCache, custIDCache);
       }
     }
     catch (SQLException ex)
@@ -518,6 +795,120 @@ public abstract class JBCustomerCache
     OpenRate.getOpenRateFrameworkLog().info("Products Loaded:  " + custLoaded);
   }
 
+ /**
+  * Add an order line of the customer data query to the given alias and
+  * customer maps, which are the cache itself or the data of the customers
+  * loaded on demand.
+  *
+  * @param rs The result set, positioned on the order line
+  * @param recordNumber The number of the order line, for the error messages
+  * @param tmpConv The date conversion to use
+  * @param tmpAliasCache The alias map to add to
+  * @param tmpCustIDCache The customer map to add to
+  * @throws SQLException
+  * @throws InitializationException
+  */
+  private void addOrderLine(ResultSet rs, int recordNumber, ConversionUtils tmpConv,
+                               Map<String, validityNode> tmpAliasCache,
+                               Map<Integer, CustInfo> tmpCustIDCache)
+    throws SQLException, InitializationException
+  {
+    int            custId;
+    String         orderId;
+    String         orderLineId;
+    String         alias;
+    String         description;
+    String         prodName;
+    String         service;
+    String         subscription;
+    String         tmpStartDate;
+    String         tmpEndDate;
+    long           startDate = 0;
+    long           endDate = 0;
+    String         tmpQuantity;
+    int            quantity;
+
+    orderId = rs.getString(1);
+    custId = rs.getInt(2);
+    orderLineId = rs.getString(3);
+    description = rs.getString(4);
+    tmpStartDate = rs.getString(5);
+    tmpEndDate = rs.getString(6);
+    tmpQuantity = rs.getString(7);
+
+    // parse the description
+    prodName = getProduct(description);
+    alias = getAlias(description);
+    service = getService(description);
+    subscription = getSubscription(description);
+
+    if (prodName == null)
+    {
+      OpenRate.getOpenRateFrameworkLog().warning("Record <" + description + "> skipped for customer <" + custId + "> order <" + orderId + ">. Product Name missing." );
+      return;
+    }
+    if (alias == null)
+    {
+      OpenRate.getOpenRateFrameworkLog().warning("Record <" + description + "> skipped for customer <" + custId + "> order <" + orderId + ">. Alias missing." );
+      return;
+    }
+    if (service == null)
+    {
+      OpenRate.getOpenRateFrameworkLog().warning("Record <" + description + "> skipped for customer <" + custId + "> order <" + orderId + ">. Service Name missing." );
+      return;
+    }
+    if (subscription == null)
+    {
+      OpenRate.getOpenRateFrameworkLog().warning("Record <" + description + "> skipped for customer <" + custId + "> order <" + orderId + ">. Subscription missing." );
+      return;
+    }
+
+    // parse the start date
+    try
+    {
+      if (tmpStartDate == null)
+      {
+        startDate = CommonConfig.LOW_DATE;
+      }
+      else
+      {
+        startDate = tmpConv.convertInputDateToUTC(tmpStartDate);
+      }
+    }
+    catch (ParseException ex)
+    {
+      OpenRate.getOpenRateFrameworkLog().error("Start Date format for record <" + recordNumber + "> are not correct. Date <" + tmpStartDate + ">, format <" + tmpConv.getInputDateFormat() + "> order <" + orderId + ">. Data discarded." );
+    }
+
+    // parse the end date
+    try
+    {
+      if (tmpEndDate == null)
+      {
+        endDate = CommonConfig.HIGH_DATE;
+      }
+      else
+      {
+        endDate  = tmpConv.convertInputDateToUTC(tmpEndDate);
+      }
+    }
+    catch (ParseException ex)
+    {
+      OpenRate.getOpenRateFrameworkLog().error("End Date format for record <" + recordNumber + "> are not correct. Date <" + tmpEndDate + ">, format <" + tmpConv.getInputDateFormat() + "> order <" + orderId + ">. Data discarded." );
+    }
+
+    // parse the Quantity
+    quantity = Integer.parseInt(tmpQuantity);
+
+    // print the information to the log
+    OpenRate.getOpenRateFrameworkLog().info("Adding service ID <" + alias + "> to account <" + custId + "> with product <" + prodName + "> validity <" + tmpStartDate + " (" + startDate + ") - " + tmpEndDate + " (" + endDate + ")>, Qty: <" + quantity + "> order <" + orderId + ">.");
+
+    // Add the map
+    addAlias(tmpAliasCache,alias,custId,startDate,endDate);
+    addCustId(tmpCustIDCache,custId,CommonConfig.LOW_DATE,CommonConfig.HIGH_DATE,0);
+    addCPI(tmpCustIDCache,custId, service, subscription, prodName, startDate, endDate, Integer.parseInt(orderId), Integer.parseInt(orderLineId),quantity);
+  }
+
  /**
   * Load the data from the defined Data Source Method
   */
@@ -536,6 +927,29 @@ public abstract class JBCustomerCache
   {
     custIDCache.clear();
     aliasCache.clear();
+
+    if (onDemand)
+    {
+      custLru.clear();
+      aliasLru.clear();
+    }
+  }
+
+ /**
+  * Take over the data of a snapshot loaded in the background. The
+  * custIDCache is referred to by the aliasCache, so it is taken over first.
+  *
+  * @param snapshot The loaded snapshot
+  */
+  @Override
+  protected void publishSnapshot(AbstractSyncLoaderCache snapshot)
+  {
+    JBCustomerCache loaded = (JBCustomerCache) snapshot;
+
+    custIDCache = loaded.custIDCache;
+    aliasCache = loaded.aliasCache;
+    custLru = loaded.custLru;
+    aliasLru = loaded.aliasLru;
   }
 
  /**
@@ -551,6 +965,15 @@ public abstract class JBCustomerCache
   * @param validTo The end date of the validity
   */
   public void addAlias(String alias, int custId,long validFrom,long validTo)
+  {
+    addAlias(aliasCache,alias,custId,validFrom,validTo);
+  }
+
+ /**
+  * Add an alias to the given alias map, which is the cache itself or the
+  * aliases of the customers loaded on demand.
+  */
+  private void addAlias(Map<String, validityNode> tmpAliasCache, String alias, int custId,long validFrom,long validTo)
   {
     validityNode NewNode;
     validityNode tmpValidityNode;
@@ -567,7 +990,7 @@ public abstract class JBCustomerCache
     }
 
     // Now add the validity segment into the ArrayList
-    if (!aliasCache.containsKey(alias))
+    if (!tmpAliasCache.containsKey(alias))
     {
       // We do not know this alias - Create the new ArrayList
       tmpValidityNode = new validityNode();
@@ -579,7 +1002,7 @@ public abstract class JBCustomerCache
       //NewNode.SubId = subID;
 
       // Add in the new node
-      aliasCache.put(alias, tmpValidityNode);
+      tmpAliasCache.put(alias, tmpValidityNode);
 
       // mark that we have done the work
       insertedEntry = true;
@@ -587,7 +1010,7 @@ public abstract class JBCustomerCache
     else
     {
       // Recover the validity map that there is
-      tmpValidityNode = aliasCache.get(alias);
+      tmpValidityNode = tmpAliasCache.get(alias);
 
       // now run down the validity periods until we find the right position
       while (tmpValidityNode != null)
@@ -642,7 +1065,7 @@ public abstract class JBCustomerCache
       if (invalidateOnDuplicate)
       {
         // remove the whole key that we couldn't add.
-        aliasCache.remove(alias);
+        tmpAliasCache.remove(alias);
         OpenRate.getOpenRateFrameworkLog().error("Alias ID <" + alias + "> already exists for time <" + validFrom + "-" + validTo + ">. Removed key.");
       }
       else
@@ -664,11 +1087,19 @@ public abstract class JBCustomerCache
   * @param balanceGroup The ID of the counter balance group
   */
   public void addCustId(int custId,long validFrom,long validTo,int balanceGroup)
+  {
+    addCustId(custIDCache,custId,validFrom,validTo,balanceGroup);
+  }
+
+ /**
+  * Add a Customer object to the given customer map.
+  */
+  private void addCustId(Map<Integer, CustInfo> tmpCustIDCache, int custId,long validFrom,long validTo,int balanceGroup)
   {
     CustInfo tmpCustInfo;
 
     // See if we already have ID for this customer
-    if (!custIDCache.containsKey(custId))
+    if (!tmpCustIDCache.containsKey(custId))
     {
       // Create the new entry for the customer ID
       tmpCustInfo = new CustInfo();
@@ -676,7 +1107,7 @@ public abstract class JBCustomerCache
       tmpCustInfo.UTCValidFrom = validFrom;
       tmpCustInfo.UTCValidTo   = validTo;
       tmpCustInfo.balanceGroup = balanceGroup;
-      custIDCache.put(custId,tmpCustInfo);
+      tmpCustIDCache.put(custId,tmpCustInfo);
     }
   }
 
@@ -694,15 +1125,23 @@ public abstract class JBCustomerCache
   * @param quantity The order line quantity
   */
   public void addCPI(int custId, String service, String subscription, String prodID, long validFrom, long validTo, int orderId, int orderLineId, int quantity)
+  {
+    addCPI(custIDCache,custId,service,subscription,prodID,validFrom,validTo,orderId,orderLineId,quantity);
+  }
+
+ /**
+  * Add a CPI value to a customer of the given customer map.
+  */
+  private void addCPI(Map<Integer, CustInfo> tmpCustIDCache, int custId, String service, String subscription, String prodID, long validFrom, long validTo, int orderId, int orderLineId, int quantity)
   {
     CustInfo tmpCustInfo;
     CustProductInfo tmpCPI;
 
     // See if we already have ID for this customer
-    if (custIDCache.containsKey(custId))
+    if (tmpCustIDCache.containsKey(custId))
     {
       // Create the new entry for the customer ID
-      tmpCustInfo = custIDCache.get(custId);
+      tmpCustInfo = tmpCustIDCache.get(custId);
       tmpCPI = new CustProductInfo();
       tmpCPI.Service = service;
       tmpCPI.Subscription = subscription;
@@ -769,6 +1208,25 @@ public abstract class JBCustomerCache
   @Override
   protected boolean getDataStatements(String ResourceName, String CacheName) throws InitializationException
   {
+    String tmpLoadMode;
+
+    // See if we are loading on demand
+    tmpLoadMode = PropertyUtils.getPropertyUtils().getDataCachePropertyValueDef(ResourceName,
+                                                                CacheName,
+                                                                "LoadMode",
+                                                                LOAD_MODE_FULL);
+
+    if (tmpLoadMode.equalsIgnoreCase(LOAD_MODE_ON_DEMAND))
+    {
+      return getLookupStatements(ResourceName, CacheName);
+    }
+    else if (!tmpLoadMode.equalsIgnoreCase(LOAD_MODE_FULL))
+    {
+      message = "LoadMode for <" + getSymbolicName() + "> must be <" + LOAD_MODE_FULL +
+                "> or <" + LOAD_MODE_ON_DEMAND + ">, found <" + tmpLoadMode + ">";
+      throw new InitializationException(message,getSymbolicName());
+    }
+
     CustomerDataSelectQuery = PropertyUtils.getPropertyUtils().getDataCachePropertyValueDef(ResourceName,
                                                                         CacheName,
                                                                         "CustomerSelectStatement",
@@ -783,6 +1241,77 @@ public abstract class JBCustomerCache
     }
   }
 
+ /**
+  * Get the lookup statements and the size of the on demand mode, and create
+  * the caches the customers are loaded into
+  *
+  * @param ResourceName The name of the resource to load for
+  * @param CacheName The name of the cache to load for
+  * @return True if the statements were found
+  * @throws InitializationException
+  */
+  protected boolean getLookupStatements(String ResourceName, String CacheName) throws InitializationException
+  {
+    String tmpMaxCustomers;
+    int    maxCustomers;
+
+    aliasLookupQuery = getLookupStatement(ResourceName, CacheName, "AliasLookupStatement");
+    customerLookupQuery = getLookupStatement(ResourceName, CacheName, "CustomerLookupStatement");
+
+    tmpMaxCustomers = PropertyUtils.getPropertyUtils().getDataCachePropertyValueDef(ResourceName,
+                                                                    CacheName,
+                                                                    "MaxCustomers",
+                                                                    Integer.toString(DEFAULT_MAX_CUSTOMERS));
+
+    try
+    {
+      maxCustomers = Integer.parseInt(tmpMaxCustomers);
+    }
+    catch (NumberFormatException ex)
+    {
+      message = "MaxCustomers for <" + getSymbolicName() + "> must be a number, found <" + tmpMaxCustomers + ">";
+      throw new InitializationException(message,getSymbolicName());
+    }
+
+    if (maxCustomers < 1)
+    {
+      message = "MaxCustomers for <" + getSymbolicName() + "> must be at least 1, found <" + tmpMaxCustomers + ">";
+      throw new InitializationException(message,getSymbolicName());
+    }
+
+    // Each customer has at least one alias
+    custLru = new BoundedCache<>(maxCustomers);
+    aliasLru = new BoundedCache<>(maxCustomers);
+    onDemand = true;
+
+    return true;
+  }
+
+ /**
+  * Get a lookup statement of the on demand mode, which must be defined
+  *
+  * @param ResourceName The name of the resource to load for
+  * @param CacheName The name of the cache to load for
+  * @param PropertyName The name of the statement
+  * @return The statement
+  * @throws InitializationException
+  */
+  private String getLookupStatement(String ResourceName, String CacheName, String PropertyName) throws InitializationException
+  {
+    String query = PropertyUtils.getPropertyUtils().getDataCachePropertyValueDef(ResourceName,
+                                                                 CacheName,
+                                                                 PropertyName,
+                                                                 "None");
+
+    if (query.equalsIgnoreCase("None"))
+    {
+      message = "<" + PropertyName + "> for <" + getSymbolicName() + "> missing.";
+      throw new InitializationException(message,getSymbolicName());
+    }
+
+    return query;
+  }
+
   /**
   * PrepareStatements creates the statements from the SQL expressions
   * so that they can be run as needed.
@@ -826,6 +1355,7 @@ public abstract class JBCustomerCache
 
     //Register services for this Client
     ClientManager.getClientManager().registerClientService(getSymbolicName(), SERVICE_INVALIDATE_DUPLICATE, ClientManager.PARAM_NONE);
+    ClientManager.getClientManager().registerClientService(getSymbolicName(), SERVICE_STATISTICS, ClientManager.PARAM_DYNAMIC);
   }
 
  /**
@@ -844,6 +1374,11 @@ public abstract class JBCustomerCache
   {
     int         ResultCode = -1;
 
+    if (Command.equalsIgnoreCase(SERVICE_STATISTICS))
+    {
+      return getStatistics();
+    }
+
     // Set the status of the invalidate duplicates
     if (Command.equalsIgnoreCase(SERVICE_INVALIDATE_DUPLICATE))
     {
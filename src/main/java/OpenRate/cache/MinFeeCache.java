@@ -20,7 +20,7 @@ public class MinFeeCache
  /**
   * This stores all the cacheable data
   */
-  protected HashMap<String, String> MinFeeCache;
+  protected volatile HashMap<String, String> MinFeeCache;
 
 
 /** Constructor
@@ -236,5 +236,16 @@ public class MinFeeCache
   {
     MinFeeCache.clear();
   }
+
+ /**
+  * Take over the data of a snapshot loaded in the background
+  *
+  * @param snapshot The loaded snapshot
+  */
+  @Override
+  protected void publishSnapshot(AbstractSyncLoaderCache snapshot)
+  {
+    MinFeeCache = ((MinFeeCache) snapshot).MinFeeCache;
+  }
 }
 
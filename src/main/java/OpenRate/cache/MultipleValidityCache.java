@@ -6,6 +6,7 @@ import OpenRate.OpenRate;
 import OpenRate.configurationmanager.ClientManager;
 import OpenRate.db.DBUtil;
 import OpenRate.exception.InitializationException;
+import OpenRate.lang.ValidityTimeline;
 import OpenRate.logging.LogUtil;
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
@@ -68,21 +69,10 @@ import java.util.Iterator;
 public class MultipleValidityCache
      extends AbstractSyncLoaderCache
 {
-  // This stores the index to all the groups.
-  private HashMap<String, HashMap<String, ValidityNode>> GroupCache;
-
- /**
-  * A ValidityNode is a segment of validity of a resource. These are chained
-  * together in a sorted linked list. The sorting is done at insertion time
-  * into the list, meaning that lookups at run time can be optimised.
-  */
-  private class ValidityNode
-  {
-    long              timeFrom;
-    long              timeTo;
-    ArrayList<String> results = null;
-    ValidityNode      child = null;
-  }
+  // This stores the index to all the groups. Each resource has a timeline of
+  // its validity entries, in the order that they were loaded, which is the
+  // order that matches are returned in.
+  private volatile HashMap<String, HashMap<String, ValidityTimeline<ArrayList<String>>>> GroupCache;
 
   // List of Services that this Client supports
   private final static String SERVICE_GROUP_COUNT = "GroupCount";
@@ -109,8 +99,9 @@ public class MultipleValidityCache
  /**
   * Add a value into the Validity Segment Cache, defining the result
   * value that should be returned in the case of a match.
-  * The entries are ordered during the loading in a linked list sorted by
-  * validity date. This makes the search at run time easier.
+  * The entries are kept in the order that they are loaded, and indexed by
+  * validity date on the first search, which makes the search at run time
+  * easier.
   *
   * @param group The data group to add the entry to
   * @param resourceID The resourceID of the entry to add
@@ -121,9 +112,8 @@ public class MultipleValidityCache
   public void addEntry(String group, String resourceID, long startTime,
                        long endTime, ArrayList<String> results)
   {
-    HashMap<String, ValidityNode>      tmpResourceCache;
-    ValidityNode tmpValidityNode;
-    ValidityNode newNode;
+    HashMap<String, ValidityTimeline<ArrayList<String>>> tmpResourceCache;
+    ValidityTimeline<ArrayList<String>> tmpTimeline;
 
     // See if we already have the group cache for this Group
     if (!GroupCache.containsKey(group))
@@ -140,43 +130,21 @@ public class MultipleValidityCache
       tmpResourceCache = GroupCache.get(group);
     }
 
-    // Now add the validity segment into the list, checking only the start
-    // time (thuis avoiding the overlap detection
-    if (!tmpResourceCache.containsKey(resourceID))
-    {
-      // Create the new list
-      tmpValidityNode = new ValidityNode();
-      tmpValidityNode.timeFrom = startTime;
-      tmpValidityNode.timeTo = endTime;
-      tmpValidityNode.results = results;
-      tmpValidityNode.child = null;
-
-      // Add in the new node
-      tmpResourceCache.put(resourceID, tmpValidityNode);
-    }
-    else
-    {
-      // Recover the validity map that there is
-      tmpValidityNode = tmpResourceCache.get(resourceID);
-
-      // now run down the validity entries until we get to the end
-      while (tmpValidityNode.child != null)
-      {
-        tmpValidityNode = tmpValidityNode.child;
-      }
-
-      // add the node - we don't care about order
-      newNode = new ValidityNode();
+    // Now add the validity segment into the timeline, without checking the
+    // times (thus avoiding the overlap detection)
+    tmpTimeline = tmpResourceCache.get(resourceID);
 
-      // move the information over
-      newNode.timeFrom = startTime;
-      newNode.timeTo = endTime;
-      newNode.results = results;
-      newNode.child = null;
+    if (tmpTimeline == null)
+    {
+      // Create the new timeline
+      tmpTimeline = new ValidityTimeline<>();
 
-      // add the new information to the tail of the list
-      tmpValidityNode.child = newNode;
+      // Add in the new timeline
+      tmpResourceCache.put(resourceID, tmpTimeline);
     }
+
+    // add the new information to the tail - we don't care about order
+    tmpTimeline.add(startTime, endTime, results);
   }
 
  /**
@@ -190,31 +158,18 @@ public class MultipleValidityCache
   */
   public String getFirstValidityMatch(String group, String resourceID, long time)
   {
-    HashMap<String,ValidityNode> tmpResourceCache;
-    ValidityNode                 tmpValidityNode;
+    ArrayList<String> Value;
 
-    // Get the service if we know it
-    tmpResourceCache = GroupCache.get(group);
+    Value = getFirstValidityMatchWithChildData(group, resourceID, time);
 
-    if (tmpResourceCache != null)
+    if (Value == null)
     {
-      tmpValidityNode = tmpResourceCache.get(resourceID);
-
-      // Now that we have the Validity Map, get the entry
-      while (tmpValidityNode != null)
-      {
-        if ((tmpValidityNode.timeFrom <= time) &
-            (tmpValidityNode.timeTo > time))
-        {
-          return tmpValidityNode.results.get(0);
-        }
-
-        // Move down the map
-        tmpValidityNode = tmpValidityNode.child;
-      }
+      return NO_VALIDITY_MATCH;
+    }
+    else
+    {
+      return Value.get(0);
     }
-
-    return NO_VALIDITY_MATCH;
   }
 
  /**
@@ -228,32 +183,22 @@ public class MultipleValidityCache
   */
   public ArrayList<String> getFirstValidityMatchWithChildData(String group, String resourceID, long time)
   {
-    HashMap<String,ValidityNode> tmpResourceCache;
-    ValidityNode   			     tmpValidityNode;
-    ArrayList<String> Value = null;
+    ValidityTimeline<ArrayList<String>> tmpTimeline;
+    int                                 position;
 
-    // Get the service if we know it
-    tmpResourceCache = GroupCache.get(group);
+    tmpTimeline = getTimeline(group, resourceID);
 
-    if (tmpResourceCache != null)
+    if (tmpTimeline != null)
     {
-      tmpValidityNode = tmpResourceCache.get(resourceID);
+      position = tmpTimeline.findFirst(time);
 
-      // Now that we have the Validity Map, get the entry
-      while (tmpValidityNode != null)
+      if (position >= 0)
       {
-        if ((tmpValidityNode.timeFrom <= time) &
-            (tmpValidityNode.timeTo > time))
-        {
-          return tmpValidityNode.results;
-        }
-
-        // Move down the map
-        tmpValidityNode = tmpValidityNode.child;
+        return tmpTimeline.getValue(position);
       }
     }
 
-    return Value;
+    return null;
   }
 
  /**
@@ -267,29 +212,17 @@ public class MultipleValidityCache
   */
   public ArrayList<String> getAllValidityMatches(String group, String resourceID, long time)
   {
-    HashMap<String,ValidityNode> tmpResourceCache;
-    ValidityNode      			 tmpValidityNode;
+    ValidityTimeline<ArrayList<String>> tmpTimeline;
     ArrayList<String> returnValue = new ArrayList<>();
 
-    // Get the service if we know it
-    tmpResourceCache = GroupCache.get(group);
+    tmpTimeline = getTimeline(group, resourceID);
 
-    if (tmpResourceCache != null)
+    if (tmpTimeline != null)
     {
-      tmpValidityNode = tmpResourceCache.get(resourceID);
-
-      // Now that we have the Validity Map, get the entry
-      while (tmpValidityNode != null)
+      for (int position : tmpTimeline.findAll(time))
       {
-        if ((tmpValidityNode.timeFrom <= time) &
-            (tmpValidityNode.timeTo > time))
-        {
-          // Add the value to the results list
-          returnValue.add(tmpValidityNode.results.get(0));
-        }
-
-        // Move down the map
-        tmpValidityNode = tmpValidityNode.child;
+        // Add the value to the results list
+        returnValue.add(tmpTimeline.getValue(position).get(0));
       }
     }
 
@@ -307,35 +240,45 @@ public class MultipleValidityCache
   */
   public ArrayList<ArrayList<String>> getAllValidityMatchesWithChildData(String group, String resourceID, long time)
   {
-    HashMap<String,ValidityNode> tmpResourceCache;
-    ValidityNode                 tmpValidityNode;
+    ValidityTimeline<ArrayList<String>> tmpTimeline;
     ArrayList<ArrayList<String>> returnValue = new ArrayList<>();
 
-    // Get the service if we know it
-    tmpResourceCache = GroupCache.get(group);
+    tmpTimeline = getTimeline(group, resourceID);
 
-    if (tmpResourceCache != null)
+    if (tmpTimeline != null)
     {
-      tmpValidityNode = tmpResourceCache.get(resourceID);
-
-      // Now that we have the Validity Map, get the entry
-      while (tmpValidityNode != null)
+      for (int position : tmpTimeline.findAll(time))
       {
-        if ((tmpValidityNode.timeFrom <= time) &
-            (tmpValidityNode.timeTo > time))
-        {
-          // Add the value to the results list
-          returnValue.add(tmpValidityNode.results);
-        }
-
-        // Move down the map
-        tmpValidityNode = tmpValidityNode.child;
+        // Add the value to the results list
+        returnValue.add(tmpTimeline.getValue(position));
       }
     }
 
     return returnValue;
   }
 
+ /**
+  * Get the validity timeline of the resourceID in the given group
+  *
+  * @param group The resource group to search in
+  * @param resourceID The resource identifier to search for
+  * @return The timeline, or null if the resource is not known
+  */
+  private ValidityTimeline<ArrayList<String>> getTimeline(String group, String resourceID)
+  {
+    HashMap<String, ValidityTimeline<ArrayList<String>>> tmpResourceCache;
+
+    // Get the service if we know it
+    tmpResourceCache = GroupCache.get(group);
+
+    if (tmpResourceCache == null)
+    {
+      return null;
+    }
+
+    return tmpResourceCache.get(resourceID);
+  }
+
 // -----------------------------------------------------------------------------
 // ------------------ Start of inherited Plug In functions ---------------------
 // -----------------------------------------------------------------------------
@@ -722,7 +665,7 @@ public class MultipleValidityCache
   public String processControlEvent(String command, boolean init,
                                     String parameter)
   {
-    HashMap<String,ValidityNode> tmpResource;
+    HashMap<String, ValidityTimeline<ArrayList<String>>> tmpResource;
     Collection<String>           tmpGroups;
     Iterator<String>             groupIter;
     String                       tmpGroupName;
@@ -770,5 +713,16 @@ public class MultipleValidityCache
   {
     GroupCache.clear();
   }
+
+ /**
+  * Take over the data of a snapshot loaded in the background
+  *
+  * @param snapshot The loaded snapshot
+  */
+  @Override
+  protected void publishSnapshot(AbstractSyncLoaderCache snapshot)
+  {
+    GroupCache = ((MultipleValidityCache) snapshot).GroupCache;
+  }
 }
 
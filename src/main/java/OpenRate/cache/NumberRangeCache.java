@@ -7,6 +7,7 @@ import OpenRate.OpenRate;
 import OpenRate.configurationmanager.ClientManager;
 import OpenRate.db.DBUtil;
 import OpenRate.exception.InitializationException;
+import OpenRate.lang.ValidityTimeline;
 import OpenRate.logging.LogUtil;
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
@@ -38,6 +39,13 @@ import java.util.Iterator;
  * "Range From" must always be less than or equal to "Range To". Overlapping
  * ranges in a group are not allowed.
  *
+ * The entries of a group are held in a list, and the list order decides which
+ * entry is returned if more than one matches, for example a range with
+ * overlapping validity periods. Once the loading is complete, each group is
+ * indexed in a ValidityTimeline over the numbers, in list order. A search only
+ * visits the entries that hold the number, and takes the first of them in
+ * list order that is valid at the date.
+ *
  * Loading from a file:
  * --------------------
  *   Define "DataSourecType" as "File"
@@ -65,13 +73,44 @@ public class NumberRangeCache
     ArrayList<String> Results;
   }
 
+  // The entries of a group
+  private class RangeGroup
+  {
+    // the list of the ranges, in search order
+    RangeItem firstRange;
+    RangeItem lastRange;
+
+    // the highest range start in the list
+    long maxRangeFrom;
+
+    // the index over the list, or null if it has to be built
+    volatile ValidityTimeline<RangeItem> index;
+  }
+
+  // Matches the ranges that are valid at a date
+  private static class ValidAt implements ValidityTimeline.Matcher<RangeItem>
+  {
+    private final long UTCDate;
+
+    ValidAt(long UTCDate)
+    {
+      this.UTCDate = UTCDate;
+    }
+
+    @Override
+    public boolean matches(RangeItem item)
+    {
+      return (item.ValidityFrom <= UTCDate) && (item.ValidityTo > UTCDate);
+    }
+  }
+
   /**
    * This stores the index to all the groups. Groups are used to subdivide the
    * entries in the cache in order that we do not need to search through all
    * the global possibilities to find ours. We only have to search through the
    * group of similar entries.
    */
-  private HashMap<String, RangeItem> GroupCache;
+  private volatile HashMap<String, RangeGroup> GroupCache;
 
   // List of Services that this Client supports
   private final static String SERVICE_OBJECT_COUNT = "ObjectCount";
@@ -112,6 +151,7 @@ public class NumberRangeCache
   public void addEntry(String Group, long RangeFrom, long RangeTo, long ValidityFrom, long ValidityTo, ArrayList<String> Results)
           throws InitializationException
   {
+    RangeGroup tmpRangeGroup;
     RangeItem tmpRangeItem;
     RangeItem newRangeItem;
     RangeItem tmpRangeNextNode;
@@ -160,70 +200,86 @@ public class NumberRangeCache
       tmpVT = CommonConfig.HIGH_DATE;
     }
 
+    // Create the new range
+    newRangeItem = new RangeItem();
+    newRangeItem.RangeFrom = tmpRF;
+    newRangeItem.RangeTo = tmpRT;
+    newRangeItem.ValidityFrom = tmpVF;
+    newRangeItem.ValidityTo = tmpVT;
+    newRangeItem.Results = Results;
+
     // Get/Create the group cache
-    if (GroupCache.containsKey(Group))
+    tmpRangeGroup = GroupCache.get(Group);
+
+    if (tmpRangeGroup == null)
     {
-      tmpRangeItem = GroupCache.get(Group);
+      // create the new group and initialise
+      tmpRangeGroup = new RangeGroup();
+      tmpRangeGroup.firstRange = newRangeItem;
+      tmpRangeGroup.lastRange = newRangeItem;
+      tmpRangeGroup.maxRangeFrom = tmpRF;
+      GroupCache.put(Group, tmpRangeGroup);
+
+      return;
+    }
+
+    // the index has to be rebuilt
+    tmpRangeGroup.index = null;
 
-      // now run down the ranges until we find the right position
-      while (tmpRangeItem != null)
+    if (tmpRF > tmpRangeGroup.maxRangeFrom)
+    {
+      // starts after all of the others, so the search below would take us to
+      // the tail of the list. Ranges are usually loaded in order, so this
+      // saves running down the whole list for each of them.
+      tmpRangeGroup.lastRange.nextRange = newRangeItem;
+      tmpRangeGroup.lastRange = newRangeItem;
+      tmpRangeGroup.maxRangeFrom = tmpRF;
+
+      return;
+    }
+
+    // now run down the ranges until we find the right position
+    tmpRangeItem = tmpRangeGroup.firstRange;
+
+    while (tmpRangeItem != null)
+    {
+      tmpRangeNextNode = tmpRangeItem.nextRange;
+
+      if ((tmpRF > tmpRangeItem.RangeFrom) &
+          (tmpRangeNextNode == null))
       {
-        tmpRangeNextNode = tmpRangeItem.nextRange;
+        // insert at the tail of the list if we are able
+        tmpRangeItem.nextRange = newRangeItem;
+        tmpRangeGroup.lastRange = newRangeItem;
+        tmpRangeGroup.maxRangeFrom = Math.max(tmpRangeGroup.maxRangeFrom, tmpRF);
 
-        if ((tmpRF > tmpRangeItem.RangeFrom) &
-            (tmpRangeNextNode == null))
-        {
-          // insert at the tail of the list if we are able
-          newRangeItem = new RangeItem();
-          newRangeItem.RangeFrom = tmpRF;
-          newRangeItem.RangeTo = tmpRT;
-          newRangeItem.ValidityFrom = tmpVF;
-          newRangeItem.ValidityTo = tmpVT;
-          newRangeItem.Results = Results;
-
-          // Link to the previous range
-          tmpRangeItem.nextRange = newRangeItem;
-
-          // done
-          return;
-        }
-        else if (tmpRF < tmpRangeItem.RangeFrom)
+        // done
+        return;
+      }
+      else if (tmpRF < tmpRangeItem.RangeFrom)
+      {
+        // insert at the head/middle of the list
+        newRangeItem.nextRange = tmpRangeItem.nextRange;
+        tmpRangeItem.nextRange = newRangeItem;
+
+        if (newRangeItem.nextRange == null)
         {
-          // insert at the head/middle of the list
-          newRangeItem = new RangeItem();
-          newRangeItem.RangeFrom = tmpRF;
-          newRangeItem.RangeTo = tmpRT;
-          newRangeItem.ValidityFrom = tmpVF;
-          newRangeItem.ValidityTo = tmpVT;
-          newRangeItem.Results = Results;
-          newRangeItem.nextRange = tmpRangeItem.nextRange;
-          tmpRangeItem.nextRange = newRangeItem;
-
-          // done
-          return;
+          tmpRangeGroup.lastRange = newRangeItem;
         }
 
-        // Move down the map
-        tmpRangeItem = tmpRangeItem.nextRange;
+        // done
+        return;
       }
 
-      // If we get here, we could not insert the period
-      message = "Range From <" + RangeFrom +
-              "> to <" + RangeTo + "> overlaps with another range in group <" +
-              Group + ">";
-      throw new InitializationException(message,getSymbolicName());
-    }
-    else
-    {
-      // create the new group and initialise
-      tmpRangeItem = new RangeItem();
-      tmpRangeItem.RangeFrom = tmpRF;
-      tmpRangeItem.RangeTo = tmpRT;
-      tmpRangeItem.ValidityFrom = tmpVF;
-      tmpRangeItem.ValidityTo = tmpVT;
-      tmpRangeItem.Results = Results;
-      GroupCache.put(Group, tmpRangeItem);
+      // Move down the map
+      tmpRangeItem = tmpRangeItem.nextRange;
     }
+
+    // If we get here, we could not insert the period
+    message = "Range From <" + RangeFrom +
+            "> to <" + RangeTo + "> overlaps with another range in group <" +
+            Group + ">";
+    throw new InitializationException(message,getSymbolicName());
   }
 
  /**
@@ -237,30 +293,17 @@ public class NumberRangeCache
   public ArrayList<String> getEntryWithChildData(String Group, long rangeSearchValue, long UTCDate)
   {
     RangeItem tmpRangeItem;
-    ArrayList<String> Value = null;
 
-    // Get the Group
-    tmpRangeItem  = GroupCache.get(Group);
+    tmpRangeItem = findEntry(Group, rangeSearchValue, UTCDate);
 
-    // search for the right object
-    while (tmpRangeItem != null)
+    if (tmpRangeItem == null)
     {
-      if ((tmpRangeItem.RangeFrom <= rangeSearchValue) &
-          (tmpRangeItem.RangeTo >= rangeSearchValue))
-      {
-        // we have found a candidate - see if it is valid at the date
-        if ((tmpRangeItem.ValidityFrom <= UTCDate) && (tmpRangeItem.ValidityTo > UTCDate))
-        {
-          // found it!
-          return tmpRangeItem.Results;
-        }
-      }
-
-      // Move down the map
-      tmpRangeItem = tmpRangeItem.nextRange;
+      return null;
+    }
+    else
+    {
+      return tmpRangeItem.Results;
     }
-
-    return Value;
   }
 
  /**
@@ -275,28 +318,102 @@ public class NumberRangeCache
   {
     RangeItem tmpRangeItem;
 
+    tmpRangeItem = findEntry(Group, rangeSearchValue, UTCDate);
+
+    if (tmpRangeItem == null)
+    {
+      return NO_RANGE_MATCH;
+    }
+    else
+    {
+      return tmpRangeItem.Results.get(0);
+    }
+  }
+
+ /**
+  * Find the first range in the group that holds the value and is valid at the
+  * date.
+  *
+  * @param Group The group to search
+  * @param rangeSearchValue The value to search for
+  * @param UTCDate The date to search for
+  * @return The range, or null if there is none
+  */
+  private RangeItem findEntry(String Group, long rangeSearchValue, long UTCDate)
+  {
+    RangeGroup                   tmpRangeGroup;
+    ValidityTimeline<RangeItem>  tmpRangeIndex;
+    int                          foundIndex;
+
     // Get the Group
-    tmpRangeItem  = GroupCache.get(Group);
+    tmpRangeGroup = GroupCache.get(Group);
 
-    // search for the right object
-    while (tmpRangeItem != null)
+    if (tmpRangeGroup == null)
     {
-      if ((tmpRangeItem.RangeFrom <= rangeSearchValue) &
-          (tmpRangeItem.RangeTo >= rangeSearchValue))
-      {
-        // we have found a candidate - see if it is valid at the date
-        if ((tmpRangeItem.ValidityFrom <= UTCDate) && (tmpRangeItem.ValidityTo > UTCDate))
-        {
-          // found it!
-          return tmpRangeItem.Results.get(0);
-        }
-      }
+      return null;
+    }
 
-      // Move down the map
+    tmpRangeIndex = tmpRangeGroup.index;
+
+    if (tmpRangeIndex == null)
+    {
+      // entries were added since the loading, index the group again
+      tmpRangeIndex = buildIndex(tmpRangeGroup);
+      tmpRangeGroup.index = tmpRangeIndex;
+    }
+
+    foundIndex = tmpRangeIndex.findFirst(rangeSearchValue, new ValidAt(UTCDate));
+
+    if (foundIndex < 0)
+    {
+      return null;
+    }
+    else
+    {
+      return tmpRangeIndex.getValue(foundIndex);
+    }
+  }
+
+ /**
+  * Build the index of a group. The ranges are held in list order as periods
+  * of the numbers, which end after the range end, as the periods of a
+  * timeline do not hold their end.
+  *
+  * @param group The group to index
+  * @return The index
+  */
+  private ValidityTimeline<RangeItem> buildIndex(RangeGroup group)
+  {
+    ValidityTimeline<RangeItem> newIndex = new ValidityTimeline<>();
+    RangeItem                   tmpRangeItem;
+
+    tmpRangeItem = group.firstRange;
+    while (tmpRangeItem != null)
+    {
+      newIndex.add(tmpRangeItem.RangeFrom,
+                   (tmpRangeItem.RangeTo == Long.MAX_VALUE) ? Long.MAX_VALUE : tmpRangeItem.RangeTo + 1,
+                   tmpRangeItem);
       tmpRangeItem = tmpRangeItem.nextRange;
     }
 
-    return NO_RANGE_MATCH;
+    newIndex.prepare();
+
+    return newIndex;
+  }
+
+ /**
+  * Build the indexes of all of the groups. Called once the loading is
+  * complete, so that the first searches do not have to do it.
+  */
+  private void indexGroups()
+  {
+    for (RangeGroup tmpRangeGroup : GroupCache.values())
+    {
+      if (tmpRangeGroup.index == null)
+      {
+        tmpRangeGroup.index = buildIndex(tmpRangeGroup);
+      }
+    }
   }
 
  /**
@@ -430,6 +547,9 @@ public class NumberRangeCache
       }
     }
 
+    // Index the groups for searching
+    indexGroups();
+
     OpenRate.getOpenRateFrameworkLog().info(
           "Number Range Data Loading completed. <" + ObjectLinesLoaded +
           "> configuration lines loaded from <" +
@@ -530,6 +650,9 @@ public class NumberRangeCache
       throw new InitializationException(message,ex,getSymbolicName());
     }
 
+    // Index the groups for searching
+    indexGroups();
+
     OpenRate.getOpenRateFrameworkLog().info(
           "Number Range Data Loading completed. <" + ObjectLinesLoaded +
           "> configuration lines loaded from <" +
@@ -608,7 +731,7 @@ public class NumberRangeCache
         tmpGroupName = GroupIter.next();
 
         // Count the elements in the group
-        tmpRangeItem = GroupCache.get(tmpGroupName);
+        tmpRangeItem = GroupCache.get(tmpGroupName).firstRange;
         while (tmpRangeItem != null)
         {
           Objects++;
@@ -639,4 +762,15 @@ public class NumberRangeCache
   {
     GroupCache.clear();
   }
+
+ /**
+  * Take over the data of a snapshot loaded in the background
+  *
+  * @param snapshot The loaded snapshot
+  */
+  @Override
+  protected void publishSnapshot(AbstractSyncLoaderCache snapshot)
+  {
+    GroupCache = ((NumberRangeCache) snapshot).GroupCache;
+  }
 }
@@ -72,7 +72,7 @@ public class RUMCPRateCache
   * This stores all the cacheable data necessary for the definition of the
   * rate plans.
   */
-  protected HashMap<String, ArrayList<RateMapEntry>> PriceModelCache;
+  protected volatile HashMap<String, ArrayList<RateMapEntry>> PriceModelCache;
 
   /**
    * these are the statements that we have to prepare to be able to get records
@@ -638,6 +638,17 @@ public class RUMCPRateCache
     PriceModelCache.clear();
   }
 
+ /**
+  * Take over the data of a snapshot loaded in the background
+  *
+  * @param snapshot The loaded snapshot
+  */
+  @Override
+  protected void publishSnapshot(AbstractSyncLoaderCache snapshot)
+  {
+    PriceModelCache = ((RUMCPRateCache) snapshot).PriceModelCache;
+  }
+
  /**
   * Simulate "insert at" (which is not available in ArrayList
   *
@@ -88,7 +88,7 @@ public class RUMMapCache
   /**
    * This holds the RUM map
    */
-  protected HashMap<String, ArrayList<RUMMapEntry>> RUMMapCache;
+  protected volatile HashMap<String, ArrayList<RUMMapEntry>> RUMMapCache;
 
   /**
    * this is the name of the file that holds the RUM Map
@@ -438,4 +438,14 @@ public class RUMMapCache
     // clear the RUM map cache
     RUMMapCache.clear();
   }
+
+  /**
+   * Take over the data of a snapshot loaded in the background
+   *
+   * @param snapshot The loaded snapshot
+   */
+  @Override
+  protected void publishSnapshot(AbstractSyncLoaderCache snapshot) {
+    RUMMapCache = ((RUMMapCache) snapshot).RUMMapCache;
+  }
 }
@@ -5,6 +5,7 @@ import OpenRate.CommonConfig;
 import OpenRate.OpenRate;
 import OpenRate.db.DBUtil;
 import OpenRate.exception.InitializationException;
+import OpenRate.record.CompiledPriceModel;
 import OpenRate.record.RateMapEntry;
 import OpenRate.utils.PropertyUtils;
 import org.slf4j.Logger;
@@ -20,7 +21,6 @@ import java.sql.SQLException;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 
 /**
  * Please
@@ -129,18 +129,41 @@ public class RUMRateCache extends AbstractSyncLoaderCache {
      * If this is true, we reduce the amount of RUM to rate after rating
      */
     public boolean ConsumeRUM = false;
+
+    /**
+     * The handle of the compiled price model, resolved when the cache is loaded
+     */
+    public int PriceModelHandle = -1;
+
+    /**
+     * The description of the rating type, as written to the charge packets
+     */
+    public String RatingTypeDesc;
   }
 
   /**
    * This stores all the cacheable data necessary for the definition of the rate
    * plans.
    */
-  protected HashMap<String, ArrayList<RateMapEntry>> PriceModelCache;
+  protected volatile HashMap<String, ArrayList<RateMapEntry>> PriceModelCache;
 
   /**
    * This holds the RUM map
    */
-  protected HashMap<String, ArrayList<RUMMapEntry>> RUMMapCache;
+  protected volatile HashMap<String, ArrayList<RUMMapEntry>> RUMMapCache;
+
+  /**
+   * The compiled price models, indexed by handle. A handle whose model is not
+   * defined holds null.
+   */
+  protected volatile CompiledPriceModel[] CompiledPriceModels = new CompiledPriceModel[0];
+
+  /**
+   * The handles of the price model names. A name keeps its handle for the life
+   * of the cache, so that a handle resolved before a reload stays valid after
+   * it. The map is replaced, never changed, once it has been published.
+   */
+  protected volatile HashMap<String, Integer> PriceModelHandles = new HashMap<>();
 
   /**
    * these are the statements that we have to prepare to be able to get records
@@ -293,29 +316,40 @@ public class RUMRateCache extends AbstractSyncLoaderCache {
       for (i = 0; i < tmpRateCache.size(); i++) {
         // if it is a later step
         if (tmpRateCache.get(i).getStep() > step) {
-          // add a null element
-          tmpRateCache = insertElementAt(tmpRateCache, tmpRMEntry, i);
+          // insert it before the later step
+          tmpRateCache.add(i, tmpRMEntry);
           inserted = true;
           break;
         } else if (tmpRateCache.get(i).getStep() == step) {
-          // if it is a later time version of the same step
-          // see if it goes before or after the current one
-          if (tmpRateCache.get(i).getStartTime() > startTime) {
-            // inserting
-            helperRMEntry = tmpRateCache.get(i);
+          // if it is another time version of the same step, put it into the
+          // version list, which is ordered latest first
+          helperRMEntry = tmpRateCache.get(i);
+          if (helperRMEntry.getStartTime() < startTime) {
+            // inserting at the head
             tmpRMEntry.setChild(helperRMEntry);
             tmpRateCache.set(i, tmpRMEntry);
-          } else if (tmpRateCache.get(i).getStartTime() < startTime) {
-            // appending
-            tmpRateCache.get(i).setChild(tmpRMEntry);
           } else {
-            // cannot have two steps with the same start date
-            message = "Two steps in model <" + priceModel + "> and step number <"
-                    + step + "> have the same start date <" + startTime + "> in module <"
-                    + getSymbolicName() + ">";
-            logger.error(message);
-            throw new InitializationException(message, getSymbolicName());
+            // find the last version starting after this one
+            while (helperRMEntry.getChild() != null && helperRMEntry.getChild().getStartTime() >= startTime) {
+              helperRMEntry = helperRMEntry.getChild();
+            }
+
+            if (helperRMEntry.getStartTime() == startTime) {
+              // cannot have two steps with the same start date
+              message = "Two steps in model <" + priceModel + "> and step number <"
+                      + step + "> have the same start date <" + startTime + "> in module <"
+                      + getSymbolicName() + ">";
+              logger.error(message);
+              throw new InitializationException(message, getSymbolicName());
+            }
+
+            // appending after it
+            tmpRMEntry.setChild(helperRMEntry.getChild());
+            helperRMEntry.setChild(tmpRMEntry);
           }
+
+          inserted = true;
+          break;
         }
       }
       if (inserted == false) {
@@ -374,12 +408,16 @@ public class RUMRateCache extends AbstractSyncLoaderCache {
 
       if (RUMType.equalsIgnoreCase("flat")) {
         tmpRMEntry.RUMType = 1;
+        tmpRMEntry.RatingTypeDesc = "FLAT";
       } else if (RUMType.equalsIgnoreCase("tiered")) {
         tmpRMEntry.RUMType = 2;
+        tmpRMEntry.RatingTypeDesc = "TIERED";
       } else if (RUMType.equalsIgnoreCase("threshold")) {
         tmpRMEntry.RUMType = 3;
+        tmpRMEntry.RatingTypeDesc = "THRESHOLD";
       } else if (RUMType.equalsIgnoreCase("event")) {
         tmpRMEntry.RUMType = 4;
+        tmpRMEntry.RatingTypeDesc = "EVENT";
       } else {
         message = "Unknown rating type <" + RUMType + ">";
         logger.error(message);
@@ -402,12 +440,16 @@ public class RUMRateCache extends AbstractSyncLoaderCache {
 
       if (RUMType.equalsIgnoreCase("flat")) {
         tmpRMEntry.RUMType = 1;
+        tmpRMEntry.RatingTypeDesc = "FLAT";
       } else if (RUMType.equalsIgnoreCase("tiered")) {
         tmpRMEntry.RUMType = 2;
+        tmpRMEntry.RatingTypeDesc = "TIERED";
       } else if (RUMType.equalsIgnoreCase("threshold")) {
         tmpRMEntry.RUMType = 3;
+        tmpRMEntry.RatingTypeDesc = "THRESHOLD";
       } else if (RUMType.equalsIgnoreCase("event")) {
         tmpRMEntry.RUMType = 4;
+        tmpRMEntry.RatingTypeDesc = "EVENT";
       } else {
         message = "Unknown rating type <" + RUMType + ">";
         logger.error(message);
@@ -439,6 +481,94 @@ public class RUMRateCache extends AbstractSyncLoaderCache {
     return tmpEntry;
   }
 
+  /**
+   * Get the handle of a price model, which can be used to get the compiled
+   * price model without looking up the name. The handle of a name does not
+   * change when the cache is reloaded.
+   *
+   * @param priceModel The name of the price model
+   * @return The handle, or -1 if the price model is not known
+   */
+  public int getPriceModelHandle(String priceModel) {
+    Integer handle = PriceModelHandles.get(priceModel);
+
+    return (handle == null) ? -1 : handle;
+  }
+
+  /**
+   * Get a compiled price model by its handle.
+   *
+   * @param handle The handle of the price model
+   * @return The compiled price model, or null if it is not defined
+   */
+  public CompiledPriceModel getCompiledPriceModel(int handle) {
+    CompiledPriceModel[] models = CompiledPriceModels;
+
+    if (handle < 0 || handle >= models.length) {
+      return null;
+    }
+
+    return models[handle];
+  }
+
+  /**
+   * Compile the loaded price models, and resolve the price model handles of the
+   * RUM map.
+   */
+  protected void compilePriceModels() {
+    compilePriceModels(PriceModelCache, RUMMapCache);
+  }
+
+  /**
+   * Compile the given price models into a new table indexed by handle, and
+   * resolve the price model handles of the given RUM map. Names we have not
+   * seen before get new handles, including the names the RUM map refers to
+   * that are not defined, so that they can be reported when they are used.
+   *
+   * @param priceModels The price models to compile
+   * @param rumMap The RUM map to resolve the handles for
+   */
+  protected synchronized void compilePriceModels(HashMap<String, ArrayList<RateMapEntry>> priceModels,
+                                                 HashMap<String, ArrayList<RUMMapEntry>> rumMap) {
+    HashMap<String, Integer> handles = new HashMap<>(PriceModelHandles);
+
+    for (String priceModel : priceModels.keySet()) {
+      getHandle(handles, priceModel);
+    }
+
+    for (ArrayList<RUMMapEntry> rumMapEntries : rumMap.values()) {
+      for (RUMMapEntry rumMapEntry : rumMapEntries) {
+        rumMapEntry.PriceModelHandle = getHandle(handles, rumMapEntry.PriceModel);
+      }
+    }
+
+    CompiledPriceModel[] models = new CompiledPriceModel[handles.size()];
+
+    for (String priceModel : priceModels.keySet()) {
+      models[handles.get(priceModel)] = CompiledPriceModel.compile(priceModel, priceModels.get(priceModel));
+    }
+
+    // The names first, so that every published handle has its model slot
+    PriceModelHandles = handles;
+    CompiledPriceModels = models;
+
+    logger.debug("Compiled <" + priceModels.size() + "> price models for cache <" + getSymbolicName() + ">");
+  }
+
+  /**
+   * Get the handle of a name, giving it the next handle if it does not have one
+   */
+  private static int getHandle(HashMap<String, Integer> handles, String priceModel) {
+    Integer handle = handles.get(priceModel);
+
+    if (handle == null) {
+      handle = handles.size();
+      handles.put(priceModel, handle);
+    }
+
+    return handle;
+  }
+
   // -----------------------------------------------------------------------------
   // ------------------ Start of inherited loading functions ---------------------
   // -----------------------------------------------------------------------------
@@ -645,6 +775,9 @@ public class RUMRateCache extends AbstractSyncLoaderCache {
             "Price Group Data Loading completed. " + MapsLoaded
             + " configuration lines loaded from <" + RUMMapDataFile
             + ">");
+
+    // Prepare the price models for rating
+    compilePriceModels();
   }
 
   /**
@@ -828,6 +961,9 @@ public class RUMRateCache extends AbstractSyncLoaderCache {
             "Price Group Data Loading completed. " + mapsLoaded
             + " configuration lines loaded from <" + getSymbolicName()
             + ">");
+
+    // Prepare the price models for rating
+    compilePriceModels();
   }
 
   /**
@@ -851,6 +987,28 @@ public class RUMRateCache extends AbstractSyncLoaderCache {
 
     // clear the RUM map cache
     RUMMapCache.clear();
+
+    // the handles are kept, but there are no models for them until we compile
+    CompiledPriceModels = new CompiledPriceModel[0];
+  }
+
+  /**
+   * Take over the data of a snapshot loaded in the background. The
+   * PriceModelCache is referred to by the RUMMapCache, so it is taken over first.
+   * The compiled price models are taken over before both.
+   *
+   * @param snapshot The loaded snapshot
+   */
+  @Override
+  protected void publishSnapshot(AbstractSyncLoaderCache snapshot) {
+    RUMRateCache loaded = (RUMRateCache) snapshot;
+
+    // The handles of the snapshot are resolved again against our own names,
+    // before the RUM map that carries them is published
+    compilePriceModels(loaded.PriceModelCache, loaded.RUMMapCache);
+
+    PriceModelCache = loaded.PriceModelCache;
+    RUMMapCache = loaded.RUMMapCache;
   }
 
   // -----------------------------------------------------------------------------
@@ -953,31 +1111,4 @@ public class RUMRateCache extends AbstractSyncLoaderCache {
       throw new InitializationException(message, getSymbolicName());
     }
   }
-
-  /**
-   * Simulate insert at (which is not available in ArrayList
-   *
-   * @param oldList
-   * @param audSeg
-   * @param i
-   * @return
-   */
-  private ArrayList<RateMapEntry> insertElementAt(ArrayList<RateMapEntry> oldList, RateMapEntry audSeg, int i) {
-    ArrayList<RateMapEntry> newList = new ArrayList<>();
-
-    Iterator<RateMapEntry> oldListIter = oldList.iterator();
-
-    int position = 0;
-    while (oldListIter.hasNext()) {
-      if (position == i) {
-        newList.add(audSeg);
-      }
-
-      // add the element from the old list
-      newList.add(oldListIter.next());
-      position++;
-    }
-
-    return newList;
-  }
 }
@@ -64,7 +64,7 @@ public class RateCache extends AbstractSyncLoaderCache {
    * This stores all the cacheable data necessary for the definition of the rate
    * plans.
    */
-  protected HashMap<String, ArrayList<RateMapEntry>> PriceModelCache;
+  protected volatile HashMap<String, ArrayList<RateMapEntry>> PriceModelCache;
 
   // -----------------------------------------------------------------------------
   // ----------------------- Start of custom functions ---------------------------
@@ -468,6 +468,16 @@ public class RateCache extends AbstractSyncLoaderCache {
     PriceModelCache.clear();
   }
 
+  /**
+   * Take over the data of a snapshot loaded in the background
+   *
+   * @param snapshot The loaded snapshot
+   */
+  @Override
+  protected void publishSnapshot(AbstractSyncLoaderCache snapshot) {
+    PriceModelCache = ((RateCache) snapshot).PriceModelCache;
+  }
+
   /**
    * Simulate insert at (which is not available in ArrayList
    *
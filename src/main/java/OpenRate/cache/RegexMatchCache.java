@@ -14,7 +14,9 @@ import java.io.IOException;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.regex.Pattern;
@@ -46,6 +48,20 @@ public class RegexMatchCache
   private final static String SERVICE_GROUP_COUNT = "GroupCount";
   private final static String SERVICE_DUMP_MAP = "DumpMap";
 
+  // The characters that have a special meaning in a regex
+  private final static String REGEX_SPECIAL_CHARS = "\\^$.|?*+()[]{}";
+
+  // The results of matching a single entry
+  private final static int ENTRY_MATCH = 0;
+  private final static int ENTRY_NO_MATCH = 1;
+  private final static int ENTRY_NULL_VALUE = 2;
+
+  // The entry number we use for "no match yet" in the compiled search
+  private final static int NO_ENTRY = Integer.MAX_VALUE;
+
+  // Used for lookups on groups without numerical comparisons
+  private final static double[] NO_NUMERIC_VALUES = new double[0];
+
   /* The SearchMap is the regular map that we will have to search through. This 
    * is a single entry that is grouped into a search group. The match value is
    * one of [RegularExpression|Numerical|RegexExclude], driven by the match type.
@@ -71,16 +87,98 @@ public class RegexMatchCache
     // Or this if we are dealing with a real regex
     Pattern[] matchPattern;
 
+    // If the regex has no special characters, the value it matches, which we
+    // can compare as a string
+    String[] matchLiteral;
+
+    // The literal text that every value the regex matches starts with
+    String[] matchPrefix;
+
     // The results list
     ArrayList<String> Results = null;
   }
 
   /* The SearchGroup is the collection of search maps that will be searched
    * during the evaluation.
+   *
+   * Once the loading is complete, the group is compiled into a decision
+   * structure on one of the fields, so that we do not have to try every entry:
+   * entries that match a literal value are hashed on it, entries whose regex
+   * starts with literal text are held in a tree of those prefixes, and the
+   * others are always tried. The entries are numbered in priority order, so
+   * the first match is the lowest numbered match over the three.
    */
   private class SearchGroup {
 
     ArrayList<SearchMap> SearchGroup;
+
+    // The entries in priority order, or null if the group is not compiled
+    SearchMap[] entries;
+
+    // The number of fields of the entries
+    int fieldCount;
+
+    // The field the decision structure is built on
+    int indexField;
+
+    // The entries with a literal value in the index field, by that value
+    HashMap<String, int[]> literalEntries;
+
+    // The entries with a literal prefix in the index field
+    PrefixNode prefixEntries;
+
+    // The entries that have to be tried for any value of the index field
+    int[] otherEntries;
+
+    // The fields that have a numerical comparison in any entry
+    boolean[] numericFields;
+  }
+
+  /* A node in the tree of the literal prefixes of the regexes in the index
+   * field. The node holds the entries whose prefix ends at the node, in
+   * priority order.
+   */
+  private static class PrefixNode {
+
+    // The next characters, sorted, and the nodes they lead to
+    char[] keys = new char[0];
+    PrefixNode[] children = new PrefixNode[0];
+
+    // The entries with this prefix, or null
+    int[] entries;
+
+    PrefixNode getChild(char key) {
+      int position = Arrays.binarySearch(keys, key);
+
+      return (position < 0) ? null : children[position];
+    }
+
+    PrefixNode addChild(char key) {
+      int position = Arrays.binarySearch(keys, key);
+
+      if (position >= 0) {
+        return children[position];
+      }
+
+      // insert the new child so that the keys stay sorted
+      position = -(position + 1);
+      PrefixNode child = new PrefixNode();
+
+      char[] newKeys = new char[keys.length + 1];
+      System.arraycopy(keys, 0, newKeys, 0, position);
+      System.arraycopy(keys, position, newKeys, position + 1, keys.length - position);
+      newKeys[position] = key;
+
+      PrefixNode[] newChildren = new PrefixNode[children.length + 1];
+      System.arraycopy(children, 0, newChildren, 0, position);
+      System.arraycopy(children, position, newChildren, position + 1, children.length - position);
+      newChildren[position] = child;
+
+      keys = newKeys;
+      children = newChildren;
+
+      return child;
+    }
   }
 
   /**
@@ -88,7 +186,7 @@ public class RegexMatchCache
    * been defined, each of which holds a variable number of entries to search
    * through. This is therefore the index to the group entries.
    */
-  private final HashMap<String, SearchGroup> GroupCache;
+  private volatile HashMap<String, SearchGroup> GroupCache;
 
   /**
    * Constructor
@@ -218,6 +316,8 @@ public class RegexMatchCache
     tmpSearchMap.matchPattern = new Pattern[checkedFields.length];
     tmpSearchMap.matchType = new int[checkedFields.length];
     tmpSearchMap.matchValue = new double[checkedFields.length];
+    tmpSearchMap.matchLiteral = new String[checkedFields.length];
+    tmpSearchMap.matchPrefix = new String[checkedFields.length];
 
     for (i = 0; i < fields.length; i++) {
       // get the short version of the string for understanding what it is
@@ -309,6 +409,11 @@ public class RegexMatchCache
           }
 
           tmpSearchMap.matchType[i] = 0;
+          tmpSearchMap.matchPrefix[i] = getLiteralPrefix(fields[i]);
+
+          if (tmpSearchMap.matchPrefix[i].length() == fields[i].length()) {
+            tmpSearchMap.matchLiteral[i] = fields[i];
+          }
         }
       }
     }
@@ -381,12 +486,9 @@ public class RegexMatchCache
    * @return Result The result of the search as a SearchMap object
    */
   private SearchMap getMatchingSearchResult(String Group, String[] Parameters) {
-    int i;
     SearchGroup tmpSearchGroup;
-    SearchMap tmpSearchMap;
-    Pattern tmpPattern;
-    boolean Found;
-    double tmpParamValue;
+    double[] numericValues;
+    int firstMatch;
 
     // recover the object
     tmpSearchGroup = GroupCache.get(Group);
@@ -394,110 +496,50 @@ public class RegexMatchCache
     if (tmpSearchGroup == null) {
       // Return a default value
       return null;
-    } else {
-      // Iterate thorough the entries in the group
-      Iterator<SearchMap> GroupIter = tmpSearchGroup.SearchGroup.listIterator();
-
-      while (GroupIter.hasNext()) {
-        tmpSearchMap = GroupIter.next();
-
-        // Initialise the found flag and the counter
-        Found = true;
-        i = 0;
-
-        // Now check the elements of the map
-        while ((i < Parameters.length) & Found) {
-          switch (tmpSearchMap.matchType[i]) {
-            // Regex inclusion case
-            case 0: {
-              tmpPattern = tmpSearchMap.matchPattern[i];
-
-              if (Parameters[i] == null) {
-                // we cannot match on null values - warn once and out...
-                OpenRate.getOpenRateFrameworkLog().warning("Null value found in regex match on parameter <" + i + "> in module <" + getSymbolicName() + ">");
-                return null;
-              }
-
-              if (!tmpPattern.matcher(Parameters[i]).matches()) {
-                // We did not get a match, move on
-                Found = false;
-              }
-              break;
-            }
-
-            // Regex exclusion case
-            case 6: {
-              tmpPattern = tmpSearchMap.matchPattern[i];
-
-              if (tmpPattern.matcher(Parameters[i]).matches()) {
-                // We did not get a match, move on
-                Found = false;
-              }
-              break;
-            }
-
-            // "=" case
-            case 1: {
-              tmpParamValue = Double.parseDouble(Parameters[i]);
-              if (tmpSearchMap.matchValue[i] != tmpParamValue) {
-                // We did not get a match, move on
-                Found = false;
-              }
-              break;
-            }
+    }
 
-            // ">" case
-            case 2: {
-              tmpParamValue = Double.parseDouble(Parameters[i]);
-              if (tmpParamValue <= tmpSearchMap.matchValue[i]) {
-                // We did not get a match, move on
-                Found = false;
-              }
-              break;
-            }
+    numericValues = prepareCompiledSearch(tmpSearchGroup, Parameters);
 
-            // "<" case
-            case 3: {
-              tmpParamValue = Double.parseDouble(Parameters[i]);
-              if (tmpParamValue >= tmpSearchMap.matchValue[i]) {
-                // We did not get a match, move on
-                Found = false;
-              }
-              break;
-            }
+    if (numericValues == null) {
+      // Iterate thorough the entries in the group
+      for (SearchMap tmpSearchMap : tmpSearchGroup.SearchGroup) {
+        switch (matchEntry(tmpSearchMap, Parameters, null)) {
+          case ENTRY_MATCH:
+            return tmpSearchMap;
+
+          case ENTRY_NULL_VALUE:
+            // we cannot match on null values - warn once and out...
+            OpenRate.getOpenRateFrameworkLog().warning("Null value found in regex match in module <" + getSymbolicName() + ">");
+            return null;
+        }
+      }
 
-            // ">=" case
-            case 4: {
-              tmpParamValue = Double.parseDouble(Parameters[i]);
-              if (tmpParamValue < tmpSearchMap.matchValue[i]) {
-                // We did not get a match, move on
-                Found = false;
-              }
-              break;
-            }
+      // Return a default value - we found nothing
+      return null;
+    }
 
-            // "<=" case
-            case 5: {
-              tmpParamValue = Double.parseDouble(Parameters[i]);
-              if (tmpParamValue > tmpSearchMap.matchValue[i]) {
-                // We did not get a match, move on
-                Found = false;
-              }
-              break;
-            }
-          }
+    // Take the first match from each of the candidate lists, only trying
+    // entries before the best match we have so far
+    firstMatch = NO_ENTRY;
 
-          // Increment the loop counter
-          i++;
+    for (int[] candidates : getCandidates(tmpSearchGroup, Parameters)) {
+      for (int entry : candidates) {
+        if (entry >= firstMatch) {
+          break;
         }
 
-        if (Found) {
-          return tmpSearchMap;
+        if (matchEntry(tmpSearchGroup.entries[entry], Parameters, numericValues) == ENTRY_MATCH) {
+          firstMatch = entry;
+          break;
         }
       }
+    }
 
+    if (firstMatch == NO_ENTRY) {
       // Return a default value - we found nothing
       return null;
+    } else {
+      return tmpSearchGroup.entries[firstMatch];
     }
   }
 
@@ -514,13 +556,10 @@ public class RegexMatchCache
    * @return List of all matches
    */
   public ArrayList<String> getAllEntries(String Group, String[] Parameters) {
-    int i;
     SearchGroup tmpSearchGroup;
-    SearchMap tmpSearchMap;
-    Pattern tmpPattern;
-    boolean found;
-    double tmpParamValue;
+    double[] numericValues;
     ArrayList<String> matches;
+    ArrayList<Integer> matchedEntries;
 
     matches = new ArrayList<>();
 
@@ -530,104 +569,387 @@ public class RegexMatchCache
     if (tmpSearchGroup == null) {
       // Return a default value, we did not find the group
       return matches;
-    } else {
+    }
+
+    numericValues = prepareCompiledSearch(tmpSearchGroup, Parameters);
+
+    if (numericValues == null) {
       // Iterate thorough the entries in the group
-      Iterator<SearchMap> GroupIter = tmpSearchGroup.SearchGroup.listIterator();
+      for (SearchMap tmpSearchMap : tmpSearchGroup.SearchGroup) {
+        switch (matchEntry(tmpSearchMap, Parameters, null)) {
+          case ENTRY_MATCH:
+            matches.add(tmpSearchMap.Results.get(0));
+            break;
+
+          case ENTRY_NULL_VALUE:
+            // we cannot match on null values - warn once and out...
+            OpenRate.getOpenRateFrameworkLog().warning("Null value found in regex match in module <" + getSymbolicName() + ">");
+            return new ArrayList<>();
+        }
+      }
 
-      while (GroupIter.hasNext()) {
-        tmpSearchMap = GroupIter.next();
-
-        // Initialise the found flag and the counter
-        found = true;
-        i = 0;
-
-        // Now check the elements of the map
-        while ((i < Parameters.length) & found) {
-          switch (tmpSearchMap.matchType[i]) {
-            // Regex inclusion case
-            case 0: {
-              tmpPattern = tmpSearchMap.matchPattern[i];
-
-              if (!tmpPattern.matcher(Parameters[i]).matches()) {
-                // We did not get a match, move on
-                found = false;
-              }
-              break;
-            }
+      return matches;
+    }
 
-            // Regex exclusion case
-            case 6: {
-              tmpPattern = tmpSearchMap.matchPattern[i];
+    // Collect the matches from all of the candidate lists, and put them back
+    // into priority order
+    matchedEntries = new ArrayList<>();
 
-              if (tmpPattern.matcher(Parameters[i]).matches()) {
-                // We did not get a match, move on
-                found = false;
-              }
-              break;
-            }
+    for (int[] candidates : getCandidates(tmpSearchGroup, Parameters)) {
+      for (int entry : candidates) {
+        if (matchEntry(tmpSearchGroup.entries[entry], Parameters, numericValues) == ENTRY_MATCH) {
+          matchedEntries.add(entry);
+        }
+      }
+    }
 
-            // "=" case
-            case 1: {
-              tmpParamValue = Double.parseDouble(Parameters[i]);
-              if (tmpSearchMap.matchValue[i] != tmpParamValue) {
-                // We did not get a match, move on
-                found = false;
-              }
-              break;
-            }
+    Collections.sort(matchedEntries);
 
-            // ">" case
-            case 2: {
-              tmpParamValue = Double.parseDouble(Parameters[i]);
-              if (tmpParamValue <= tmpSearchMap.matchValue[i]) {
-                // We did not get a match, move on
-                found = false;
-              }
-              break;
-            }
+    for (Integer entry : matchedEntries) {
+      matches.add(tmpSearchGroup.entries[entry].Results.get(0));
+    }
 
-            // "<" case
-            case 3: {
-              tmpParamValue = Double.parseDouble(Parameters[i]);
-              if (tmpParamValue >= tmpSearchMap.matchValue[i]) {
-                // We did not get a match, move on
-                found = false;
-              }
-              break;
-            }
+    return matches;
+  }
 
-            // ">=" case
-            case 4: {
-              tmpParamValue = Double.parseDouble(Parameters[i]);
-              if (tmpParamValue < tmpSearchMap.matchValue[i]) {
-                // We did not get a match, move on
-                found = false;
-              }
-              break;
-            }
+ /**
+  * Check an entry against the parameters, field by field.
+  *
+  * @param entry The entry to check
+  * @param Parameters The list of fields to search
+  * @param numericValues The parameters parsed for the numerical comparisons,
+  * or null to parse them here
+  * @return ENTRY_MATCH, ENTRY_NO_MATCH, or ENTRY_NULL_VALUE if we reached a
+  * regex with a null parameter
+  */
+  private int matchEntry(SearchMap entry, String[] Parameters, double[] numericValues) {
+    for (int i = 0; i < Parameters.length; i++) {
+      switch (entry.matchType[i]) {
+        // Regex inclusion case
+        case 0: {
+          if (Parameters[i] == null) {
+            return ENTRY_NULL_VALUE;
+          }
 
-            // "<=" case
-            case 5: {
-              tmpParamValue = Double.parseDouble(Parameters[i]);
-              if (tmpParamValue > tmpSearchMap.matchValue[i]) {
-                // We did not get a match, move on
-                found = false;
-              }
-              break;
+          if (entry.matchLiteral[i] != null) {
+            // no need for the regex, compare the string
+            if (!entry.matchLiteral[i].equals(Parameters[i])) {
+              return ENTRY_NO_MATCH;
             }
+          } else if ((!Parameters[i].startsWith(entry.matchPrefix[i]))
+                  || (!entry.matchPattern[i].matcher(Parameters[i]).matches())) {
+            return ENTRY_NO_MATCH;
           }
+          break;
+        }
 
-          // Increment the loop counter
-          i++;
+        // Regex exclusion case
+        case 6: {
+          if (entry.matchPattern[i].matcher(Parameters[i]).matches()) {
+            return ENTRY_NO_MATCH;
+          }
+          break;
+        }
+
+        // "=" case
+        case 1: {
+          if (entry.matchValue[i] != getNumericValue(Parameters, numericValues, i)) {
+            return ENTRY_NO_MATCH;
+          }
+          break;
         }
 
-        if (found) {
-          matches.add(tmpSearchMap.Results.get(0));
+        // ">" case
+        case 2: {
+          if (getNumericValue(Parameters, numericValues, i) <= entry.matchValue[i]) {
+            return ENTRY_NO_MATCH;
+          }
+          break;
+        }
+
+        // "<" case
+        case 3: {
+          if (getNumericValue(Parameters, numericValues, i) >= entry.matchValue[i]) {
+            return ENTRY_NO_MATCH;
+          }
+          break;
+        }
+
+        // ">=" case
+        case 4: {
+          if (getNumericValue(Parameters, numericValues, i) < entry.matchValue[i]) {
+            return ENTRY_NO_MATCH;
+          }
+          break;
+        }
+
+        // "<=" case
+        case 5: {
+          if (getNumericValue(Parameters, numericValues, i) > entry.matchValue[i]) {
+            return ENTRY_NO_MATCH;
+          }
+          break;
         }
       }
+    }
 
-      return matches;
+    return ENTRY_MATCH;
+  }
+
+ /**
+  * Get the numerical value of a parameter, parsed once for the whole search if
+  * we can.
+  *
+  * @param Parameters The list of fields to search
+  * @param numericValues The parsed parameters, or null
+  * @param index The parameter to get
+  * @return The value
+  */
+  private static double getNumericValue(String[] Parameters, double[] numericValues, int index) {
+    if (numericValues == null) {
+      return Double.parseDouble(Parameters[index]);
+    } else {
+      return numericValues[index];
+    }
+  }
+
+ /**
+  * Check if the compiled form of the group can be used for a search, and
+  * parse the parameters for the numerical comparisons. If a parameter is null
+  * or cannot be parsed, we search the entries in order instead, so that the
+  * entry that stops the search is the same as it always was.
+  *
+  * @param group The group to search
+  * @param Parameters The list of fields to search
+  * @return The parsed parameters, or null if the compiled form cannot be used
+  */
+  private double[] prepareCompiledSearch(SearchGroup group, String[] Parameters) {
+    double[] numericValues = NO_NUMERIC_VALUES;
+
+    if ((group.entries == null)
+            || (Parameters.length > group.fieldCount)
+            || (Parameters.length <= group.indexField)) {
+      return null;
     }
+
+    for (int i = 0; i < Parameters.length; i++) {
+      if (Parameters[i] == null) {
+        return null;
+      }
+
+      if (group.numericFields[i]) {
+        if (numericValues == NO_NUMERIC_VALUES) {
+          numericValues = new double[Parameters.length];
+        }
+
+        try {
+          numericValues[i] = Double.parseDouble(Parameters[i]);
+        } catch (NumberFormatException ex) {
+          return null;
+        }
+      }
+    }
+
+    return numericValues;
+  }
+
+ /**
+  * Get the lists of the entries that could match the value of the index
+  * field. Each list is in priority order.
+  *
+  * @param group The group to search
+  * @param Parameters The list of fields to search
+  * @return The candidate lists
+  */
+  private ArrayList<int[]> getCandidates(SearchGroup group, String[] Parameters) {
+    ArrayList<int[]> candidates = new ArrayList<>(4);
+    String value = Parameters[group.indexField];
+    int[] literalMatches;
+    PrefixNode node;
+
+    candidates.add(group.otherEntries);
+
+    literalMatches = group.literalEntries.get(value);
+    if (literalMatches != null) {
+      candidates.add(literalMatches);
+    }
+
+    // walk down the prefix tree as far as the value goes
+    node = group.prefixEntries;
+    for (int i = 0; i < value.length(); i++) {
+      node = node.getChild(value.charAt(i));
+
+      if (node == null) {
+        break;
+      }
+
+      if (node.entries != null) {
+        candidates.add(node.entries);
+      }
+    }
+
+    return candidates;
+  }
+
+ /**
+  * Build the decision structures of all of the groups. Called once the
+  * loading is complete.
+  */
+  private void compileGroups() {
+    for (SearchGroup tmpSearchGroup : GroupCache.values()) {
+      compileGroup(tmpSearchGroup);
+    }
+  }
+
+ /**
+  * Build the decision structure of a group. We build it on the field with the
+  * fewest entries that have neither a literal value nor a literal prefix, as
+  * those have to be tried for every search.
+  *
+  * @param group The group to compile
+  */
+  private void compileGroup(SearchGroup group) {
+    SearchMap[] entries = group.SearchGroup.toArray(new SearchMap[group.SearchGroup.size()]);
+    int fieldCount = entries[0].matchType.length;
+    boolean[] numericFields = new boolean[fieldCount];
+    int[] otherCount = new int[fieldCount];
+    int indexField = 0;
+
+    for (SearchMap entry : entries) {
+      if (entry.matchType.length != fieldCount) {
+        // we can only compile groups of one form, search this one in order
+        group.entries = null;
+        return;
+      }
+
+      for (int i = 0; i < fieldCount; i++) {
+        if ((entry.matchType[i] >= 1) && (entry.matchType[i] <= 5)) {
+          numericFields[i] = true;
+        }
+
+        if (getIndexKey(entry, i).isEmpty()) {
+          otherCount[i]++;
+        }
+      }
+    }
+
+    for (int i = 1; i < fieldCount; i++) {
+      if (otherCount[i] < otherCount[indexField]) {
+        indexField = i;
+      }
+    }
+
+    // sort the entries into the literal, prefix and other lists, keeping the
+    // priority order in each
+    HashMap<String, ArrayList<Integer>> literalLists = new HashMap<>();
+    HashMap<String, ArrayList<Integer>> prefixLists = new HashMap<>();
+    ArrayList<Integer> otherList = new ArrayList<>();
+
+    for (int entry = 0; entry < entries.length; entry++) {
+      String key = getIndexKey(entries[entry], indexField);
+
+      if (key.isEmpty()) {
+        otherList.add(entry);
+      } else if (entries[entry].matchLiteral[indexField] != null) {
+        addToList(literalLists, key, entry);
+      } else {
+        addToList(prefixLists, key, entry);
+      }
+    }
+
+    HashMap<String, int[]> literalEntries = new HashMap<>(literalLists.size() * 2);
+    for (String key : literalLists.keySet()) {
+      literalEntries.put(key, toIntArray(literalLists.get(key)));
+    }
+
+    PrefixNode prefixEntries = new PrefixNode();
+    for (String prefix : prefixLists.keySet()) {
+      PrefixNode node = prefixEntries;
+
+      for (int i = 0; i < prefix.length(); i++) {
+        node = node.addChild(prefix.charAt(i));
+      }
+
+      node.entries = toIntArray(prefixLists.get(prefix));
+    }
+
+    group.fieldCount = fieldCount;
+    group.indexField = indexField;
+    group.numericFields = numericFields;
+    group.literalEntries = literalEntries;
+    group.prefixEntries = prefixEntries;
+    group.otherEntries = toIntArray(otherList);
+    group.entries = entries;
+  }
+
+ /**
+  * Get the value we index an entry under for a field: the literal value or
+  * the literal prefix of a regex, or an empty string if the entry has to be
+  * tried for any value.
+  *
+  * @param entry The entry
+  * @param field The field
+  * @return The key
+  */
+  private static String getIndexKey(SearchMap entry, int field) {
+    if (entry.matchType[field] == 0) {
+      return entry.matchPrefix[field];
+    } else {
+      return "";
+    }
+  }
+
+ /**
+  * Get the literal text at the start of a regex, which every value that the
+  * regex matches must start with. If the regex has no special characters,
+  * this is the whole regex.
+  *
+  * @param regex The regex
+  * @return The literal prefix, or an empty string if there is none
+  */
+  private static String getLiteralPrefix(String regex) {
+    int end = 0;
+
+    // an alternative could start with anything
+    if (regex.indexOf('|') >= 0) {
+      return "";
+    }
+
+    while ((end < regex.length()) && (REGEX_SPECIAL_CHARS.indexOf(regex.charAt(end)) < 0)) {
+      end++;
+    }
+
+    // a quantifier that allows zero makes the last character optional
+    if ((end > 0) && (end < regex.length())) {
+      char next = regex.charAt(end);
+
+      if ((next == '?') || (next == '*') || (next == '{')) {
+        end--;
+      }
+    }
+
+    return regex.substring(0, end);
+  }
+
+  private static void addToList(HashMap<String, ArrayList<Integer>> lists, String key, int entry) {
+    ArrayList<Integer> list = lists.get(key);
+
+    if (list == null) {
+      list = new ArrayList<>();
+      lists.put(key, list);
+    }
+
+    list.add(entry);
+  }
+
+  private static int[] toIntArray(ArrayList<Integer> list) {
+    int[] result = new int[list.size()];
+
+    for (int i = 0; i < result.length; i++) {
+      result[i] = list.get(i);
+    }
+
+    return result;
   }
 
   /**
@@ -774,6 +1096,9 @@ public class RegexMatchCache
       }
     }
 
+    // Build the decision structures for the searches
+    compileGroups();
+
     message = "Regex Map Data Loading completed. <" + MapsLoaded
             + "> configuration lines loaded for <" + getSymbolicName() + "> from <"
             + cacheDataFile + ">";
@@ -919,6 +1244,9 @@ public class RegexMatchCache
       throw new InitializationException(message, getSymbolicName());
     }
 
+    // Build the decision structures for the searches
+    compileGroups();
+
     message = "Regex Map Data Loading completed. <" + ConfigsLoaded
             + "> configuration lines loaded for <" + getSymbolicName() + "> from <"
             + cacheDataSourceName + ">";
@@ -1037,6 +1365,9 @@ public class RegexMatchCache
       }
     }
 
+    // Build the decision structures for the searches
+    compileGroups();
+
     message = "Regex Map Data Loading completed. " + ConfigsLoaded
             + " configuration lines loaded for <" + getSymbolicName() + ">";
     OpenRate.getOpenRateFrameworkLog().info(message);
@@ -1108,6 +1439,16 @@ public class RegexMatchCache
     GroupCache.clear();
   }
 
+  /**
+   * Take over the data of a snapshot loaded in the background
+   *
+   * @param snapshot The loaded snapshot
+   */
+  @Override
+  protected void publishSnapshot(AbstractSyncLoaderCache snapshot) {
+    GroupCache = ((RegexMatchCache) snapshot).GroupCache;
+  }
+
   // -----------------------------------------------------------------------------
   // ------------- Start of inherited IEventInterface functions ------------------
   // -----------------------------------------------------------------------------
@@ -9,4 +9,6 @@ public class TimeMap implements Serializable {
     private static final long serialVersionUID = -4558692576850694018L;
     // The vectors for the individual days
     TimeIntervalNode[] Intervals;
+    // The version of the time model map, only set in its version entry
+    long Version;
 }
@@ -85,25 +85,102 @@ public class TimeModelCache extends AbstractSyncLoaderCache {
   /**
    * This holds all of the configurations that make up a time model.
    */
-  private final IMap<String, TimeMap> TimeModelCache;
+  private final Map<String, TimeMap> TimeModelCache;
+
+  // Whether the time model map is shared with other nodes
+  private final boolean SharedMap;
 
   /**
    * This is the cache for the model definitions - we enter with an identifier
    * and this returns the time model to use
    */
-  private final HashMap<String, String> ModelCache;
+  private volatile HashMap<String, String> ModelCache;
 
   /**
    * This is the cache for the model definitions - we enter with an identifier
    * and this returns the time model to use
    */
-  private final HashMap<String, String> DayCache;
+  private volatile HashMap<String, String> DayCache;
+
+  /**
+   * This is the data that the lookups work on. It is replaced as a whole on
+   * each change to the models, so that a lookup sees the plans, the time maps
+   * and the tables of one version, and never a mix of two.
+   */
+  private volatile TimeModelState State;
+
+  // How often the lookups check the version of a shared map, in milliseconds
+  long MapVersionCheckPeriod = 1000;
 
   /**
    * The default return when there is no match
    */
   public static final String NO_TIME_MATCH = "NOMATCH";
 
+  // The size of the time tables
+  private final static int MINUTES_PER_DAY = 24 * 60;
+  private final static int DAYS_PER_WEEK = 7;
+  private final static int SECONDS_PER_DAY = 86400;
+
+  // The band of a minute that no interval covers
+  private final static int NO_BAND = -1;
+
+  // 1st January 1970 was a Thursday
+  private final static int EPOCH_DAY_OF_WEEK = 4;
+
+  /**
+   * A TimeModelTable is a time map compiled for lookups. Each minute of the
+   * week holds the index of the band (interval) that covers it, and each band
+   * holds its last minute and its result, so that a lookup is a single array
+   * access and time splitting can jump from band to band. A minute covered by
+   * several intervals takes the first interval in load order, as the search of
+   * the interval lists did.
+   */
+  private static class TimeModelTable {
+
+    int[] MinuteBand = new int[DAYS_PER_WEEK * MINUTES_PER_DAY];
+    int[] BandTimeTo;
+    String[] BandResult;
+  }
+
+  /**
+   * A TimeModelState holds the plans and the time maps that the lookups use,
+   * and the tables of all of the plans compiled from them. The tables are
+   * compiled at the end of the loading, and are null while the models are
+   * still being added. The version is that of the time model map the tables
+   * were compiled from: when another node publishes a higher version into a
+   * shared map, the tables are compiled again.
+   */
+  private static class TimeModelState {
+
+    final long Version;
+    final Map<String, TimeMap> TimeMaps;
+    final Map<String, String> Models;
+    final HashMap<String, TimeModelTable> Tables;
+
+    // The time after which the lookups check the version of a shared map
+    volatile long NextVersionCheck;
+
+    TimeModelState(long Version, Map<String, TimeMap> TimeMaps, Map<String, String> Models, HashMap<String, TimeModelTable> Tables) {
+      this.Version = Version;
+      this.TimeMaps = TimeMaps;
+      this.Models = Models;
+      this.Tables = Tables;
+    }
+  }
+
+  // The key of the version entry in the time model map
+  private final static String MAP_VERSION_KEY = "@MapVersion";
+
+  // The table of a plan whose model has no intervals
+  private final static TimeModelTable EMPTY_TABLE = new TimeModelTable();
+
+  static {
+    Arrays.fill(EMPTY_TABLE.MinuteBand, NO_BAND);
+    EMPTY_TABLE.BandTimeTo = new int[0];
+    EMPTY_TABLE.BandResult = new String[0];
+  }
+
   /**
    * Constructor Creates a new instance of the Time Model Cache. The Cache
    * contains all of the TimeModels and Days that are known to the module. The
@@ -112,12 +189,24 @@ public class TimeModelCache extends AbstractSyncLoaderCache {
    * maximum of 200 Model/Days at the moment.
    */
   public TimeModelCache(IMap<String, TimeMap> cache) {
+    this((Map<String, TimeMap>) cache);
+  }
+
+  /**
+   * Creates a new instance of the Time Model Cache, holding the time maps in a
+   * local map. Used for loading snapshots.
+   *
+   * @param cache The map to hold the time maps
+   */
+  protected TimeModelCache(Map<String, TimeMap> cache) {
     super();
 
     // Initialise the cache objects
     TimeModelCache = cache;
+    SharedMap = cache instanceof IMap;
     ModelCache = new HashMap<>(100);
     DayCache = new HashMap<>(7);
+    State = new TimeModelState(0, TimeModelCache, ModelCache, null);
 
     // Call to default days
     addDefaultDays();
@@ -149,6 +238,7 @@ public class TimeModelCache extends AbstractSyncLoaderCache {
    */
   public void addModel(String Plan, String Model) {
     ModelCache.put(Plan, Model);
+    publishState();
   }
 
   /**
@@ -238,6 +328,7 @@ public class TimeModelCache extends AbstractSyncLoaderCache {
     }
     tmpIntervalNode.Result = ZoneResult;
     TimeModelCache.put(Model, tmpTimeMap);
+    publishState();
   }
 
   /**
@@ -251,24 +342,13 @@ public class TimeModelCache extends AbstractSyncLoaderCache {
    * @return The return value
    */
   public String getEntry(String Plan, int Day, int Time) {
-    TimeIntervalNode tmpIntervalNode;
-    String Model;
-    int CDRMinute;
-    TimeMap tmpTimeMap;
-    boolean finished;
+    TimeModelTable tmpTable;
+    int Band;
 
-    // Find the correct Time Model for the plan
-    Model = ModelCache.get(Plan);
+    // Find the compiled table for the plan
+    tmpTable = getPlanTable(Plan);
 
-    if (Model == null) {
-      return NO_TIME_MATCH;
-    }
-
-    // Get the interval
-    tmpTimeMap = TimeModelCache.get(Model);
-
-    if (tmpTimeMap == null) {
-      logger.warn("TimeMap for model <" + Plan + "> and day <" + Day + "> is empty in <" + getSymbolicName() + ">");
+    if (tmpTable == null) {
       return NO_TIME_MATCH;
     }
 
@@ -278,34 +358,17 @@ public class TimeModelCache extends AbstractSyncLoaderCache {
       return NO_TIME_MATCH;
     }
 
-    tmpIntervalNode = tmpTimeMap.Intervals[Day];
-
-    // Search through the Day Segments
-    CDRMinute = (Time);
-    finished = false;
-
-    // search the nodes
-    while (!finished) {
-      if (tmpIntervalNode == null) {
-        logger.warn("TimeMap for model <" + Plan + "> and day <" + Day + "> is empty in <" + getSymbolicName() + ">");
-        return NO_TIME_MATCH;
-      }
+    if (Time < 0 | Time >= MINUTES_PER_DAY) {
+      return NO_TIME_MATCH;
+    }
 
-      if (CDRMinute >= tmpIntervalNode.TimeFrom) {
-        if (CDRMinute <= tmpIntervalNode.TimeTo) {
-          return tmpIntervalNode.Result;
-        }
-      }
+    Band = tmpTable.MinuteBand[Day * MINUTES_PER_DAY + Time];
 
-      if (tmpIntervalNode.child != null) {
-        tmpIntervalNode = tmpIntervalNode.child;
-      } else {
-        // run out of segments
-        finished = true;
-      }
+    if (Band == NO_BAND) {
+      return NO_TIME_MATCH;
     }
 
-    return NO_TIME_MATCH;
+    return tmpTable.BandResult[Band];
   }
 
   /**
@@ -314,6 +377,9 @@ public class TimeModelCache extends AbstractSyncLoaderCache {
    *
    * TIME SPLITTING
    *
+   * The days and times are worked out from the offset of the time zone of
+   * the calendar at each point, rather than by setting the calendar fields.
+   *
    * @param TimeModel The time model we are using
    * @param CDRStartDate The start date/time of the event
    * @param CDREndDate The end date/time of the event
@@ -327,6 +393,11 @@ public class TimeModelCache extends AbstractSyncLoaderCache {
     int TMStartSecond;
     int TMEndSecond;
     int TotalDuration;
+    long LocalTime;
+    long StartOffset;
+    int SecondOfDay;
+    TimeZone Zone;
+    TimeModelTable tmpTable;
 
     // get the total duration, used for calculating the splitting factor
     TotalDuration = (int) (CDREndDate - CDRStartDate);
@@ -342,19 +413,26 @@ public class TimeModelCache extends AbstractSyncLoaderCache {
     long tmpStartDateCounter = CDRStartDate;
     long tmpEndDateCounter;
     ArrayList<TimePacket> packets = new ArrayList<>(1);
-    ArrayList<TimePacket> dayPackets;
 
-    // get the first start of day period
-    gCal.setTimeInMillis(CDRStartDate * 1000);
-    gCal.set(Calendar.HOUR_OF_DAY, 0);
-    gCal.set(Calendar.MINUTE, 0);
-    gCal.set(Calendar.SECOND, 0);
-    tmpEndDateCounter = gCal.getTimeInMillis() / 1000;
+    // Find the compiled table for the plan
+    tmpTable = getPlanTable(TimeModel);
+
+    if (tmpTable == null) {
+      return packets;
+    }
+
+    // get the first start of day period, using the offset in force at the
+    // local midnight
+    Zone = gCal.getTimeZone();
+    StartOffset = toLocalTime(Zone, CDRStartDate) - CDRStartDate;
+    LocalTime = CDRStartDate + StartOffset;
+    LocalTime -= floorMod(LocalTime, SECONDS_PER_DAY);
+    tmpEndDateCounter = LocalTime - Zone.getOffset((LocalTime - StartOffset) * 1000) / 1000;
 
     // loop until we have covered the whole period
     while (tmpStartDateCounter < CDREndDate) {
       // round up to the next day boundary
-      tmpEndDateCounter += 86400;
+      tmpEndDateCounter += SECONDS_PER_DAY;
 
       // See if we have covered the period
       if (tmpEndDateCounter > CDREndDate) {
@@ -362,29 +440,24 @@ public class TimeModelCache extends AbstractSyncLoaderCache {
         tmpEndDateCounter = CDREndDate;
 
         // Get the prepared end date
-        gCal.setTimeInMillis(tmpEndDateCounter * 1000);
-        TMEndTime = gCal.get(Calendar.HOUR_OF_DAY) * 60;
-        TMEndTime += gCal.get(Calendar.MINUTE);
-        TMEndSecond = gCal.get(Calendar.SECOND);
+        SecondOfDay = floorMod(toLocalTime(Zone, tmpEndDateCounter), SECONDS_PER_DAY);
+        TMEndTime = SecondOfDay / 60;
+        TMEndSecond = SecondOfDay % 60;
       } else {
         // Get the default end of day prepared information
-        TMEndTime = 24 * 60 - 1;
+        TMEndTime = MINUTES_PER_DAY - 1;
         TMEndSecond = 60;
       }
 
       // prepare the information for zoning
-      gCal.setTimeInMillis(tmpStartDateCounter * 1000);
-      TMStartDayOfWeek = gCal.get(Calendar.DAY_OF_WEEK) - 1;
-      TMStartTime = gCal.get(Calendar.HOUR_OF_DAY) * 60;
-      TMStartTime += gCal.get(Calendar.MINUTE);
-      TMStartSecond = gCal.get(Calendar.SECOND);
+      LocalTime = toLocalTime(Zone, tmpStartDateCounter);
+      SecondOfDay = floorMod(LocalTime, SECONDS_PER_DAY);
+      TMStartDayOfWeek = floorMod((LocalTime - SecondOfDay) / SECONDS_PER_DAY + EPOCH_DAY_OF_WEEK, DAYS_PER_WEEK);
+      TMStartTime = SecondOfDay / 60;
+      TMStartSecond = SecondOfDay % 60;
 
       // Calculate the day based on the parameters
-      dayPackets = getDayEntry(TimeModel, TMStartDayOfWeek, TMStartTime, TMStartSecond, TMEndTime, TMEndSecond, TotalDuration);
-
-      // add to the current list
-      packets.addAll(dayPackets);
-      dayPackets.clear();
+      getDayEntry(packets, tmpTable, TimeModel, TMStartDayOfWeek, TMStartTime, TMStartSecond, TMEndTime, TMEndSecond, TotalDuration);
 
       // move on
       tmpStartDateCounter = tmpEndDateCounter;
@@ -397,6 +470,8 @@ public class TimeModelCache extends AbstractSyncLoaderCache {
   /**
    * Get the time packets for the given day
    *
+   * @param packets The list to add the time packets to
+   * @param Table The compiled table of the time model
    * @param TimeModel The time model to evaluate for
    * @param DayofWeek The day of the week we are working on
    * @param StartTime The start time to evaluate for
@@ -404,11 +479,11 @@ public class TimeModelCache extends AbstractSyncLoaderCache {
    * @param EndTime The end time to evaluate for
    * @param EndSecond The end second to evaluate for
    * @param TotalDuration The original duration of the call
-   * @return The time packets in the the given day
    */
-  private ArrayList<TimePacket> getDayEntry(String TimeModel, int DayofWeek, int StartTime, int StartSecond, int EndTime, int EndSecond, int TotalDuration) {
-    TimeIntervalNode tmpNode;
-    ArrayList<TimePacket> packets = new ArrayList<>(1);
+  private void getDayEntry(ArrayList<TimePacket> packets, TimeModelTable Table, String TimeModel, int DayofWeek, int StartTime, int StartSecond, int EndTime, int EndSecond, int TotalDuration) {
+    int Band;
+    int BandTimeTo;
+    int DayOffset;
     int tmpStartTime;
     int tmpEndTime;
     int tmpStartSecond;
@@ -416,46 +491,49 @@ public class TimeModelCache extends AbstractSyncLoaderCache {
     tmpStartTime = StartTime;
     tmpStartSecond = StartSecond;
     tmpEndTime = EndTime;
+    DayOffset = DayofWeek * MINUTES_PER_DAY;
 
-    do {
-      tmpNode = getEntryWithNode(TimeModel, DayofWeek, tmpStartTime);
-
-      if (tmpNode != null) {
-        if (tmpNode.TimeTo == 24 * 60 - 1) {
-          if (EndTime <= tmpNode.TimeTo) {
-            // last packet for the day - create and we have finished
-            tmpEndTime = EndTime;
-            CreateTimePacket(packets, DayofWeek, tmpStartTime, tmpStartSecond, tmpEndTime, EndSecond, TimeModel, tmpNode.Result, TotalDuration);
-            break;
-          } else {
-            // normal packet
-            tmpEndTime = tmpNode.TimeTo;
-            CreateTimePacket(packets, DayofWeek, tmpStartTime, tmpStartSecond, tmpEndTime, EndSecond, TimeModel, tmpNode.Result, TotalDuration);
-
-            // update the temp variables
-            tmpStartTime = tmpNode.TimeTo;
-            tmpEndTime = EndTime;
-            tmpStartSecond = 0;
-          }
+    while (tmpStartTime < MINUTES_PER_DAY) {
+      Band = Table.MinuteBand[DayOffset + tmpStartTime];
+
+      if (Band == NO_BAND) {
+        break;
+      }
+
+      BandTimeTo = Table.BandTimeTo[Band];
+
+      if (BandTimeTo == MINUTES_PER_DAY - 1) {
+        if (EndTime <= BandTimeTo) {
+          // last packet for the day - create and we have finished
+          tmpEndTime = EndTime;
+          CreateTimePacket(packets, DayofWeek, tmpStartTime, tmpStartSecond, tmpEndTime, EndSecond, TimeModel, Table.BandResult[Band], TotalDuration);
+          break;
         } else {
-          if (tmpEndTime <= tmpNode.TimeTo) {
-            // this covers the remaining time
-            CreateTimePacket(packets, DayofWeek, tmpStartTime, tmpStartSecond, tmpEndTime, EndSecond, TimeModel, tmpNode.Result, TotalDuration);
-            break;
-          } else {
-            // normal packet, and there is more to do
-            CreateTimePacket(packets, DayofWeek, tmpStartTime, tmpStartSecond, tmpNode.TimeTo, 60, TimeModel, tmpNode.Result, TotalDuration);
-
-            // Update the variables
-            tmpStartTime = tmpNode.TimeTo + 1;
-            tmpEndTime = EndTime;
-            tmpStartSecond = 0;
-          }
+          // normal packet
+          tmpEndTime = BandTimeTo;
+          CreateTimePacket(packets, DayofWeek, tmpStartTime, tmpStartSecond, tmpEndTime, EndSecond, TimeModel, Table.BandResult[Band], TotalDuration);
+
+          // update the temp variables
+          tmpStartTime = BandTimeTo;
+          tmpEndTime = EndTime;
+          tmpStartSecond = 0;
         }
-      }
-    } while (tmpNode != null);
+      } else {
+        if (tmpEndTime <= BandTimeTo) {
+          // this covers the remaining time
+          CreateTimePacket(packets, DayofWeek, tmpStartTime, tmpStartSecond, tmpEndTime, EndSecond, TimeModel, Table.BandResult[Band], TotalDuration);
+          break;
+        } else {
+          // normal packet, and there is more to do
+          CreateTimePacket(packets, DayofWeek, tmpStartTime, tmpStartSecond, BandTimeTo, 60, TimeModel, Table.BandResult[Band], TotalDuration);
 
-    return packets;
+          // Update the variables
+          tmpStartTime = BandTimeTo + 1;
+          tmpEndTime = EndTime;
+          tmpStartSecond = 0;
+        }
+      }
+    }
   }
 
   /**
@@ -499,64 +577,220 @@ public class TimeModelCache extends AbstractSyncLoaderCache {
   }
 
   /**
-   * Get a value from the TimeModelCache
+   * Get the compiled table of a plan. The state is read once, so that the plan,
+   * its model and its table all come from the same version. The tables are
+   * only compiled here if the models were added without a load, or if another
+   * node has published a new version of a shared map.
+   *
+   * @param Plan The name of the plan
+   * @return The table, or null if the plan is not known
    */
-  private TimeIntervalNode getEntryWithNode(String Plan, int Day, int Time) {
-    TimeIntervalNode tmpIntervalNode;
-    String Model;
-    int CDRMinute;
-    TimeMap tmpTimeMap;
-    boolean finished;
+  private TimeModelTable getPlanTable(String Plan) {
+    TimeModelState tmpState = State;
+
+    if (tmpState.Tables == null || isMapChanged(tmpState)) {
+      tmpState = refreshState();
+    }
+
+    return tmpState.Tables.get(Plan);
+  }
 
-    // Find the correct Time Model for the plan
-    Model = ModelCache.get(Plan);
+  /**
+   * Check whether another node has published a newer version of the shared
+   * time model map than the one the state was compiled from. The shared map
+   * is only read once in each check period.
+   *
+   * @param checkState The state to check
+   * @return true if the state must be compiled again
+   */
+  private boolean isMapChanged(TimeModelState checkState) {
+    long Now;
 
-    if (Model == null) {
-      return null;
+    if (!SharedMap) {
+      return false;
     }
 
-    // Get the interval
-    tmpTimeMap = TimeModelCache.get(Model);
+    Now = System.currentTimeMillis();
 
-    if (tmpTimeMap == null) {
-      logger.warn("TimeMap for model <" + Plan + "> and day <" + Day + "> is empty in <" + getSymbolicName() + ">");
-      return null;
+    if (Now < checkState.NextVersionCheck) {
+      return false;
     }
 
-    // Get the root node for the day
-    if (Day < 0 | Day > 6) {
-      logger.warn("Day <" + Day + "> is outside of the valid range of 0 (Sunday) to 6 (Saturday)");
-      return null;
+    checkState.NextVersionCheck = Now + MapVersionCheckPeriod;
+
+    return getMapVersion() > checkState.Version;
+  }
+
+  /**
+   * Compile the tables again from the time model map, if no other lookup has
+   * done it in the meantime.
+   *
+   * @return The current state
+   */
+  private synchronized TimeModelState refreshState() {
+    TimeModelState tmpState = State;
+    long Version;
+
+    if (tmpState.Tables == null || (SharedMap && getMapVersion() > tmpState.Version)) {
+      Version = Math.max(tmpState.Version, getMapVersion());
+      tmpState = new TimeModelState(Version, TimeModelCache, ModelCache, compileTables(TimeModelCache, ModelCache));
+      State = tmpState;
+    }
+
+    return tmpState;
+  }
+
+  /**
+   * Compile the tables of all of the plans at the end of a load, so that the
+   * first lookup of each plan does not pay for it. When the map is shared, a
+   * new version is published into it after the state, so that the other nodes
+   * compile their tables again, and this one does not.
+   */
+  private synchronized void compileState() {
+    long Version = getMapVersion();
+
+    Version = Math.max(State.Version, Version) + 1;
+    State = new TimeModelState(Version, TimeModelCache, ModelCache, compileTables(TimeModelCache, ModelCache));
+
+    if (SharedMap) {
+      setMapVersion(Version);
+    }
+  }
+
+  /**
+   * Compile the tables of all of the plans.
+   *
+   * @param TimeMaps The time maps of the models
+   * @param Models The models of the plans
+   * @return The tables of the plans
+   */
+  private HashMap<String, TimeModelTable> compileTables(Map<String, TimeMap> TimeMaps, Map<String, String> Models) {
+    HashMap<String, TimeModelTable> Tables = new HashMap<>(Models.size() * 2);
+
+    for (Map.Entry<String, String> Plan : Models.entrySet()) {
+      Tables.put(Plan.getKey(), compileTable(TimeMaps, Plan.getKey(), Plan.getValue()));
     }
 
-    tmpIntervalNode = tmpTimeMap.Intervals[Day];
+    return Tables;
+  }
+
+  /**
+   * Get the version of the time model map, or 0 if none has been published.
+   *
+   * @return The version
+   */
+  private long getMapVersion() {
+    TimeMap tmpVersion = SharedMap ? TimeModelCache.get(MAP_VERSION_KEY) : null;
 
-    // Search through the Day Segments
-    CDRMinute = (Time);
-    finished = false;
+    return (tmpVersion == null) ? 0 : tmpVersion.Version;
+  }
 
-    // search the nodes
-    while (!finished) {
-      if (tmpIntervalNode == null) {
+  /**
+   * Publish a version of the shared time model map, once all of the models of
+   * that version are in it.
+   *
+   * @param Version The version
+   */
+  private void setMapVersion(long Version) {
+    TimeMap tmpVersion = new TimeMap();
+
+    tmpVersion.Version = Version;
+    TimeModelCache.put(MAP_VERSION_KEY, tmpVersion);
+  }
+
+  /**
+   * Compile the time map of a model into a table. The gaps in the model are
+   * reported here once, rather than on each lookup.
+   *
+   * @param TimeMaps The time maps of the models
+   * @param Plan The plan that the model is used by
+   * @param Model The time model
+   * @return The table
+   */
+  private TimeModelTable compileTable(Map<String, TimeMap> TimeMaps, String Plan, String Model) {
+    TimeMap tmpTimeMap;
+    TimeModelTable tmpTable;
+    TimeIntervalNode tmpIntervalNode;
+    int BandCount = 0;
+    int Band = 0;
+
+    // Get the interval
+    tmpTimeMap = TimeMaps.get(Model);
+
+    if (tmpTimeMap == null) {
+      logger.warn("TimeMap for model <" + Plan + "> is empty in <" + getSymbolicName() + ">");
+      return EMPTY_TABLE;
+    }
+
+    for (int Day = 0; Day < DAYS_PER_WEEK; Day++) {
+      if (tmpTimeMap.Intervals[Day] == null) {
         logger.warn("TimeMap for model <" + Plan + "> and day <" + Day + "> is empty in <" + getSymbolicName() + ">");
-        return null;
       }
 
-      if (CDRMinute >= tmpIntervalNode.TimeFrom) {
-        if (CDRMinute <= tmpIntervalNode.TimeTo) {
-          return tmpIntervalNode;
-        }
+      for (tmpIntervalNode = tmpTimeMap.Intervals[Day]; tmpIntervalNode != null; tmpIntervalNode = tmpIntervalNode.child) {
+        BandCount++;
       }
+    }
 
-      if (tmpIntervalNode.child != null) {
-        tmpIntervalNode = tmpIntervalNode.child;
-      } else {
-        // run out of segments
-        finished = true;
+    tmpTable = new TimeModelTable();
+    tmpTable.BandTimeTo = new int[BandCount];
+    tmpTable.BandResult = new String[BandCount];
+    Arrays.fill(tmpTable.MinuteBand, NO_BAND);
+
+    // fill the minutes of each band that earlier bands have not taken
+    for (int Day = 0; Day < DAYS_PER_WEEK; Day++) {
+      for (tmpIntervalNode = tmpTimeMap.Intervals[Day]; tmpIntervalNode != null; tmpIntervalNode = tmpIntervalNode.child) {
+        tmpTable.BandTimeTo[Band] = tmpIntervalNode.TimeTo;
+        tmpTable.BandResult[Band] = tmpIntervalNode.Result;
+
+        for (int Minute = Math.max(tmpIntervalNode.TimeFrom, 0); Minute <= tmpIntervalNode.TimeTo && Minute < MINUTES_PER_DAY; Minute++) {
+          if (tmpTable.MinuteBand[Day * MINUTES_PER_DAY + Minute] == NO_BAND) {
+            tmpTable.MinuteBand[Day * MINUTES_PER_DAY + Minute] = Band;
+          }
+        }
+
+        Band++;
       }
     }
 
-    return null;
+    return tmpTable;
+  }
+
+  /**
+   * Publish a new state after a model or plan has been added, dropping the
+   * compiled tables until the load compiles them. While loading there are no
+   * tables, so this does not allocate a new state for each entry.
+   */
+  private void publishState() {
+    TimeModelState tmpState = State;
+
+    if (tmpState.Tables != null || tmpState.TimeMaps != TimeModelCache || tmpState.Models != ModelCache) {
+      State = new TimeModelState(tmpState.Version, TimeModelCache, ModelCache, null);
+    }
+  }
+
+  /**
+   * Get the local time of a UTC time in seconds, in the given time zone
+   *
+   * @param Zone The time zone
+   * @param UTCTime The UTC time in seconds
+   * @return The local time in seconds
+   */
+  private static long toLocalTime(TimeZone Zone, long UTCTime) {
+    return UTCTime + Zone.getOffset(UTCTime * 1000) / 1000;
+  }
+
+  /**
+   * Get the non negative remainder of a division
+   *
+   * @param Value The value to divide
+   * @param Divisor The divisor
+   * @return The remainder, from 0 to divisor - 1
+   */
+  private static int floorMod(long Value, int Divisor) {
+    int Remainder = (int) (Value % Divisor);
+
+    return (Remainder < 0) ? Remainder + Divisor : Remainder;
   }
 
 // -----------------------------------------------------------------------------
@@ -636,6 +870,9 @@ public class TimeModelCache extends AbstractSyncLoaderCache {
       }
     }
 
+    // compile the tables now, rather than on the first lookup of each plan
+    compileState();
+
     logger.info("Time Model Cache: <" + IntervalsLoaded + "> Model intervals Loaded");
     logger.info("Time Model Cache: <" + ModelsLoaded + "> Mappings Loaded");
     logger.info(
@@ -802,6 +1039,9 @@ public class TimeModelCache extends AbstractSyncLoaderCache {
     // check that we have complete coverage of the time models
     logger.info("Time Model Cache: <" + IntervalsLoaded + "> Checking Model intervals");
 
+    // compile the tables now, rather than on the first lookup of each plan
+    compileState();
+
     logger.info("Time Model Cache: <" + IntervalsLoaded + "> Model intervals Loaded");
     logger.info("Time Model Cache: <" + ModelsLoaded + "> Mappings Loaded");
     logger.info("Time Model Cache: <" + DaysLoaded + "> Days Loaded");
@@ -910,6 +1150,9 @@ public class TimeModelCache extends AbstractSyncLoaderCache {
       }
     }
 
+    // compile the tables now, rather than on the first lookup of each plan
+    compileState();
+
     logger.info("Time Model Cache: <" + IntervalsLoaded + "> Model intervals Loaded");
     logger.info("Time Model Cache: <" + ModelsLoaded + "> Mappings Loaded");
     logger.info("Time Model Cache: <" + DaysLoaded + "> Days Loaded");
@@ -923,6 +1166,7 @@ public class TimeModelCache extends AbstractSyncLoaderCache {
   public void clearCacheObjects() {
     TimeModelCache.clear();
     ModelCache.clear();
+    State = new TimeModelState(State.Version, TimeModelCache, ModelCache, null);
 
     if (dayMapDefined) {
       // clear it because we have a non-default map to load
@@ -930,6 +1174,67 @@ public class TimeModelCache extends AbstractSyncLoaderCache {
     }
   }
 
+  /**
+   * Create the instance to load a snapshot into. The snapshot holds its time
+   * maps in a local map, so that loading does not write each interval through
+   * to the shared map.
+   *
+   * @return The empty cache
+   */
+  @Override
+  protected AbstractSyncLoaderCache createSnapshotCache() {
+    return new TimeModelCache(new HashMap<String, TimeMap>());
+  }
+
+  /**
+   * Take over the data of a snapshot loaded in the background. The lookups
+   * switch to the plans and time maps of the snapshot in one step, by
+   * publishing a new state. The time model map may be shared, so we cannot
+   * swap it: it is brought up to date afterwards, with each model's time map
+   * replaced in one put, and the models that are no longer loaded removed.
+   * The lookups of this cache do not read it in between, and the other nodes
+   * only take it over once the new version has been published into it.
+   *
+   * The snapshot compiled its tables at the end of its load, so the lookups
+   * switch to them without compiling anything.
+   *
+   * @param snapshot The loaded snapshot
+   */
+  @Override
+  protected void publishSnapshot(AbstractSyncLoaderCache snapshot) {
+    TimeModelCache loaded = (TimeModelCache) snapshot;
+    ArrayList<String> removedModels = new ArrayList<>();
+    TimeModelState loadedState = loaded.State;
+    long Version;
+
+    if (loadedState.Tables == null) {
+      loadedState = loaded.refreshState();
+    }
+
+    Version = Math.max(State.Version, getMapVersion()) + 1;
+
+    DayCache = loaded.DayCache;
+    ModelCache = loaded.ModelCache;
+    dayMapDefined = loaded.dayMapDefined;
+    State = new TimeModelState(Version, loaded.TimeModelCache, loaded.ModelCache, loadedState.Tables);
+
+    TimeModelCache.putAll(loaded.TimeModelCache);
+
+    for (String model : TimeModelCache.keySet()) {
+      if (!loaded.TimeModelCache.containsKey(model) && !model.equals(MAP_VERSION_KEY)) {
+        removedModels.add(model);
+      }
+    }
+
+    for (String model : removedModels) {
+      TimeModelCache.remove(model);
+    }
+
+    if (SharedMap) {
+      setMapVersion(Version);
+    }
+  }
+
   // -----------------------------------------------------------------------------
   // ---------------- Start of data base data layer functions --------------------
   // -----------------------------------------------------------------------------
@@ -1101,7 +1406,7 @@ public class TimeModelCache extends AbstractSyncLoaderCache {
 
     // Return the number of objects in the cache
     if (Command.equalsIgnoreCase(SERVICE_GROUP_COUNT)) {
-      return Integer.toString(TimeModelCache.size());
+      return Integer.toString(TimeModelCache.size() - (TimeModelCache.containsKey(MAP_VERSION_KEY) ? 1 : 0));
     }
 
     if (ResultCode == 0) {
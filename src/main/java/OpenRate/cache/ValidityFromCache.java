@@ -5,6 +5,7 @@ import OpenRate.OpenRate;
 import OpenRate.configurationmanager.ClientManager;
 import OpenRate.db.DBUtil;
 import OpenRate.exception.InitializationException;
+import OpenRate.lang.ValidityTimeline;
 import OpenRate.logging.LogUtil;
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
@@ -24,20 +25,10 @@ import java.util.Iterator;
 public class ValidityFromCache
         extends AbstractSyncLoaderCache {
 
-  // This stores the index to all the groups.
-  private final HashMap<String, HashMap<String, ValidityNode>> GroupCache;
-
-  /**
-   * A ValidityNode is a segment of validity of a resource. These are chained
-   * together in a sorted linked list. The sorting is done at insertion time
-   * into the list, meaning that lookups at run time can be optimised.
-   */
-  private class ValidityNode {
-
-    long TimeFrom;
-    ArrayList<String> Results = null;
-    ValidityNode child = null;
-  }
+  // This stores the index to all the groups. Each resource has a timeline of
+  // the times that its values become valid, sorted by time. The sorting is
+  // done at insertion time, meaning that lookups at run time can be optimised.
+  private volatile HashMap<String, HashMap<String, ValidityTimeline<ArrayList<String>>>> GroupCache;
 
   // List of Services that this Client supports
   private final static String SERVICE_GROUP_COUNT = "GroupCount";
@@ -63,7 +54,7 @@ public class ValidityFromCache
   /**
    * Add a value into the Validity Segment Cache, defining the result value that
    * should be returned in the case of a match. The entries are ordered during
-   * the loading in a linked list sorted by validity date. This makes the search
+   * the loading in a timeline sorted by validity date. This makes the search
    * at run time easier.
    *
    * @param Group The data group to add the entry to
@@ -73,9 +64,9 @@ public class ValidityFromCache
    */
   public void addEntry(String Group, String ResourceID, long StartTime,
           ArrayList<String> Results) {
-    HashMap<String, ValidityNode> tmpResourceCache;
-    ValidityNode tmpValidityNode;
-    ValidityNode newNode;
+    HashMap<String, ValidityTimeline<ArrayList<String>>> tmpResourceCache;
+    ValidityTimeline<ArrayList<String>> tmpTimeline;
+    int position;
 
     // See if we already have the group cache for this Group
     if (!GroupCache.containsKey(Group)) {
@@ -89,54 +80,29 @@ public class ValidityFromCache
       tmpResourceCache = GroupCache.get(Group);
     }
 
-    // Now add the validity segment into the list
-    if (!tmpResourceCache.containsKey(ResourceID)) {
-      // Create the new list
-      tmpValidityNode = new ValidityNode();
-      tmpValidityNode.TimeFrom = StartTime;
-      tmpValidityNode.Results = Results;
-      tmpValidityNode.child = null;
+    // Now add the validity segment into the timeline
+    tmpTimeline = tmpResourceCache.get(ResourceID);
 
-      // Add in the new node
-      tmpResourceCache.put(ResourceID, tmpValidityNode);
-    } else {
-      // Recover the validity map that there is
-      tmpValidityNode = tmpResourceCache.get(ResourceID);
-
-      // now run down the validity periods until we find the right position
-      while (tmpValidityNode != null) {
-        if (StartTime < tmpValidityNode.TimeFrom) {
-          // insert before the current node
-          newNode = new ValidityNode();
-          newNode.child = tmpValidityNode;
-          newNode.TimeFrom = StartTime;
-          newNode.Results = Results;
-          
-          // Update the head pointer in the hashmap
-          tmpResourceCache.put(ResourceID, newNode);
-
-          // done
-          return;
-        } else if ((StartTime > tmpValidityNode.TimeFrom)
-                & (tmpValidityNode.child == null)) {
-          // insert at the tail of the list
-          newNode = new ValidityNode();
-          tmpValidityNode.child = newNode;
-          newNode.TimeFrom = StartTime;
-          newNode.Results = Results;
-
-          // done
-          return;
-        }
+    if (tmpTimeline == null) {
+      // Create the new timeline. Each value is valid until the next one starts.
+      tmpTimeline = new ValidityTimeline<>();
+      tmpTimeline.add(StartTime, CommonConfig.HIGH_DATE, Results);
 
-        // Move down the map
-        tmpValidityNode = tmpValidityNode.child;
+      // Add in the new timeline
+      tmpResourceCache.put(ResourceID, tmpTimeline);
+    } else {
+      // insert after the last period that starts at or before this one
+      position = tmpTimeline.findLatest(StartTime) + 1;
+
+      if ((position == tmpTimeline.size()) && (position > 0)
+              && (tmpTimeline.getFrom(position - 1) == StartTime)) {
+        // If we get here, we could not insert the period
+        OpenRate.getOpenRateFrameworkLog().error("Cache <" + getSymbolicName()
+                + "> could not insert <" + Group + ":" + ResourceID + ":"
+                + StartTime + ":" + "> without overlap.");
+      } else {
+        tmpTimeline.insert(position, StartTime, CommonConfig.HIGH_DATE, Results);
       }
-
-      // If we get here, we could not insert the period
-      OpenRate.getOpenRateFrameworkLog().error("Cache <" + getSymbolicName()
-              + "> could not insert <" + Group + ":" + ResourceID + ":"
-              + StartTime + ":" + "> without overlap.");
     }
   }
 
@@ -150,35 +116,15 @@ public class ValidityFromCache
    * @return The retrieved value, or "NOMATCH" if none found
    */
   public String getValiditySegmentMatch(String Group, String ResourceID, long Time) {
-    HashMap<String, ValidityNode> tmpResourceCache;
-    ValidityNode tmpValidityNode;
+    ArrayList<String> Value;
 
-    // Get the service if we know it
-    tmpResourceCache = GroupCache.get(Group);
+    Value = getValiditySegmentMatchWithChildData(Group, ResourceID, Time);
 
-    if (tmpResourceCache != null) {
-      tmpValidityNode = tmpResourceCache.get(ResourceID);
-
-      // Now that we have the Validity Map, get the entry
-      while (tmpValidityNode != null) {
-        if (Time >= tmpValidityNode.TimeFrom) {
-          if (tmpValidityNode.child == null) {
-            // end of chain, return what we have
-            return tmpValidityNode.Results.get(0);
-          } else {
-            // next in chain is not valid for out time
-            if (tmpValidityNode.child.TimeFrom > Time) {
-              return tmpValidityNode.Results.get(0);
-            }
-          }
-        }
-
-        // Move down the map
-        tmpValidityNode = tmpValidityNode.child;
-      }
+    if (Value == null) {
+      return NO_VALIDITY_MATCH;
+    } else {
+      return Value.get(0);
     }
-
-    return NO_VALIDITY_MATCH;
   }
 
   /**
@@ -191,36 +137,28 @@ public class ValidityFromCache
    * @return The retrieved value vector, or null if none found
    */
   public ArrayList<String> getValiditySegmentMatchWithChildData(String Group, String ResourceID, long Time) {
-    HashMap<String, ValidityNode> tmpResourceCache;
-    ValidityNode tmpValidityNode;
-    ArrayList<String> Value = null;
+    HashMap<String, ValidityTimeline<ArrayList<String>>> tmpResourceCache;
+    ValidityTimeline<ArrayList<String>> tmpTimeline;
+    int position;
 
     // Get the service if we know it
     tmpResourceCache = GroupCache.get(Group);
 
     if (tmpResourceCache != null) {
-      tmpValidityNode = tmpResourceCache.get(ResourceID);
-
-      // Now that we have the Validity Map, get the entry
-      while (tmpValidityNode != null) {
-        if (Time >= tmpValidityNode.TimeFrom) {
-          if (tmpValidityNode.child == null) {
-            // end of chain, return what we have
-            return tmpValidityNode.Results;
-          } else {
-            // next in chain is not valid for out time
-            if (tmpValidityNode.child.TimeFrom > Time) {
-              return tmpValidityNode.Results;
-            }
-          }
-        }
+      tmpTimeline = tmpResourceCache.get(ResourceID);
+
+      // Now that we have the timeline, the value valid at the time is the one
+      // that started last before it
+      if (tmpTimeline != null) {
+        position = tmpTimeline.findLatest(Time);
 
-        // Move down the map
-        tmpValidityNode = tmpValidityNode.child;
+        if (position >= 0) {
+          return tmpTimeline.getValue(position);
+        }
       }
     }
 
-    return Value;
+    return null;
   }
 
 // -----------------------------------------------------------------------------
@@ -542,7 +480,7 @@ public class ValidityFromCache
   @Override
   public String processControlEvent(String Command, boolean Init,
           String Parameter) {
-    HashMap<String, ValidityNode> tmpResource;
+    HashMap<String, ValidityTimeline<ArrayList<String>>> tmpResource;
     Collection<String> tmpGroups;
     Iterator<String> GroupIter;
     String tmpGroupName;
@@ -583,4 +521,14 @@ public class ValidityFromCache
   public void clearCacheObjects() {
     GroupCache.clear();
   }
+
+  /**
+   * Take over the data of a snapshot loaded in the background
+   *
+   * @param snapshot The loaded snapshot
+   */
+  @Override
+  protected void publishSnapshot(AbstractSyncLoaderCache snapshot) {
+    GroupCache = ((ValidityFromCache) snapshot).GroupCache;
+  }
 }
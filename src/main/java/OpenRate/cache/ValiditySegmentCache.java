@@ -6,6 +6,7 @@ import OpenRate.OpenRate;
 import OpenRate.configurationmanager.ClientManager;
 import OpenRate.db.DBUtil;
 import OpenRate.exception.InitializationException;
+import OpenRate.lang.ValidityTimeline;
 import OpenRate.logging.LogUtil;
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
@@ -64,21 +65,10 @@ import java.util.Iterator;
 public class ValiditySegmentCache
      extends AbstractSyncLoaderCache
 {
-  // This stores the index to all the groups.
-  private HashMap<String, HashMap<String, ValidityNode>> GroupCache;
-
- /**
-  * A ValidityNode is a segment of validity of a resource. These are chained
-  * together in a sorted linked list. The sorting is done at insertion time
-  * into the list, meaning that lookups at run time can be optimised.
-  */
-  private class ValidityNode
-  {
-    long           TimeFrom;
-    long           TimeTo;
-    ArrayList<String> Results = null;
-    ValidityNode   child = null;
-  }
+  // This stores the index to all the groups. Each resource has a timeline of
+  // its validity segments, sorted by validity date. The sorting is done at
+  // insertion time, meaning that lookups at run time can be optimised.
+  private volatile HashMap<String, HashMap<String, ValidityTimeline<ArrayList<String>>>> GroupCache;
 
   // List of Services that this Client supports
   private final static String SERVICE_GROUP_COUNT = "GroupCount";
@@ -119,10 +109,9 @@ public class ValiditySegmentCache
   {
     long         tmpTimeFrom;
     long         lastValidTo;
-    HashMap<String, ValidityNode>      tmpResourceCache;
-    ValidityNode tmpValidityNode;
-    ValidityNode tmpValidityNextNode;
-    ValidityNode newNode;
+    HashMap<String, ValidityTimeline<ArrayList<String>>> tmpResourceCache;
+    ValidityTimeline<ArrayList<String>> tmpTimeline;
+    int          lastSegment;
 
     // See if we already have the group cache for this Group
     if (!GroupCache.containsKey(Group))
@@ -139,91 +128,64 @@ public class ValiditySegmentCache
       tmpResourceCache = GroupCache.get(Group);
     }
 
-    // Now add the validity segment into the list
-    if (!tmpResourceCache.containsKey(ResourceID))
+    // Now add the validity segment into the timeline
+    tmpTimeline = tmpResourceCache.get(ResourceID);
+
+    if (tmpTimeline == null)
     {
-      // Create the new list
-      tmpValidityNode = new ValidityNode();
-      tmpValidityNode.TimeFrom = StartTime;
-      tmpValidityNode.TimeTo = EndTime;
-      tmpValidityNode.Results = Results;
-      tmpValidityNode.child = null;
-
-      // Add in the new node
-      tmpResourceCache.put(ResourceID, tmpValidityNode);
+      // Create the new timeline
+      tmpTimeline = new ValidityTimeline<>();
+      tmpTimeline.add(StartTime, EndTime, Results);
+
+      // Add in the new timeline
+      tmpResourceCache.put(ResourceID, tmpTimeline);
     }
     else
     {
-      // Recover the validity map that there is
-      tmpValidityNode = tmpResourceCache.get(ResourceID);
-
       // preset our valid to date
       lastValidTo = CommonConfig.LOW_DATE;
+      lastSegment = tmpTimeline.size() - 1;
 
       // now run down the validity periods until we find the right position
-      while (tmpValidityNode != null)
+      for (int Segment = 0; Segment <= lastSegment; Segment++)
       {
-        tmpValidityNextNode = tmpValidityNode.child;
-
-        if (tmpValidityNextNode != null)
+        if (Segment < lastSegment)
         {
-          tmpTimeFrom = tmpValidityNextNode.TimeFrom;
+          tmpTimeFrom = tmpTimeline.getFrom(Segment + 1);
         }
         else
         {
           tmpTimeFrom = CommonConfig.HIGH_DATE;
         }
 
-        if ((StartTime > tmpValidityNode.TimeTo) &
-            (tmpValidityNextNode == null))
+        if ((StartTime > tmpTimeline.getTo(Segment)) &
+            (Segment == lastSegment))
         {
-          // insert at the tail of the list if we are able
-          newNode = new ValidityNode();
-          tmpValidityNode.child = newNode;
-          newNode.TimeFrom = StartTime;
-          newNode.TimeTo = EndTime;
-          newNode.Results = Results;
+          // insert at the tail of the timeline if we are able
+          tmpTimeline.add(StartTime, EndTime, Results);
 
           // done
           return;
         }
         else if ((StartTime > lastValidTo) &
-            (EndTime <= tmpValidityNode.TimeFrom))
+            (EndTime <= tmpTimeline.getFrom(Segment)))
         {
-          // insert at the head of the list
-          newNode = new ValidityNode();
-
-          // move the information over
-          newNode.TimeFrom = tmpValidityNode.TimeFrom;
-          newNode.TimeTo = tmpValidityNode.TimeTo;
-          newNode.Results = tmpValidityNode.Results;
-          newNode.child = tmpValidityNode.child;
-
-          // add the new information
-          tmpValidityNode.TimeFrom = StartTime;
-          tmpValidityNode.TimeTo = EndTime;
-          tmpValidityNode.Results = Results;
-          tmpValidityNode.child = newNode;
+          // insert before this segment
+          tmpTimeline.insert(Segment, StartTime, EndTime, Results);
 
           // done
           return;
         }
-        else if ((StartTime > tmpValidityNode.TimeTo) & (EndTime <= tmpTimeFrom))
+        else if ((StartTime > tmpTimeline.getTo(Segment)) & (EndTime <= tmpTimeFrom))
         {
-          // insert in the middle of the list
-          newNode = new ValidityNode();
-          newNode.child = tmpValidityNode.child;
-          tmpValidityNode.child = newNode;
-          newNode.TimeFrom = StartTime;
-          newNode.TimeTo = EndTime;
-          newNode.Results = Results;
+          // insert after this segment
+          tmpTimeline.insert(Segment + 1, StartTime, EndTime, Results);
 
           return;
         }
 
-        // Move down the map
-        lastValidTo = tmpValidityNode.TimeTo;
-        tmpValidityNode = tmpValidityNode.child;
+        // Move down the timeline
+        lastValidTo = tmpTimeline.getTo(Segment);
       }
 
       // If we get here, we could not insert the period
@@ -244,31 +206,18 @@ public class ValiditySegmentCache
   */
   public String getValiditySegmentMatch(String Group, String ResourceID, long Time)
   {
-    HashMap<String, ValidityNode>        tmpResourceCache;
-    ValidityNode   tmpValidityNode;
+    ArrayList<String> Value;
 
-    // Get the service if we know it
-    tmpResourceCache = GroupCache.get(Group);
+    Value = getValiditySegmentMatchWithChildData(Group, ResourceID, Time);
 
-    if (tmpResourceCache != null)
+    if (Value == null)
     {
-      tmpValidityNode = tmpResourceCache.get(ResourceID);
-
-      // Now that we have the Validity Map, get the entry
-      while (tmpValidityNode != null)
-      {
-        if ((tmpValidityNode.TimeFrom <= Time) &
-            (tmpValidityNode.TimeTo > Time))
-        {
-          return tmpValidityNode.Results.get(0);
-        }
-
-        // Move down the map
-        tmpValidityNode = tmpValidityNode.child;
-      }
+      return NO_VALIDITY_MATCH;
+    }
+    else
+    {
+      return Value.get(0);
     }
-
-    return NO_VALIDITY_MATCH;
   }
 
  /**
@@ -282,32 +231,30 @@ public class ValiditySegmentCache
   */
   public ArrayList<String> getValiditySegmentMatchWithChildData(String Group, String ResourceID, long Time)
   {
-    HashMap<String, ValidityNode>        tmpResourceCache;
-    ValidityNode   tmpValidityNode;
-    ArrayList<String> Value = null;
+    HashMap<String, ValidityTimeline<ArrayList<String>>> tmpResourceCache;
+    ValidityTimeline<ArrayList<String>> tmpTimeline;
+    int               Segment;
 
     // Get the service if we know it
     tmpResourceCache = GroupCache.get(Group);
 
     if (tmpResourceCache != null)
     {
-      tmpValidityNode = tmpResourceCache.get(ResourceID);
+      tmpTimeline = tmpResourceCache.get(ResourceID);
 
-      // Now that we have the Validity Map, get the entry
-      while (tmpValidityNode != null)
+      // Now that we have the timeline, get the entry
+      if (tmpTimeline != null)
       {
-        if ((tmpValidityNode.TimeFrom <= Time) &
-            (tmpValidityNode.TimeTo > Time))
+        Segment = tmpTimeline.findFirst(Time);
+
+        if (Segment >= 0)
         {
-          return tmpValidityNode.Results;
+          return tmpTimeline.getValue(Segment);
         }
-
-        // Move down the map
-        tmpValidityNode = tmpValidityNode.child;
       }
     }
 
-    return Value;
+    return null;
   }
 
 // -----------------------------------------------------------------------------
@@ -680,7 +627,7 @@ public class ValiditySegmentCache
   public String processControlEvent(String Command, boolean Init,
                                     String Parameter)
   {
-    HashMap<String, ValidityNode> tmpResource;
+    HashMap<String, ValidityTimeline<ArrayList<String>>> tmpResource;
     Collection<String> tmpGroups;
     Iterator<String> GroupIter;
     String tmpGroupName;
@@ -728,5 +675,16 @@ public class ValiditySegmentCache
   {
     GroupCache.clear();
   }
+
+ /**
+  * Take over the data of a snapshot loaded in the background
+  *
+  * @param snapshot The loaded snapshot
+  */
+  @Override
+  protected void publishSnapshot(AbstractSyncLoaderCache snapshot)
+  {
+    GroupCache = ((ValiditySegmentCache) snapshot).GroupCache;
+  }
 }
 
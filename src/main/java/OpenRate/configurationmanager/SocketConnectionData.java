@@ -2,6 +2,8 @@
 
 package OpenRate.configurationmanager;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * @author = g.z.
  * This is a bean object containing attributes necessary to manipulate <br/>
@@ -12,18 +14,19 @@ package OpenRate.configurationmanager;
  */
 public class SocketConnectionData
 {
-  //number of allowed concurrent connections
-  private int connectionNumber = 0;
+  //number of allowed concurrent connections. Incremented by the socket
+  //server, but decremented by each of the listener threads as they finish
+  private final AtomicInteger connectionNumber = new AtomicInteger();
 
   //boolean value for the listener's while looping.
-  private boolean loop = true;
+  private volatile boolean loop = true;
   
   /**
    * add a connection to the number managed
    */
   public void incrementCount()
   {
-    connectionNumber++;
+    connectionNumber.incrementAndGet();
   }
 
   /**
@@ -31,7 +34,7 @@ public class SocketConnectionData
    */
   public void decrementCount()
   {
-    connectionNumber--;
+    connectionNumber.decrementAndGet();
   }
 
   /**
@@ -41,7 +44,7 @@ public class SocketConnectionData
    */
   public int getConnectionNumber()
   {
-    return connectionNumber;
+    return connectionNumber.get();
   }
 
   /**
@@ -51,7 +54,7 @@ public class SocketConnectionData
    */
   public void setConnectionNumber(int connectionNumber)
   {
-    this.connectionNumber = connectionNumber;
+    this.connectionNumber.set(connectionNumber);
   }
 
   /**
@@ -15,6 +15,11 @@ import java.util.concurrent.ConcurrentHashMap;
  * contain any number of counter "buckets". A bucket therefore is a period
  * of validity of a counter.
  *
+ * Counters are added under the balance lock, so that two threads adding to
+ * the same group do not get the same record id or lose a counter group. The
+ * balances of the counters themselves are updated without locking, see
+ * Counter.
+ *
  * @author ian
  */
 public class BalanceGroup
@@ -23,15 +28,15 @@ public class BalanceGroup
   private final Map<Integer, CounterGroup> counterList;
 
   // Used for keeping track of balances to purge
-  private boolean balanceDirty = false;
+  private volatile boolean balanceDirty = false;
 
   // Used for giving each counter a unique id
   private long currentRecId = 0;
 
  /**
-  * Used for locking
+  * Used for locking when changing the structure of the group
   */
-  public Object balanceLock;
+  public final Object balanceLock = new Object();
 
  /** Creates a new instance of BalanceGroup */
   public BalanceGroup()
@@ -50,26 +55,45 @@ public class BalanceGroup
   */
   public Counter addCounter(int counterId, long validFrom, long validTo, double currentBal)
   {
-    CounterGroup tmpCounterGroup;
-
-    if (!counterList.containsKey(counterId))
+    synchronized (balanceLock)
     {
-      // Create the new counter list
-      tmpCounterGroup = new CounterGroup();
-      counterList.put(counterId,tmpCounterGroup);
       ++currentRecId;
-      return tmpCounterGroup.addCounter(currentRecId,validFrom,validTo,currentBal);
+      return getOrAddCounterGroup(counterId).addCounter(currentRecId,validFrom,validTo,currentBal);
     }
-    else
+  }
+
+ /**
+  * Add the counter to the counter group using the next RecID available, but
+  * only if the group does not already have a counter valid at the given date.
+  * The check and the add are done under the balance lock, so that threads
+  * creating the same counter at the same time only create it once.
+  *
+  * @param counterId The ID of the counter
+  * @param counterDate The date the counter must be valid at
+  * @param validFrom The validity start date of the counter
+  * @param validTo The validity end date of the counter
+  * @param currentBal The current balance
+  * @return The added counter, or null if there was already one
+  */
+  public Counter addCounterIfAbsent(int counterId, long counterDate, long validFrom, long validTo, double currentBal)
+  {
+    synchronized (balanceLock)
     {
-      tmpCounterGroup = counterList.get(counterId);
+      CounterGroup tmpCounterGroup = getOrAddCounterGroup(counterId);
+
+      if (tmpCounterGroup.getCounterByUTCDate(counterDate) != null)
+      {
+        return null;
+      }
+
       ++currentRecId;
       return tmpCounterGroup.addCounter(currentRecId,validFrom,validTo,currentBal);
     }
   }
 
  /**
-  * Add the counter to the counter group, using a specified RecID
+  * Add the counter to the counter group, using a specified RecID. The next
+  * RecID handed out will be after this one.
   *
   * @param counterId The ID of the counter
   * @param recId The Rec ID to use
@@ -79,19 +103,14 @@ public class BalanceGroup
   */
   public void addCounter(int counterId, long recId, long validFrom, long validTo, double currentBal)
   {
-    CounterGroup tmpCounterGroup;
-
-    if (!counterList.containsKey(counterId))
+    synchronized (balanceLock)
     {
-      // Create the new counter list
-      tmpCounterGroup = new CounterGroup();
-      counterList.put(counterId,tmpCounterGroup);
-      tmpCounterGroup.addCounter(recId,validFrom,validTo,currentBal);
-    }
-    else
-    {
-      tmpCounterGroup = counterList.get(counterId);
-      tmpCounterGroup.addCounter(recId,validFrom,validTo,currentBal);
+      getOrAddCounterGroup(counterId).addCounter(recId,validFrom,validTo,currentBal);
+
+      if (recId > currentRecId)
+      {
+        currentRecId = recId;
+      }
     }
   }
 
@@ -106,7 +125,11 @@ public class BalanceGroup
     CounterGroup tmpCounterGroup;
 
     tmpCounterGroup = new CounterGroup();
-    counterList.put(counterId,tmpCounterGroup);
+
+    synchronized (balanceLock)
+    {
+      counterList.put(counterId,tmpCounterGroup);
+    }
 
     return tmpCounterGroup;
   }
@@ -129,14 +152,7 @@ public class BalanceGroup
   */
   public CounterGroup getCounterGroup(int counterId)
   {
-    CounterGroup tmpCounterGroup = null;
-
-    if (counterList.containsKey(counterId))
-    {
-      tmpCounterGroup = counterList.get(counterId);
-    }
-
-    return tmpCounterGroup;
+    return counterList.get(counterId);
   }
 
  /**
@@ -155,7 +171,10 @@ public class BalanceGroup
   */
   public void setRecId(long newRecId)
   {
-    currentRecId = newRecId;
+    synchronized (balanceLock)
+    {
+      currentRecId = newRecId;
+    }
   }
 
  /**
@@ -165,7 +184,28 @@ public class BalanceGroup
   */
   public long getRecId()
   {
-    return currentRecId;
+    synchronized (balanceLock)
+    {
+      return currentRecId;
+    }
+  }
+
+ /**
+  * Get the counter group for the counter ID, creating it if needed. Call
+  * under the balance lock.
+  */
+  private CounterGroup getOrAddCounterGroup(int counterId)
+  {
+    CounterGroup tmpCounterGroup = counterList.get(counterId);
+
+    if (tmpCounterGroup == null)
+    {
+      // Create the new counter list
+      tmpCounterGroup = new CounterGroup();
+      counterList.put(counterId,tmpCounterGroup);
+    }
+
+    return tmpCounterGroup;
   }
 
   /**
@@ -0,0 +1,104 @@
+package OpenRate.lang;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter over 128 bit key fingerprints. It answers whether a key
+ * might have been added: a negative answer is certain, while a positive answer
+ * is wrong at about the false positive rate the filter was sized for, as long
+ * as no more than the expected number of keys are added.
+ *
+ * Bits are set atomically, so keys can be added and tested from several
+ * threads without locking, and a key is never lost by a concurrent add.
+ */
+public class BloomFilter
+{
+  // the bits of the filter
+  private final AtomicLongArray words;
+
+  // the number of bits, and of bits set per key
+  private final long bitCount;
+  private final int  hashCount;
+
+ /**
+  * Create a filter sized for the given number of keys
+  *
+  * @param expectedKeys The number of keys that will be added
+  * @param falsePositiveRate The false positive rate at that number of keys
+  */
+  public BloomFilter(long expectedKeys, double falsePositiveRate)
+  {
+    long keys = Math.max(1, expectedKeys);
+    long bits = (long) Math.ceil(-keys * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+    int  wordCount = (int) Math.min(Integer.MAX_VALUE, Math.max(1, (bits + 63) / 64));
+
+    words = new AtomicLongArray(wordCount);
+    bitCount = wordCount * 64L;
+    hashCount = Math.max(1, (int) Math.round((double) bitCount / keys * Math.log(2)));
+  }
+
+ /**
+  * Add a key
+  *
+  * @param high The high 64 bits of the fingerprint
+  * @param low The low 64 bits of the fingerprint
+  */
+  public void add(long high, long low)
+  {
+    for (int i = 0; i < hashCount; i++)
+    {
+      long bit = bitIndex(high, low, i);
+      int  word = (int) (bit >>> 6);
+      long mask = 1L << bit;
+      long value = words.get(word);
+
+      while ((value & mask) == 0 && !words.compareAndSet(word, value, value | mask))
+      {
+        value = words.get(word);
+      }
+    }
+  }
+
+ /**
+  * Test if a key might have been added
+  *
+  * @param high The high 64 bits of the fingerprint
+  * @param low The low 64 bits of the fingerprint
+  * @return false if the key was certainly not added
+  */
+  public boolean mightContain(long high, long low)
+  {
+    for (int i = 0; i < hashCount; i++)
+    {
+      long bit = bitIndex(high, low, i);
+
+      if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0)
+      {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+ /**
+  * Get the number of bits in the filter
+  *
+  * @return The number of bits
+  */
+  public long getBitCount()
+  {
+    return bitCount;
+  }
+
+ /**
+  * Get the i'th bit of a key, combining the two halves of the fingerprint
+  * as two independent hashes.
+  */
+  private long bitIndex(long high, long low, int i)
+  {
+    long combined = low + i * high;
+
+    return (combined & Long.MAX_VALUE) % bitCount;
+  }
+}
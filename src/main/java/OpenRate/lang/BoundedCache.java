@@ -0,0 +1,293 @@
+package OpenRate.lang;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size bounded cache that evicts the least recently used entries, used where
+ * only the working set of a large data set is held in memory, such as the
+ * customers of the customer cache when they are loaded on demand.
+ *
+ * The cache is split into segments by the hash of the key, each of which is an
+ * access ordered map with its own lock and its own share of the size, so that
+ * the lookups of different threads mostly do not wait on each other. The
+ * eviction is therefore least recently used per segment, which is close enough
+ * to the global order for a working set that is spread over the keys.
+ *
+ * The cache counts its hits, misses and evictions, so that the hit rate can be
+ * used to size it.
+ *
+ * @param <K> The type of the keys
+ * @param <V> The type of the values
+ */
+public class BoundedCache<K, V>
+{
+  // the number of segments of a cache that is big enough to be split
+  private static final int SEGMENT_COUNT = 16;
+
+  // below this size the cache is not split, so that the bound stays exact
+  private static final int MIN_SPLIT_SIZE = 1024;
+
+  private final Segment<K, V>[] segments;
+
+  private final int maxSize;
+
+ /**
+  * A segment of the cache, locked for every access, as a get moves the entry
+  * to the end of the access order.
+  */
+  private static final class Segment<K, V> extends LinkedHashMap<K, V>
+  {
+    private static final long serialVersionUID = 1L;
+
+    final int capacity;
+    long      hits;
+    long      misses;
+    long      evictions;
+
+    Segment(int capacity)
+    {
+      super(16, 0.75f, true);
+      this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest)
+    {
+      if (size() > capacity)
+      {
+        evictions++;
+        return true;
+      }
+
+      return false;
+    }
+  }
+
+ /**
+  * Create an empty cache
+  *
+  * @param maxSize The number of entries to hold at most
+  */
+  public BoundedCache(int maxSize)
+  {
+    if (maxSize < 1)
+    {
+      throw new IllegalArgumentException("Cache size must be at least 1, found <" + maxSize + ">");
+    }
+
+    int segmentCount = (maxSize < MIN_SPLIT_SIZE) ? 1 : SEGMENT_COUNT;
+
+    this.maxSize = maxSize;
+    segments = newSegments(segmentCount);
+
+    for (int i = 0; i < segmentCount; i++)
+    {
+      segments[i] = new Segment<>(maxSize / segmentCount);
+    }
+  }
+
+ /**
+  * Get the value for a key, marking it as recently used and counting the hit
+  * or miss
+  *
+  * @param key The key
+  * @return The value, or null if it is not cached
+  */
+  public V get(K key)
+  {
+    Segment<K, V> segment = segmentFor(key);
+
+    synchronized (segment)
+    {
+      V value = segment.get(key);
+
+      if (value == null)
+      {
+        segment.misses++;
+      }
+      else
+      {
+        segment.hits++;
+      }
+
+      return value;
+    }
+  }
+
+ /**
+  * See if a key is cached, without marking it as used or counting it
+  *
+  * @param key The key
+  * @return true if the key is cached
+  */
+  public boolean containsKey(K key)
+  {
+    Segment<K, V> segment = segmentFor(key);
+
+    synchronized (segment)
+    {
+      return segment.containsKey(key);
+    }
+  }
+
+ /**
+  * Cache a value, evicting the least recently used entry of the segment if it
+  * is full
+  *
+  * @param key The key
+  * @param value The value, not null
+  */
+  public void put(K key, V value)
+  {
+    if (value == null)
+    {
+      throw new NullPointerException("Null value for key <" + key + ">");
+    }
+
+    Segment<K, V> segment = segmentFor(key);
+
+    synchronized (segment)
+    {
+      segment.put(key, value);
+    }
+  }
+
+ /**
+  * Remove all of the entries. The statistics are kept.
+  */
+  public void clear()
+  {
+    for (Segment<K, V> segment : segments)
+    {
+      synchronized (segment)
+      {
+        segment.clear();
+      }
+    }
+  }
+
+ /**
+  * Get the number of entries
+  *
+  * @return The number of entries
+  */
+  public int size()
+  {
+    int size = 0;
+
+    for (Segment<K, V> segment : segments)
+    {
+      synchronized (segment)
+      {
+        size += segment.size();
+      }
+    }
+
+    return size;
+  }
+
+ /**
+  * Get the number of entries the cache holds at most
+  *
+  * @return The configured size
+  */
+  public int getMaxSize()
+  {
+    return maxSize;
+  }
+
+ /**
+  * Get the number of gets that found a value
+  *
+  * @return The number of hits
+  */
+  public long getHits()
+  {
+    long hits = 0;
+
+    for (Segment<K, V> segment : segments)
+    {
+      synchronized (segment)
+      {
+        hits += segment.hits;
+      }
+    }
+
+    return hits;
+  }
+
+ /**
+  * Get the number of gets that found no value
+  *
+  * @return The number of misses
+  */
+  public long getMisses()
+  {
+    long misses = 0;
+
+    for (Segment<K, V> segment : segments)
+    {
+      synchronized (segment)
+      {
+        misses += segment.misses;
+      }
+    }
+
+    return misses;
+  }
+
+ /**
+  * Get the number of entries that were evicted to make room
+  *
+  * @return The number of evictions
+  */
+  public long getEvictions()
+  {
+    long evictions = 0;
+
+    for (Segment<K, V> segment : segments)
+    {
+      synchronized (segment)
+      {
+        evictions += segment.evictions;
+      }
+    }
+
+    return evictions;
+  }
+
+ /**
+  * Get the share of the gets that found a value
+  *
+  * @return The hit rate between 0 and 1, 0 if there were no gets
+  */
+  public double getHitRate()
+  {
+    long hits = getHits();
+    long total = hits + getMisses();
+
+    return (total == 0) ? 0 : (double) hits / total;
+  }
+
+ /**
+  * Get the segment of a key
+  */
+  private Segment<K, V> segmentFor(K key)
+  {
+    int hash = key.hashCode();
+    hash ^= (hash >>> 16);
+
+    return segments[hash & (segments.length - 1)];
+  }
+
+ /**
+  * Create the array of the segments. A generic array cannot be created
+  * directly, so this is the one unchecked cast.
+  */
+  @SuppressWarnings("unchecked")
+  private static <K, V> Segment<K, V>[] newSegments(int count)
+  {
+    return (Segment<K, V>[]) new Segment<?, ?>[count];
+  }
+}
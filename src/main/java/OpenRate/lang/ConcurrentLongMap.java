@@ -0,0 +1,562 @@
+package OpenRate.lang;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A concurrent map from primitive long keys to objects, used where a large
+ * number of entries is looked up by a numeric id, such as the balance groups
+ * of the balance cache.
+ *
+ * The map is split into stripes by the hash of the key. Each stripe is an
+ * open addressing table with linear probing, holding the keys in a long array
+ * so that they are neither boxed nor chased through entry objects. Adding an
+ * entry locks only its stripe, while reading locks nothing: a value is
+ * published after its key, so a reader that finds a value also sees its key,
+ * and a stripe that grows publishes a new table, leaving the old one intact
+ * for readers that are still using it.
+ *
+ * Removing an entry also locks only its stripe. The key stays in its slot,
+ * with its value replaced by a marker, so that a slot never changes its key
+ * and the reads still go without locking. The key takes the slot again if it
+ * is put back, and the other marked slots are dropped when the stripe next
+ * builds a new table.
+ *
+ * For code written against a Map, asMap() gives a view of the map with boxed
+ * keys.
+ *
+ * @param <V> The type of the values
+ */
+public class ConcurrentLongMap<V>
+{
+  // the number of stripes, selected by the top bits of the hash
+  private static final int STRIPE_BITS = 6;
+  private static final int STRIPE_COUNT = 1 << STRIPE_BITS;
+
+  // the smallest table of a stripe
+  private static final int MIN_CAPACITY = 16;
+
+  // the value of a slot whose entry has been removed
+  private static final Object REMOVED = new Object();
+
+  private final Stripe<V>[] stripes;
+
+ /**
+  * The table of a stripe. Once a key is in a slot it stays there. The values
+  * are of type V, or REMOVED.
+  */
+  private static final class Table<V>
+  {
+    final long[]                       keys;
+    final AtomicReferenceArray<Object> values;
+    final int                          mask;
+
+    Table(int capacity)
+    {
+      keys = new long[capacity];
+      values = new AtomicReferenceArray<>(capacity);
+      mask = capacity - 1;
+    }
+  }
+
+ /**
+  * A stripe of the map, locked for adding and removing
+  */
+  private static final class Stripe<V>
+  {
+    volatile Table<V> table;
+    int               count;
+
+    // the slots holding a key, including the removed ones
+    int               used;
+
+    Stripe(int capacity)
+    {
+      table = new Table<>(capacity);
+    }
+  }
+
+ /**
+  * Create an empty map
+  *
+  * @param expectedSize The number of entries to size the map for
+  */
+  public ConcurrentLongMap(int expectedSize)
+  {
+    int capacity = MIN_CAPACITY;
+
+    while ((capacity / 4) * 3 * STRIPE_COUNT < expectedSize)
+    {
+      capacity *= 2;
+    }
+
+    stripes = newStripes(STRIPE_COUNT);
+
+    for (int i = 0; i < STRIPE_COUNT; i++)
+    {
+      stripes[i] = new Stripe<>(capacity);
+    }
+  }
+
+ /**
+  * Get the value for a key
+  *
+  * @param key The key
+  * @return The value, or null if there is none
+  */
+  public V get(long key)
+  {
+    long hash = hash(key);
+    Table<V> table = stripes[stripeIndex(hash)].table;
+    int slot = (int) hash & table.mask;
+
+    while (true)
+    {
+      Object value = table.values.get(slot);
+
+      if (value == null)
+      {
+        return null;
+      }
+
+      if (table.keys[slot] == key)
+      {
+        return valueOf(value);
+      }
+
+      slot = (slot + 1) & table.mask;
+    }
+  }
+
+ /**
+  * See if there is a value for a key
+  *
+  * @param key The key
+  * @return true if there is a value
+  */
+  public boolean containsKey(long key)
+  {
+    return get(key) != null;
+  }
+
+ /**
+  * Set the value for a key, replacing any value there was
+  *
+  * @param key The key
+  * @param value The value, not null
+  * @return The value there was, or null
+  */
+  public V put(long key, V value)
+  {
+    return put(key, value, false);
+  }
+
+ /**
+  * Set the value for a key, if there is none yet
+  *
+  * @param key The key
+  * @param value The value, not null
+  * @return The value there was, or null if the value was set
+  */
+  public V putIfAbsent(long key, V value)
+  {
+    return put(key, value, true);
+  }
+
+ /**
+  * Remove the value for a key
+  *
+  * @param key The key
+  * @return The value there was, or null
+  */
+  public V remove(long key)
+  {
+    long hash = hash(key);
+    Stripe<V> stripe = stripes[stripeIndex(hash)];
+
+    synchronized (stripe)
+    {
+      Table<V> table = stripe.table;
+      int slot = (int) hash & table.mask;
+      Object value;
+
+      while ((value = table.values.get(slot)) != null)
+      {
+        if (table.keys[slot] == key)
+        {
+          if (value == REMOVED)
+          {
+            return null;
+          }
+
+          // the key stays, so that the probing of other keys goes past it
+          table.values.set(slot, REMOVED);
+          stripe.count--;
+
+          return valueOf(value);
+        }
+
+        slot = (slot + 1) & table.mask;
+      }
+
+      return null;
+    }
+  }
+
+ /**
+  * Get a snapshot of the keys. Keys added while the snapshot is being taken
+  * may or may not be in it.
+  *
+  * @return The keys
+  */
+  public long[] keys()
+  {
+    long[] keys = new long[size()];
+    int    index = 0;
+
+    for (Stripe<V> stripe : stripes)
+    {
+      Table<V> table = stripe.table;
+
+      for (int slot = 0; slot <= table.mask; slot++)
+      {
+        if (valueOf(table.values.get(slot)) != null)
+        {
+          if (index == keys.length)
+          {
+            keys = Arrays.copyOf(keys, keys.length * 2 + 1);
+          }
+
+          keys[index++] = table.keys[slot];
+        }
+      }
+    }
+
+    return (index == keys.length) ? keys : Arrays.copyOf(keys, index);
+  }
+
+ /**
+  * Get the number of entries
+  *
+  * @return The number of entries
+  */
+  public int size()
+  {
+    int size = 0;
+
+    for (Stripe<V> stripe : stripes)
+    {
+      synchronized (stripe)
+      {
+        size += stripe.count;
+      }
+    }
+
+    return size;
+  }
+
+ /**
+  * Remove all of the entries
+  */
+  public void clear()
+  {
+    for (Stripe<V> stripe : stripes)
+    {
+      synchronized (stripe)
+      {
+        stripe.table = new Table<>(MIN_CAPACITY);
+        stripe.count = 0;
+        stripe.used = 0;
+      }
+    }
+  }
+
+ /**
+  * Get a view of the map as a Map with boxed keys. Reading, putting,
+  * removing and clearing go through to this map. Iterating takes a snapshot
+  * of the keys, as keys() does, and the iterator can remove the entry it
+  * returned last.
+  *
+  * @return The view
+  */
+  public Map<Long, V> asMap()
+  {
+    return new MapView();
+  }
+
+ /**
+  * The Map view of the map
+  */
+  private final class MapView extends AbstractMap<Long, V>
+  {
+    @Override
+    public V get(Object key)
+    {
+      return (key instanceof Long) ? ConcurrentLongMap.this.get((Long) key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+      return get(key) != null;
+    }
+
+    @Override
+    public V put(Long key, V value)
+    {
+      return ConcurrentLongMap.this.put(key, value);
+    }
+
+    @Override
+    public V remove(Object key)
+    {
+      return (key instanceof Long) ? ConcurrentLongMap.this.remove((Long) key) : null;
+    }
+
+    @Override
+    public int size()
+    {
+      return ConcurrentLongMap.this.size();
+    }
+
+    @Override
+    public void clear()
+    {
+      ConcurrentLongMap.this.clear();
+    }
+
+    @Override
+    public Set<Map.Entry<Long, V>> entrySet()
+    {
+      return new AbstractSet<Map.Entry<Long, V>>()
+      {
+        @Override
+        public int size()
+        {
+          return ConcurrentLongMap.this.size();
+        }
+
+        @Override
+        public Iterator<Map.Entry<Long, V>> iterator()
+        {
+          return new EntryIterator(keys());
+        }
+      };
+    }
+  }
+
+ /**
+  * Iterates over the entries of a snapshot of the keys, skipping those that
+  * have been removed since
+  */
+  private final class EntryIterator implements Iterator<Map.Entry<Long, V>>
+  {
+    private final long[] keys;
+    private int          index = 0;
+    private Map.Entry<Long, V> next;
+    private Map.Entry<Long, V> last;
+
+    EntryIterator(long[] keys)
+    {
+      this.keys = keys;
+      advance();
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      return next != null;
+    }
+
+    @Override
+    public Map.Entry<Long, V> next()
+    {
+      if (next == null)
+      {
+        throw new NoSuchElementException();
+      }
+
+      last = next;
+      advance();
+
+      return last;
+    }
+
+    @Override
+    public void remove()
+    {
+      if (last == null)
+      {
+        throw new IllegalStateException();
+      }
+
+      ConcurrentLongMap.this.remove(last.getKey());
+      last = null;
+    }
+
+    private void advance()
+    {
+      next = null;
+
+      while ((next == null) && (index < keys.length))
+      {
+        long key = keys[index++];
+        V value = get(key);
+
+        if (value != null)
+        {
+          next = new AbstractMap.SimpleImmutableEntry<>(key, value);
+        }
+      }
+    }
+  }
+
+ /**
+  * Create the array of the stripes. A generic array cannot be created
+  * directly, so this is an unchecked cast.
+  */
+  @SuppressWarnings("unchecked")
+  private static <V> Stripe<V>[] newStripes(int count)
+  {
+    return (Stripe<V>[]) new Stripe<?>[count];
+  }
+
+ /**
+  * Get the value of a slot, null if it is free or removed. Only values of
+  * type V are put into a slot apart from REMOVED, so this is the other
+  * unchecked cast.
+  */
+  @SuppressWarnings("unchecked")
+  private static <V> V valueOf(Object value)
+  {
+    return (value == REMOVED) ? null : (V) value;
+  }
+
+ /**
+  * Set the value for a key under the lock of its stripe
+  */
+  private V put(long key, V value, boolean onlyIfAbsent)
+  {
+    if (value == null)
+    {
+      throw new NullPointerException("Null value for key <" + key + ">");
+    }
+
+    long hash = hash(key);
+    Stripe<V> stripe = stripes[stripeIndex(hash)];
+
+    synchronized (stripe)
+    {
+      Table<V> table = stripe.table;
+      int slot = (int) hash & table.mask;
+      Object oldValue;
+
+      while ((oldValue = table.values.get(slot)) != null)
+      {
+        if (table.keys[slot] == key)
+        {
+          if (oldValue == REMOVED)
+          {
+            // the key takes its slot again
+            table.values.set(slot, value);
+            stripe.count++;
+
+            return null;
+          }
+
+          if (!onlyIfAbsent)
+          {
+            table.values.set(slot, value);
+          }
+
+          return valueOf(oldValue);
+        }
+
+        slot = (slot + 1) & table.mask;
+      }
+
+      if ((stripe.used + 1) > ((table.mask + 1) / 4) * 3)
+      {
+        table = resize(table, stripe.count + 1);
+        stripe.table = table;
+        stripe.used = stripe.count;
+        slot = findFree(table, hash);
+      }
+
+      // the key must be visible before the value that marks the slot used
+      table.keys[slot] = key;
+      table.values.set(slot, value);
+      stripe.count++;
+      stripe.used++;
+
+      return null;
+    }
+  }
+
+ /**
+  * Copy the entries of a table into a new one, leaving the removed ones
+  * behind. The new table is twice the size, unless enough entries have been
+  * removed that the same size holds the entries that are left with room to
+  * spare.
+  */
+  private static <V> Table<V> resize(Table<V> table, int count)
+  {
+    int capacity = table.mask + 1;
+    Table<V> newTable = new Table<>((count > ((capacity / 4) * 3) / 2) ? capacity * 2 : capacity);
+
+    for (int slot = 0; slot <= table.mask; slot++)
+    {
+      Object value = table.values.get(slot);
+
+      if (valueOf(value) != null)
+      {
+        int newSlot = findFree(newTable, hash(table.keys[slot]));
+        newTable.keys[newSlot] = table.keys[slot];
+        newTable.values.set(newSlot, value);
+      }
+    }
+
+    return newTable;
+  }
+
+ /**
+  * Find the first free slot for a hash
+  */
+  private static <V> int findFree(Table<V> table, long hash)
+  {
+    int slot = (int) hash & table.mask;
+
+    while (table.values.get(slot) != null)
+    {
+      slot = (slot + 1) & table.mask;
+    }
+
+    return slot;
+  }
+
+ /**
+  * Get the stripe of a hash
+  */
+  private static int stripeIndex(long hash)
+  {
+    return (int) (hash >>> (64 - STRIPE_BITS));
+  }
+
+ /**
+  * Spread the bits of a key, as ids are often sequential
+  */
+  private static long hash(long key)
+  {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+
+    return key;
+  }
+}
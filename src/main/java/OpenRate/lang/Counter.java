@@ -3,20 +3,28 @@
 package OpenRate.lang;
 
 import OpenRate.CommonConfig;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 
 /**
  * A counter is a balance counter, that holds the record ID, the validity period
  * and the current balance.
  *
+ * The balance is updated with compare and set, so that several threads can
+ * impact the same counter without locking and without losing an update. Each
+ * update returns the balance it was applied to, so that the caller can report
+ * a consistent before and after value in the balance impact.
+ *
  * @author ian
  */
 public class Counter
 {
-  /**
-   * used to hold the current balance
-   */
-  public double CurrentBalance = 0;
+  // the current balance, held as the bits of the double for compare and set
+  private volatile long currentBalanceBits = Double.doubleToRawLongBits(0);
+
+  // updates the balance bits
+  private static final AtomicLongFieldUpdater<Counter> BALANCE_UPDATER =
+          AtomicLongFieldUpdater.newUpdater(Counter.class, "currentBalanceBits");
 
   /**
    * The unique id of this counter
@@ -37,4 +45,90 @@ public class Counter
   public Counter()
   {
   }
+
+ /**
+  * Get the current balance
+  *
+  * @return The current balance
+  */
+  public double getCurrentBalance()
+  {
+    return Double.longBitsToDouble(currentBalanceBits);
+  }
+
+ /**
+  * Set the current balance, replacing whatever it was
+  *
+  * @param newBalance The new balance
+  */
+  public void setCurrentBalance(double newBalance)
+  {
+    currentBalanceBits = Double.doubleToRawLongBits(newBalance);
+  }
+
+ /**
+  * Add a value to the balance
+  *
+  * @param delta The value to add, negative to subtract
+  * @return The balance before the value was added
+  */
+  public double addBalance(double delta)
+  {
+    while (true)
+    {
+      long   oldBits = currentBalanceBits;
+      double oldBalance = Double.longBitsToDouble(oldBits);
+
+      if (BALANCE_UPDATER.compareAndSet(this, oldBits, Double.doubleToRawLongBits(oldBalance + delta)))
+      {
+        return oldBalance;
+      }
+    }
+  }
+
+ /**
+  * Consume a value from the balance, down to at most 0. If the value is more
+  * than the balance, the whole balance is consumed.
+  *
+  * @param value The value to consume
+  * @return The balance before the value was consumed
+  */
+  public double consumeBalance(double value)
+  {
+    while (true)
+    {
+      long   oldBits = currentBalanceBits;
+      double oldBalance = Double.longBitsToDouble(oldBits);
+      double newBalance = (value > oldBalance) ? 0 : oldBalance - value;
+
+      if (BALANCE_UPDATER.compareAndSet(this, oldBits, Double.doubleToRawLongBits(newBalance)))
+      {
+        return oldBalance;
+      }
+    }
+  }
+
+ /**
+  * Give a value back to the balance, up to at most the limit. If the balance
+  * is already over the limit, it is set to the limit.
+  *
+  * @param value The value to give back
+  * @param limit The highest the balance may go
+  * @return The balance before the value was given back
+  */
+  public double refundBalance(double value, double limit)
+  {
+    while (true)
+    {
+      long   oldBits = currentBalanceBits;
+      double oldBalance = Double.longBitsToDouble(oldBits);
+      double refund = ((oldBalance + value) > limit) ? limit - oldBalance : value;
+      double newBalance = oldBalance + refund;
+
+      if (BALANCE_UPDATER.compareAndSet(this, oldBits, Double.doubleToRawLongBits(newBalance)))
+      {
+        return oldBalance;
+      }
+    }
+  }
 }
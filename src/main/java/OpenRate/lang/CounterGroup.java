@@ -11,14 +11,19 @@ import java.util.ArrayList;
  * which can be used to locate it for update it or access it. The RecID is
  * managed at balance group level.
  *
+ * Counters are added under the lock of the balance group, by replacing the
+ * list with a copy that holds the new counter. A list once published is never
+ * changed, so the counters can be read without locking.
+ *
  * @author ian
  */
 public class CounterGroup
 {
  /**
-  * List of the counters in this counter group.
+  * List of the counters in this counter group. Do not change the list, but
+  * add counters with addCounter.
   */
-  public ArrayList<Counter> counters;
+  public volatile ArrayList<Counter> counters;
 
  /** Creates a new instance of BalanceGroup */
   public CounterGroup()
@@ -43,8 +48,12 @@ public class CounterGroup
     tmpCounter.RecId = recId;
     tmpCounter.validFrom = validFrom;
     tmpCounter.validTo = validTo;
-    tmpCounter.CurrentBalance = currentBal;
-    counters.add(tmpCounter);
+    tmpCounter.setCurrentBalance(currentBal);
+
+    ArrayList<Counter> newCounters = new ArrayList<>(counters.size() + 1);
+    newCounters.addAll(counters);
+    newCounters.add(tmpCounter);
+    counters = newCounters;
 
     return tmpCounter;
   }
@@ -59,10 +68,11 @@ public class CounterGroup
   {
     int i;
     Counter tmpCounter;
+    ArrayList<Counter> tmpCounters = counters;
 
-    for(i = 0 ; i < counters.size() ; i++ )
+    for(i = 0 ; i < tmpCounters.size() ; i++ )
     {
-      tmpCounter = counters.get(i);
+      tmpCounter = tmpCounters.get(i);
       if ((tmpCounter.validFrom <= counterDate) & (tmpCounter.validTo > counterDate))
       {
         return tmpCounter;
@@ -82,10 +92,11 @@ public class CounterGroup
   {
     int i;
     Counter tmpCounter;
+    ArrayList<Counter> tmpCounters = counters;
 
-    for(i = 0 ; i < counters.size() ; i++ )
+    for(i = 0 ; i < tmpCounters.size() ; i++ )
     {
-      tmpCounter = counters.get(i);
+      tmpCounter = tmpCounters.get(i);
       if (tmpCounter.RecId == recId)
       {
         return tmpCounter;
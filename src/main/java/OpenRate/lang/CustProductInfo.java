@@ -61,7 +61,8 @@ public class CustProductInfo
    */
   public void setSubID(String Id)
   {
-    SubId = Id.intern();
+    // products without a subscription have no ID
+    SubId = (Id == null) ? null : Id.intern();
   }
 
   /**
@@ -211,4 +212,30 @@ public class CustProductInfo
   {
     return ProductRefId;
   }
+
+  /**
+   * Sets all of the values at once, taking the strings as they are. Used to
+   * fill an instance that is being reused with strings that are already
+   * interned, such as the ones held by the customer caches.
+   *
+   * @param newProductRefId The product reference id
+   * @param Id The product ID
+   * @param newSubId The subscription ID
+   * @param newService The service
+   * @param ValidFrom The valid from date
+   * @param ValidTo The valid to date
+   * @param NewQuantity The quantity
+   */
+  void set(long newProductRefId, String Id, String newSubId, String newService, long ValidFrom, long ValidTo, int NewQuantity)
+  {
+    ProductRefId = newProductRefId;
+    ProductID = Id;
+    SubId = newSubId;
+    Service = newService;
+    UTCValidFrom = ValidFrom;
+    UTCValidTo = ValidTo;
+    Quantity = NewQuantity;
+    Status = 0;
+    Priority = 0;
+  }
 }
@@ -1,12 +1,21 @@
-
-
 package OpenRate.lang;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 
 /**
  * Class to build and search a tree list, for example in best match searches
+ *
+ * The tree is held in flat arrays rather than as node objects: each node is
+ * an index, its children are found at node * 10 + digit in the children
+ * array, and its result is an index into the list of result lists. Identical
+ * result lists are only stored once, which is usual for zone tables, where
+ * many prefixes map to the same zone. This keeps large trees compact, cheap
+ * to serialise into the cache, and a match does not allocate anything.
  */
 public class DigitTree implements Serializable {
 
@@ -14,11 +23,33 @@ public class DigitTree implements Serializable {
    * The default return when there is no digit tree match
    */
   public static final String NO_DIGIT_TREE_MATCH = "NOMATCH";
-    private static final long serialVersionUID = 5375391146587861666L;
+  private static final long serialVersionUID = -2917652216553016433L;
+
+  // the number of children of each node
+  private static final int RADIX = 10;
+
+  // the result index of a node without a result
+  private static final int NO_RESULT = -1;
+
+  // the number of nodes we make room for at first
+  private static final int INITIAL_CAPACITY = 64;
+
+  // The child nodes, at node * RADIX + digit. The root is node 0 and is never
+  // a child, so 0 means that there is no child.
+  private int[] children;
 
-    private Node               root;
-  private ArrayList<String>  nullResultList;
-  private int                nodeCount           = 0;
+  // The index of the result list of each node, or NO_RESULT
+  private int[] resultIndex;
+
+  // The distinct result lists
+  private final ArrayList<ArrayList<String>> results = new ArrayList<>();
+
+  // Finds the index of a result list we already hold. Only needed while
+  // adding prefixes, so it is not serialised, and rebuilt if needed.
+  private transient HashMap<ArrayList<String>, Integer> resultLookup;
+
+  private final ArrayList<String>  nullResultList;
+  private int                      nodeCount           = 0;
 
  /**
   * Default constructor - sets up the root node
@@ -26,10 +57,12 @@ public class DigitTree implements Serializable {
   public DigitTree()
   {
     // Set up the root node so that it returns NOMATCH by default
-    root = new Node();
-    
+    children = new int[INITIAL_CAPACITY * RADIX];
+    resultIndex = new int[INITIAL_CAPACITY];
+    resultIndex[0] = NO_RESULT;
+
     // Set up the null node return result
-    nullResultList = new ArrayList();
+    nullResultList = new ArrayList<>();
     nullResultList.add(NO_DIGIT_TREE_MATCH);
   }
 
@@ -41,24 +74,24 @@ public class DigitTree implements Serializable {
   */
   public void addPrefix(String prefix, ArrayList<String> resultList)
   {
-   char[] numberChars = prefix.toCharArray();
-
-    Node   node        = root;
+    int node = 0;
 
-    for (int i = 0; i < numberChars.length; i++)
+    for (int i = 0; i < prefix.length(); i++)
     {
-      int number = numberChars[i] - '0';
+      int slot = node * RADIX + digitOf(prefix, i);
 
-      if (node.children[number] == null)
+      if (children[slot] == 0)
       {
-        node.children[number] = new Node();
         nodeCount++;
+        ensureCapacity(nodeCount + 1);
+        resultIndex[nodeCount] = NO_RESULT;
+        children[slot] = nodeCount;
       }
 
-      node = node.children[number];
+      node = children[slot];
     }
 
-    node.Results = resultList;
+    resultIndex[node] = indexOfResult(resultList);
   }
 
  /**
@@ -70,36 +103,16 @@ public class DigitTree implements Serializable {
   */
   public String match(String prefix)
   {
-    char[] numberChars = prefix.toCharArray();
-
-    Node   node      = root;
-    Node   bestNode  = root;
-
-    for (int i = 0; i != numberChars.length; i++)
-    {
-      int number = numberChars[i] - '0';
-
-      if (node.children[number] == null)
-      {
-        // No more children - return what we have got so far
-        break;
-      }
-
-      node         = node.children[number];
-      if (node.Results != null)
-      {
-        bestNode   = node;
-      }
-    }
+    int bestResult = findBestResult(prefix);
 
     // return the best match we got - sometimes this is no match at all
-    if (bestNode.Results == null)
+    if (bestResult == NO_RESULT)
     {
       return NO_DIGIT_TREE_MATCH;
     }
     else
     {
-      return bestNode.Results.get(0);
+      return results.get(bestResult).get(0);
     }
   }
 
@@ -112,57 +125,150 @@ public class DigitTree implements Serializable {
   */
   public ArrayList<String> matchWithChildData(String prefix)
   {
-    char[] numberChars = prefix.toCharArray();
+    int bestResult = findBestResult(prefix);
 
-    Node   node        = root;
-    Node   bestNode    = root;
+    // No match found, so return the default root value
+    // return the best match we got - sometimes this is no match at all
+    if (bestResult == NO_RESULT)
+    {
+      return nullResultList;
+    }
+    else
+    {
+      return results.get(bestResult);
+    }
+  }
+
+  /**
+   * Get the number of elements in the cache
+   *
+   * @return The number of elements
+   */
+  public int size()
+  {
+    return nodeCount;
+  }
+
+ /**
+  * Walk down the tree as far as the prefix goes, and return the result of the
+  * deepest node on the way that has one.
+  *
+  * @param prefix The prefix to match
+  * @return The index of the result list, or NO_RESULT
+  */
+  private int findBestResult(String prefix)
+  {
+    int node = 0;
+    int bestResult = resultIndex[0];
 
-    for (int i = 0; i != numberChars.length; i++)
+    for (int i = 0; i < prefix.length(); i++)
     {
-      int number = numberChars[i] - '0';
+      node = children[node * RADIX + digitOf(prefix, i)];
 
-      if (node.children[number] == null)
+      if (node == 0)
       {
         // No more children - return what we have got so far
         break;
       }
 
-      node         = node.children[number];
-      if (node.Results != null)
+      if (resultIndex[node] != NO_RESULT)
       {
-        bestNode   = node;
+        bestResult = resultIndex[node];
       }
     }
 
-    // No match found, so return the default root value
-    // return the best match we got - sometimes this is no match at all
-    if (bestNode.Results == null)
+    return bestResult;
+  }
+
+ /**
+  * Get the value of a digit of the prefix. Prefixes may only contain digits,
+  * anything else is rejected, as the node arrays of the previous tree did.
+  *
+  * @param prefix The prefix
+  * @param position The position of the digit
+  * @return The digit value
+  */
+  private static int digitOf(String prefix, int position)
+  {
+    int digit = prefix.charAt(position) - '0';
+
+    if ((digit < 0) || (digit >= RADIX))
     {
-      return nullResultList;
+      throw new ArrayIndexOutOfBoundsException("Invalid digit <" + prefix.charAt(position) + "> in prefix <" + prefix + ">");
     }
-    else
+
+    return digit;
+  }
+
+ /**
+  * Get the index of the given result list, adding it if we do not yet hold
+  * an equal one.
+  *
+  * @param resultList The result list
+  * @return The index, or NO_RESULT for a null list
+  */
+  private int indexOfResult(ArrayList<String> resultList)
+  {
+    if (resultList == null)
+    {
+      return NO_RESULT;
+    }
+
+    if (resultLookup == null)
     {
-      return bestNode.Results;
+      resultLookup = new HashMap<>();
+      for (int i = 0; i < results.size(); i++)
+      {
+        resultLookup.put(results.get(i), i);
+      }
     }
+
+    Integer index = resultLookup.get(resultList);
+
+    if (index == null)
+    {
+      index = results.size();
+      results.add(resultList);
+      resultLookup.put(resultList, index);
+    }
+
+    return index;
   }
 
  /**
-  * Definition of the node object
+  * Make sure that there is room for the given number of nodes. We grow by
+  * half each time, to keep the spare room in large trees small.
+  *
+  * @param nodes The number of nodes needed
   */
-  private class Node implements Serializable
+  private void ensureCapacity(int nodes)
   {
-      private static final long serialVersionUID = -7630733586937759116L;
-      private ArrayList<String> Results = null;
-    private Node[] children = new Node[10];
+    if (nodes > resultIndex.length)
+    {
+      int newCapacity = Math.max(nodes, resultIndex.length + (resultIndex.length >> 1));
+
+      resultIndex = Arrays.copyOf(resultIndex, newCapacity);
+      children = Arrays.copyOf(children, newCapacity * RADIX);
+    }
   }
 
-  /**
-   * Get the number of elements in the cache
-   *
-   * @return The number of elements
-   */
-  public int size()
+ /**
+  * Drop the spare room before the tree is serialised, so that only the nodes
+  * in use are written.
+  *
+  * @param out The stream to write to
+  * @throws IOException
+  */
+  private void writeObject(ObjectOutputStream out) throws IOException
   {
-    return nodeCount;
+    int nodes = nodeCount + 1;
+
+    if (resultIndex.length > nodes)
+    {
+      resultIndex = Arrays.copyOf(resultIndex, nodes);
+      children = Arrays.copyOf(children, nodes * RADIX);
+    }
+
+    out.defaultWriteObject();
   }
 }
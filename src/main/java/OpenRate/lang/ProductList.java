@@ -9,6 +9,13 @@ import java.util.Iterator;
  * Product list is a collection of some or all of the products associated with
  * an account.
  *
+ * A product list can be reused as the result holder of repeated lookups: after
+ * clear() the product instances the list created itself are filled again
+ * instead of being allocated anew. Products added by reference, for example
+ * the ones shared by an audit segment, are never overwritten. A list that is
+ * reused must not be shared between threads, and the products got from it are
+ * only valid until it is cleared.
+ *
  * @author Ian
  */
 public class ProductList
@@ -17,6 +24,12 @@ public class ProductList
   int    BalanceGroup = 0;
   ArrayList<CustProductInfo> ProductInstances;
 
+  // The product instances created by this list, reused after a clear
+  private ArrayList<CustProductInfo> OwnInstances = null;
+
+  // The number of the own instances in use since the last clear
+  private int OwnUsed = 0;
+
  /** Creates a new instance of ProductList */
   public ProductList()
   {
@@ -65,7 +78,7 @@ public class ProductList
     }
 
     // Not an update, so it is an insert
-    tmpCPI = new CustProductInfo();
+    tmpCPI = newInstance();
     tmpCPI.setProductID(Id);
     tmpCPI.setService(Service);
     tmpCPI.setSubID(SubId);
@@ -79,6 +92,30 @@ public class ProductList
     incProductCount();
   }
 
+ /**
+  * Add a product whose strings are already interned, such as the ones held by
+  * the customer caches. The strings are not interned again, and no update of
+  * an existing product is looked for.
+  *
+  * @param Id The ID (name) of the product to add
+  * @param SubId The subscription ID of the product to add
+  * @param Service The service string of the product to add
+  * @param ValidFrom The start of the validity of the product to add
+  * @param ValidTo The end of the validity of the product to add
+  * @param Quantity The number of instances of this product
+  */
+  public void addCachedProduct(String Id, String SubId, String Service, long ValidFrom, long ValidTo, int Quantity)
+  {
+    CustProductInfo tmpCPI = newInstance();
+
+    tmpCPI.set(0, Id, SubId, Service, ValidFrom, ValidTo, Quantity);
+
+    ProductInstances.add(tmpCPI);
+
+    // Perform internal maintenance
+    incProductCount();
+  }
+
  /**
   * Add a product to the product list, passing a CPI instance
   *
@@ -140,4 +177,47 @@ public class ProductList
   {
     return ProductInstances.get(index);
   }
+
+ /**
+  * Empty the list so that it can be filled again. The product instances the
+  * list created are kept to be reused by the next products added.
+  */
+  public void clear()
+  {
+    ProductInstances.clear();
+    ProductCount = 0;
+    BalanceGroup = 0;
+    OwnUsed = 0;
+  }
+
+ /**
+  * Get a product instance to fill, reusing one the list created before the
+  * last clear if there is one
+  *
+  * @return The instance, with its values reset
+  */
+  private CustProductInfo newInstance()
+  {
+    CustProductInfo tmpCPI;
+
+    if (OwnInstances == null)
+    {
+      OwnInstances = new ArrayList<>();
+    }
+
+    if (OwnUsed < OwnInstances.size())
+    {
+      tmpCPI = OwnInstances.get(OwnUsed);
+      tmpCPI.set(0, null, null, null, 0, 0, 0);
+    }
+    else
+    {
+      tmpCPI = new CustProductInfo();
+      OwnInstances.add(tmpCPI);
+    }
+
+    OwnUsed++;
+
+    return tmpCPI;
+  }
 }
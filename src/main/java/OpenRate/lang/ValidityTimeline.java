@@ -0,0 +1,491 @@
+package OpenRate.lang;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Holds the validity periods of a resource over time, each with a value, for
+ * the validity based caches.
+ *
+ * The periods are held in parallel arrays of their start and end times, in
+ * the order that the cache decides: the order of the periods is the search
+ * priority if more than one period is valid at a time. A period is valid from
+ * its start time (inclusive) until its end time (exclusive).
+ *
+ * Searches by time use binary search. When the periods are sorted by start
+ * and do not overlap, which is the usual case, this is a plain binary search
+ * on the start times. Otherwise an index of the periods sorted by start is
+ * built, which is searched as a binary tree that knows the latest end time
+ * under each node, so that a search only visits the periods that are valid at
+ * the time. The index is built on the first search after a change, so the
+ * periods should all be added before searching.
+ *
+ * @param <T> The type of the values
+ */
+public class ValidityTimeline<T>
+{
+  // the start and end of each period, and its value, in priority order
+  private long[]   from;
+  private long[]   to;
+  private Object[] values;
+  private int      size = 0;
+
+  // the search index, or null if it has to be built
+  private volatile SearchIndex index;
+
+  // the index of the periods sorted by start, if they are not already
+  private static class SearchIndex
+  {
+    // true if the periods are sorted by start and do not overlap
+    boolean disjoint;
+
+    // the position of each sorted period in the timeline
+    int[]  order;
+
+    // the sorted starts and ends, and the latest end under each node of the
+    // tree. The node of the sub array lo..hi is at (lo + hi) / 2.
+    long[] sortedFrom;
+    long[] sortedTo;
+    long[] maxTo;
+  }
+
+  // shared by all timelines that are sorted and do not overlap
+  private static final SearchIndex DISJOINT_INDEX = new SearchIndex();
+
+  static
+  {
+    DISJOINT_INDEX.disjoint = true;
+  }
+
+  // returned by findAll if nothing is valid
+  private static final int[] NO_MATCHES = new int[0];
+
+ /**
+  * Decides whether the value of a period that is valid at the time searched
+  * for is also a match, for searches that look at more than the time.
+  *
+  * @param <T> The type of the values
+  */
+  public interface Matcher<T>
+  {
+   /**
+    * Check the value of a valid period
+    *
+    * @param value The value of the period
+    * @return true if the period matches
+    */
+    boolean matches(T value);
+  }
+
+ /**
+  * Create an empty timeline
+  */
+  public ValidityTimeline()
+  {
+    from = new long[1];
+    to = new long[1];
+    values = new Object[1];
+  }
+
+ /**
+  * Get the number of periods
+  *
+  * @return The number of periods
+  */
+  public int size()
+  {
+    return size;
+  }
+
+ /**
+  * Get the start of a period
+  *
+  * @param position The position of the period
+  * @return The start time
+  */
+  public long getFrom(int position)
+  {
+    return from[position];
+  }
+
+ /**
+  * Get the end of a period
+  *
+  * @param position The position of the period
+  * @return The end time
+  */
+  public long getTo(int position)
+  {
+    return to[position];
+  }
+
+ /**
+  * Get the value of a period
+  *
+  * @param position The position of the period
+  * @return The value
+  */
+  @SuppressWarnings("unchecked")
+  public T getValue(int position)
+  {
+    return (T) values[position];
+  }
+
+ /**
+  * Add a period after all of the others
+  *
+  * @param periodFrom The start of the period
+  * @param periodTo The end of the period
+  * @param value The value of the period
+  */
+  public void add(long periodFrom, long periodTo, T value)
+  {
+    insert(size, periodFrom, periodTo, value);
+  }
+
+ /**
+  * Insert a period at a position, moving the periods from that position on
+  * back by one
+  *
+  * @param position The position to insert at
+  * @param periodFrom The start of the period
+  * @param periodTo The end of the period
+  * @param value The value of the period
+  */
+  public void insert(int position, long periodFrom, long periodTo, T value)
+  {
+    if ((position < 0) || (position > size))
+    {
+      throw new IndexOutOfBoundsException("Position <" + position + "> outside timeline of size <" + size + ">");
+    }
+
+    if (size == from.length)
+    {
+      // grow by half, most resources only have a few periods
+      int newCapacity = size + (size >> 1) + 1;
+      from = Arrays.copyOf(from, newCapacity);
+      to = Arrays.copyOf(to, newCapacity);
+      values = Arrays.copyOf(values, newCapacity);
+    }
+
+    System.arraycopy(from, position, from, position + 1, size - position);
+    System.arraycopy(to, position, to, position + 1, size - position);
+    System.arraycopy(values, position, values, position + 1, size - position);
+
+    from[position] = periodFrom;
+    to[position] = periodTo;
+    values[position] = value;
+    size++;
+
+    index = null;
+  }
+
+ /**
+  * Find the first period in priority order that is valid at a time
+  *
+  * @param time The time to search for
+  * @return The position of the period, or -1 if none is valid
+  */
+  public int findFirst(long time)
+  {
+    return findFirst(time, null);
+  }
+
+ /**
+  * Find the first period in priority order that is valid at a time and whose
+  * value matches
+  *
+  * @param time The time to search for
+  * @param matcher The check of the values, or null to take any value
+  * @return The position of the period, or -1 if none is valid and matches
+  */
+  public int findFirst(long time, Matcher<? super T> matcher)
+  {
+    SearchIndex searchIndex = getIndex();
+
+    if (searchIndex.disjoint)
+    {
+      int found = findDisjoint(time);
+
+      return ((found < 0) || matches(matcher, found)) ? found : -1;
+    }
+
+    int found = searchFirst(searchIndex, 0, size - 1, time, -1, matcher);
+
+    return (found < 0) ? -1 : searchIndex.order[found];
+  }
+
+ /**
+  * Find all of the periods that are valid at a time
+  *
+  * @param time The time to search for
+  * @return The positions of the periods, in priority order
+  */
+  public int[] findAll(long time)
+  {
+    SearchIndex searchIndex = getIndex();
+
+    if (searchIndex.disjoint)
+    {
+      int found = findDisjoint(time);
+
+      return (found < 0) ? NO_MATCHES : new int[] {found};
+    }
+
+    int[] matches = new int[size];
+    int count = searchAll(searchIndex, 0, size - 1, time, matches, 0);
+
+    if (count == 0)
+    {
+      return NO_MATCHES;
+    }
+
+    matches = Arrays.copyOf(matches, count);
+    Arrays.sort(matches);
+
+    return matches;
+  }
+
+ /**
+  * Find the last period that starts at or before a time, ignoring the ends
+  * of the periods. This is for timelines where each period lasts until the
+  * next one starts, which must be sorted by start.
+  *
+  * @param time The time to search for
+  * @return The position of the period, or -1 if none has started
+  */
+  public int findLatest(long time)
+  {
+    int lo = 0;
+    int hi = size - 1;
+
+    while (lo <= hi)
+    {
+      int mid = (lo + hi) >>> 1;
+
+      if (from[mid] <= time)
+      {
+        lo = mid + 1;
+      }
+      else
+      {
+        hi = mid - 1;
+      }
+    }
+
+    return hi;
+  }
+
+ /**
+  * Search a sorted timeline without overlaps. Only the last period that
+  * starts at or before the time can be valid at it.
+  *
+  * @param time The time to search for
+  * @return The position of the period, or -1 if none is valid
+  */
+  private int findDisjoint(long time)
+  {
+    int found = findLatest(time);
+
+    if ((found >= 0) && (to[found] > time))
+    {
+      return found;
+    }
+
+    return -1;
+  }
+
+ /**
+  * Search a part of the index tree for the valid period with the lowest
+  * position. The left part of each node is searched recursively, and the
+  * right part in the loop.
+  */
+  private int searchFirst(SearchIndex searchIndex, int lo, int hi, long time, int best, Matcher<? super T> matcher)
+  {
+    while (lo <= hi)
+    {
+      int mid = (lo + hi) >>> 1;
+
+      if (searchIndex.maxTo[mid] <= time)
+      {
+        // all of the periods in this part have ended
+        return best;
+      }
+
+      // the periods on the left start earlier, so might be valid
+      best = searchFirst(searchIndex, lo, mid - 1, time, best, matcher);
+
+      if (searchIndex.sortedFrom[mid] > time)
+      {
+        // this period and those on the right start later
+        return best;
+      }
+
+      if ((searchIndex.sortedTo[mid] > time) &&
+          ((best < 0) || (searchIndex.order[mid] < searchIndex.order[best])) &&
+          matches(matcher, searchIndex.order[mid]))
+      {
+        best = mid;
+      }
+
+      lo = mid + 1;
+    }
+
+    return best;
+  }
+
+ /**
+  * Check the value of a period against a matcher
+  */
+  private boolean matches(Matcher<? super T> matcher, int position)
+  {
+    return (matcher == null) || matcher.matches(getValue(position));
+  }
+
+ /**
+  * Collect the positions of all of the valid periods in a part of the index
+  * tree.
+  */
+  private int searchAll(SearchIndex searchIndex, int lo, int hi, long time, int[] matches, int count)
+  {
+    while (lo <= hi)
+    {
+      int mid = (lo + hi) >>> 1;
+
+      if (searchIndex.maxTo[mid] <= time)
+      {
+        return count;
+      }
+
+      count = searchAll(searchIndex, lo, mid - 1, time, matches, count);
+
+      if (searchIndex.sortedFrom[mid] > time)
+      {
+        return count;
+      }
+
+      if (searchIndex.sortedTo[mid] > time)
+      {
+        matches[count++] = searchIndex.order[mid];
+      }
+
+      lo = mid + 1;
+    }
+
+    return count;
+  }
+
+ /**
+  * Build the search index now, so that the first search after the periods
+  * have been added does not have to
+  */
+  public void prepare()
+  {
+    getIndex();
+  }
+
+ /**
+  * Get the search index, building it if the timeline has changed
+  *
+  * @return The index
+  */
+  private SearchIndex getIndex()
+  {
+    SearchIndex searchIndex = index;
+
+    if (searchIndex == null)
+    {
+      searchIndex = buildIndex();
+      index = searchIndex;
+    }
+
+    return searchIndex;
+  }
+
+ /**
+  * Build the search index
+  *
+  * @return The index
+  */
+  private SearchIndex buildIndex()
+  {
+    boolean disjoint = true;
+    long    latestTo = Long.MIN_VALUE;
+
+    for (int i = 0; i < size; i++)
+    {
+      if ((from[i] < latestTo) || ((i > 0) && (from[i] < from[i - 1])))
+      {
+        disjoint = false;
+        break;
+      }
+
+      latestTo = Math.max(latestTo, to[i]);
+    }
+
+    if (disjoint)
+    {
+      return DISJOINT_INDEX;
+    }
+
+    // sort the positions by start, keeping the priority order for equal starts
+    Integer[] positions = new Integer[size];
+    for (int i = 0; i < size; i++)
+    {
+      positions[i] = i;
+    }
+
+    Arrays.sort(positions, new Comparator<Integer>()
+    {
+      @Override
+      public int compare(Integer position1, Integer position2)
+      {
+        if (from[position1] != from[position2])
+        {
+          return (from[position1] < from[position2]) ? -1 : 1;
+        }
+
+        return position1.compareTo(position2);
+      }
+    });
+
+    SearchIndex newIndex = new SearchIndex();
+    newIndex.order = new int[size];
+    newIndex.sortedFrom = new long[size];
+    newIndex.sortedTo = new long[size];
+    newIndex.maxTo = new long[size];
+
+    for (int i = 0; i < size; i++)
+    {
+      int position = positions[i];
+      newIndex.order[i] = position;
+      newIndex.sortedFrom[i] = from[position];
+      newIndex.sortedTo[i] = to[position];
+    }
+
+    fillMaxTo(newIndex, 0, size - 1);
+
+    return newIndex;
+  }
+
+ /**
+  * Fill in the latest end under each node of a part of the index tree
+  *
+  * @return The latest end in the part
+  */
+  private static long fillMaxTo(SearchIndex searchIndex, int lo, int hi)
+  {
+    if (lo > hi)
+    {
+      return Long.MIN_VALUE;
+    }
+
+    int mid = (lo + hi) >>> 1;
+    long maxTo = Math.max(searchIndex.sortedTo[mid],
+                          Math.max(fillMaxTo(searchIndex, lo, mid - 1),
+                                   fillMaxTo(searchIndex, mid + 1, hi)));
+    searchIndex.maxTo[mid] = maxTo;
+
+    return maxTo;
+  }
+}
@@ -145,13 +145,14 @@ public abstract class AbstractBalanceHandlerPlugIn extends AbstractTransactional
 
   /**
    * Called when the underlying transaction is commanded to commit that means to
-   * fix any data and finish.
+   * fix any data and finish. The balance impacts of the transaction are made
+   * durable in the balance journal, if there is one.
    *
    * @param transactionNumber The number of the transaction
    */
   @Override
   public void commitTransaction(int transactionNumber) {
-    // NOP
+    BC.syncJournal();
   }
 
   /**
@@ -227,6 +228,23 @@ public abstract class AbstractBalanceHandlerPlugIn extends AbstractTransactional
     return BC.addCounter(balanceGroupId, counterId, validFrom, validTo, currentBal);
   }
 
+  /**
+   * Add a value into the BalanceCache, unless a counter already exists at the
+   * given date. The check and the add are atomic, so that concurrent records
+   * on the same balance group create the counter only once.
+   *
+   * @param balanceGroupId The id of the balance group
+   * @param counterId The ID of the counter in the balance group
+   * @param utcEventDate The date to check for
+   * @param validFrom The start of the validity period for the counter period
+   * @param validTo The end of the validity period for the counter period
+   * @param currentBal The current balance to assign to the counter period
+   * @return The created counter, or null if one already existed
+   */
+  public Counter addCounterIfAbsent(long balanceGroupId, int counterId, long utcEventDate, long validFrom, long validTo, double currentBal) {
+    return BC.addCounterIfAbsent(balanceGroupId, counterId, utcEventDate, validFrom, validTo, currentBal);
+  }
+
   /**
    * Gets a counter from a balance group by counter id and UTC date
    *
@@ -256,7 +274,7 @@ public abstract class AbstractBalanceHandlerPlugIn extends AbstractTransactional
     if (tmpCounterReq == null) {
       return initialValue;
     } else {
-      return tmpCounterReq.CurrentBalance;
+      return tmpCounterReq.getCurrentBalance();
     }
   }
 
@@ -307,10 +325,20 @@ public abstract class AbstractBalanceHandlerPlugIn extends AbstractTransactional
 
     tmpRUMValue = currentRecord.getRUMValue(rumToUse);
     Counter tmpCounter = checkCounterExists(balanceGroupId, counterId, currentRecord.getUTCEventDate());
+    boolean counterCreated = false;
 
     if (tmpCounter == null) {
-      tmpCounter = addCounter(balanceGroupId, counterId, utcBalanceStartValidity, UTCBalanceEndValidity, initialBalance);
+      tmpCounter = addCounterIfAbsent(balanceGroupId, counterId, currentRecord.getUTCEventDate(), utcBalanceStartValidity, UTCBalanceEndValidity, initialBalance);
+
+      if (tmpCounter == null) {
+        // another record created it in the meantime
+        tmpCounter = checkCounterExists(balanceGroupId, counterId, currentRecord.getUTCEventDate());
+      } else {
+        counterCreated = true;
+      }
+    }
 
+    if (counterCreated) {
       // Add the balance impact
       tmpBalImpact = new BalanceImpact();
       tmpBalImpact.type = "D";
@@ -332,13 +360,14 @@ public abstract class AbstractBalanceHandlerPlugIn extends AbstractTransactional
       tmpReturnInfo.setBalanceCreated(true);
     }
 
+    // consume in one step, so that concurrent records never use the same value
+    double oldBal = BC.consumeBalance(balanceGroupId, counterId, tmpCounter, tmpRUMValue);
+
     // see if we have used up all of the counter
-    if (tmpRUMValue > tmpCounter.CurrentBalance) {
+    if (tmpRUMValue > oldBal) {
       // we are crossing a threshold
-      tmpDiscount = tmpCounter.CurrentBalance;
-      currentRecord.updateRUMValue(rumToUse, -tmpCounter.CurrentBalance);
-      double oldBal = tmpCounter.CurrentBalance;
-      tmpCounter.CurrentBalance = 0;
+      tmpDiscount = oldBal;
+      currentRecord.updateRUMValue(rumToUse, -oldBal);
 
       // Add the balance impact
       tmpBalImpact = new BalanceImpact();
@@ -371,8 +400,7 @@ public abstract class AbstractBalanceHandlerPlugIn extends AbstractTransactional
       }
     } else {
       // we are just decrementing the counter, using all of the impact
-      double oldBal = tmpCounter.CurrentBalance;
-      tmpCounter.CurrentBalance -= tmpRUMValue;
+      double newBal = oldBal - tmpRUMValue;
       tmpDiscount = tmpRUMValue;
       currentRecord.updateRUMValue(rumToUse, -currentRecord.getRUMValue(rumToUse));
 
@@ -387,7 +415,7 @@ public abstract class AbstractBalanceHandlerPlugIn extends AbstractTransactional
       tmpBalImpact.recID = tmpCounter.RecId;
       tmpBalImpact.rumValueAfter = 0.0;
       tmpBalImpact.rumValueUsed = tmpDiscount;
-      tmpBalImpact.balanceAfter = tmpCounter.CurrentBalance;
+      tmpBalImpact.balanceAfter = newBal;
       tmpBalImpact.balanceDelta = tmpBalImpact.balanceAfter - oldBal;
       tmpBalImpact.startDate = tmpCounter.validFrom;
       tmpBalImpact.endDate = tmpCounter.validTo;
@@ -398,7 +426,7 @@ public abstract class AbstractBalanceHandlerPlugIn extends AbstractTransactional
         tmpReturnInfo.setCounterId(counterId);
         tmpReturnInfo.setRecId(tmpCounter.RecId);
         tmpReturnInfo.setDiscountedValue(tmpDiscount);
-        tmpReturnInfo.setNewBalanceValue(tmpCounter.CurrentBalance);
+        tmpReturnInfo.setNewBalanceValue(newBal);
 
         // Set the discount flag to "fully discounted"
         tmpReturnInfo.setDiscountFlag(DISCOUNT_FLAG_FULLY_DISCOUNTED);
@@ -451,13 +479,15 @@ public abstract class AbstractBalanceHandlerPlugIn extends AbstractTransactional
       return null;
     }
 
-    // we give the value back
-    if ((tmpCounter.CurrentBalance + tmpRUMValue) > initialBalance) {
-      // we can't go over the initial value, so limit what we refund
-      tmpRUMValue = initialBalance - tmpCounter.CurrentBalance;
+    // we give the value back, but can't go over the initial value
+    double oldBal = BC.refundBalance(balanceGroupId, counterId, tmpCounter, tmpRUMValue, initialBalance);
+
+    if ((oldBal + tmpRUMValue) > initialBalance) {
+      // so limit what we refund
+      tmpRUMValue = initialBalance - oldBal;
     }
 
-    tmpCounter.CurrentBalance += tmpRUMValue;
+    double newBal = oldBal + tmpRUMValue;
     tmpDiscount = tmpRUMValue;
 
     // Add the balance impact
@@ -469,9 +499,9 @@ public abstract class AbstractBalanceHandlerPlugIn extends AbstractTransactional
     tmpBalImpact.rumUsed = rumToUse;
     tmpBalImpact.counterID = counterId;
     tmpBalImpact.recID = tmpCounter.RecId;
-    tmpBalImpact.rumValueAfter = tmpCounter.CurrentBalance;
+    tmpBalImpact.rumValueAfter = newBal;
     tmpBalImpact.rumValueUsed = currentRecord.getRUMValue(rumToUse);
-    tmpBalImpact.balanceAfter = tmpCounter.CurrentBalance;
+    tmpBalImpact.balanceAfter = newBal;
     tmpBalImpact.balanceDelta = tmpDiscount;
     tmpBalImpact.startDate = tmpCounter.validFrom;
     tmpBalImpact.endDate = tmpCounter.validTo;
@@ -486,7 +516,7 @@ public abstract class AbstractBalanceHandlerPlugIn extends AbstractTransactional
       tmpReturnInfo.setCounterId(counterId);
       tmpReturnInfo.setRecId(tmpCounter.RecId);
       tmpReturnInfo.setDiscountedValue(tmpDiscount);
-      tmpReturnInfo.setNewBalanceValue(tmpCounter.CurrentBalance);
+      tmpReturnInfo.setNewBalanceValue(newBal);
 
       // Set the discount flag to "refund"
       tmpReturnInfo.setDiscountFlag(DISCOUNT_FLAG_REFUNDED);
@@ -537,10 +567,20 @@ public abstract class AbstractBalanceHandlerPlugIn extends AbstractTransactional
 
     tmpRUMValue = currentRecord.getRUMValue(rumToUse);
     Counter tmpCounter = checkCounterExists(balanceGroupId, counterId, currentRecord.getUTCEventDate());
+    boolean counterCreated = false;
 
     if (tmpCounter == null) {
-      tmpCounter = addCounter(balanceGroupId, counterId, utcBalanceStartValidity, UTCBalanceEndValidity, initialBalance);
+      tmpCounter = addCounterIfAbsent(balanceGroupId, counterId, currentRecord.getUTCEventDate(), utcBalanceStartValidity, UTCBalanceEndValidity, initialBalance);
+
+      if (tmpCounter == null) {
+        // another record created it in the meantime
+        tmpCounter = checkCounterExists(balanceGroupId, counterId, currentRecord.getUTCEventDate());
+      } else {
+        counterCreated = true;
+      }
+    }
 
+    if (counterCreated) {
       // Add the balance impact
       tmpBalImpact = new BalanceImpact();
       tmpBalImpact.type = "D";
@@ -563,7 +603,7 @@ public abstract class AbstractBalanceHandlerPlugIn extends AbstractTransactional
     }
 
     // now that we are sure we have a balance, update it
-    tmpCounter.CurrentBalance += tmpRUMValue;
+    double newBal = BC.addBalance(balanceGroupId, counterId, tmpCounter, tmpRUMValue) + tmpRUMValue;
     tmpDiscount = tmpRUMValue;
     tmpReturnInfo.setDiscountApplied(true);
 
@@ -578,7 +618,7 @@ public abstract class AbstractBalanceHandlerPlugIn extends AbstractTransactional
     tmpBalImpact.recID = tmpCounter.RecId;
     tmpBalImpact.rumValueAfter = tmpRUMValue;
     tmpBalImpact.rumValueUsed = tmpRUMValue;
-    tmpBalImpact.balanceAfter = tmpCounter.CurrentBalance;
+    tmpBalImpact.balanceAfter = newBal;
     tmpBalImpact.balanceDelta = tmpDiscount;
     tmpBalImpact.startDate = tmpCounter.validFrom;
     tmpBalImpact.endDate = tmpCounter.validTo;
@@ -591,7 +631,7 @@ public abstract class AbstractBalanceHandlerPlugIn extends AbstractTransactional
       tmpReturnInfo.setCounterId(counterId);
       tmpReturnInfo.setRecId(tmpCounter.RecId);
       tmpReturnInfo.setDiscountedValue(tmpDiscount);
-      tmpReturnInfo.setNewBalanceValue(tmpCounter.CurrentBalance);
+      tmpReturnInfo.setNewBalanceValue(newBal);
 
       // Set the discount flag to "aggregate"
       tmpReturnInfo.setDiscountFlag(DISCOUNT_FLAG_AGGREGATED);
@@ -9,6 +9,8 @@ import OpenRate.lang.ProductList;
 import OpenRate.record.IRecord;
 import OpenRate.resource.CacheFactory;
 import OpenRate.utils.PropertyUtils;
+import java.util.ArrayList;
+import java.util.Collection;
 
 /**
  * This class is a somewhat degenerate example of a Filter, but it does show how
@@ -102,6 +104,40 @@ public abstract class AbstractCustomerLookup
     return null;
   }
 
+ /**
+  * This is called before a batch is processed. If the customers are loaded
+  * on demand, the aliases of the valid records are loaded in one go, so that
+  * the lookups of the batch do not go to the DB one by one.
+  *
+  * @param records The records of the batch
+  */
+  @Override
+  public void procBatchStart(Collection<IRecord> records)
+  {
+    if (CC.isOnDemand())
+    {
+      ArrayList<String> aliases = new ArrayList<>();
+
+      for (IRecord r : records)
+      {
+        if (r.isValid())
+        {
+          String alias = getPrefetchAlias(r);
+
+          if (alias != null)
+          {
+            aliases.add(alias);
+          }
+        }
+      }
+
+      if (aliases.size() > 0)
+      {
+        CC.prefetchAliases(aliases);
+      }
+    }
+  }
+
   // -----------------------------------------------------------------------------
   // ------------------------ Start of custom functions --------------------------
   // -----------------------------------------------------------------------------
@@ -142,6 +178,24 @@ public abstract class AbstractCustomerLookup
     return tmpProductList;
   }
 
+ /**
+  * This fills a product list supplied by the caller, based on a login, a
+  * service and the validity of the customer and of the individual products.
+  * The list can be reused from one record to the next to avoid creating a new
+  * one for each record, as long as it is not shared between threads.
+  *
+  * @param Login The Alias used to identify the account
+  * @param Service The service identifier
+  * @param CDRDate The date of the CDR
+  * @param result The product list to fill
+  * @return true if the account was found and is valid at the date of the CDR
+  * @throws java.lang.Exception
+  */
+  public boolean getProductList(String Login, String Service, long CDRDate, ProductList result) throws Exception
+  {
+    return CC.getProducts(Login,Service,CDRDate,result);
+  }
+
  /**
   * This returns a product list based on a login, a service and the validity of
   * the customer and of the individual products.
@@ -160,4 +214,17 @@ public abstract class AbstractCustomerLookup
     return ERAValue;
   }
 
+ /**
+  * Get the alias a record will be looked up with, so that it can be loaded
+  * before the batch is processed when the customers are loaded on demand.
+  * Override this to get the prefetching, by default no alias is prefetched.
+  *
+  * @param r The record
+  * @return The alias of the record, or null if there is none
+  */
+  protected String getPrefetchAlias(IRecord r)
+  {
+    return null;
+  }
+
 }
@@ -13,6 +13,8 @@ import OpenRate.logging.LogUtil;
 import OpenRate.record.IRecord;
 import OpenRate.resource.CacheFactory;
 import OpenRate.utils.PropertyUtils;
+import java.util.ArrayList;
+import java.util.Collection;
 
 /**
  * This class is a somewhat degenerate example of a Filter, but it does show how
@@ -112,6 +114,40 @@ public abstract class AbstractCustomerLookupAudited
     return r;
   }
 
+ /**
+  * This is called before a batch is processed. If the customers are loaded
+  * on demand, the aliases of the valid records are loaded in one go, so that
+  * the lookups of the batch do not go to the DB one by one.
+  *
+  * @param records The records of the batch
+  */
+  @Override
+  public void procBatchStart(Collection<IRecord> records)
+  {
+    if (CC.isOnDemand())
+    {
+      ArrayList<String> aliases = new ArrayList<>();
+
+      for (IRecord r : records)
+      {
+        if (r.isValid())
+        {
+          String alias = getPrefetchAlias(r);
+
+          if (alias != null)
+          {
+            aliases.add(alias);
+          }
+        }
+      }
+
+      if (aliases.size() > 0)
+      {
+        CC.prefetchAliases(aliases);
+      }
+    }
+  }
+
 // -----------------------------------------------------------------------------
 // ------------- Start of inherited IEventInterface functions ------------------
 // -----------------------------------------------------------------------------
@@ -276,6 +312,36 @@ public abstract class AbstractCustomerLookupAudited
     return tmpProductList;
   }
 
+ /**
+  * This fills a product list supplied by the caller based on a login and the
+  * validity of the customer. The list can be reused from one record to the
+  * next to avoid creating a new one for each record, as long as it is not
+  * shared between threads.
+  *
+  * @param Login The Login (Alias) used to identify the account
+  * @param CDRDate The date of the CDR
+  * @param result The product list to fill
+  * @return true if an audit segment was found for the date
+  * @throws ProcessingException
+  */
+  protected boolean getProductList(String Login, long CDRDate, ProductList result) throws ProcessingException
+  {
+    return CC.getProducts(Login,CDRDate,result);
+  }
+
+ /**
+  * This fills a product list supplied by the caller from an already
+  * identified audit segment, plus the Subscription Id to search for.
+  *
+  * @param tmpAuditSeg the audit segment to get the product list from
+  * @param SubId the subscription id to recover products for, or null for all
+  * @param result The product list to fill
+  */
+  protected void getProductList(AuditSegment tmpAuditSeg, String SubId, ProductList result)
+  {
+    CC.getProducts(tmpAuditSeg, SubId, result);
+  }
+
  /**
   * Return the value of the ERA associated with an account.
   *
@@ -320,4 +386,17 @@ public abstract class AbstractCustomerLookupAudited
     // check to see if we have to perform the dynamic update or not
     CC.checkUpdate();
   }
+
+ /**
+  * Get the alias a record will be looked up with, so that it can be loaded
+  * before the batch is processed when the customers are loaded on demand.
+  * Override this to get the prefetching, by default no alias is prefetched.
+  *
+  * @param r The record
+  * @return The alias of the record, or null if there is none
+  */
+  protected String getPrefetchAlias(IRecord r)
+  {
+    return null;
+  }
 }
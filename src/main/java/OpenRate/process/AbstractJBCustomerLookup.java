@@ -9,6 +9,8 @@ import OpenRate.lang.ProductList;
 import OpenRate.record.IRecord;
 import OpenRate.resource.CacheFactory;
 import OpenRate.utils.PropertyUtils;
+import java.util.ArrayList;
+import java.util.Collection;
 
 /**
  * This module implements the processing interface to the JBCustomerCache
@@ -101,6 +103,40 @@ public abstract class AbstractJBCustomerLookup
     return null;
   }
 
+ /**
+  * This is called before a batch is processed. If the customers are loaded
+  * on demand, the aliases of the valid records are loaded in one go, so that
+  * the lookups of the batch do not go to the DB one by one.
+  *
+  * @param records The records of the batch
+  */
+  @Override
+  public void procBatchStart(Collection<IRecord> records)
+  {
+    if (getCC().isOnDemand())
+    {
+      ArrayList<String> aliases = new ArrayList<>();
+
+      for (IRecord r : records)
+      {
+        if (r.isValid())
+        {
+          String alias = getPrefetchAlias(r);
+
+          if (alias != null)
+          {
+            aliases.add(alias);
+          }
+        }
+      }
+
+      if (aliases.size() > 0)
+      {
+        getCC().prefetchAliases(aliases);
+      }
+    }
+  }
+
   // -----------------------------------------------------------------------------
   // ------------------------ Start of custom functions --------------------------
   // -----------------------------------------------------------------------------
@@ -168,6 +204,19 @@ public abstract class AbstractJBCustomerLookup
     return getCC().getCustIdExists(custId);
   }
 
+ /**
+  * Get the alias a record will be looked up with, so that it can be loaded
+  * before the batch is processed when the customers are loaded on demand.
+  * Override this to get the prefetching, by default no alias is prefetched.
+  *
+  * @param r The record
+  * @return The alias of the record, or null if there is none
+  */
+  protected String getPrefetchAlias(IRecord r)
+  {
+    return null;
+  }
+
   /**
    * @return the CC
    */
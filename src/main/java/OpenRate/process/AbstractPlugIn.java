@@ -5,6 +5,8 @@ package OpenRate.process;
 import OpenRate.CommonConfig;
 import OpenRate.OpenRate;
 import OpenRate.IPipeline;
+import OpenRate.buffer.IBoundedBuffer;
+import OpenRate.buffer.IBuffer;
 import OpenRate.buffer.IConsumer;
 import OpenRate.buffer.IEvent;
 import OpenRate.buffer.IMonitor;
@@ -23,6 +25,10 @@ import OpenRate.utils.PropertyUtils;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * The AbstractPlugIn provides a partially implemented PlugIn allowing simpler
@@ -33,6 +39,7 @@ import java.util.Iterator;
  */
 public abstract class AbstractPlugIn
   implements IPlugIn,
+             IPooledPlugIn,
              IMonitor,
              IEventInterface
 {
@@ -52,6 +59,35 @@ public abstract class AbstractPlugIn
   private int     bufferSize;
   private int     numThreads = 1;
 
+  // the number of times we check for records before parking
+  private int     spinCount = 0;
+
+  // the threads of this plug in that are parked waiting for records. Only
+  // these are woken when records arrive.
+  private final ConcurrentLinkedQueue<Thread> parkedThreads = new ConcurrentLinkedQueue<>();
+
+  // The longest we park a thread for before looking at the buffer again.
+  // Threads are unparked as soon as records arrive, so this is only a safety
+  // net.
+  private static final long MAX_PARK_NANOS = 100000000L;
+
+  // The pool we run our batches on in pooled execution mode, or null if we
+  // are running on our own threads
+  private Executor executionPool = null;
+
+  // the pooled plug in upstream of us, which we nudge when we make space
+  private IPooledPlugIn supplierPlugIn = null;
+
+  // the number of batch tasks we have running in the pool
+  private final AtomicInteger runningTasks = new AtomicInteger();
+
+  // the task we submit to the pool
+  private final Runnable batchTask = new BatchTask();
+
+  // the number of batches a task processes before giving the pool thread back
+  // so that the other plug ins get their turn
+  private static final int MAX_BATCHES_PER_TASK = 10;
+
   // to make getting ad hoc configurations easier
   private HashMap<String,String> configurationParameters = new HashMap<>(10);
 
@@ -68,12 +104,14 @@ public abstract class AbstractPlugIn
   private final static String SERVICE_BATCHSIZE  = CommonConfig.BATCH_SIZE;
   private final static String SERVICE_BUFFERSIZE = CommonConfig.BUFFER_SIZE;
   private final static String SERVICE_NUMTHREAD  = CommonConfig.NUM_PROCESSING_THREADS;
+  private final static String SERVICE_SPINCOUNT  = CommonConfig.SPIN_COUNT;
   private final static String SERVICE_STATS      = CommonConfig.STATS;
   private final static String SERVICE_STATSRESET = CommonConfig.STATS_RESET;
   private final static String SERVICE_ACTIVE     = CommonConfig.ACTIVE;
   private final static String DEFAULT_BATCHSIZE  = CommonConfig.DEFAULT_BATCH_SIZE;
   private final static String DEFAULT_BUFFERSIZE = CommonConfig.DEFAULT_BUFFER_SIZE;
   private final static String DEFAULT_NUMTHREAD  = CommonConfig.NUM_PROCESSING_THREADS_DEFAULT;
+  private final static String DEFAULT_SPINCOUNT  = CommonConfig.DEFAULT_SPIN_COUNT;
   private final static String DEFAULT_ACTIVE     = CommonConfig.DEFAULT_ACTIVE;
 
   //performance counters
@@ -126,6 +164,8 @@ public abstract class AbstractPlugIn
     processControlEvent(SERVICE_BUFFERSIZE, true, ConfigHelper);
     ConfigHelper = initGetNumThread();
     processControlEvent(SERVICE_NUMTHREAD, true, ConfigHelper);
+    ConfigHelper = initGetSpinCount();
+    processControlEvent(SERVICE_SPINCOUNT, true, ConfigHelper);
     ConfigHelper = initGetActive();
     processControlEvent(SERVICE_ACTIVE, true, ConfigHelper);
 
@@ -154,7 +194,7 @@ public abstract class AbstractPlugIn
   * the appropriate method is called in the implementation class, and the
   * results are collected and are emptied out of the downstream FIFO.
   *
-  * This method id triggered by the wait/notify mechanism and wakes up as soon
+  * This method is triggered by the park/notify mechanism and wakes up as soon
   * as a batch of records is pushed into the input buffer (either real time or
   * batch records).
   *
@@ -170,14 +210,6 @@ public abstract class AbstractPlugIn
   @Override
   public void process()
   {
-    Iterator<IRecord> iter;
-    long startTime;
-    long endTime;
-    long BatchTime;
-
-    // processing list for batch events
-    Collection<IRecord> in;
-
     // Print the thread startup message
     OpenRate.getOpenRateStatsLog().debug("PlugIn <" + Thread.currentThread().getName() +
                    "> started, pulling from buffer <" + getBatchInbound().toString() +
@@ -197,22 +229,155 @@ public abstract class AbstractPlugIn
     // ordered to shut down.
     while (true)
     {
-      // get the timestamp of the start of the processing. This will happen on
-      // each thread wake up
-      startTime = System.currentTimeMillis();
+      if (processBatch() == 0)
+      {
+        OpenRate.getOpenRateStatsLog().debug("PlugIn <" + Thread.currentThread().getName() + "> going to sleep");
 
-      // get the batch records to process
-      in = getBatchInbound().pull(getBatchSize());
+        // We want to shut down the processing
+        if (shutdownFlag == true)
+        {
+          OpenRate.getOpenRateStatsLog().debug("PlugIn <" + Thread.currentThread().getName() + "> shut down. Exiting.");
+          break;
+        }
 
-      int ThisBatchRecordCount = in.size();
+        // If not marked for shutdown, wait for notification from the
+        // suppler that new records are available for processing.
+        waitForRecords();
+      }
+    }
+  }
 
-      if (ThisBatchRecordCount > 0)
+ /**
+  * Pull one batch of records from the upstream FIFO, process it and push it to
+  * the downstream FIFO. This is the unit of work of the plug in, run in a loop
+  * by each plug in thread, or as a task in pooled execution mode.
+  *
+  * @return The number of records processed, 0 if there was nothing to do
+  */
+  protected int processBatch()
+  {
+    Iterator<IRecord> iter;
+    long startTime;
+    long endTime;
+    long BatchTime;
+
+    // processing list for batch events
+    Collection<IRecord> in;
+
+    // get the timestamp of the start of the processing. This will happen on
+    // each thread wake up
+    startTime = System.currentTimeMillis();
+
+    // get the batch records to process
+    in = getBatchInbound().pull(getBatchSize());
+
+    int ThisBatchRecordCount = in.size();
+
+    // If we took a full batch, there may be more work left for the other
+    // threads of this plug in
+    if (ThisBatchRecordCount == getBatchSize())
+    {
+      wakeParkedThread();
+    }
+
+    if (ThisBatchRecordCount > 0)
+    {
+      // If the active flag is set, we do the processing for real
+      // if it is not set, we only manage the transaction
+      if (isActive())
       {
-        // If the active flag is set, we do the processing for real
-        // if it is not set, we only manage the transaction
-        if (    isActive())
+        // Let the plug in look at the whole batch first
+        procBatchStart(in);
+
+        // Active loop
+        iter = in.iterator();
+
+        // Process each of the block of records and trigger the processing
+        // functions for each type (header, trailer, valid and error)
+        while (iter.hasNext())
         {
-          // Active loop
+          try
+          {
+            // Get the formatted information from the record
+            IRecord r = iter.next();
+
+            // Trigger the correct user level functions according to the state of
+            // the record
+            if (r.isValid())
+            {
+              procValidRecord(r);
+            }
+            else
+            {
+              if (r.isErrored())
+              {
+                procErrorRecord(r);
+              }
+              else
+              {
+                if (r instanceof HeaderRecord)
+                {
+                  r = procHeader(r);
+                  streamsProcessed++;
+                }
+
+                if (r instanceof TrailerRecord)
+                {
+                  procTrailer(r);
+                }
+              }
+            }
+          } // try
+          catch (ProcessingException pe)
+          {
+            getPipeLog().error("Processing exception caught in Plug In <" +
+                        getSymbolicName() + ">. See Error Log for the Stack Trace.");
+
+            getExceptionHandler().reportException(pe);
+          }
+          catch (ClassCastException cce)
+          {
+            getPipeLog().error("Record Class Cast exception caught in Plug In <" +
+                        getSymbolicName() + ">. See Error Log for the Stack Trace.");
+
+            getExceptionHandler().reportException(new ProcessingException(cce,getSymbolicName()));
+          }
+          catch (NullPointerException npe)
+          {
+            getPipeLog().error("Null pointer exception caught in Plug In <" +
+                        getSymbolicName() + ">. See Error Log for the Stack Trace.");
+
+            getExceptionHandler().reportException(new ProcessingException(npe,getSymbolicName()));
+          }
+          catch (ArrayIndexOutOfBoundsException aiob)
+          {
+            getPipeLog().error("Array Index Out of Bounds exception caught in Plug In <" +
+                        getSymbolicName() + ">. See Error Log for the Stack Trace.");
+
+            getExceptionHandler().reportException(new ProcessingException(aiob,getSymbolicName()));
+          }
+          catch (Exception ge)
+          {
+            getPipeLog().fatal("General exception caught in Plug In <" +
+                      getSymbolicName() + ">. See Error Log for the Stack Trace.");
+
+            getExceptionHandler().reportException(new ProcessingException(ge,getSymbolicName()));
+          }
+          catch (Throwable t)
+          {
+            getPipeLog().fatal("Unexpected exception caught in Plug In <" +
+                      getSymbolicName() + ">. See Error Log for the Stack Trace.");
+
+            getExceptionHandler().reportException(new ProcessingException(t,getSymbolicName()));
+          }
+        }
+      }
+      else
+      {
+        if (this instanceof AbstractTransactionalPlugIn)
+        {
+          // Inactive loop - we only need to do this for transactional modules
+          // if the module is non transactional, we need do nothing
           iter = in.iterator();
 
           // Process each of the block of records and trigger the processing
@@ -228,13 +393,13 @@ public abstract class AbstractPlugIn
               // the record
               if (r.isValid())
               {
-                procValidRecord(r);
+                // nothing
               }
               else
               {
                 if (r.isErrored())
                 {
-                  procErrorRecord(r);
+                  // nothing
                 }
                 else
                 {
@@ -249,15 +414,8 @@ public abstract class AbstractPlugIn
                     procTrailer(r);
                   }
                 }
-              }
+              } // else
             } // try
-            catch (ProcessingException pe)
-            {
-              getPipeLog().error("Processing exception caught in Plug In <" +
-                          getSymbolicName() + ">. See Error Log for the Stack Trace.");
-
-              getExceptionHandler().reportException(pe);
-            }
             catch (ClassCastException cce)
             {
               getPipeLog().error("Record Class Cast exception caught in Plug In <" +
@@ -279,155 +437,308 @@ public abstract class AbstractPlugIn
 
               getExceptionHandler().reportException(new ProcessingException(aiob,getSymbolicName()));
             }
-            catch (Exception ge)
-            {
-                getPipeLog().fatal("General exception caught in Plug In <" +
-                          getSymbolicName() + ">. See Error Log for the Stack Trace.");
-
-                getExceptionHandler().reportException(new ProcessingException(ge,getSymbolicName()));
-            }
             catch (Throwable t)
             {
               getPipeLog().fatal("Unexpected exception caught in Plug In <" +
                         getSymbolicName() + ">. See Error Log for the Stack Trace.");
 
               getExceptionHandler().reportException(new ProcessingException(t,getSymbolicName()));
-              }
             }
-          }
-          else
-          {
-            if (this instanceof AbstractTransactionalPlugIn)
-            {
-              // Inactive loop - we only need to do this for transactional modules
-              // if the module is non transactional, we need do nothing
-              iter = in.iterator();
+          } // while
+        }
+      }
 
-              // Process each of the block of records and trigger the processing
-              // functions for each type (header, trailer, valid and error)
-              while (iter.hasNext())
-              {
-                try
-                {
-                  // Get the formatted information from the record
-                  IRecord r = iter.next();
+      getBatchOutbound().push(in);
+      OpenRate.getOpenRateStatsLog().debug("PlugIn <" + Thread.currentThread().getName() + "> pushed <" + String.valueOf(ThisBatchRecordCount) + "> batch records to buffer <" + getBatchOutbound().toString() + ">");
 
-                  // Trigger the correct user level functions according to the state of
-                  // the record
-                  if (r.isValid())
-                  {
-                    // nothing
-                  }
-                  else
-                  {
-                    if (r.isErrored())
-                    {
-                      // nothing
-                    }
-                    else
-                    {
-                      if (r instanceof HeaderRecord)
-                      {
-                        r = procHeader(r);
-                        streamsProcessed++;
-                      }
-
-                      if (r instanceof TrailerRecord)
-                      {
-                        procTrailer(r);
-                      }
-                    }
-                  } // else
-              } // try
-              catch (ClassCastException cce)
-              {
-                getPipeLog().error("Record Class Cast exception caught in Plug In <" +
-                            getSymbolicName() + ">. See Error Log for the Stack Trace.");
+      outBufferCapacity = getBatchOutbound().getEventCount();
 
-                getExceptionHandler().reportException(new ProcessingException(cce,getSymbolicName()));
-              }
-              catch (NullPointerException npe)
-              {
-                getPipeLog().error("Null pointer exception caught in Plug In <" +
-                            getSymbolicName() + ">. See Error Log for the Stack Trace.");
+      endTime = System.currentTimeMillis();
+      BatchTime = (endTime - startTime);
+      setProcessingTime(getProcessingTime() + BatchTime);
 
-                getExceptionHandler().reportException(new ProcessingException(npe,getSymbolicName()));
-              }
-              catch (ArrayIndexOutOfBoundsException aiob)
-              {
-                getPipeLog().error("Array Index Out of Bounds exception caught in Plug In <" +
-                            getSymbolicName() + ">. See Error Log for the Stack Trace.");
+      // wait for the downstream module if we have filled its buffer
+      holdBack();
 
-                getExceptionHandler().reportException(new ProcessingException(aiob,getSymbolicName()));
-              }
-              catch (Throwable t)
-              {
-                getPipeLog().fatal("Unexpected exception caught in Plug In <" +
-                          getSymbolicName() + ">. See Error Log for the Stack Trace.");
+      OpenRate.getOpenRateStatsLog().info(
+        "Plugin <" + Thread.currentThread().getName() + "> processed <" +
+        String.valueOf(ThisBatchRecordCount) + "> events in <" + BatchTime + "> ms" );
 
-                getExceptionHandler().reportException(new ProcessingException(t,getSymbolicName()));
-                }
-              } // while
-            }
-          }
+      // Update the statistics
+      setBatchRecordsProcessed(getBatchRecordsProcessed() + ThisBatchRecordCount);
+    }
 
-          getBatchOutbound().push(in);
-          OpenRate.getOpenRateStatsLog().debug("PlugIn <" + Thread.currentThread().getName() + "> pushed <" + String.valueOf(ThisBatchRecordCount) + "> batch records to buffer <" + getBatchOutbound().toString() + ">");
+    return ThisBatchRecordCount;
+  }
 
-          outBufferCapacity = getBatchOutbound().getEventCount();
+ /**
+  * Wait until there are records in the inbound buffer, or until we are told to
+  * shut down. The inbound buffer is checked "SpinCount" times before the
+  * calling thread parks itself. A parked thread is woken by the notification
+  * from the supplier, but only if it is actually parked, so suppliers do not
+  * pay for notifying threads that are busy.
+  */
+  protected void waitForRecords()
+  {
+    ISupplier inbound = getBatchInbound();
 
-          endTime = System.currentTimeMillis();
-          BatchTime = (endTime - startTime);
-                setProcessingTime(getProcessingTime() + BatchTime);
+    for (int i = 0; i < spinCount; i++)
+    {
+      if (shutdownFlag || (inbound.getEventCount() > 0))
+      {
+        return;
+      }
 
-          while (outBufferCapacity > getBufferSize())
-          {
-                    setBufferHits(getBufferHits() + 1);
-            OpenRate.getOpenRateStatsLog().debug("PlugIn <" + Thread.currentThread().getName() + "> buffer high water mark! Buffer max = <" + getBufferSize() + "> current count = <" + outBufferCapacity + ">");
-            try
-            {
-              Thread.sleep(100);
-            }
-            catch (InterruptedException ex)
-            {
-              // Nothing
-            }
-            outBufferCapacity = getBatchOutbound().getEventCount();
-          }
+      Thread.yield();
+    }
 
-          OpenRate.getOpenRateStatsLog().info(
-            "Plugin <" + Thread.currentThread().getName() + "> processed <" +
-            String.valueOf(ThisBatchRecordCount) + "> events in <" + BatchTime + "> ms" );
+    Thread current = Thread.currentThread();
+    parkedThreads.add(current);
+    try
+    {
+      // check again now that we are registered, so that we cannot miss a
+      // notification that arrived in the meantime
+      if (!shutdownFlag && (inbound.getEventCount() == 0))
+      {
+        LockSupport.parkNanos(this, MAX_PARK_NANOS);
+      }
+    }
+    finally
+    {
+      parkedThreads.remove(current);
+    }
+  }
 
-          // Update the statistics
-                setBatchRecordsProcessed(getBatchRecordsProcessed() + ThisBatchRecordCount);
-        }
-        else
-        {
-          OpenRate.getOpenRateStatsLog().debug("PlugIn <" + Thread.currentThread().getName() + "> going to sleep");
+ /**
+  * Start running the plug in on the given pool. Records are processed by
+  * tasks submitted to the pool rather than by dedicated threads. We never run
+  * more tasks at the same time than the configured number of threads, so with
+  * the default of one thread the records are processed strictly in order, in
+  * exactly the same way as on a dedicated thread.
+  *
+  * @param pool The pool to run the batch tasks on
+  */
+  @Override
+  public void startPooled(Executor pool)
+  {
+    executionPool = pool;
+
+    // monitor the inbound buffer
+    getBatchInbound().registerMonitor(this);
 
-          // We want to shut down the processing
-          if (shutdownFlag == true)
+    // and the outbound buffer, so that we carry on as soon as the downstream
+    // module has drained it to the low water mark
+    applyWatermarks();
+    if (getBatchOutbound() instanceof IBuffer)
+    {
+      ((IBuffer) getBatchOutbound()).registerSupplierMonitor(this);
+    }
+
+    // pick up anything that is already waiting
+    schedule();
+  }
+
+ /**
+  * Set the pooled plug in that supplies our inbound buffer.
+  *
+  * @param supplierPlugIn The upstream plug in, or null if there is none
+  */
+  @Override
+  public void setSupplierPlugIn(IPooledPlugIn supplierPlugIn)
+  {
+    this.supplierPlugIn = supplierPlugIn;
+  }
+
+ /**
+  * Submit a batch task to the pool if there are records to process and we are
+  * not already running the maximum number of tasks.
+  */
+  @Override
+  public void schedule()
+  {
+    if ((executionPool == null) || (getBatchInbound().getEventCount() == 0) || isOutboundFull())
+    {
+      return;
+    }
+
+    int maxTasks = Math.max(1, numThreads);
+
+    while (true)
+    {
+      int running = runningTasks.get();
+
+      if (running >= maxTasks)
+      {
+        // the running tasks will pick up the work
+        return;
+      }
+
+      if (runningTasks.compareAndSet(running, running + 1))
+      {
+        break;
+      }
+    }
+
+    executionPool.execute(batchTask);
+  }
+
+ /**
+  * Return whether the plug in is running in pooled execution mode.
+  *
+  * @return true if the batches are run as tasks on a shared pool
+  */
+  public boolean isPooled()
+  {
+    return executionPool != null;
+  }
+
+ /**
+  * Return whether the plug in has finished all of its work in pooled execution
+  * mode.
+  *
+  * @return true if no tasks are running and no records are waiting
+  */
+  @Override
+  public boolean isIdle()
+  {
+    return (runningTasks.get() == 0) && (getBatchInbound().getEventCount() == 0);
+  }
+
+ /**
+  * Check if the outbound buffer is too full to accept another batch. In pooled
+  * execution mode we check this before taking a batch instead of holding the
+  * pool thread while the downstream module catches up. Once the buffer has
+  * gone above its high water mark we stay held back until the downstream
+  * module has drained it to the low water mark, which notifies us.
+  *
+  * @return true if we should wait for the downstream module
+  */
+  private boolean isOutboundFull()
+  {
+    IConsumer outbound = getBatchOutbound();
+
+    if ((outbound instanceof IBuffer) && (((IBuffer) outbound).getHighWatermark() > 0))
+    {
+      return ((IBuffer) outbound).isHeldBack();
+    }
+    else if (outbound instanceof IBoundedBuffer)
+    {
+      return (outbound.getEventCount() + getBatchSize()) > ((IBoundedBuffer) outbound).getCapacity();
+    }
+    else
+    {
+      return false;
+    }
+  }
+
+ /**
+  * The task that is submitted to the pool in pooled execution mode. It
+  * processes batches until the inbound buffer is empty, the outbound buffer is
+  * full or it has had its share of the pool thread.
+  */
+  private class BatchTask implements Runnable
+  {
+    @Override
+    public void run()
+    {
+      int batches = 0;
+
+      try
+      {
+        for (; batches < MAX_BATCHES_PER_TASK; batches++)
+        {
+          if (isOutboundFull())
           {
-            OpenRate.getOpenRateStatsLog().debug("PlugIn <" + Thread.currentThread().getName() + "> shut down. Exiting.");
+            incBufferHits();
             break;
           }
 
-          // If not marked for shutdown, wait for notification from the
-          // suppler that new records are available for processing.
-          try
-          {
-            synchronized (this)
-            {
-              wait();
-            }
-          }
-          catch (InterruptedException e)
+          if (processBatch() == 0)
           {
-            // ignore interrupt exceptions
+            break;
           }
-        } // else
-      } // while loop
+        }
+      }
+      catch (Throwable t)
+      {
+        getPipeLog().fatal("Unexpected exception caught in Plug In <" +
+                  getSymbolicName() + ">. See Error Log for the Stack Trace.");
+
+        getExceptionHandler().reportException(new ProcessingException(t,getSymbolicName()));
+      }
+      finally
+      {
+        runningTasks.decrementAndGet();
+      }
+
+      // we have made space in the inbound buffer, so the upstream plug in
+      // may be able to carry on
+      if ((batches > 0) && (supplierPlugIn != null))
+      {
+        supplierPlugIn.schedule();
+      }
+
+      // pick up anything that arrived while we were finishing
+      schedule();
+    }
+  }
+
+ /**
+  * Hold the calling thread back while the outbound buffer is above its high
+  * water mark, until the downstream module has drained it to the low water
+  * mark. In pooled execution the task checks before pulling instead of
+  * waiting here.
+  */
+  protected void holdBack()
+  {
+    IConsumer outbound = getBatchOutbound();
+
+    if (!isPooled() && (outbound instanceof IBuffer) && ((IBuffer) outbound).awaitLowWatermark())
+    {
+      incBufferHits();
+      OpenRate.getOpenRateStatsLog().debug("PlugIn <" + Thread.currentThread().getName() + "> held back at buffer high water mark <" + getBufferSize() + ">");
+    }
+  }
+
+ /**
+  * Set the water marks of the outbound buffer from the buffer size. We are
+  * held back when the buffer holds more than the buffer size, and released
+  * when it has drained to half of that. Bounded buffers hold our threads back
+  * by themselves when they are full, so we leave their flow control off,
+  * except in pooled execution, where we must not block the pool thread. Then
+  * we are held back when there is no longer space for a whole batch.
+  */
+  private void applyWatermarks()
+  {
+    IConsumer outbound = getBatchOutbound();
+
+    if (outbound instanceof IBoundedBuffer)
+    {
+      if (isPooled())
+      {
+        int capacity = ((IBoundedBuffer) outbound).getCapacity();
+        int high = Math.max(0, capacity - getBatchSize());
+
+        ((IBoundedBuffer) outbound).setWatermarks(high, Math.min(high, capacity / 2));
+      }
+    }
+    else if (outbound instanceof IBuffer)
+    {
+      ((IBuffer) outbound).setWatermarks(bufferSize, bufferSize / 2);
+    }
+  }
+
+ /**
+  * Wake up one of the parked threads of this plug in, if there are any.
+  */
+  protected void wakeParkedThread()
+  {
+    Thread parked = parkedThreads.poll();
+
+    if (parked != null)
+    {
+      LockSupport.unpark(parked);
+    }
   }
 
   /**
@@ -451,10 +762,11 @@ public abstract class AbstractPlugIn
     //log.debug("PlugIn <" + getSymbolicName() + "> marked for exit....");
     this.shutdownFlag = true;
 
-    // notify any listeners that are waiting that we are flushing
-    synchronized (this)
+    // wake all threads that are waiting so that they can flush and exit
+    Iterator<Thread> iter = parkedThreads.iterator();
+    while (iter.hasNext())
     {
-      notifyAll();
+      LockSupport.unpark(iter.next());
     }
   }
 
@@ -510,6 +822,18 @@ public abstract class AbstractPlugIn
     return tmpValue;
   }
 
+ /**
+  * Temporary function to gather the information from the properties file. Will
+  * be removed with the introduction of the new configuration model.
+  */
+  private String initGetSpinCount() throws InitializationException
+  {
+    String tmpValue;
+
+    tmpValue = PropertyUtils.getPropertyUtils().getPluginPropertyValueDef(getPipeName(),symbolicName,SERVICE_SPINCOUNT, DEFAULT_SPINCOUNT);
+    return tmpValue;
+  }
+
  /**
   * Temporary function to gather the information from the properties file. Will
   * be removed with the introduction of the new configuration model.
@@ -564,17 +888,25 @@ public abstract class AbstractPlugIn
 // -----------------------------------------------------------------------------
 
  /**
-  * Simple implementation of Monitor interface based on Thread
-  * wait/notify mechanism.
+  * Implementation of Monitor interface based on thread parking. Only one
+  * parked thread is woken for each notification: if that thread finds more
+  * than a full batch of work, it wakes the next one. If no thread is parked,
+  * there is nothing to do. In pooled execution mode, a batch task is submitted
+  * instead, both when records arrive and when the outbound buffer has drained
+  * to its low water mark.
   *
   * @param e The monitor event
   */
   @Override
   public void notify(IEvent e)
   {
-    synchronized (this)
+    if (executionPool == null)
     {
-      notifyAll();
+      wakeParkedThread();
+    }
+    else
+    {
+      schedule();
     }
   }
 
@@ -623,6 +955,19 @@ public abstract class AbstractPlugIn
   */
   public abstract IRecord procTrailer(IRecord r);
 
+ /**
+  * This is called with a batch of records before they are processed one by
+  * one, so that the plug in can prepare for the whole batch, for example by
+  * loading the data the records will look up in one go. By default nothing is
+  * done.
+  *
+  * @param records The records of the batch
+  */
+  public void procBatchStart(Collection<IRecord> records)
+  {
+    // nothing to prepare by default
+  }
+
  /**
   * This is called when a RT data record is encountered. You should do any normal
   * processing here. For most purposes this is steered to the normal (batch)
@@ -771,6 +1116,7 @@ public abstract class AbstractPlugIn
     ClientManager.getClientManager().registerClientService(getSymbolicName(), SERVICE_BATCHSIZE,  ClientManager.PARAM_MANDATORY);
     ClientManager.getClientManager().registerClientService(getSymbolicName(), SERVICE_BUFFERSIZE, ClientManager.PARAM_MANDATORY);
     ClientManager.getClientManager().registerClientService(getSymbolicName(), SERVICE_NUMTHREAD,  ClientManager.PARAM_NONE);
+    ClientManager.getClientManager().registerClientService(getSymbolicName(), SERVICE_SPINCOUNT,  ClientManager.PARAM_DYNAMIC);
     ClientManager.getClientManager().registerClientService(getSymbolicName(), SERVICE_STATS,      ClientManager.PARAM_NONE);
     ClientManager.getClientManager().registerClientService(getSymbolicName(), SERVICE_STATSRESET, ClientManager.PARAM_DYNAMIC);
     ClientManager.getClientManager().registerClientService(getSymbolicName(), SERVICE_ACTIVE,     ClientManager.PARAM_DYNAMIC);
@@ -894,6 +1240,27 @@ public abstract class AbstractPlugIn
       }
     }
 
+    if (Command.equalsIgnoreCase(SERVICE_SPINCOUNT))
+    {
+      if (Parameter.equals(""))
+      {
+        return Integer.toString(spinCount);
+      }
+      else
+      {
+        try
+        {
+          spinCount = Integer.parseInt(Parameter);
+        }
+        catch (NumberFormatException nfe)
+        {
+          getPipeLog().error("Invalid number for spin count. Passed value = <" + Parameter + ">");
+        }
+
+        ResultCode = 0;
+      }
+    }
+
     // Reset the Statistics
     if (Command.equalsIgnoreCase(SERVICE_ACTIVE))
     {
@@ -910,7 +1277,7 @@ public abstract class AbstractPlugIn
       else
       {
         // return the current status
-        if (    isActive())
+        if (isActive())
         {
           return "true";
         }
@@ -1020,6 +1387,8 @@ public abstract class AbstractPlugIn
      */
     public void setBufferSize(int bufferSize) {
         this.bufferSize = bufferSize;
+
+        applyWatermarks();
     }
 
     /**
@@ -1073,6 +1442,8 @@ public abstract class AbstractPlugIn
   public void setOutbound(IConsumer c)
   {
     this.consumer = c;
+
+    applyWatermarks();
   }
 
   /**
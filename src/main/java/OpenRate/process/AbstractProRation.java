@@ -4,6 +4,7 @@ package OpenRate.process;
 
 import OpenRate.CommonConfig;
 import OpenRate.lang.ProRatingResult;
+import OpenRate.utils.CalendarBoundaryCache;
 import OpenRate.utils.ConversionUtils;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -212,8 +213,8 @@ public abstract class AbstractProRation extends AbstractStubPlugIn
   {
     int     DaysInMonth;
     int     daysInPeriod;
-    Date    periodStart;
-    Date    periodEnd;
+    long    periodStart;
+    long    periodEnd;
 
     ProRatingResult result = new ProRatingResult();
 
@@ -235,23 +236,27 @@ public abstract class AbstractProRation extends AbstractStubPlugIn
     }
     else
     {
+      // The month boundaries come from the boundary cache, so we do not need
+      // any calendar arithmetic here
+      ConversionUtils conv = ConversionUtils.getConversionUtilsObject();
+      CalendarBoundaryCache.Boundaries eventDay = conv.getCalendarBoundaries(conv.getUTCDate(EventDate));
+      CalendarBoundaryCache.Boundaries startDay = conv.getCalendarBoundaries(conv.getUTCDate(StartDate));
+      CalendarBoundaryCache.Boundaries endDay = conv.getCalendarBoundaries(conv.getUTCDate(EndDate));
+
       // See if we have a pro-ration to do: if the Event Date is not in the
       // Start month or end month, then we are home and dry
-      workingCalendar.setTime(EventDate);
-      int EventMonth = workingCalendar.get(Calendar.MONTH) + 1 + workingCalendar.get(Calendar.YEAR)*12;
-      DaysInMonth = workingCalendar.getActualMaximum(Calendar.DAY_OF_MONTH);
+      int EventMonth = eventDay.monthIndex;
+      DaysInMonth = eventDay.daysInMonth;
 
       // Default the period start and end to the start and end of the month
       // we will only change these in the code later if they are wrong
       // (often they will be right)
-      periodStart = ConversionUtils.getConversionUtilsObject().getMonthStart(EventDate);
-      periodEnd   = ConversionUtils.getConversionUtilsObject().getMonthEnd(EventDate);
+      periodStart = eventDay.monthStart * 1000;
+      periodEnd   = eventDay.monthEnd * 1000;
 
       // get the months of the validity start and end
-      workingCalendar.setTime(StartDate);
-      int StartMonth = workingCalendar.get(Calendar.MONTH) + 1 + workingCalendar.get(Calendar.YEAR)*12;
-      workingCalendar.setTime(EndDate);
-      int EndMonth = workingCalendar.get(Calendar.MONTH) + 1 + workingCalendar.get(Calendar.YEAR)*12;
+      int StartMonth = startDay.monthIndex;
+      int EndMonth = endDay.monthIndex;
 
       // Check the cases based on the month identifiers
       if (EventMonth == StartMonth)
@@ -264,17 +269,16 @@ public abstract class AbstractProRation extends AbstractStubPlugIn
           daysInPeriod = getDaysBetweenDates(StartDate,EndDate);
 
           // The period dates are just the original validity dates
-          periodStart = StartDate;
-          periodEnd = EndDate;
+          periodStart = StartDate.getTime();
+          periodEnd = EndDate.getTime();
         }
         else
         {
           // We need to calculate up to the end of the month
-          workingCalendar.setTime(ConversionUtils.getConversionUtilsObject().getMonthEnd(StartDate));
-          daysInPeriod = getDaysBetweenDates(StartDate,workingCalendar.getTime());
+          daysInPeriod = getDaysBetweenDates(StartDate.getTime(), startDay.monthEnd * 1000);
 
           // The period dates are the original start date to the end of the month
-          periodStart = StartDate;
+          periodStart = StartDate.getTime();
         }
       }
       else if (EventMonth == EndMonth)
@@ -289,11 +293,10 @@ public abstract class AbstractProRation extends AbstractStubPlugIn
         else
         {
           // We need to calculate from the start of the month
-          workingCalendar.setTime(ConversionUtils.getConversionUtilsObject().getMonthStart(EndDate));
-          daysInPeriod = getDaysBetweenDates(workingCalendar.getTime(),EndDate);
+          daysInPeriod = getDaysBetweenDates(endDay.monthStart * 1000, EndDate.getTime());
 
           // The period dates are the start of the month to the original  end date
-          periodEnd = EndDate;
+          periodEnd = EndDate.getTime();
         }
       }
       else
@@ -322,8 +325,8 @@ public abstract class AbstractProRation extends AbstractStubPlugIn
       // set up the output
       result.setDaysInPeriod(daysInPeriod);
       result.setProRationFactor((double)daysInPeriod / (double) DaysInMonth);
-      result.setPeriodStartDate(periodStart);
-      result.setPeriodEndDate(periodEnd);
+      result.setPeriodStartDate(new Date(periodStart));
+      result.setPeriodEndDate(new Date(periodEnd));
     }
 
     // return the updated record
@@ -343,7 +346,19 @@ public abstract class AbstractProRation extends AbstractStubPlugIn
   */
   public int getDaysBetweenDates(Date startDate, Date endDate)
   {
-    long diff = endDate.getTime() - startDate.getTime();
+    return getDaysBetweenDates(startDate.getTime(), endDate.getTime());
+  }
+
+ /**
+  * Calculate the number of days between two dates given in milliseconds
+  *
+  * @param startDate The start date of the period
+  * @param endDate The end date of the period
+  * @return The number of days difference
+  */
+  public int getDaysBetweenDates(long startDate, long endDate)
+  {
+    long diff = endDate - startDate;
     double daysdiff = diff / (double) MILLISECONDS_PER_DAY;
     int days = (int) Math.ceil(daysdiff);
     return Math.abs(days);
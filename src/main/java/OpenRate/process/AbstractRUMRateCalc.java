@@ -128,16 +128,23 @@ public abstract class AbstractRUMRateCalc extends AbstractRateCalc {
   public boolean performRating(RatingRecord CurrentRecord) throws ProcessingException {
     RecordError tmpError;
     ArrayList<RUMRateCache.RUMMapEntry> tmpRUMMap;
-    ArrayList<ChargePacket> tmpCPList = new ArrayList<>();
+    ArrayList<ChargePacket> chargePackets = CurrentRecord.getChargePackets();
 
-    // ****************************** RUM Expansion ****************************
-    for (ChargePacket tmpCP : CurrentRecord.getChargePackets()) {
-      // Used for building rating chains
-      ChargePacket lastCP = null;
+    // ****************************** RUM Validation ***************************
+    // Check the price groups of all of the packets before we change any of
+    // them, so that a record in error keeps its packets as they were. At the
+    // same time see if there is anything to expand: in the usual case of one
+    // time packet and a 1:1 price group:price model map, the packets can be
+    // prepared in place, without creating any new packets
+    boolean inPlace = true;
 
+    for (ChargePacket tmpCP : chargePackets) {
       if (tmpCP.Valid) {
-        for (TimePacket tmpTZ : tmpCP.getTimeZones()) {
+        if (tmpCP.getTimeZones().size() != 1) {
+          inPlace = false;
+        }
 
+        for (TimePacket tmpTZ : tmpCP.getTimeZones()) {
           if (tmpTZ.priceGroup == null) {
             tmpError = new RecordError("ERR_PRICE_GROUP_NOT_FOUND", ErrorType.DATA_NOT_FOUND, getSymbolicName());
             CurrentRecord.addError(tmpError);
@@ -146,8 +153,6 @@ public abstract class AbstractRUMRateCalc extends AbstractRateCalc {
             return false;
           }
 
-          // create a charge packet for each RUM/Resource/price model tuple as located
-          // in the RUM Map
           tmpRUMMap = RRC.getRUMMap(tmpTZ.priceGroup);
 
           if (tmpRUMMap == null) {
@@ -158,127 +163,40 @@ public abstract class AbstractRUMRateCalc extends AbstractRateCalc {
             return false;
           }
 
-          // if we are doing 1:1 price group:price model, we'll use the existing
-          // charge packet, otherwise we have to do some clSetLicense.groovyoning. Normally, we'll
-          // be using 1:1
-          if (tmpRUMMap.size() == 1) {
-            // ************************** 1:1 case *********************************
-            RUMRateCache.RUMMapEntry tmpRUMMapEntry = tmpRUMMap.get(0);
-
-            // Copy the CP over - we do this for each model in the group
-            // as we will be performing rating on each of them
-            // Note that we create a new list of cloned charge packets, and
-            // don't try to re-use the original ones. This saves a loop of
-            // preparation and then rating. I think that it's quicker this
-            // way, but there's the potential to do some timing/tuning here
-            ChargePacket tmpCPNew = tmpCP.shallowClone();
-
-            // Set up the rating chain
-            if (lastCP != null) {
-              lastCP.nextChargePacket = tmpCPNew;
-              tmpCPNew.previousChargePacket = lastCP;
-            }
-
-            // clone the TZ packet we are working on
-            TimePacket tmpTZNew = tmpTZ.Clone();
-
-            // Get the value of the RUM
-            tmpTZNew.priceModel = tmpRUMMapEntry.PriceModel;
-            tmpCPNew.rumName = tmpRUMMapEntry.RUM;
-            tmpCPNew.rumQuantity = CurrentRecord.getRUMValue(tmpCP.rumName);
-
-            tmpCPNew.resource = tmpRUMMapEntry.Resource;
-            tmpCPNew.resCounter = tmpRUMMapEntry.ResourceCounter;
-            tmpCPNew.ratingType = tmpRUMMapEntry.RUMType;
-            tmpCPNew.consumeRUM = tmpRUMMapEntry.ConsumeRUM;
-            tmpCPNew.addTimeZone(tmpTZNew);
-
-            // Fill the RUM value
-            // get the rating type
-            switch (tmpRUMMapEntry.RUMType) {
-              case 1: {
-                tmpCPNew.ratingTypeDesc = "FLAT";
-                break;
-              }
-              case 2: {
-                // Tiered Rating
-                tmpCPNew.ratingTypeDesc = "TIERED";
-                break;
-              }
-              case 3: {
-                tmpCPNew.ratingTypeDesc = "THRESHOLD";
-                break;
-              }
-              case 4: {
-                // Event Rating
-                tmpCPNew.ratingTypeDesc = "EVENT";
-                break;
-              }
-            }
-
-            // Add to the list of processed CPs (in case we switch to a replace 
-            // mode in a later CP/TZ)
-            tmpCPList.add(tmpCPNew);
-
-            // Set the rating chain up for this packet
-            lastCP = tmpCPNew;
-          } else {
-            // ************************ 1:many case ******************************
-            for (RUMRateCache.RUMMapEntry tmpRUMMapEntry : tmpRUMMap) {
-
-              // Copy the CP over - we do this for each model in the group
-              // as we will be performing rating on each of them
-              // Note that we create a new list of cloned charge packets, and
-              // don't try to re-use the original ones. This saves a loop of
-              // preparation and then rating. I think that it's quicker this
-              // way, but there's the potential to do some timing/tuning here
-              ChargePacket tmpCPNew = tmpCP.shallowClone();
-
-              // clone the TZ packet we are working on
-              TimePacket tmpTZNew = tmpTZ.Clone();
-
-              // Get the value of the RUM
-              tmpTZNew.priceModel = tmpRUMMapEntry.PriceModel;
-              tmpCPNew.rumName = tmpRUMMapEntry.RUM;
-              tmpCPNew.rumQuantity = CurrentRecord.getRUMValue(tmpCP.rumName);
-              tmpCPNew.resource = tmpRUMMapEntry.Resource;
-              tmpCPNew.resCounter = tmpRUMMapEntry.ResourceCounter;
-              tmpCPNew.ratingType = tmpRUMMapEntry.RUMType;
-              tmpCPNew.addTimeZone(tmpTZNew);
+          if (tmpRUMMap.size() != 1) {
+            inPlace = false;
+          }
+        }
+      }
+    }
 
-              // get the rating type
-              switch (tmpRUMMapEntry.RUMType) {
-                case 1: {
-                  tmpCPNew.ratingTypeDesc = "FLAT";
-                  break;
-                }
-                case 2: {
-                  // Tiered Rating
-                  tmpCPNew.ratingTypeDesc = "TIERED";
-                  break;
-                }
-                case 3: {
-                  tmpCPNew.ratingTypeDesc = "THRESHOLD";
-                  break;
-                }
-                case 4: {
-                  // Event Rating
-                  tmpCPNew.ratingTypeDesc = "EVENT";
-                  break;
-                }
-              }
-              tmpCPList.add(tmpCPNew);
-            }
+    // ****************************** RUM Expansion ****************************
+    if (inPlace) {
+      for (ChargePacket tmpCP : chargePackets) {
+        if (tmpCP.Valid) {
+          TimePacket tmpTZ = tmpCP.getTimeZones().get(0);
+          RUMRateCache.RUMMapEntry tmpRUMMapEntry = RRC.getRUMMap(tmpTZ.priceGroup).get(0);
+
+          // Leave the packet as the expansion would have created it
+          if (tmpCP.breakDown == null || !tmpCP.breakDown.isEmpty()) {
+            tmpCP.breakDown = new ArrayList<>();
+          }
+          tmpCP.timeResult = "";
+          if (tmpTZ.packetNumber == 0) {
+            tmpTZ.packetNumber = 1;
           }
+
+          tmpCP.rumQuantity = CurrentRecord.getRUMValue(tmpCP.rumName);
+          prepareChargePacket(tmpCP, tmpTZ, tmpRUMMapEntry);
+          tmpCP.consumeRUM = tmpRUMMapEntry.ConsumeRUM;
         }
-      } else {
-        // skip the packet - just add it
-        tmpCPList.add(tmpCP);
       }
+    } else {
+      expandChargePackets(CurrentRecord);
     }
 
-    // replace the list of unprepared packets with the prepared ones
-    CurrentRecord.replaceChargePackets(tmpCPList);
+    // The rating result is filled again by each evaluation of the record
+    RatingResult tmpRatingResult = new RatingResult();
 
     // ***************************** Rating Evaluation**************************
     // Rate all of the charge packets that are to be rated - loop through the
@@ -303,7 +221,7 @@ public abstract class AbstractRUMRateCalc extends AbstractRateCalc {
                 //Use the rateCalculateDuration method defined in AbstractRateCalc to
                 //calculate the price
                 if (tmpTZ.priceGroup != null) {
-                  RatingResult tmpRatingResult;
+                  CompiledPriceModel compiledModel = getCompiledPriceModel(tmpTZ);
 
                   // Get the rum value for the time zone according to the rounding rules
                   double thisZoneRUM = getRUMForTimeZone(RUMValue, rumRoundedCumulative, rumExpectedCumulative, cpToRate.timeSplitting, tmpTZ.duration, tmpTZ.totalDuration);
@@ -313,7 +231,7 @@ public abstract class AbstractRUMRateCalc extends AbstractRateCalc {
                   switch (cpToRate.ratingType) {
                     case ChargePacket.RATING_TYPE_FLAT: {
                       // Flat Rating
-                      tmpRatingResult = rateCalculateFlat(tmpTZ.priceModel, thisZoneRUM, CurrentRecord.utcEventDate, CurrentRecord.createBreakdown);
+                      performRateEvaluationFlat(tmpTZ.priceModel, compiledModel, thisZoneRUM, CurrentRecord.utcEventDate, CurrentRecord.createBreakdown, tmpRatingResult);
                       cpToRate.chargedValue += tmpRatingResult.RatedValue;
                       cpToRate.addBreakdown(tmpRatingResult.breakdown);
                       break;
@@ -321,21 +239,21 @@ public abstract class AbstractRUMRateCalc extends AbstractRateCalc {
                     case ChargePacket.RATING_TYPE_TIERED:
                     default: {
                       // Tiered Rating
-                      tmpRatingResult = rateCalculateTiered(tmpTZ.priceModel, thisZoneRUM, rumRoundedCumulative, CurrentRecord.utcEventDate, CurrentRecord.createBreakdown);
+                      performRateEvaluationTiered(tmpTZ.priceModel, compiledModel, thisZoneRUM, rumRoundedCumulative, CurrentRecord.utcEventDate, CurrentRecord.createBreakdown, tmpRatingResult);
                       cpToRate.chargedValue += tmpRatingResult.RatedValue;
                       cpToRate.addBreakdown(tmpRatingResult.breakdown);
                       break;
                     }
                     case ChargePacket.RATING_TYPE_THRESHOLD: {
                       // Threshold Rating
-                      tmpRatingResult = rateCalculateThreshold(tmpTZ.priceModel, thisZoneRUM, rumRoundedCumulative, CurrentRecord.utcEventDate, CurrentRecord.createBreakdown);
+                      performRateEvaluationThreshold(tmpTZ.priceModel, compiledModel, thisZoneRUM, rumRoundedCumulative, CurrentRecord.utcEventDate, CurrentRecord.createBreakdown, tmpRatingResult);
                       cpToRate.chargedValue += tmpRatingResult.RatedValue;
                       cpToRate.addBreakdown(tmpRatingResult.breakdown);
                       break;
                     }
                     case ChargePacket.RATING_TYPE_EVENT: {
                       // Event Rating
-                      tmpRatingResult = rateCalculateEvent(tmpTZ.priceModel, thisZoneRUM, CurrentRecord.utcEventDate, CurrentRecord.createBreakdown);
+                      performRateEvaluationEvent(tmpTZ.priceModel, compiledModel, (long) thisZoneRUM, CurrentRecord.utcEventDate, CurrentRecord.createBreakdown, tmpRatingResult);
                       cpToRate.chargedValue += tmpRatingResult.RatedValue;
                       cpToRate.addBreakdown(tmpRatingResult.breakdown);
                       break;
@@ -380,6 +298,124 @@ public abstract class AbstractRUMRateCalc extends AbstractRateCalc {
     return true;
   }
 
+  /**
+   * Expand the charge packets of a record, creating a charge packet for each
+   * RUM/Resource/price model tuple of the RUM map of each time packet. The
+   * price groups have already been checked.
+   *
+   * @param CurrentRecord The record to expand the packets of
+   */
+  private void expandChargePackets(RatingRecord CurrentRecord) {
+    ArrayList<RUMRateCache.RUMMapEntry> tmpRUMMap;
+    ArrayList<ChargePacket> tmpCPList = new ArrayList<>();
+
+    for (ChargePacket tmpCP : CurrentRecord.getChargePackets()) {
+      // Used for building rating chains
+      ChargePacket lastCP = null;
+
+      if (tmpCP.Valid) {
+        // The RUM value is the same for all of the packets we create
+        double rumValue = CurrentRecord.getRUMValue(tmpCP.rumName);
+
+        for (TimePacket tmpTZ : tmpCP.getTimeZones()) {
+          // create a charge packet for each RUM/Resource/price model tuple as located
+          // in the RUM Map
+          tmpRUMMap = RRC.getRUMMap(tmpTZ.priceGroup);
+
+          // if we are doing 1:1 price group:price model, we'll use the existing
+          // charge packet, otherwise we have to do some cloning. Normally, we'll
+          // be using 1:1
+          if (tmpRUMMap.size() == 1) {
+            // ************************** 1:1 case *********************************
+            RUMRateCache.RUMMapEntry tmpRUMMapEntry = tmpRUMMap.get(0);
+
+            // Copy the CP over - we rate the copy and replace the original
+            ChargePacket tmpCPNew = tmpCP.shallowClone();
+
+            // Set up the rating chain
+            if (lastCP != null) {
+              lastCP.nextChargePacket = tmpCPNew;
+              tmpCPNew.previousChargePacket = lastCP;
+            }
+
+            // clone the TZ packet we are working on
+            TimePacket tmpTZNew = tmpTZ.Clone();
+
+            tmpCPNew.rumQuantity = rumValue;
+            prepareChargePacket(tmpCPNew, tmpTZNew, tmpRUMMapEntry);
+            tmpCPNew.consumeRUM = tmpRUMMapEntry.ConsumeRUM;
+            tmpCPNew.addTimeZone(tmpTZNew);
+
+            // Add to the list of processed CPs (in case we switch to a replace 
+            // mode in a later CP/TZ)
+            tmpCPList.add(tmpCPNew);
+
+            // Set the rating chain up for this packet
+            lastCP = tmpCPNew;
+          } else {
+            // ************************ 1:many case ******************************
+            for (RUMRateCache.RUMMapEntry tmpRUMMapEntry : tmpRUMMap) {
+              // Copy the CP over - we do this for each model in the group
+              // as we will be performing rating on each of them
+              ChargePacket tmpCPNew = tmpCP.shallowClone();
+
+              // clone the TZ packet we are working on
+              TimePacket tmpTZNew = tmpTZ.Clone();
+
+              tmpCPNew.rumQuantity = rumValue;
+              prepareChargePacket(tmpCPNew, tmpTZNew, tmpRUMMapEntry);
+              tmpCPNew.addTimeZone(tmpTZNew);
+              tmpCPList.add(tmpCPNew);
+            }
+          }
+        }
+      } else {
+        // skip the packet - just add it
+        tmpCPList.add(tmpCP);
+      }
+    }
+
+    // replace the list of unprepared packets with the prepared ones
+    CurrentRecord.replaceChargePackets(tmpCPList);
+  }
+
+  /**
+   * Fill a charge packet and its time packet from a RUM map entry. The rating
+   * type description and the price model handle were resolved when the cache
+   * was loaded.
+   *
+   * @param tmpCP The charge packet to fill
+   * @param tmpTZ The time packet to fill
+   * @param tmpRUMMapEntry The RUM map entry to rate for
+   */
+  private void prepareChargePacket(ChargePacket tmpCP, TimePacket tmpTZ, RUMRateCache.RUMMapEntry tmpRUMMapEntry) {
+    tmpTZ.priceModel = tmpRUMMapEntry.PriceModel;
+    tmpTZ.priceModelHandle = tmpRUMMapEntry.PriceModelHandle;
+    tmpCP.rumName = tmpRUMMapEntry.RUM;
+    tmpCP.resource = tmpRUMMapEntry.Resource;
+    tmpCP.resCounter = tmpRUMMapEntry.ResourceCounter;
+    tmpCP.ratingType = tmpRUMMapEntry.RUMType;
+    tmpCP.ratingTypeDesc = tmpRUMMapEntry.RatingTypeDesc;
+  }
+
+  /**
+   * Get the compiled price model of a time packet. The handle is resolved when
+   * the charge packets are expanded, so the name is only looked up for a time
+   * packet that was prepared in another way.
+   *
+   * @param tmpTZ The time packet to rate
+   * @return The compiled price model, or null if it is not defined
+   */
+  private CompiledPriceModel getCompiledPriceModel(TimePacket tmpTZ) {
+    int handle = tmpTZ.priceModelHandle;
+
+    if (handle < 0) {
+      handle = RRC.getPriceModelHandle(tmpTZ.priceModel);
+    }
+
+    return RRC.getCompiledPriceModel(handle);
+  }
+
   /**
    * Apply beat rounding to the RUM value if required by the time splitting.
    *
@@ -446,17 +482,13 @@ public abstract class AbstractRUMRateCalc extends AbstractRateCalc {
    */
   RatingResult rateCalculateTiered(String priceModel, double valueToRate, double valueOffset, long CDRDate, boolean BreakDown)
           throws ProcessingException {
-    ArrayList<RateMapEntry> tmpRateModel;
-    RatingResult tmpRatingResult;
+    CompiledPriceModel compiledModel;
 
     // Look up the rate model to use
-    tmpRateModel = RRC.getPriceModel(priceModel);
+    compiledModel = RRC.getCompiledPriceModel(RRC.getPriceModelHandle(priceModel));
 
     // perform the rating using the selected rate model
-    tmpRatingResult = performRateEvaluationTiered(priceModel, tmpRateModel, valueToRate, valueOffset, CDRDate, BreakDown);
-
-    // return the rating result
-    return tmpRatingResult;
+    return performRateEvaluationTiered(priceModel, compiledModel, valueToRate, valueOffset, CDRDate, BreakDown, new RatingResult());
   }
 
   /**
@@ -473,17 +505,13 @@ public abstract class AbstractRUMRateCalc extends AbstractRateCalc {
    */
   RatingResult rateCalculateThreshold(String priceModel, double valueToRate, double valueOffset, long CDRDate, boolean BreakDown)
           throws ProcessingException {
-    ArrayList<RateMapEntry> tmpRateModel;
-    RatingResult tmpRatingResult;
+    CompiledPriceModel compiledModel;
 
     // Look up the rate model to use
-    tmpRateModel = RRC.getPriceModel(priceModel);
+    compiledModel = RRC.getCompiledPriceModel(RRC.getPriceModelHandle(priceModel));
 
     // perform the rating using the selected rate model
-    tmpRatingResult = performRateEvaluationThreshold(priceModel, tmpRateModel, valueToRate, valueOffset, CDRDate, BreakDown);
-
-    // return the rating result
-    return tmpRatingResult;
+    return performRateEvaluationThreshold(priceModel, compiledModel, valueToRate, valueOffset, CDRDate, BreakDown, new RatingResult());
   }
 
   /**
@@ -499,17 +527,13 @@ public abstract class AbstractRUMRateCalc extends AbstractRateCalc {
    */
   RatingResult rateCalculateFlat(String priceModel, double valueToRate, long CDRDate, boolean BreakDown)
           throws ProcessingException {
-    ArrayList<RateMapEntry> tmpRateModel;
-    RatingResult tmpRatingResult;
+    CompiledPriceModel compiledModel;
 
     // Look up the rate model to use
-    tmpRateModel = RRC.getPriceModel(priceModel);
+    compiledModel = RRC.getCompiledPriceModel(RRC.getPriceModelHandle(priceModel));
 
     // perform the rating using the selected rate model
-    tmpRatingResult = performRateEvaluationFlat(priceModel, tmpRateModel, valueToRate, CDRDate, BreakDown);
-
-    // return the rating result
-    return tmpRatingResult;
+    return performRateEvaluationFlat(priceModel, compiledModel, valueToRate, CDRDate, BreakDown, new RatingResult());
   }
 
   /**
@@ -523,17 +547,13 @@ public abstract class AbstractRUMRateCalc extends AbstractRateCalc {
    */
   RatingResult rateCalculateEvent(String priceModel, double valueToRate, long CDRDate, boolean BreakDown)
           throws ProcessingException {
-    ArrayList<RateMapEntry> tmpRateModel;
-    RatingResult tmpRatingResult;
+    CompiledPriceModel compiledModel;
 
     // Look up the rate model to use
-    tmpRateModel = RRC.getPriceModel(priceModel);
+    compiledModel = RRC.getCompiledPriceModel(RRC.getPriceModelHandle(priceModel));
 
     // perform the rating using the selected rate model
-    tmpRatingResult = performRateEvaluationEvent(priceModel, tmpRateModel, (long) valueToRate, CDRDate, BreakDown);
-
-    // return the rating result
-    return tmpRatingResult;
+    return performRateEvaluationEvent(priceModel, compiledModel, (long) valueToRate, CDRDate, BreakDown, new RatingResult());
   }
 
   /**
@@ -5,6 +5,7 @@ import OpenRate.cache.ICacheManager;
 import OpenRate.cache.RateCache;
 import OpenRate.exception.InitializationException;
 import OpenRate.exception.ProcessingException;
+import OpenRate.record.CompiledPriceModel;
 import OpenRate.record.IRecord;
 import OpenRate.record.RateMapEntry;
 import OpenRate.record.RatingBreakdown;
@@ -1145,6 +1146,331 @@ public abstract class AbstractRateCalc extends AbstractPlugIn {
     return tmpcalculationResult;
   }
 
+  /**
+   * Performs the tiered rating calculation using a compiled price model. The
+   * result is the same as performRateEvaluationTiered, but the tiers of the
+   * validity segment are evaluated in one loop over the primitive tier arrays,
+   * and the result is returned in the result object given by the caller, so
+   * that it can be used for all of the evaluations of a record.
+   *
+   * @param PriceModel The price model name we are using
+   * @param compiledModel The compiled price model, null if not defined
+   * @param valueToRate The value to rate
+   * @param valueOffset The offset for the start of the tier, if there is one
+   * @param CDRDate The date to rate at
+   * @param BreakDown Produce a charge breakdown or not
+   * @param result The rating result to fill
+   * @return The rating result
+   * @throws OpenRate.exception.ProcessingException
+   */
+  protected RatingResult performRateEvaluationTiered(String PriceModel, CompiledPriceModel compiledModel, double valueToRate, double valueOffset, long CDRDate, boolean BreakDown, RatingResult result) throws ProcessingException {
+    CompiledPriceModel.Segment segment = getSegmentForTime(PriceModel, compiledModel, CDRDate);
+    checkCoverage(segment.covered, PriceModel, CDRDate);
+    double[] from = segment.from;
+    double[] to = segment.to;
+    double[] beat = segment.beat;
+    double[] factor = segment.factor;
+    double[] chargeBase = segment.chargeBase;
+
+    // For multi-packet rating, we have to apply the offset
+    double effectiveValueToRate = valueToRate + valueOffset;
+
+    double allTiersValue = 0;
+    double rumValueUsed = 0;
+    double rumValueUsedOffset = 0;
+    double roundedRUMUsed = 0;
+    result.breakdown = null;
+
+    for (int index = 0; index < segment.tierCount; index++) {
+      double thisTierRUMUsed = 0;
+      long thisTierBeatCount = 0;
+      double thisTierOffsetRUMUsed = 0;
+      long thisTierOffsetBeatCount = 0;
+
+      // Deal with the rating value, using all of the tier or the part of it
+      // that the value reaches
+      if (effectiveValueToRate > from[index]) {
+        if (effectiveValueToRate >= to[index]) {
+          thisTierRUMUsed = to[index] - from[index];
+        } else {
+          thisTierRUMUsed = effectiveValueToRate - from[index];
+        }
+
+        rumValueUsed += thisTierRUMUsed;
+        thisTierBeatCount = getBeatCount(thisTierRUMUsed, beat[index]);
+      }
+
+      // Deal with the offset in the same way
+      if (valueOffset != 0 && valueOffset > from[index]) {
+        if (valueOffset >= to[index]) {
+          thisTierOffsetRUMUsed = to[index] - from[index];
+        } else {
+          thisTierOffsetRUMUsed = valueOffset - from[index];
+        }
+
+        rumValueUsedOffset += thisTierOffsetRUMUsed;
+        thisTierOffsetBeatCount = getBeatCount(thisTierOffsetRUMUsed, beat[index]);
+      }
+
+      // Now roll up the rating values
+      double thisTierRoundedRUM = (thisTierBeatCount - thisTierOffsetBeatCount) * beat[index];
+      double thisTierValue = (thisTierRoundedRUM * factor[index]) / chargeBase[index];
+
+      // Only count rounded RUM used for non-singularity steps, otherwise we count more than once
+      if (from[index] != to[index]) {
+        roundedRUMUsed += thisTierRoundedRUM;
+      }
+
+      if (BreakDown) {
+        addBreakdown(result, segment, index, index, beat[index], thisTierBeatCount - thisTierOffsetBeatCount, thisTierRUMUsed - thisTierOffsetRUMUsed, thisTierValue);
+      }
+
+      allTiersValue += thisTierValue;
+    }
+
+    result.RatedValue = allTiersValue;
+    result.RUMUsed = rumValueUsed - rumValueUsedOffset;
+    result.RUMUsedRounded = roundedRUMUsed;
+
+    return result;
+  }
+
+  /**
+   * Performs the threshold rating calculation using a compiled price model. The
+   * result is the same as performRateEvaluationThreshold.
+   *
+   * @param PriceModel The price model name we are using
+   * @param compiledModel The compiled price model, null if not defined
+   * @param valueToRate The value to rate
+   * @param valueOffset The offset for the start of the tier, if there is one
+   * @param CDRDate The date to rate at
+   * @param BreakDown Produce a charge breakdown or not
+   * @param result The rating result to fill
+   * @return The rating result
+   * @throws OpenRate.exception.ProcessingException
+   */
+  protected RatingResult performRateEvaluationThreshold(String PriceModel, CompiledPriceModel compiledModel, double valueToRate, double valueOffset, long CDRDate, boolean BreakDown, RatingResult result) throws ProcessingException {
+    CompiledPriceModel.Segment segment = getSegmentForTime(PriceModel, compiledModel, CDRDate);
+    checkCoverage(segment.covered, PriceModel, CDRDate);
+    double[] from = segment.from;
+    double[] to = segment.to;
+    double[] beat = segment.beat;
+    double[] factor = segment.factor;
+    double[] chargeBase = segment.chargeBase;
+
+    // For multi-packet rating, we have to apply the offset
+    double effectiveValueToRate = valueToRate + valueOffset;
+
+    double allTiersValue = 0;
+    double rumValueUsed = 0;
+    result.breakdown = null;
+
+    for (int index = 0; index < segment.tierCount; index++) {
+      double thisTierRUMUsed = 0;
+      long thisTierBeatCount = 0;
+
+      // The offset locates the tier to use, but we rate the original amount
+      if (effectiveValueToRate > from[index]) {
+        if (effectiveValueToRate <= to[index]) {
+          thisTierRUMUsed = valueToRate;
+          rumValueUsed += thisTierRUMUsed;
+          thisTierBeatCount = getBeatCount(thisTierRUMUsed, beat[index]);
+        } else if (from[index] == to[index]) {
+          // Singularity rate
+          thisTierBeatCount = 1;
+        }
+      }
+
+      double thisTierValue = (thisTierBeatCount * factor[index]) * beat[index] / chargeBase[index];
+
+      if (BreakDown) {
+        addBreakdown(result, segment, index, index, beat[index], thisTierBeatCount, thisTierRUMUsed, thisTierValue);
+      }
+
+      allTiersValue += thisTierValue;
+    }
+
+    result.RatedValue = allTiersValue;
+    result.RUMUsed = rumValueUsed;
+    result.RUMUsedRounded = 0;
+
+    return result;
+  }
+
+  /**
+   * Performs the flat rating calculation using a compiled price model. The
+   * result is the same as performRateEvaluationFlat.
+   *
+   * @param PriceModel The price model name we are using
+   * @param compiledModel The compiled price model, null if not defined
+   * @param valueToRate The value to rate
+   * @param CDRDate The date to rate at
+   * @param BreakDown Produce a charge breakdown or not
+   * @param result The rating result to fill
+   * @return The rating result
+   * @throws OpenRate.exception.ProcessingException
+   */
+  protected RatingResult performRateEvaluationFlat(String PriceModel, CompiledPriceModel compiledModel, double valueToRate, long CDRDate, boolean BreakDown, RatingResult result) throws ProcessingException {
+    CompiledPriceModel.Segment segment = getSegmentForTime(PriceModel, compiledModel, CDRDate);
+
+    // Only the first tier is used, and it is always valid in a segment
+    double value = (valueToRate * segment.factor[0]) / segment.chargeBase[0];
+    result.breakdown = null;
+
+    if (BreakDown) {
+      addBreakdown(result, segment, 0, 1, 1, (long) valueToRate, valueToRate, value);
+    }
+
+    result.RatedValue = value;
+    result.RUMUsed = valueToRate;
+    result.RUMUsedRounded = 0;
+
+    return result;
+  }
+
+  /**
+   * Performs the event rating calculation using a compiled price model. The
+   * result is the same as performRateEvaluationEvent.
+   *
+   * @param PriceModel The price model name we are using
+   * @param compiledModel The compiled price model, null if not defined
+   * @param valueToRate The value to rate for
+   * @param CDRDate The date to rate at
+   * @param BreakDown Produce a charge breakdown or not
+   * @param result The rating result to fill
+   * @return The rating result
+   * @throws OpenRate.exception.ProcessingException
+   */
+  protected RatingResult performRateEvaluationEvent(String PriceModel, CompiledPriceModel compiledModel, long valueToRate, long CDRDate, boolean BreakDown, RatingResult result) throws ProcessingException {
+    CompiledPriceModel.Segment segment = getSegmentForTime(PriceModel, compiledModel, CDRDate);
+    double[] from = segment.from;
+    double[] to = segment.to;
+    double[] factor = segment.factor;
+
+    double allTiersValue = 0;
+    double rumValueUsed = 0;
+    result.breakdown = null;
+
+    for (int index = 0; index < segment.tierCount; index++) {
+      if (valueToRate > from[index]) {
+        // Only the tiers the value reaches have to be valid
+        checkCoverage(segment.valid[index], PriceModel, CDRDate);
+
+        double thisTierRUMUsed;
+
+        // Use all of the tier or the part of it that the value reaches
+        if (valueToRate >= to[index]) {
+          thisTierRUMUsed = to[index] - from[index];
+        } else {
+          thisTierRUMUsed = valueToRate - from[index];
+        }
+
+        // Deal with the case that we have the empty beat
+        if (thisTierRUMUsed == 0) {
+          thisTierRUMUsed++;
+        }
+
+        rumValueUsed += thisTierRUMUsed;
+
+        double thisTierValue = thisTierRUMUsed * factor[index];
+
+        if (BreakDown) {
+          addBreakdown(result, segment, index, index, segment.beat[index], (long) thisTierRUMUsed, thisTierRUMUsed, thisTierValue);
+        }
+
+        allTiersValue += thisTierValue;
+      }
+    }
+
+    result.RatedValue = allTiersValue;
+    result.RUMUsed = rumValueUsed;
+    result.RUMUsedRounded = 0;
+
+    return result;
+  }
+
+  /**
+   * Get the validity segment of a compiled price model for the CDR date
+   *
+   * @param PriceModel The price model name, for the error messages
+   * @param compiledModel The compiled price model, null if not defined
+   * @param CDRDate The date to rate at
+   * @return The segment
+   * @throws ProcessingException if the model is not defined or not valid
+   */
+  private CompiledPriceModel.Segment getSegmentForTime(String PriceModel, CompiledPriceModel compiledModel, long CDRDate) throws ProcessingException {
+    if (compiledModel == null) {
+      throw new ProcessingException("Price Model <" + PriceModel + "> not defined", getSymbolicName());
+    }
+
+    CompiledPriceModel.Segment segment = compiledModel.getSegment(CDRDate);
+    checkCoverage(segment != null, PriceModel, CDRDate);
+
+    return segment;
+  }
+
+  /**
+   * Check that the tiers a rating needs are valid at the CDR date
+   *
+   * @param valid True if the tiers are valid
+   * @param PriceModel The price model name, for the error messages
+   * @param CDRDate The date to rate at
+   * @throws ProcessingException if the tiers are not valid
+   */
+  private void checkCoverage(boolean valid, String PriceModel, long CDRDate) throws ProcessingException {
+    if (!valid) {
+      message = "CDR with <" + CDRDate + "> date not rated by model <"
+              + PriceModel + "> because of missing validity coverage";
+      throw new ProcessingException(message, getSymbolicName());
+    }
+  }
+
+  /**
+   * Get the number of beats for the RUM used in a tier. Unfinished beats are
+   * counted, and an empty tier counts as one beat.
+   *
+   * @param rumUsed The RUM used in the tier
+   * @param beat The beat of the tier
+   * @return The number of beats
+   */
+  private static long getBeatCount(double rumUsed, double beat) {
+    long beatCount = Math.round(rumUsed / beat);
+
+    // Deal with unfinished beats
+    if ((rumUsed - beatCount * beat) > 0) {
+      beatCount++;
+    }
+
+    // Deal with the empty beat
+    if (beatCount == 0) {
+      beatCount = 1;
+    }
+
+    return beatCount;
+  }
+
+  /**
+   * Add the breakdown of a compiled tier to a rating result
+   */
+  private static void addBreakdown(RatingResult result, CompiledPriceModel.Segment segment, int index, int stepUsed, double beat, long beatCount, double rumRated, double ratedAmount) {
+    if (result.breakdown == null) {
+      result.breakdown = new ArrayList<>();
+    }
+
+    RatingBreakdown tmpBreakdown = new RatingBreakdown();
+    tmpBreakdown.beat = beat;
+    tmpBreakdown.beatCount = beatCount;
+    tmpBreakdown.factor = segment.factor[index];
+    tmpBreakdown.chargeBase = segment.chargeBase[index];
+    tmpBreakdown.ratedAmount = ratedAmount;
+    tmpBreakdown.RUMRated = rumRated;
+    tmpBreakdown.stepUsed = stepUsed;
+    tmpBreakdown.tierFrom = segment.from[index];
+    tmpBreakdown.tierTo = segment.to[index];
+    tmpBreakdown.validFrom = segment.validFrom[index];
+    result.breakdown.add(tmpBreakdown);
+  }
+
   /**
    * Runs through the validity periods in a rate map, and returns the one valid
    * for a given date, or null if no match
@@ -1155,21 +1481,6 @@ public abstract class AbstractRateCalc extends AbstractPlugIn {
    * time
    */
   protected RateMapEntry getRateModelEntryForTime(RateMapEntry tmpEntry, long CDRDate) {
-    RateMapEntry result = tmpEntry;
-    while (tmpEntry.getStartTime() > CDRDate) {
-      // try to move down the list
-      if (tmpEntry.getChild() == null) {
-        // no more children, so we can't rate this
-        return null;
-      } else {
-        // move down the list
-        result = result.getChild();
-      }
-
-      return result;
-    }
-
-    // return the right bit
-    return tmpEntry;
+    return CompiledPriceModel.getVersionForTime(tmpEntry, CDRDate);
   }
 }
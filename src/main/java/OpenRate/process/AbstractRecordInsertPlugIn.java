@@ -20,26 +20,15 @@ import java.util.Iterator;
 public abstract class AbstractRecordInsertPlugIn extends AbstractPlugIn
 {
  /**
-  * Process() gets the records from the upstream FIFO and iterates through all
-  * of the records in the collection that is gets. For each of these records,
-  * the appropriate method is called in the implementation class, and the
-  * results are collected and are emptied out of the downstream FIFO.
+  * Pull one batch of records from the upstream FIFO and pass each of them to
+  * the batch hooks of the implementation class. The records that the hooks
+  * return (which may be more or fewer than were passed in) are collected and
+  * pushed to the downstream FIFO in place of the original batch.
   *
-  * This method id triggered by the wait/notify mechanism and wakes up as soon
-  * as a batch of records is pushed into the input buffer (either real time or
-  * batch records).
-  *
-  * This method must be thread safe as it is the fundamental multi-processing
-  * hook in the framework.
-  *
-  * This module implements batch/real time convergence. It can be triggered by
-  * either batch or real time events, but in any case, real time events are
-  * processed in precedence to the batch events. This is achieved by processing
-  * all real time events through the pipeline between each batch event. This
-  * creates a very high priority path through the pipe for real time events.
+  * @return The number of records pulled, 0 if there was nothing to do
   */
   @Override
-  public void process()
+  protected int processBatch()
   {
     Iterator<IRecord> iter;
     long startTime;
@@ -47,158 +36,101 @@ public abstract class AbstractRecordInsertPlugIn extends AbstractPlugIn
     long BatchTime;
 
     // processing list for batch events
-    ArrayList<IRecord> in;
+    Collection<IRecord> in;
 
     // output buffer for preparing the events to push
     ArrayList<IRecord> outTemp = new ArrayList<>();
 
-    // processing list for real time events
-    ArrayList<IRecord> inRT;
+    // get the timestamp of the start of the processing. This will happen on
+    // each thread wake up
+    startTime = System.currentTimeMillis();
 
-    // output buffer for preparing the events to push
-    ArrayList<IRecord> outRTTemp = new ArrayList<>();
+    // get the batch records to process
+    in = getBatchInbound().pull(getBatchSize());
 
-    // Print the thread startup message
-    OpenRate.getOpenRateStatsLog().debug("PlugIn <" + Thread.currentThread().getName() +
-                   "> started, pulling from buffer <" + getBatchInbound().toString() +
-                   ">, pushing to buffer <" + getBatchOutbound().toString() + ">");
+    int ThisBatchRecordCount = in.size();
 
-    // Check to see if we have the naughty batch size of 0. this is usually
-    // because someone has overwritten the init() without calling the parent
-    // init
-    if (getBatchSize() == 0)
+    // If we took a full batch, there may be more work left for the other
+    // threads of this plug in
+    if (ThisBatchRecordCount == getBatchSize())
     {
-      message = "Batch size is 0 in plugin <" + this.toString() + ">. " +
-              "Please ensure that you have called the parent init().";
-      getExceptionHandler().reportException(new ProcessingException(message,getSymbolicName()));
+      wakeParkedThread();
     }
 
-    // main thread loop. This will not be exited until the thread is
-    // ordered to shut down.
-    while (true)
+    if (ThisBatchRecordCount > 0)
     {
-      // get the timestamp of the start of the processing. This will happen on
-      // each thread wake up
-      startTime = System.currentTimeMillis();
-
-      // get the batch records to process
-      in = (ArrayList<IRecord>) getBatchInbound().pull(getBatchSize());
-
-      int ThisBatchRecordCount = in.size();
-
-      if (ThisBatchRecordCount > 0)
+      if (isActive())
       {
-        if (isActive())
+        iter = in.iterator();
+
+        // Process each of the block of records and trigger the processing
+        // functions for each type (header, trailer, valid and error)
+        while (iter.hasNext())
         {
-          iter = in.iterator();
+          // Get the formatted information from the record
+          IRecord r = iter.next();
+          Collection<IRecord> rb = null;
 
-          // Process each of the block of records and trigger the processing
-          // functions for each type (header, trailer, valid and error)
-          while (iter.hasNext())
+          // Trigger the correct user level functions according to the state of
+          // the record
+          if (r.isValid())
           {
-            // Get the formatted information from the record
-            IRecord r = iter.next();
-            Collection<IRecord> rb = null;
-
-            // Trigger the correct user level functions according to the state of
-            // the record
-            if (r.isValid())
+            rb = procValidRecordBatch(r);
+          }
+          else
+          {
+            if (r.isErrored())
             {
-              rb = procValidRecordBatch(r);
+              rb = procErrorRecordBatch(r);
             }
             else
             {
-              if (r.isErrored())
+              if (r instanceof HeaderRecord)
               {
-                rb = procErrorRecordBatch(r);
+                rb = procHeaderBatch(r);
+                incStreamsProcessed();
               }
-              else
+
+              if (r instanceof TrailerRecord)
               {
-                if (r instanceof HeaderRecord)
-                {
-                  rb = procHeaderBatch(r);
-                  incStreamsProcessed();
-                }
-
-                if (r instanceof TrailerRecord)
-                {
-                  rb = procTrailerBatch(r);
-                }
+                rb = procTrailerBatch(r);
               }
             }
+          }
 
-            // push the records into the output buffer
-            if (rb != null)
+          // push the records into the output buffer
+          if (rb != null)
+          {
+            Iterator<IRecord> rbi = rb.iterator();
+            while (rbi.hasNext())
             {
-              Iterator<IRecord> rbi = rb.iterator();
-              while (rbi.hasNext())
-              {
-                outTemp.add(rbi.next());
-              }
+              outTemp.add(rbi.next());
             }
           }
         }
+      }
 
-        // Push the list we constructed, not the original batch
-        getBatchOutbound().push(outTemp);
+      // Push the list we constructed, not the original batch
+      getBatchOutbound().push(outTemp);
 
-        OpenRate.getOpenRateStatsLog().debug("PlugIn <" + Thread.currentThread().getName() + "> pushed <" + String.valueOf(ThisBatchRecordCount) + "> batch records to buffer <" + getBatchOutbound().toString() + ">");
+      OpenRate.getOpenRateStatsLog().debug("PlugIn <" + Thread.currentThread().getName() + "> pushed <" + String.valueOf(ThisBatchRecordCount) + "> batch records to buffer <" + getBatchOutbound().toString() + ">");
 
-        int outBufferCapacity = getBatchOutbound().getEventCount();
+      endTime = System.currentTimeMillis();
+      BatchTime = (endTime - startTime);
+      updateProcessingTime(BatchTime);
 
-        endTime = System.currentTimeMillis();
-        BatchTime = (endTime - startTime);
-        updateProcessingTime(BatchTime);
+      // wait for the downstream module if we have filled its buffer
+      holdBack();
 
-        while (outBufferCapacity > getBufferSize())
-        {
-          incBufferHits();
-          OpenRate.getOpenRateStatsLog().debug("PlugIn <" + Thread.currentThread().getName() + "> buffer high water mark! Buffer max = <" + getBufferSize() + "> current count = <" + outBufferCapacity + ">");
-          try
-          {
-            Thread.sleep(100);
-          }
-          catch (InterruptedException ex)
-          {
-            // Nothing
-          }
-          outBufferCapacity = getBatchOutbound().getEventCount();
-        }
-
-        OpenRate.getOpenRateStatsLog().info(
-          "Plugin <" + Thread.currentThread().getName() + "> processed <" +
-          String.valueOf(ThisBatchRecordCount) + "> events in <" + BatchTime + "> ms" );
+      OpenRate.getOpenRateStatsLog().info(
+        "Plugin <" + Thread.currentThread().getName() + "> processed <" +
+        String.valueOf(ThisBatchRecordCount) + "> events in <" + BatchTime + "> ms" );
 
-        // Update the statistics
-        updateBatchRecordsProcessed(ThisBatchRecordCount);
-      }
-      else
-      {
-        OpenRate.getOpenRateStatsLog().debug(
-              "PlugIn <" + Thread.currentThread().getName() + "> going to sleep");
-
-        // We want to shut down the processing
-        if (getShutdownFlag() == true)
-        {
-          OpenRate.getOpenRateStatsLog().debug("PlugIn <" + Thread.currentThread().getName() + "> shut down. Exiting.");
-          break;
-        }
+      // Update the statistics
+      updateBatchRecordsProcessed(ThisBatchRecordCount);
+    }
 
-        // If not marked for shutdown, wait for notification from the
-        // suppler that new records are available for processing.
-        try
-        {
-          synchronized (this)
-          {
-            wait();
-          }
-        }
-        catch (InterruptedException e)
-        {
-          // ignore interrupt exceptions
-        }
-      } // else
-    } // while loop
+    return ThisBatchRecordCount;
   }
 
 // -----------------------------------------------------------------------------
@@ -0,0 +1,46 @@
+package OpenRate.process;
+
+import java.util.concurrent.Executor;
+
+/**
+ * IPooledPlugIn Interface. Plug ins that implement this interface can be run
+ * in the pooled execution mode of a pipeline: instead of launching a fixed set
+ * of threads for the plug in, the pipeline hands the plug in a shared pool, and
+ * the plug in submits a task to the pool each time there is a batch of work to
+ * do. This keeps all of the cores busy on whichever plug ins have work, without
+ * having to tune the number of threads of each plug in.
+ */
+public interface IPooledPlugIn extends IPlugIn
+{
+ /**
+  * Start running the plug in on the given pool. From now on, the plug in
+  * schedules its own work as records arrive in the inbound buffer.
+  *
+  * @param pool The pool to run the batch tasks on
+  */
+  public void startPooled(Executor pool);
+
+ /**
+  * Set the pooled plug in that supplies our inbound buffer. A pooled plug in
+  * stops taking batches while its outbound buffer is full, so it has to be
+  * told when the downstream plug in has made space.
+  *
+  * @param supplierPlugIn The upstream plug in, or null if there is none
+  */
+  public void setSupplierPlugIn(IPooledPlugIn supplierPlugIn);
+
+ /**
+  * Submit a batch task to the pool if there are records waiting and the plug
+  * in is not already running its maximum number of tasks. This is called by
+  * the pipeline during its regular maintenance as a safety net.
+  */
+  public void schedule();
+
+ /**
+  * Return whether the plug in has finished all of its work: no tasks are
+  * running and there are no records waiting in the inbound buffer.
+  *
+  * @return true if the plug in is idle
+  */
+  public boolean isIdle();
+}
@@ -0,0 +1,32 @@
+package OpenRate.process;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Holds the work stealing pool that is shared by all of the pipelines running
+ * in pooled execution mode. The pool is sized to the number of processors of
+ * the machine, and is created the first time that a pipeline asks for it.
+ */
+public class ProcessingPool
+{
+  // the shared pool
+  private static ForkJoinPool processingPool = null;
+
+ /**
+  * Get the shared processing pool, creating it if necessary.
+  *
+  * @return The shared processing pool
+  */
+  public static synchronized ForkJoinPool getProcessingPool()
+  {
+    if (processingPool == null)
+    {
+      // asynchronous (FIFO) mode suits tasks that are never joined
+      processingPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+                                        ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+                                        null, true);
+    }
+
+    return processingPool;
+  }
+}
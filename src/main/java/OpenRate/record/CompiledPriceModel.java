@@ -0,0 +1,254 @@
+package OpenRate.record;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * A price model compiled for rating. The tiers of the model are held in
+ * primitive arrays, one set of arrays for each validity segment, so that the
+ * rating can evaluate all of the tiers of a segment in one loop without
+ * walking the validity list of each tier.
+ *
+ * A validity segment starts at each distinct start time of any version of any
+ * tier, and holds the version of each tier that is valid from that time. A
+ * tier that is not valid yet at the start of a segment is marked as such, so
+ * that a rating that does not reach the tier can still use the segment. The
+ * model is immutable once compiled, and is replaced as a whole when the cache
+ * is reloaded.
+ *
+ * @author ian
+ */
+public class CompiledPriceModel
+{
+  // The name of the price model, for the error messages
+  private final String name;
+
+  // The start times of the segments, ascending
+  private final long[] segmentStart;
+
+  // The segments, in the order of the start times
+  private final Segment[] segments;
+
+ /**
+  * The tiers of the price model valid from one start time. The arrays are
+  * indexed by tier, in step order, and must not be modified.
+  */
+  public static final class Segment
+  {
+   /**
+    * The number of tiers
+    */
+    public final int tierCount;
+
+   /**
+    * True if every tier has a valid version in the segment
+    */
+    public final boolean covered;
+
+   /**
+    * Whether each tier has a valid version in the segment. The values of a
+    * tier that is not valid are zero, except for the start, which is taken
+    * from the latest version of the tier.
+    */
+    public final boolean[] valid;
+
+   /**
+    * The start of each tier
+    */
+    public final double[] from;
+
+   /**
+    * The end of each tier
+    */
+    public final double[] to;
+
+   /**
+    * The charging granularity of each tier
+    */
+    public final double[] beat;
+
+   /**
+    * The value charged for each charge base of each tier
+    */
+    public final double[] factor;
+
+   /**
+    * The base amount the factor of each tier is defined for
+    */
+    public final double[] chargeBase;
+
+   /**
+    * The start of the validity of the version of each tier
+    */
+    public final long[] validFrom;
+
+    Segment(int tierCount, boolean covered)
+    {
+      this.tierCount = tierCount;
+      this.covered = covered;
+      valid = new boolean[tierCount];
+      from = new double[tierCount];
+      to = new double[tierCount];
+      beat = new double[tierCount];
+      factor = new double[tierCount];
+      chargeBase = new double[tierCount];
+      validFrom = new long[tierCount];
+    }
+  }
+
+  private CompiledPriceModel(String name, long[] segmentStart, Segment[] segments)
+  {
+    this.name = name;
+    this.segmentStart = segmentStart;
+    this.segments = segments;
+  }
+
+ /**
+  * Compile a price model from its tiers as loaded by the rate cache. Each tier
+  * is the head of the list of its versions, latest first.
+  *
+  * A segment is created from the time that the first tier has a valid version,
+  * even if later tiers only start later, as the flat and event ratings do not
+  * need the tiers they do not reach.
+  *
+  * @param name The name of the price model
+  * @param tiers The tiers of the model, in step order
+  * @return The compiled model
+  */
+  public static CompiledPriceModel compile(String name, ArrayList<RateMapEntry> tiers)
+  {
+    int tierCount = tiers.size();
+
+    // Collect the start times of all of the versions of all of the tiers
+    TreeSet<Long> startTimes = new TreeSet<>();
+    for (RateMapEntry tier : tiers)
+    {
+      for (RateMapEntry version = tier; version != null; version = version.getChild())
+      {
+        startTimes.add(version.getStartTime());
+      }
+    }
+
+    long[] starts = new long[startTimes.size()];
+    Segment[] segs = new Segment[startTimes.size()];
+    RateMapEntry[] versions = new RateMapEntry[tierCount];
+    int segmentCount = 0;
+
+    for (long start : startTimes)
+    {
+      boolean covered = true;
+
+      for (int i = 0; i < tierCount; i++)
+      {
+        versions[i] = getVersionForTime(tiers.get(i), start);
+        covered &= (versions[i] != null);
+      }
+
+      // Nothing can be rated before the first tier is valid
+      if (tierCount == 0 || versions[0] == null)
+      {
+        continue;
+      }
+
+      Segment segment = new Segment(tierCount, covered);
+
+      for (int i = 0; i < tierCount; i++)
+      {
+        RateMapEntry version = versions[i];
+
+        if (version == null)
+        {
+          // The event rating checks whether the value reaches the tier
+          segment.from[i] = tiers.get(i).getFrom();
+          continue;
+        }
+
+        segment.valid[i] = true;
+        segment.from[i] = version.getFrom();
+        segment.to[i] = version.getTo();
+        segment.beat[i] = version.getBeat();
+        segment.factor[i] = version.getFactor();
+        segment.chargeBase[i] = version.getChargeBase();
+        segment.validFrom[i] = version.getStartTime();
+      }
+
+      starts[segmentCount] = start;
+      segs[segmentCount] = segment;
+      segmentCount++;
+    }
+
+    return new CompiledPriceModel(name, Arrays.copyOf(starts, segmentCount), Arrays.copyOf(segs, segmentCount));
+  }
+
+ /**
+  * Get the version of a tier valid at the given time, which is the latest one
+  * that starts at or before the time. The versions are listed latest first.
+  *
+  * @param tier The head of the version list of the tier
+  * @param time The time to get the version for
+  * @return The version, or null if the tier is not valid yet
+  */
+  public static RateMapEntry getVersionForTime(RateMapEntry tier, long time)
+  {
+    RateMapEntry version = tier;
+
+    while (version != null && version.getStartTime() > time)
+    {
+      version = version.getChild();
+    }
+
+    return version;
+  }
+
+ /**
+  * Get the segment of the model valid at the given time
+  *
+  * @param time The time to rate at
+  * @return The segment, or null if the model is not valid at the time
+  */
+  public Segment getSegment(long time)
+  {
+    int last = segmentStart.length - 1;
+
+    // Most models have a single validity, so try the latest segment first
+    if (last < 0)
+    {
+      return null;
+    }
+    else if (time >= segmentStart[last])
+    {
+      return segments[last];
+    }
+
+    int index = Arrays.binarySearch(segmentStart, 0, last, time);
+
+    if (index < 0)
+    {
+      // not a start time, so take the segment before the insertion point
+      index = -index - 2;
+    }
+
+    return (index < 0) ? null : segments[index];
+  }
+
+ /**
+  * Get the name of the price model
+  *
+  * @return The name
+  */
+  public String getName()
+  {
+    return name;
+  }
+
+ /**
+  * Get the number of validity segments of the model
+  *
+  * @return The number of segments
+  */
+  public int getSegmentCount()
+  {
+    return segments.length;
+  }
+}
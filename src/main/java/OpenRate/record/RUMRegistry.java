@@ -0,0 +1,100 @@
+package OpenRate.record;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gives each RUM name a small integer ID, so that the RUM values of a rating
+ * record can be held in arrays and looked up by ID instead of comparing names.
+ * IDs are handed out in the order that the names are first seen, and are never
+ * reused for the life of the process. The set of RUM names is defined by the
+ * configuration, so the registry stays small.
+ *
+ * @author ian
+ */
+public final class RUMRegistry
+{
+  // The ID of each name we have seen
+  private static final ConcurrentHashMap<String, Integer> rumIds = new ConcurrentHashMap<>();
+
+  // The name of each ID, copied on write
+  private static volatile String[] rumNames = new String[0];
+
+  private RUMRegistry()
+  {
+  }
+
+ /**
+  * Get the ID of a RUM name, giving the name a new ID if it does not have one
+  * yet.
+  *
+  * @param rumName The name of the RUM
+  * @return The ID of the RUM, or -1 if the name is null
+  */
+  public static int getRUMId(String rumName)
+  {
+    if (rumName == null)
+    {
+      return -1;
+    }
+
+    Integer rumId = rumIds.get(rumName);
+
+    if (rumId == null)
+    {
+      rumId = addRUMName(rumName);
+    }
+
+    return rumId;
+  }
+
+ /**
+  * Get the ID of a RUM name, without giving it one if it does not have one.
+  *
+  * @param rumName The name of the RUM
+  * @return The ID of the RUM, or -1 if the name is null or not known
+  */
+  public static int findRUMId(String rumName)
+  {
+    if (rumName == null)
+    {
+      return -1;
+    }
+
+    Integer rumId = rumIds.get(rumName);
+
+    return (rumId == null) ? -1 : rumId;
+  }
+
+ /**
+  * Get the name of a RUM ID.
+  *
+  * @param rumId The ID of the RUM
+  * @return The name of the RUM, or null if the ID has not been given out
+  */
+  public static String getRUMName(int rumId)
+  {
+    String[] names = rumNames;
+
+    return (rumId >= 0 && rumId < names.length) ? names[rumId] : null;
+  }
+
+  // Give a name the next ID, unless another thread got there first
+  private static synchronized Integer addRUMName(String rumName)
+  {
+    Integer rumId = rumIds.get(rumName);
+
+    if (rumId == null)
+    {
+      String[] names = Arrays.copyOf(rumNames, rumNames.length + 1);
+      rumId = rumNames.length;
+      names[rumId] = rumName;
+
+      // publish the name before the ID, so that any ID can be resolved
+      rumNames = names;
+      rumIds.put(rumName, rumId);
+    }
+
+    return rumId;
+  }
+}
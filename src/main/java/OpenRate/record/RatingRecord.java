@@ -4,6 +4,7 @@ package OpenRate.record;
 
 import OpenRate.lang.CustProductInfo;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
@@ -77,8 +78,46 @@ public abstract class RatingRecord extends AbstractRecord implements IRatingReco
 
   /**
    * RUM information - holds the list of RUMs and their values
+   *
+   * @deprecated Use getRUMs(), or the RUM value methods, which find the RUM
+   * by its ID instead of comparing the names. The list is the one returned by
+   * getRUMs(), and changes to it are seen by the record.
    */
-  public ArrayList<RUMInfo> RUMs = new ArrayList<>();
+  @Deprecated
+  public ArrayList<RUMInfo> RUMs = new RUMList();
+
+  // The IDs of the RUMs in the RUM list, in the same order. Records carry only
+  // a few RUMs, so the IDs are scanned rather than hashed. The IDs are taken
+  // again from the names when the list was changed other than by the record.
+  // A list put in place of the RUM list does not count its changes, so the
+  // entries it held when it was indexed are kept to compare against.
+  private int[] rumIds = new int[4];
+  private RUMInfo[] rumEntries = new RUMInfo[4];
+  private int rumCount = 0;
+  private ArrayList<RUMInfo> indexedRUMs;
+  private int indexedChanges = -1;
+
+ /**
+  * The RUM list, which counts its changes, so that the record can see when
+  * the list was changed directly.
+  */
+  private static final class RUMList extends ArrayList<RUMInfo>
+  {
+    private static final long serialVersionUID = 1L;
+
+    // the structural changes and replacements made to the list
+    int getChanges()
+    {
+      return modCount;
+    }
+
+    @Override
+    public RUMInfo set(int index, RUMInfo element)
+    {
+      modCount++;
+      return super.set(index, element);
+    }
+  }
 
   /**
    * This is the counter index for monthly counters, usually filled with YYYYMM
@@ -309,24 +348,25 @@ public abstract class RatingRecord extends AbstractRecord implements IRatingReco
   @Override
   public double getRUMValue(String RUM)
   {
-    RUMInfo tmpRUM;
-    int Index;
-
-    for (Index = 0 ; Index < RUMs.size() ; Index++)
-    {
-      tmpRUM = RUMs.get(Index);
+    return getRUMValue(findRUMId(RUM));
+  }
 
-      if (tmpRUM.RUMName.equals(RUM))
-      {
-        return tmpRUM.RUMQuantity;
-      }
-    }
+ /**
+  * Get the value of an existing RUM by its ID, or 0 if not found
+  *
+  * @param rumId The ID of the RUM, as given by the RUMRegistry
+  * @return The current value of the RUM
+  */
+  public double getRUMValue(int rumId)
+  {
+    int Index = getRUMIndex(rumId);
 
-    return 0;
+    return (Index < 0) ? 0 : RUMs.get(Index).RUMQuantity;
   }
 
  /**
-  * Get the existing RUM values
+  * Get the existing RUM values, in the order they were set. The list and its
+  * entries are those of the record, so changes to them change the record.
   *
   * @return The current RUM list
   */
@@ -343,20 +383,20 @@ public abstract class RatingRecord extends AbstractRecord implements IRatingReco
   */
   public double getOriginalRUMValue(String RUM)
   {
-    RUMInfo tmpRUM;
-    int Index;
-
-    for (Index = 0 ; Index < RUMs.size() ; Index++)
-    {
-      tmpRUM = RUMs.get(Index);
+    return getOriginalRUMValue(findRUMId(RUM));
+  }
 
-      if (tmpRUM.RUMName.equals(RUM))
-      {
-        return tmpRUM.OrigQuantity;
-      }
-    }
+ /**
+  * Get the original value of an existing RUM by its ID, or 0 if not found
+  *
+  * @param rumId The ID of the RUM, as given by the RUMRegistry
+  * @return The original value of the RUM
+  */
+  public double getOriginalRUMValue(int rumId)
+  {
+    int Index = getRUMIndex(rumId);
 
-    return 0;
+    return (Index < 0) ? 0 : RUMs.get(Index).OrigQuantity;
   }
 
  /**
@@ -368,23 +408,47 @@ public abstract class RatingRecord extends AbstractRecord implements IRatingReco
   @Override
   public void setRUMValue(String RUM, double newValue)
   {
-    RUMInfo tmpRUM;
-    int Index;
+    if (RUM != null)
+    {
+      setRUMValue(RUMRegistry.getRUMId(RUM), newValue);
+    }
+  }
 
-    for (Index = 0 ; Index < RUMs.size() ; Index++)
+ /**
+  * Set the value of a RUM by its ID, overwrites existing value. A RUM that is
+  * set for the first time takes the value as its original value too.
+  *
+  * @param rumId The ID of the RUM, as given by the RUMRegistry
+  * @param newValue The new value to set
+  */
+  public void setRUMValue(int rumId, double newValue)
+  {
+    int Index = getRUMIndex(rumId);
+
+    if (Index >= 0)
     {
-      tmpRUM = RUMs.get(Index);
+      RUMs.get(Index).RUMQuantity = newValue;
+      return;
+    }
 
-      if (tmpRUM.RUMName.equals(RUM))
-      {
-        tmpRUM.RUMQuantity = newValue;
-        return;
-      }
+    RUMInfo tmpRUM = new RUMInfo(RUMRegistry.getRUMName(rumId), newValue);
+    RUMs.add(tmpRUM);
+
+    // keep the IDs in step, rather than taking them all again
+    if (rumCount == rumIds.length)
+    {
+      rumIds = Arrays.copyOf(rumIds, rumCount * 2);
+      rumEntries = Arrays.copyOf(rumEntries, rumCount * 2);
     }
 
-    tmpRUM = new RUMInfo(RUM,newValue);
+    rumIds[rumCount] = rumId;
+    rumEntries[rumCount] = tmpRUM;
+    rumCount++;
 
-    RUMs.add(tmpRUM);
+    if (RUMs instanceof RUMList)
+    {
+      indexedChanges = ((RUMList) RUMs).getChanges();
+    }
   }
 
  /**
@@ -398,21 +462,122 @@ public abstract class RatingRecord extends AbstractRecord implements IRatingReco
   @Override
   public boolean updateRUMValue(String RUM, double ValueDelta)
   {
-    RUMInfo tmpRUM;
-    int Index;
+    return updateRUMValue(findRUMId(RUM), ValueDelta);
+  }
+
+ /**
+  * Apply a delta to the value of an existing RUM by its ID
+  *
+  * @param rumId The ID of the RUM, as given by the RUMRegistry
+  * @param ValueDelta The delta to apply to the RUM value
+  * @return true if the delta was applied, false if the RUM is not set
+  */
+  public boolean updateRUMValue(int rumId, double ValueDelta)
+  {
+    int Index = getRUMIndex(rumId);
+
+    if (Index < 0)
+    {
+      return false;
+    }
+
+    RUMs.get(Index).RUMQuantity += ValueDelta;
+    return true;
+  }
+
+  // Get the ID of a RUM name without giving it one. The names of RUMs added
+  // to the list directly are given their IDs first.
+  private int findRUMId(String RUM)
+  {
+    checkRUMIndex();
+
+    return RUMRegistry.findRUMId(RUM);
+  }
+
+  // Get the position of a RUM in the RUM list, or -1 if it is not set
+  private int getRUMIndex(int rumId)
+  {
+    checkRUMIndex();
+
+    if (rumId >= 0)
+    {
+      for (int Index = 0 ; Index < rumCount ; Index++)
+      {
+        if (rumIds[Index] == rumId)
+        {
+          return Index;
+        }
+      }
+    }
+
+    return -1;
+  }
+
+  // Take the IDs of the RUMs again if the list was changed directly. A list
+  // that does not count its changes is compared entry by entry instead.
+  private void checkRUMIndex()
+  {
+    ArrayList<RUMInfo> tmpRUMs = RUMs;
+    boolean changed;
+
+    if (tmpRUMs != indexedRUMs)
+    {
+      changed = true;
+    }
+    else if (tmpRUMs instanceof RUMList)
+    {
+      changed = (((RUMList) tmpRUMs).getChanges() != indexedChanges);
+    }
+    else
+    {
+      changed = !hasIndexedEntries(tmpRUMs);
+    }
 
-    for (Index = 0 ; Index < RUMs.size() ; Index++)
+    if (changed)
     {
-      tmpRUM = RUMs.get(Index);
+      indexRUMs(tmpRUMs);
+    }
+  }
 
-      if (tmpRUM.RUMName.equals(RUM))
+  // Check that a list still holds the entries it held when it was indexed
+  private boolean hasIndexedEntries(ArrayList<RUMInfo> tmpRUMs)
+  {
+    if (tmpRUMs.size() != rumCount)
+    {
+      return false;
+    }
+
+    for (int Index = 0 ; Index < rumCount ; Index++)
+    {
+      if (tmpRUMs.get(Index) != rumEntries[Index])
       {
-        tmpRUM.RUMQuantity += ValueDelta;
-        return true;
+        return false;
       }
     }
 
-    return false;
+    return true;
+  }
+
+  // Take the IDs of the RUMs from the names in the list
+  private void indexRUMs(ArrayList<RUMInfo> tmpRUMs)
+  {
+    rumCount = tmpRUMs.size();
+
+    if (rumIds.length < rumCount)
+    {
+      rumIds = new int[rumCount * 2];
+      rumEntries = new RUMInfo[rumCount * 2];
+    }
+
+    for (int Index = 0 ; Index < rumCount ; Index++)
+    {
+      RUMInfo tmpRUM = tmpRUMs.get(Index);
+      rumIds[Index] = (tmpRUM == null) ? -1 : RUMRegistry.getRUMId(tmpRUM.RUMName);
+      rumEntries[Index] = tmpRUM;
+    }
+
+    indexedRUMs = tmpRUMs;
+    indexedChanges = (tmpRUMs instanceof RUMList) ? ((RUMList) tmpRUMs).getChanges() : -1;
   }
 
  /**
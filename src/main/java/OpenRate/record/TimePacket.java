@@ -70,6 +70,12 @@ public class TimePacket
   */
   public String  priceModel = null;
 
+ /**
+  * The handle of the selected price model in the rate cache, -1 if it has not
+  * been resolved
+  */
+  public int     priceModelHandle = -1;
+
   public TimePacket(TimePacket toClone) {
     this.packetNumber = toClone.packetNumber;
     this.dayofWeek = toClone.dayofWeek;
@@ -83,6 +89,7 @@ public class TimePacket
     this.totalDuration = toClone.totalDuration;
     this.priceGroup = toClone.priceGroup;
     this.priceModel = toClone.priceModel;
+    this.priceModelHandle = toClone.priceModelHandle;
   }
   
   public TimePacket() {
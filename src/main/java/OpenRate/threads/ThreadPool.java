@@ -2,38 +2,97 @@
 
 package OpenRate.threads;
 
-import java.util.ArrayList;
+import OpenRate.OpenRate;
+import OpenRate.configurationmanager.ClientManager;
+import OpenRate.configurationmanager.IEventInterface;
+import OpenRate.exception.InitializationException;
+import OpenRate.logging.LogUtil;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Custom IThreadPool Implementation. The IThreadPool is started with predefined
- * set of WorkerThreads which actually perform the work.
+ * set of worker threads which actually perform the work.
  *
  * This IThreadPool is suitable for scenarios work is split across
  * mutiple threads and main thread waits for all the worker threads to
  * finish and assigns work to all (or part) of worker threads.
  *
- * The IThreadPool can be asked to find a worked thread and assign work to it using
- * execute method. Using join() method the caller will wait for all the worker
- * threads to finish.
+ * The IThreadPool can be asked to execute work using the execute method. If
+ * all of the workers are busy, the work is held in a bounded queue until a
+ * worker is free. When the queue is full too, the rejection policy decides
+ * what happens:
  *
- * IMPORTANT NOTE(S):
+ *  - "Block" (the default): the caller waits until there is space in the queue
+ *  - "CallerRuns": the caller performs the work itself
  *
- * 1. This IThreadPool is suitable for use by a single thread, not by mutliple
- *    threads/requests    requesting IThreadPool to execute work.
- * 2. It is the responsibility of the caller to make sure that it requests at
- *    maximum 'poolsize' amount of work to be performed by the IThreadPool.
- *    If no workers are free an RuntimeException is thrown.
+ * Using join() method the caller will wait for all the work that has been
+ * passed to the pool to finish.
+ *
+ * The queue depth, number of active workers and the task latency (the time
+ * from passing the work to the pool to the work being finished) can be read
+ * through the External Control Interface, once the owner of the pool has called
+ * registerClientManager().
+ *
+ * The real time NIO socket adapter uses a ThreadPool for its workers.
  */
-public class ThreadPool implements IThreadPool
+public class ThreadPool implements IThreadPool, Executor, IEventInterface
 {
-  // maintain a pool of worker threads.
-  ArrayList<WorkerThread> pool = null;
+ /**
+  * Rejection policy: the caller waits for space in the queue
+  */
+  public static final String POLICY_BLOCK = "Block";
+
+ /**
+  * Rejection policy: the caller performs the work itself
+  */
+  public static final String POLICY_CALLER_RUNS = "CallerRuns";
+
+  // List of Services that this Client supports
+  private final static String SERVICE_QUEUE_DEPTH    = "QueueDepth";
+  private final static String SERVICE_ACTIVE_COUNT   = "ActiveCount";
+  private final static String SERVICE_TASK_COUNT     = "TaskCount";
+  private final static String SERVICE_AVG_LATENCY    = "AverageLatency";
+  private final static String SERVICE_MAX_LATENCY    = "MaxLatency";
+  private final static String SERVICE_REJECTION      = "RejectionPolicy";
+
+  // the executor that does the work
+  private final ThreadPoolExecutor executor;
 
   // pool size
   int poolSize = 1;
 
+  // the symbolic name of the pool, used for the ECI and the thread names
+  private String symbolicName;
+
+  // the pipeline the pool is registered under in the ECI
+  private String pipeName = "Resource";
+
+  // the rejection policy in force
+  private volatile String rejectionPolicy;
+
+  // the number of pieces of work passed to us that have not yet finished. This
+  // is what join() waits on.
+  private final AtomicInteger pendingWork = new AtomicInteger();
+
+  // used to wake up the threads waiting in join()
+  private final Object joinLock = new Object();
+
+  // latency statistics, in nanoseconds
+  private final AtomicLong taskCount = new AtomicLong();
+  private final AtomicLong totalLatency = new AtomicLong();
+  private final AtomicLong maxLatency = new AtomicLong();
+
   /**
-     * Constructor - constructs a IThreadPool of given size. Constructs
+     * Constructor - constructs a IThreadPool of given size, with a queue the
+     * same size as the pool and the blocking rejection policy. Constructs
      * returns after all the threads have been created and started.
      *
      *
@@ -41,112 +100,397 @@ public class ThreadPool implements IThreadPool
      */
   public ThreadPool(int size)
   {
-    poolSize   = size;
-    pool       = new ArrayList<>(size);
+    this("ThreadPool", size, size, POLICY_BLOCK);
+  }
 
-    for (int i = 0; i < size; i++)
+  /**
+   * Constructor - constructs a IThreadPool of given size with a bounded queue
+   * of the given size. Constructs returns after all the threads have been
+   * created and started.
+   *
+   * @param name - the symbolic name of the pool
+   * @param size - size of the pool
+   * @param queueSize - the number of pieces of work that can wait for a worker
+   * @param policy - the rejection policy, "Block" or "CallerRuns"
+   */
+  public ThreadPool(String name, int size, int queueSize, String policy)
+  {
+    if (size < 1 || queueSize < 1)
     {
-      WorkerThread wThread = new WorkerThread(this);
-      wThread.setName("WorkerThread_" + i);
-      wThread.start();
-      pool.add(wThread);
+      throw new IllegalArgumentException("Pool size and queue size must be positive, but got <" + size + "> and <" + queueSize + ">");
     }
+
+    symbolicName    = name;
+    poolSize        = size;
+    rejectionPolicy = checkPolicy(policy);
+
+    executor = new ThreadPoolExecutor(size, size, 0L, TimeUnit.MILLISECONDS,
+                                      new ArrayBlockingQueue<Runnable>(queueSize),
+                                      new WorkerThreadFactory(),
+                                      new RejectionHandler());
+    executor.prestartAllCoreThreads();
   }
 
   /**
-   * Executes a given 'work'. Finds a free worker thread to execute the
-   * work - sets the work and notifies the worked thread to wake up
-   * and perform the work.
+   * Executes a given 'work'. If there is no free worker, the work is queued.
+   * If the queue is full, the rejection policy is applied.
    *
    * @param work - work to be performed.
-   * @throws RuntimeException
+   * @throws RejectedExecutionException if the pool has been closed
    */
   @Override
-  public void execute(Runnable work) throws RuntimeException
+  public void execute(Runnable work) throws RejectedExecutionException
   {
-    boolean allWorkersBusy = true;
+    pendingWork.incrementAndGet();
 
-    for (int i = 0; i < poolSize; i++)
+    try
+    {
+      executor.execute(new TimedWork(work));
+    }
+    catch (RejectedExecutionException e)
     {
-      WorkerThread wThread = pool.get(i);
+      workFinished();
+      throw e;
+    }
+  }
 
-      if (wThread.noWork())
+  /**
+   * Wait for all the work passed to the pool to finish. The last worker to
+   * finish wakes us up, so there is no polling delay.
+   */
+  @Override
+  public void join()
+  {
+    synchronized (joinLock)
+    {
+      while (pendingWork.get() > 0)
       {
-        wThread.setWork(work);
-
-        synchronized (wThread)
+        try
+        {
+          joinLock.wait();
+        }
+        catch (InterruptedException e)
         {
-          wThread.notify();
+          // ignore exception and continue.
         }
+      }
+    }
+  }
 
-        allWorkersBusy = false;
+  /**
+   * Shut down the workers. Work that is already queued is still performed.
+   */
+  @Override
+  public void close()
+  {
+    executor.shutdown();
+  }
 
-        break;
+  /**
+   * Set the name of the pipeline that owns the pool, which the pool is
+   * registered under in the ECI. Pools that are not owned by a pipeline are
+   * registered as resources.
+   *
+   * @param pipeName - the name of the owning pipeline
+   */
+  public void setPipeName(String pipeName)
+  {
+    this.pipeName = pipeName;
+  }
+
+  /**
+   * Get the number of pieces of work waiting for a worker.
+   *
+   * @return The queue depth
+   */
+  public int getQueueDepth()
+  {
+    return executor.getQueue().size();
+  }
+
+  /**
+   * Get the number of workers that are performing work right now.
+   *
+   * @return The active count
+   */
+  public int getActiveCount()
+  {
+    return executor.getActiveCount();
+  }
+
+  /**
+   * Get the number of pieces of work that have finished.
+   *
+   * @return The task count
+   */
+  public long getTaskCount()
+  {
+    return taskCount.get();
+  }
+
+  /**
+   * Get the average time from passing work to the pool to the work being
+   * finished.
+   *
+   * @return The average latency in milliseconds
+   */
+  public double getAverageLatency()
+  {
+    long count = taskCount.get();
+
+    if (count == 0)
+    {
+      return 0;
+    }
+
+    return totalLatency.get() / (count * 1000000.0);
+  }
+
+  /**
+   * Get the longest time from passing work to the pool to the work being
+   * finished.
+   *
+   * @return The maximum latency in milliseconds
+   */
+  public double getMaxLatency()
+  {
+    return maxLatency.get() / 1000000.0;
+  }
+
+  /**
+   * Get the rejection policy in force.
+   *
+   * @return The rejection policy
+   */
+  public String getRejectionPolicy()
+  {
+    return rejectionPolicy;
+  }
+
+  /**
+   * Check that the rejection policy is one we know.
+   *
+   * @param policy The policy to check
+   * @return The policy
+   */
+  private String checkPolicy(String policy)
+  {
+    if (POLICY_BLOCK.equalsIgnoreCase(policy))
+    {
+      return POLICY_BLOCK;
+    }
+
+    if (POLICY_CALLER_RUNS.equalsIgnoreCase(policy))
+    {
+      return POLICY_CALLER_RUNS;
+    }
+
+    throw new IllegalArgumentException("Rejection policy must be <" + POLICY_BLOCK + "> or <" + POLICY_CALLER_RUNS + ">, but got <" + policy + ">");
+  }
+
+  /**
+   * Count down the pending work, and wake up the joiners if it was the last.
+   */
+  private void workFinished()
+  {
+    if (pendingWork.decrementAndGet() == 0)
+    {
+      synchronized (joinLock)
+      {
+        joinLock.notifyAll();
       }
     }
+  }
+
+  /**
+   * Record the latency of a piece of work.
+   *
+   * @param latency The latency in nanoseconds
+   */
+  private void recordLatency(long latency)
+  {
+    taskCount.incrementAndGet();
+    totalLatency.addAndGet(latency);
 
-    if (allWorkersBusy)
+    long currentMax = maxLatency.get();
+    while (latency > currentMax && !maxLatency.compareAndSet(currentMax, latency))
     {
-      throw new RuntimeException(
-        "All Workers are busy could not perform the work.!");
+      currentMax = maxLatency.get();
     }
   }
 
   /**
-   * Wait for all the worker threads to finish. If there are workers still
-   * performing the work, sleep for a second and then check again.
+   * Wraps the work so that we can time it and count it down for join().
    */
-  @Override
-  public void join()
+  private class TimedWork implements Runnable
   {
-    while (true)
+    private final Runnable work;
+    private final long submitTime = System.nanoTime();
+
+    TimedWork(Runnable work)
     {
-      boolean allWorkersFree = true;
+      this.work = work;
+    }
 
-      for (int i = 0; i < poolSize; i++)
+    @Override
+    public void run()
+    {
+      try
       {
-        WorkerThread wThread = pool.get(i);
+        work.run();
+      }
+      finally
+      {
+        recordLatency(System.nanoTime() - submitTime);
+        workFinished();
+      }
+    }
+  }
 
-        if (!wThread.noWork() && wThread.isAlive())
-        {
-          try
-          {
-            allWorkersFree = false;
-            Thread.sleep(1000);
-          }
-          catch (InterruptedException e)
-          {
-            // ignore exception and continue.
-          }
-
-          break; // come out of worker thread loop.
-        }
+  /**
+   * Applies the rejection policy when the queue is full.
+   */
+  private class RejectionHandler implements RejectedExecutionHandler
+  {
+    @Override
+    public void rejectedExecution(Runnable r, ThreadPoolExecutor pool)
+    {
+      if (pool.isShutdown())
+      {
+        throw new RejectedExecutionException("Thread pool <" + symbolicName + "> is closed");
       }
 
-      if (allWorkersFree)
+      if (POLICY_CALLER_RUNS.equals(rejectionPolicy))
+      {
+        r.run();
+      }
+      else
       {
-        // enough of waiting, all finished, return.
-        break;
+        try
+        {
+          pool.getQueue().put(r);
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+          throw new RejectedExecutionException("Interrupted waiting for space in thread pool <" + symbolicName + ">", e);
+        }
       }
     }
   }
 
   /**
-   * Mark all threads to shutdown and notify them, just in case they are
-   * sleeping.
+   * Creates the daemon worker threads, named after the pool.
    */
+  private class WorkerThreadFactory implements ThreadFactory
+  {
+    private final AtomicInteger threadNumber = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r)
+    {
+      Thread wThread = new Thread(r, symbolicName + "-WorkerThread_" + threadNumber.getAndIncrement());
+      wThread.setDaemon(true);
+
+      return wThread;
+    }
+  }
+
+// -----------------------------------------------------------------------------
+// ------------- Start of inherited IEventInterface functions ------------------
+// -----------------------------------------------------------------------------
+
+ /**
+  * registerClientManager registers this class as a client of the ECI listener
+  * and publishes the commands that the pool understands. The listener is
+  * responsible for delivering only these commands to the pool.
+  *
+  * @throws InitializationException
+  */
   @Override
-  public void close()
+  public void registerClientManager() throws InitializationException
   {
-    for (int i = 0; i < poolSize; i++)
+    // Set the client reference and the base services first
+    ClientManager.getClientManager().registerClient(pipeName, symbolicName, this);
+
+    //Register services for this Client
+    ClientManager.getClientManager().registerClientService(symbolicName, SERVICE_QUEUE_DEPTH, ClientManager.PARAM_NONE);
+    ClientManager.getClientManager().registerClientService(symbolicName, SERVICE_ACTIVE_COUNT, ClientManager.PARAM_NONE);
+    ClientManager.getClientManager().registerClientService(symbolicName, SERVICE_TASK_COUNT, ClientManager.PARAM_NONE);
+    ClientManager.getClientManager().registerClientService(symbolicName, SERVICE_AVG_LATENCY, ClientManager.PARAM_NONE);
+    ClientManager.getClientManager().registerClientService(symbolicName, SERVICE_MAX_LATENCY, ClientManager.PARAM_NONE);
+    ClientManager.getClientManager().registerClientService(symbolicName, SERVICE_REJECTION, ClientManager.PARAM_DYNAMIC);
+  }
+
+ /**
+  * processControlEvent is the method that will be called when an event
+  * is received for a module that has registered itself as a client of the
+  * External Control Interface
+  *
+  * @param Command - command that is understand by the client module
+  * @param Init - we are performing initial configuration if true
+  * @param Parameter - parameter for the command
+  * @return The result string of the operation
+  */
+  @Override
+  public String processControlEvent(String Command, boolean Init, String Parameter)
+  {
+    int ResultCode = -1;
+
+    if (Command.equalsIgnoreCase(SERVICE_QUEUE_DEPTH))
     {
-      WorkerThread wThread = pool.get(i);
-      wThread.markForShutDown();
+      return Integer.toString(getQueueDepth());
+    }
 
-      synchronized (wThread)
+    if (Command.equalsIgnoreCase(SERVICE_ACTIVE_COUNT))
+    {
+      return Integer.toString(getActiveCount());
+    }
+
+    if (Command.equalsIgnoreCase(SERVICE_TASK_COUNT))
+    {
+      return Long.toString(getTaskCount());
+    }
+
+    if (Command.equalsIgnoreCase(SERVICE_AVG_LATENCY))
+    {
+      return Double.toString(getAverageLatency());
+    }
+
+    if (Command.equalsIgnoreCase(SERVICE_MAX_LATENCY))
+    {
+      return Double.toString(getMaxLatency());
+    }
+
+    if (Command.equalsIgnoreCase(SERVICE_REJECTION))
+    {
+      if (Parameter.equals(""))
       {
-        wThread.notify();
+        return rejectionPolicy;
       }
+      else
+      {
+        try
+        {
+          rejectionPolicy = checkPolicy(Parameter);
+          ResultCode = 0;
+        }
+        catch (IllegalArgumentException e)
+        {
+          return e.getMessage();
+        }
+      }
+    }
+
+    if (ResultCode == 0)
+    {
+      OpenRate.getOpenRateFrameworkLog().debug(LogUtil.LogECICacheCommand(symbolicName, Command, Parameter));
+
+      return "OK";
+    }
+    else
+    {
+      return "Command Not Understood";
     }
   }
 }
@@ -12,7 +12,11 @@ package OpenRate.threads;
  * IThreadPool assigns work to the thread and wakes up the WorkerThread to
  * perform the given work. Once the thread finishes the work it sets itself
  * to as having no work.
+ *
+ * @deprecated ThreadPool runs its work on its own threads, and nothing in the
+ * framework uses this class any more. It is kept for existing users.
  */
+@Deprecated
 public class WorkerThread extends Thread
 {
   /**
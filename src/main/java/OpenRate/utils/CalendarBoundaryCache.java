@@ -0,0 +1,215 @@
+package OpenRate.utils;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Caches the start and end of the day, month and year of each local day in a
+ * time zone as UTC dates, so that the validity periods of counters and the
+ * pro-ration of fees can be worked out per record without any Calendar
+ * arithmetic. The boundaries are worked out with a Calendar in the zone the
+ * first time a day is asked for, so daylight saving is handled as the Calendar
+ * handles it.
+ *
+ * The end of a period is the second before the start of the next one, so a
+ * day that starts at 01:00 because midnight is a daylight saving switch ends
+ * at 23:59:59, and a leap year ends on 31st December.
+ *
+ * The cache is safe to share between threads. It holds a fixed number of days,
+ * each in the slot its day number maps to, and a day replaces the day that was
+ * in its slot before.
+ *
+ * @author ian
+ */
+public final class CalendarBoundaryCache
+{
+  // The number of days held, must be a power of 2
+  private static final int CACHE_SIZE = 4096;
+
+  // The time zone we are working for, our own copy
+  private final TimeZone timeZone;
+
+  // The offsets of the zone, to find the local day of a UTC date
+  private final ZoneOffsetCache zoneOffsets;
+
+  // The boundaries of the days we have worked out
+  private final AtomicReferenceArray<Boundaries> days = new AtomicReferenceArray<>(CACHE_SIZE);
+
+ /**
+  * The boundaries of one local day. All of the dates are UTC dates in seconds,
+  * and the ends are the last second of the period.
+  */
+  public static final class Boundaries
+  {
+   /**
+    * The local day, as days from 1st January 1970
+    */
+    public final int day;
+
+   /**
+    * The start of the day
+    */
+    public final long dayStart;
+
+   /**
+    * The end of the day
+    */
+    public final long dayEnd;
+
+   /**
+    * The start of the month the day is in
+    */
+    public final long monthStart;
+
+   /**
+    * The end of the month the day is in
+    */
+    public final long monthEnd;
+
+   /**
+    * The start of the year the day is in
+    */
+    public final long yearStart;
+
+   /**
+    * The end of the year the day is in
+    */
+    public final long yearEnd;
+
+   /**
+    * The month the day is in, as year * 12 + month, with the month 1 to 12
+    */
+    public final int monthIndex;
+
+   /**
+    * The number of days in the month the day is in
+    */
+    public final int daysInMonth;
+
+    Boundaries(int day, long dayStart, long dayEnd, long monthStart, long monthEnd,
+               long yearStart, long yearEnd, int monthIndex, int daysInMonth)
+    {
+      this.day = day;
+      this.dayStart = dayStart;
+      this.dayEnd = dayEnd;
+      this.monthStart = monthStart;
+      this.monthEnd = monthEnd;
+      this.yearStart = yearStart;
+      this.yearEnd = yearEnd;
+      this.monthIndex = monthIndex;
+      this.daysInMonth = daysInMonth;
+    }
+  }
+
+ /**
+  * Create the boundary cache for a time zone
+  *
+  * @param timeZone The time zone to work in
+  */
+  public CalendarBoundaryCache(TimeZone timeZone)
+  {
+    this.timeZone = (TimeZone) timeZone.clone();
+    this.zoneOffsets = new ZoneOffsetCache(timeZone);
+  }
+
+ /**
+  * Get the offsets of the time zone the boundaries are worked out in
+  *
+  * @return The zone offsets
+  */
+  public ZoneOffsetCache getZoneOffsets()
+  {
+    return zoneOffsets;
+  }
+
+ /**
+  * Get the boundaries of the local day a UTC date is in
+  *
+  * @param UTCDate The UTC date in seconds
+  * @return The boundaries
+  */
+  public Boundaries getBoundaries(long UTCDate)
+  {
+    return getDayBoundaries(getDay(UTCDate));
+  }
+
+ /**
+  * Get the boundaries of the local day a number of days before or after the
+  * local day a UTC date is in
+  *
+  * @param UTCDate The UTC date in seconds
+  * @param offset The number of days to move on (back if negative)
+  * @return The boundaries
+  */
+  public Boundaries getBoundaries(long UTCDate, int offset)
+  {
+    return getDayBoundaries(getDay(UTCDate) + offset);
+  }
+
+ /**
+  * Get the boundaries of a local day
+  *
+  * @param day The local day, as days from 1st January 1970
+  * @return The boundaries
+  */
+  public Boundaries getDayBoundaries(int day)
+  {
+    int slot = day & (CACHE_SIZE - 1);
+    Boundaries boundaries = days.get(slot);
+
+    if (boundaries == null || boundaries.day != day)
+    {
+      boundaries = calculateBoundaries(day);
+      days.set(slot, boundaries);
+    }
+
+    return boundaries;
+  }
+
+ /**
+  * Get the local day a UTC date is in
+  *
+  * @param UTCDate The UTC date in seconds
+  * @return The local day, as days from 1st January 1970
+  */
+  public int getDay(long UTCDate)
+  {
+    return (int) ZoneOffsetCache.floorDiv(zoneOffsets.getLocalDate(UTCDate), ZoneOffsetCache.SECONDS_PER_DAY);
+  }
+
+  // Work out the boundaries of a day with a Calendar in the zone
+  private Boundaries calculateBoundaries(int day)
+  {
+    // find the date of the day, the local day numbers are UTC day numbers
+    GregorianCalendar cal = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+    cal.setTimeInMillis(day * (long) ZoneOffsetCache.SECONDS_PER_DAY * 1000);
+    int year = cal.get(Calendar.YEAR);
+    int month = cal.get(Calendar.MONTH);
+    int dayOfMonth = cal.get(Calendar.DAY_OF_MONTH);
+    int daysInMonth = cal.getActualMaximum(Calendar.DAY_OF_MONTH);
+
+    cal.setTimeZone(timeZone);
+
+    long dayStart = getStart(cal, year, month, dayOfMonth);
+    long dayEnd = getStart(cal, year, month, dayOfMonth + 1) - 1;
+    long monthStart = getStart(cal, year, month, 1);
+    long monthEnd = getStart(cal, year, month + 1, 1) - 1;
+    long yearStart = getStart(cal, year, Calendar.JANUARY, 1);
+    long yearEnd = getStart(cal, year + 1, Calendar.JANUARY, 1) - 1;
+
+    return new Boundaries(day, dayStart, dayEnd, monthStart, monthEnd, yearStart, yearEnd,
+                          year * 12 + month + 1, daysInMonth);
+  }
+
+  // The UTC date in seconds of the start of a local day, rolling over days and
+  // months past the end of the month or year
+  private static long getStart(GregorianCalendar cal, int year, int month, int dayOfMonth)
+  {
+    cal.clear();
+    cal.set(year, month, dayOfMonth, 0, 0, 0);
+
+    return cal.getTimeInMillis() / 1000;
+  }
+}
@@ -7,16 +7,19 @@ import OpenRate.resource.ConversionCache;
 import OpenRate.resource.ResourceContext;
 import java.math.BigDecimal;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.GregorianCalendar;
 import java.util.TimeZone;
 
 /**
  * This class offers conversion and formatting methods (primarily for dates), so
  * that we have a simple single set conversion handling methods.
  *
+ * The methods can be called from many threads at once: the date strings are
+ * converted by immutable DateConverters, which are replaced when the format is
+ * changed, and the day, month and year boundaries come from a
+ * CalendarBoundaryCache, so no Calendar is shared.
+ *
  * @author ian
  */
 public class ConversionUtils
@@ -27,11 +30,11 @@ public class ConversionUtils
   // This is the format used for converting dates on input
   private String OutputDateFormat = CommonConfig.OR_DEFAULT_DATE_FORMAT;
 
-  // format used for input
-  private SimpleDateFormat sdfIn = null;
+  // converter used for input
+  private volatile DateConverter dateIn;
 
-  // format used for output
-  private SimpleDateFormat sdfOut = null;
+  // converter used for output
+  private volatile DateConverter dateOut;
 
   // set that we are using integer (UTC) format
   private boolean integerFormat = false;
@@ -42,14 +45,19 @@ public class ConversionUtils
   // set that we are using long format (UTC + ms)
   private boolean stringFormat = true;
 
-  // used for general date manipulation
-  private final Calendar cal;
+  // the day, month and year boundaries in the time zone used for date
+  // manipulation, which also hold the offsets of the zone, so that a new zone
+  // replaces both at once
+  private volatile CalendarBoundaryCache boundaries = new CalendarBoundaryCache(TimeZone.getDefault());
 
   // Used to cache access to the conversion objects
   private static ConversionCache tmpConvCache = null;
 
-  // Singleton instance
-  private static ConversionUtils convUtilsObj;
+  // Singleton instance, created when first used
+  private static class ConversionUtilsHolder
+  {
+    private static final ConversionUtils convUtilsObj = new ConversionUtils();
+  }
 
  /**
   * constructor - initialise the internal formatting object
@@ -57,15 +65,10 @@ public class ConversionUtils
   public ConversionUtils()
   {
     // This is the date format we are using for the output
-    sdfOut = new SimpleDateFormat(OutputDateFormat);
-    sdfOut.setLenient(false);
+    dateOut = new DateConverter(OutputDateFormat, false);
 
     // This is the date format we are using for the input
-    sdfIn = new SimpleDateFormat(InputDateFormat);
-    sdfIn.setLenient(false);
-
-    // used for date manipulation
-    cal = new GregorianCalendar();
+    dateIn = new DateConverter(InputDateFormat, false);
   }
 
  /**
@@ -94,12 +97,7 @@ public class ConversionUtils
   */
   public static ConversionUtils getConversionUtilsObject()
   {
-    if(convUtilsObj == null)
-    {
-      convUtilsObj = new ConversionUtils();
-    }
-
-    return convUtilsObj;
+    return ConversionUtilsHolder.convUtilsObj;
   }
 
 //------------------------------------------------------------------------------
@@ -133,13 +131,36 @@ public class ConversionUtils
       }
       else
       {
-        tmpUTCDate = sdfIn.parse(amorphicDate).getTime() / 1000;
+        tmpUTCDate = dateIn.parseUTC(amorphicDate);
       }
     }
 
     return tmpUTCDate;
   }
 
+ /**
+  * Convert a part of a character sequence, for example a field of a record
+  * that has not been split, to a UTC date representation for input. Dates in
+  * a fixed numeric layout are converted without creating any objects.
+  *
+  * @param amorphicDate the characters holding the date
+  * @param start The index of the first character of the date
+  * @param end The index after the last character of the date
+  * @return The short UTC date format
+  * @throws ParseException
+  */
+  public long convertInputDateToUTC(CharSequence amorphicDate, int start, int end) throws ParseException
+  {
+    if (stringFormat)
+    {
+      return dateIn.parseUTC(amorphicDate, start, end);
+    }
+    else
+    {
+      return convertInputDateToUTC(amorphicDate.subSequence(start, end).toString());
+    }
+  }
+
  /**
   * This converts the UTC date into day of week
   *
@@ -148,8 +169,7 @@ public class ConversionUtils
   */
   public int getDayOfWeek(long UTCDateValue)
   {
-    cal.setTimeInMillis(UTCDateValue*1000);
-    return cal.get(Calendar.DAY_OF_WEEK);
+    return boundaries.getZoneOffsets().getDayOfWeek(UTCDateValue);
   }
 
  /**
@@ -160,8 +180,7 @@ public class ConversionUtils
   */
   public int getMinuteOfDay(long UTCDateValue)
   {
-    cal.setTimeInMillis(UTCDateValue*1000);
-    return cal.get(Calendar.HOUR_OF_DAY) * 60 + cal.get(Calendar.MINUTE);
+    return boundaries.getZoneOffsets().getMinuteOfDay(UTCDateValue);
   }
 
  /**
@@ -193,7 +212,7 @@ public class ConversionUtils
     }
     else
     {
-      sdfIn = new SimpleDateFormat(newFormat);
+      dateIn = new DateConverter(newFormat, true);
 
       // set a string format
       integerFormat = false;
@@ -246,7 +265,7 @@ public class ConversionUtils
     }
     else
     {
-      sdfOut = new SimpleDateFormat(newFormat);
+      dateOut = new DateConverter(newFormat, true);
 
       // set a string format
       integerFormat = false;
@@ -278,7 +297,7 @@ public class ConversionUtils
   */
   public String formatLongDate(long dateToFormat)
   {
-    return sdfOut.format(new Date(dateToFormat*1000));
+    return dateOut.format(dateToFormat);
   }
 
  /**
@@ -295,7 +314,7 @@ public class ConversionUtils
     }
     else
     {
-      return sdfOut.format(dateToFormat);
+      return dateOut.format(dateToFormat);
     }
   }
 
@@ -308,7 +327,7 @@ public class ConversionUtils
   */
   public Date getDatefromLongFormat(String DateToFormat) throws ParseException
   {
-    Date tmpDate = sdfIn.parse(DateToFormat);
+    Date tmpDate = dateIn.parseDate(DateToFormat);
 
     return tmpDate;
   }
@@ -357,6 +376,30 @@ public class ConversionUtils
      return RetValue;
   }
 
+ /**
+  * Gets the boundaries of the day, month and year the given UTC date is in.
+  * The boundaries are cached by day, so this is the cheapest way to get more
+  * than one of them for a record.
+  *
+  * @param UTCDate The UTC date of the event
+  * @return The boundaries of the day
+  */
+  public CalendarBoundaryCache.Boundaries getCalendarBoundaries(long UTCDate)
+  {
+    return boundaries.getBoundaries(UTCDate);
+  }
+
+ /**
+  * Gets the rounded start date of the month the given UTC date is in
+  *
+  * @param UTCDate The UTC date of the event
+  * @return The UTC month start date
+  */
+  public long getUTCMonthStart(long UTCDate)
+  {
+    return boundaries.getBoundaries(UTCDate).monthStart;
+  }
+
  /**
   * Gets the rounded start date of the month the given event date is in
   *
@@ -365,11 +408,18 @@ public class ConversionUtils
   */
   public long getUTCMonthStart(Date EventStartDate)
   {
-    Date roundedDate = getMonthStart(EventStartDate);
-    cal.setTime(roundedDate);
-    long validityMonthStart = cal.getTimeInMillis() / 1000;
+    return getUTCMonthStart(getSeconds(EventStartDate));
+  }
 
-    return validityMonthStart;
+ /**
+  * Gets the rounded end date of the month the given UTC date is in
+  *
+  * @param UTCDate The UTC date of the event
+  * @return The UTC month end date
+  */
+  public long getUTCMonthEnd(long UTCDate)
+  {
+    return boundaries.getBoundaries(UTCDate).monthEnd;
   }
 
  /**
@@ -380,11 +430,7 @@ public class ConversionUtils
   */
   public long getUTCMonthEnd(Date EventStartDate)
   {
-    Date roundedDate = getMonthEnd(EventStartDate);
-    cal.setTime(roundedDate);
-    long validityMonthEnd = cal.getTimeInMillis() / 1000;
-
-    return validityMonthEnd;
+    return getUTCMonthEnd(getSeconds(EventStartDate));
   }
 
  /**
@@ -395,16 +441,7 @@ public class ConversionUtils
   */
   public Date getMonthStart(Date EventStartDate)
   {
-    // Get the montly counter validity periods for this CDR
-    cal.setTime(EventStartDate);
-    cal.set(Calendar.HOUR_OF_DAY,0);
-    cal.set(Calendar.MINUTE,0);
-    cal.set(Calendar.SECOND,0);
-    cal.set(Calendar.MILLISECOND,0);
-    cal.set(Calendar.SECOND,0);
-    cal.set(Calendar.DATE,1);
-
-    return cal.getTime();
+    return getDateFromUTC(getUTCMonthStart(EventStartDate));
   }
 
  /**
@@ -415,17 +452,18 @@ public class ConversionUtils
   */
   public Date getMonthEnd(Date EventStartDate)
   {
-    // Get the montly counter validity periods for this CDR
-    cal.setTime(EventStartDate);
-    cal.set(Calendar.HOUR_OF_DAY,0);
-    cal.set(Calendar.MINUTE,0);
-    cal.set(Calendar.SECOND,0);
-    cal.set(Calendar.MILLISECOND,0);
-    cal.set(Calendar.DATE,1);
-    cal.add(Calendar.MONTH,1);
-    cal.add(Calendar.SECOND,-1);
+    return getDateFromUTC(getUTCMonthEnd(EventStartDate));
+  }
 
-    return cal.getTime();
+ /**
+  * Gets the rounded start date of the year the given UTC date is in
+  *
+  * @param UTCDate The UTC date of the event
+  * @return The UTC year start date
+  */
+  public long getUTCYearStart(long UTCDate)
+  {
+    return boundaries.getBoundaries(UTCDate).yearStart;
   }
 
 	/**
@@ -436,13 +474,20 @@ public class ConversionUtils
 	 * @return The UTC year start date
 	 */
 	public long getUTCYearStart(Date EventStartDate) {
-		Date roundedDate = getYearStart(EventStartDate);
-		cal.setTime(roundedDate);
-		long validityYearStart = cal.getTimeInMillis() / 1000;
-
-		return validityYearStart;
+		return getUTCYearStart(getSeconds(EventStartDate));
 	}
 
+ /**
+  * Gets the rounded end date of the year the given UTC date is in
+  *
+  * @param UTCDate The UTC date of the event
+  * @return The UTC year end date
+  */
+  public long getUTCYearEnd(long UTCDate)
+  {
+    return boundaries.getBoundaries(UTCDate).yearEnd;
+  }
+
 	/**
 	 * Gets the rounded end date of the year the given event date is in
 	 *
@@ -451,11 +496,7 @@ public class ConversionUtils
 	 * @return The UTC year end date
 	 */
 	public long getUTCYearEnd(Date EventStartDate) {
-		Date roundedDate = getYearEnd(EventStartDate);
-		cal.setTime(roundedDate);
-		long validityYearEnd = cal.getTimeInMillis() / 1000;
-
-		return validityYearEnd;
+		return getUTCYearEnd(getSeconds(EventStartDate));
 	}
 
 	/**
@@ -466,15 +507,7 @@ public class ConversionUtils
 	 * @return The year start date
 	 */
 	public Date getYearStart(Date EventStartDate) {
-		// Get the yearly counter validity periods for this CDR
-		cal.setTime(EventStartDate);
-		cal.set(Calendar.DAY_OF_YEAR, 1);
-		cal.set(Calendar.HOUR_OF_DAY, 0);
-		cal.set(Calendar.MINUTE, 0);
-		cal.set(Calendar.SECOND, 0);
-		cal.set(Calendar.MILLISECOND, 0);
-
-		return cal.getTime();
+		return getDateFromUTC(getUTCYearStart(EventStartDate));
 	}
 
 	/**
@@ -485,47 +518,55 @@ public class ConversionUtils
 	 * @return The year end date
 	 */
 	public Date getYearEnd(Date EventStartDate) {
-		// Get the yearly counter validity periods for this CDR
-		cal.setTime(EventStartDate);
-		cal.set(Calendar.DAY_OF_YEAR, 366); // 366 for leap year
-		cal.set(Calendar.HOUR_OF_DAY, 0);
-		cal.set(Calendar.MINUTE, 0);
-		cal.set(Calendar.SECOND, 0);
-		cal.set(Calendar.MILLISECOND, 0);
-		cal.add(Calendar.SECOND, -1);
-
-		return cal.getTime();
+		return getDateFromUTC(getUTCYearEnd(EventStartDate));
 	}
-  
+
  /**
-  * Gets the rounded start date of the month the given event date is in
+  * Gets the rounded start date of the day the given UTC date is in
+  *
+  * @param UTCDate The UTC date of the event
+  * @return The UTC day start date
+  */
+  public long getUTCDayStart(long UTCDate)
+  {
+    return boundaries.getBoundaries(UTCDate).dayStart;
+  }
+
+ /**
+  * Gets the rounded start date of the day a number of days before or after
+  * the day the given UTC date is in
+  *
+  * @param UTCDate The UTC date of the event
+  * @param offset The number of days to offset by
+  * @return The UTC day start date
+  */
+  public long getUTCDayStart(long UTCDate, int offset)
+  {
+    return boundaries.getBoundaries(UTCDate, offset).dayStart;
+  }
+
+ /**
+  * Gets the rounded start date of the day the given event date is in
   *
   * @param EventStartDate The date of the event
-  * @return The UTC month start date
+  * @return The UTC day start date
   */
   public long getUTCDayStart(Date EventStartDate)
   {
-    Date roundedDate = getDayStart(EventStartDate);
-    cal.setTime(roundedDate);
-    long validityDayStart = cal.getTimeInMillis() / 1000;
-
-    return validityDayStart;
+    return getUTCDayStart(getSeconds(EventStartDate));
   }
 
  /**
-  * Gets the rounded start date of the month the given event date is in
+  * Gets the rounded start date of the day a number of days before or after
+  * the day the given event date is in
   *
   * @param EventStartDate The date of the event
   * @param offset The number of days to offset by
-  * @return The UTC month start date
+  * @return The UTC day start date
   */
   public long getUTCDayStart(Date EventStartDate, int offset)
   {
-    Date roundedDate = getDayEnd(EventStartDate,offset);
-    cal.setTime(roundedDate);
-    long validityDayStart = cal.getTimeInMillis() / 1000;
-
-    return validityDayStart;
+    return getUTCDayStart(getSeconds(EventStartDate), offset);
   }
 
  /**
@@ -536,11 +577,14 @@ public class ConversionUtils
   */
   public long getUTCDate(Date EventStartDate)
   {
-    // Get the montly counter validity periods for this CDR
-    cal.setTime(EventStartDate);
-    long validityDayStart = cal.getTimeInMillis() / 1000;
+    return EventStartDate.getTime() / 1000;
+  }
 
-    return validityDayStart;
+  // The UTC date in whole seconds of a date, rounded down as a Calendar rounds
+  // the dates before 1970 down to the start of their day
+  private static long getSeconds(Date date)
+  {
+    return ZoneOffsetCache.floorDiv(date.getTime(), 1000);
   }
 
  /**
@@ -551,123 +595,103 @@ public class ConversionUtils
   */
   public Date getDateFromUTC(long EventStartDate)
   {
-    // Get the montly counter validity periods for this CDR
-    cal.setTimeInMillis(EventStartDate*1000);
+    return new Date(EventStartDate*1000);
+  }
 
-    return cal.getTime();
+ /**
+  * Gets the rounded end date of the day the given UTC date is in
+  *
+  * @param UTCDate The UTC date of the event
+  * @return The UTC day end date
+  */
+  public long getUTCDayEnd(long UTCDate)
+  {
+    return boundaries.getBoundaries(UTCDate).dayEnd;
   }
 
  /**
-  * Gets the rounded end date of the month the given event date is in
+  * Gets the rounded end date of the day a number of days before or after the
+  * day the given UTC date is in
+  *
+  * @param UTCDate The UTC date of the event
+  * @param offset The number of days in the future (past) to get the end date for
+  * @return The UTC day end date
+  */
+  public long getUTCDayEnd(long UTCDate, int offset)
+  {
+    return boundaries.getBoundaries(UTCDate, offset).dayEnd;
+  }
+
+ /**
+  * Gets the rounded end date of the day the given event date is in
   *
   * @param EventStartDate The date of the event
-  * @return The UTC month end date
+  * @return The UTC day end date
   */
   public long getUTCDayEnd(Date EventStartDate)
   {
-    Date roundedDate = getDayEnd(EventStartDate);
-    cal.setTime(roundedDate);
-
-    long validityDayEnd = cal.getTimeInMillis() / 1000;
-
-    return validityDayEnd;
+    return getUTCDayEnd(getSeconds(EventStartDate));
   }
 
  /**
-  * Gets the rounded end date of the month the given event date is in
+  * Gets the rounded end date of the day a number of days before or after the
+  * day the given event date is in
   *
   * @param EventStartDate The date of the event
   * @param offset The number of days in the future (past) to get the end date for
-  * @return The UTC month end date
+  * @return The UTC day end date
   */
   public long getUTCDayEnd(Date EventStartDate, int offset)
   {
-    Date roundedDate = getDayEnd(EventStartDate,offset);
-    cal.setTime(roundedDate);
-
-    long validityDayEnd = cal.getTimeInMillis() / 1000;
-
-    return validityDayEnd;
+    return getUTCDayEnd(getSeconds(EventStartDate), offset);
   }
 
  /**
-  * Gets the rounded start date of the month the given event date is in
+  * Gets the rounded start date of the day a number of days before or after
+  * the day the given event date is in
   *
   * @param EventStartDate The date of the event
   * @param offset The number of days to offset by
-  * @return The UTC month start date
+  * @return The day start date
   */
   public Date getDayStart(Date EventStartDate , int offset)
   {
-    // Get the montly counter validity periods for this CDR
-    cal.setTime(EventStartDate);
-    cal.set(Calendar.HOUR_OF_DAY,0);
-    cal.set(Calendar.MINUTE,0);
-    cal.set(Calendar.SECOND,0);
-    cal.set(Calendar.MILLISECOND,0);
-    cal.add(Calendar.DAY_OF_MONTH,offset);
-
-    return cal.getTime();
+    return getDateFromUTC(getUTCDayStart(getSeconds(EventStartDate), offset));
   }
 
  /**
-  * Gets the rounded end date of the month the given event date is in
+  * Gets the rounded end date of the day a number of days before or after the
+  * day the given event date is in
   *
   * @param EventStartDate The date of the event
   * @param offset The number of days in the future (past) to get the end date for
-  * @return The UTC month end date
+  * @return The day end date
   */
   public Date getDayEnd(Date EventStartDate, int offset)
   {
-    // Get the montly counter validity periods for this CDR
-    cal.setTime(EventStartDate);
-    cal.set(Calendar.HOUR_OF_DAY,0);
-    cal.set(Calendar.MINUTE,0);
-    cal.set(Calendar.SECOND,0);
-    cal.set(Calendar.MILLISECOND,0);
-    cal.add(Calendar.DATE,1);
-    cal.add(Calendar.SECOND,-1);
-    cal.add(Calendar.DAY_OF_MONTH,offset);
-
-    return cal.getTime();
+    return getDateFromUTC(getUTCDayEnd(EventStartDate, offset));
   }
 
  /**
-  * Gets the rounded start date of the month the given event date is in
+  * Gets the rounded start date of the day the given event date is in
   *
   * @param EventStartDate The date of the event
-  * @return The UTC month start date
+  * @return The day start date
   */
   public Date getDayStart(Date EventStartDate )
   {
-    // Get the montly counter validity periods for this CDR
-    cal.setTime(EventStartDate);
-    cal.set(Calendar.HOUR_OF_DAY,0);
-    cal.set(Calendar.MINUTE,0);
-    cal.set(Calendar.SECOND,0);
-    cal.set(Calendar.MILLISECOND,0);
-
-    return cal.getTime();
+    return getDateFromUTC(getUTCDayStart(EventStartDate));
   }
 
  /**
-  * Gets the rounded end date of the month the given event date is in
+  * Gets the rounded end date of the day the given event date is in
   *
   * @param EventStartDate The date of the event
-  * @return The UTC month end date
+  * @return The day end date
   */
   public Date getDayEnd(Date EventStartDate)
   {
-    // Get the montly counter validity periods for this CDR
-    cal.setTime(EventStartDate);
-    cal.set(Calendar.HOUR_OF_DAY,0);
-    cal.set(Calendar.MINUTE,0);
-    cal.set(Calendar.SECOND,0);
-    cal.set(Calendar.MILLISECOND,0);
-    cal.add(Calendar.DATE,1);
-    cal.add(Calendar.SECOND,-1);
-
-    return cal.getTime();
+    return getDateFromUTC(getUTCDayEnd(EventStartDate));
   }
 
  /**
@@ -699,10 +723,7 @@ public class ConversionUtils
    */
   public Date addDateSeconds(Date inputDate, int duration)
   {
-    cal.setTime(inputDate);
-    cal.add(Calendar.SECOND, duration);
-
-    return cal.getTime();
+    return new Date(inputDate.getTime() + duration * 1000L);
   }
 
  /**
@@ -714,10 +735,7 @@ public class ConversionUtils
    */
   public Date addDateSeconds(Date inputDate, long duration)
   {
-    cal.setTime(inputDate);
-    cal.add(Calendar.SECOND, (int) duration);
-
-    return cal.getTime();
+    return addDateSeconds(inputDate, (int) duration);
   }
 
  /**
@@ -729,10 +747,7 @@ public class ConversionUtils
    */
   public Date addDateSeconds(Date inputDate, double duration)
   {
-    cal.setTime(inputDate);
-    cal.add(Calendar.SECOND, (int) duration);
-
-    return cal.getTime();
+    return addDateSeconds(inputDate, (int) duration);
   }
 
 //------------------------------------------------------------------------------
@@ -812,7 +827,7 @@ public class ConversionUtils
    * @param newTimeZone The tome zone to set
    */
   public void setTimeZone(TimeZone newTimeZone) {
-    cal.setTimeZone(newTimeZone);
+    boundaries = new CalendarBoundaryCache(newTimeZone);
   }
   
 }
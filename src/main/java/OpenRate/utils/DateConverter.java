@@ -0,0 +1,378 @@
+package OpenRate.utils;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Converts dates between a string layout and UTC dates. A converter is
+ * immutable and can be shared between threads: a change of layout means a new
+ * converter.
+ *
+ * Layouts made only of the fixed width numeric fields yyyy, MM, dd, HH, mm and
+ * ss and separator characters (e.g. "yyyyMMddHHmmss" or "yyyy-MM-dd HH:mm:ss")
+ * are read directly from the characters, without creating any objects. Any
+ * other layout, and any date the direct reading cannot be sure of (values out
+ * of range, dates before 1600 or on a day with a daylight saving switch), is
+ * handed to a SimpleDateFormat held for each thread, so the results are always
+ * the same as those of SimpleDateFormat.
+ *
+ * @author ian
+ */
+public final class DateConverter
+{
+  // Field positions in the fixed layout
+  private static final int YEAR = 0;
+  private static final int MONTH = 1;
+  private static final int DAY = 2;
+  private static final int HOUR = 3;
+  private static final int MINUTE = 4;
+  private static final int SECOND = 5;
+
+  // The days before the start of each month in a year that is not a leap year
+  private static final int[] DAYS_BEFORE_MONTH = {0, 31, 59, 90, 120, 151, 181, 212, 243, 273, 304, 334};
+
+  // The layout we convert
+  private final String format;
+
+  // If the SimpleDateFormat is lenient
+  private final boolean lenient;
+
+  // The zone the dates are in
+  private final TimeZone timeZone;
+
+  // The offsets of the zone
+  private final ZoneOffsetCache zoneOffsets;
+
+  // The start of each field in the fixed layout, -1 if it is not there, or
+  // null if the layout is not fixed
+  private final int[] fieldStart;
+
+  // The layout, with a 0 for each digit of a field
+  private final char[] fixedLayout;
+
+  // The formatter for the other cases, one per thread
+  private final ThreadLocal<SimpleDateFormat> formatters = new ThreadLocal<SimpleDateFormat>()
+  {
+    @Override
+    protected SimpleDateFormat initialValue()
+    {
+      SimpleDateFormat sdf = new SimpleDateFormat(format);
+      sdf.setLenient(lenient);
+      sdf.setTimeZone((TimeZone) timeZone.clone());
+      return sdf;
+    }
+  };
+
+ /**
+  * Create a converter for the given layout in the default time zone
+  *
+  * @param format The layout, using the SimpleDateFormat pattern letters
+  * @param lenient If out of range values are to be rolled over
+  * @throws IllegalArgumentException if the layout is not valid
+  */
+  public DateConverter(String format, boolean lenient)
+  {
+    this(format, lenient, TimeZone.getDefault());
+  }
+
+ /**
+  * Create a converter for the given layout and time zone
+  *
+  * @param format The layout, using the SimpleDateFormat pattern letters
+  * @param lenient If out of range values are to be rolled over
+  * @param timeZone The time zone the dates are in
+  * @throws IllegalArgumentException if the layout is not valid
+  */
+  public DateConverter(String format, boolean lenient, TimeZone timeZone)
+  {
+    // check the layout now, rather than on the first conversion
+    new SimpleDateFormat(format);
+
+    this.format = format;
+    this.lenient = lenient;
+    this.timeZone = (TimeZone) timeZone.clone();
+    this.zoneOffsets = new ZoneOffsetCache(timeZone);
+    this.fieldStart = getFieldStarts(format);
+    this.fixedLayout = (fieldStart == null) ? null : getFixedLayout(format);
+  }
+
+ /**
+  * Get the layout of the converter
+  *
+  * @return The layout
+  */
+  public String getFormat()
+  {
+    return format;
+  }
+
+ /**
+  * Get the zone offsets of the converter time zone
+  *
+  * @return The zone offsets
+  */
+  public ZoneOffsetCache getZoneOffsets()
+  {
+    return zoneOffsets;
+  }
+
+ /**
+  * Convert a date string to a UTC date in seconds
+  *
+  * @param date The date to convert
+  * @return The UTC date
+  * @throws ParseException if the date does not match the layout
+  */
+  public long parseUTC(CharSequence date) throws ParseException
+  {
+    return parseUTCms(date, 0, date.length()) / 1000;
+  }
+
+ /**
+  * Convert a part of a character sequence, for example a field of a record
+  * that has not been split, to a UTC date in seconds
+  *
+  * @param date The characters holding the date
+  * @param start The index of the first character of the date
+  * @param end The index after the last character of the date
+  * @return The UTC date
+  * @throws ParseException if the date does not match the layout
+  */
+  public long parseUTC(CharSequence date, int start, int end) throws ParseException
+  {
+    return parseUTCms(date, start, end) / 1000;
+  }
+
+ /**
+  * Convert a part of a character sequence to a UTC date in milliseconds
+  *
+  * @param date The characters holding the date
+  * @param start The index of the first character of the date
+  * @param end The index after the last character of the date
+  * @return The UTC date in milliseconds
+  * @throws ParseException if the date does not match the layout
+  */
+  public long parseUTCms(CharSequence date, int start, int end) throws ParseException
+  {
+    if (fixedLayout != null && end - start == fixedLayout.length)
+    {
+      long localDate = parseFixedLayout(date, start);
+
+      if (localDate != Long.MIN_VALUE)
+      {
+        int offset = zoneOffsets.getLocalDayOffset(localDate);
+
+        if (offset != ZoneOffsetCache.OFFSET_CHANGES)
+        {
+          return (localDate - offset) * 1000;
+        }
+      }
+    }
+
+    return formatters.get().parse(date.subSequence(start, end).toString()).getTime();
+  }
+
+ /**
+  * Convert a date string to a Date
+  *
+  * @param date The date to convert
+  * @return The date
+  * @throws ParseException if the date does not match the layout
+  */
+  public Date parseDate(CharSequence date) throws ParseException
+  {
+    return new Date(parseUTCms(date, 0, date.length()));
+  }
+
+ /**
+  * Format a UTC date in seconds
+  *
+  * @param UTCDate The date to format
+  * @return The formatted date
+  */
+  public String format(long UTCDate)
+  {
+    return formatters.get().format(new Date(UTCDate * 1000));
+  }
+
+ /**
+  * Format a Date
+  *
+  * @param date The date to format
+  * @return The formatted date
+  */
+  public String format(Date date)
+  {
+    return formatters.get().format(date);
+  }
+
+  // Read the fields of the fixed layout and return the local date in seconds,
+  // or Long.MIN_VALUE if we cannot be sure of it
+  private long parseFixedLayout(CharSequence date, int start)
+  {
+    for (int i = 0; i < fixedLayout.length; i++)
+    {
+      char ch = date.charAt(start + i);
+
+      if (fixedLayout[i] == 0 ? (ch < '0' || ch > '9') : ch != fixedLayout[i])
+      {
+        return Long.MIN_VALUE;
+      }
+    }
+
+    int year = getField(date, start, YEAR, 4, 0);
+    int month = getField(date, start, MONTH, 2, 1);
+    int day = getField(date, start, DAY, 2, 1);
+    int hour = getField(date, start, HOUR, 2, 0);
+    int minute = getField(date, start, MINUTE, 2, 0);
+    int second = getField(date, start, SECOND, 2, 0);
+
+    // the Julian calendar applies before the Gregorian cutover
+    if (year < 1600 || month < 1 || month > 12 || day < 1 || day > getDaysInMonth(year, month) ||
+        hour > 23 || minute > 59 || second > 59)
+    {
+      return Long.MIN_VALUE;
+    }
+
+    return getEpochDay(year, month, day) * ZoneOffsetCache.SECONDS_PER_DAY + hour * 3600 + minute * 60 + second;
+  }
+
+  // Get the value of a field, or the default if the layout does not have it
+  private int getField(CharSequence date, int start, int field, int width, int defaultValue)
+  {
+    int position = fieldStart[field];
+
+    if (position < 0)
+    {
+      return defaultValue;
+    }
+
+    int value = 0;
+
+    for (int i = 0; i < width; i++)
+    {
+      value = value * 10 + (date.charAt(start + position + i) - '0');
+    }
+
+    return value;
+  }
+
+ /**
+  * Get the number of days from 1st January 1970 to a date in the Gregorian
+  * calendar
+  *
+  * @param year The year
+  * @param month The month, 1 to 12
+  * @param day The day of the month
+  * @return The number of days
+  */
+  static long getEpochDay(int year, int month, int day)
+  {
+    long yearsBefore = year - 1L;
+    long days = 365 * yearsBefore + yearsBefore / 4 - yearsBefore / 100 + yearsBefore / 400;
+
+    days += DAYS_BEFORE_MONTH[month - 1] + day - 1;
+
+    if (month > 2 && isLeapYear(year))
+    {
+      days++;
+    }
+
+    // 719162 days from 1st January of the year 1 to 1st January 1970
+    return days - 719162;
+  }
+
+  // If the year is a leap year in the Gregorian calendar
+  private static boolean isLeapYear(int year)
+  {
+    return (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+  }
+
+  // The number of days in a month
+  private static int getDaysInMonth(int year, int month)
+  {
+    if (month == 2)
+    {
+      return isLeapYear(year) ? 29 : 28;
+    }
+
+    return (month == 4 || month == 6 || month == 9 || month == 11) ? 30 : 31;
+  }
+
+  // Get the starts of the fields of a fixed layout, or null if the layout is
+  // not one we can read directly
+  private static int[] getFieldStarts(String format)
+  {
+    int[] starts = {-1, -1, -1, -1, -1, -1};
+    int i = 0;
+
+    while (i < format.length())
+    {
+      char ch = format.charAt(i);
+      int run = 1;
+
+      while (i + run < format.length() && format.charAt(i + run) == ch)
+      {
+        run++;
+      }
+
+      int field;
+      int width = 2;
+
+      switch (ch)
+      {
+        case 'y': field = YEAR; width = 4; break;
+        case 'M': field = MONTH; break;
+        case 'd': field = DAY; break;
+        case 'H': field = HOUR; break;
+        case 'm': field = MINUTE; break;
+        case 's': field = SECOND; break;
+        default:
+          // letters are pattern fields and quotes start text, which we leave
+          // to SimpleDateFormat
+          if ((ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || ch == '\'')
+          {
+            return null;
+          }
+          i += run;
+          continue;
+      }
+
+      if (run != width || starts[field] >= 0)
+      {
+        return null;
+      }
+
+      starts[field] = i;
+      i += run;
+    }
+
+    // we need at least a date
+    if (starts[YEAR] < 0 || starts[MONTH] < 0 || starts[DAY] < 0)
+    {
+      return null;
+    }
+
+    return starts;
+  }
+
+  // Get the layout with the field characters replaced by 0
+  private static char[] getFixedLayout(String format)
+  {
+    char[] layout = format.toCharArray();
+
+    for (int i = 0; i < layout.length; i++)
+    {
+      char ch = layout[i];
+
+      if (ch == 'y' || ch == 'M' || ch == 'd' || ch == 'H' || ch == 'm' || ch == 's')
+      {
+        layout[i] = 0;
+      }
+    }
+
+    return layout;
+  }
+}
@@ -0,0 +1,218 @@
+package OpenRate.utils;
+
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Caches the offset of a time zone from UTC for each day, so that the local
+ * time of a UTC date (and the UTC date of a local time) can be worked out with
+ * a little arithmetic instead of a Calendar. Days on which the offset changes
+ * (the daylight saving switches) are marked as such, and are worked out through
+ * the time zone directly.
+ *
+ * The cache is safe to share between threads: each slot holds the day and its
+ * offset packed into one long, so a reader always sees a matching pair. Slots
+ * are overwritten by the days that map to them, so the cache never grows.
+ *
+ * @author ian
+ */
+public final class ZoneOffsetCache
+{
+  /**
+   * The number of seconds in a day
+   */
+  public static final int SECONDS_PER_DAY = 86400;
+
+  /**
+   * Marks a day on which the offset of the zone changes
+   */
+  public static final int OFFSET_CHANGES = Integer.MIN_VALUE;
+
+  // The number of days held, must be a power of 2
+  private static final int CACHE_SIZE = 1024;
+
+  // No zone is further than this from UTC
+  private static final int MAX_OFFSET = 18 * 3600;
+
+  // The time zone we are working for, our own copy
+  private final TimeZone timeZone;
+
+  // The offsets of UTC days and local days, (day << 32) | offset
+  private final AtomicLongArray utcDays = newSlots();
+  private final AtomicLongArray localDays = newSlots();
+
+ /**
+  * Create the offset cache for a time zone
+  *
+  * @param timeZone The time zone to cache the offsets of
+  */
+  public ZoneOffsetCache(TimeZone timeZone)
+  {
+    this.timeZone = (TimeZone) timeZone.clone();
+  }
+
+ /**
+  * Get the time zone of the cache
+  *
+  * @return A copy of the time zone
+  */
+  public TimeZone getTimeZone()
+  {
+    return (TimeZone) timeZone.clone();
+  }
+
+ /**
+  * Get the offset of the zone from UTC at the given UTC date
+  *
+  * @param UTCDate The UTC date in seconds
+  * @return The offset in seconds
+  */
+  public int getOffset(long UTCDate)
+  {
+    int day = (int) floorDiv(UTCDate, SECONDS_PER_DAY);
+    int offset = getDayOffset(utcDays, day, false);
+
+    if (offset == OFFSET_CHANGES)
+    {
+      offset = timeZone.getOffset(UTCDate * 1000) / 1000;
+    }
+
+    return offset;
+  }
+
+ /**
+  * Get the offset of the zone from UTC for a local date, if it is the same for
+  * the whole of the local day the date is in. The UTC date is the local date
+  * less the offset.
+  *
+  * @param localDate The local date in seconds from the epoch
+  * @return The offset in seconds, or OFFSET_CHANGES if the offset of the day
+  * changes
+  */
+  public int getLocalDayOffset(long localDate)
+  {
+    return getDayOffset(localDays, (int) floorDiv(localDate, SECONDS_PER_DAY), true);
+  }
+
+ /**
+  * Get the local date of a UTC date, as seconds from the epoch
+  *
+  * @param UTCDate The UTC date in seconds
+  * @return The local date in seconds
+  */
+  public long getLocalDate(long UTCDate)
+  {
+    return UTCDate + getOffset(UTCDate);
+  }
+
+ /**
+  * Get the day of the week of a UTC date in the zone
+  *
+  * @param UTCDate The UTC date in seconds
+  * @return The day of the week, as Calendar.SUNDAY to Calendar.SATURDAY
+  */
+  public int getDayOfWeek(long UTCDate)
+  {
+    // 1st January 1970 was a Thursday, Calendar.THURSDAY = 5
+    return (int) floorMod(floorDiv(getLocalDate(UTCDate), SECONDS_PER_DAY) + 4, 7) + 1;
+  }
+
+ /**
+  * Get the minute of the day of a UTC date in the zone
+  *
+  * @param UTCDate The UTC date in seconds
+  * @return The minute of the day
+  */
+  public int getMinuteOfDay(long UTCDate)
+  {
+    return (int) floorMod(getLocalDate(UTCDate), SECONDS_PER_DAY) / 60;
+  }
+
+  // Get the offset of a day from the cache, working it out if it is not there
+  private int getDayOffset(AtomicLongArray slots, int day, boolean local)
+  {
+    int slot = day & (CACHE_SIZE - 1);
+    long entry = slots.get(slot);
+
+    if ((int) (entry >> 32) == day)
+    {
+      return (int) entry;
+    }
+
+    int offset = local ? calculateLocalDayOffset(day) : calculateUTCDayOffset(day);
+    slots.set(slot, ((long) day << 32) | (offset & 0xFFFFFFFFL));
+
+    return offset;
+  }
+
+  // The offset of a UTC day, if it is the same at the start and the end of it
+  private int calculateUTCDayOffset(int day)
+  {
+    long start = (long) day * SECONDS_PER_DAY;
+    int offset = timeZone.getOffset(start * 1000);
+
+    if (timeZone.getOffset((start + SECONDS_PER_DAY - 1) * 1000) != offset)
+    {
+      return OFFSET_CHANGES;
+    }
+
+    return offset / 1000;
+  }
+
+  // The offset of a local day, if it is the same for every UTC date that can
+  // fall on the day in any zone
+  private int calculateLocalDayOffset(int day)
+  {
+    long start = (long) day * SECONDS_PER_DAY;
+    int offset = timeZone.getOffset((start - MAX_OFFSET) * 1000);
+
+    if (timeZone.getOffset((start + SECONDS_PER_DAY + MAX_OFFSET) * 1000) != offset)
+    {
+      return OFFSET_CHANGES;
+    }
+
+    return offset / 1000;
+  }
+
+  // Create the slots of a cache. Each slot starts off holding a day that does
+  // not map to it, so that it is never taken as a hit
+  private static AtomicLongArray newSlots()
+  {
+    AtomicLongArray slots = new AtomicLongArray(CACHE_SIZE);
+
+    for (int i = 0; i < CACHE_SIZE; i++)
+    {
+      slots.set(i, (long) (i + 1) << 32);
+    }
+
+    return slots;
+  }
+
+ /**
+  * Divide, rounding towards negative infinity
+  *
+  * @param value The value to divide
+  * @param divisor The divisor, greater than 0
+  * @return The rounded quotient
+  */
+  static long floorDiv(long value, long divisor)
+  {
+    long quotient = value / divisor;
+
+    return (value % divisor < 0) ? quotient - 1 : quotient;
+  }
+
+ /**
+  * The remainder of floorDiv, which is never negative for a positive divisor
+  *
+  * @param value The value to divide
+  * @param divisor The divisor, greater than 0
+  * @return The remainder
+  */
+  static long floorMod(long value, long divisor)
+  {
+    long remainder = value % divisor;
+
+    return (remainder < 0) ? remainder + divisor : remainder;
+  }
+}
@@ -0,0 +1,49 @@
+package OpenRate.adapter.realTime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ListenerThreadFactoryTest {
+
+  private final AtomicInteger runCount = new AtomicInteger();
+
+  private final Runnable listener = new Runnable() {
+    @Override
+    public void run() {
+      runCount.incrementAndGet();
+    }
+  };
+
+  @Test
+  public void testPlatformThreads() throws Exception {
+    ListenerThreadFactory factory = new ListenerThreadFactory(false);
+    assertFalse(factory.isVirtual());
+
+    Thread t = factory.newThread(listener);
+    t.setName("RTListener-1");
+    t.start();
+    t.join();
+
+    assertEquals(1, runCount.get());
+  }
+
+  @Test
+  public void testVirtualThreadsFallBack() throws Exception {
+    ListenerThreadFactory factory = new ListenerThreadFactory(true);
+
+    // on JVMs without virtual threads we get platform threads instead
+    assertEquals(ListenerThreadFactory.isVirtualThreadSupported(), factory.isVirtual());
+
+    Thread t = factory.newThread(listener);
+    t.setName("RTListener-2");
+    t.start();
+    t.join();
+
+    assertEquals(1, runCount.get());
+    assertEquals("RTListener-2", t.getName());
+  }
+}
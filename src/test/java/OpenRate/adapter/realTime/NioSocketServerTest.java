@@ -0,0 +1,228 @@
+package OpenRate.adapter.realTime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import OpenRate.adapter.NullRTAdapter;
+import OpenRate.configurationmanager.SocketConstants;
+import OpenRate.exception.ExceptionHandler;
+import OpenRate.exception.ProcessingException;
+import OpenRate.logging.DefaultLogger;
+import OpenRate.process.IPlugIn;
+import OpenRate.record.FlatRecord;
+import OpenRate.record.IRecord;
+
+public class NioSocketServerTest {
+
+  private static final int CLIENTS = 8;
+  private static final int REQUESTS_PER_CLIENT = 500;
+
+  private NioSocketServer server;
+  private ExecutorService workers;
+  private ExceptionHandler handler;
+
+  /**
+   * Echoes the requests, with a line end, as an RT socket adapter would.
+   */
+  private static class EchoAdapter extends NullRTAdapter {
+
+    @Override
+    public FlatRecord performValidOutputMapping(IRecord RTRecordToProcess) throws ProcessingException {
+      FlatRecord record = (FlatRecord) RTRecordToProcess;
+      record.setData(record.getData() + "\n");
+      return record;
+    }
+  }
+
+  /**
+   * Sends all of its requests before reading any response, and checks that the
+   * responses come back in order.
+   */
+  private class Client implements Runnable {
+
+    private final int clientId;
+    private volatile Throwable failure;
+    private int responses = 0;
+
+    Client(int clientId) {
+      this.clientId = clientId;
+    }
+
+    @Override
+    public void run() {
+      try (Socket socket = new Socket("localhost", server.getPort())) {
+        StringBuilder requests = new StringBuilder();
+        for (int i = 0; i < REQUESTS_PER_CLIENT; i++) {
+          // mix the line ends, and make some lines longer than a buffer
+          requests.append("client").append(clientId).append("-request").append(i);
+          requests.append((i % 2 == 0) ? "\r\n" : "\n");
+        }
+
+        OutputStream out = socket.getOutputStream();
+        out.write(requests.toString().getBytes());
+        out.flush();
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        for (int i = 0; i < REQUESTS_PER_CLIENT; i++) {
+          assertEquals("client" + clientId + "-request" + i, in.readLine());
+          responses++;
+        }
+      } catch (Throwable t) {
+        failure = t;
+      }
+    }
+  }
+
+  @Before
+  public void init() throws Exception {
+    DefaultLogger log = new DefaultLogger();
+    log.init("Test");
+
+    EchoAdapter adapter = new EchoAdapter();
+    adapter.setProcessingList(new ArrayList<IPlugIn>());
+
+    workers = Executors.newFixedThreadPool(4);
+
+    server = new NioSocketServer();
+    server.setParentAdapter(adapter);
+    server.setPipelineLog(log);
+    server.setWorkers(workers);
+    server.setEventLoopCount(2);
+    server.setMaxConnections(CLIENTS);
+
+    handler = new ExceptionHandler();
+    server.setExceptionHandler(handler);
+
+    // smaller than the requests, so that they span reads and buffers
+    server.setBufferSize(16);
+    server.start();
+  }
+
+  @After
+  public void cleanup() {
+    server.shutdown();
+    workers.shutdown();
+  }
+
+  @Test
+  public void testPipelinedRequestsAreAnsweredInOrder() throws Exception {
+    runClients();
+  }
+
+  @Test
+  public void testReadingPausesWhileRequestsWait() throws Exception {
+    // the connections stop and start reading after every couple of requests
+    server.setMaxPendingRequests(2);
+
+    runClients();
+  }
+
+  @Test
+  public void testOverlongRequestIsReported() throws Exception {
+    server.setMaxRequestLength(64);
+
+    try (Socket socket = new Socket("localhost", server.getPort())) {
+      // written in one go, as the server may close the connection before a
+      // later write, which then fails with a broken pipe
+      StringBuilder request = new StringBuilder();
+      for (int i = 0; i < 10; i++) {
+        request.append("0123456789");
+      }
+      OutputStream out = socket.getOutputStream();
+      out.write(request.toString().getBytes());
+      out.flush();
+
+      // the server reports it without waiting for the line end
+      long deadline = System.currentTimeMillis() + 10000;
+      while (!handler.hasError() && System.currentTimeMillis() < deadline) {
+        Thread.sleep(5);
+      }
+      assertTrue(handler.hasError());
+
+      // and closes the connection
+      BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+      assertEquals(null, in.readLine());
+    }
+
+    waitForConnectionCount(0);
+  }
+
+  private void runClients() throws Exception {
+    List<Client> clients = new ArrayList<>();
+    List<Thread> threads = new ArrayList<>();
+
+    for (int i = 0; i < CLIENTS; i++) {
+      Client client = new Client(i);
+      Thread t = new Thread(client);
+      clients.add(client);
+      threads.add(t);
+      t.start();
+    }
+
+    for (Thread t : threads) {
+      t.join(30000);
+    }
+
+    for (Client client : clients) {
+      if (client.failure != null) {
+        throw new AssertionError("client " + client.clientId + " failed", client.failure);
+      }
+      assertEquals(REQUESTS_PER_CLIENT, client.responses);
+    }
+
+    // the connections are closed and their buffers are back in the pool
+    waitForConnectionCount(0);
+    assertTrue(server.getBufferPool().getPooledCount() > 0);
+
+    // the clients closing their connections is not an error
+    assertFalse(handler.hasError());
+  }
+
+  @Test
+  public void testConnectionLimit() throws Exception {
+    List<Socket> open = new ArrayList<>();
+
+    try {
+      for (int i = 0; i < CLIENTS; i++) {
+        open.add(new Socket("localhost", server.getPort()));
+      }
+      waitForConnectionCount(CLIENTS);
+
+      try (Socket refused = new Socket("localhost", server.getPort())) {
+        BufferedReader in = new BufferedReader(new InputStreamReader(refused.getInputStream()));
+        assertEquals(SocketConstants.CONNECTIONMAXMESSAGE, in.readLine());
+        assertEquals(null, in.readLine());
+      }
+
+      assertEquals(CLIENTS, server.getConnectionCount());
+    } finally {
+      for (Socket socket : open) {
+        socket.close();
+      }
+    }
+
+    waitForConnectionCount(0);
+  }
+
+  private void waitForConnectionCount(int expected) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (server.getConnectionCount() != expected && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(expected, server.getConnectionCount());
+  }
+}
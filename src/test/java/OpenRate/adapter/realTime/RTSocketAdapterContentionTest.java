@@ -0,0 +1,170 @@
+package OpenRate.adapter.realTime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import OpenRate.exception.ProcessingException;
+import OpenRate.process.IPlugIn;
+import OpenRate.record.FlatRecord;
+import OpenRate.record.IRecord;
+
+/**
+ * Contention test for the RT socket adapter. Each connection thread pushes
+ * records through processRTRecord(), as the RTSocketListener does. The mapping
+ * of the connections must be able to run at the same time, and each connection
+ * must get exactly its own responses back, in the order of its requests.
+ */
+public class RTSocketAdapterContentionTest {
+
+  private static final int CONNECTIONS = 8;
+
+  private static final int RECORDS_PER_CONNECTION = 100;
+
+  private TestRTSocketAdapter adapter;
+
+  // when set, the first record of each connection waits here in the input
+  // mapping until all of the connections are inside it
+  private volatile CyclicBarrier mappingBarrier;
+
+  private class TestRTSocketAdapter extends AbstractRTSocketAdapter {
+
+    final Set<Integer> recordIds = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+    @Override
+    public IRecord procInputValidRecord(IRecord r) throws ProcessingException {
+      CyclicBarrier barrier = mappingBarrier;
+
+      if ((barrier != null) && ((FlatRecord) r).getData().endsWith("-0")) {
+        try {
+          barrier.await(30, TimeUnit.SECONDS);
+        } catch (InterruptedException | BrokenBarrierException | TimeoutException e) {
+          throw new ProcessingException("Input mapping is serialised across the connections", e, "Test");
+        }
+      }
+
+      return r;
+    }
+
+    @Override
+    public IRecord procInputErrorRecord(IRecord r) throws ProcessingException {
+      return r;
+    }
+
+    @Override
+    public IRecord procOutputValidRecord(IRecord r) {
+      recordIds.add(r.getRecordID());
+
+      // build a fresh response, as a real output mapping does
+      FlatRecord response = new FlatRecord();
+      response.setData("response:" + ((FlatRecord) r).getData());
+      return response;
+    }
+
+    @Override
+    public IRecord procOutputErrorRecord(IRecord r) {
+      return r;
+    }
+  }
+
+  private class Connection implements Runnable {
+
+    private final int connection;
+    private final CountDownLatch start;
+    private final AtomicReference<Throwable> failure;
+
+    Connection(int connection, CountDownLatch start, AtomicReference<Throwable> failure) {
+      this.connection = connection;
+      this.start = start;
+      this.failure = failure;
+    }
+
+    @Override
+    public void run() {
+      try {
+        start.await();
+
+        for (int i = 0; i < RECORDS_PER_CONNECTION; i++) {
+          String request = "c" + connection + "-" + i;
+          FlatRecord record = new FlatRecord();
+          record.setData(request);
+
+          FlatRecord response = adapter.processRTRecord(record);
+
+          assertNotNull("no response to <" + request + ">", response);
+          assertEquals("response:" + request, response.getData());
+        }
+      } catch (Throwable t) {
+        failure.compareAndSet(null, t);
+      }
+    }
+  }
+
+  @Before
+  public void init() {
+    adapter = new TestRTSocketAdapter();
+    adapter.setProcessingList(new ArrayList<IPlugIn>());
+    mappingBarrier = null;
+  }
+
+  @Test
+  public void testMappingRunsConcurrently() throws Exception {
+    // with the mapping serialised, the connections could never all be inside
+    // it at once, and the barrier would break
+    mappingBarrier = new CyclicBarrier(CONNECTIONS);
+
+    assertNull(runConnections(CONNECTIONS));
+  }
+
+  @Test
+  public void testNoLostOrReorderedResponses() throws Exception {
+    assertNull(runConnections(CONNECTIONS));
+  }
+
+  @Test
+  public void testRecordNumbersAreUnique() throws Exception {
+    runConnections(CONNECTIONS);
+
+    assertEquals(CONNECTIONS * RECORDS_PER_CONNECTION, adapter.recordIds.size());
+  }
+
+  /**
+   * Run the given number of connections at once, each checking its responses.
+   *
+   * @return the first failure of any of the connections, or null
+   */
+  private Throwable runConnections(int connections) throws Exception {
+    CountDownLatch start = new CountDownLatch(1);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    List<Thread> threads = new ArrayList<>();
+
+    for (int i = 0; i < connections; i++) {
+      Thread t = new Thread(new Connection(i, start, failure));
+      threads.add(t);
+      t.start();
+    }
+
+    start.countDown();
+
+    for (Thread t : threads) {
+      t.join();
+    }
+
+    return failure.get();
+  }
+}
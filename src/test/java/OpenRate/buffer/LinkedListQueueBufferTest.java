@@ -1,6 +1,9 @@
 package OpenRate.buffer;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -93,4 +96,105 @@ public class LinkedListQueueBufferTest {
     }
   }
 
+  @Test
+  public void testWatermarksOffByDefault() {
+    buffer.push(createRecords(100));
+
+    assertEquals(0, buffer.getHighWatermark());
+    assertFalse(buffer.awaitLowWatermark());
+  }
+
+  @Test
+  public void testHoldBackUntilLowWatermark() throws Exception {
+    buffer.setWatermarks(10, 5);
+    buffer.push(createRecords(20));
+
+    Thread supplierThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        stopped = buffer.awaitLowWatermark();
+      }
+    });
+    supplierThread.start();
+
+    while (buffer.getHighWatermarkCount() == 0) {
+      Thread.sleep(1);
+    }
+
+    // still above the low water mark, so the supplier has to stay held back
+    buffer.pull(10);
+    supplierThread.join(300);
+    assertTrue(supplierThread.isAlive());
+    assertEquals(0, buffer.getLowWatermarkCount());
+
+    // reaching the low water mark releases it
+    buffer.pull(5);
+    supplierThread.join(5000);
+    assertFalse(supplierThread.isAlive());
+    assertTrue(stopped);
+    assertEquals(1, buffer.getLowWatermarkCount());
+
+    // below the high water mark we go straight through
+    assertFalse(buffer.awaitLowWatermark());
+    assertEquals(1, buffer.getHighWatermarkCount());
+  }
+
+  @Test
+  public void testHeldBackWithoutWaiting() {
+    buffer.setWatermarks(10, 5);
+    buffer.push(createRecords(10));
+    assertFalse(buffer.isHeldBack());
+
+    // above the high water mark we are held back until the low water mark
+    buffer.push(createRecords(10));
+    assertTrue(buffer.isHeldBack());
+    buffer.pull(12);
+    assertTrue(buffer.isHeldBack());
+    assertEquals(1, buffer.getHighWatermarkCount());
+
+    buffer.pull(3);
+    assertFalse(buffer.isHeldBack());
+    assertEquals(1, buffer.getLowWatermarkCount());
+  }
+
+  @Test
+  public void testSupplierMonitorNotifiedAtLowWatermark() {
+    final List<IEvent> events = new ArrayList<>();
+    buffer.registerSupplierMonitor(new IMonitor() {
+      @Override
+      public void notify(IEvent e) {
+        events.add(e);
+      }
+    });
+    buffer.setWatermarks(10, 5);
+
+    // nothing to tell while the suppliers are not held back
+    buffer.push(createRecords(20));
+    buffer.pull(2);
+    assertTrue(events.isEmpty());
+
+    assertTrue(buffer.isHeldBack());
+    buffer.pull(12);
+    assertTrue(events.isEmpty());
+
+    buffer.pull(1);
+    assertEquals(1, events.size());
+    assertSame(BufferEvent.LOW_WATERMARK, events.get(0));
+
+    // only once per transition
+    buffer.pull(5);
+    assertEquals(1, events.size());
+  }
+
+  private Collection<IRecord> createRecords(int count) {
+    Collection<IRecord> records = new ArrayList<>();
+
+    for (int i = 0; i < count; i++) {
+      IRecord record = new SimpleRecord();
+      record.setRecordID(idCounter++);
+      records.add(record);
+    }
+
+    return records;
+  }
 }
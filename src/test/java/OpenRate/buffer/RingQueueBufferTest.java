@@ -0,0 +1,174 @@
+package OpenRate.buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ExampleApplications.SimpleApplication.SimpleRecord;
+import OpenRate.record.IRecord;
+
+public class RingQueueBufferTest {
+
+  private class Consumer implements Runnable {
+
+    private final RingQueueBuffer innerBuffer;
+    private final int expected;
+
+
+    Consumer(RingQueueBuffer buffer, int expected) {
+      this.innerBuffer = buffer;
+      this.expected = expected;
+    }
+
+    @Override
+    public void run() {
+      while (output.size() < expected) {
+        output.addAll(innerBuffer.pull(5));
+      }
+    }
+  }
+
+  private class Producer implements Runnable {
+
+    private final RingQueueBuffer innerBuffer;
+    private final int firstId;
+    private final int count;
+
+
+    Producer(RingQueueBuffer buffer, int firstId, int count) {
+      this.innerBuffer = buffer;
+      this.firstId = firstId;
+      this.count = count;
+    }
+
+    @Override
+    public void run() {
+      int id = firstId;
+
+      while (id < firstId + count) {
+        Collection<IRecord> records = new ArrayList<>();
+
+        for (int i = 0; i < 5; i++) {
+          IRecord record = new SimpleRecord();
+          record.setRecordID(id++);
+          records.add(record);
+        }
+
+        innerBuffer.push(records);
+      }
+    }
+  }
+
+
+  private static final int MAX_RECORDS = 1_000_000;
+
+  private List<IRecord> output;
+  private RingQueueBuffer buffer;
+
+
+  @Before
+  public void init() {
+    output = new ArrayList<>();
+
+    // deliberately small so that the producers have to wait
+    buffer = new RingQueueBuffer(1000);
+  }
+
+  @Test
+  public void testCapacityRoundsUp() {
+    assertEquals(1024, buffer.getCapacity());
+    assertEquals(16384, new RingQueueBuffer().getCapacity());
+  }
+
+  @Test
+  public void testPushAndPull() {
+    Collection<IRecord> records = new ArrayList<>();
+
+    for (int i = 0; i < 10; i++) {
+      IRecord record = new SimpleRecord();
+      record.setRecordID(i);
+      records.add(record);
+    }
+
+    buffer.push(records);
+    assertEquals(10, buffer.getEventCount());
+
+    Collection<IRecord> pulled = buffer.pull(4);
+    assertEquals(4, pulled.size());
+    assertEquals(6, buffer.getEventCount());
+
+    pulled = buffer.pull(100);
+    assertEquals(6, pulled.size());
+    assertEquals(4, pulled.iterator().next().getRecordID());
+    assertEquals(0, buffer.getEventCount());
+    assertEquals(0, buffer.pull(100).size());
+  }
+
+  @Test
+  public void testConcurrentPushAndPull() throws Exception {
+
+    Thread consumerThread = new Thread(new Consumer(buffer, MAX_RECORDS));
+    Thread producerThread = new Thread(new Producer(buffer, 0, MAX_RECORDS));
+
+    consumerThread.start();
+    producerThread.start();
+
+    producerThread.join();
+    consumerThread.join();
+
+    assertEquals(MAX_RECORDS, output.size());
+
+    for (int i = 0; i < MAX_RECORDS; i++) {
+      assertEquals(i, output.get(i).getRecordID());
+    }
+
+    // the producer must have been held back by the consumer at some point
+    assertTrue(buffer.getFullCount() > 0);
+  }
+
+  @Test
+  public void testMultipleProducers() throws Exception {
+    int producerCount = 4;
+    int perProducer = MAX_RECORDS / producerCount;
+
+    Thread consumerThread = new Thread(new Consumer(buffer, MAX_RECORDS));
+    consumerThread.start();
+
+    List<Thread> producers = new ArrayList<>();
+    for (int i = 0; i < producerCount; i++) {
+      Thread producerThread = new Thread(new Producer(buffer, i * perProducer, perProducer));
+      producers.add(producerThread);
+      producerThread.start();
+    }
+
+    for (Thread producerThread : producers) {
+      producerThread.join();
+    }
+    consumerThread.join();
+
+    assertEquals(MAX_RECORDS, output.size());
+
+    // each record arrives exactly once, and in order for each producer
+    boolean[] seen = new boolean[MAX_RECORDS];
+    int[] lastId = new int[producerCount];
+    for (int i = 0; i < producerCount; i++) {
+      lastId[i] = -1;
+    }
+
+    for (IRecord record : output) {
+      int id = record.getRecordID();
+      assertTrue(!seen[id]);
+      seen[id] = true;
+
+      int producer = id / perProducer;
+      assertTrue(id > lastId[producer]);
+      lastId[producer] = id;
+    }
+  }
+}
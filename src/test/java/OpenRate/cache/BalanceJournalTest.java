@@ -0,0 +1,132 @@
+package OpenRate.cache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import org.junit.*;
+
+/**
+ * Unit test for the write ahead journal of the balance cache.
+ */
+public class BalanceJournalTest
+{
+  private File directory;
+
+  // the recovered balances by group/counter/recid
+  private HashMap<String, Double> balances;
+
+  @Before
+  public void setUp()
+  {
+    directory = new File("target/BalanceJournalTest");
+    deleteDirectory();
+    balances = new HashMap<>();
+  }
+
+  @After
+  public void tearDown()
+  {
+    deleteDirectory();
+  }
+
+  /**
+   * The snapshot and the journals after it are recovered, with changes that
+   * were logged before the creation of their counter.
+   */
+  @Test
+  public void testRecover() throws IOException
+  {
+    System.out.println("recover");
+
+    BalanceJournal instance = new BalanceJournal(directory, "Bal");
+    Assert.assertFalse(instance.hasData());
+
+    long generation = instance.startGeneration();
+    BalanceJournal.Records snapshot = new BalanceJournal.Records();
+    snapshot.addCreate(1, 10, 1, 0, 100, 50.0);
+    instance.writeSnapshot(generation, snapshot);
+
+    instance.logChange(1, 10, 1, -5);
+    instance.logChange(2, 20, 1, 3);
+    instance.logCreate(2, 20, 1, 0, 100, 10);
+    instance.sync();
+
+    instance.startGeneration();
+    instance.logChange(1, 10, 1, -1);
+    instance.close();
+
+    // a torn record at the end is ignored
+    try (FileOutputStream out = new FileOutputStream(new File(directory, "Bal-journal-" + (generation + 1) + ".bin"), true))
+    {
+      out.write(new byte[] {2, 0, 0, 0});
+    }
+
+    instance = new BalanceJournal(directory, "Bal");
+    Assert.assertTrue(instance.hasData());
+    Assert.assertEquals(5, instance.recover(new Recorder()));
+    Assert.assertEquals(44.0, balances.get("1/10/1"), 0.0);
+    Assert.assertEquals(13.0, balances.get("2/20/1"), 0.0);
+  }
+
+  /**
+   * A new snapshot replaces the files before it.
+   */
+  @Test
+  public void testSnapshotDropsOldGenerations() throws IOException
+  {
+    System.out.println("snapshotDropsOldGenerations");
+
+    BalanceJournal instance = new BalanceJournal(directory, "Bal");
+    instance.writeSnapshot(instance.startGeneration(), new BalanceJournal.Records());
+    instance.logCreate(1, 10, 1, 0, 100, 7);
+    instance.close();
+
+    instance = new BalanceJournal(directory, "Bal");
+    long generation = instance.startGeneration();
+    BalanceJournal.Records snapshot = new BalanceJournal.Records();
+    snapshot.addCreate(1, 10, 1, 0, 100, 7);
+    instance.writeSnapshot(generation, snapshot);
+    instance.close();
+
+    Assert.assertEquals(2, directory.listFiles().length);
+    Assert.assertTrue(new File(directory, "Bal-snapshot-" + generation + ".bin").exists());
+
+    Assert.assertEquals(1, new BalanceJournal(directory, "Bal").recover(new Recorder()));
+    Assert.assertEquals(7.0, balances.get("1/10/1"), 0.0);
+  }
+
+  /**
+   * Keeps the recovered balances
+   */
+  private class Recorder implements BalanceJournal.Listener
+  {
+    @Override
+    public void counterCreated(long balanceGroupId, int counterId, long recId, long validFrom, long validTo, double balance)
+    {
+      balances.put(balanceGroupId + "/" + counterId + "/" + recId, balance);
+    }
+
+    @Override
+    public void balanceChanged(long balanceGroupId, int counterId, long recId, double delta)
+    {
+      String key = balanceGroupId + "/" + counterId + "/" + recId;
+      balances.put(key, balances.get(key) + delta);
+    }
+  }
+
+  private void deleteDirectory()
+  {
+    File[] files = directory.listFiles();
+
+    if (files != null)
+    {
+      for (File file : files)
+      {
+        file.delete();
+      }
+    }
+
+    directory.delete();
+  }
+}
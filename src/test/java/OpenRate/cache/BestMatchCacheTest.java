@@ -0,0 +1,98 @@
+package OpenRate.cache;
+
+import OpenRate.exception.InitializationException;
+import OpenRate.lang.DigitTree;
+import com.hazelcast.core.IMap;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.*;
+
+/**
+ * Unit test for the snapshot reload of BestMatchCache.
+ */
+public class BestMatchCacheTest
+{
+  // The number of times the overridden lookup was called
+  private static int overriddenLookups;
+
+  /**
+   * A subclass as a project would write it, with only the shared map
+   * constructor, overriding a lookup.
+   */
+  public static class ZoneCache extends BestMatchCache
+  {
+    public ZoneCache(IMap<String, DigitTree> cache)
+    {
+      super(cache);
+    }
+
+    @Override
+    public String getMatch(String mapGroup, String prefix)
+    {
+      overriddenLookups++;
+      return super.getMatch(mapGroup, prefix);
+    }
+  }
+
+  /**
+   * The snapshot is an instance of the subclass, it loads without touching
+   * the published data, and publishing it swaps the lookups over and brings
+   * the shared map up to date.
+   */
+  @Test
+  public void testSnapshotOfSubclass() throws InitializationException
+  {
+    System.out.println("snapshotOfSubclass");
+
+    ConcurrentHashMap<String, DigitTree> shared = new ConcurrentHashMap<>();
+    ZoneCache cache = new ZoneCache(sharedMap(shared));
+    cache.addEntry("TEL", "0039", result("Italy"));
+    cache.addEntry("SMS", "0049", result("Germany"));
+
+    AbstractSyncLoaderCache snapshot = cache.createSnapshotCache();
+    Assert.assertSame(ZoneCache.class, snapshot.getClass());
+
+    ((ZoneCache) snapshot).addEntry("TEL", "0039", result("Italia"));
+
+    // loading the snapshot does not touch the published data
+    Assert.assertEquals("Italy", cache.getMatch("TEL", "0039"));
+    Assert.assertEquals(2, shared.size());
+
+    cache.publishSnapshot(snapshot);
+
+    overriddenLookups = 0;
+    Assert.assertEquals("Italia", cache.getMatch("TEL", "0039"));
+    Assert.assertEquals(DigitTree.NO_DIGIT_TREE_MATCH, cache.getMatch("SMS", "0049"));
+    Assert.assertEquals(2, overriddenLookups);
+
+    // the shared map holds the new groups for the other nodes
+    Assert.assertEquals("Italia", shared.get("TEL").match("0039"));
+    Assert.assertFalse(shared.containsKey("SMS"));
+  }
+
+  private static ArrayList<String> result(String value)
+  {
+    ArrayList<String> result = new ArrayList<>();
+    result.add(value);
+    return result;
+  }
+
+  /**
+   * Wrap a map as a shared map.
+   */
+  @SuppressWarnings("unchecked")
+  private static IMap<String, DigitTree> sharedMap(final ConcurrentHashMap<String, DigitTree> map)
+  {
+    return (IMap<String, DigitTree>) Proxy.newProxyInstance(IMap.class.getClassLoader(), new Class<?>[]{IMap.class}, new InvocationHandler()
+    {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+      {
+        return map.getClass().getMethod(method.getName(), method.getParameterTypes()).invoke(map, args);
+      }
+    });
+  }
+}
@@ -0,0 +1,136 @@
+package OpenRate.cache;
+
+import OpenRate.OpenRate;
+import OpenRate.lang.ProductList;
+import OpenRate.resource.CacheFactory;
+import TestUtils.FrameworkUtils;
+import java.net.URL;
+import java.sql.Connection;
+import java.util.Arrays;
+import org.junit.*;
+
+/**
+ * Unit test for the on demand loading of the customer cache.
+ */
+public class CustomerCacheOnDemandTest
+{
+  private static final String CACHE_NAME = "CustomerTestCache";
+
+  // 2014-01-01 00:00:00 UTC, within the validity of the test data
+  private static final long CDR_DATE = 1388534400;
+
+  private static CustomerCache instance;
+
+  @BeforeClass
+  public static void setUpClass() throws Exception
+  {
+    URL FQConfigFileName = new URL("File:src/test/resources/TestCustomerCache.properties.xml");
+
+    OpenRate.getApplicationInstance();
+    FrameworkUtils.loadProperties(FQConfigFileName);
+    FrameworkUtils.startupLoggers();
+    FrameworkUtils.startupTransactionManager();
+    FrameworkUtils.startupDataSources();
+
+    Connection JDBCChcon = FrameworkUtils.getDBConnection(CACHE_NAME);
+
+    for (String table : new String[] {"TEST_CUST_ALIAS", "TEST_CUST", "TEST_CUST_PRODUCT", "TEST_CUST_ERA"})
+    {
+      try
+      {
+        JDBCChcon.prepareStatement("DROP TABLE " + table).execute();
+      }
+      catch (Exception ex)
+      {
+        // It's OK, the table is not there yet
+      }
+    }
+
+    JDBCChcon.prepareStatement("CREATE TABLE TEST_CUST_ALIAS (ALIAS varchar(24), CUST_ID varchar(24))").execute();
+    JDBCChcon.prepareStatement("CREATE TABLE TEST_CUST (CUST_ID varchar(24), VALID_FROM varchar(14), VALID_TO varchar(14), BALANCE_GROUP varchar(10))").execute();
+    JDBCChcon.prepareStatement("CREATE TABLE TEST_CUST_PRODUCT (CUST_ID varchar(24), SERVICE varchar(24), PRODUCT varchar(24), VALID_FROM varchar(14), VALID_TO varchar(14))").execute();
+    JDBCChcon.prepareStatement("CREATE TABLE TEST_CUST_ERA (CUST_ID varchar(24), ERA_NAME varchar(24), ERA_VALUE varchar(24))").execute();
+
+    for (int i = 1; i <= 3; i++)
+    {
+      JDBCChcon.prepareStatement("INSERT INTO TEST_CUST_ALIAS VALUES ('A" + i + "','C" + i + "')").execute();
+      JDBCChcon.prepareStatement("INSERT INTO TEST_CUST VALUES ('C" + i + "','20100101000000','20300101000000','" + i + "')").execute();
+      JDBCChcon.prepareStatement("INSERT INTO TEST_CUST_PRODUCT VALUES ('C" + i + "','TEL','P" + i + "','20100101000000','20300101000000')").execute();
+      JDBCChcon.prepareStatement("INSERT INTO TEST_CUST_PRODUCT VALUES ('C" + i + "','DATA','D" + i + "','20100101000000','20300101000000')").execute();
+      JDBCChcon.prepareStatement("INSERT INTO TEST_CUST_ERA VALUES ('C" + i + "','CUG','G" + i + "')").execute();
+    }
+
+    // an alias of a customer that is not there
+    JDBCChcon.prepareStatement("INSERT INTO TEST_CUST_ALIAS VALUES ('A9','C9')").execute();
+    JDBCChcon.close();
+
+    FrameworkUtils.startupCaches();
+
+    instance = (CustomerCache) CacheFactory.getGlobalManager(CACHE_NAME).get(CACHE_NAME);
+  }
+
+  @AfterClass
+  public static void tearDownClass()
+  {
+    OpenRate.getApplicationInstance().finaliseApplication();
+  }
+
+  @Before
+  public void setUp()
+  {
+    instance.clearCacheObjects();
+  }
+
+  /**
+   * Customers are loaded by the lookups, unknown aliases are remembered.
+   */
+  @Test
+  public void testLookupLoadsCustomer()
+  {
+    System.out.println("lookupLoadsCustomer");
+
+    Assert.assertTrue(instance.isOnDemand());
+    Assert.assertEquals("C1", instance.getCustId("A1"));
+
+    ProductList products = instance.getProducts("A1", "TEL", CDR_DATE);
+    Assert.assertEquals(1, products.getProductCount());
+    Assert.assertEquals("P1", products.getProduct(0).getProductID());
+    Assert.assertEquals(1, products.getBalanceGroup());
+    Assert.assertEquals("G1", instance.getERA("C1", "CUG"));
+    Assert.assertEquals(Arrays.asList("CUG"), instance.getERAKeys("C1"));
+
+    // a reused result holder is cleared and filled again
+    ProductList result = new ProductList();
+    Assert.assertTrue(instance.getProducts("A2", "DATA", CDR_DATE, result));
+    Assert.assertTrue(instance.getProducts("A1", "TEL", CDR_DATE, result));
+    Assert.assertEquals(1, result.getProductCount());
+    Assert.assertEquals("P1", result.getProduct(0).getProductID());
+    Assert.assertFalse(instance.getProducts("A1", "TEL", 0, result));
+    Assert.assertEquals(0, result.getProductCount());
+
+    // neither the unknown alias nor the alias of an unknown customer is found
+    Assert.assertNull(instance.getCustId("A0"));
+    Assert.assertNull(instance.getCustId("A9"));
+    Assert.assertNull(instance.getProducts("A9", "TEL", CDR_DATE));
+  }
+
+  /**
+   * A prefetched batch is held up to the size of the cache, and evicted
+   * customers are loaded again.
+   */
+  @Test
+  public void testPrefetchAndEviction()
+  {
+    System.out.println("prefetchAndEviction");
+
+    instance.prefetchAliases(Arrays.asList("A1", "A2", "A3", "A0"));
+
+    String statistics = instance.getStatistics();
+    Assert.assertTrue(statistics, statistics.startsWith("Aliases: 2/2 hits: "));
+    Assert.assertTrue(statistics, statistics.contains("Customers: 2/2 "));
+
+    // the first customer was evicted, and is loaded again
+    Assert.assertEquals("G1", instance.getERA("C1", "CUG"));
+    Assert.assertEquals("D3", instance.getProducts("A3", "DATA", CDR_DATE).getProduct(0).getProductID());
+  }
+}
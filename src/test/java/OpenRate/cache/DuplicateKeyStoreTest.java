@@ -0,0 +1,85 @@
+package OpenRate.cache;
+
+import OpenRate.cache.DuplicateKeyStore.Fingerprint;
+import org.junit.*;
+
+/**
+ * Unit test for the off heap key store of the duplicate check cache.
+ */
+public class DuplicateKeyStoreTest
+{
+  private DuplicateKeyStore instance;
+
+  @Before
+  public void setUp()
+  {
+    instance = new DuplicateKeyStore();
+  }
+
+  /**
+   * The fingerprint depends only on the key.
+   */
+  @Test
+  public void testFingerprint()
+  {
+    System.out.println("fingerprint");
+
+    Fingerprint key1 = DuplicateKeyStore.fingerprint("CDR-0001-ABCDEFGH");
+    Fingerprint key2 = DuplicateKeyStore.fingerprint("CDR-0001-ABCDEFGH");
+    Fingerprint key3 = DuplicateKeyStore.fingerprint("CDR-0001-ABCDEFGI");
+
+    Assert.assertEquals(key1.high, key2.high);
+    Assert.assertEquals(key1.low, key2.low);
+    Assert.assertFalse((key1.high == key3.high) && (key1.low == key3.low));
+
+    // the empty key is not the empty slot
+    Fingerprint empty = DuplicateKeyStore.fingerprint("");
+    Assert.assertTrue((empty.high | empty.low) != 0);
+  }
+
+  /**
+   * Keys are found after the segments have grown, and only once.
+   */
+  @Test
+  public void testPutAndContains()
+  {
+    System.out.println("putAndContains");
+
+    for (int i = 0; i < 200000; i++)
+    {
+      Assert.assertTrue(instance.put(DuplicateKeyStore.fingerprint("Key" + i), i));
+    }
+
+    Assert.assertFalse(instance.put(DuplicateKeyStore.fingerprint("Key17"), 17));
+    Assert.assertEquals(200000, instance.size());
+
+    for (int i = 0; i < 200000; i++)
+    {
+      Assert.assertTrue(instance.contains(DuplicateKeyStore.fingerprint("Key" + i)));
+      Assert.assertFalse(instance.contains(DuplicateKeyStore.fingerprint("Other" + i)));
+    }
+  }
+
+  /**
+   * Purging drops the old keys and keeps the others.
+   */
+  @Test
+  public void testPurge()
+  {
+    System.out.println("purge");
+
+    for (int i = 0; i < 10000; i++)
+    {
+      instance.put(DuplicateKeyStore.fingerprint("Key" + i), i);
+    }
+
+    // a key seen again is kept at its new time
+    instance.put(DuplicateKeyStore.fingerprint("Key1"), 9000);
+
+    Assert.assertEquals(4999, instance.purgeOlderThan(5000));
+    Assert.assertEquals(5001, instance.size());
+    Assert.assertTrue(instance.contains(DuplicateKeyStore.fingerprint("Key1")));
+    Assert.assertFalse(instance.contains(DuplicateKeyStore.fingerprint("Key2")));
+    Assert.assertTrue(instance.contains(DuplicateKeyStore.fingerprint("Key5000")));
+  }
+}
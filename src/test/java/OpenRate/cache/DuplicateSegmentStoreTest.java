@@ -0,0 +1,244 @@
+package OpenRate.cache;
+
+import OpenRate.lang.BloomFilter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import org.junit.*;
+
+/**
+ * Unit test for the local segment files of the duplicate check cache.
+ */
+public class DuplicateSegmentStoreTest
+{
+  private static final long DAY = 86400;
+
+  private File directory;
+
+  @Before
+  public void setUp()
+  {
+    directory = new File("target/DuplicateSegmentStoreTest");
+    deleteDirectory();
+  }
+
+  @After
+  public void tearDown()
+  {
+    deleteDirectory();
+  }
+
+  /**
+   * Keys appended before a restart are loaded after it, inside the limits.
+   */
+  @Test
+  public void testAppendAndLoad() throws IOException
+  {
+    System.out.println("appendAndLoad");
+
+    DuplicateSegmentStore instance = new DuplicateSegmentStore(directory, "DupChk");
+    Assert.assertFalse(instance.hasData());
+
+    DuplicateSegmentStore.Batch batch = new DuplicateSegmentStore.Batch();
+    for (int i = 0; i < 1000; i++)
+    {
+      batch.add(DuplicateKeyStore.fingerprint("Key" + i), i * DAY / 100);
+    }
+    instance.append(batch);
+
+    // not trusted until it is marked complete
+    Assert.assertFalse(instance.hasData());
+    instance.markComplete();
+
+    // open again, which compacts the log into the day segments
+    instance = new DuplicateSegmentStore(directory, "DupChk");
+    Assert.assertTrue(instance.hasData());
+    Assert.assertEquals(11, directory.listFiles().length);
+
+    DuplicateKeyStore keyStore = new DuplicateKeyStore();
+    BloomFilter keyFilter = new BloomFilter(1000, 0.01);
+
+    // buffer 5 days back
+    long loaded = instance.load(keyStore, keyFilter, 5 * DAY);
+
+    Assert.assertEquals(499, loaded);
+    Assert.assertTrue(keyStore.contains(DuplicateKeyStore.fingerprint("Key999")));
+    Assert.assertFalse(keyStore.contains(DuplicateKeyStore.fingerprint("Key500")));
+
+    DuplicateKeyStore.Fingerprint stored = DuplicateKeyStore.fingerprint("Key999");
+    Assert.assertTrue(keyFilter.mightContain(stored.high, stored.low));
+  }
+
+  /**
+   * Whole days older than the limit are dropped, and the rest are kept.
+   */
+  @Test
+  public void testDropOlderThan() throws IOException
+  {
+    System.out.println("dropOlderThan");
+
+    DuplicateSegmentStore instance = new DuplicateSegmentStore(directory, "DupChk");
+
+    DuplicateSegmentStore.Batch batch = new DuplicateSegmentStore.Batch();
+    for (int i = 0; i < 5; i++)
+    {
+      batch.add(DuplicateKeyStore.fingerprint("Key" + i), i * DAY + 10);
+    }
+    instance.append(batch);
+    instance.compact();
+
+    // the log is still open, so nothing is compacted yet
+    Assert.assertEquals(0, instance.dropOlderThan(3 * DAY));
+
+    instance = new DuplicateSegmentStore(directory, "DupChk");
+
+    // day 2 holds a record newer than the limit, so it is kept
+    Assert.assertEquals(2, instance.dropOlderThan(2 * DAY + 5));
+
+    DuplicateKeyStore keyStore = new DuplicateKeyStore();
+    Assert.assertEquals(3, instance.load(keyStore, new BloomFilter(100, 0.01), 0));
+    Assert.assertFalse(keyStore.contains(DuplicateKeyStore.fingerprint("Key1")));
+    Assert.assertTrue(keyStore.contains(DuplicateKeyStore.fingerprint("Key2")));
+  }
+
+  /**
+   * Closed logs are compacted in the background into new parts of their days,
+   * and the parts of a day are loaded and dropped together.
+   */
+  @Test
+  public void testBackgroundCompaction() throws IOException, InterruptedException
+  {
+    System.out.println("backgroundCompaction");
+
+    // roll the log after every 2 records
+    DuplicateSegmentStore instance = new DuplicateSegmentStore(directory, "DupChk", 64);
+    instance.startCompaction();
+
+    for (int i = 0; i < 6; i++)
+    {
+      DuplicateSegmentStore.Batch batch = new DuplicateSegmentStore.Batch();
+      batch.add(DuplicateKeyStore.fingerprint("Key" + i), (i % 2) * DAY + i + 1);
+      instance.append(batch);
+    }
+
+    // wait for the three closed logs, each with a record for each of the 2 days
+    for (int wait = 0; wait < 100 && countFiles("-log-") > 0; wait++)
+    {
+      Thread.sleep(50);
+    }
+
+    instance.close();
+    Assert.assertEquals(0, countFiles("-log-"));
+    Assert.assertEquals(6, countFiles("-day-"));
+
+    DuplicateKeyStore keyStore = new DuplicateKeyStore();
+    Assert.assertEquals(6, instance.load(keyStore, new BloomFilter(100, 0.01), 0));
+
+    // all three parts of day 0 go together
+    Assert.assertEquals(1, instance.dropOlderThan(DAY));
+    Assert.assertEquals(3, countFiles("-day-"));
+  }
+
+  /**
+   * Invalidated segments are not loaded again and take no more records, until
+   * they are cleared for a new load.
+   */
+  @Test
+  public void testInvalidate() throws IOException
+  {
+    System.out.println("invalidate");
+
+    DuplicateSegmentStore instance = new DuplicateSegmentStore(directory, "DupChk");
+    DuplicateSegmentStore.Batch batch = new DuplicateSegmentStore.Batch();
+    batch.add(DuplicateKeyStore.fingerprint("Key"), DAY);
+    instance.append(batch);
+    instance.markComplete();
+    Assert.assertTrue(instance.hasData());
+
+    instance.invalidate();
+    Assert.assertFalse(instance.hasData());
+    Assert.assertFalse(new DuplicateSegmentStore(directory, "DupChk").hasData());
+
+    try
+    {
+      instance.markComplete();
+      Assert.fail("invalid segments were marked complete");
+    }
+    catch (IOException ex)
+    {
+      // expected
+    }
+
+    instance.clear();
+    Assert.assertEquals(0, directory.listFiles().length);
+    instance.append(batch);
+    instance.markComplete();
+    Assert.assertTrue(instance.hasData());
+  }
+
+  /**
+   * A record torn by a crash, and one that is damaged, are not loaded.
+   */
+  @Test
+  public void testTornRecordIgnored() throws IOException
+  {
+    System.out.println("tornRecordIgnored");
+
+    DuplicateSegmentStore instance = new DuplicateSegmentStore(directory, "DupChk");
+    DuplicateSegmentStore.Batch batch = new DuplicateSegmentStore.Batch();
+    batch.add(DuplicateKeyStore.fingerprint("Key1"), DAY);
+    batch.add(DuplicateKeyStore.fingerprint("Key2"), DAY);
+    instance.append(batch);
+    instance.markComplete();
+
+    // a whole record of zeroes and half of another one
+    File log = directory.listFiles(new FilenameFilter()
+    {
+      @Override
+      public boolean accept(File dir, String name)
+      {
+        return name.contains("-log-");
+      }
+    })[0];
+
+    try (FileOutputStream out = new FileOutputStream(log, true))
+    {
+      out.write(new byte[48]);
+    }
+
+    // compacted into the day segment on opening
+    instance = new DuplicateSegmentStore(directory, "DupChk");
+    Assert.assertTrue(instance.hasData());
+
+    DuplicateKeyStore keyStore = new DuplicateKeyStore();
+    Assert.assertEquals(2, instance.load(keyStore, new BloomFilter(100, 0.01), 0));
+  }
+
+  private int countFiles(final String part)
+  {
+    return directory.listFiles(new FilenameFilter()
+    {
+      @Override
+      public boolean accept(File dir, String name)
+      {
+        return name.contains(part);
+      }
+    }).length;
+  }
+
+  private void deleteDirectory()
+  {
+    File[] files = directory.listFiles();
+
+    if (files != null)
+    {
+      for (File file : files)
+      {
+        file.delete();
+      }
+    }
+
+    directory.delete();
+  }
+}
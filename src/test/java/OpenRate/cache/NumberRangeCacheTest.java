@@ -0,0 +1,118 @@
+package OpenRate.cache;
+
+import OpenRate.exception.InitializationException;
+import java.util.ArrayList;
+import org.junit.*;
+
+/**
+ * Unit test for the number range lookups of NumberRangeCache.
+ */
+public class NumberRangeCacheTest
+{
+  private NumberRangeCache instance;
+
+  @Before
+  public void setUp()
+  {
+    instance = new NumberRangeCache();
+  }
+
+  /**
+   * Ranges loaded out of order are found at their edges, and not outside.
+   */
+  @Test
+  public void testGetEntry() throws InitializationException
+  {
+    System.out.println("getEntry");
+
+    // load the ranges out of order
+    for (int i = 99; i >= 0; i--)
+    {
+      instance.addEntry("G", 1000 + i * 10, 1000 + i * 10 + 4, 0, 0, results("R" + i));
+    }
+
+    Assert.assertEquals("R0", instance.getEntry("G", 1000, 1000));
+    Assert.assertEquals("R0", instance.getEntry("G", 1004, 1000));
+    Assert.assertEquals("NOMATCH", instance.getEntry("G", 1005, 1000));
+    Assert.assertEquals("R57", instance.getEntry("G", 1572, 1000));
+    Assert.assertEquals("R99", instance.getEntry("G", 1994, 1000));
+    Assert.assertEquals("NOMATCH", instance.getEntry("G", 999, 1000));
+    Assert.assertEquals("NOMATCH", instance.getEntry("G", 1995, 1000));
+    Assert.assertEquals("NOMATCH", instance.getEntry("H", 1000, 1000));
+    Assert.assertNull(instance.getEntryWithChildData("G", 1995, 1000));
+  }
+
+  /**
+   * A range with several validity periods returns the one valid at the date.
+   */
+  @Test
+  public void testValidityPeriods() throws InitializationException
+  {
+    System.out.println("validityPeriods");
+
+    instance.addEntry("G", 100, 199, 1000, 2000, results("OLD"));
+    instance.addEntry("G", 200, 299, 0, 0, results("OTHER"));
+    instance.addEntry("G", 100, 199, 2000, 0, results("NEW"));
+
+    Assert.assertEquals("NOMATCH", instance.getEntry("G", 150, 999));
+    Assert.assertEquals("OLD", instance.getEntry("G", 150, 1000));
+    Assert.assertEquals("OLD", instance.getEntry("G", 150, 1999));
+    Assert.assertEquals("NEW", instance.getEntry("G", 150, 2000));
+    Assert.assertEquals("OTHER", instance.getEntry("G", 250, 2000));
+  }
+
+  /**
+   * Where ranges overlap, the first one in the search order wins, and entries
+   * added after a search are found.
+   */
+  @Test
+  public void testOverlappingRanges() throws InitializationException
+  {
+    System.out.println("overlappingRanges");
+
+    // a range that covers all numbers, loaded first, is searched first
+    instance.addEntry("A", 0, 0, 0, 0, results("ALL"));
+    instance.addEntry("A", 100, 199, 0, 0, results("SPECIFIC"));
+    Assert.assertEquals("ALL", instance.getEntry("A", 150, 1000));
+
+    // loaded after the specific range, it comes after it
+    instance.addEntry("B", 100, 199, 0, 0, results("SPECIFIC"));
+    instance.addEntry("B", 0, 0, 0, 0, results("ALL"));
+    Assert.assertEquals("SPECIFIC", instance.getEntry("B", 150, 1000));
+    Assert.assertEquals("ALL", instance.getEntry("B", 250, 1000));
+
+    instance.addEntry("B", 300, 399, 0, 0, results("LATER"));
+    Assert.assertEquals("SPECIFIC", instance.getEntry("B", 150, 1000));
+    Assert.assertEquals("ALL", instance.getEntry("B", 350, 1000));
+  }
+
+  /**
+   * A range with the same start as the last one cannot be added.
+   */
+  @Test
+  public void testOverlapRejected() throws InitializationException
+  {
+    System.out.println("overlapRejected");
+
+    instance.addEntry("G", 100, 199, 0, 0, results("R1"));
+
+    try
+    {
+      instance.addEntry("G", 100, 150, 0, 0, results("R2"));
+      Assert.fail("Overlap not detected");
+    }
+    catch (InitializationException ex)
+    {
+      Assert.assertTrue(ex.getMessage().contains("overlaps"));
+    }
+
+    Assert.assertEquals("R1", instance.getEntry("G", 120, 1000));
+  }
+
+  private static ArrayList<String> results(String result)
+  {
+    ArrayList<String> results = new ArrayList<>();
+    results.add(result);
+    return results;
+  }
+}
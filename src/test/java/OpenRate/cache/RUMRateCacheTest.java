@@ -0,0 +1,133 @@
+package OpenRate.cache;
+
+import OpenRate.exception.InitializationException;
+import OpenRate.record.CompiledPriceModel;
+import OpenRate.record.RateMapEntry;
+import org.junit.*;
+
+/**
+ * Unit test for the compiled price models of RUMRateCache.
+ */
+public class RUMRateCacheTest
+{
+  private RUMRateCache instance;
+
+  @Before
+  public void setUp() throws InitializationException
+  {
+    instance = new RUMRateCache();
+
+    // two tiers, the second with a new price from time 2000, loaded out of order
+    instance.addPriceModel("Model", 2, 60, 999999, 60, 0.5, 60, 0);
+    instance.addPriceModel("Model", 1, 0, 60, 60, 1, 60, 0);
+    instance.addPriceModel("Model", 2, 60, 999999, 60, 0.25, 60, 2000);
+    instance.addPriceModel("Model", 1, 0, 60, 60, 2, 60, 1000);
+    instance.addPriceModel("Late", 1, 0, 999999, 1, 1, 1, 5000);
+
+    // the second tier only starts after the first one
+    instance.addPriceModel("Staged", 1, 0, 60, 60, 1, 60, 0);
+    instance.addPriceModel("Staged", 2, 60, 999999, 60, 0.5, 60, 1000);
+    instance.addRUMMap("Group", "Model", "DUR", "EUR", "TIERED", "978");
+    instance.addRUMMap("Group", "Missing", "DUR", "EUR", "FLAT", "978");
+    instance.compilePriceModels();
+  }
+
+  /**
+   * Versions of a step are kept latest first, and not added as steps.
+   */
+  @Test
+  public void testVersionsOfStep()
+  {
+    System.out.println("versionsOfStep");
+
+    Assert.assertEquals(2, instance.getPriceModel("Model").size());
+
+    RateMapEntry step1 = instance.getPriceModel("Model").get(0);
+    Assert.assertEquals(1, step1.getStep());
+    Assert.assertEquals(1000, step1.getStartTime());
+    Assert.assertEquals(0, step1.getChild().getStartTime());
+    Assert.assertNull(step1.getChild().getChild());
+    Assert.assertEquals(2.0, CompiledPriceModel.getVersionForTime(step1, 1500).getFactor(), 0.0);
+    Assert.assertEquals(1.0, CompiledPriceModel.getVersionForTime(step1, 999).getFactor(), 0.0);
+  }
+
+  /**
+   * The compiled model has a segment from each start time, and the handles of
+   * the RUM map are resolved.
+   */
+  @Test
+  public void testCompiledSegments()
+  {
+    System.out.println("compiledSegments");
+
+    int handle = instance.getPriceModelHandle("Model");
+    CompiledPriceModel model = instance.getCompiledPriceModel(handle);
+    Assert.assertEquals(3, model.getSegmentCount());
+    Assert.assertTrue(model.getSegment(0).covered);
+
+    CompiledPriceModel.Segment segment = model.getSegment(1500);
+    Assert.assertEquals(2, segment.tierCount);
+    Assert.assertEquals(2.0, segment.factor[0], 0.0);
+    Assert.assertEquals(0.5, segment.factor[1], 0.0);
+    Assert.assertEquals(1000, segment.validFrom[0]);
+    Assert.assertEquals(0.25, model.getSegment(2000).factor[1], 0.0);
+    Assert.assertEquals(1.0, model.getSegment(0).factor[0], 0.0);
+    Assert.assertNull(model.getSegment(-1));
+
+    // the model is not valid before its start
+    Assert.assertNull(instance.getCompiledPriceModel(instance.getPriceModelHandle("Late")).getSegment(4999));
+
+    // a model the map refers to has a handle, but no model
+    Assert.assertEquals(handle, instance.getRUMMap("Group").get(0).PriceModelHandle);
+    int missing = instance.getRUMMap("Group").get(1).PriceModelHandle;
+    Assert.assertTrue(missing >= 0);
+    Assert.assertNull(instance.getCompiledPriceModel(missing));
+    Assert.assertEquals(-1, instance.getPriceModelHandle("Unknown"));
+  }
+
+  /**
+   * A tier that starts after the first one is marked as not valid in the
+   * segments before its start, but those segments are still created.
+   */
+  @Test
+  public void testLaterTierStartsLater()
+  {
+    System.out.println("laterTierStartsLater");
+
+    CompiledPriceModel model = instance.getCompiledPriceModel(instance.getPriceModelHandle("Staged"));
+    Assert.assertEquals(2, model.getSegmentCount());
+
+    CompiledPriceModel.Segment segment = model.getSegment(999);
+    Assert.assertFalse(segment.covered);
+    Assert.assertTrue(segment.valid[0]);
+    Assert.assertFalse(segment.valid[1]);
+    Assert.assertEquals(60.0, segment.from[1], 0.0);
+
+    segment = model.getSegment(1000);
+    Assert.assertTrue(segment.covered);
+    Assert.assertTrue(segment.valid[1]);
+    Assert.assertEquals(0.5, segment.factor[1], 0.0);
+  }
+
+  /**
+   * Handles do not change when the models are loaded again.
+   */
+  @Test
+  public void testHandlesStableOverReload() throws InitializationException
+  {
+    System.out.println("handlesStableOverReload");
+
+    int handle = instance.getPriceModelHandle("Model");
+
+    instance.clearCacheObjects();
+    Assert.assertNull(instance.getCompiledPriceModel(handle));
+
+    instance.addPriceModel("New", 1, 0, 999999, 1, 1, 1, 0);
+    instance.addPriceModel("Model", 1, 0, 999999, 1, 3, 1, 0);
+    instance.compilePriceModels();
+
+    Assert.assertEquals(handle, instance.getPriceModelHandle("Model"));
+    Assert.assertEquals(3.0, instance.getCompiledPriceModel(handle).getSegment(0).factor[0], 0.0);
+    Assert.assertTrue(instance.getPriceModelHandle("New") != handle);
+  }
+}
@@ -0,0 +1,142 @@
+package OpenRate.cache;
+
+import OpenRate.OpenRate;
+import OpenRate.resource.CacheFactory;
+import TestUtils.FrameworkUtils;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.*;
+
+/**
+ * Unit test for the snapshot reload mode of AbstractSyncLoaderCache, using
+ * the regex match cache.
+ */
+public class SnapshotReloadTest
+{
+  private static final String CACHE_NAME = "SnapshotReloadTestCache";
+  private static final File DATA_FILE = new File("target/SnapshotReloadTest.dat");
+
+  private static RegexMatchCache cache;
+
+  @BeforeClass
+  public static void setUpClass() throws Exception
+  {
+    writeDataFile("OK1");
+
+    // Set up the OpenRate internal logger - this is normally done by app startup
+    OpenRate.getApplicationInstance();
+
+    // Load the properties into the OpenRate object
+    FrameworkUtils.loadProperties(new URL("File:src/test/resources/TestSnapshotReload.properties.xml"));
+
+    // Get the loggers
+    FrameworkUtils.startupLoggers();
+
+    // Get the transaction manager
+    FrameworkUtils.startupTransactionManager();
+
+    // Get the caches that we are using
+    FrameworkUtils.startupCaches();
+
+    cache = (RegexMatchCache) CacheFactory.getGlobalManager(CACHE_NAME).get(CACHE_NAME);
+  }
+
+  @AfterClass
+  public static void tearDownClass()
+  {
+    // Deallocate
+    OpenRate.getApplicationInstance().finaliseApplication();
+
+    DATA_FILE.delete();
+  }
+
+  /**
+   * The reload runs in the background, and lookups made during it always see
+   * either the old or the new data.
+   */
+  @Test
+  public void testSnapshotReload() throws Exception
+  {
+    final String[] searchParameters = new String[] {"0123", "x"};
+
+    System.out.println("snapshotReload");
+
+    Assert.assertEquals("OK1", cache.getMatch("DefaultMap", searchParameters));
+    Assert.assertEquals(AbstractSyncLoaderCache.RELOAD_MODE_SNAPSHOT,
+                        cache.processControlEvent("ReloadMode", false, ""));
+
+    writeDataFile("OK2");
+
+    // look up continuously while the reload runs
+    final AtomicInteger misses = new AtomicInteger();
+    final AtomicInteger lookups = new AtomicInteger();
+    final AtomicBoolean running = new AtomicBoolean(true);
+    Thread reader = new Thread(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        while (running.get())
+        {
+          String result = cache.getMatch("DefaultMap", searchParameters);
+          if (!result.equals("OK1") && !result.equals("OK2"))
+          {
+            misses.incrementAndGet();
+          }
+          lookups.incrementAndGet();
+        }
+      }
+    });
+    reader.start();
+
+    Assert.assertEquals("Snapshot reload started", cache.processControlEvent("Reload", false, "true"));
+
+    long deadline = System.currentTimeMillis() + 10000;
+    while (cache.isSnapshotLoading() && System.currentTimeMillis() < deadline)
+    {
+      Thread.sleep(5);
+    }
+
+    running.set(false);
+    reader.join(10000);
+
+    Assert.assertFalse(cache.isSnapshotLoading());
+    Assert.assertEquals("OK2", cache.getMatch("DefaultMap", searchParameters));
+    Assert.assertTrue(lookups.get() > 0);
+    Assert.assertEquals(0, misses.get());
+  }
+
+  /**
+   * A flagged sync point starts a snapshot reload rather than pausing the
+   * pipelines.
+   */
+  @Test
+  public void testSyncPointIsNotRaised() throws Exception
+  {
+    System.out.println("syncPointIsNotRaised");
+
+    cache.setSyncStatus(1);
+    Assert.assertEquals(0, cache.getSyncStatus());
+
+    long deadline = System.currentTimeMillis() + 10000;
+    while (cache.isSnapshotLoading() && System.currentTimeMillis() < deadline)
+    {
+      Thread.sleep(5);
+    }
+    Assert.assertFalse(cache.isSnapshotLoading());
+  }
+
+  private static void writeDataFile(String result) throws IOException
+  {
+    DATA_FILE.getParentFile().mkdirs();
+
+    try (FileWriter out = new FileWriter(DATA_FILE))
+    {
+      out.write("DefaultMap;0.*;.*;" + result + ";OUT2\n");
+    }
+  }
+}
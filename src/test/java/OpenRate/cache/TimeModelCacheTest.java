@@ -0,0 +1,180 @@
+package OpenRate.cache;
+
+import OpenRate.exception.InitializationException;
+import OpenRate.record.TimePacket;
+import com.hazelcast.core.IMap;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.*;
+
+/**
+ * Unit test for the compiled time tables of TimeModelCache.
+ */
+public class TimeModelCacheTest
+{
+  // Monday 5th January 2015 00:00:00 UTC
+  private static final long MONDAY = 1420416000L;
+
+  private TimeModelCache instance;
+  private GregorianCalendar calendar;
+
+  @Before
+  public void setUp() throws InitializationException
+  {
+    instance = new TimeModelCache(new HashMap<String, TimeMap>());
+    calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+
+    for (int day = 0; day < 7; day++)
+    {
+      instance.addInterval("Model", Integer.toString(day), "00:00", "07:59", "OFF");
+      instance.addInterval("Model", Integer.toString(day), "08:00", "17:59", "PEAK");
+      instance.addInterval("Model", Integer.toString(day), "18:00", "00:00", "OFF");
+    }
+
+    instance.addModel("Plan", "Model");
+  }
+
+  /**
+   * Minutes are found in their bands, and unknown plans and days do not match.
+   */
+  @Test
+  public void testGetEntry() throws InitializationException
+  {
+    System.out.println("getEntry");
+
+    Assert.assertEquals("OFF", instance.getEntry("Plan", 1, 0));
+    Assert.assertEquals("OFF", instance.getEntry("Plan", 1, 479));
+    Assert.assertEquals("PEAK", instance.getEntry("Plan", 1, 480));
+    Assert.assertEquals("PEAK", instance.getEntry("Plan", 1, 1079));
+    Assert.assertEquals("OFF", instance.getEntry("Plan", 1, 1439));
+    Assert.assertEquals(TimeModelCache.NO_TIME_MATCH, instance.getEntry("Plan", 1, 1440));
+    Assert.assertEquals(TimeModelCache.NO_TIME_MATCH, instance.getEntry("Plan", 7, 600));
+    Assert.assertEquals(TimeModelCache.NO_TIME_MATCH, instance.getEntry("Other", 1, 600));
+
+    // the first interval loaded wins, and is seen after a lookup
+    instance.addInterval("Model", "1", "12:00", "12:59", "LUNCH");
+    Assert.assertEquals("PEAK", instance.getEntry("Plan", 1, 750));
+    instance.addInterval("Model2", "1", "00:00", "00:00", "ALL");
+    instance.addModel("Plan", "Model2");
+    Assert.assertEquals("ALL", instance.getEntry("Plan", 1, 750));
+  }
+
+  /**
+   * An event over a band boundary is split at the boundary.
+   */
+  @Test
+  public void testSplitAtBand()
+  {
+    System.out.println("splitAtBand");
+
+    // Monday 07:50:30 to 08:10:00
+    ArrayList<TimePacket> packets = instance.getEntry("Plan", MONDAY + 28230, MONDAY + 29400, calendar);
+
+    Assert.assertEquals(2, packets.size());
+    Assert.assertEquals("OFF", packets.get(0).timeResult);
+    Assert.assertEquals(1, packets.get(0).dayofWeek);
+    Assert.assertEquals(570, packets.get(0).duration);
+    Assert.assertEquals("PEAK", packets.get(1).timeResult);
+    Assert.assertEquals(600, packets.get(1).duration);
+    Assert.assertEquals(1170, packets.get(1).totalDuration);
+  }
+
+  /**
+   * An event over midnight is split into the days.
+   */
+  @Test
+  public void testSplitAtMidnight()
+  {
+    System.out.println("splitAtMidnight");
+
+    // Sunday 23:59:00 to Monday 00:01:00
+    ArrayList<TimePacket> packets = instance.getEntry("Plan", MONDAY - 60, MONDAY + 60, calendar);
+
+    Assert.assertEquals(2, packets.size());
+    Assert.assertEquals(0, packets.get(0).dayofWeek);
+    Assert.assertEquals(60, packets.get(0).duration);
+    Assert.assertEquals(1, packets.get(1).dayofWeek);
+    Assert.assertEquals(60, packets.get(1).duration);
+    Assert.assertTrue(instance.getEntry("Other", MONDAY, MONDAY + 60, calendar).isEmpty());
+  }
+
+  /**
+   * A published snapshot replaces the plans and models as a whole, in the
+   * lookups and in the shared map.
+   */
+  @Test
+  public void testPublishSnapshot() throws InitializationException
+  {
+    System.out.println("publishSnapshot");
+
+    HashMap<String, TimeMap> shared = new HashMap<>();
+    TimeModelCache cache = new TimeModelCache(shared);
+    cache.addInterval("Model", "1", "00:00", "00:00", "OLD");
+    cache.addModel("Plan", "Model");
+    Assert.assertEquals("OLD", cache.getEntry("Plan", 1, 600));
+
+    TimeModelCache snapshot = (TimeModelCache) cache.createSnapshotCache();
+    snapshot.addInterval("NewModel", "1", "00:00", "00:00", "NEW");
+    snapshot.addModel("Plan", "NewModel");
+
+    // loading the snapshot does not touch the published data
+    Assert.assertEquals("OLD", cache.getEntry("Plan", 1, 600));
+
+    cache.publishSnapshot(snapshot);
+
+    Assert.assertEquals("NEW", cache.getEntry("Plan", 1, 600));
+    Assert.assertEquals(Collections.singleton("NewModel"), shared.keySet());
+  }
+
+  /**
+   * The tables are compiled again when another node publishes a new version
+   * of a shared map.
+   */
+  @Test
+  public void testSharedMapVersion() throws InitializationException
+  {
+    System.out.println("sharedMapVersion");
+
+    IMap<String, TimeMap> shared = sharedMap(new ConcurrentHashMap<String, TimeMap>());
+    TimeModelCache node1 = new TimeModelCache(shared);
+    TimeModelCache node2 = new TimeModelCache(shared);
+    node2.MapVersionCheckPeriod = 0;
+
+    TimeModelCache snapshot = (TimeModelCache) node1.createSnapshotCache();
+    snapshot.addInterval("Model", "1", "00:00", "00:00", "OLD");
+    node1.publishSnapshot(snapshot);
+    node2.addModel("Plan", "Model");
+    Assert.assertEquals("OLD", node2.getEntry("Plan", 1, 600));
+
+    snapshot = (TimeModelCache) node1.createSnapshotCache();
+    snapshot.addInterval("Model", "1", "00:00", "00:00", "NEW");
+    node1.publishSnapshot(snapshot);
+    Assert.assertEquals("NEW", node2.getEntry("Plan", 1, 600));
+
+    // the version entry is not counted as a model
+    Assert.assertEquals("1", node1.processControlEvent("GroupCount", false, ""));
+  }
+
+  /**
+   * Wrap a map as a shared map.
+   */
+  @SuppressWarnings("unchecked")
+  private static IMap<String, TimeMap> sharedMap(final ConcurrentHashMap<String, TimeMap> map)
+  {
+    return (IMap<String, TimeMap>) Proxy.newProxyInstance(IMap.class.getClassLoader(), new Class<?>[]{IMap.class}, new InvocationHandler()
+    {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+      {
+        return map.getClass().getMethod(method.getName(), method.getParameterTypes()).invoke(map, args);
+      }
+    });
+  }
+}
@@ -0,0 +1,50 @@
+package OpenRate.lang;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BloomFilterTest {
+
+  @Test
+  public void testAddedKeysAreFound() {
+    BloomFilter filter = new BloomFilter(10000, 0.01);
+    Random random = new Random(1);
+
+    long[] high = new long[10000];
+    long[] low = new long[10000];
+    for (int i = 0; i < high.length; i++) {
+      high[i] = random.nextLong();
+      low[i] = random.nextLong();
+      filter.add(high[i], low[i]);
+    }
+
+    for (int i = 0; i < high.length; i++) {
+      assertTrue(filter.mightContain(high[i], low[i]));
+    }
+  }
+
+  @Test
+  public void testFalsePositiveRate() {
+    BloomFilter filter = new BloomFilter(10000, 0.01);
+    Random random = new Random(2);
+
+    for (int i = 0; i < 10000; i++) {
+      filter.add(random.nextLong(), random.nextLong());
+    }
+
+    int falsePositives = 0;
+    for (int i = 0; i < 100000; i++) {
+      if (filter.mightContain(random.nextLong(), random.nextLong())) {
+        falsePositives++;
+      }
+    }
+
+    // 1% expected, allow some margin
+    assertTrue("false positives " + falsePositives, falsePositives < 1500);
+    assertFalse(new BloomFilter(100, 0.01).mightContain(1, 2));
+  }
+}
@@ -0,0 +1,58 @@
+package OpenRate.lang;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class BoundedCacheTest {
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() {
+    BoundedCache<String, String> cache = new BoundedCache<>(3);
+
+    cache.put("A", "1");
+    cache.put("B", "2");
+    cache.put("C", "3");
+
+    // using A makes B the least recently used
+    assertEquals("1", cache.get("A"));
+    cache.put("D", "4");
+
+    assertEquals(3, cache.size());
+    assertFalse(cache.containsKey("B"));
+    assertTrue(cache.containsKey("A"));
+    assertTrue(cache.containsKey("C"));
+    assertTrue(cache.containsKey("D"));
+    assertEquals(1, cache.getEvictions());
+  }
+
+  @Test
+  public void testStatistics() {
+    BoundedCache<Integer, Integer> cache = new BoundedCache<>(10000);
+
+    for (int i = 0; i < 20000; i++) {
+      cache.put(i, i);
+    }
+
+    assertTrue(cache.size() <= 10000);
+    assertEquals(20000 - cache.size(), cache.getEvictions());
+
+    // the most recent keys are kept, the oldest are evicted
+    assertEquals(Integer.valueOf(19999), cache.get(19999));
+    assertNull(cache.get(0));
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+    assertEquals(0.5, cache.getHitRate(), 0.0);
+
+    // containsKey does not count
+    cache.containsKey(1);
+    assertEquals(1, cache.getMisses());
+
+    cache.clear();
+    assertEquals(0, cache.size());
+    assertEquals(10000, cache.getMaxSize());
+  }
+}
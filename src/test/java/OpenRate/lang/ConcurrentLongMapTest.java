@@ -0,0 +1,198 @@
+package OpenRate.lang;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ConcurrentLongMapTest {
+
+  @Test
+  public void testPutAndGet() {
+    ConcurrentLongMap<String> map = new ConcurrentLongMap<>(10);
+
+    for (long key = -5000; key < 5000; key++) {
+      assertNull(map.put(key * 7, "V" + key));
+    }
+
+    assertEquals(10000, map.size());
+    assertEquals("V-5000", map.get(-35000));
+    assertEquals("V0", map.get(0));
+    assertEquals("V4999", map.get(34993));
+    assertNull(map.get(1));
+    assertFalse(map.containsKey(35000));
+
+    // replace, and only if absent
+    assertEquals("V1", map.put(7, "W1"));
+    assertEquals("W1", map.putIfAbsent(7, "X1"));
+    assertEquals("W1", map.get(7));
+    assertEquals(10000, map.size());
+
+    long[] keys = map.keys();
+    Arrays.sort(keys);
+    assertEquals(10000, keys.length);
+    assertEquals(-35000, keys[0]);
+    assertEquals(34993, keys[9999]);
+
+    map.clear();
+    assertEquals(0, map.size());
+    assertNull(map.get(7));
+  }
+
+  @Test
+  public void testMapView() {
+    ConcurrentLongMap<String> map = new ConcurrentLongMap<>(10);
+    Map<Long, String> view = map.asMap();
+
+    assertNull(view.put(1L, "A"));
+    map.put(2, "B");
+
+    assertEquals(2, view.size());
+    assertEquals("A", view.get(1L));
+    assertEquals("B", view.get(2L));
+    assertNull(view.get("2"));
+    assertTrue(view.containsKey(2L));
+
+    Map<Long, String> copy = new HashMap<>(view);
+    assertEquals(2, copy.size());
+    assertEquals("B", copy.get(2L));
+
+    assertEquals("A", view.remove(1L));
+    assertNull(view.remove(1L));
+    assertNull(view.remove("2"));
+    assertEquals(1, view.size());
+
+    Iterator<Map.Entry<Long, String>> iterator = view.entrySet().iterator();
+    assertEquals("B", iterator.next().getValue());
+    iterator.remove();
+    assertFalse(iterator.hasNext());
+    assertNull(map.get(2));
+
+    try {
+      iterator.remove();
+      fail("removed the same entry twice");
+    } catch (IllegalStateException ex) {
+      // expected
+    }
+
+    view.put(3L, "C");
+    view.clear();
+    assertEquals(0, map.size());
+  }
+
+  @Test
+  public void testRemove() {
+    ConcurrentLongMap<String> map = new ConcurrentLongMap<>(10);
+
+    for (long key = 0; key < 10000; key++) {
+      map.put(key, "V" + key);
+    }
+
+    // remove every other key, the rest are still found past the removed ones
+    for (long key = 0; key < 10000; key += 2) {
+      assertEquals("V" + key, map.remove(key));
+    }
+
+    assertNull(map.remove(0));
+    assertEquals(5000, map.size());
+    assertEquals(5000, map.keys().length);
+    assertNull(map.get(4));
+    assertEquals("V5", map.get(5));
+
+    // a removed key can be put back
+    assertNull(map.putIfAbsent(4, "W4"));
+    assertEquals("W4", map.get(4));
+    assertEquals(5001, map.size());
+
+    // removing and adding over and over does not grow the map without limit
+    for (long key = 100000; key < 200000; key++) {
+      map.put(key, "X");
+      assertEquals("X", map.remove(key));
+    }
+
+    assertEquals(5001, map.size());
+    assertEquals("V9999", map.get(9999));
+  }
+
+  @Test
+  public void testConcurrentPutIfAbsent() throws InterruptedException {
+    final ConcurrentLongMap<AtomicInteger> map = new ConcurrentLongMap<>(10);
+    final AtomicInteger created = new AtomicInteger();
+    Thread[] threads = new Thread[4];
+
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (long key = 0; key < 20000; key++) {
+            AtomicInteger value = new AtomicInteger();
+            AtomicInteger existing = map.putIfAbsent(key, value);
+
+            if (existing == null) {
+              created.incrementAndGet();
+              existing = value;
+            }
+
+            assertSame(existing, map.get(key));
+            existing.incrementAndGet();
+          }
+        }
+      };
+      threads[i].start();
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(20000, created.get());
+    assertEquals(20000, map.size());
+
+    for (long key = 0; key < 20000; key++) {
+      assertEquals(threads.length, map.get(key).get());
+    }
+  }
+
+  @Test
+  public void testConcurrentCounterUpdates() throws InterruptedException {
+    final Counter counter = new Counter();
+    counter.setCurrentBalance(10000);
+    Thread[] threads = new Thread[4];
+
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 1000; j++) {
+            counter.consumeBalance(2);
+            counter.addBalance(1);
+          }
+        }
+      };
+      threads[i].start();
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(6000, counter.getCurrentBalance(), 0.0);
+
+    // consumption stops at 0, refunds stop at the limit
+    assertEquals(6000, counter.consumeBalance(7000), 0.0);
+    assertEquals(0, counter.getCurrentBalance(), 0.0);
+    assertEquals(0, counter.refundBalance(150, 100), 0.0);
+    assertEquals(100, counter.getCurrentBalance(), 0.0);
+    assertTrue(counter.refundBalance(1, 100) == 100);
+  }
+}
@@ -0,0 +1,108 @@
+package OpenRate.lang;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class DigitTreeTest {
+
+  private DigitTree tree;
+
+  private static ArrayList<String> results(String... values) {
+    return new ArrayList<>(Arrays.asList(values));
+  }
+
+  @Before
+  public void init() {
+    tree = new DigitTree();
+    tree.addPrefix("0039", results("Italy", "EU"));
+    tree.addPrefix("0049", results("Germany", "EU"));
+    tree.addPrefix("00393", results("ItalyMobile", "EU"));
+    tree.addPrefix("0044", results("UK", "EU"));
+  }
+
+  @Test
+  public void testBestMatch() {
+    assertEquals("Italy", tree.match("00391234"));
+    assertEquals("ItalyMobile", tree.match("00393471234"));
+    assertEquals("Germany", tree.match("0049"));
+    assertEquals(DigitTree.NO_DIGIT_TREE_MATCH, tree.match("004"));
+    assertEquals(DigitTree.NO_DIGIT_TREE_MATCH, tree.match("1234"));
+    assertEquals(DigitTree.NO_DIGIT_TREE_MATCH, tree.match(""));
+
+    assertEquals(results("ItalyMobile", "EU"), tree.matchWithChildData("003939"));
+    assertEquals(results(DigitTree.NO_DIGIT_TREE_MATCH), tree.matchWithChildData("0033"));
+  }
+
+  @Test
+  public void testReplaceAndSize() {
+    // 0,0,3,9,3,4,9,4 -> 8 nodes
+    assertEquals(8, tree.size());
+
+    tree.addPrefix("0039", results("Vatican", "EU"));
+    assertEquals("Vatican", tree.match("00391"));
+    assertEquals(8, tree.size());
+  }
+
+  @Test
+  public void testEqualResultsAreShared() {
+    tree.addPrefix("0041", results("Europe1"));
+    tree.addPrefix("0043", results("Europe1"));
+
+    assertSame(tree.matchWithChildData("0041"), tree.matchWithChildData("0043"));
+  }
+
+  @Test
+  public void testGrowsBeyondInitialCapacity() {
+    DigitTree big = new DigitTree();
+    for (int i = 0; i < 20000; i++) {
+      big.addPrefix(Integer.toString(100000 + i), results("Zone" + (i % 7)));
+    }
+
+    for (int i = 0; i < 20000; i += 97) {
+      assertEquals("Zone" + (i % 7), big.match(Integer.toString(100000 + i) + "55"));
+    }
+  }
+
+  @Test
+  public void testSerialisation() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(tree);
+    }
+
+    DigitTree copy;
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      copy = (DigitTree) in.readObject();
+    }
+
+    assertEquals("ItalyMobile", copy.match("00393"));
+    assertEquals(tree.size(), copy.size());
+
+    // still usable for adding after the trip
+    copy.addPrefix("0033", results("France", "EU"));
+    copy.addPrefix("0034", results("Italy", "EU"));
+    assertEquals("France", copy.match("00331"));
+    assertSame(copy.matchWithChildData("0039"), copy.matchWithChildData("0034"));
+  }
+
+  @Test
+  public void testInvalidDigitIsRejected() {
+    try {
+      tree.addPrefix("00A1", results("Bad"));
+      fail("non digit prefix was accepted");
+    } catch (ArrayIndexOutOfBoundsException e) {
+      // expected, BestMatchCache reports it as a bad prefix
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package OpenRate.lang;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class ProductListTest {
+
+  @Test
+  public void testClearReusesOwnInstances() {
+    ProductList list = new ProductList();
+
+    list.addCachedProduct("P1", null, "TEL", 10, 20, 1);
+    list.addProduct(0, "P2", "S2", "DATA", 30, 40, 2);
+    list.setBalanceGroup(7);
+    CustProductInfo first = list.getProduct(0);
+    CustProductInfo second = list.getProduct(1);
+
+    list.clear();
+    assertEquals(0, list.getProductCount());
+    assertEquals(0, list.getBalanceGroup());
+
+    // the instances are filled again in the same order
+    list.addProduct(0, "P3", null, "SMS", 50, 60, 3);
+    list.addCachedProduct("P4", null, "TEL", 70, 80, 1);
+
+    assertEquals(2, list.getProductCount());
+    assertSame(first, list.getProduct(0));
+    assertSame(second, list.getProduct(1));
+    assertEquals("P3", first.getProductID());
+    assertEquals(3, first.getQuantity());
+    assertEquals("P4", second.getProductID());
+    assertNull(second.getSubID());
+    assertEquals(80, second.getUTCValidTo());
+  }
+
+  @Test
+  public void testClearKeepsSharedInstances() {
+    CustProductInfo shared = new CustProductInfo();
+    shared.setProductID("Shared");
+    ProductList list = new ProductList();
+
+    list.addProduct(shared);
+    list.clear();
+    list.addCachedProduct("P1", null, "TEL", 10, 20, 1);
+
+    // a product added by reference is never filled by the list
+    assertEquals("Shared", shared.getProductID());
+    assertEquals("P1", list.getProduct(0).getProductID());
+    assertEquals(1, list.getProductCount());
+  }
+}
@@ -0,0 +1,136 @@
+package OpenRate.lang;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ValidityTimelineTest {
+
+  private ValidityTimeline<String> timeline;
+
+  @Before
+  public void init() {
+    timeline = new ValidityTimeline<>();
+  }
+
+  @Test
+  public void testDisjointPeriods() {
+    timeline.add(100, 200, "A");
+    timeline.add(200, 300, "B");
+    timeline.add(400, 500, "C");
+
+    assertEquals(-1, timeline.findFirst(99));
+    assertEquals(0, timeline.findFirst(100));
+    assertEquals(0, timeline.findFirst(199));
+    assertEquals(1, timeline.findFirst(200));
+    assertEquals(-1, timeline.findFirst(300));
+    assertEquals(2, timeline.findFirst(499));
+    assertEquals(-1, timeline.findFirst(500));
+    assertEquals("C", timeline.getValue(2));
+
+    assertArrayEquals(new int[] {1}, timeline.findAll(250));
+    assertArrayEquals(new int[0], timeline.findAll(350));
+  }
+
+  @Test
+  public void testOverlappingPeriodsKeepPriority() {
+    timeline.add(300, 400, "LATE");
+    timeline.add(0, 1000, "ALL");
+    timeline.add(350, 360, "SHORT");
+
+    assertEquals(1, timeline.findFirst(100));
+    assertEquals(0, timeline.findFirst(355));
+    assertArrayEquals(new int[] {0, 1, 2}, timeline.findAll(355));
+    assertArrayEquals(new int[] {0, 1}, timeline.findAll(390));
+    assertArrayEquals(new int[0], timeline.findAll(1000));
+
+    // inserting at the front changes the priority, and is seen by the search
+    timeline.insert(0, 350, 352, "FIRST");
+    assertEquals("FIRST", timeline.getValue(timeline.findFirst(351)));
+    assertEquals("LATE", timeline.getValue(timeline.findFirst(353)));
+  }
+
+  @Test
+  public void testFindFirstWithMatcher() {
+    ValidityTimeline.Matcher<String> notAll = new ValidityTimeline.Matcher<String>() {
+      @Override
+      public boolean matches(String value) {
+        return !value.equals("ALL");
+      }
+    };
+
+    timeline.add(0, 1000, "ALL");
+    timeline.add(300, 400, "LATE");
+
+    assertEquals(1, timeline.findFirst(350, notAll));
+    assertEquals(-1, timeline.findFirst(100, notAll));
+
+    // a timeline without overlaps is searched in the same way
+    timeline = new ValidityTimeline<>();
+    timeline.add(0, 100, "ALL");
+    timeline.add(100, 200, "LATE");
+
+    assertEquals(-1, timeline.findFirst(50, notAll));
+    assertEquals(1, timeline.findFirst(150, notAll));
+  }
+
+  @Test
+  public void testFindLatest() {
+    timeline.add(100, 0, "A");
+    timeline.add(200, 0, "B");
+    timeline.insert(1, 150, 0, "AB");
+
+    assertEquals(-1, timeline.findLatest(99));
+    assertEquals(0, timeline.findLatest(149));
+    assertEquals(1, timeline.findLatest(150));
+    assertEquals(2, timeline.findLatest(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testInsertOutsideTimeline() {
+    timeline.add(100, 200, "A");
+
+    try {
+      timeline.insert(2, 300, 400, "B");
+      fail("Insert outside the timeline not detected");
+    } catch (IndexOutOfBoundsException ex) {
+      assertEquals(1, timeline.size());
+    }
+  }
+
+  @Test
+  public void testSearchMatchesLinearScan() {
+    Random random = new Random(42);
+
+    for (int round = 0; round < 200; round++) {
+      ValidityTimeline<Integer> randomTimeline = new ValidityTimeline<>();
+      int periods = random.nextInt(20);
+
+      for (int i = 0; i < periods; i++) {
+        long start = random.nextInt(100);
+        randomTimeline.add(start, start + random.nextInt(30), i);
+      }
+
+      for (long time = -1; time <= 130; time++) {
+        int[] expected = new int[periods];
+        int count = 0;
+
+        for (int i = 0; i < periods; i++) {
+          if ((randomTimeline.getFrom(i) <= time) && (randomTimeline.getTo(i) > time)) {
+            expected[count++] = i;
+          }
+        }
+
+        expected = Arrays.copyOf(expected, count);
+        assertArrayEquals(expected, randomTimeline.findAll(time));
+        assertEquals((count == 0) ? -1 : expected[0], randomTimeline.findFirst(time));
+      }
+    }
+  }
+}
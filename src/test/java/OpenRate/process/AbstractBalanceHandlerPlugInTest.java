@@ -194,16 +194,16 @@ public class AbstractBalanceHandlerPlugInTest implements IPlugIn
         // Add the counter - give it an initial balance of 10
         double expCounterBal = 10;
         result = instance.addCounter(BalanceGroupId, CounterId, ValidFrom, ValidTo, 10);
-        Assert.assertEquals(expCounterBal, result.CurrentBalance, 0.00001);
+        Assert.assertEquals(expCounterBal, result.getCurrentBalance(), 0.00001);
 
         // get the counter
         expResult = new Counter();
-        expResult.CurrentBalance = 10;
+        expResult.setCurrentBalance(10);
         expResult.RecId = 1;
         expResult.validFrom = ValidFrom;
         expResult.validTo = ValidTo;
         result = instance.getCounter(BalanceGroupId, CounterId, UTCEventDate);
-        Assert.assertEquals(expResult.CurrentBalance, result.CurrentBalance, 0.00001);
+        Assert.assertEquals(expResult.getCurrentBalance(), result.getCurrentBalance(), 0.00001);
         Assert.assertEquals(expResult.RecId, result.RecId);
         Assert.assertEquals(expResult.validFrom, result.validFrom);
         Assert.assertEquals(expResult.validTo, result.validTo);
@@ -216,17 +216,17 @@ public class AbstractBalanceHandlerPlugInTest implements IPlugIn
         // Create a new one
         expCounterBal = 11;
         result = instance.addCounter(BalanceGroupId, CounterId, ValidFrom+10, ValidTo+10, 11);
-        Assert.assertEquals(expCounterBal, result.CurrentBalance, 0.00001);
+        Assert.assertEquals(expCounterBal, result.getCurrentBalance(), 0.00001);
 
         // Get the first counter
         expCounterBal = 10;
         result = instance.getCounter(BalanceGroupId, CounterId, UTCEventDate);
-        Assert.assertEquals(expCounterBal, result.CurrentBalance, 0.00001);
+        Assert.assertEquals(expCounterBal, result.getCurrentBalance(), 0.00001);
 
         // and the second counter
         expCounterBal = 11;
         result = instance.getCounter(BalanceGroupId, CounterId, UTCEventDate+10);
-        Assert.assertEquals(expCounterBal, result.CurrentBalance, 0.00001);
+        Assert.assertEquals(expCounterBal, result.getCurrentBalance(), 0.00001);
         Assert.assertEquals(2, result.RecId);
 
         // and a non existent counter
@@ -236,12 +236,12 @@ public class AbstractBalanceHandlerPlugInTest implements IPlugIn
         // Try to add a counter over the top of existing ones
         result = instance.addCounter(BalanceGroupId, CounterId, ValidFrom+5, ValidTo+5, 12);
         Assert.assertEquals(3, result.RecId);
-        Assert.assertEquals(12, result.CurrentBalance, 0.00001);
+        Assert.assertEquals(12, result.getCurrentBalance(), 0.00001);
 
         // Now try to get the overlaid balances back - we should bet the first
         expCounterBal = 10;
         result = instance.getCounter(BalanceGroupId, CounterId, UTCEventDate+6);
-        Assert.assertEquals(expCounterBal, result.CurrentBalance, 0.00001);
+        Assert.assertEquals(expCounterBal, result.getCurrentBalance(), 0.00001);
         Assert.assertEquals(1, result.RecId);
     }
 
@@ -16,6 +16,9 @@ import java.sql.SQLException;
 import java.util.Calendar;
 import org.junit.*;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -672,6 +675,44 @@ public class AbstractRUMRateCalcTest {
     assertEquals(expResult, getRollUp(ratingRecord), 0.00001);
   }
 
+  /**
+   * Test of the main performRating method, of class AbstractRUMRateCalc. A
+   * packet that does not need expanding is rated in place, and a record with
+   * an unknown price group keeps its packets as they were.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test
+  public void testPerformRatingInPlace() throws Exception {
+    TestRatingRecord ratingRecord;
+    System.out.println("testPerformRatingInPlace");
+
+    ConversionUtils conv = ConversionUtils.getConversionUtilsObject();
+    conv.setInputDateFormat("yyyy-MM-dd hh:mm:ss");
+    long CDRDate = conv.convertInputDateToUTC("2010-01-23 00:00:00");
+
+    ratingRecord = getNewRatingRecordDUR(CDRDate, "TestModel1", 61);
+    ChargePacket originalCP = ratingRecord.getChargePacket(0);
+    instance.performRating(ratingRecord);
+    assertEquals(1, ratingRecord.getChargePacketCount());
+    assertSame(originalCP, ratingRecord.getChargePacket(0));
+    assertEquals("TIERED", originalCP.ratingTypeDesc);
+    assertEquals("TestModel1", originalCP.getTimeZones().get(0).priceModel);
+    assertEquals(2.0, getRollUp(ratingRecord), 0.00001);
+
+    // the second packet is in error, so the first is not prepared either
+    ratingRecord = getNewRatingRecordDUR(CDRDate, "TestModel1", 61);
+    ChargePacket unknownCP = new ChargePacket();
+    TimePacket unknownTZ = new TimePacket();
+    unknownTZ.priceGroup = "Unknown";
+    unknownCP.addTimeZone(unknownTZ);
+    ratingRecord.addChargePacket(unknownCP);
+    assertFalse(instance.performRating(ratingRecord));
+    assertEquals(2, ratingRecord.getChargePacketCount());
+    assertNull(ratingRecord.getChargePacket(0).ratingTypeDesc);
+    assertNull(ratingRecord.getChargePacket(0).getTimeZones().get(0).priceModel);
+  }
+
   /**
    * Roll up the charged values from each of the charge packets.
    *
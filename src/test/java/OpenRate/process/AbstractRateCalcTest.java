@@ -4,12 +4,16 @@ package OpenRate.process;
 import OpenRate.OpenRate;
 import OpenRate.exception.InitializationException;
 import OpenRate.exception.ProcessingException;
+import OpenRate.record.CompiledPriceModel;
 import OpenRate.record.IRecord;
+import OpenRate.record.RateMapEntry;
+import OpenRate.record.RatingResult;
 import OpenRate.utils.ConversionUtils;
 import TestUtils.FrameworkUtils;
 import java.net.URL;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import static org.junit.Assert.assertEquals;
 import org.junit.*;
 
@@ -652,6 +656,53 @@ public class AbstractRateCalcTest {
     assertEquals(expResult, result, 0.00001);
   }
 
+  /**
+   * Test of the compiled rating methods, of class AbstractRateCalc. This test
+   * uses a model whose second tier only starts after the first one, which flat
+   * rating and event rating that does not reach the second tier can still use.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test
+  public void testRateCompiledLaterTierStartsLater() throws Exception {
+    System.out.println("rateCompiledLaterTierStartsLater");
+
+    RateMapEntry tier1 = getTier(1, 0, 60, 1, 0);
+    RateMapEntry tier2 = getTier(2, 60, 999999, 0.5, 1000);
+    ArrayList<RateMapEntry> tiers = new ArrayList<>();
+    tiers.add(tier1);
+    tiers.add(tier2);
+    CompiledPriceModel model = CompiledPriceModel.compile("Staged", tiers);
+
+    // before the second tier starts
+    long CDRDate = 500;
+    RatingResult result = instance.performRateEvaluationFlat("Staged", model, 120, CDRDate, false, new RatingResult());
+    assertEquals(2.0, result.RatedValue, 0.00001);
+    result = instance.performRateEvaluationEvent("Staged", model, 30, CDRDate, false, new RatingResult());
+    assertEquals(30.0, result.RatedValue, 0.00001);
+
+    try {
+      instance.performRateEvaluationEvent("Staged", model, 120, CDRDate, false, new RatingResult());
+      Assert.fail("the second tier was rated before its start");
+    } catch (ProcessingException ex) {
+      // expected
+    }
+
+    try {
+      instance.performRateEvaluationTiered("Staged", model, 30, 0, CDRDate, false, new RatingResult());
+      Assert.fail("a tiered model was rated without all of its tiers");
+    } catch (ProcessingException ex) {
+      // expected
+    }
+
+    // after the second tier starts
+    CDRDate = 1000;
+    result = instance.performRateEvaluationEvent("Staged", model, 120, CDRDate, false, new RatingResult());
+    assertEquals(90.0, result.RatedValue, 0.00001);
+    result = instance.performRateEvaluationTiered("Staged", model, 120, 0, CDRDate, false, new RatingResult());
+    assertEquals(1.5, result.RatedValue, 0.00001);
+  }
+
   /**
    * Test of authCalculateTiered method, of class AbstractRateCalc. Work out how
    * much RUM can be got for the current available balance.
@@ -883,4 +934,19 @@ public class AbstractRateCalcTest {
   private void releaseInstance() {
     instance = null;
   }
+
+  /**
+   * Method to get a tier of a price model, with a beat and charge base of 60.
+   */
+  private static RateMapEntry getTier(int step, double from, double to, double factor, long startTime) {
+    RateMapEntry tier = new RateMapEntry();
+    tier.setStep(step);
+    tier.setFrom(from);
+    tier.setTo(to);
+    tier.setBeat(60);
+    tier.setFactor(factor);
+    tier.setChargeBase(60);
+    tier.setStartTime(startTime);
+    return tier;
+  }
 }
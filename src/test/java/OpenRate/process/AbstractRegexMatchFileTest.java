@@ -241,6 +241,53 @@ public class AbstractRegexMatchFileTest
     Assert.assertEquals(resultCount, result.size());
   }
 
+  /**
+   * Test that the search keeps the priority order over entries with literal
+   * values, literal prefixes and other regexes.
+   */
+  @Test
+  public void testGetRegexMatchPriority()
+  {
+    System.out.println("getRegexMatch (Priority) File");
+
+    String Group = "CompiledMap";
+    ArrayList<String> result;
+
+    // literal entry first
+    Assert.assertEquals("LITERAL1", instance.getRegexMatch(Group, new String[] {"00441234", "5"}));
+
+    // literal entry excluded, the longer prefix comes before the shorter one
+    Assert.assertEquals("PREFIX2", instance.getRegexMatch(Group, new String[] {"00441234", "91"}));
+
+    // numerical entry before the prefixes
+    Assert.assertEquals("OTHER1", instance.getRegexMatch(Group, new String[] {"00449", "5.0"}));
+    Assert.assertEquals("PREFIX1", instance.getRegexMatch(Group, new String[] {"00449", "6"}));
+
+    // alternatives and optional characters
+    Assert.assertEquals("ALT1", instance.getRegexMatch(Group, new String[] {"00452", "6"}));
+    Assert.assertEquals("ALT1", instance.getRegexMatch(Group, new String[] {"0045", "6"}));
+    Assert.assertEquals("DEFAULT", instance.getRegexMatch(Group, new String[] {"004", "6"}));
+
+    // only the first field
+    Assert.assertEquals("LITERAL1", instance.getRegexMatch(Group, new String[] {"00441234"}));
+
+    result = instance.getAllEntries(Group, new String[] {"00441234", "5"});
+    Assert.assertEquals(6, result.size());
+    Assert.assertEquals("LITERAL1", result.get(0));
+    Assert.assertEquals("OTHER1", result.get(1));
+    Assert.assertEquals("PREFIX2", result.get(2));
+    Assert.assertEquals("PREFIX1", result.get(3));
+    Assert.assertEquals("LITERAL2", result.get(4));
+    Assert.assertEquals("DEFAULT", result.get(5));
+
+    result = instance.getAllEntries(Group, new String[] {"00441234", "91"});
+    Assert.assertEquals(4, result.size());
+    Assert.assertEquals("PREFIX2", result.get(0));
+    Assert.assertEquals("PREFIX1", result.get(1));
+    Assert.assertEquals("LITERAL2", result.get(2));
+    Assert.assertEquals("DEFAULT", result.get(3));
+  }
+
   /**
    * Test of isValidRegexMatchResult method, of class AbstractRegexMatch.
    */
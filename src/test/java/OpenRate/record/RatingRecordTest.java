@@ -0,0 +1,125 @@
+package OpenRate.record;
+
+import TestUtils.TestRatingRecord;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.*;
+
+/**
+ * Unit test for the RUM values of RatingRecord.
+ */
+public class RatingRecordTest
+{
+  /**
+   * RUM values are set, updated and read by name and by ID.
+   */
+  @Test
+  public void testRUMValues()
+  {
+    System.out.println("RUMValues");
+
+    RatingRecord instance = new TestRatingRecord();
+
+    Assert.assertFalse(instance.updateRUMValue("DUR", 10));
+    Assert.assertEquals(0, instance.getRUMValue("DUR"), 0.0);
+
+    instance.setRUMValue("DUR", 60);
+    instance.setRUMValue("EVT", 1);
+    Assert.assertTrue(instance.updateRUMValue("DUR", -20));
+    instance.setRUMValue("EVT", 2);
+
+    int durId = RUMRegistry.findRUMId("DUR");
+    Assert.assertEquals(durId, RUMRegistry.getRUMId("DUR"));
+    Assert.assertEquals("DUR", RUMRegistry.getRUMName(durId));
+    Assert.assertEquals(40, instance.getRUMValue(durId), 0.0);
+    Assert.assertEquals(60, instance.getOriginalRUMValue("DUR"), 0.0);
+    Assert.assertEquals(2, instance.getRUMValue("EVT"), 0.0);
+    Assert.assertEquals(1, instance.getOriginalRUMValue("EVT"), 0.0);
+
+    // a name that was never set has no ID and no value
+    Assert.assertEquals(-1, RUMRegistry.findRUMId("NeverSet"));
+    Assert.assertEquals(0, instance.getRUMValue("NeverSet"), 0.0);
+    Assert.assertEquals(0, instance.getRUMValue((String) null), 0.0);
+
+    // the list holds the RUMs in the order they were set
+    List<RUMInfo> rums = instance.getRUMs();
+    Assert.assertEquals(2, rums.size());
+    Assert.assertEquals("DUR", rums.get(0).RUMName);
+    Assert.assertEquals(60, rums.get(0).OrigQuantity, 0.0);
+    Assert.assertEquals(40, rums.get(0).RUMQuantity, 0.0);
+    Assert.assertEquals("EVT", rums.get(1).RUMName);
+  }
+
+  /**
+   * The RUM IDs kept by the record grow past their initial size.
+   */
+  @Test
+  public void testManyRUMs()
+  {
+    System.out.println("manyRUMs");
+
+    RatingRecord instance = new TestRatingRecord();
+
+    for (int i = 0; i < 10; i++)
+    {
+      instance.setRUMValue("RUM" + i, i);
+    }
+
+    Assert.assertEquals(10, instance.getRUMs().size());
+
+    for (int i = 0; i < 10; i++)
+    {
+      Assert.assertEquals(i, instance.getRUMValue("RUM" + i), 0.0);
+    }
+  }
+
+  /**
+   * Changes made through the RUM list, or the deprecated RUMs field, are seen
+   * by the record.
+   */
+  @Test
+  @SuppressWarnings("deprecation")
+  public void testRUMListIsWritable()
+  {
+    System.out.println("RUMListIsWritable");
+
+    RatingRecord instance = new TestRatingRecord();
+
+    instance.setRUMValue("DUR", 60);
+    Assert.assertSame(instance.RUMs, instance.getRUMs());
+
+    // an entry changed in place
+    instance.getRUMs().get(0).RUMQuantity = 30;
+    Assert.assertEquals(30, instance.getRUMValue("DUR"), 0.0);
+
+    // entries added, replaced and removed directly
+    instance.RUMs.add(new RUMInfo("DirectOnly", 5));
+    Assert.assertEquals(5, instance.getRUMValue("DirectOnly"), 0.0);
+    Assert.assertTrue(instance.updateRUMValue("DirectOnly", 1));
+    Assert.assertEquals(6, instance.RUMs.get(1).RUMQuantity, 0.0);
+
+    instance.getRUMs().set(0, new RUMInfo("EVT", 1));
+    Assert.assertEquals(0, instance.getRUMValue("DUR"), 0.0);
+    Assert.assertEquals(1, instance.getRUMValue("EVT"), 0.0);
+
+    instance.getRUMs().remove(0);
+    Assert.assertEquals(0, instance.getRUMValue("EVT"), 0.0);
+    Assert.assertEquals(6, instance.getRUMValue("DirectOnly"), 0.0);
+
+    // a list put in place of the field
+    instance.RUMs = new ArrayList<>();
+    instance.RUMs.add(new RUMInfo("DUR", 10));
+    Assert.assertEquals(10, instance.getRUMValue("DUR"), 0.0);
+    Assert.assertEquals(0, instance.getRUMValue("DirectOnly"), 0.0);
+
+    // which is indexed again when it is changed
+    instance.setRUMValue("EVT", 2);
+    Assert.assertEquals(2, instance.RUMs.size());
+    instance.RUMs.set(0, new RUMInfo("DirectOnly", 7));
+    Assert.assertEquals(0, instance.getRUMValue("DUR"), 0.0);
+    Assert.assertEquals(7, instance.getRUMValue("DirectOnly"), 0.0);
+    instance.RUMs.remove(0);
+    Assert.assertEquals(0, instance.getRUMValue("DirectOnly"), 0.0);
+    Assert.assertEquals(2, instance.getRUMValue("EVT"), 0.0);
+  }
+}
@@ -0,0 +1,125 @@
+package OpenRate.threads;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ThreadPoolTest {
+
+  private ThreadPool pool;
+
+  @After
+  public void cleanup() {
+    if (pool != null) {
+      pool.close();
+    }
+  }
+
+  @Test
+  public void testBurstIsQueued() {
+    final AtomicInteger done = new AtomicInteger();
+    pool = new ThreadPool("TestPool", 2, 4, ThreadPool.POLICY_BLOCK);
+
+    // far more work than workers and queue slots: the old pool threw here
+    for (int i = 0; i < 100; i++) {
+      pool.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            Thread.sleep(1);
+          } catch (InterruptedException e) {
+            // ignore
+          }
+          done.incrementAndGet();
+        }
+      });
+    }
+
+    pool.join();
+
+    assertEquals(100, done.get());
+    assertEquals(100, pool.getTaskCount());
+    assertEquals(0, pool.getQueueDepth());
+    assertTrue(pool.getAverageLatency() > 0);
+    assertTrue(pool.getMaxLatency() >= pool.getAverageLatency());
+  }
+
+  @Test
+  public void testCallerRuns() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger callerRan = new AtomicInteger();
+    final Thread caller = Thread.currentThread();
+    pool = new ThreadPool("TestPool", 1, 1, ThreadPool.POLICY_CALLER_RUNS);
+
+    Runnable blocker = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          // ignore
+        }
+      }
+    };
+
+    // occupy the worker and the queue slot
+    pool.execute(blocker);
+    while (pool.getQueueDepth() > 0) {
+      Thread.sleep(1);
+    }
+    pool.execute(blocker);
+
+    pool.execute(new Runnable() {
+      @Override
+      public void run() {
+        if (Thread.currentThread() == caller) {
+          callerRan.incrementAndGet();
+        }
+      }
+    });
+
+    assertEquals(1, callerRan.get());
+    assertEquals(1, pool.getActiveCount());
+    assertEquals(1, pool.getQueueDepth());
+
+    release.countDown();
+    pool.join();
+
+    assertEquals(3, pool.getTaskCount());
+  }
+
+  @Test
+  public void testJoinDoesNotPoll() {
+    pool = new ThreadPool(1);
+
+    pool.execute(new Runnable() {
+      @Override
+      public void run() {
+        // nothing
+      }
+    });
+
+    long start = System.currentTimeMillis();
+    pool.join();
+
+    // the old pool slept a second between checks
+    assertTrue(System.currentTimeMillis() - start < 500);
+  }
+
+  @Test
+  public void testControlEvents() {
+    pool = new ThreadPool("TestPool", 1, 1, ThreadPool.POLICY_BLOCK);
+
+    assertEquals("0", pool.processControlEvent("QueueDepth", false, ""));
+    assertEquals("0", pool.processControlEvent("TaskCount", false, ""));
+    assertEquals("Block", pool.processControlEvent("RejectionPolicy", false, ""));
+    assertTrue(!"OK".equals(pool.processControlEvent("RejectionPolicy", false, "Discard")));
+    assertEquals("Block", pool.getRejectionPolicy());
+    assertEquals("Command Not Understood", pool.processControlEvent("Unknown", false, ""));
+  }
+}
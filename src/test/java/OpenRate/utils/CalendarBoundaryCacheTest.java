@@ -0,0 +1,128 @@
+package OpenRate.utils;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.TimeZone;
+import org.junit.*;
+
+/**
+ * Unit test for CalendarBoundaryCache.
+ */
+public class CalendarBoundaryCacheTest
+{
+  /**
+   * The boundaries match those worked out with a Calendar, over the daylight
+   * saving switches too.
+   */
+  @Test
+  public void testBoundariesMatchCalendar()
+  {
+    System.out.println("boundariesMatchCalendar");
+
+    for (String zone : new String[] {"Europe/Berlin", "America/Sao_Paulo", "UTC"})
+    {
+      TimeZone tz = TimeZone.getTimeZone(zone);
+      CalendarBoundaryCache instance = new CalendarBoundaryCache(tz);
+      Calendar cal = new GregorianCalendar(tz);
+
+      Random random = new Random(zone.hashCode());
+      for (int i = 0; i < 20000; i++)
+      {
+        // every hour over the switch on 30th March 2014 and over the switch at
+        // midnight on 20th October 2013 in Sao Paulo, then random
+        long utc;
+        if (i < 100)
+        {
+          utc = 1396130400L + i * 3600;
+        }
+        else if (i < 200)
+        {
+          utc = 1382140800L + (i - 100) * 3600;
+        }
+        else
+        {
+          utc = (long) (random.nextDouble() * 2e9);
+        }
+
+        CalendarBoundaryCache.Boundaries result = instance.getBoundaries(utc);
+        int offset = random.nextInt(61) - 30;
+
+        cal.setTimeInMillis(utc * 1000);
+        Assert.assertEquals(cal.get(Calendar.YEAR) * 12 + cal.get(Calendar.MONTH) + 1, result.monthIndex);
+        Assert.assertEquals(cal.getActualMaximum(Calendar.DAY_OF_MONTH), result.daysInMonth);
+
+        setDayStart(cal);
+        Assert.assertEquals(getSeconds(cal), result.dayStart);
+
+        // the ends are the second before the start of the next period, which
+        // is not always 24 hours on where midnight is a daylight saving switch
+        cal.add(Calendar.DATE, 1);
+        setDayStart(cal);
+        Assert.assertEquals(getSeconds(cal) - 1, result.dayEnd);
+
+        cal.setTimeInMillis(utc * 1000);
+        cal.add(Calendar.DATE, offset);
+        setDayStart(cal);
+        Assert.assertEquals(getSeconds(cal), instance.getBoundaries(utc, offset).dayStart);
+        cal.add(Calendar.DATE, 1);
+        setDayStart(cal);
+        Assert.assertEquals(getSeconds(cal) - 1, instance.getBoundaries(utc, offset).dayEnd);
+
+        cal.setTimeInMillis(utc * 1000);
+        cal.set(Calendar.DATE, 1);
+        setDayStart(cal);
+        Assert.assertEquals(getSeconds(cal), result.monthStart);
+        cal.add(Calendar.MONTH, 1);
+        setDayStart(cal);
+        Assert.assertEquals(getSeconds(cal) - 1, result.monthEnd);
+
+        cal.setTimeInMillis(utc * 1000);
+        cal.set(Calendar.DAY_OF_YEAR, 1);
+        setDayStart(cal);
+        Assert.assertEquals(getSeconds(cal), result.yearStart);
+        cal.add(Calendar.YEAR, 1);
+        setDayStart(cal);
+        Assert.assertEquals(getSeconds(cal) - 1, result.yearEnd);
+      }
+    }
+  }
+
+  // Set the calendar to the start of its day
+  private static void setDayStart(Calendar cal)
+  {
+    cal.set(Calendar.HOUR_OF_DAY, 0);
+    cal.set(Calendar.MINUTE, 0);
+    cal.set(Calendar.SECOND, 0);
+    cal.set(Calendar.MILLISECOND, 0);
+  }
+
+  // The date of the calendar in seconds
+  private static long getSeconds(Calendar cal)
+  {
+    return cal.getTimeInMillis() / 1000;
+  }
+
+  /**
+   * Days can be moved on and back, and the end of a leap year is its last day.
+   */
+  @Test
+  public void testOffsetsAndLeapYear()
+  {
+    System.out.println("offsetsAndLeapYear");
+
+    CalendarBoundaryCache instance = new CalendarBoundaryCache(TimeZone.getTimeZone("UTC"));
+
+    // 2012-02-28 12:00:00 UTC
+    long utc = 1330430400;
+
+    Assert.assertEquals(1330387200, instance.getBoundaries(utc).dayStart);
+    Assert.assertEquals(1330473600, instance.getBoundaries(utc, 1).dayStart);
+    Assert.assertEquals(1330560000 - 1, instance.getBoundaries(utc, 1).dayEnd);
+    Assert.assertEquals(1330300800, instance.getBoundaries(utc, -1).dayStart);
+    Assert.assertEquals(29, instance.getBoundaries(utc).daysInMonth);
+
+    // 2012-12-31 23:59:59 UTC
+    Assert.assertEquals(1356998399, instance.getBoundaries(utc).yearEnd);
+  }
+}
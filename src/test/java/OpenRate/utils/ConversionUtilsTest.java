@@ -597,6 +597,38 @@ public class ConversionUtilsTest {
     Assert.assertEquals(expResult, result);
   }
 
+  /**
+   * Test of the day and year ends of class ConversionUtils: getUTCDayStart
+   * with an offset gives the start of the day, a leap year ends on 31st
+   * December, and a day that starts at 01:00 because midnight is a daylight
+   * saving switch ends at 23:59:59. These used to give the end of the day,
+   * 30th December and 00:59:59 of the next day.
+   */
+  @Test
+  public void testGetDayAndYearEnds() {
+    System.out.println("getDayAndYearEnds");
+
+    ConversionUtils conv = new ConversionUtils();
+    conv.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+    // 2012-02-28 12:00:00 UTC
+    Date EventStartDate = conv.getDateFromUTC(1330430400);
+
+    // 2012-02-29 00:00:00 UTC, was 2012-02-29 23:59:59 (1330559999)
+    Assert.assertEquals(1330473600, conv.getUTCDayStart(EventStartDate, 1));
+
+    // 2012-12-31 23:59:59 UTC, was 2012-12-30 23:59:59 (1356911999)
+    Assert.assertEquals(1356998399, conv.getUTCYearEnd(EventStartDate));
+
+    conv.setTimeZone(TimeZone.getTimeZone("America/Sao_Paulo"));
+
+    // 2013-10-20 12:00:00 UTC, the day started at 01:00 local time
+    EventStartDate = conv.getDateFromUTC(1382270400);
+
+    // 2013-10-20 23:59:59 local time, was 2013-10-21 00:59:59 (1382324399)
+    Assert.assertEquals(1382320799, conv.getUTCDayEnd(EventStartDate));
+  }
+
   /**
    * Test of getRoundedValue method, of class ConversionUtils.
    */
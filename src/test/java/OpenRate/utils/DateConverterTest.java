@@ -0,0 +1,180 @@
+package OpenRate.utils;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.*;
+
+/**
+ * Unit test for DateConverter and ZoneOffsetCache.
+ */
+public class DateConverterTest
+{
+  // A zone with daylight saving
+  private static final TimeZone BERLIN = TimeZone.getTimeZone("Europe/Berlin");
+
+  /**
+   * The fixed layouts give the same dates as SimpleDateFormat, including around
+   * the daylight saving switches.
+   */
+  @Test
+  public void testFixedLayoutMatchesSimpleDateFormat() throws ParseException
+  {
+    System.out.println("fixedLayoutMatchesSimpleDateFormat");
+
+    String[] formats = {"yyyyMMddHHmmss", "yyyy-MM-dd HH:mm:ss", "dd/MM/yyyy"};
+
+    for (String format : formats)
+    {
+      for (boolean lenient : new boolean[] {false, true})
+      {
+        DateConverter instance = new DateConverter(format, lenient, BERLIN);
+        SimpleDateFormat sdf = new SimpleDateFormat(format);
+        sdf.setLenient(lenient);
+        sdf.setTimeZone(BERLIN);
+
+        Random random = new Random(format.hashCode());
+        for (int i = 0; i < 20000; i++)
+        {
+          // every 30 minutes over the switch on 30th March 2014, then random
+          long ms = (i < 200) ? 1396130400000L + i * 1800000L : 946684800000L + (long) (random.nextDouble() * 1.6e12);
+          String date = sdf.format(new Date(ms));
+
+          Assert.assertEquals(date, sdf.parse(date).getTime(), instance.parseUTCms(date, 0, date.length()));
+        }
+      }
+    }
+  }
+
+  /**
+   * Values out of range are left to SimpleDateFormat, which rejects them when
+   * it is not lenient and rolls them over when it is.
+   */
+  @Test
+  public void testOutOfRange() throws ParseException
+  {
+    System.out.println("outOfRange");
+
+    TimeZone utc = TimeZone.getTimeZone("UTC");
+    DateConverter instance = new DateConverter("yyyyMMddHHmmss", false, utc);
+
+    for (String date : new String[] {"20140230000000", "20141301000000", "20140101240000"})
+    {
+      try
+      {
+        instance.parseUTC(date);
+        Assert.fail("Expected a ParseException for <" + date + ">");
+      }
+      catch (ParseException ex)
+      {
+        // expected
+      }
+    }
+
+    // not a digit, so it is read as SimpleDateFormat reads it
+    Assert.assertEquals(1388534400, instance.parseUTC("2014010100000x"));
+
+    // leap years
+    Assert.assertEquals(1330473600, instance.parseUTC("20120229000000"));
+    Assert.assertEquals(951782400, instance.parseUTC("20000229000000"));
+
+    instance = new DateConverter("yyyyMMddHHmmss", true, utc);
+    Assert.assertEquals(instance.parseUTC("20140302000000"), instance.parseUTC("20140230000000"));
+  }
+
+  /**
+   * A date can be read from the middle of a line, and formatted back.
+   */
+  @Test
+  public void testSlice() throws ParseException
+  {
+    System.out.println("slice");
+
+    DateConverter instance = new DateConverter("yyyyMMddHHmmss", false, TimeZone.getTimeZone("UTC"));
+    String line = "A;20140101120000;B";
+
+    Assert.assertEquals(1388577600, instance.parseUTC(line, 2, 16));
+    Assert.assertEquals("20140101120000", instance.format(1388577600));
+  }
+
+  /**
+   * The day of the week and the minute of the day match those of a Calendar.
+   */
+  @Test
+  public void testDayOfWeekAndMinuteOfDay()
+  {
+    System.out.println("dayOfWeekAndMinuteOfDay");
+
+    ZoneOffsetCache instance = new ZoneOffsetCache(BERLIN);
+    Calendar cal = new GregorianCalendar(BERLIN);
+
+    Random random = new Random(1);
+    for (int i = 0; i < 20000; i++)
+    {
+      long utc = (i < 200) ? 1414281600L - 7200 + i * 60 : (long) (random.nextDouble() * 4e9) - 1000000000L;
+      cal.setTimeInMillis(utc * 1000);
+
+      Assert.assertEquals(cal.get(Calendar.DAY_OF_WEEK), instance.getDayOfWeek(utc));
+      Assert.assertEquals(cal.get(Calendar.HOUR_OF_DAY) * 60 + cal.get(Calendar.MINUTE), instance.getMinuteOfDay(utc));
+    }
+  }
+
+  /**
+   * One converter gives the right dates when it is used by many threads.
+   */
+  @Test
+  public void testConcurrentUse() throws Exception
+  {
+    System.out.println("concurrentUse");
+
+    final ConversionUtils instance = new ConversionUtils();
+    instance.setInputDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    ArrayList<Future<Boolean>> results = new ArrayList<>();
+
+    for (int t = 0; t < 4; t++)
+    {
+      final int thread = t;
+      results.add(executor.submit(new Callable<Boolean>()
+      {
+        @Override
+        public Boolean call() throws Exception
+        {
+          SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+
+          for (int i = 0; i < 5000; i++)
+          {
+            long utc = 1388534400L + (thread * 5000 + i) * 3607L;
+            String date = sdf.format(new Date(utc * 1000));
+
+            if (instance.convertInputDateToUTC(date) != utc)
+            {
+              return false;
+            }
+          }
+
+          return true;
+        }
+      }));
+    }
+
+    for (Future<Boolean> result : results)
+    {
+      Assert.assertTrue(result.get());
+    }
+
+    executor.shutdown();
+    executor.awaitTermination(10, TimeUnit.SECONDS);
+  }
+}